@@ -0,0 +1,59 @@
+#!/bin/bash
+# -----------------------------------------------------------------------------
+# bulkload.sh - Bulk loader start script
+#
+# $Id$
+# -----------------------------------------------------------------------------
+
+## @UNIX_INSTALLER_1@ 
+
+#
+# Stores files and directories into the database, building the indexes after
+# all files are stored. The database must not be running.
+#
+# In addition to the other parameter options for the bulk loader
+# pass -j or --jmx to enable JMX agent.  The port for it can be specified 
+# with optional port number e.g. -j1099 or --jmx=1099.
+#
+
+case "$0" in
+	/*)
+		SCRIPTPATH=$(dirname "$0")
+		;;
+	*)
+		SCRIPTPATH=$(dirname "$PWD/$0")
+		;;
+esac
+
+# source common functions and settings
+source "${SCRIPTPATH}"/functions.d/eXist-settings.sh
+source "${SCRIPTPATH}"/functions.d/jmx-settings.sh
+source "${SCRIPTPATH}"/functions.d/getopt-settings.sh
+
+get_opts "$@";
+
+check_exist_home "$0";
+
+set_exist_options;
+
+check_java_home;
+
+# set java options
+set_client_java_options;
+
+# enable the JMX agent? If so, concat to $JAVA_OPTIONS:
+check_jmx_status;
+
+# save LANG
+set_locale_lang;
+
+if [ "${QUIET_ENABLED}" -gt 0 ]; then
+    # Be quiet, no messages on stdout
+    "${JAVA_RUN}" ${JAVA_OPTIONS} ${OPTIONS} ${DEBUG_OPTS} -jar "$EXIST_HOME/start.jar" bulkload "${JAVA_OPTS[@]}" > /dev/null || exit 1 # forward non-zero exit status
+else
+    echo "Using locale: ${LANG}";
+    "${JAVA_RUN}" ${JAVA_OPTIONS} ${OPTIONS} ${DEBUG_OPTS} -jar "$EXIST_HOME/start.jar" bulkload "${JAVA_OPTS[@]}" || exit 1 # forward non-zero exit status
+
+fi
+
+restore_locale_lang;
@@ -0,0 +1,103 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist-db Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Counts the facet values of the hits of a query. The values are read from the
+ * doc values written at index time, so the nodes do not need to be loaded.
+ *
+ * Hits are counted by ordinal per index segment. The ordinals are resolved to
+ * values when the collector moves on to the next segment.
+ */
+public class FacetCounter {
+
+    private final String[] dimensions;
+    private final Map<String, Map<String, Integer>> counts = new TreeMap<>();
+
+    private final SortedSetDocValues[] values;
+    private final int[][] ordCounts;
+
+    public FacetCounter(List<String> dimensions) {
+        this.dimensions = dimensions.toArray(new String[dimensions.size()]);
+        this.values = new SortedSetDocValues[this.dimensions.length];
+        this.ordCounts = new int[this.dimensions.length][];
+        for (final String dimension : this.dimensions) {
+            counts.put(dimension, new TreeMap<>());
+        }
+    }
+
+    void setNextReader(AtomicReader reader) throws IOException {
+        flush();
+        for (int i = 0; i < dimensions.length; i++) {
+            values[i] = reader.getSortedSetDocValues(LuceneUtil.FIELD_FACET_PREFIX + dimensions[i]);
+            if (values[i] != null) {
+                ordCounts[i] = new int[(int) values[i].getValueCount()];
+            }
+        }
+    }
+
+    void collect(int doc) {
+        for (int i = 0; i < dimensions.length; i++) {
+            if (values[i] != null) {
+                values[i].setDocument(doc);
+                for (long ord = values[i].nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = values[i].nextOrd()) {
+                    ordCounts[i][(int) ord]++;
+                }
+            }
+        }
+    }
+
+    private void flush() {
+        for (int i = 0; i < dimensions.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            final Map<String, Integer> dimensionCounts = counts.get(dimensions[i]);
+            for (int ord = 0; ord < ordCounts[i].length; ord++) {
+                if (ordCounts[i][ord] > 0) {
+                    final BytesRef term = values[i].lookupOrd(ord);
+                    dimensionCounts.merge(term.utf8ToString(), ordCounts[i][ord], Integer::sum);
+                }
+            }
+            values[i] = null;
+            ordCounts[i] = null;
+        }
+    }
+
+    /**
+     * Returns the number of hits for each value of each dimension. Values without hits
+     * are not included.
+     *
+     * @return the counts, keyed by dimension and value
+     */
+    public Map<String, Map<String, Integer>> getCounts() {
+        flush();
+        return counts;
+    }
+}
@@ -38,6 +38,7 @@ public class FieldType {
 	private final static String ANALYZER_ID_ATTR = "analyzer";
 	private final static String BOOST_ATTRIB = "boost";
 	private final static String STORE_ATTRIB = "store";
+	private final static String OFFSETS_ATTRIB = "offsets";
 	
 	private String id = null;
 	
@@ -49,6 +50,9 @@ public class FieldType {
 	private float boost = -1;
     
 	private Field.Store store = null;
+
+	// record term positions and offsets, so stored fields can be highlighted without analyzing them again
+	private boolean storeOffsets = false;
 	
     public FieldType(Element config, AnalyzerConfig analyzers) throws DatabaseConfigurationException {
         
@@ -84,6 +88,9 @@ public class FieldType {
         if (storeAttr != null && storeAttr.length() > 0) {
         	store = storeAttr.equalsIgnoreCase("yes") ? Field.Store.YES : Field.Store.NO;
         }
+
+        String offsetsAttr = config.getAttribute(OFFSETS_ATTRIB);
+        storeOffsets = offsetsAttr != null && offsetsAttr.equalsIgnoreCase("yes");
     }
     
     public String getId() {
@@ -105,4 +112,8 @@ public class FieldType {
 	public Field.Store getStore() {
 		return store;
 	}
+
+	public boolean isStoreOffsets() {
+		return storeOffsets;
+	}
 }
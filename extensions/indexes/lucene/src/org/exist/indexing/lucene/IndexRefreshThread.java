@@ -0,0 +1,115 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.util.ThreadUtils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reopens the searcher of a Lucene index in the background, so changes become
+ * visible to searches without every search having to wait for the reopen.
+ *
+ * The thread refreshes twice per staleness interval. A search only refreshes on
+ * its own if the last refresh is older than the maximum staleness, e.g. because
+ * a refresh took longer than expected.
+ */
+class IndexRefreshThread implements Runnable {
+
+    private static final Logger LOG = LogManager.getLogger(IndexRefreshThread.class);
+
+    private final LuceneIndex index;
+    private final long intervalNanos;
+    private final Thread thread;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition stopped = lock.newCondition();
+
+    // used as termination flag, volatile semantics are sufficient
+    private volatile boolean shutdown = false;
+
+    /**
+     * @param index the index to refresh
+     * @param maxStaleness the maximum time in milliseconds a search may lag behind the writer
+     */
+    IndexRefreshThread(final LuceneIndex index, final long maxStaleness) {
+        this.index = index;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, maxStaleness / 2));
+        this.thread = ThreadUtils.newInstanceThread(index.getBrokerPool(), threadName(index), this);
+        thread.setDaemon(true);
+    }
+
+    static String threadName(final LuceneIndex index) {
+        return index.getDirName() + "-index-refresh";
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops the thread and waits for it to end. A refresh in progress is completed.
+     */
+    void shutdown() {
+        shutdown = true;
+        lock.lock();
+        try {
+            stopped.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!shutdown) {
+            lock.lock();
+            try {
+                long remaining = intervalNanos;
+                while (remaining > 0 && !shutdown) {
+                    remaining = stopped.awaitNanos(remaining);
+                }
+            } catch (final InterruptedException e) {
+                break;
+            } finally {
+                lock.unlock();
+            }
+            if (shutdown) {
+                break;
+            }
+
+            try {
+                index.refresh();
+            } catch (final IOException | RuntimeException e) {
+                LOG.warn("Background refresh of the " + index.getDirName() + " index failed: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.exist.backup.RawDataBackup;
 import org.exist.indexing.AbstractIndex;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.RawBackupSupport;
+import org.exist.management.AgentFactory;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.btree.DBException;
@@ -47,6 +48,10 @@ import org.w3c.dom.NodeList;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     
@@ -68,6 +73,25 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     protected SearcherManager searcherManager = null;
     protected ReaderManager readerManager = null;
 
+    /**
+     * Maximum time in milliseconds a search may lag behind the writer. If 0, every search
+     * sees all changes released so far.
+     */
+    protected long maxStaleness = 0;
+    private IndexRefreshThread refreshThread = null;
+
+    // number of times the writer was released, used to skip refreshes when nothing changed
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong refreshedChanges = new AtomicLong();
+    private volatile long lastRefresh = System.nanoTime();
+
+    private final LongAdder refreshCount = new LongAdder();
+    private final LongAdder refreshNanos = new LongAdder();
+    private final AtomicLong maxRefreshNanos = new AtomicLong();
+    private final LongAdder commitCount = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+    private volatile long lastCommitNanos = 0;
+
     public LuceneIndex() {
         //Nothing special to do
     }
@@ -92,6 +116,14 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
         if (LOG.isDebugEnabled())
             LOG.debug("Using buffer size: " + bufferSize);
+
+        String maxStalenessParam = config.getAttribute("max-staleness");
+        if (maxStalenessParam != null && !maxStalenessParam.isEmpty())
+            try {
+                maxStaleness = Math.max(0, Long.parseLong(maxStalenessParam));
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid max-staleness setting for lucene index: " + maxStalenessParam, e);
+            }
         
         NodeList nl = config.getElementsByTagName("analyzer");
         if (nl.getLength() > 0) {
@@ -129,17 +161,38 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
             searcherManager = new SearcherManager(cachedWriter, true, null);
             readerManager = new ReaderManager(cachedWriter, true);
+            lastRefresh = System.nanoTime();
+
+            if (maxStaleness > 0) {
+                refreshThread = new IndexRefreshThread(this, maxStaleness);
+                refreshThread.start();
+            }
         } catch (IOException e) {
             throw new DatabaseConfigurationException("Exception while reading lucene index directory: " +
                 e.getMessage(), e);
         } finally {
             releaseWriter(writer);
         }
+        registerMBean();
+    }
+
+    private void registerMBean() {
+        final String instanceName = pool.getId();
+        try {
+            AgentFactory.getInstance().addMBean(instanceName, "org.exist.management." + instanceName +
+                ":type=Index,name=" + getDirName(), new LuceneIndexStatistics(this));
+        } catch (final DatabaseConfigurationException e) {
+            LOG.warn("Exception while registering index mbean.", e);
+        }
     }
 
     @Override
     public synchronized void close() throws DBException {
         try {
+            if (refreshThread != null) {
+                refreshThread.shutdown();
+                refreshThread = null;
+            }
             if (searcherManager != null) {
                 searcherManager.close();
                 searcherManager = null;
@@ -162,7 +215,6 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
     @Override
     public synchronized void sync() throws DBException {
-        //Nothing special to do
         commit();
     }
 
@@ -194,7 +246,7 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
         return defaultAnalyzer;
     }
     
-    protected boolean needsCommit = false;
+    protected final AtomicBoolean needsCommit = new AtomicBoolean();
 
     public IndexWriter getWriter() throws IOException {
         return getWriter(false);
@@ -204,34 +256,130 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
         return cachedWriter;
     }
 
-    public synchronized void releaseWriter(IndexWriter writer) {
+    /**
+     * Releases the writer after changes were made. The changes become visible to searches
+     * with the next refresh, they are committed to disk with the next checkpoint, see
+     * {@link #sync()}.
+     */
+    public void releaseWriter(IndexWriter writer) {
         if (writer == null)
             return;
-        needsCommit = true;
+        needsCommit.set(true);
+        changes.incrementAndGet();
     }
 
+    /**
+     * Commits the changes to disk. Called on checkpoints, so the index is durable whenever
+     * the journal is, but not after every change: searches see uncommitted changes anyway.
+     */
     protected void commit() {
-    	if (!needsCommit) {
+        if (!needsCommit.getAndSet(false)) {
             return;
         }
         try {
             if(LOG.isDebugEnabled()) {
                 LOG.debug("Committing lucene index");
             }
-            
+
+            final long start = System.nanoTime();
         	if (cachedWriter != null) {
                 cachedWriter.commit();
             }
-            needsCommit = false;
+            lastCommitNanos = System.nanoTime() - start;
+            commitNanos.add(lastCommitNanos);
+            commitCount.increment();
         } catch(CorruptIndexException cie) {
+            needsCommit.set(true);
             LOG.error("Detected corrupt Lucence index on writer release and commit: " + cie.getMessage(), cie);
         } catch(IOException ioe) {
+            needsCommit.set(true);
             LOG.error("Detected Lucence index issue on writer release and commit: " + ioe.getMessage(), ioe);
         }
     }
 
-    public <R> R withReader(FunctionE<IndexReader, R, IOException> fn) throws IOException {
+    /**
+     * Reopens the searcher and reader if changes were released since the last refresh.
+     */
+    void refresh() throws IOException {
+        final long released = changes.get();
+        if (released == refreshedChanges.get()) {
+            lastRefresh = System.nanoTime();
+            return;
+        }
+        final long start = System.nanoTime();
+        searcherManager.maybeRefreshBlocking();
         readerManager.maybeRefreshBlocking();
+        final long end = System.nanoTime();
+        refreshedChanges.accumulateAndGet(released, Math::max);
+        lastRefresh = end;
+
+        refreshCount.increment();
+        refreshNanos.add(end - start);
+        maxRefreshNanos.accumulateAndGet(end - start, Math::max);
+    }
+
+    /**
+     * Refreshes before a search, unless the refresh thread keeps the index within the
+     * configured staleness.
+     */
+    private void refreshIfStale() throws IOException {
+        if (refreshThread == null || System.nanoTime() - lastRefresh > TimeUnit.MILLISECONDS.toNanos(maxStaleness)) {
+            refresh();
+        }
+    }
+
+    long getMaxStaleness() {
+        return maxStaleness;
+    }
+
+    long getRefreshCount() {
+        return refreshCount.sum();
+    }
+
+    double getAverageRefreshLatency() {
+        final long count = refreshCount.sum();
+        return count == 0 ? 0 : (refreshNanos.sum() / (double) count) / 1_000_000d;
+    }
+
+    double getMaxRefreshLatency() {
+        return maxRefreshNanos.get() / 1_000_000d;
+    }
+
+    long getCommitCount() {
+        return commitCount.sum();
+    }
+
+    double getAverageCommitLatency() {
+        final long count = commitCount.sum();
+        return count == 0 ? 0 : (commitNanos.sum() / (double) count) / 1_000_000d;
+    }
+
+    double getLastCommitLatency() {
+        return lastCommitNanos / 1_000_000d;
+    }
+
+    boolean hasUncommittedChanges() {
+        return needsCommit.get();
+    }
+
+    /**
+     * @return the number of segments of the last refreshed reader, or -1 if the index is closed
+     */
+    int getSegmentCount() throws IOException {
+        final ReaderManager manager = readerManager;
+        if (manager == null) {
+            return -1;
+        }
+        final DirectoryReader reader = manager.acquire();
+        try {
+            return reader.leaves().size();
+        } finally {
+            manager.release(reader);
+        }
+    }
+
+    public <R> R withReader(FunctionE<IndexReader, R, IOException> fn) throws IOException {
+        refreshIfStale();
         final DirectoryReader reader = readerManager.acquire();
         try {
             return fn.apply(reader);
@@ -241,7 +389,7 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     }
 
     public <R> R withSearcher(Function2E<IndexSearcher, R, IOException, XPathException> consumer) throws IOException, XPathException {
-        searcherManager.maybeRefreshBlocking();
+        refreshIfStale();
         final IndexSearcher searcher = searcherManager.acquire();
         try {
             return consumer.apply(searcher);
@@ -20,7 +20,10 @@
  */
 package org.exist.indexing.lucene;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import org.apache.commons.collections.MultiMap;
@@ -49,12 +52,17 @@ public class LuceneIndexConfig {
     private final static String HAS_ATTR_ELEMENT = "has-attribute";
     private final static String MATCH_SIBLING_ATTR_ELEMENT = "match-sibling-attribute";
     private final static String HAS_SIBLING_ATTR_ELEMENT = "has-sibling-attribute";
+    private final static String FACET_ELEMENT = "facet";
+
+    public static final String DIMENSION_ATTR = "dimension";
+    public static final String ATTRIBUTE_ATTR = "attribute";
 
     public static final String QNAME_ATTR = "qname";
     public static final String MATCH_ATTR = "match";
 
     public static final String FIELD_ATTR = "field";
     public static final String TYPE_ATTR = "type";
+    public static final String OFFSETS_ATTR = "offsets";
 
     private String name = null;
 
@@ -67,10 +75,16 @@ public class LuceneIndexConfig {
     private LuceneIndexConfig nextConfig = null;
     
     private FieldType type = null;
+
+    // record the offsets of the terms at index time, so matches can be highlighted without analyzing the text again
+    private boolean storeOffsets = false;
     
     // This is for the @attr match boosting
     // and the intention is to do a proper predicate check instead in the future. /ljo
     private MultiMap matchAttrs;
+
+    // facet dimensions whose values are taken from attributes
+    private List<FacetConfig> facets = null;
     protected final static Logger LOG = LogManager.getLogger(LuceneIndexConfig.class);
 
 
@@ -103,6 +117,9 @@ public class LuceneIndexConfig {
         if (type == null)
         	type = new FieldType(config, analyzers);
 
+        String offsetsAttr = config.getAttribute(OFFSETS_ATTR);
+        storeOffsets = offsetsAttr != null && offsetsAttr.equalsIgnoreCase("yes");
+
         parse(config, namespaces);
     }
 
@@ -180,6 +197,24 @@ public class LuceneIndexConfig {
                             matchAttrs.put(qname, new MatchAttrData(qname, value, boost, onSibling));
                             break;
                         }
+                        case FACET_ELEMENT: {
+                            final String dimension = configElement.getAttribute(DIMENSION_ATTR);
+                            if (StringUtils.isEmpty(dimension)) {
+                                throw new DatabaseConfigurationException("Lucene configuration element 'facet' needs an attribute 'dimension'");
+                            }
+                            String attrName = configElement.getAttribute(ATTRIBUTE_ATTR);
+                            if (StringUtils.isEmpty(attrName)) {
+                                throw new DatabaseConfigurationException("Lucene configuration element 'facet' needs an attribute 'attribute'");
+                            }
+                            if (!attrName.startsWith("@")) {
+                                attrName = "@" + attrName;
+                            }
+                            if (facets == null) {
+                                facets = new ArrayList<>();
+                            }
+                            facets.add(new FacetConfig(dimension, parseQName(attrName, namespaces)));
+                            break;
+                        }
                     }
                 }
             }
@@ -214,6 +249,9 @@ public class LuceneIndexConfig {
      * if no match, the value from getBoost() is returned
      */
     public float getAttrBoost(Collection<AttrImpl> attributes) {
+        if (matchAttrs == null) {
+            return getBoost();
+        }
         float boost = 0;
         boolean hasBoost = false;
 
@@ -275,6 +313,13 @@ public class LuceneIndexConfig {
 	return name != null;
     }
 
+    /**
+     * @return true if term positions and offsets are recorded in the index
+     */
+    public boolean isStoreOffsets() {
+        return storeOffsets;
+    }
+
     public boolean isIgnoredNode(QName qname) {
         return specialNodes != null && specialNodes.get(qname) == N_IGNORE;
     }
@@ -338,7 +383,39 @@ public class LuceneIndexConfig {
     }
 
     boolean shouldReindexOnAttributeChange() {
-        return matchAttrs != null;
+        return matchAttrs != null || facets != null;
+    }
+
+    /**
+     * Get the facet values of an indexed node from the given attributes
+     * (the attributes of an element or the sibling attributes of an attribute).
+     *
+     * @return a list of dimension and value pairs, empty if the node has none
+     */
+    public List<String[]> getFacetValues(Collection<AttrImpl> attributes) {
+        if (facets == null) {
+            return Collections.emptyList();
+        }
+        final List<String[]> values = new ArrayList<>();
+        for (final FacetConfig facet : facets) {
+            for (final AttrImpl attr : attributes) {
+                if (facet.attribute.equals(attr.getQName())) {
+                    values.add(new String[] { facet.dimension, attr.getValue() });
+                }
+            }
+        }
+        return values;
+    }
+
+    private static class FacetConfig {
+
+        final String dimension;
+        final QName attribute;
+
+        FacetConfig(String dimension, QName attribute) {
+            this.dimension = dimension;
+            this.attribute = attribute;
+        }
     }
 
     private static class MatchAttrData {
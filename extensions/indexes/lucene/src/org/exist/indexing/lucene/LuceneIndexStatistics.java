@@ -0,0 +1,80 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import java.io.IOException;
+
+public class LuceneIndexStatistics implements LuceneIndexStatisticsMXBean {
+
+    private final LuceneIndex index;
+
+    public LuceneIndexStatistics(final LuceneIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public long getMaxStaleness() {
+        return index.getMaxStaleness();
+    }
+
+    @Override
+    public long getRefreshCount() {
+        return index.getRefreshCount();
+    }
+
+    @Override
+    public double getAverageRefreshLatency() {
+        return index.getAverageRefreshLatency();
+    }
+
+    @Override
+    public double getMaxRefreshLatency() {
+        return index.getMaxRefreshLatency();
+    }
+
+    @Override
+    public long getCommitCount() {
+        return index.getCommitCount();
+    }
+
+    @Override
+    public double getAverageCommitLatency() {
+        return index.getAverageCommitLatency();
+    }
+
+    @Override
+    public double getLastCommitLatency() {
+        return index.getLastCommitLatency();
+    }
+
+    @Override
+    public boolean isUncommittedChanges() {
+        return index.hasUncommittedChanges();
+    }
+
+    @Override
+    public int getSegmentCount() {
+        try {
+            return index.getSegmentCount();
+        } catch (final IOException e) {
+            return -1;
+        }
+    }
+}
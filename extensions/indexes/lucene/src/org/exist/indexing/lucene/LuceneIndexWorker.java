@@ -93,6 +93,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public static final String OPTION_FILTER_REWRITE = "filter-rewrite";
     public static final String DEFAULT_OPERATOR_OR = "or";
     public static final String OPTION_LOWERCASE_EXPANDED_TERMS = "lowercase-expanded-terms";
+    public static final String OPTION_TOP = "top";
+    public static final String OPTION_FACET = "facet";
 
     public static final org.apache.lucene.document.FieldType TYPE_NODE_ID = new org.apache.lucene.document.FieldType();
     static {
@@ -103,6 +105,16 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         TYPE_NODE_ID.setTokenized(true);
     }
 
+    /** text field which records term positions and offsets for highlighting */
+    public static final org.apache.lucene.document.FieldType TYPE_TEXT_WITH_OFFSETS =
+            new org.apache.lucene.document.FieldType(TextField.TYPE_NOT_STORED);
+    static {
+        TYPE_TEXT_WITH_OFFSETS.setStoreTermVectors(true);
+        TYPE_TEXT_WITH_OFFSETS.setStoreTermVectorPositions(true);
+        TYPE_TEXT_WITH_OFFSETS.setStoreTermVectorOffsets(true);
+        TYPE_TEXT_WITH_OFFSETS.freeze();
+    }
+
     static final Logger LOG = LogManager.getLogger(LuceneIndexWorker.class);
     
     protected LuceneIndex index;
@@ -443,10 +455,37 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public NodeSet query(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
         List<QName> qnames, String queryStr, int axis, Properties options)
             throws IOException, ParseException, XPathException {
-        return index.withSearcher(searcher -> {
+        final QueryHits hits = new QueryHits(contextId, contextSet, axis == NodeSet.ANCESTOR,
+                getMaxHits(options), getDrillDown(options), null);
+        search(context, docs, qnames, queryStr, options, hits);
+        return hits.getResult();
+    }
+
+    /**
+     * Count the facet values of the nodes matching a query. The nodes themselves are not
+     * loaded: the values are read from the index.
+     *
+     * @param context current XQuery context
+     * @param docs query will be restricted to documents in this set
+     * @param contextSet if specified, only hits on nodes in this set are counted
+     * @param qnames query will be restricted to nodes with the qualified names given here
+     * @param queryStr a lucene query string
+     * @param dimensions the facet dimensions to count
+     * @return the number of hits for each value of each dimension
+     */
+    public Map<String, Map<String, Integer>> queryFacets(XQueryContext context, DocumentSet docs, NodeSet contextSet,
+            List<QName> qnames, String queryStr, List<String> dimensions, Properties options)
+            throws IOException, XPathException {
+        final FacetCounter facets = new FacetCounter(dimensions);
+        search(context, docs, qnames, queryStr, options,
+                new QueryHits(Expression.NO_CONTEXT_ID, contextSet, true, -1, getDrillDown(options), facets));
+        return facets.getCounts();
+    }
+
+    private void search(XQueryContext context, DocumentSet docs, List<QName> qnames, String queryStr,
+            Properties options, QueryHits hits) throws IOException, XPathException {
+        index.withSearcher(searcher -> {
             final List<QName> definedIndexes = getDefinedIndexes(qnames);
-            final NodeSet resultSet = new NewArrayNodeSet();
-            final boolean returnAncestor = axis == NodeSet.ANCESTOR;
             for (QName qname : definedIndexes) {
                 String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
                 Analyzer analyzer = getAnalyzer(null, qname, context.getBroker(), docs);
@@ -454,13 +493,12 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 try {
                     setOptions(options, parser.getConfiguration());
                     Query query = parser.parse(queryStr);
-                    searchAndProcess(contextId, qname, docs, contextSet, resultSet,
-                            returnAncestor, searcher, query, context.getWatchDog());
+                    searchAndProcess(qname, docs, hits, searcher, query);
                 } catch(ParseException e) {
                     throw new XPathException("Lucene query syntax error: " + e.getMessage());
                 }
             }
-            return resultSet;
+            return null;
         });
     }
 
@@ -520,64 +558,144 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public NodeSet query(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
                          List<QName> qnames, Element queryRoot, int axis, Properties options)
             throws IOException, ParseException, XPathException {
-        return index.withSearcher(searcher -> {
+        final QueryHits hits = new QueryHits(contextId, contextSet, axis == NodeSet.ANCESTOR,
+                getMaxHits(options), getDrillDown(options), null);
+        search(context, docs, qnames, queryRoot, options, hits);
+        return hits.getResult();
+    }
+
+    /**
+     * Count the facet values of the nodes matching a query given as XML, see
+     * {@link #queryFacets(XQueryContext, DocumentSet, NodeSet, List, String, List, Properties)}.
+     */
+    public Map<String, Map<String, Integer>> queryFacets(XQueryContext context, DocumentSet docs, NodeSet contextSet,
+            List<QName> qnames, Element queryRoot, List<String> dimensions, Properties options)
+            throws IOException, XPathException {
+        final FacetCounter facets = new FacetCounter(dimensions);
+        search(context, docs, qnames, queryRoot, options,
+                new QueryHits(Expression.NO_CONTEXT_ID, contextSet, true, -1, getDrillDown(options), facets));
+        return facets.getCounts();
+    }
+
+    private void search(XQueryContext context, DocumentSet docs, List<QName> qnames, Element queryRoot,
+            Properties options, QueryHits hits) throws IOException, XPathException {
+        index.withSearcher(searcher -> {
             final List<QName> definedIndexes = getDefinedIndexes(qnames);
-            final NodeSet resultSet = new NewArrayNodeSet();
-            final boolean returnAncestor = axis == NodeSet.ANCESTOR;
             for (QName qname : definedIndexes) {
                 String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
                 analyzer = getAnalyzer(null, qname, context.getBroker(), docs);
                 Query query = queryTranslator.parse(field, queryRoot, analyzer, options);
                 if (query != null) {
-                    searchAndProcess(contextId, qname, docs, contextSet, resultSet,
-                            returnAncestor, searcher, query, context.getWatchDog());
+                    searchAndProcess(qname, docs, hits, searcher, query);
                 }
             }
-            return resultSet;
+            return null;
         });
     }
 
     public NodeSet queryField(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
             String field, Element queryRoot, int axis, Properties options)
             throws IOException, XPathException {
+        final int maxHits = getMaxHits(options);
+        final Filter drillDown = getDrillDown(options);
         return index.withSearcher(searcher -> {
-            final NodeSet resultSet = new NewArrayNodeSet();
-            final boolean returnAncestor = axis == NodeSet.ANCESTOR;
+            final QueryHits hits = new QueryHits(contextId, contextSet, axis == NodeSet.ANCESTOR, maxHits, drillDown, null);
             analyzer = getAnalyzer(field, null, context.getBroker(), docs);
             Query query = queryTranslator.parse(field, queryRoot, analyzer, options);
             if (query != null) {
-                searchAndProcess(contextId, null, docs, contextSet, resultSet,
-                        returnAncestor, searcher, query, context.getWatchDog());
+                searchAndProcess(null, docs, hits, searcher, query);
             }
-            return resultSet;
+            return hits.getResult();
         });
     }
 
-    private void searchAndProcess(int contextId, QName qname, DocumentSet docs,
-            NodeSet contextSet, NodeSet resultSet, boolean returnAncestor,
-            IndexSearcher searcher, Query query, XQueryWatchDog watchDog) throws IOException, TerminatedException {
-        LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet, resultSet, returnAncestor, contextId, watchDog);
-        searcher.search(query, collector);
+    private void searchAndProcess(QName qname, DocumentSet docs, QueryHits hits,
+            IndexSearcher searcher, Query query) throws IOException {
+        LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, hits);
+        // the matches keep the original query, which is used for highlighting
+        searcher.search(hits.drillDown == null ? query : new FilteredQuery(query, hits.drillDown), collector);
+    }
+
+    /**
+     * Restrict a query to nodes with the given facet value. Several values for the same
+     * dimension are alternatives, while all dimensions must match.
+     *
+     * @param options the query options
+     * @param dimension the facet dimension
+     * @param value the facet value
+     */
+    @SuppressWarnings("unchecked")
+    public static void addDrillDown(Properties options, String dimension, String value) {
+        Map<String, List<String>> drillDown = (Map<String, List<String>>) options.get(OPTION_FACET);
+        if (drillDown == null) {
+            drillDown = new TreeMap<>();
+            options.put(OPTION_FACET, drillDown);
+        }
+        drillDown.computeIfAbsent(dimension, key -> new ArrayList<>()).add(value);
+    }
+
+    /**
+     * Returns a filter for the facet values given by {@link #addDrillDown(Properties, String, String)},
+     * or null if there are none.
+     */
+    @SuppressWarnings("unchecked")
+    private static Filter getDrillDown(Properties options) {
+        if (options == null || !(options.get(OPTION_FACET) instanceof Map)) {
+            return null;
+        }
+        final BooleanQuery query = new BooleanQuery();
+        for (final Map.Entry<String, List<String>> dimension : ((Map<String, List<String>>) options.get(OPTION_FACET)).entrySet()) {
+            final BooleanQuery values = new BooleanQuery();
+            for (final String value : dimension.getValue()) {
+                values.add(new TermQuery(new Term(LuceneUtil.FIELD_FACET_PREFIX + dimension.getKey(), value)),
+                        BooleanClause.Occur.SHOULD);
+            }
+            query.add(values, BooleanClause.Occur.MUST);
+        }
+        return new QueryWrapperFilter(query);
+    }
+
+    /**
+     * Returns the number of hits with the highest scores the query should return,
+     * as given by the option {@link #OPTION_TOP}, or -1 if all hits should be returned.
+     */
+    private static int getMaxHits(Properties options) throws XPathException {
+        if (options == null) {
+            return -1;
+        }
+        final String option = options.getProperty(OPTION_TOP);
+        if (option == null) {
+            return -1;
+        }
+        try {
+            final int maxHits = Integer.parseInt(option.trim());
+            if (maxHits > 0) {
+                return maxHits;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new XPathException("value for option " + OPTION_TOP + " needs to be a positive number");
     }
 
     public NodeSet queryField(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
             String field, String queryString, int axis, Properties options)
             throws IOException, ParseException, XPathException {
+        final int maxHits = getMaxHits(options);
+        final Filter drillDown = getDrillDown(options);
         return index.withSearcher(searcher -> {
-            NodeSet resultSet = new NewArrayNodeSet();
-            boolean returnAncestor = axis == NodeSet.ANCESTOR;
+            final QueryHits hits = new QueryHits(contextId, contextSet, axis == NodeSet.ANCESTOR, maxHits, drillDown, null);
             Analyzer analyzer = getAnalyzer(field, null, context.getBroker(), docs);
             LOG.debug("Using analyzer " + analyzer + " for " + queryString);
             QueryParserWrapper parser = getQueryParser(field, analyzer, docs);
             try {
                 setOptions(options, parser.getConfiguration());
                 Query query = parser.parse(queryString);
-                searchAndProcess(contextId, null, docs, contextSet, resultSet,
-                        returnAncestor, searcher, query, context.getWatchDog());
+                searchAndProcess(null, docs, hits, searcher, query);
             } catch(ParseException e) {
                 throw new XPathException("Lucene query syntax error: " + e.getMessage());
             }
-            return resultSet;
+            return hits.getResult();
         });
     }
 
@@ -643,8 +761,11 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             
             Analyzer fieldAnalyzer = (fieldType == null) ? null : fieldType.getAnalyzer();
             
-            // Actual field content ; Store flag can be set in solrField
-            Field contentField = new Field(contentFieldName, field.getData().toString(),  store, Field.Index.ANALYZED, Field.TermVector.YES);
+            // Actual field content ; Store flag can be set in solrField.
+            // If configured, term offsets are recorded for highlighting stored fields in search results.
+            boolean storeOffsets = store == Field.Store.YES && fieldType != null && fieldType.isStoreOffsets();
+            Field contentField = new Field(contentFieldName, field.getData().toString(),  store, Field.Index.ANALYZED,
+                    storeOffsets ? Field.TermVector.WITH_POSITIONS_OFFSETS : Field.TermVector.YES);
 
             // Extract (document) Boost factor
             if (field.getBoost() > 0) {
@@ -747,8 +868,11 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                                 String[] fieldContent = doc.getValues(field);
                                 attribs.clear();
                                 attribs.addAttribute("", "name", "name", "CDATA", field);
+                                // the offsets recorded at index time can only be used if the field has a single value
+                                Terms termVector = fieldContent.length == 1 ? reader.getTermVector(docNum, field) : null;
                                 for (String content : fieldContent) {
-                                    List<Offset> offsets = highlighter.getOffsets(content, searchAnalyzer);
+                                    List<Offset> offsets = termVector != null && termVector.hasOffsets() ?
+                                            highlighter.getOffsets(termVector) : highlighter.getOffsets(content, searchAnalyzer);
                                     builder.startElement("", "field", "field", attribs);
                                     if (offsets != null) {
                                         highlighter.highlight(content, offsets, builder);
@@ -870,26 +994,16 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         private AtomicReader reader;
         private NumericDocValues docIdValues;
         private BinaryDocValues nodeIdValues;
-        private final byte[] buf = new byte[1024];
         private final QName qname;
         private final DocumentSet docs;
-        private final NodeSet contextSet;
-        private final NodeSet resultSet;
-        private final boolean returnAncestor;
-        private final int contextId;
+        private final QueryHits hits;
         private final Query query;
-        private final XQueryWatchDog watchdog;
 
-        private LuceneHitCollector(QName qname, Query query, DocumentSet docs, NodeSet contextSet, NodeSet resultSet, boolean returnAncestor,
-                                   int contextId, XQueryWatchDog watchDog) {
+        private LuceneHitCollector(QName qname, Query query, DocumentSet docs, QueryHits hits) {
             this.qname = qname;
             this.docs = docs;
-            this.contextSet = contextSet;
-            this.resultSet = resultSet;
-            this.returnAncestor = returnAncestor;
-            this.contextId = contextId;
+            this.hits = hits;
             this.query = query;
-            this.watchdog = watchDog;
         }
 
         @Override
@@ -902,6 +1016,9 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             this.reader = atomicReaderContext.reader();
             this.docIdValues = this.reader.getNumericDocValues(FIELD_DOC_ID);
             this.nodeIdValues = this.reader.getBinaryDocValues(LuceneUtil.FIELD_NODE_ID);
+            if (hits.facets != null) {
+                hits.facets.setNextReader(this.reader);
+            }
         }
 
         @Override
@@ -910,55 +1027,167 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         }
 
         @Override
-        public void collect(int doc) {
-            try {
-                float score = scorer.score();
-                int docId = (int) this.docIdValues.get(doc);
-                DocumentImpl storedDocument = docs.getDoc(docId);
-                if (storedDocument == null)
+        public void collect(int doc) throws IOException {
+            int docId = (int) this.docIdValues.get(doc);
+            DocumentImpl storedDocument = docs.getDoc(docId);
+            if (storedDocument == null)
+                return;
+            float score = hits.facets == null ? scorer.score() : 0.0f;
+            if (hits.contextSet == null && !hits.isCompetitive(score)) {
+                // the hit is only counted, so there's no need to read the node id
+                hits.count(doc);
+                return;
+            }
+            NodeId nodeId = readNodeId(doc, nodeIdValues, index.getBrokerPool());
+            //LOG.info("doc: " + docId + "; node: " + nodeId.toString() + "; units: " + units);
+
+            NodeProxy storedNode = new NodeProxy(storedDocument, nodeId);
+            if (qname != null)
+                storedNode.setNodeType(qname.getNameType() == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE);
+            // if a context set is specified, we can directly check if the
+            // matching node is a descendant of one of the nodes
+            // in the context set.
+            NodeProxy parentNode = null;
+            if (hits.contextSet != null && hits.returnAncestor) {
+                parentNode = hits.contextSet.get(storedNode);
+                // NodeProxy parentNode = contextSet.parentWithChild(storedNode, false, true, NodeProxy.UNKNOWN_NODE_LEVEL);
+                if (parentNode == null)
                     return;
-                final BytesRef ref = this.nodeIdValues.get(doc);
-                int units = ByteConversion.byteToShort(ref.bytes, ref.offset);
-                NodeId nodeId = index.getBrokerPool().getNodeFactory().createFromData(units, ref.bytes, ref.offset + 2);
-                //LOG.info("doc: " + docId + "; node: " + nodeId.toString() + "; units: " + units);
-
-                NodeProxy storedNode = new NodeProxy(storedDocument, nodeId);
-                if (qname != null)
-                    storedNode.setNodeType(qname.getNameType() == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE);
-                // if a context set is specified, we can directly check if the
-                // matching node is a descendant of one of the nodes
-                // in the context set.
-                if (contextSet != null) {
-                    int sizeHint = contextSet.getSizeHint(storedDocument);
-                    if (returnAncestor) {
-                        NodeProxy parentNode = contextSet.get(storedNode);
-                        // NodeProxy parentNode = contextSet.parentWithChild(storedNode, false, true, NodeProxy.UNKNOWN_NODE_LEVEL);
-                        if (parentNode != null) {
-                            LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
-                            match.setScore(score);
-                            parentNode.addMatch(match);
-                            resultSet.add(parentNode, sizeHint);
-                            if (Expression.NO_CONTEXT_ID != contextId) {
-                                parentNode.deepCopyContext(storedNode, contextId);
-                            } else
-                                parentNode.copyContext(storedNode);
-                        }
-                    } else {
-                        LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
-                        match.setScore(score);
-                        storedNode.addMatch(match);
-                        resultSet.add(storedNode, sizeHint);
-                    }
+            }
+            hits.count(doc);
+            if (hits.isCompetitive(score)) {
+                hits.add(score, storedNode, parentNode, query);
+            }
+        }
+    }
+
+    /**
+     * Collects the hits of the queries run for one call to ft:query. If only the hits with the
+     * highest scores are requested, they are kept in a bounded queue and their matches are
+     * created after the search. The remaining hits are only counted. If facets are counted,
+     * no matches are created at all.
+     */
+    private class QueryHits {
+
+        private final NodeSet resultSet = new NewArrayNodeSet();
+        private final int contextId;
+        private final NodeSet contextSet;
+        private final boolean returnAncestor;
+        private final int maxHits;
+        private final HitCounter count = new HitCounter();
+        private final Filter drillDown;
+        private final FacetCounter facets;
+
+        /** the hits with the highest scores, the lowest score at the head */
+        private final java.util.PriorityQueue<ScoredHit> topHits;
+        private int sequence = 0;
+
+        private QueryHits(int contextId, NodeSet contextSet, boolean returnAncestor, int maxHits,
+                Filter drillDown, FacetCounter facets) {
+            this.contextId = contextId;
+            this.contextSet = contextSet;
+            this.returnAncestor = returnAncestor;
+            this.maxHits = maxHits;
+            this.drillDown = drillDown;
+            this.facets = facets;
+            if (maxHits > 0) {
+                // of two hits with the same score, the one found first is kept
+                this.topHits = new java.util.PriorityQueue<>(Math.min(maxHits, 1024) + 1, (h1, h2) -> {
+                    final int cmp = Float.compare(h1.score, h2.score);
+                    return cmp == 0 ? Integer.compare(h2.sequence, h1.sequence) : cmp;
+                });
+            } else {
+                this.topHits = null;
+            }
+        }
+
+        /**
+         * Checks if a hit with the given score would be returned, as far as known so far.
+         */
+        private boolean isCompetitive(float score) {
+            if (facets != null) {
+                return false;
+            }
+            return topHits == null || topHits.size() < maxHits || score > topHits.peek().score;
+        }
+
+        private void count(int doc) {
+            count.increment();
+            if (facets != null) {
+                facets.collect(doc);
+            }
+        }
+
+        private void add(float score, NodeProxy storedNode, NodeProxy parentNode, Query query) {
+            if (topHits == null) {
+                addMatch(score, storedNode, parentNode, query);
+            } else {
+                topHits.add(new ScoredHit(score, sequence++, storedNode, parentNode, query));
+                if (topHits.size() > maxHits) {
+                    topHits.poll();
+                }
+            }
+        }
+
+        private void addMatch(float score, NodeProxy storedNode, NodeProxy parentNode, Query query) {
+            final LuceneMatch match = new LuceneMatch(contextId, storedNode.getNodeId(), query);
+            match.setScore(score);
+            match.setHitCount(count);
+            if (contextSet == null) {
+                storedNode.addMatch(match);
+                resultSet.add(storedNode);
+            } else {
+                final int sizeHint = contextSet.getSizeHint(storedNode.getOwnerDocument());
+                if (parentNode != null) {
+                    parentNode.addMatch(match);
+                    resultSet.add(parentNode, sizeHint);
+                    if (Expression.NO_CONTEXT_ID != contextId) {
+                        parentNode.deepCopyContext(storedNode, contextId);
+                    } else
+                        parentNode.copyContext(storedNode);
                 } else {
-                    LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
-                    match.setScore(score);
                     storedNode.addMatch(match);
-                    resultSet.add(storedNode);
+                    resultSet.add(storedNode, sizeHint);
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
             }
         }
+
+        private NodeSet getResult() {
+            if (topHits != null) {
+                for (final ScoredHit hit : topHits) {
+                    addMatch(hit.score, hit.storedNode, hit.parentNode, hit.query);
+                }
+                topHits.clear();
+            }
+            return resultSet;
+        }
+    }
+
+    private static class ScoredHit {
+        private final float score;
+        private final int sequence;
+        private final NodeProxy storedNode;
+        private final NodeProxy parentNode;
+        private final Query query;
+
+        private ScoredHit(float score, int sequence, NodeProxy storedNode, NodeProxy parentNode, Query query) {
+            this.score = score;
+            this.sequence = sequence;
+            this.storedNode = storedNode;
+            this.parentNode = parentNode;
+            this.query = query;
+        }
+    }
+
+    /**
+     * The number of hits found by a query, shared by the matches it created.
+     */
+    private static class HitCounter {
+        private int count = 0;
+
+        private void increment() {
+            count++;
+        }
     }
 
     /**
@@ -1175,6 +1404,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
      */
     protected void indexText(java.util.Collection<AttrImpl> attribs, NodeId nodeId, QName qname, NodePath path, LuceneIndexConfig config, CharSequence content) {
         PendingDoc pending = new PendingDoc(nodeId, qname, path, content, config.getAttrBoost(attribs), config);
+        pending.facets = config.getFacetValues(attribs);
         addPending(pending);
     }
     
@@ -1192,6 +1422,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         QName qname;
         LuceneIndexConfig idxConf;
         float boost;
+        // pairs of facet dimension and value
+        List<String[]> facets = Collections.emptyList();
 
         private PendingDoc(NodeId nodeId, QName qname, NodePath path, CharSequence text, float boost, LuceneIndexConfig idxConf) {
             this.nodeId = nodeId;
@@ -1278,7 +1510,11 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 else
                 	contentField = LuceneUtil.encodeQName(pending.qname, index.getBrokerPool().getSymbols());
 
-                Field fld = new Field(contentField, pending.text.toString(), Field.Store.NO, Field.Index.ANALYZED, Field.TermVector.YES);
+                Field fld;
+                if (pending.idxConf.isStoreOffsets())
+                    fld = new Field(contentField, pending.text.toString(), TYPE_TEXT_WITH_OFFSETS);
+                else
+                    fld = new Field(contentField, pending.text.toString(), Field.Store.NO, Field.Index.ANALYZED, Field.TermVector.YES);
                 if (pending.boost > 0) {
                     fld.setBoost(pending.boost);
                 } else if (config.getBoost() > 0) {
@@ -1287,6 +1523,13 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
                 doc.add(fld);
 
+                // facet values are indexed for drill down and stored as doc values for counting
+                for (final String[] facet : pending.facets) {
+                    final String facetField = LuceneUtil.FIELD_FACET_PREFIX + facet[0];
+                    doc.add(new StringField(facetField, facet[1], Field.Store.NO));
+                    doc.add(new SortedSetDocValuesField(facetField, new BytesRef(facet[1])));
+                }
+
                 fDocIdIdx.setIntValue(currentDoc.getDocId());
                 doc.add(fDocIdIdx);
                 
@@ -1519,6 +1762,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
         private float score = 0.0f;
         private final Query query;
+        private HitCounter hitCount = null;
 
         public LuceneMatch(int contextId, NodeId nodeId, Query query) {
             super(contextId, nodeId, null);
@@ -1529,6 +1773,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             super(copy);
             this.score = copy.score;
             this.query = copy.query;
+            this.hitCount = copy.hitCount;
         }
 
         @Override
@@ -1562,6 +1807,21 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             this.score = score;
         }
 
+        /**
+         * Returns the number of hits found by the query which created this match.
+         * If the query only returned the hits with the highest scores, this includes
+         * the hits which were not returned.
+         *
+         * @return the number of hits, or -1 if not known
+         */
+        public int getHitCount() {
+            return hitCount == null ? -1 : hitCount.count;
+        }
+
+        private void setHitCount(HitCounter hitCount) {
+            this.hitCount = hitCount;
+        }
+
         // DW: missing hashCode() ?
         @Override
         public boolean equals(Object other) {
@@ -29,9 +29,17 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.NumericUtils;
 import org.exist.indexing.AbstractMatchListener;
 import org.exist.numbering.NodeId;
 import org.exist.stax.ExtendedXMLStreamReader;
@@ -39,6 +47,7 @@ import org.exist.stax.IEmbeddedXMLStreamReader;
 import org.exist.storage.DBBroker;
 import org.exist.storage.IndexSpec;
 import org.exist.storage.NodePath;
+import org.exist.util.ByteConversion;
 import org.exist.util.serializer.AttrList;
 import org.xml.sax.SAXException;
 
@@ -206,6 +215,17 @@ public class LuceneMatchListener extends AbstractMatchListener {
         } catch (IOException | XMLStreamException e) {
             LOG.warn("Problem found while serializing XML: " + e.getMessage(), e);
         }
+
+        // If offsets were recorded at index time, there's no need to analyze the text again
+        if (idxConf.isStoreOffsets()) {
+            List<PlainTextHighlighter.Offset> storedOffsets = getStoredOffsets(p, idxConf);
+            if (storedOffsets != null) {
+                for (PlainTextHighlighter.Offset offset : storedOffsets) {
+                    markOffsets(offsets, offset.startOffset(), offset.endOffset());
+                }
+                return;
+            }
+        }
         
         // Retrieve the Analyzer for the NodeProxy that was used for
         // indexing and querying.
@@ -300,6 +320,85 @@ public class LuceneMatchListener extends AbstractMatchListener {
         }
     }
 
+    /**
+     * Mark the text between the given offsets, which may span several text nodes.
+     */
+    private void markOffsets(OffsetList offsets, int startOffset, int endOffset) {
+        int idx = offsets.getIndex(startOffset);
+        if (idx < 0)
+            return;
+        for (; idx < offsets.len && offsets.offsets[idx] < endOffset; idx++) {
+            int nodeStart = Math.max(startOffset, offsets.offsets[idx]) - offsets.offsets[idx];
+            int nodeEnd = (idx + 1 < offsets.len ? Math.min(endOffset, offsets.offsets[idx + 1]) : endOffset) - offsets.offsets[idx];
+            NodeId nodeId = offsets.ids[idx];
+            Offset offset = nodesWithMatch.get(nodeId);
+            if (offset != null)
+                offset.add(nodeStart, nodeEnd);
+            else
+                nodesWithMatch.put(nodeId, new Offset(nodeStart, nodeEnd));
+        }
+    }
+
+    /**
+     * Read the offsets of the matches from the term vector of the Lucene document
+     * which indexes the given node.
+     *
+     * @return the offsets relative to the text of the node, or null if no offsets were
+     * recorded for the node, e.g. because it was indexed before they were configured
+     */
+    private List<PlainTextHighlighter.Offset> getStoredOffsets(NodeProxy p, LuceneIndexConfig idxConf) {
+        final String field;
+        if (idxConf.isNamed())
+            field = idxConf.getName();
+        else
+            field = LuceneUtil.encodeQName(((IStoredNode<?>) p.getNode()).getQName(), index.getBrokerPool().getSymbols());
+        final int docId = p.getOwnerDocument().getDocId();
+
+        NodeId nodeId = p.getNodeId();
+        byte[] data = new byte[nodeId.size() + 2];
+        ByteConversion.shortToByte((short) nodeId.units(), data, 0);
+        nodeId.serialize(data, 2);
+        final Term nodeTerm = new Term(LuceneUtil.FIELD_NODE_ID, new BytesRef(data));
+        final BytesRefBuilder bytes = new BytesRefBuilder();
+        NumericUtils.intToPrefixCoded(docId, 0, bytes);
+        final Term docTerm = new Term(LuceneUtil.FIELD_DOC_ID, bytes.toBytesRef());
+        try {
+            return index.withReader(reader -> {
+                for (AtomicReaderContext context : reader.leaves()) {
+                    AtomicReader leaf = context.reader();
+                    DocsEnum nodeDocs = leaf.termDocsEnum(nodeTerm);
+                    DocsEnum docDocs = leaf.termDocsEnum(docTerm);
+                    if (nodeDocs == null || docDocs == null)
+                        continue;
+                    // intersect the Lucene documents of the node id with those of the document
+                    int doc = nodeDocs.nextDoc();
+                    int other = docDocs.nextDoc();
+                    while (doc != DocIdSetIterator.NO_MORE_DOCS && other != DocIdSetIterator.NO_MORE_DOCS) {
+                        if (doc < other) {
+                            doc = nodeDocs.advance(other);
+                        } else if (other < doc) {
+                            other = docDocs.advance(doc);
+                        } else {
+                            // the node may be indexed by several documents using different fields
+                            Terms termVector = leaf.getTermVector(doc, field);
+                            if (termVector != null) {
+                                if (!termVector.hasOffsets())
+                                    return null;
+                                List<PlainTextHighlighter.Offset> found = PlainTextHighlighter.getOffsets(termVector, termMap);
+                                return found == null ? Collections.<PlainTextHighlighter.Offset>emptyList() : found;
+                            }
+                            doc = nodeDocs.nextDoc();
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            LOG.warn("Problem found while reading term offsets: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
     private NodePath getPath(NodeProxy proxy) {
         NodePath path = new NodePath();
         IStoredNode<?> node = (IStoredNode<?>) proxy.getNode();
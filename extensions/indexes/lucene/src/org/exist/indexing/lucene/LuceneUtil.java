@@ -52,6 +52,9 @@ public class LuceneUtil {
     public static final String FIELD_DOC_ID = "docId";
     public static final String FIELD_DOC_URI = "docUri";
 
+    /** facet values are indexed in a field named by this prefix and the dimension */
+    public static final String FIELD_FACET_PREFIX = "facet:";
+
     public static byte[] createId(int docId, NodeId nodeId) {
         // build id from nodeId and docId
         byte[] data = new byte[nodeId.size() + 4];
@@ -22,18 +22,25 @@ package org.exist.indexing.lucene;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.index.DocsAndPositionsEnum;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.util.AttributeSource.State;
+import org.apache.lucene.util.BytesRef;
 import org.exist.Namespaces;
 import org.exist.dom.memtree.MemTreeBuilder;
 
@@ -64,6 +71,75 @@ public class PlainTextHighlighter {
 		}
 	}
 	
+	/**
+	 * Get the offsets of the matches from the term vector recorded at index time,
+	 * without analyzing the text again. The term vector needs positions and offsets.
+	 *
+	 * @param termVector the term vector of the field
+	 * @return the offsets, ordered by start offset, or null if there are no matches
+	 */
+	public List<Offset> getOffsets(Terms termVector) throws IOException {
+		return getOffsets(termVector, termMap);
+	}
+
+	static List<Offset> getOffsets(Terms termVector, Map<Object, Query> termMap) throws IOException {
+		// positions and offsets of the query terms found in the text
+		final Map<String, TreeMap<Integer, Offset>> positions = new HashMap<>();
+		final TermsEnum termsEnum = termVector.iterator(null);
+		for (final Object key : termMap.keySet()) {
+			final String text = key.toString();
+			if (!termsEnum.seekExact(new BytesRef(text)))
+				continue;
+			final DocsAndPositionsEnum postings = termsEnum.docsAndPositions(null, null, DocsAndPositionsEnum.FLAG_OFFSETS);
+			if (postings == null || postings.nextDoc() == DocIdSetIterator.NO_MORE_DOCS)
+				continue;
+			final TreeMap<Integer, Offset> termPositions = new TreeMap<>();
+			for (int i = postings.freq(); i > 0; i--) {
+				final int position = postings.nextPosition();
+				termPositions.put(position, new Offset(postings.startOffset(), postings.endOffset()));
+			}
+			positions.put(text, termPositions);
+		}
+		if (positions.isEmpty())
+			return null;
+
+		final TreeMap<Integer, Offset> offsets = new TreeMap<>();
+		for (final Map.Entry<String, TreeMap<Integer, Offset>> term : positions.entrySet()) {
+			final Query query = termMap.get(term.getKey());
+			if (query instanceof PhraseQuery) {
+				// only mark the phrase, not single words which may also occur elsewhere
+				final Term[] terms = ((PhraseQuery) query).getTerms();
+				final int[] phrasePositions = ((PhraseQuery) query).getPositions();
+				if (!term.getKey().equals(terms[0].text()))
+					continue;
+				for (final Map.Entry<Integer, Offset> first : term.getValue().entrySet()) {
+					Offset last = first.getValue();
+					for (int t = 1; t < terms.length && last != null; t++) {
+						final TreeMap<Integer, Offset> next = positions.get(terms[t].text());
+						last = next == null ? null :
+							next.get(first.getKey() + phrasePositions[t] - phrasePositions[0]);
+					}
+					if (last != null)
+						offsets.put(first.getValue().startOffset, new Offset(first.getValue().startOffset, last.endOffset));
+				}
+			} else {
+				for (final Offset offset : term.getValue().values())
+					offsets.putIfAbsent(offset.startOffset, offset);
+			}
+		}
+
+		// overlapping matches, e.g. a term which is also part of a phrase, are marked once
+		final List<Offset> result = new ArrayList<>(offsets.size());
+		int lastEnd = -1;
+		for (final Offset offset : offsets.values()) {
+			if (offset.startOffset >= lastEnd) {
+				result.add(offset);
+				lastEnd = offset.endOffset;
+			}
+		}
+		return result.isEmpty() ? null : result;
+	}
+
 	public List<Offset> getOffsets(String content, Analyzer analyzer) throws IOException {
 		TokenStream tokenStream = analyzer.tokenStream(null, new StringReader(content));
         tokenStream.reset();
@@ -0,0 +1,194 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.exist.dom.QName;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.dom.persistent.VirtualNodeSet;
+import org.exist.indexing.lucene.LuceneIndex;
+import org.exist.indexing.lucene.LuceneIndexWorker;
+import org.exist.xquery.*;
+import org.exist.xquery.functions.map.MapType;
+import org.exist.xquery.value.*;
+import org.w3c.dom.Element;
+
+/**
+ * Counts the facet values of the nodes matching a full text query, without
+ * returning the nodes themselves.
+ */
+public class Facets extends Query {
+
+    private final static FunctionParameterSequenceType NODES_PARAM =
+        new FunctionParameterSequenceType("nodes", Type.NODE, Cardinality.ZERO_OR_MORE,
+            "The node set to search using a Lucene full text index which is defined on those nodes");
+    private final static FunctionParameterSequenceType QUERY_PARAM =
+        new FunctionParameterSequenceType("query", Type.ITEM, Cardinality.EXACTLY_ONE,
+            "The query to search for, provided either as a string or text in Lucene's default query " +
+            "syntax or as an XML fragment to bypass Lucene's default query parser");
+    private final static FunctionParameterSequenceType DIMENSIONS_PARAM =
+        new FunctionParameterSequenceType("dimensions", Type.STRING, Cardinality.ONE_OR_MORE,
+            "The facet dimensions to count, as defined by the facet elements of the index configuration");
+    private final static FunctionReturnSequenceType RETURN_TYPE =
+        new FunctionReturnSequenceType(Type.MAP, Cardinality.EXACTLY_ONE,
+            "a map with an entry for each dimension. The value of each entry is a map from the facet values " +
+            "found in the hits to the number of hits having that value.");
+
+    public final static FunctionSignature[] signatures = {
+        new FunctionSignature(
+            new QName("facets", LuceneModule.NAMESPACE_URI, LuceneModule.PREFIX),
+            "Runs a full text query like ft:query, but instead of returning the matching nodes, " +
+            "counts how many of them have each value of the given facet dimensions. " +
+            "The counts are computed from the index, the matching nodes are not loaded.",
+            new SequenceType[] { NODES_PARAM, QUERY_PARAM, DIMENSIONS_PARAM },
+            RETURN_TYPE
+        ),
+        new FunctionSignature(
+            new QName("facets", LuceneModule.NAMESPACE_URI, LuceneModule.PREFIX),
+            "Runs a full text query like ft:query, but instead of returning the matching nodes, " +
+            "counts how many of them have each value of the given facet dimensions. " +
+            "The counts are computed from the index, the matching nodes are not loaded.",
+            new SequenceType[] {
+                NODES_PARAM, QUERY_PARAM, DIMENSIONS_PARAM,
+                new FunctionParameterSequenceType("options", Type.NODE, Cardinality.ZERO_OR_ONE,
+                    "An XML fragment containing the options of the query, see ft:query. " +
+                    "Facet options drill down into the given facet values before counting.")
+            },
+            RETURN_TYPE
+        )
+    };
+
+    public Facets(XQueryContext context, FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public void setArguments(List<Expression> arguments) throws XPathException {
+        steps.clear();
+        steps.add(arguments.get(0));
+
+        Expression arg = arguments.get(1).simplify();
+        arg = new DynamicCardinalityCheck(context, Cardinality.EXACTLY_ONE, arg,
+                new org.exist.xquery.util.Error(org.exist.xquery.util.Error.FUNC_PARAM_CARDINALITY, "2", mySignature));
+        steps.add(arg);
+
+        arg = arguments.get(2).simplify();
+        arg = new DynamicCardinalityCheck(context, Cardinality.ONE_OR_MORE, arg,
+                new org.exist.xquery.util.Error(org.exist.xquery.util.Error.FUNC_PARAM_CARDINALITY, "3", mySignature));
+        steps.add(arg);
+
+        if (arguments.size() == 4) {
+            arg = arguments.get(3).simplify();
+            arg = new DynamicCardinalityCheck(context, Cardinality.EXACTLY_ONE, arg,
+                new org.exist.xquery.util.Error(org.exist.xquery.util.Error.FUNC_PARAM_CARDINALITY, "4", mySignature));
+            arg = new DynamicTypeCheck(context, Type.ELEMENT, arg);
+            steps.add(arg);
+        }
+    }
+
+    @Override
+    public boolean canOptimize(Sequence contextSequence) {
+        // the function does not select nodes, so there's nothing to preselect
+        return false;
+    }
+
+    @Override
+    public boolean isScoreOf(Expression orderExpr, QName variable) {
+        return false;
+    }
+
+    @Override
+    public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
+        if (contextItem != null)
+            contextSequence = contextItem.toSequence();
+
+        List<String> dimensions = new ArrayList<>();
+        Sequence dimSeq = getArgument(2).eval(contextSequence, contextItem);
+        for (SequenceIterator i = dimSeq.iterate(); i.hasNext(); ) {
+            dimensions.add(i.nextItem().getStringValue());
+        }
+
+        Map<String, Map<String, Integer>> counts = Collections.emptyMap();
+        // in-memory docs won't have an index
+        if (contextSequence == null || contextSequence.isPersistentSet()) {
+            long start = System.currentTimeMillis();
+            Sequence input = getArgument(0).eval(contextSequence);
+            if (input instanceof VirtualNodeSet || !input.isEmpty()) {
+                NodeSet inNodes = input.toNodeSet();
+                LuceneIndexWorker index = (LuceneIndexWorker)
+                        context.getBroker().getIndexController().getWorkerByIndexId(LuceneIndex.ID);
+                Item key = getKey(contextSequence, contextItem);
+                List<QName> qnames = null;
+                if (contextQName != null) {
+                    qnames = new ArrayList<>(1);
+                    qnames.add(contextQName);
+                }
+                Properties options = parseOptions(contextSequence, contextItem);
+                try {
+                    if (Type.subTypeOf(key.getType(), Type.ELEMENT))
+                        counts = index.queryFacets(context, inNodes.getDocumentSet(), inNodes, qnames,
+                                (Element) ((NodeValue) key).getNode(), dimensions, options);
+                    else
+                        counts = index.queryFacets(context, inNodes.getDocumentSet(), inNodes, qnames,
+                                key.getStringValue(), dimensions, options);
+                } catch (IOException e) {
+                    throw new XPathException(this, e.getMessage());
+                }
+            }
+            if (context.getProfiler().traceFunctions()) {
+                context.getProfiler().traceIndexUsage(context, "lucene", this, PerformanceStats.BASIC_INDEX, System.currentTimeMillis() - start);
+            }
+        }
+
+        MapType result = new MapType(context);
+        for (String dimension : dimensions) {
+            MapType values = new MapType(context);
+            Map<String, Integer> dimensionCounts = counts.get(dimension);
+            if (dimensionCounts != null) {
+                for (Map.Entry<String, Integer> entry : dimensionCounts.entrySet()) {
+                    values.add(new StringValue(entry.getKey()), new IntegerValue(entry.getValue()));
+                }
+            }
+            result.add(new StringValue(dimension), values);
+        }
+        return result;
+    }
+
+    @Override
+    public int returnsType() {
+        return Type.MAP;
+    }
+
+    @Override
+    public int getCardinality() {
+        return Cardinality.EXACTLY_ONE;
+    }
+
+    @Override
+    protected int getOptionsArgument() {
+        return 3;
+    }
+}
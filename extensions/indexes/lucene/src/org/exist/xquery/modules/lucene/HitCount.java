@@ -0,0 +1,72 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.lucene;
+
+import org.exist.dom.QName;
+import org.exist.dom.persistent.Match;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.indexing.lucene.LuceneIndex;
+import org.exist.indexing.lucene.LuceneIndexWorker;
+import org.exist.xquery.BasicFunction;
+import org.exist.xquery.Cardinality;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.*;
+
+public class HitCount extends BasicFunction {
+
+    public final static FunctionSignature signature =
+        new FunctionSignature(
+            new QName("hit-count", LuceneModule.NAMESPACE_URI, LuceneModule.PREFIX),
+            "Returns the total number of hits found by the full text query which returned the given node. " +
+            "If the query only returned the nodes with the highest scores, because of the top option to " +
+            "ft:query or because the results are ordered by ft:score and only the first ones are used, " +
+            "the count includes the hits which were not returned.",
+            new SequenceType[] {
+                new FunctionParameterSequenceType("node", Type.NODE, Cardinality.EXACTLY_ONE,
+                    "a node returned by ft:query")
+            },
+            new FunctionReturnSequenceType(Type.INTEGER, Cardinality.ZERO_OR_ONE,
+                "the number of hits, or the empty sequence if the node was not returned by a full text query")
+        );
+
+    public HitCount(XQueryContext context) {
+        super(context, signature);
+    }
+
+    public Sequence eval(Sequence[] args, Sequence contextSequence) throws XPathException {
+        NodeValue nodeValue = (NodeValue) args[0].itemAt(0);
+        if (nodeValue.getImplementationType() != NodeValue.PERSISTENT_NODE) {
+            return Sequence.EMPTY_SEQUENCE;
+        }
+        Match match = ((NodeProxy) nodeValue).getMatches();
+        while (match != null) {
+            if (match.getIndexId() == LuceneIndex.ID) {
+                int hitCount = ((LuceneIndexWorker.LuceneMatch) match).getHitCount();
+                if (hitCount >= 0) {
+                    return new IntegerValue(hitCount);
+                }
+            }
+            match = match.getNextMatch();
+        }
+        return Sequence.EMPTY_SEQUENCE;
+    }
+}
@@ -52,6 +52,9 @@ public class LuceneModule extends AbstractInternalModule {
         new FunctionDef(QueryField.signatures[0], QueryField.class),
         new FunctionDef(QueryField.signatures[1], QueryField.class),
         new FunctionDef(Score.signature, Score.class),
+        new FunctionDef(HitCount.signature, HitCount.class),
+        new FunctionDef(Facets.signatures[0], Facets.class),
+        new FunctionDef(Facets.signatures[1], Facets.class),
         new FunctionDef(Optimize.signature, Optimize.class),
         new FunctionDef(Index.signatures[0], Index.class),
         new FunctionDef(Index.signatures[1], Index.class),
@@ -46,7 +46,7 @@ import org.exist.xquery.value.SequenceType;
 import org.exist.xquery.value.Type;
 import org.w3c.dom.Element;
 
-public class Query extends Function implements Optimizable {
+public class Query extends Function implements Optimizable, RankedExpression {
 	
 	protected static final Logger logger = LogManager.getLogger(Query.class);
 
@@ -95,7 +95,13 @@ public class Query extends Function implements Optimizable {
                         "   <phrase-slop>number</phrase-slop>\n" +
                         "   <leading-wildcard>yes|no</leading-wildcard>\n" +
                         "   <filter-rewrite>yes|no</filter-rewrite>\n" +
-                        "</options>")
+                        "   <top>number</top>\n" +
+                        "   <facet dimension=\"name\">value</facet>\n" +
+                        "</options>\n" +
+                        "If top is given, only that number of nodes with the highest scores is returned. " +
+                        "The total number of hits is available through ft:hit-count. " +
+                        "Each facet restricts the hits to nodes having the given value for the facet dimension. " +
+                        "Values given for the same dimension are alternatives.")
             },
             new FunctionReturnSequenceType(Type.NODE, Cardinality.ZERO_OR_MORE,
                 "all nodes from the input node set matching the query. match highlighting information " +
@@ -110,6 +116,7 @@ public class Query extends Function implements Optimizable {
     private NodeSet preselectResult = null;
     protected boolean optimizeSelf = false;
     protected boolean optimizeChild = false;
+    private int topHits = -1;
 
     public Query(XQueryContext context, FunctionSignature signature) {
         super(context, signature);
@@ -204,6 +211,41 @@ public class Query extends Function implements Optimizable {
         return axis;
     }
 
+    @Override
+    public boolean isScoreOf(Expression orderExpr, QName variable) {
+        final Expression expr = unwrap(orderExpr);
+        if (!(expr instanceof Score)) {
+            return false;
+        }
+        final Expression arg = unwrap(((Score) expr).getArgument(0));
+        return arg instanceof VariableReference && ((VariableReference) arg).getName().equals(variable);
+    }
+
+    private static Expression unwrap(Expression expr) {
+        while (true) {
+            if (expr.getClass() == PathExpr.class && ((PathExpr) expr).getLength() == 1) {
+                expr = ((PathExpr) expr).getExpression(0);
+            } else if (expr instanceof InternalFunctionCall) {
+                expr = ((InternalFunctionCall) expr).getFunction();
+            } else if (expr instanceof DynamicCardinalityCheck || expr instanceof DynamicTypeCheck ||
+                    expr instanceof Atomize) {
+                expr = expr.getSubExpression(0);
+            } else {
+                return expr;
+            }
+        }
+    }
+
+    @Override
+    public void setTopHits(int count) {
+        this.topHits = count;
+    }
+
+    @Override
+    public int getTopHits() {
+        return topHits;
+    }
+
     public NodeSet preSelect(Sequence contextSequence, boolean useContext) throws XPathException {
     	if (contextSequence != null && !contextSequence.isPersistentSet())
     		// in-memory docs won't have an index
@@ -310,10 +352,10 @@ public class Query extends Function implements Optimizable {
     }
 
     protected Properties parseOptions(Sequence contextSequence, Item contextItem) throws XPathException {
-        if (getArgumentCount() < 3)
-            return null;
+        if (getArgumentCount() <= getOptionsArgument())
+            return getTopHitsOptions(null);
         Properties options = new Properties();
-        Sequence optSeq = getArgument(2).eval(contextSequence, contextItem);
+        Sequence optSeq = getArgument(getOptionsArgument()).eval(contextSequence, contextItem);
         NodeValue optRoot = (NodeValue) optSeq.itemAt(0);
         try {
             XMLStreamReader reader = context.getXMLStreamReader(optRoot);
@@ -322,15 +364,53 @@ public class Query extends Function implements Optimizable {
             while (reader.hasNext()) {
                 int status = reader.next();
                 if (status == XMLStreamReader.START_ELEMENT) {
-                    options.put(reader.getLocalName(), reader.getElementText());
+                    if (LuceneIndexWorker.OPTION_FACET.equals(reader.getLocalName())) {
+                        String dimension = reader.getAttributeValue(null, "dimension");
+                        if (dimension == null)
+                            throw new XPathException(this, "Facet option requires a dimension attribute");
+                        LuceneIndexWorker.addDrillDown(options, dimension, reader.getElementText());
+                    } else {
+                        options.put(reader.getLocalName(), reader.getElementText());
+                    }
                 }
             }
-            return options;
+            return getTopHitsOptions(options);
         } catch (XMLStreamException | IOException e) {
             throw new XPathException(this, "Error while parsing options to ft:query: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Position of the options parameter in the function signature.
+     */
+    protected int getOptionsArgument() {
+        return 2;
+    }
+
+    /**
+     * Adds the number of hits requested by an enclosing "for" clause to the options,
+     * unless the options already ask for fewer hits.
+     */
+    private Properties getTopHitsOptions(Properties options) {
+        if (topHits <= 0) {
+            return options;
+        }
+        if (options == null) {
+            options = new Properties();
+        }
+        final String top = options.getProperty(LuceneIndexWorker.OPTION_TOP);
+        try {
+            if (top != null && Integer.parseInt(top.trim()) <= topHits) {
+                return options;
+            }
+        } catch (NumberFormatException e) {
+            // the invalid option is reported by the index
+            return options;
+        }
+        options.setProperty(LuceneIndexWorker.OPTION_TOP, Integer.toString(topHits));
+        return options;
+    }
+
     @Override
     public void resetState(boolean postOptimization) {
         super.resetState(postOptimization);
@@ -71,7 +71,10 @@ public class QueryField extends Query implements Optimizable {
                         "   <phrase-slop>number</phrase-slop>\n" +
                         "   <leading-wildcard>yes|no</leading-wildcard>\n" +
                         "   <filter-rewrite>yes|no</filter-rewrite>\n" +
-                        "</options>")
+                        "   <top>number</top>\n" +
+                        "</options>\n" +
+                        "If top is given, only that number of nodes with the highest scores is returned. " +
+                        "The total number of hits is available through ft:hit-count.")
             },
             new FunctionReturnSequenceType(Type.NODE, Cardinality.ZERO_OR_MORE,
                 "all nodes from the input node set matching the query. match highlighting information " +
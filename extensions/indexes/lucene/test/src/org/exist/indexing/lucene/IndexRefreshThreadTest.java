@@ -0,0 +1,163 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.indexing.IndexManager;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.Configuration;
+import org.exist.util.ThreadUtils;
+import org.exist.xmldb.XmldbURI;
+import org.junit.Rule;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the background refresh of the Lucene index, configured with a max-staleness.
+ */
+public class IndexRefreshThreadTest {
+
+    private static final long MAX_STALENESS = 1000;
+
+    private static final XmldbURI COLLECTION_URI = XmldbURI.ROOT_COLLECTION_URI.append("refresh");
+
+    private static final String COLLECTION_CONFIG =
+        "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+        "   <index>" +
+        "       <lucene>" +
+        "           <text qname=\"item\"/>" +
+        "       </lucene>" +
+        "   </index>" +
+        "</collection>";
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(withMaxStaleness(), true, true);
+
+    /**
+     * Sets the max-staleness of the lucene-index module of the default configuration.
+     */
+    private static Properties withMaxStaleness() {
+        try {
+            final Configuration.IndexModuleConfig[] modules = (Configuration.IndexModuleConfig[])
+                new Configuration().getProperty(IndexManager.PROPERTY_INDEXER_MODULES);
+            for (int i = 0; i < modules.length; i++) {
+                if ("lucene-index".equals(modules[i].getId())) {
+                    final NamedNodeMap attrs = modules[i].getConfig().getAttributes();
+                    final Element config = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument()
+                        .createElement("module");
+                    for (int j = 0; j < attrs.getLength(); j++) {
+                        config.setAttribute(attrs.item(j).getNodeName(), attrs.item(j).getNodeValue());
+                    }
+                    config.setAttribute("max-staleness", Long.toString(MAX_STALENESS));
+                    modules[i] = new Configuration.IndexModuleConfig(modules[i].getId(), modules[i].getClassName(), config);
+                }
+            }
+            final Properties properties = new Properties();
+            properties.put(IndexManager.PROPERTY_INDEXER_MODULES, modules);
+            return properties;
+        } catch (final Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void changesVisibleWithinMaxStaleness() throws Exception {
+        final LuceneIndex index = getIndex();
+        assertEquals(MAX_STALENESS, index.getMaxStaleness());
+        store("<items><item>first</item></items>", "first.xml");
+        final int before = visibleDocuments(index);
+        final long commits = index.getCommitCount();
+
+        store("<items><item>second</item></items>", "second.xml");
+        final long stored = System.nanoTime();
+        // only read the current searcher, without a refresh by the search
+        while (visibleDocuments(index) == before) {
+            assertTrue("the change is not visible after the max staleness",
+                System.nanoTime() - stored < TimeUnit.MILLISECONDS.toNanos(MAX_STALENESS));
+            Thread.sleep(10);
+        }
+        assertEquals(commits, index.getCommitCount());
+        assertTrue(index.hasUncommittedChanges());
+    }
+
+    @Test
+    public void threadStopsOnClose() throws Exception {
+        final String name = ThreadUtils.nameInstanceThread(existEmbeddedServer.getBrokerPool(),
+            IndexRefreshThread.threadName(getIndex()));
+        final Thread thread = Thread.getAllStackTraces().keySet().stream()
+            .filter(t -> t.getName().equals(name))
+            .findFirst()
+            .orElse(null);
+        assertNotNull(thread);
+        assertTrue(thread.isAlive());
+
+        existEmbeddedServer.stopDb();
+        assertFalse(thread.isAlive());
+        existEmbeddedServer.startDb();
+    }
+
+    private LuceneIndex getIndex() {
+        return (LuceneIndex) existEmbeddedServer.getBrokerPool().getIndexManager().getIndexByName("lucene-index");
+    }
+
+    private static int visibleDocuments(final LuceneIndex index) throws Exception {
+        final IndexSearcher searcher = index.searcherManager.acquire();
+        try {
+            return searcher.getIndexReader().numDocs();
+        } finally {
+            index.searcherManager.release(searcher);
+        }
+    }
+
+    private void store(final String data, final String docName) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, COLLECTION_URI);
+            broker.saveCollection(transaction, collection);
+            if (collection.getDocumentCount(broker) == 0) {
+                pool.getConfigurationManager().addConfiguration(transaction, broker, collection, COLLECTION_CONFIG);
+            }
+
+            final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create(docName), data);
+            assertNotNull(info);
+            collection.store(transaction, broker, info, data);
+            transact.commit(transaction);
+        }
+    }
+}
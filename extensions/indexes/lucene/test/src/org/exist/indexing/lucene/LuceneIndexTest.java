@@ -134,6 +134,15 @@ public class LuceneIndexTest {
             "   <c>AAA on c2</c>" +
             "</a>";
 
+    private static final String XML10 =
+            "<items>" +
+            "   <item lang='en' type='book'>AAA BBB</item>" +
+            "   <item lang='en' type='article'>AAA</item>" +
+            "   <item lang='de' type='book'>AAA</item>" +
+            "   <item lang='fr'>BBB</item>" +
+            "   <item type='book'>AAA</item>" +
+            "</items>";
+
         private static final String XML9 =
 	    "<TEI xmlns=\"http://www.tei-c.org/ns/1.0\">" +
 	    "   <body>" +
@@ -249,6 +258,18 @@ public class LuceneIndexTest {
             "   </index>" +
             "</collection>";
 
+    private static final String COLLECTION_CONFIG9 =
+            "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+            "   <index>" +
+            "       <lucene>" +
+            "           <text qname='item'>" +
+            "               <facet dimension='language' attribute='lang'/>" +
+            "               <facet dimension='type' attribute='@type'/>" +
+            "           </text>" +
+            "       </lucene>" +
+            "   </index>" +
+            "</collection>";
+
     private static Collection root;
     private Boolean savedConfig;
 
@@ -467,6 +488,105 @@ public class LuceneIndexTest {
         }
     }
 
+    @Test
+    public void rankedQuery() throws EXistException, CollectionConfigurationException, PermissionDeniedException, SAXException, TriggerException, LockException, IOException, XPathException {
+        configureAndStore(COLLECTION_CONFIG7, XML8, "test.xml");
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+
+            final XQuery xquery = pool.getXQueryService();
+            assertNotNull(xquery);
+
+            // only the first two hits ordered by score are used
+            Sequence seq = xquery.execute(broker, "subsequence(for $a in ft:query((//b|//c), 'AAA') " +
+                    "order by ft:score($a) descending return xs:string($a), 1, 2)", null);
+            assertNotNull(seq);
+            assertEquals(2, seq.getItemCount());
+            assertEquals("AAA on b2", seq.itemAt(0).getStringValue());
+            assertEquals("AAA on c1", seq.itemAt(1).getStringValue());
+
+            seq = xquery.execute(broker, "(for $a in ft:query((//b|//c), 'AAA') " +
+                    "order by ft:score($a) descending return xs:string($a))[position() <= 3]", null);
+            assertNotNull(seq);
+            assertEquals(3, seq.getItemCount());
+            assertEquals("AAA on b2", seq.itemAt(0).getStringValue());
+            assertEquals("AAA on c1", seq.itemAt(1).getStringValue());
+            assertEquals("AAA on b3", seq.itemAt(2).getStringValue());
+
+            // not ordered by score: all hits are needed
+            seq = xquery.execute(broker, "subsequence(for $a in ft:query((//b|//c), 'AAA') " +
+                    "order by xs:string($a) descending return xs:string($a), 1, 2)", null);
+            assertNotNull(seq);
+            assertEquals(2, seq.getItemCount());
+            assertEquals("AAA on c2", seq.itemAt(0).getStringValue());
+            assertEquals("AAA on c1", seq.itemAt(1).getStringValue());
+
+            seq = xquery.execute(broker, "for $a in ft:query((//b|//c), 'AAA', <options><top>3</top></options>) " +
+                    "order by ft:score($a) descending return xs:string($a)", null);
+            assertNotNull(seq);
+            assertEquals(3, seq.getItemCount());
+            assertEquals("AAA on b2", seq.itemAt(0).getStringValue());
+            assertEquals("AAA on c1", seq.itemAt(1).getStringValue());
+            assertEquals("AAA on b3", seq.itemAt(2).getStringValue());
+
+            // the hit count includes the hits which were not returned
+            seq = xquery.execute(broker, "let $hits := ft:query((//b|//c), 'AAA', <options><top>2</top></options>) " +
+                    "return (count($hits), ft:hit-count($hits[1]))", null);
+            assertNotNull(seq);
+            assertEquals(2, seq.getItemCount());
+            assertEquals("2", seq.itemAt(0).getStringValue());
+            assertEquals("5", seq.itemAt(1).getStringValue());
+
+            seq = xquery.execute(broker, "ft:hit-count(ft:query(//c, 'AAA')[1])", null);
+            assertNotNull(seq);
+            assertEquals("2", seq.itemAt(0).getStringValue());
+        }
+    }
+
+    @Test
+    public void facets() throws EXistException, CollectionConfigurationException, PermissionDeniedException, SAXException, TriggerException, LockException, IOException, XPathException {
+        configureAndStore(COLLECTION_CONFIG9, XML10, "test.xml");
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+
+            final XQuery xquery = pool.getXQueryService();
+            assertNotNull(xquery);
+
+            Sequence seq = xquery.execute(broker, "let $f := ft:facets(//item, 'AAA', ('language', 'type')) " +
+                    "return ($f?language?en, $f?language?de, $f?type?book, $f?type?article, count(map:keys($f?language)))", null);
+            assertNotNull(seq);
+            assertEquals(5, seq.getItemCount());
+            assertEquals("2", seq.itemAt(0).getStringValue());
+            assertEquals("1", seq.itemAt(1).getStringValue());
+            assertEquals("3", seq.itemAt(2).getStringValue());
+            assertEquals("1", seq.itemAt(3).getStringValue());
+            assertEquals("2", seq.itemAt(4).getStringValue());
+
+            // drill down into a facet value
+            seq = xquery.execute(broker, "ft:facets(//item, 'AAA', 'language', " +
+                    "<options><facet dimension='type'>book</facet></options>)?language?en", null);
+            assertNotNull(seq);
+            assertEquals("1", seq.itemAt(0).getStringValue());
+
+            seq = xquery.execute(broker, "count(ft:query(//item, 'AAA', " +
+                    "<options><facet dimension='type'>book</facet><facet dimension='type'>article</facet></options>))", null);
+            assertNotNull(seq);
+            assertEquals("4", seq.itemAt(0).getStringValue());
+
+            seq = xquery.execute(broker, "ft:query(//item, 'AAA', " +
+                    "<options><facet dimension='language'>en</facet><facet dimension='type'>book</facet></options>)/string()", null);
+            assertNotNull(seq);
+            assertEquals(1, seq.getItemCount());
+            assertEquals("AAA BBB", seq.itemAt(0).getStringValue());
+
+            // facet values are updated with the attributes
+            xquery.execute(broker, "update value //item[@lang = 'de']/@lang with 'en'", null);
+            seq = xquery.execute(broker, "ft:facets(//item, 'AAA', 'language')?language?en", null);
+            assertNotNull(seq);
+            assertEquals("3", seq.itemAt(0).getStringValue());
+        }
+    }
+
     @Test
     public void boosts() throws EXistException, CollectionConfigurationException, PermissionDeniedException, SAXException, TriggerException, LockException, IOException, XPathException {
         configureAndStore(COLLECTION_CONFIG6, XML6, "test.xml");
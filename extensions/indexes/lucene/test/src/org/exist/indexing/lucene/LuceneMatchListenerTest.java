@@ -152,6 +152,15 @@ public class LuceneMatchListenerTest {
             "    </index>" +
             "</collection>";
 
+    private static String CONF6 =
+        "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+        "   <index>" +
+        "       <lucene>" +
+        "           <text qname=\"para\" offsets=\"yes\"/>" +
+        "       </lucene>" +
+        "   </index>" +
+        "</collection>";
+
     private static String MATCH_START = "<exist:match xmlns:exist=\"http://exist.sourceforge.net/NS/exist\">";
     private static String MATCH_END = "</exist:match>";
 
@@ -211,6 +220,80 @@ public class LuceneMatchListenerTest {
         }
     }
 
+    /**
+     * Test match highlighting from the offsets recorded at index time.
+     */
+    @Test
+    public void storedOffsets() throws EXistException, PermissionDeniedException, XPathException, SAXException, CollectionConfigurationException, LockException, IOException {
+
+        configureAndStore(CONF6, XML);
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+
+            XQuery xquery = pool.getXQueryService();
+            assertNotNull(xquery);
+            Sequence seq = xquery.execute(broker, "//para[ft:query(., 'mixed')]", null);
+            assertNotNull(seq);
+            assertEquals(1, seq.getItemCount());
+            String result = queryResult2String(broker, seq);
+            XMLAssert.assertEquals("<para>some paragraph with <hi>" + MATCH_START + "mixed" +
+                    MATCH_END + "</hi> content.</para>", result);
+
+            seq = xquery.execute(broker, "//para[ft:query(., '+nested +inner +elements')]", null);
+            assertNotNull(seq);
+            assertEquals(1, seq.getItemCount());
+            result = queryResult2String(broker, seq);
+            XMLAssert.assertEquals("<para>another paragraph with <note><hi>" + MATCH_START + "nested" +
+                    MATCH_END + "</hi> " + MATCH_START +
+                    "inner" + MATCH_END + "</note> " + MATCH_START + "elements" + MATCH_END + ".</para>", result);
+
+            seq = xquery.execute(broker, "//para[ft:query(., '\"double match\"')]", null);
+            assertNotNull(seq);
+            assertEquals(1, seq.getItemCount());
+            result = queryResult2String(broker, seq);
+            XMLAssert.assertEquals("<para>" + MATCH_START + "double match" + MATCH_END + " " +
+                    MATCH_START + "double match" + MATCH_END + "</para>", result);
+        }
+    }
+
+    /**
+     * Test that the offsets are read from the document of the node, not from another document
+     * with a node of the same id.
+     */
+    @Test
+    public void storedOffsetsOfDocument() throws EXistException, PermissionDeniedException, XPathException, SAXException, CollectionConfigurationException, LockException, IOException, TriggerException {
+
+        configureAndStore(CONF6, XML);
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            try(final Txn transaction = transact.beginTransaction()) {
+                final Collection test2 = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI2);
+                broker.saveCollection(transaction, test2);
+                store(transaction, broker, test2, "first.xml", "<test><para>mixed words come first</para></test>");
+                store(transaction, broker, test2, "other.xml", "<test><para>here the words are mixed</para></test>");
+                transact.commit(transaction);
+            }
+
+            try {
+                XQuery xquery = pool.getXQueryService();
+                assertNotNull(xquery);
+                Sequence seq = xquery.execute(broker, "doc('" + TestConstants.TEST_COLLECTION_URI2 +
+                        "/other.xml')//para[ft:query(., 'mixed')]", null);
+                assertNotNull(seq);
+                assertEquals(1, seq.getItemCount());
+                String result = queryResult2String(broker, seq);
+                XMLAssert.assertEquals("<para>here the words are " + MATCH_START + "mixed" + MATCH_END + "</para>", result);
+            } finally {
+                try(final Txn transaction = transact.beginTransaction()) {
+                    broker.removeCollection(transaction, broker.getCollection(TestConstants.TEST_COLLECTION_URI2));
+                    transact.commit(transaction);
+                }
+            }
+        }
+    }
+
     @Test
     public void matchInAncestor() throws EXistException, PermissionDeniedException, XPathException, SAXException, IOException, XpathException, LockException, CollectionConfigurationException {
         configureAndStore(CONF1, XML);
@@ -390,6 +473,12 @@ public class LuceneMatchListenerTest {
         }
     }
 
+    private void store(final Txn transaction, final DBBroker broker, final Collection collection, final String docName, final String data) throws EXistException, PermissionDeniedException, IOException, SAXException, LockException {
+        final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create(docName), data);
+        assertNotNull(info);
+        collection.store(transaction, broker, info, data);
+    }
+
     private String queryResult2String(final DBBroker broker, final Sequence seq) throws SAXException, XPathException {
         return queryResult2String(broker, seq, false);
     }
@@ -0,0 +1,367 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.backup;
+
+import org.exist.storage.HotBackup;
+import org.exist.storage.btree.Paged;
+import org.exist.storage.journal.Journal;
+import org.exist.storage.journal.Lsn;
+import org.exist.util.ByteConversion;
+import org.exist.util.FileUtils;
+import org.exist.util.SystemExitCodes;
+import se.softhouse.jargo.Argument;
+import se.softhouse.jargo.ArgumentException;
+import se.softhouse.jargo.CommandLineParser;
+import se.softhouse.jargo.ParsedArguments;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.exist.util.ArgumentUtil.getBool;
+import static org.exist.util.ArgumentUtil.getOpt;
+import static se.softhouse.jargo.Arguments.*;
+
+/**
+ * Verifies and restores a backup created by {@link HotBackup}.
+ *
+ * The verification reads the whole archive, which checks the checksum of every
+ * entry, and compares the entries with the descriptor written by the backup.
+ * The headers of the storage files are checked to be consistent with their
+ * size, and the entries of the journal are scanned from the start to the end
+ * of the backup.
+ *
+ * The restore extracts the files into the data and journal directories of a
+ * stopped database, and stores the LSN to redo the journal from. At the next
+ * start up, recovery redoes the journal and rebuilds the other indexes.
+ */
+public class HotBackupRestore {
+
+    private static final Argument<?> helpArg = helpArgument("-h", "--help");
+    private static final Argument<File> backupArg = fileArgument("-f", "--file")
+            .description("the zip file created by the hot backup.")
+            .required()
+            .build();
+    private static final Argument<File> dataDirArg = fileArgument("-d", "--data-dir")
+            .description("the data directory of the database to restore into. The database has to be stopped.")
+            .build();
+    private static final Argument<File> journalDirArg = fileArgument("-j", "--journal-dir")
+            .description("the journal directory of the database, if it differs from the data directory.")
+            .build();
+    private static final Argument<Boolean> verifyOnlyArg = optionArgument("-v", "--verify")
+            .description("only verify the backup, do not restore it.")
+            .defaultValue(false)
+            .build();
+
+    private final Path backup;
+
+    public HotBackupRestore(final Path backup) {
+        this.backup = backup;
+    }
+
+    /**
+     * Verify the backup.
+     *
+     * @return the problems found, empty if the backup can be restored
+     */
+    public List<String> verify() {
+        final List<String> problems = new ArrayList<>();
+        final Map<String, Long> sizes = new HashMap<>();
+        final Map<String, byte[]> headers = new HashMap<>();
+        final Properties descriptor = new Properties();
+        final List<JournalScan> journals = new ArrayList<>();
+        try (final ZipInputStream in = new ZipInputStream(Files.newInputStream(backup))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                final String name = entry.getName();
+                if (HotBackup.DESCRIPTOR_ENTRY.equals(name)) {
+                    descriptor.load(in);
+                } else if (name.startsWith(HotBackup.JOURNAL_DIR_ENTRY)) {
+                    final JournalScan journal = new JournalScan(name);
+                    sizes.put(name, journal.scan(in));
+                    journals.add(journal);
+                } else {
+                    // keep the start of the file, which holds the header of storage files
+                    final byte[] header = new byte[Paged.OFFSET_PAGE_COUNT];
+                    final int read = readFully(in, header);
+                    headers.put(name, Arrays.copyOf(header, read));
+                    sizes.put(name, read + skip(in));
+                }
+                in.closeEntry();
+            }
+        } catch (final IOException e) {
+            problems.add("Failed to read " + backup.toAbsolutePath().toString() + ": " + e.getMessage());
+            return problems;
+        }
+
+        if (descriptor.isEmpty()) {
+            problems.add("The backup descriptor " + HotBackup.DESCRIPTOR_ENTRY + " is missing");
+            return problems;
+        }
+
+        for (final Map.Entry<String, Long> size : sizes.entrySet()) {
+            final String expected = descriptor.getProperty(HotBackup.SIZE_PROPERTY_PREFIX + size.getKey());
+            if (expected == null) {
+                problems.add("Unexpected entry " + size.getKey());
+            } else if (Long.parseLong(expected) != size.getValue()) {
+                problems.add("Entry " + size.getKey() + " has " + size.getValue() + " bytes, expected " + expected);
+            }
+        }
+        for (final String property : descriptor.stringPropertyNames()) {
+            if (property.startsWith(HotBackup.SIZE_PROPERTY_PREFIX) &&
+                    !sizes.containsKey(property.substring(HotBackup.SIZE_PROPERTY_PREFIX.length()))) {
+                problems.add("Missing entry " + property.substring(HotBackup.SIZE_PROPERTY_PREFIX.length()));
+            }
+        }
+
+        final int pageSize = Integer.parseInt(descriptor.getProperty(HotBackup.PAGE_SIZE_PROPERTY, "0"));
+        for (final String name : descriptor.getProperty(HotBackup.STORAGE_PROPERTY, "").split(",")) {
+            final byte[] header = headers.get(name);
+            if (name.isEmpty() || header == null) {
+                continue;
+            }
+            if (header.length < Paged.OFFSET_PAGE_COUNT) {
+                problems.add("Storage file " + name + " has no header");
+                continue;
+            }
+            final short headerSize = ByteConversion.byteToShort(header, Paged.OFFSET_HEADER_SIZE);
+            final int filePageSize = ByteConversion.byteToInt(header, Paged.OFFSET_PAGE_SIZE);
+            if (filePageSize != pageSize) {
+                problems.add("Storage file " + name + " has page size " + filePageSize + ", expected " + pageSize);
+            } else if (headerSize <= 0 || (sizes.get(name) - headerSize) % pageSize != 0) {
+                problems.add("Storage file " + name + " does not consist of complete pages");
+            }
+        }
+
+        final String journalName = descriptor.getProperty(HotBackup.JOURNAL_PROPERTY);
+        final long redoLsn = Long.parseLong(descriptor.getProperty(HotBackup.REDO_LSN_PROPERTY, "-1"));
+        final long endLsn = Long.parseLong(descriptor.getProperty(HotBackup.END_LSN_PROPERTY, "-1"));
+        final Optional<JournalScan> journal = journals.stream().filter(j -> j.name.equals(journalName)).findFirst();
+        if (!journal.isPresent()) {
+            problems.add("The journal of the backup is missing");
+        } else if (redoLsn == Lsn.LSN_INVALID || endLsn == Lsn.LSN_INVALID ||
+                Lsn.getFileNumber(redoLsn) != Lsn.getFileNumber(endLsn) ||
+                !journalName.equals(HotBackup.JOURNAL_DIR_ENTRY +
+                        Journal.getFileName((int) Lsn.getFileNumber(redoLsn)))) {
+            problems.add("The journal " + journalName + " does not match the LSNs of the backup");
+        } else {
+            problems.addAll(journal.get().check(redoLsn, endLsn));
+        }
+        return problems;
+    }
+
+    /**
+     * Restore the backup into the directories of a stopped database. The backup
+     * is verified first, nothing is written if problems are found. Journal files
+     * and binary resources in the target directories are replaced.
+     *
+     * @param dataDir the data directory of the database
+     * @param journalDir the journal directory of the database
+     * @throws IOException if the backup cannot be restored
+     */
+    public void restore(final Path dataDir, final Path journalDir) throws IOException {
+        final List<String> problems = verify();
+        if (!problems.isEmpty()) {
+            throw new IOException("The backup cannot be restored: " + String.join("; ", problems));
+        }
+        // recovery uses the journal file with the highest number
+        Files.createDirectories(journalDir);
+        try (final Stream<Path> journalFiles = Files.list(journalDir)) {
+            journalFiles.filter(p -> FileUtils.fileName(p).endsWith('.' + Journal.LOG_FILE_SUFFIX))
+                    .forEach(FileUtils::deleteQuietly);
+        }
+        // binary resources stored after the backup are not referenced by the restored database
+        final Path fsDir = resolve(dataDir, HotBackup.BINARY_DIR_ENTRY);
+        if (Files.exists(fsDir)) {
+            FileUtils.delete(fsDir);
+        }
+
+        final Properties descriptor = new Properties();
+        try (final ZipInputStream in = new ZipInputStream(Files.newInputStream(backup))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                final String name = entry.getName();
+                if (HotBackup.DESCRIPTOR_ENTRY.equals(name)) {
+                    descriptor.load(in);
+                } else if (!entry.isDirectory()) {
+                    final Path target = name.startsWith(HotBackup.JOURNAL_DIR_ENTRY) ?
+                            resolve(journalDir, name.substring(HotBackup.JOURNAL_DIR_ENTRY.length())) :
+                            resolve(dataDir, name);
+                    Files.createDirectories(target.getParent());
+                    Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                in.closeEntry();
+            }
+        }
+
+        Files.write(journalDir.resolve(Journal.REDO_LSN_FILE),
+                descriptor.getProperty(HotBackup.REDO_LSN_PROPERTY).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Path resolve(final Path dir, final String name) throws IOException {
+        final Path target = dir.resolve(name).normalize();
+        if (!target.startsWith(dir.normalize())) {
+            throw new IOException("Invalid entry in backup: " + name);
+        }
+        return target;
+    }
+
+    private static int readFully(final InputStream in, final byte[] data) throws IOException {
+        int total = 0;
+        int read;
+        while (total < data.length && (read = in.read(data, total, data.length - total)) > 0) {
+            total += read;
+        }
+        return total;
+    }
+
+    private static long skip(final InputStream in) throws IOException {
+        final byte[] buf = new byte[4096];
+        long total = 0;
+        int read;
+        while ((read = in.read(buf)) > 0) {
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Scans the entries of a journal file in the backup, see {@link Journal}
+     * for the structure of an entry.
+     */
+    private static class JournalScan {
+        private final String name;
+        private final Set<Long> entryOffsets = new HashSet<>();
+        private String error = null;
+        private long size = 0;
+
+        private JournalScan(final String name) {
+            this.name = name;
+        }
+
+        private long scan(final InputStream in) throws IOException {
+            final byte[] header = new byte[Journal.LOG_ENTRY_HEADER_LEN];
+            while (true) {
+                final int read = readFully(in, header);
+                if (read == 0) {
+                    break;
+                }
+                if (read < header.length) {
+                    size += read;
+                    fail("Incomplete entry header");
+                    break;
+                }
+                final short length = ByteBuffer.wrap(header).getShort(Journal.LOG_ENTRY_HEADER_LEN - 2);
+                if (length < 0) {
+                    size += read;
+                    fail("Invalid entry length");
+                    break;
+                }
+                entryOffsets.add(size);
+                final byte[] data = new byte[length + 2];
+                final int dataRead = readFully(in, data);
+                size += read + dataRead;
+                if (dataRead < data.length) {
+                    fail("Incomplete entry");
+                    break;
+                }
+                if (ByteBuffer.wrap(data).getShort(length) != length + header.length) {
+                    fail("Bad pointer to previous entry");
+                    break;
+                }
+            }
+            return size + skip(in);
+        }
+
+        private void fail(final String message) {
+            if (error == null) {
+                error = message + " at offset " + size;
+            }
+        }
+
+        private List<String> check(final long redoLsn, final long endLsn) {
+            final List<String> problems = new ArrayList<>();
+            if (error != null) {
+                problems.add("Journal " + name + ": " + error);
+            }
+            if (!entryOffsets.contains(Lsn.getOffset(redoLsn) - 1) && Lsn.getOffset(redoLsn) - 1 != size) {
+                problems.add("Journal " + name + ": no entry starts at the redo LSN " + Lsn.dump(redoLsn));
+            }
+            if (Lsn.getOffset(endLsn) - 1 != size) {
+                problems.add("Journal " + name + " ends at offset " + size + ", expected " + Lsn.dump(endLsn));
+            }
+            return problems;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void main(final String[] args) {
+        try {
+            final ParsedArguments arguments = CommandLineParser
+                    .withArguments(backupArg, dataDirArg, journalDirArg, verifyOnlyArg)
+                    .andArguments(helpArg)
+                    .parse(args);
+            process(arguments);
+        } catch (final ArgumentException e) {
+            System.out.println(e.getMessageAndUsage());
+            System.exit(SystemExitCodes.INVALID_ARGUMENT_EXIT_CODE);
+        }
+    }
+
+    private static void process(final ParsedArguments arguments) {
+        final HotBackupRestore restore = new HotBackupRestore(arguments.get(backupArg).toPath());
+        if (getBool(arguments, verifyOnlyArg)) {
+            final List<String> problems = restore.verify();
+            for (final String problem : problems) {
+                System.err.println(problem);
+            }
+            if (!problems.isEmpty()) {
+                System.err.println("ERRORS FOUND.");
+                System.exit(SystemExitCodes.CATCH_ALL_GENERAL_ERROR_EXIT_CODE);
+            }
+            System.out.println("No errors.");
+            System.exit(SystemExitCodes.OK_EXIT_CODE);
+        }
+
+        final Optional<Path> dataDir = getOpt(arguments, dataDirArg).map(File::toPath);
+        if (!dataDir.isPresent()) {
+            System.err.println("ERROR: The data directory to restore into is required, use --data-dir.");
+            System.exit(SystemExitCodes.INVALID_ARGUMENT_EXIT_CODE);
+        }
+        final Path journalDir = getOpt(arguments, journalDirArg).map(File::toPath).orElse(dataDir.get());
+        try {
+            restore.restore(dataDir.get(), journalDir);
+        } catch (final IOException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            System.exit(SystemExitCodes.IO_ERROR_EXIT_CODE);
+        }
+        System.out.println("Backup restored. The journal will be redone when the database is started.");
+        System.exit(SystemExitCodes.OK_EXIT_CODE);
+    }
+}
@@ -35,12 +35,14 @@ import javax.xml.parsers.SAXParserFactory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.Database;
+import org.exist.EXistException;
 import org.exist.backup.restore.SystemImportHandler;
 import org.exist.backup.restore.listener.RestoreListener;
 import org.exist.config.ConfigurationException;
 import org.exist.security.AuthenticationException;
 import org.exist.security.PermissionDeniedException;
 import org.exist.security.Subject;
+import org.exist.storage.BulkLoader;
 import org.exist.storage.DBBroker;
 import org.exist.util.EXistInputSource;
 import org.exist.util.FileUtils;
@@ -60,11 +62,23 @@ public class SystemImport {
     public final static Logger LOG = LogManager.getLogger( SystemImport.class );
 
     private Database db;
+    private boolean bulkLoad = false;
     
     public SystemImport(Database db) {
     	this.db = db;
 	}
 
+    /**
+     * Restore the documents through a {@link BulkLoader}, which builds the DOM and
+     * structural indexes after all documents are restored. The restored documents
+     * cannot be queried before the restore has finished.
+     *
+     * @param bulkLoad true to use a bulk loader
+     */
+    public void setBulkLoad(final boolean bulkLoad) {
+        this.bulkLoad = bulkLoad;
+    }
+
     public void restore(RestoreListener listener, String username, Object credentials, String newCredentials, final Path f, String uri) throws XMLDBException, IOException, SAXException, ParserConfigurationException, URISyntaxException, AuthenticationException, ConfigurationException, PermissionDeniedException {
         
         //login
@@ -84,16 +98,26 @@ public class SystemImport {
 	        try {
 	            listener.restoreStarting();
 	
-	            while(!descriptors.isEmpty()) {
-	                final BackupDescriptor descriptor = descriptors.pop();
-	                final EXistInputSource is = descriptor.getInputSource();
-	                is.setEncoding( "UTF-8" );
+	            // the documents are stored through the broker, the loader only defers the index build
+	            final BulkLoader loader = bulkLoad ? new BulkLoader(broker) : null;
+	            try {
+	                while(!descriptors.isEmpty()) {
+	                    final BackupDescriptor descriptor = descriptors.pop();
+	                    final EXistInputSource is = descriptor.getInputSource();
+	                    is.setEncoding( "UTF-8" );
 	
-	                final SystemImportHandler handler = new SystemImportHandler(broker, listener, uri, descriptor);
-	                
-	                reader.setContentHandler(handler);
-	                reader.parse(is);
+	                    final SystemImportHandler handler = new SystemImportHandler(broker, listener, uri, descriptor);
+	                    
+	                    reader.setContentHandler(handler);
+	                    reader.parse(is);
+	                }
+	            } finally {
+	                if(loader != null) {
+	                    loader.close();
+	                }
 	            }
+	        } catch(final EXistException e) {
+	            throw new XMLDBException(ErrorCodes.VENDOR_ERROR, e.getMessage(), e);
 	        } finally {
 	            listener.restoreFinished();
 	        }
@@ -1107,6 +1107,7 @@ public class MutableCollection implements Collection {
 
             trigger.afterDeleteDocument(broker, transaction, doc.getURI());
 
+            broker.getBrokerPool().getNotificationService().notifyUpdate(doc, UpdateListener.REMOVE);
         } finally {
             broker.getBrokerPool().getProcessMonitor().endJob();
             doc.getUpdateLock().release(LockMode.WRITE_LOCK);
@@ -1712,6 +1713,8 @@ public class MutableCollection implements Collection {
             } else {
                 trigger.afterUpdateDocument(broker, transaction, blob);
             }
+
+            db.getNotificationService().notifyUpdate(blob, (oldDoc == null ? UpdateListener.ADD : UpdateListener.UPDATE));
         } finally {
             blob.getUpdateLock().release(LockMode.READ_LOCK);
         }
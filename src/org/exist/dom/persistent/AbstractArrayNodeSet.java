@@ -128,7 +128,7 @@ public abstract class AbstractArrayNodeSet extends AbstractNodeSet implements Do
         return itemType;
     }
 
-    private void checkItemType(final int type) {
+    protected void checkItemType(final int type) {
         if(itemType == Type.NODE || itemType == type) {
             return;
         }
@@ -140,7 +140,7 @@ public abstract class AbstractArrayNodeSet extends AbstractNodeSet implements Do
         }
     }
 
-    private void setHasChanged() {
+    protected void setHasChanged() {
         this.state = (state == Integer.MAX_VALUE ? 0 : state + 1);
     }
 
@@ -0,0 +1,1036 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.dom.persistent;
+
+import org.exist.collections.Collection;
+import org.exist.numbering.NodeId;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.Constants;
+import org.exist.xquery.Expression;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.SequenceIterator;
+import org.w3c.dom.Node;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Removes duplication between NewArrayNodeSet
+ * and PackedArrayNodeSet
+ * <p/>
+ * Both keep all nodes in one array, sorted by document and node id, and
+ * track the range of every document in documentIds, documentOffsets and
+ * documentLengths. The subclasses only decide how the node at a given
+ * position is stored, and compare it with a node id without creating
+ * a {@link NodeProxy}, if possible.
+ */
+public abstract class AbstractFlatArrayNodeSet extends AbstractArrayNodeSet implements ExtNodeSet, DocumentSet {
+
+    private Set<Collection> cachedCollections = null;
+
+    protected int documentIds[] = new int[16];
+    protected int documentOffsets[] = new int[16];
+    protected int documentLengths[] = new int[16];
+    protected int documentCount = 0;
+
+    protected AbstractFlatArrayNodeSet() {
+    }
+
+    protected AbstractFlatArrayNodeSet(final AbstractFlatArrayNodeSet other) {
+        size = other.size;
+        isSorted = other.isSorted;
+        hasOne = other.hasOne;
+        itemType = other.itemType;
+        documentCount = other.documentCount;
+        documentIds = Arrays.copyOf(other.documentIds, other.documentIds.length);
+        documentOffsets = Arrays.copyOf(other.documentOffsets, other.documentOffsets.length);
+        documentLengths = Arrays.copyOf(other.documentLengths, other.documentLengths.length);
+    }
+
+    /**
+     * Returns the node at the given position, which must be valid.
+     */
+    protected abstract NodeProxy nodeAt(final int pos);
+
+    /**
+     * Returns the node at the given position, or null if the subclass
+     * has not created a {@link NodeProxy} for it yet. Such a node has
+     * neither context nor matches.
+     */
+    protected abstract NodeProxy existingNodeAt(final int pos);
+
+    /**
+     * Returns the id of the document of the node at the given position.
+     */
+    protected abstract int getDocId(final int pos);
+
+    /**
+     * Returns the document at the given index into documentIds.
+     */
+    protected abstract DocumentImpl getDocumentAt(final int docIdx);
+
+    protected abstract int compareTo(final int pos, final NodeId nodeId);
+
+    protected abstract int computeRelation(final int pos, final NodeId ancestorId);
+
+    protected abstract boolean isDescendantOf(final int pos, final NodeId ancestorId);
+
+    protected abstract boolean isDescendantOrSelfOf(final int pos, final NodeId ancestorId);
+
+    /**
+     * Checks if the node at the given position is an ancestor of the given node.
+     */
+    protected abstract boolean isAncestorOf(final int pos, final NodeId nodeId);
+
+    protected abstract int getTreeLevel(final int pos);
+
+    protected abstract boolean isDocumentNode(final int pos);
+
+    /**
+     * Sorts the nodes by document and node id.
+     */
+    protected abstract void sortNodes();
+
+    /**
+     * Remove all duplicate nodes from this set.
+     *
+     * @param mergeContext a <code>boolean</code> value
+     */
+    protected abstract void removeDuplicates(final boolean mergeContext);
+
+    protected int findDoc(final DocumentImpl doc) {
+        return findDoc(doc.getDocId());
+    }
+
+    protected int findDoc(final int docId) {
+        int low = 0;
+        int high = documentCount - 1;
+        while(low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int midVal = documentIds[mid];
+            if(midVal < docId) {
+                low = mid + 1;
+            } else if(midVal > docId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            } // key found
+        }
+        return -(low + 1);  // key not found.
+    }
+
+    @Override
+    public void reset() {
+        documentCount = 0;
+        size = 0;
+        isSorted = false;
+        state = 0;
+    }
+
+    @Override
+    public int getSizeHint(final DocumentImpl doc) {
+        if(!isSorted()) {
+            sort();
+        }
+        final int idx = findDoc(doc);
+        return idx < 0 ? Constants.NO_SIZE_HINT : documentLengths[idx];
+    }
+
+    @Override
+    public NodeSetIterator iterator() {
+        if(!isSorted()) {
+            sort();
+        }
+        return new ArrayIterator();
+    }
+
+    @Override
+    public SequenceIterator iterate() throws XPathException {
+        sortInDocumentOrder();
+        return new ArrayIterator();
+    }
+
+    @Override
+    public SequenceIterator unorderedIterator() throws XPathException {
+        if(!isSorted()) {
+            sort();
+        }
+        return new ArrayIterator();
+    }
+
+    @Override
+    public boolean contains(final NodeProxy proxy) {
+        sort();
+        final int idx = findDoc(proxy.getOwnerDocument());
+        if(idx < 0) {
+            return false;
+        }
+        return find(idx, proxy.getNodeId()) > -1;
+    }
+
+    @Override
+    public NodeProxy get(final int pos) {
+        if(pos < 0 || pos >= size) {
+            return null;
+        }
+        return nodeAt(pos);
+    }
+
+    @Override
+    public NodeProxy get(final NodeProxy proxy) {
+        sort();
+        final int idx = findDoc(proxy.getOwnerDocument());
+        if(idx < 0) {
+            return null;
+        }
+        return get(idx, proxy.getNodeId());
+    }
+
+    @Override
+    public NodeProxy get(final DocumentImpl doc, final NodeId nodeId) {
+        sort();
+        final int idx = findDoc(doc);
+        if(idx < 0) {
+            return null;
+        }
+        return get(idx, nodeId);
+    }
+
+    private NodeProxy get(final int docIdx, final NodeId nodeId) {
+        final int pos = find(docIdx, nodeId);
+        return pos < 0 ? null : nodeAt(pos);
+    }
+
+    /**
+     * Binary search for the position of the node with the given id
+     * in the range of the document.
+     *
+     * @return the position or -1 if the node is not in the set
+     */
+    private int find(final int docIdx, final NodeId nodeId) {
+        if(!isSorted()) {
+            sort();
+        }
+        int low = documentOffsets[docIdx];
+        int high = low + (documentLengths[docIdx] - 1);
+        int mid, cmp;
+        while(low <= high) {
+            mid = (low + high) / 2;
+            cmp = compareTo(mid, nodeId);
+            if(cmp == 0) {
+                return mid;
+            }
+            if(cmp > 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    protected final NodeSet getDescendantsInSet(final NodeSet al, final boolean childOnly,
+            final boolean includeSelf, final int mode, final int contextId, final boolean copyMatches) {
+        sort();
+        final NodeSet result = new NewArrayNodeSet();
+        int docIdx;
+        for(final NodeProxy node : al) {
+            docIdx = findDoc(node.getOwnerDocument());
+            if(docIdx > -1) {
+                getDescendantsInSet(docIdx, result, node, childOnly, includeSelf,
+                    mode, contextId, copyMatches);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find all nodes in the current set being children or descendants of
+     * the given parent node.
+     *
+     * @param result      the node set to which matching nodes will be appended.
+     * @param parent      the parent node to search for.
+     * @param childOnly   only include child nodes, not descendant nodes
+     * @param includeSelf include the self:: axis
+     * @param mode
+     * @param contextId
+     */
+    private NodeSet getDescendantsInSet(final int docIdx, final NodeSet result, final NodeProxy parent,
+            final boolean childOnly, final boolean includeSelf, final int mode, final int contextId, final boolean copyMatches) {
+        final NodeId parentId = parent.getNodeId();
+        // document nodes are treated specially
+        if(parentId == NodeId.DOCUMENT_NODE) {
+            final int end = documentOffsets[docIdx] + documentLengths[docIdx];
+            for(int i = documentOffsets[docIdx]; i < end; i++) {
+                boolean add;
+                if(childOnly) {
+                    add = getTreeLevel(i) == 1;
+                } else if(includeSelf) {
+                    add = true;
+                } else {
+                    add = !isDocumentNode(i);
+                }
+                if(add) {
+                    addDescendant(result, nodeAt(i), parent, mode, contextId, copyMatches);
+                }
+            }
+        } else {
+            // do a binary search to pick some node in the range of valid
+            // child ids
+            int low = documentOffsets[docIdx];
+            int high = low + (documentLengths[docIdx] - 1);
+            final int end = low + documentLengths[docIdx];
+            int mid = low;
+            int cmp;
+            while(low <= high) {
+                mid = (low + high) / 2;
+                if(isDescendantOrSelfOf(mid, parentId)) {
+                    break;    // found a child node, break out.
+                }
+                cmp = compareTo(mid, parentId);
+                if(cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            if(low > high) {
+                return result; // no node found
+            }
+            // find the first child node in the range
+            while(mid > documentOffsets[docIdx] && compareTo(mid - 1, parentId) > -1) {
+                --mid;
+            }
+            // walk through the range of child nodes we found
+            for(int i = mid; i < end; i++) {
+                cmp = computeRelation(i, parentId);
+                if(cmp > -1) {
+                    boolean add = true;
+                    if(childOnly) {
+                        add = cmp == NodeId.IS_CHILD;
+                    } else if(cmp == NodeId.IS_SELF) {
+                        add = includeSelf;
+                    }
+                    if(add) {
+                        addDescendant(result, nodeAt(i), parent, mode, contextId, copyMatches);
+                    }
+                } else {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void addDescendant(final NodeSet result, final NodeProxy node, final NodeProxy parent,
+            final int mode, final int contextId, final boolean copyMatches) {
+        switch(mode) {
+            case NodeSet.DESCENDANT:
+                if(Expression.NO_CONTEXT_ID != contextId) {
+                    node.deepCopyContext(parent, contextId);
+                } else {
+                    node.copyContext(parent);
+                }
+                if(copyMatches) {
+                    node.addMatches(parent);
+                }
+                result.add(node);
+                break;
+            case NodeSet.ANCESTOR:
+                if(Expression.NO_CONTEXT_ID != contextId) {
+                    parent.deepCopyContext(node, contextId);
+                } else {
+                    parent.copyContext(node);
+                }
+                if(copyMatches) {
+                    parent.addMatches(node);
+                }
+                result.add(parent, 1);
+                break;
+        }
+    }
+
+    @Override
+    public NodeProxy hasDescendantsInSet(final DocumentImpl doc, final NodeId ancestorId,
+            final boolean includeSelf, final int contextId, final boolean copyMatches) {
+        sort();
+        final int docIdx = findDoc(doc);
+        if(docIdx < 0) {
+            return null;
+        }
+        return hasDescendantsInSet(docIdx, ancestorId, contextId, includeSelf, copyMatches);
+    }
+
+    /**
+     * The method <code>hasDescendantsInSet</code>
+     *
+     * @param ancestorId  a <code>NodeId</code> value
+     * @param contextId   an <code>int</code> value
+     * @param includeSelf a <code>boolean</code> value
+     * @return a <code>NodeProxy</code> value
+     */
+    private NodeProxy hasDescendantsInSet(final int docIdx, final NodeId ancestorId,
+            final int contextId, final boolean includeSelf, final boolean copyMatches) {
+        // do a binary search to pick some node in the range of valid child ids
+        int low = documentOffsets[docIdx];
+        int high = low + (documentLengths[docIdx] - 1);
+        final int end = low + documentLengths[docIdx];
+        int mid = 0;
+        int cmp;
+        while(low <= high) {
+            mid = (low + high) / 2;
+            if(isDescendantOrSelfOf(mid, ancestorId)) {
+                break; // found a child node, break out.
+            }
+            cmp = compareTo(mid, ancestorId);
+            if(cmp > 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        if(low > high) {
+            return null; // no node found
+        }
+        // find the first child node in the range
+        while(mid > documentOffsets[docIdx] && compareTo(mid - 1, ancestorId) >= 0) {
+            --mid;
+        }
+        final NodeProxy ancestor = new NodeProxy(getDocumentAt(docIdx), ancestorId, Node.ELEMENT_NODE);
+        // we need to check if self should be included
+        boolean foundOne = false;
+        for(int i = mid; i < end; i++) {
+            cmp = computeRelation(i, ancestorId);
+            if(cmp > -1) {
+                boolean add = true;
+                if(cmp == NodeId.IS_SELF) {
+                    add = includeSelf;
+                }
+                if(add) {
+                    final NodeProxy node = nodeAt(i);
+                    if(Expression.NO_CONTEXT_ID != contextId) {
+                        ancestor.deepCopyContext(node, contextId);
+                    } else {
+                        ancestor.copyContext(node);
+                    }
+                    if(copyMatches) {
+                        ancestor.addMatches(node);
+                    }
+                    foundOne = true;
+                }
+            } else {
+                break;
+            }
+        }
+        return foundOne ? ancestor : null;
+    }
+
+    @Override
+    public void sort(final boolean mergeContexts) {
+        if(isSorted) {
+            return;
+        } else if(hasOne) {
+            isSorted = true; // shortcut: don't sort if there's just one item
+            removeDuplicates(mergeContexts);
+            updateDocs();
+            return;
+        } else {
+            if(size > 0) {
+                sortNodes();
+                removeDuplicates(mergeContexts);
+            }
+            updateDocs();
+            isSorted = true;
+        }
+    }
+
+    protected void updateDocs() {
+        cachedCollections = null;
+        documentCount = 0;
+        for(int i = 0; i < size; i++) {
+            if(i == 0) {
+                // first document in the set
+                documentIds[0] = getDocId(0);
+                documentOffsets[0] = 0;
+                documentLengths[0] = 1;
+                ++documentCount;
+            } else if(documentIds[documentCount - 1] == getDocId(i)) {
+                // node belongs to same document as previous node
+                ++documentLengths[documentCount - 1];
+            } else {
+                // new document
+                ensureDocCapacity();
+                documentIds[documentCount] = getDocId(i);
+                documentOffsets[documentCount] = i;
+                documentLengths[documentCount++] = 1;
+            }
+        }
+    }
+
+    private void ensureDocCapacity() {
+        if(documentCount == documentIds.length) {
+            final int nlen = documentCount << 1;
+            documentIds = Arrays.copyOf(documentIds, nlen);
+            documentOffsets = Arrays.copyOf(documentOffsets, nlen);
+            documentLengths = Arrays.copyOf(documentLengths, nlen);
+        }
+    }
+
+    @Override
+    public void setSelfAsContext(final int contextId) throws XPathException {
+        for(int i = 0; i < size; i++) {
+            final NodeProxy node = nodeAt(i);
+            node.addContextNode(contextId, node);
+        }
+    }
+
+    @Override
+    public NodeSet selectPrecedingSiblings(final NodeSet contextSet, final int contextId) {
+        sort();
+        final NodeSet result = new NewArrayNodeSet();
+        for(final NodeProxy reference : contextSet) {
+            final NodeId parentId = reference.getNodeId().getParentId();
+            final int docIdx = findDoc(reference.getOwnerDocument());
+            if(docIdx < 0) {
+                continue;
+            }
+            // do a binary search to pick some node in the range of valid
+            // child ids
+            int low = documentOffsets[docIdx];
+            int high = low + (documentLengths[docIdx] - 1);
+            final int end = low + documentLengths[docIdx];
+            int mid = low;
+            int cmp;
+            while(low <= high) {
+                mid = (low + high) / 2;
+                if(isDescendantOf(mid, parentId)) {
+                    break;    // found a child node, break out.
+                }
+                cmp = compareTo(mid, parentId);
+                if(cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            if(low > high) {
+                continue; // no node found
+            }
+            // find the first child node in the range
+            while(mid < end && isDescendantOf(mid, parentId)) {
+                ++mid;
+            }
+            --mid;
+            final NodeId refId = reference.getNodeId();
+            final int refLevel = refId.getTreeLevel();
+            for(int i = mid; i >= documentOffsets[docIdx]; i--) {
+                if(!isDescendantOf(i, parentId)) {
+                    break;
+                }
+                if(getTreeLevel(i) == refLevel && compareTo(i, refId) < 0) {
+                    addSelected(result, nodeAt(i), reference, contextId);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public NodeSet selectFollowingSiblings(final NodeSet contextSet, final int contextId) {
+        sort();
+        final NodeSet result = new NewArrayNodeSet();
+        for(final NodeProxy reference : contextSet) {
+            final NodeId parentId = reference.getNodeId().getParentId();
+            final int docIdx = findDoc(reference.getOwnerDocument());
+            if(docIdx < 0) {
+                continue;
+            } //BUG: can't be null, make trouble @LocationStep line 388 -shabanovd
+            // do a binary search to pick some node in the range of valid
+            // child ids
+            int low = documentOffsets[docIdx];
+            int high = low + (documentLengths[docIdx] - 1);
+            final int end = low + documentLengths[docIdx];
+            int mid = low;
+            int cmp;
+            while(low <= high) {
+                mid = (low + high) / 2;
+                if(isDescendantOf(mid, parentId)) {
+                    break;    // found a child node, break out.
+                }
+                cmp = compareTo(mid, parentId);
+                if(cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            if(low > high) {
+                continue; // no node found
+            }
+            // find the first child node in the range
+            while(mid > documentOffsets[docIdx] && compareTo(mid - 1, parentId) > -1) {
+                --mid;
+            }
+            final NodeId refId = reference.getNodeId();
+            final int refLevel = refId.getTreeLevel();
+            for(int i = mid; i < end; i++) {
+                if(!isDescendantOf(i, parentId)) {
+                    break;
+                }
+                if(getTreeLevel(i) == refLevel && compareTo(i, refId) > 0) {
+                    addSelected(result, nodeAt(i), reference, contextId);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public NodeSet selectFollowing(final NodeSet fl, final int contextId) throws XPathException {
+        return selectFollowing(fl, -1, contextId);
+    }
+
+    @Override
+    public NodeSet selectFollowing(final NodeSet pl, final int position, final int contextId) throws XPathException, UnsupportedOperationException {
+        sort();
+        final NodeSet result = new NewArrayNodeSet();
+        for(final NodeProxy reference : pl) {
+            final int idx = findDoc(reference.getOwnerDocument());
+            if(idx < 0) {
+                continue;
+            }
+            final int refDocId = reference.getOwnerDocument().getDocId();
+            final NodeId refId = reference.getNodeId();
+            int i = documentOffsets[idx];
+            for(; i < size; i++) {
+                if(getDocId(i) != refDocId ||
+                    (compareTo(i, refId) > 0 && !isDescendantOf(i, refId))) {
+                    break;
+                }
+            }
+            int n = 0;
+            for(int j = i; j < size; j++) {
+                if(getDocId(j) != refDocId) {
+                    break;
+                }
+                if(!isAncestorOf(j, refId)) {
+                    if(position < 0 || ++n == position) {
+                        addSelected(result, nodeAt(j), reference, contextId);
+                    }
+                    if(n == position) {
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public NodeSet selectPreceding(final NodeSet pl, final int contextId)
+            throws XPathException {
+        return selectPreceding(pl, -1, contextId);
+    }
+
+    @Override
+    public NodeSet selectPreceding(final NodeSet pl, final int position,
+            final int contextId) throws XPathException,
+            UnsupportedOperationException {
+        sort();
+        final NodeSet result = new NewArrayNodeSet();
+        for(final NodeProxy reference : pl) {
+            final int idx = findDoc(reference.getOwnerDocument());
+            if(idx < 0) {
+                continue;
+            }
+            final int refDocId = reference.getOwnerDocument().getDocId();
+            final NodeId refId = reference.getNodeId();
+            int i = documentOffsets[idx];
+            for(; i < size; i++) {
+                if(getDocId(i) != refDocId || compareTo(i, refId) >= 0) {
+                    break;
+                }
+            }
+            --i;
+            int n = 0;
+            for(int j = i; j >= documentOffsets[idx]; j--) {
+                if(!isAncestorOf(j, refId)) {
+                    if(position < 0 || ++n == position) {
+                        addSelected(result, nodeAt(j), reference, contextId);
+                    }
+                    if(n == position) {
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void addSelected(final NodeSet result, final NodeProxy node, final NodeProxy reference,
+            final int contextId) {
+        if(Expression.IGNORE_CONTEXT != contextId) {
+            if(Expression.NO_CONTEXT_ID == contextId) {
+                node.copyContext(reference);
+            } else {
+                node.addContextNode(contextId, reference);
+            }
+        }
+        result.add(node);
+    }
+
+    @Override
+    public NodeProxy parentWithChild(final DocumentImpl doc, final NodeId nodeId, final boolean directParent, final boolean includeSelf) {
+        sort();
+        final int docIdx = findDoc(doc);
+        if(docIdx < 0) {
+            return null;
+        }
+        return parentWithChild(docIdx, nodeId, directParent, includeSelf);
+    }
+
+    /**
+     * Check if the node identified by its node id has an ancestor
+     * contained in this node set and return the ancestor found.
+     * <p/>
+     * If directParent is true, only immediate ancestors (parents) are
+     * considered. Otherwise the method will call itself recursively for
+     * all the node's parents.
+     * <p/>
+     * If includeSelf is true, the method returns also true if the node
+     * itself is contained in the node set.
+     *
+     * @param nodeId       a <code>NodeId</code> value
+     * @param directParent a <code>boolean</code> value
+     * @param includeSelf  a <code>boolean</code> value
+     * @return a <code>NodeProxy</code> value
+     */
+    private NodeProxy parentWithChild(final int docIdx, final NodeId nodeId, final boolean directParent, final boolean includeSelf) {
+        NodeProxy temp;
+        if(includeSelf && (temp = get(docIdx, nodeId)) != null) {
+            return temp;
+        }
+        NodeId parentNodeId = nodeId.getParentId();
+        while(parentNodeId != null) {
+            if((temp = get(docIdx, parentNodeId)) != null) {
+                return temp;
+            } else if(directParent) {
+                return null;
+            }
+            parentNodeId = parentNodeId.getParentId();
+        }
+        return null;
+    }
+
+    @Override
+    public NodeSet except(final NodeSet other) {
+        final NewArrayNodeSet result = new NewArrayNodeSet();
+        for(int i = 0; i < size; i++) {
+            final NodeProxy node = nodeAt(i);
+            if(!other.contains(node)) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public NodeSet getContextNodes(final int contextId) {
+        final NewArrayNodeSet result = new NewArrayNodeSet();
+        DocumentImpl lastDoc = null;
+        for(int i = 0; i < size; i++) {
+            final NodeProxy current = existingNodeAt(i);
+            if(current == null) {
+                continue;
+            }
+            ContextItem contextNode = current.getContext();
+            while(contextNode != null) {
+                if(contextNode.getContextId() == contextId) {
+                    final NodeProxy context = contextNode.getNode();
+                    context.addMatches(current);
+                    if(Expression.NO_CONTEXT_ID != contextId) {
+                        context.addContextNode(contextId, context);
+                    }
+                    if(lastDoc != null && lastDoc.getDocId() != context.getOwnerDocument().getDocId()) {
+                        lastDoc = context.getOwnerDocument();
+                        result.add(context, getSizeHint(lastDoc));
+                    } else {
+                        result.add(context);
+                    }
+                }
+                contextNode = contextNode.getNextDirect();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void clearContext(final int contextId) throws XPathException {
+        for(int i = 0; i < size; i++) {
+            final NodeProxy node = existingNodeAt(i);
+            if(node != null) {
+                node.clearContext(contextId);
+            }
+        }
+    }
+
+    /**
+     * The method <code>debugParts</code>
+     *
+     * @return a <code>String</code> value
+     */
+    public String debugParts() {
+        final StringBuilder buf = new StringBuilder();
+        for(int i = 0; i < documentCount; i++) {
+            buf.append(documentIds[i]);
+            buf.append(' ');
+        }
+        return buf.toString();
+    }
+
+    @Override
+    public boolean equalDocs(final DocumentSet other) {
+        if(this == other) {
+            return true;
+        }
+
+        sort();
+        if(documentCount != other.getDocumentCount()) {
+            return false;
+        } else {
+            for(int i = 0; i < documentCount; i++) {
+                if(!other.contains(documentIds[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public Iterator<Collection> getCollectionIterator() {
+        sort();
+        if(cachedCollections == null) {
+            cachedCollections = new HashSet<>();
+            for(int i = 0; i < documentCount; i++) {
+                cachedCollections.add(getDocumentAt(i).getCollection());
+            }
+        }
+        return cachedCollections.iterator();
+    }
+
+    @Override
+    public Iterator<DocumentImpl> getDocumentIterator() {
+        sort();
+        return new DocumentIterator();
+    }
+
+    @Override
+    public int getDocumentCount() {
+        sort();
+        return documentCount;
+    }
+
+    @Override
+    public DocumentImpl getDoc(final int docId) {
+        sort();
+        final int idx = findDoc(docId);
+        if(idx < 0) {
+            return null;
+        }
+        return getDocumentAt(idx);
+    }
+
+    @Override
+    public XmldbURI[] getNames() {
+        sort();
+        final XmldbURI[] uris = new XmldbURI[documentCount];
+        for(int i = 0; i < documentCount; i++) {
+            uris[i] = getDocumentAt(i).getURI();
+        }
+        return uris;
+    }
+
+    @Override
+    public DocumentSet intersection(final DocumentSet other) {
+        sort();
+        final DefaultDocumentSet set = new DefaultDocumentSet();
+
+        //left
+        for(int i = 0; i < documentCount; i++) {
+            final DocumentImpl doc = getDocumentAt(i);
+            if(other.contains(doc.getDocId())) {
+                set.add(doc);
+            }
+        }
+
+        //right
+        for(final Iterator<DocumentImpl> i = other.getDocumentIterator(); i.hasNext(); ) {
+            final DocumentImpl doc = i.next();
+            if(contains(doc.getDocId()) && (!set.contains(doc.getDocId()))) {
+                set.add(doc);
+            }
+        }
+
+        return set;
+    }
+
+    @Override
+    public boolean contains(final DocumentSet other) {
+        sort();
+        if(other.getDocumentCount() > documentCount) {
+            return false;
+        }
+
+        for(final Iterator<DocumentImpl> i = other.getDocumentIterator(); i.hasNext(); ) {
+            final DocumentImpl doc = i.next();
+            if(!contains(doc.getDocId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(final int docId) {
+        sort();
+        return findDoc(docId) > -1;
+    }
+
+    @Override
+    public NodeSet docsToNodeSet() {
+        sort();
+        final NodeSet result = new NewArrayNodeSet();
+        DocumentImpl doc;
+        for(int i = 0; i < documentCount; i++) {
+            doc = getDocumentAt(i);
+            if(doc.getResourceType() == DocumentImpl.XML_FILE) { // skip binary resources
+                result.add(new NodeProxy(doc, NodeId.DOCUMENT_NODE));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void lock(final DBBroker broker, final boolean exclusive, final boolean checkExisting) throws LockException {
+        sort();
+        for(int idx = 0; idx < documentCount; idx++) {
+            final DocumentImpl doc = getDocumentAt(idx);
+            final Lock docLock = doc.getUpdateLock();
+            docLock.acquire(exclusive ? LockMode.WRITE_LOCK : LockMode.READ_LOCK);
+        }
+    }
+
+    @Override
+    public void unlock(final boolean exclusive) {
+        sort();
+        final Thread thread = Thread.currentThread();
+        for(int idx = 0; idx < documentCount; idx++) {
+            final DocumentImpl doc = getDocumentAt(idx);
+            final Lock docLock = doc.getUpdateLock();
+            if(exclusive) {
+                docLock.release(LockMode.WRITE_LOCK);
+            } else if(docLock.isLockedForRead(thread)) {
+                docLock.release(LockMode.READ_LOCK);
+            }
+        }
+    }
+
+    private class DocumentIterator implements Iterator<DocumentImpl> {
+
+        private int currentDoc = 0;
+
+        @Override
+        public final boolean hasNext() {
+            return currentDoc < documentCount;
+        }
+
+        @Override
+        public final DocumentImpl next() {
+            if(currentDoc == documentCount) {
+                throw new NoSuchElementException();
+            } else {
+                return getDocumentAt(currentDoc++);
+            }
+        }
+
+        @Override
+        public final void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private class ArrayIterator implements NodeSetIterator, SequenceIterator {
+
+        int pos = 0;
+
+        @Override
+        public final boolean hasNext() {
+            return pos < size && pos > -1;
+        }
+
+        @Override
+        public final NodeProxy next() {
+            if(pos == size || pos < 0) {
+                pos = -1;
+                throw new NoSuchElementException();
+            }
+            return nodeAt(pos++);
+        }
+
+        @Override
+        public final void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public final NodeProxy peekNode() {
+            if(pos == size || pos < 0) {
+                pos = -1;
+                return null;
+            }
+            return nodeAt(pos);
+        }
+
+        @Override
+        public final Item nextItem() {
+            if(pos == size || pos < 0) {
+                pos = -1;
+                return null;
+            }
+            return nodeAt(pos++);
+        }
+
+        @Override
+        public void setPosition(final NodeProxy proxy) {
+            final int docIdx = findDoc(proxy.getOwnerDocument());
+            pos = docIdx > -1 ? find(docIdx, proxy.getNodeId()) : -1;
+        }
+    }
+}
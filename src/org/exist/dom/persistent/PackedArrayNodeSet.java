@@ -0,0 +1,416 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.dom.persistent;
+
+import org.exist.dom.QName;
+import org.exist.numbering.DLN;
+import org.exist.numbering.NodeId;
+import org.exist.util.hashtable.Int2ObjectHashMap;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A node set which stores its nodes in columns of primitive arrays instead
+ * of an array of {@link NodeProxy} objects.
+ * <p/>
+ * For every node, the set keeps the document id, the node type and the internal
+ * address in an int[], short[] and long[]. The node ids are copied in their
+ * serialized form into a single byte[] shared by all nodes, and are referenced
+ * by offset and number of bits. A {@link NodeProxy} is only created once a node
+ * is requested from the set, for example by an iterator, and is then kept, so
+ * that changes to its context or matches are seen by later callers.
+ * <p/>
+ * Nodes which are added as raw index data, see
+ * {@link #add(DocumentImpl, byte[], int, int, short, long, QName)}, thus do not
+ * cost any objects until they are requested. The structural joins, see
+ * {@link #selectParentChild(NodeSet, int, int)} and
+ * {@link #selectAncestorDescendant(NodeSet, int, boolean, int, boolean)}, compare
+ * the node ids in their serialized form and only create the proxies of the nodes
+ * they select, unless the other set is a {@link VirtualNodeSet}, which has to be
+ * asked for every node. This makes the class a good choice for large sets of candidate
+ * nodes, of which only a few will be selected, like the nodes returned by
+ * the structural index for a name test.
+ * <p/>
+ * Like {@link NewArrayNodeSet}, nodes are just appended and the set is sorted
+ * and duplicates removed on first access. The node ids are compared as
+ * {@link DLN}s.
+ */
+public class PackedArrayNodeSet extends AbstractFlatArrayNodeSet {
+
+    private final Int2ObjectHashMap<DocumentImpl> documents = new Int2ObjectHashMap<>();
+
+    // the columns, one entry for every node
+    private int docIds[];
+    private int nodeIdOffsets[];
+    private int nodeIdUnits[];
+    private short nodeTypes[];
+    private long addresses[];
+    // only allocated once needed
+    private QName qnames[] = null;
+    private NodeProxy proxies[] = null;
+
+    // the serialized node ids of all nodes
+    private byte nodeIdData[];
+    private int nodeIdDataLength = 0;
+
+    public PackedArrayNodeSet() {
+        docIds = new int[INITIAL_SIZE];
+        nodeIdOffsets = new int[INITIAL_SIZE];
+        nodeIdUnits = new int[INITIAL_SIZE];
+        nodeTypes = new short[INITIAL_SIZE];
+        addresses = new long[INITIAL_SIZE];
+        nodeIdData = new byte[INITIAL_SIZE * 4];
+    }
+
+    public PackedArrayNodeSet(final PackedArrayNodeSet other) {
+        super(other);
+        docIds = Arrays.copyOf(other.docIds, other.docIds.length);
+        nodeIdOffsets = Arrays.copyOf(other.nodeIdOffsets, other.nodeIdOffsets.length);
+        nodeIdUnits = Arrays.copyOf(other.nodeIdUnits, other.nodeIdUnits.length);
+        nodeTypes = Arrays.copyOf(other.nodeTypes, other.nodeTypes.length);
+        addresses = Arrays.copyOf(other.addresses, other.addresses.length);
+        qnames = other.qnames == null ? null : Arrays.copyOf(other.qnames, other.qnames.length);
+        proxies = other.proxies == null ? null : Arrays.copyOf(other.proxies, other.proxies.length);
+        nodeIdData = Arrays.copyOf(other.nodeIdData, other.nodeIdDataLength);
+        nodeIdDataLength = other.nodeIdDataLength;
+        for (final Iterator<Integer> i = other.documents.iterator(); i.hasNext(); ) {
+            final int docId = i.next();
+            documents.put(docId, other.documents.get(docId));
+        }
+    }
+
+    private void ensureCapacity() {
+        if(size == docIds.length) {
+            final int nsize = size << 1;
+            docIds = Arrays.copyOf(docIds, nsize);
+            nodeIdOffsets = Arrays.copyOf(nodeIdOffsets, nsize);
+            nodeIdUnits = Arrays.copyOf(nodeIdUnits, nsize);
+            nodeTypes = Arrays.copyOf(nodeTypes, nsize);
+            addresses = Arrays.copyOf(addresses, nsize);
+            if(qnames != null) {
+                qnames = Arrays.copyOf(qnames, nsize);
+            }
+            if(proxies != null) {
+                proxies = Arrays.copyOf(proxies, nsize);
+            }
+        }
+    }
+
+    private void ensureDataCapacity(final int length) {
+        if(nodeIdDataLength + length > nodeIdData.length) {
+            nodeIdData = Arrays.copyOf(nodeIdData, Math.max(nodeIdData.length << 1, nodeIdDataLength + length));
+        }
+    }
+
+    @Override
+    public NodeSet copy() {
+        return new PackedArrayNodeSet(this);
+    }
+
+    @Override
+    public void reset() {
+        if(qnames != null) {
+            Arrays.fill(qnames, null);
+        }
+        if(proxies != null) {
+            Arrays.fill(proxies, null);
+        }
+        documents.clear();
+        nodeIdDataLength = 0;
+        super.reset();
+    }
+
+    @Override
+    public void add(final NodeProxy proxy, final int sizeHint) {
+        addInternal(proxy, sizeHint);
+        added(proxy.getType());
+    }
+
+    /**
+     * Add a node to the set, given the serialized form of its node id,
+     * without creating a {@link NodeProxy} for it.
+     *
+     * @param doc the document of the node
+     * @param data the byte[] containing the serialized node id
+     * @param offset the offset of the node id in data
+     * @param units the number of bits used by the node id, see {@link NodeId#units()}
+     * @param nodeType the DOM type of the node, or {@link NodeProxy#UNKNOWN_NODE_TYPE}
+     * @param address the internal address of the node, or {@link StoredNode#UNKNOWN_NODE_IMPL_ADDRESS}
+     * @param qname the name of the node, or null if not known
+     */
+    public void add(final DocumentImpl doc, final byte[] data, final int offset, final int units,
+            final short nodeType, final long address, final QName qname) {
+        final int length = (units + 7) >>> 3;
+        ensureCapacity();
+        ensureDataCapacity(length);
+        System.arraycopy(data, offset, nodeIdData, nodeIdDataLength, length);
+        append(doc, units, nodeType, address);
+        if(qname != null) {
+            if(qnames == null) {
+                qnames = new QName[docIds.length];
+            }
+            qnames[size - 1] = qname;
+        }
+        added(NodeProxy.nodeType2XQuery(nodeType));
+    }
+
+    @Override
+    protected final void addInternal(final NodeProxy proxy, final int sizeHint) {
+        final NodeId nodeId = proxy.getNodeId();
+        ensureCapacity();
+        ensureDataCapacity(nodeId.size());
+        nodeId.serialize(nodeIdData, nodeIdDataLength);
+        append(proxy.getOwnerDocument(), nodeId.units(), proxy.getNodeType(), proxy.getInternalAddress());
+        if(proxies == null) {
+            proxies = new NodeProxy[docIds.length];
+        }
+        proxies[size - 1] = proxy;
+    }
+
+    private void append(final DocumentImpl doc, final int units, final short nodeType, final long address) {
+        final int docId = doc.getDocId();
+        if((size == 0 || docIds[size - 1] != docId) && documents.get(docId) == null) {
+            documents.put(docId, doc);
+        }
+        docIds[size] = docId;
+        nodeIdOffsets[size] = nodeIdDataLength;
+        nodeIdUnits[size] = units;
+        nodeTypes[size] = nodeType;
+        addresses[size] = address;
+        nodeIdDataLength += (units + 7) >>> 3;
+        size++;
+    }
+
+    private void added(final int type) {
+        // as long as all nodes are the same as the first one, the set has just one
+        this.hasOne = size == 1 || (hasOne && compare(size - 2, size - 1) == 0);
+        this.isSorted = false;
+        setHasChanged();
+        checkItemType(type);
+    }
+
+    /**
+     * Returns the node at the given position. The {@link NodeProxy} is created
+     * if the node was added as raw index data and has not been requested before.
+     */
+    @Override
+    protected final NodeProxy nodeAt(final int pos) {
+        if(proxies == null) {
+            proxies = new NodeProxy[docIds.length];
+        } else if(proxies[pos] != null) {
+            return proxies[pos];
+        }
+        final NodeId nodeId = documents.get(docIds[pos]).getBrokerPool().getNodeFactory()
+            .createFromData(nodeIdUnits[pos], nodeIdData, nodeIdOffsets[pos]);
+        final NodeProxy proxy = new NodeProxy(documents.get(docIds[pos]), nodeId, nodeTypes[pos], addresses[pos]);
+        if(qnames != null && qnames[pos] != null) {
+            proxy.setQName(qnames[pos]);
+        }
+        proxies[pos] = proxy;
+        return proxy;
+    }
+
+    @Override
+    protected final NodeProxy existingNodeAt(final int pos) {
+        return proxies == null ? null : proxies[pos];
+    }
+
+    @Override
+    protected final int getDocId(final int pos) {
+        return docIds[pos];
+    }
+
+    @Override
+    protected final DocumentImpl getDocumentAt(final int docIdx) {
+        return documents.get(documentIds[docIdx]);
+    }
+
+    private int compare(final int pos1, final int pos2) {
+        if(docIds[pos1] != docIds[pos2]) {
+            return docIds[pos1] < docIds[pos2] ? -1 : 1;
+        }
+        return DLN.compare(nodeIdData, nodeIdOffsets[pos1], (nodeIdUnits[pos1] + 7) >>> 3,
+            nodeIdData, nodeIdOffsets[pos2], (nodeIdUnits[pos2] + 7) >>> 3);
+    }
+
+    @Override
+    protected final int compareTo(final int pos, final NodeId nodeId) {
+        return DLN.compare(nodeIdData, nodeIdOffsets[pos], nodeIdUnits[pos], nodeId);
+    }
+
+    @Override
+    protected final int computeRelation(final int pos, final NodeId ancestorId) {
+        return DLN.computeRelation(nodeIdData, nodeIdOffsets[pos], nodeIdUnits[pos], ancestorId);
+    }
+
+    @Override
+    protected final boolean isDescendantOf(final int pos, final NodeId ancestorId) {
+        return DLN.isDescendantOf(nodeIdData, nodeIdOffsets[pos], nodeIdUnits[pos], ancestorId);
+    }
+
+    @Override
+    protected final boolean isDescendantOrSelfOf(final int pos, final NodeId ancestorId) {
+        return DLN.isDescendantOrSelfOf(nodeIdData, nodeIdOffsets[pos], nodeIdUnits[pos], ancestorId);
+    }
+
+    @Override
+    protected final boolean isAncestorOf(final int pos, final NodeId nodeId) {
+        return DLN.isAncestorOf(nodeIdData, nodeIdOffsets[pos], nodeIdUnits[pos], nodeId);
+    }
+
+    @Override
+    protected final int getTreeLevel(final int pos) {
+        return DLN.getTreeLevel(nodeIdData, nodeIdOffsets[pos], nodeIdUnits[pos]);
+    }
+
+    @Override
+    protected final boolean isDocumentNode(final int pos) {
+        // document nodes can only be added as node proxies
+        return proxies != null && proxies[pos] != null && proxies[pos].getNodeId() == NodeId.DOCUMENT_NODE;
+    }
+
+    /**
+     * Sorts the positions of the nodes and then reorders all
+     * columns. The serialized node ids stay where they are.
+     */
+    @Override
+    protected void sortNodes() {
+        if(!needsSort()) {
+            return;
+        }
+        final int[] order = new int[size];
+        for(int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        mergeSort(order, new int[size], 0, size);
+
+        final int[] sortedDocIds = new int[docIds.length];
+        final int[] sortedNodeIdOffsets = new int[docIds.length];
+        final int[] sortedNodeIdUnits = new int[docIds.length];
+        final short[] sortedNodeTypes = new short[docIds.length];
+        final long[] sortedAddresses = new long[docIds.length];
+        final QName[] sortedQNames = qnames == null ? null : new QName[docIds.length];
+        final NodeProxy[] sortedProxies = proxies == null ? null : new NodeProxy[docIds.length];
+        for(int i = 0; i < size; i++) {
+            final int pos = order[i];
+            sortedDocIds[i] = docIds[pos];
+            sortedNodeIdOffsets[i] = nodeIdOffsets[pos];
+            sortedNodeIdUnits[i] = nodeIdUnits[pos];
+            sortedNodeTypes[i] = nodeTypes[pos];
+            sortedAddresses[i] = addresses[pos];
+            if(sortedQNames != null) {
+                sortedQNames[i] = qnames[pos];
+            }
+            if(sortedProxies != null) {
+                sortedProxies[i] = proxies[pos];
+            }
+        }
+        docIds = sortedDocIds;
+        nodeIdOffsets = sortedNodeIdOffsets;
+        nodeIdUnits = sortedNodeIdUnits;
+        nodeTypes = sortedNodeTypes;
+        addresses = sortedAddresses;
+        qnames = sortedQNames;
+        proxies = sortedProxies;
+    }
+
+    /**
+     * Check if this node set is sorted in document order
+     *
+     * @return true if sorted
+     */
+    private boolean needsSort() {
+        for(int i = 1; i < size; i++) {
+            if(compare(i, i - 1) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void mergeSort(final int[] order, final int[] temp, final int from, final int to) {
+        if(to - from < 8) {
+            // insertion sort for small ranges
+            for(int i = from + 1; i < to; i++) {
+                final int pos = order[i];
+                int j = i - 1;
+                while(j >= from && compare(order[j], pos) > 0) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = pos;
+            }
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        mergeSort(order, temp, from, middle);
+        mergeSort(order, temp, middle, to);
+        if(compare(order[middle - 1], order[middle]) <= 0) {
+            return; // already in order
+        }
+        System.arraycopy(order, from, temp, from, to - from);
+        int i = from;
+        int j = middle;
+        for(int k = from; k < to; k++) {
+            if(j == to || (i < middle && compare(temp[i], temp[j]) <= 0)) {
+                order[k] = temp[i++];
+            } else {
+                order[k] = temp[j++];
+            }
+        }
+    }
+
+    @Override
+    protected void removeDuplicates(final boolean mergeContext) {
+        int j = 0;
+        for(int i = 1; i < size; i++) {
+            if(compare(i, j) != 0) {
+                if(i != ++j) {
+                    docIds[j] = docIds[i];
+                    nodeIdOffsets[j] = nodeIdOffsets[i];
+                    nodeIdUnits[j] = nodeIdUnits[i];
+                    nodeTypes[j] = nodeTypes[i];
+                    addresses[j] = addresses[i];
+                    if(qnames != null) {
+                        qnames[j] = qnames[i];
+                    }
+                    if(proxies != null) {
+                        proxies[j] = proxies[i];
+                    }
+                }
+            } else if(proxies != null && proxies[i] != null) {
+                // a node without proxy has neither context nor matches
+                final NodeProxy node = nodeAt(j);
+                if(mergeContext) {
+                    node.addContext(proxies[i]);
+                }
+                node.addMatches(proxies[i]);
+            }
+        }
+        size = ++j;
+        if(qnames != null) {
+            Arrays.fill(qnames, size, qnames.length, null);
+        }
+        if(proxies != null) {
+            Arrays.fill(proxies, size, proxies.length, null);
+        }
+    }
+}
@@ -395,7 +395,15 @@ public class SymbolTable implements BrokerPoolService, Closeable {
         }
     }
 
-    public void backupSymbolsTo(final OutputStream os) throws IOException {
+    /**
+     * Copy the symbols file to an output stream. Synchronized with the
+     * methods adding symbols, so no partially written entry is copied
+     * if the database is in use.
+     *
+     * @param os
+     * @throws IOException
+     */
+    public synchronized void backupSymbolsTo(final OutputStream os) throws IOException {
         Files.copy(getFile(), os);
     }
 
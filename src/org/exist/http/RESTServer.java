@@ -21,11 +21,13 @@
  */
 package org.exist.http;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -36,9 +38,16 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.annotation.Nullable;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -82,6 +91,7 @@ import org.exist.source.URLSource;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.XQueryPool;
+import org.exist.storage.XQueryResultCache;
 import org.exist.storage.lock.Lock.LockMode;
 import org.exist.storage.serializers.EXistOutputKeys;
 import org.exist.storage.serializers.Serializer;
@@ -104,7 +114,11 @@ import org.exist.xmldb.XmldbURI;
 import org.exist.xqj.Marshaller;
 import org.exist.xquery.CompiledXQuery;
 import org.exist.xquery.Constants;
+import org.exist.xquery.Expression;
 import org.exist.xquery.NameTest;
+import org.exist.xquery.QueryPlan;
+import org.exist.xquery.QueryProfile;
+import org.exist.xquery.ResultReceiver;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQuery;
 import org.exist.xquery.XQueryContext;
@@ -136,6 +150,7 @@ public class RESTServer {
 
     protected final static Logger LOG = LogManager.getLogger(RESTServer.class);
     public final static String SERIALIZATION_METHOD_PROPERTY = "output-as";
+    public final static String XQUERY_RESULT_CACHED_HEADER = "X-XQuery-Result-Cached";
     // Should we not obey the instance's defaults? /ljo
     protected final static Properties defaultProperties = new Properties();
 
@@ -241,6 +256,9 @@ public class RESTServer {
      * <li>_wrap: if set to "yes", the query results will be wrapped into a
      * exist:result element.</li>
      *
+     * <li>_stream: if set to "yes", the query results are written out while
+     * the query is still being evaluated.</li>
+     *
      * <li>_indent: if set to "yes", the returned XML will be pretty-printed.
      * </li>
      *
@@ -291,6 +309,7 @@ public class RESTServer {
         boolean wrap = true;
         boolean source = false;
         boolean cache = false;
+        boolean stream = false;
         final Properties outputProperties = new Properties(defaultOutputKeysProperties);
 
         String query = null;
@@ -345,6 +364,12 @@ public class RESTServer {
         if ((option = getParameter(request, Cache)) != null) {
             cache = "yes".equals(option);
         }
+        if ((option = getParameter(request, Stream)) != null) {
+            stream = "yes".equals(option);
+        }
+        if ((option = getParameter(request, Explain)) != null) {
+            outputProperties.setProperty(Explain.queryStringKey(), option);
+        }
         if ((option = getParameter(request, Indent)) != null) {
             outputProperties.setProperty(OutputKeys.INDENT, option);
         }
@@ -381,7 +406,7 @@ public class RESTServer {
             // query parameter specified, search method does all the rest of the work
             try {
                 search(broker, query, path, namespaces, variables, howmany, start, typed, outputProperties,
-                        wrap, cache, request, response);
+                        wrap, cache, stream, request, response);
 
             } catch (final XPathException e) {
                 if (MimeType.XML_TYPE.getName().equals(mimeType)) {
@@ -721,6 +746,7 @@ public class RESTServer {
             ElementImpl variables = null;
             boolean enclose = true;
             boolean cache = false;
+            boolean stream = false;
             String query = null;
 
             final TransactionManager transact = broker.getBrokerPool().getTransactionManager();
@@ -788,6 +814,14 @@ public class RESTServer {
                             cache = "yes".equals(option);
                         }
 
+                        if ((option = root.getAttribute(Stream.xmlKey())) != null) {
+                            stream = "yes".equals(option);
+                        }
+
+                        if ((option = root.getAttribute(Explain.xmlKey())) != null && option.length() > 0) {
+                            outputProperties.setProperty(Explain.queryStringKey(), option);
+                        }
+
                         if ((option = root.getAttribute(Session.xmlKey())) != null
                                 && option.length() > 0) {
                             outputProperties.setProperty(
@@ -845,7 +879,7 @@ public class RESTServer {
                         try {
                             search(broker, query, path, nsExtractor.getNamespaces(), variables,
                                     howmany, start, typed, outputProperties,
-                                    enclose, cache, request, response);
+                                    enclose, cache, stream, request, response);
 
                             transact.commit(transaction);
 
@@ -1263,7 +1297,7 @@ public class RESTServer {
         final String path, final List<Namespace> namespaces,
         final ElementImpl variables, final int howmany, final int start,
         final boolean typed, final Properties outputProperties,
-        final boolean wrap, final boolean cache,
+        final boolean wrap, final boolean cache, final boolean stream,
         final HttpServletRequest request,
         final HttpServletResponse response) throws BadRequestException,
         PermissionDeniedException, XPathException {
@@ -1330,7 +1364,40 @@ public class RESTServer {
                 compilationTime = 0;
             }
 
-            try {
+            final String explain = outputProperties.getProperty(Explain.queryStringKey());
+            if (explain != null && !"no".equals(explain)) {
+                try {
+                    writeQueryPlan(response, broker, compiled, "analyze".equals(explain), outputProperties);
+                } finally {
+                    context.runCleanupTasks();
+                    context.reset();
+                    pool.returnCompiledXQuery(source, compiled);
+                }
+                return;
+            }
+
+            final XQueryResultCache resultCache = broker.getBrokerPool().getXQueryResultCache();
+            final boolean streamResults = stream && !cache && isStreamable(compiled, outputProperties);
+            final XQueryResultCache.Key resultKey;
+            if (cache || streamResults || sessionIdParam != null) {
+                resultKey = null;
+            } else {
+                final String bindings = getResultCacheBindings(broker, request, variables, outputProperties)
+                        + howmany + ',' + start + ',' + typed + ',' + wrap;
+                resultKey = resultCache.getKey(broker, source, compiled, bindings);
+            }
+
+            try (final XQueryResultCache.Recording recording = resultKey == null ? null : resultCache.startRecording(broker)) {
+                if (resultKey != null && writeCachedResults(response, broker, resultKey, source)) {
+                    return;
+                }
+
+                if (streamResults) {
+                    streamResults(response, broker, compiled, howmany, start, typed, outputProperties, wrap, compilationTime);
+                    return;
+                }
+
+                final Map<String, List<String>> headers = resultKey == null ? null : getHeaders(response);
                 final long executeStart = System.currentTimeMillis();
                 final Sequence resultSequence = xquery.execute(broker, compiled, null, outputProperties);
                 final long executionTime = System.currentTimeMillis() - executeStart;
@@ -1347,7 +1414,8 @@ public class RESTServer {
                     }
                 }
 
-                writeResults(response, broker, resultSequence, howmany, start, typed, outputProperties, wrap, compilationTime, executionTime);
+                writeResults(response, broker, resultSequence, howmany, start, typed, outputProperties, wrap, compilationTime, executionTime,
+                        compiled, resultKey, recording, headers);
 
             } finally {
                 context.runCleanupTasks();
@@ -1359,6 +1427,43 @@ public class RESTServer {
         }
     }
 
+    /**
+     * Writes the plan of a compiled query instead of its results.
+     *
+     * @param analyze if true, execute the query and annotate the plan with runtime statistics
+     */
+    private void writeQueryPlan(final HttpServletResponse response, final DBBroker broker,
+            final CompiledXQuery compiled, final boolean analyze, final Properties outputProperties)
+            throws XPathException, PermissionDeniedException, IOException {
+        final XQueryContext context = compiled.getContext();
+        QueryProfile profile = null;
+        if (analyze) {
+            final boolean analyzeEnabled = context.getProfiler().isAnalyzeEnabled();
+            context.getProfiler().setAnalyzeEnabled(true);
+            try {
+                // do not reset the context, the plan is reported afterwards
+                broker.getBrokerPool().getXQueryService().execute(broker, compiled, null, outputProperties, false);
+                profile = context.getProfiler().getQueryProfile();
+            } finally {
+                context.getProfiler().setAnalyzeEnabled(analyzeEnabled);
+            }
+        }
+
+        final String encoding = outputProperties.getProperty(OutputKeys.ENCODING, "UTF-8");
+        final Properties planProperties = new Properties();
+        planProperties.setProperty(OutputKeys.ENCODING, encoding);
+        planProperties.setProperty(OutputKeys.INDENT, outputProperties.getProperty(OutputKeys.INDENT, "yes"));
+
+        response.setContentType(MimeType.XML_TYPE.getName() + "; charset=" + encoding);
+        final Writer writer = new OutputStreamWriter(response.getOutputStream(), encoding);
+        try {
+            new QueryPlan(context, (Expression) compiled, profile).serialize(writer, planProperties);
+        } catch (final SAXException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        writer.flush();
+    }
+
     private void declareNamespaces(final XQueryContext context,
         final List<Namespace> namespaces) throws XPathException {
         
@@ -1534,10 +1639,20 @@ public class RESTServer {
         boolean wrap = outputProperties.getProperty("_wrap") != null
                 && "yes".equals(outputProperties.getProperty("_wrap"));
 
-        try {
+        final XQueryResultCache resultCache = broker.getBrokerPool().getXQueryResultCache();
+        final XQueryResultCache.Key resultKey = resultCache.getKey(broker, source, compiled,
+                getResultCacheBindings(broker, request, null, outputProperties));
+
+        try (final XQueryResultCache.Recording recording = resultKey == null ? null : resultCache.startRecording(broker)) {
+            if (resultKey != null && writeCachedResults(response, broker, resultKey, source)) {
+                return;
+            }
+
+            final Map<String, List<String>> headers = resultKey == null ? null : getHeaders(response);
             final long executeStart = System.currentTimeMillis();
             final Sequence result = xquery.execute(broker, compiled, null, outputProperties);
-            writeResults(response, broker, result, -1, 1, false, outputProperties, wrap, compilationTime, System.currentTimeMillis() - executeStart);
+            writeResults(response, broker, result, -1, 1, false, outputProperties, wrap, compilationTime, System.currentTimeMillis() - executeStart,
+                    compiled, resultKey, recording, headers);
 
         } finally {
             context.runCleanupTasks();
@@ -2073,6 +2188,107 @@ public class RESTServer {
 
     }
 
+    /**
+     * Writes the results of a query. If a key is given, a copy of the
+     * serialized results is added to the query result cache.
+     *
+     * Only the body and the content type are cached, so the results
+     * are not cached if the query has set any other response headers,
+     * e.g. with response:set-header or response:set-cookie.
+     *
+     * @param headers the response headers before the query was executed
+     */
+    private void writeResults(final HttpServletResponse response, final DBBroker broker,
+            final Sequence results, final int howmany, final int start, final boolean typed,
+            final Properties outputProperties, final boolean wrap, final long compilationTime, final long executionTime,
+            final CompiledXQuery compiled, @Nullable final XQueryResultCache.Key resultKey,
+            @Nullable final XQueryResultCache.Recording recording,
+            @Nullable final Map<String, List<String>> headers) throws BadRequestException {
+
+        // the query may have written to the output stream itself
+        if (resultKey == null || response.isCommitted() || !getHeaders(response).equals(headers)) {
+            writeResults(response, broker, results, howmany, start, typed, outputProperties, wrap, compilationTime, executionTime);
+            return;
+        }
+
+        final XQueryResultCache resultCache = broker.getBrokerPool().getXQueryResultCache();
+        final RecordingResponseWrapper recordingResponse = new RecordingResponseWrapper(response, resultCache.getMaxResultSize());
+        response.setHeader(XQUERY_RESULT_CACHED_HEADER, "false");
+        writeResults(recordingResponse, broker, results, howmany, start, typed, outputProperties, wrap, compilationTime, executionTime);
+
+        final byte[] data = recordingResponse.getData();
+        if (data != null && response.getStatus() == HttpServletResponse.SC_OK) {
+            resultCache.put(resultKey, recording, compiled, data, response.getContentType());
+        }
+    }
+
+    private static Map<String, List<String>> getHeaders(final HttpServletResponse response) {
+        final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (final String name : response.getHeaderNames()) {
+            headers.put(name, new ArrayList<>(response.getHeaders(name)));
+        }
+        return headers;
+    }
+
+    /**
+     * Writes the cached results of a query.
+     *
+     * @return true if the results were found in the query result cache
+     */
+    private boolean writeCachedResults(final HttpServletResponse response, final DBBroker broker,
+            final XQueryResultCache.Key resultKey, final Source source) throws BadRequestException {
+        final XQueryResultCache.CachedResult result = broker.getBrokerPool().getXQueryResultCache().get(broker, resultKey, source);
+        if (result == null) {
+            return false;
+        }
+
+        response.setHeader(XQUERY_RESULT_CACHED_HEADER, "true");
+        if (result.getContentType() != null) {
+            response.setContentType(result.getContentType());
+        }
+        response.setContentLength(result.getData().length);
+        try {
+            final OutputStream os = response.getOutputStream();
+            os.write(result.getData());
+            os.flush();
+        } catch (final IOException e) {
+            throw new BadRequestException("Error while writing cached query results: " + e.getMessage(), e);
+        }
+        return true;
+    }
+
+    /**
+     * Creates a string from everything in the request, besides the query itself
+     * and the user, which changes the serialized results of the query:
+     * the request URI and parameters, the external variables and the
+     * serialization options.
+     */
+    private String getResultCacheBindings(final DBBroker broker, final HttpServletRequest request,
+            @Nullable final ElementImpl variables, final Properties outputProperties) throws BadRequestException {
+        final StringBuilder bindings = new StringBuilder();
+        bindings.append(request.getMethod()).append(' ').append(request.getRequestURI()).append('\n');
+        for (final Map.Entry<String, String[]> param : new TreeMap<>(request.getParameterMap()).entrySet()) {
+            bindings.append(param.getKey());
+            for (final String value : param.getValue()) {
+                bindings.append('=').append(value);
+            }
+            bindings.append('\n');
+        }
+        for (final String name : new TreeSet<>(outputProperties.stringPropertyNames())) {
+            bindings.append(name).append(':').append(outputProperties.getProperty(name)).append('\n');
+        }
+        if (variables != null) {
+            final Serializer serializer = broker.getSerializer();
+            serializer.reset();
+            try {
+                bindings.append(serializer.serialize(variables)).append('\n');
+            } catch (final SAXException e) {
+                throw new BadRequestException("Error while serializing external variables: " + e.getMessage(), e);
+            }
+        }
+        return bindings.toString();
+    }
+
     private void writeResultXML(final HttpServletResponse response,
         final DBBroker broker, final Sequence results, final int howmany,
         final int start, final boolean typed, final Properties outputProperties,
@@ -2082,24 +2298,7 @@ public class RESTServer {
         outputProperties.setProperty(Serializer.GENERATE_DOC_EVENTS, "false");
         try {
 
-            // set output headers
-            final String encoding = outputProperties.getProperty(OutputKeys.ENCODING);
-            if (!response.containsHeader("Content-Type")) {
-                String mimeType = outputProperties.getProperty(OutputKeys.MEDIA_TYPE);
-                if (mimeType != null) {
-                    final int semicolon = mimeType.indexOf(';');
-                    if (semicolon != Constants.STRING_NOT_FOUND) {
-                        mimeType = mimeType.substring(0, semicolon);
-                    }
-                    if (wrap) {
-                        mimeType = "application/xml";
-                    }
-                    response.setContentType(mimeType + "; charset=" + encoding);
-                }
-            }
-            if (wrap) {
-                outputProperties.setProperty("method", "xml");
-            }
+            final String encoding = setResultXMLHeaders(response, outputProperties, wrap);
             final Writer writer = new OutputStreamWriter(response.getOutputStream(), encoding);
             final XQuerySerializer serializer = new XQuerySerializer(broker, outputProperties, writer);
 
@@ -2120,6 +2319,74 @@ public class RESTServer {
         }
     }
 
+    /**
+     * Sets the content type of the response for serializing query results as XML.
+     *
+     * @return the character encoding of the results
+     */
+    private static String setResultXMLHeaders(final HttpServletResponse response, final Properties outputProperties,
+            final boolean wrap) {
+        final String encoding = outputProperties.getProperty(OutputKeys.ENCODING);
+        if (!response.containsHeader("Content-Type")) {
+            String mimeType = outputProperties.getProperty(OutputKeys.MEDIA_TYPE);
+            if (mimeType != null) {
+                final int semicolon = mimeType.indexOf(';');
+                if (semicolon != Constants.STRING_NOT_FOUND) {
+                    mimeType = mimeType.substring(0, semicolon);
+                }
+                if (wrap) {
+                    mimeType = "application/xml";
+                }
+                response.setContentType(mimeType + "; charset=" + encoding);
+            }
+        }
+        if (wrap) {
+            outputProperties.setProperty("method", "xml");
+        }
+        return encoding;
+    }
+
+    /**
+     * Checks if the results of a query can be serialized while the query
+     * is still being evaluated: the json and adaptive serialization methods
+     * need to see the whole result first.
+     */
+    private boolean isStreamable(final CompiledXQuery compiled, final Properties outputProperties) throws XPathException {
+        // the query may declare its own serialization method
+        compiled.getContext().checkOptions(outputProperties);
+        final String method = outputProperties.getProperty(SERIALIZATION_METHOD_PROPERTY, "xml");
+        return !("json".equals(method) || "adaptive".equals(method));
+    }
+
+    /**
+     * Executes a query and serializes its results to the response while the query is still
+     * being evaluated. If the query is a "for" expression, its result is never held
+     * in memory as a whole, see {@link XQuery#execute(DBBroker, CompiledXQuery, Sequence, Properties, ResultReceiver)}.
+     *
+     * As the length of the result is not known in advance, the response has no content length
+     * and is sent in chunks, and the exist:result wrapper element has no hits and count attributes.
+     * Errors which occur after the first results were sent can not be reported with an error status.
+     */
+    private void streamResults(final HttpServletResponse response, final DBBroker broker, final CompiledXQuery compiled,
+            final int howmany, final int start, final boolean typed, final Properties outputProperties,
+            final boolean wrap, final long compilationTime)
+            throws BadRequestException, PermissionDeniedException, XPathException {
+        if (start < 1) {
+            throw new BadRequestException("Start parameter out of range");
+        }
+        outputProperties.setProperty(Serializer.GENERATE_DOC_EVENTS, "false");
+
+        final StreamingResultWriter resultWriter = new StreamingResultWriter(response, broker, outputProperties,
+                howmany, start, typed, wrap, compilationTime);
+        broker.getBrokerPool().getXQueryService().execute(broker, compiled, null, outputProperties, resultWriter);
+        try {
+            resultWriter.finish();
+        } catch (final IOException | SAXException e) {
+            LOG.warn(e.getMessage(), e);
+            throw new BadRequestException("Error while serializing xml: " + e.toString(), e);
+        }
+    }
+
     private void writeResultJSON(final HttpServletResponse response,
         final DBBroker broker, final Sequence results, int howmany,
         int start, final Properties outputProperties, final boolean wrap, final long compilationTime, final long executionTime)
@@ -2203,4 +2470,177 @@ public class RESTServer {
             return false;
         }
     }
+
+    /**
+     * Serializes the items of a query result to the response as they are received.
+     */
+    private static class StreamingResultWriter implements ResultReceiver {
+        private final HttpServletResponse response;
+        private final DBBroker broker;
+        private final Properties outputProperties;
+        private final int howmany;
+        private final int start;
+        private final boolean typed;
+        private final boolean wrap;
+        private final long compilationTime;
+
+        private Writer writer = null;
+        private XQuerySerializer serializer = null;
+        private boolean skipped = false;
+        private int position = 0;
+        private int count = 0;
+
+        StreamingResultWriter(final HttpServletResponse response, final DBBroker broker, final Properties outputProperties,
+                final int howmany, final int start, final boolean typed, final boolean wrap, final long compilationTime) {
+            this.response = response;
+            this.broker = broker;
+            this.outputProperties = outputProperties;
+            this.howmany = howmany;
+            this.start = start;
+            this.typed = typed;
+            this.wrap = wrap;
+            this.compilationTime = compilationTime;
+        }
+
+        @Override
+        public boolean receive(final Sequence items) throws XPathException {
+            try {
+                for (final SequenceIterator i = items.iterate(); i.hasNext(); ) {
+                    final Item item = i.nextItem();
+                    if (++position < start) {
+                        continue;
+                    }
+                    if (!hasMore() || !startSerialization()) {
+                        return false;
+                    }
+                    serializer.serializeItem(item, typed, wrap);
+                    count++;
+                }
+            } catch (final IOException | SAXException e) {
+                throw new XPathException("Error while serializing query results: " + e.getMessage(), e);
+            }
+            return hasMore();
+        }
+
+        private boolean hasMore() {
+            return howmany <= 0 || count < howmany;
+        }
+
+        /**
+         * Writes the headers and the start of the serialized results on the first call.
+         *
+         * @return false if the results should not be written, because the query has
+         *     already written to the response itself
+         */
+        private boolean startSerialization() throws IOException, SAXException {
+            if (serializer != null) {
+                return true;
+            }
+            if (skipped || response.isCommitted()) {
+                skipped = true;
+                return false;
+            }
+            final String encoding = setResultXMLHeaders(response, outputProperties, wrap);
+            writer = new OutputStreamWriter(response.getOutputStream(), encoding);
+            serializer = new XQuerySerializer(broker, outputProperties, writer);
+            serializer.startSequence(start, wrap, compilationTime);
+            return true;
+        }
+
+        void finish() throws IOException, SAXException {
+            if (!startSerialization()) {
+                return;
+            }
+            serializer.endSequence(wrap);
+            writer.flush();
+            writer.close();
+        }
+    }
+
+    /**
+     * Passes the response body on to the client, while keeping a copy
+     * of it for the query result cache. No copy is kept if the body
+     * exceeds the given size, or is written through a writer.
+     */
+    private static class RecordingResponseWrapper extends HttpServletResponseWrapper {
+
+        private final int maxSize;
+        private ByteArrayOutputStream data = new ByteArrayOutputStream(512);
+        private ServletOutputStream outputStream = null;
+
+        RecordingResponseWrapper(final HttpServletResponse response, final int maxSize) {
+            super(response);
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * @return the response body, or null if it was not recorded
+         */
+        @Nullable byte[] getData() {
+            return data == null ? null : data.toByteArray();
+        }
+
+        private void record(final byte[] b, final int off, final int len) {
+            if (data != null) {
+                if (data.size() + len > maxSize) {
+                    data = null;
+                } else {
+                    data.write(b, off, len);
+                }
+            }
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            data = null;
+            return super.getWriter();
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                final ServletOutputStream os = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(final int b) throws IOException {
+                        os.write(b);
+                        if (data != null) {
+                            if (data.size() >= maxSize) {
+                                data = null;
+                            } else {
+                                data.write(b);
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void write(final byte[] b, final int off, final int len) throws IOException {
+                        os.write(b, off, len);
+                        record(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        os.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        os.close();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return os.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(final WriteListener writeListener) {
+                        os.setWriteListener(writeListener);
+                    }
+                };
+            }
+            return outputStream;
+        }
+    }
 }
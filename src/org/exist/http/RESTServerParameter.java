@@ -69,6 +69,7 @@ enum RESTServerParameter {
      * <exist:query start? = number
      *  max? = number
      *  cache? = ("yes" | "no")
+     *  stream? = ("yes" | "no")
      *  session? = string
      *  typed? = ("yes" | "no")
      *  (wrap = ("yes" | "no") | enclose = ("yes" | "no"))?
@@ -224,6 +225,42 @@ enum RESTServerParameter {
      */
     Cache,
 
+    /**
+     * Can be used in either the Query String of a GET request
+     * or in the body of a POST request when supplying an XPath or XQuery,
+     * it causes the results of the query to be written out while the
+     * query is still being evaluated, rather than evaluating the whole
+     * result first. This keeps the memory used for large results low.
+     * 
+     * As the number of results is not known in advance, the exist:result
+     * element written by the Wrap parameter has no hits and count attribute.
+     * Streaming is not supported in combination with the Cache parameter,
+     * or for the "json" and "adaptive" serialization methods.
+     * 
+     * Contexts: GET, POST
+     * 
+     * The value of the parameter should be either "yes" or "no".
+     */
+    Stream,
+
+    /**
+     * Can be used in either the Query String of a GET request
+     * or in the body of a POST request when supplying an XPath or XQuery,
+     * it causes the query plan to be returned instead of the results of
+     * the query. The plan is the tree of expressions after optimization,
+     * annotated with the rewrites applied by the query optimizer.
+     * 
+     * If the value is "analyze", the query is executed and the plan
+     * is annotated with runtime statistics for every expression: the
+     * number of calls, the number of items returned, the time spent
+     * and the index usage. The results of the query are discarded.
+     * 
+     * Contexts: GET, POST
+     * 
+     * The value of the parameter should be "yes", "analyze" or "no".
+     */
+    Explain,
+
     /**
      * Can be used in the Query String of a GET request
      * to indicate that an XML result should be indented.
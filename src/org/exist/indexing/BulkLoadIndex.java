@@ -0,0 +1,52 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.indexing;
+
+import org.exist.storage.btree.DBException;
+import org.exist.storage.txn.Txn;
+
+import java.io.IOException;
+
+/**
+ * Index workers which can defer their writes while documents are bulk loaded
+ * should implement this interface. See {@link org.exist.storage.BulkLoader}.
+ *
+ * Between {@link #startBulkLoad(int)} and {@link #endBulkLoad(Txn)} the worker
+ * collects the entries of the stored documents instead of adding them to the index
+ * one by one. When the load ends, the collected entries are sorted and added in
+ * a single pass.
+ */
+public interface BulkLoadIndex extends IndexWorker {
+
+    /**
+     * Starts collecting the index entries of stored documents.
+     *
+     * @param runSize the number of entries kept in memory before they are sorted
+     *                and written to a temporary file
+     */
+    void startBulkLoad(int runSize);
+
+    /**
+     * Adds the collected entries to the index and stops collecting.
+     *
+     * @param transaction the current transaction
+     */
+    void endBulkLoad(Txn transaction) throws IOException, DBException;
+}
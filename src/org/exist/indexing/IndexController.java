@@ -32,6 +32,7 @@ import org.exist.storage.DBBroker;
 import org.exist.storage.MetaStorage;
 import org.exist.storage.MetaStreamListener;
 import org.exist.storage.NodePath;
+import org.exist.storage.btree.DBException;
 import org.exist.storage.txn.Txn;
 import org.exist.util.DatabaseConfigurationException;
 import org.exist.xquery.QueryRewriter;
@@ -39,6 +40,7 @@ import org.exist.xquery.XQueryContext;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -195,6 +197,33 @@ public class IndexController {
         indexWorkers.values().forEach(IndexWorker::flush);
     }  
 
+    /**
+     * Tells all index workers which support it to defer their writes
+     * until {@link #endBulkLoad(Txn)} is called.
+     *
+     * @param runSize the number of entries a worker keeps in memory
+     */
+    public void startBulkLoad(final int runSize) {
+        for (final IndexWorker indexWorker : indexWorkers.values()) {
+            if (indexWorker instanceof BulkLoadIndex) {
+                ((BulkLoadIndex) indexWorker).startBulkLoad(runSize);
+            }
+        }
+    }
+
+    /**
+     * Writes the entries deferred since {@link #startBulkLoad(int)}.
+     *
+     * @param transaction the current transaction
+     */
+    public void endBulkLoad(final Txn transaction) throws IOException, DBException {
+        for (final IndexWorker indexWorker : indexWorkers.values()) {
+            if (indexWorker instanceof BulkLoadIndex) {
+                ((BulkLoadIndex) indexWorker).endBulkLoad(transaction);
+            }
+        }
+    }
+
     /**
      * Remove all indexes defined on the specified collection.
      *
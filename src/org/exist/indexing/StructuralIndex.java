@@ -46,12 +46,32 @@ public interface StructuralIndex {
 
     public NodeSet findElementsByTagName(byte type, DocumentSet docs, QName qname, NodeSelector selector, Expression parent);
 
+    /**
+     * Find the nodes matching a given QName, but stop once <code>limit</code> nodes have
+     * been found. The nodes found are the first ones in document order.
+     *
+     * @param limit the maximum number of nodes to return, or -1 to return all nodes
+     */
+    public NodeSet findElementsByTagName(byte type, DocumentSet docs, QName qname, NodeSelector selector, Expression parent,
+                                         int limit);
+
     public NodeSet findDescendantsByTagName(byte type, QName qname, int axis,
         DocumentSet docs, NodeSet contextSet,  int contextId);
 
     public NodeSet findDescendantsByTagName(byte type, QName qname, int axis,
                                             DocumentSet docs, NodeSet contextSet,  int contextId, Expression parent);
 
+    /**
+     * Find the descendants (or children) of the specified node set matching the given QName,
+     * but stop once <code>limit</code> nodes have been found. The nodes found are the first
+     * ones in document order.
+     *
+     * @param limit the maximum number of nodes to return, or -1 to return all nodes
+     */
+    public NodeSet findDescendantsByTagName(byte type, QName qname, int axis,
+                                            DocumentSet docs, NodeSet contextSet,  int contextId, Expression parent,
+                                            int limit);
+
     public NodeSet findAncestorsByTagName(byte type, QName qname, int axis,
             DocumentSet docs, NodeSet contextSet, int contextId);
 
@@ -54,6 +54,11 @@ public class Cache implements CacheMXBean {
         return cache.getFails();
     }
 
+    @Override
+    public int getEvictions() {
+        return cache.getEvictions();
+    }
+
     @Override
     public String getName() {
         return cache.getName();
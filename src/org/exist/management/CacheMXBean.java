@@ -35,5 +35,7 @@ public interface CacheMXBean {
 
     int getFails();
 
+    int getEvictions();
+
     String getName();
 }
\ No newline at end of file
@@ -82,6 +82,7 @@ public class JMXtoXML {
             // eXist
             CATEGORIES.put("instances", new ObjectName[]{new ObjectName("org.exist.management.*:type=Database")});
             CATEGORIES.put("disk", new ObjectName[]{new ObjectName("org.exist.management.*:type=DiskUsage")});
+            CATEGORIES.put("journal", new ObjectName[]{new ObjectName("org.exist.management.*:type=Journal")});
             CATEGORIES.put("system", new ObjectName[]{new ObjectName("org.exist.management:type=SystemInfo")});
             CATEGORIES.put("caches", new ObjectName[]{
                 new ObjectName("org.exist.management.exist:type=CacheManager"),
@@ -62,6 +62,36 @@ public class Database implements DatabaseMXBean {
     public int getTotalBrokers() {
     	return pool.total();
     }
+
+    @Override
+    public int getWaitingForBroker() {
+        return pool.countWaitingForBroker();
+    }
+
+    @Override
+    public long getBrokerLeaseCount() {
+        return pool.getBrokerLeaseMetrics().getLeaseCount();
+    }
+
+    @Override
+    public long getBrokerLeaseWaitCount() {
+        return pool.getBrokerLeaseMetrics().getWaitCount();
+    }
+
+    @Override
+    public long getBrokerLeaseTimeoutCount() {
+        return pool.getBrokerLeaseMetrics().getTimeoutCount();
+    }
+
+    @Override
+    public long getBrokerLeaseWaitTime() {
+        return pool.getBrokerLeaseMetrics().getTotalWaitTime();
+    }
+
+    @Override
+    public long getMaxBrokerLeaseWaitTime() {
+        return pool.getBrokerLeaseMetrics().getMaxWaitTime();
+    }
     
     @Override
     public List<ActiveBroker> getActiveBrokersMap() {
@@ -34,6 +34,18 @@ public interface DatabaseMXBean {
     int getActiveBrokers();
 
     int getTotalBrokers();
+
+    int getWaitingForBroker();
+
+    long getBrokerLeaseCount();
+
+    long getBrokerLeaseWaitCount();
+
+    long getBrokerLeaseTimeoutCount();
+
+    long getBrokerLeaseWaitTime();
+
+    long getMaxBrokerLeaseWaitTime();
     
     long getReservedMem();
 
@@ -0,0 +1,82 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.management.impl;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.journal.GroupCommitThread;
+import org.exist.storage.journal.JournalManager;
+
+import java.util.function.Function;
+
+public class Journal implements JournalMXBean {
+
+    private final BrokerPool pool;
+
+    public Journal(final BrokerPool pool) {
+        this.pool = pool;
+    }
+
+    private <T> T groupCommit(final Function<GroupCommitThread, T> fn, final T defaultValue) {
+        return pool.getJournalManager()
+                .flatMap(JournalManager::getGroupCommitThread)
+                .map(fn)
+                .orElse(defaultValue);
+    }
+
+    @Override
+    public boolean isGroupCommitEnabled() {
+        return groupCommit(gc -> true, false);
+    }
+
+    @Override
+    public long getGroupCommitMaxDelay() {
+        return groupCommit(GroupCommitThread::getMaxDelay, 0L);
+    }
+
+    @Override
+    public long getGroupCommitBatches() {
+        return groupCommit(GroupCommitThread::getBatchCount, 0L);
+    }
+
+    @Override
+    public long getGroupCommitCommits() {
+        return groupCommit(GroupCommitThread::getCommitCount, 0L);
+    }
+
+    @Override
+    public int getGroupCommitLastBatchSize() {
+        return groupCommit(GroupCommitThread::getLastBatchSize, 0);
+    }
+
+    @Override
+    public int getGroupCommitMaxBatchSize() {
+        return groupCommit(GroupCommitThread::getMaxBatchSize, 0);
+    }
+
+    @Override
+    public double getGroupCommitAverageBatchSize() {
+        return groupCommit(GroupCommitThread::getAverageBatchSize, 0d);
+    }
+
+    @Override
+    public double getGroupCommitAverageLatency() {
+        return groupCommit(GroupCommitThread::getAverageCommitLatency, 0d);
+    }
+}
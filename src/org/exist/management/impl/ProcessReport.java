@@ -121,6 +121,16 @@ public class ProcessReport implements ProcessReportMXBean {
         return history;
     }
 
+    @Override
+    public List<RecentQueryProfile> getRecentQueryProfiles() {
+        final List<RecentQueryProfile> profiles = new ArrayList<>();
+        int i = 0;
+        for (final ProcessMonitor.QueryProfileInfo profile : processMonitor.getRecentQueryProfiles()) {
+            profiles.add(new RecentQueryProfile(i++, profile));
+        }
+        return profiles;
+    }
+
     /**
      * Sets the time span (in milliseconds) for which the stats for an executed query should
      * be kept in the recent query history.
@@ -170,6 +180,16 @@ public class ProcessReport implements ProcessReportMXBean {
         return processMonitor.getTrackRequestURI();
     }
 
+    @Override
+    public void setAnalyzeQueries(boolean analyze) {
+        processMonitor.setAnalyzeQueries(analyze);
+    }
+
+    @Override
+    public boolean getAnalyzeQueries() {
+        return processMonitor.getAnalyzeQueries();
+    }
+
     /**
      * Configure all settings related to recent query history.
      *
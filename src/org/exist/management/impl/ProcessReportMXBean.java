@@ -33,6 +33,12 @@ public interface ProcessReportMXBean {
 
     List<RecentQueryHistory> getRecentQueryHistory();
 
+    /**
+     * Returns the plans of the most recently executed queries which were analyzed,
+     * annotated with the runtime statistics of every expression.
+     */
+    List<RecentQueryProfile> getRecentQueryProfiles();
+
     void killQuery(int id);
 
     /**
@@ -76,4 +82,16 @@ public interface ProcessReportMXBean {
     void setTrackRequestURI(boolean track);
 
     boolean getTrackRequestURI();
+
+    /**
+     * Execute all queries in analyze mode, recording runtime statistics for every expression.
+     * The plans of the most recent queries taking longer than the minimum time are available
+     * via {@link #getRecentQueryProfiles()}. Analyze mode adds some overhead to every query,
+     * so it is disabled by default.
+     *
+     * @param analyze
+     */
+    void setAnalyzeQueries(boolean analyze);
+
+    boolean getAnalyzeQueries();
 }
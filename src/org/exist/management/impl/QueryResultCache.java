@@ -0,0 +1,93 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.management.impl;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.XQueryResultCache;
+
+public class QueryResultCache implements QueryResultCacheMXBean {
+
+    private final BrokerPool pool;
+
+    public QueryResultCache(final BrokerPool pool) {
+        this.pool = pool;
+    }
+
+    private XQueryResultCache cache() {
+        return pool.getXQueryResultCache();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return cache().isEnabled();
+    }
+
+    @Override
+    public long getMaxSize() {
+        return cache().getMaxSize();
+    }
+
+    @Override
+    public long getSize() {
+        return cache().getSize();
+    }
+
+    @Override
+    public long getEntryCount() {
+        return cache().getEntryCount();
+    }
+
+    @Override
+    public long getTimeout() {
+        return cache().getTimeout();
+    }
+
+    @Override
+    public long getHitCount() {
+        return cache().getHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return cache().getMissCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        final long hits = getHitCount();
+        final long requests = hits + getMissCount();
+        return requests == 0 ? 0d : (double) hits / requests;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return cache().getEvictionCount();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return cache().getInvalidationCount();
+    }
+
+    @Override
+    public void clear() {
+        cache().clear();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.management.impl;
+
+import org.exist.storage.ProcessMonitor;
+
+/**
+ * The plan of a recently executed XQuery, annotated with the runtime statistics
+ * recorded in analyze mode.
+ */
+public class RecentQueryProfile {
+
+    private int idx;
+    private String sourceKey;
+    private long executionTime;
+    private long executionDuration;
+    private String plan;
+
+    public RecentQueryProfile(int idx, ProcessMonitor.QueryProfileInfo profile) {
+        this.idx = idx;
+        this.sourceKey = profile.getSource();
+        this.executionTime = profile.getExecutionTime();
+        this.executionDuration = profile.getExecutionDuration();
+        this.plan = profile.getPlan();
+    }
+
+    public int getIdx() {
+        return idx;
+    }
+
+    public String getSourceKey() {
+        return sourceKey;
+    }
+
+    public long getExecutionTime() {
+        return executionTime;
+    }
+
+    public long getExecutionDuration() {
+        return executionDuration;
+    }
+
+    public String getPlan() {
+        return plan;
+    }
+}
@@ -267,6 +267,74 @@ public class DLN extends DLNBase implements NodeId {
             (bitIndex == ancestor.bitIndex || isLevelSeparator((ancestor).bitIndex + 1));
     }
 
+    /**
+     * Same as {@link #isDescendantOrSelfOf(NodeId)}, but compares the ids
+     * directly in their serialized form, see {@link #serialize(byte[], int)}.
+     *
+     * @param data the byte[] containing the serialized id
+     * @param offset the offset of the id in data
+     * @param units the number of bits used by the id, see {@link #units()}
+     * @param ancestor the byte[] containing the serialized ancestor id
+     * @param ancestorOffset the offset of the ancestor id
+     * @param ancestorUnits the number of bits used by the ancestor id
+     * @return true if the id is a descendant of, or the same as the ancestor id
+     */
+    public static boolean isDescendantOrSelfOf(final byte[] data, final int offset, final int units,
+            final byte[] ancestor, final int ancestorOffset, final int ancestorUnits) {
+        return startsWith(data, offset, units, ancestor, ancestorOffset, ancestorUnits) &&
+            (units == ancestorUnits || isLevelSeparator(data, offset, ancestorUnits));
+    }
+
+    /**
+     * Same as {@link #isDescendantOrSelfOf(NodeId)}, but reads the id
+     * directly from its serialized form.
+     *
+     * @param data the byte[] containing the serialized id
+     * @param offset the offset of the id in data
+     * @param units the number of bits used by the id, see {@link #units()}
+     * @param ancestor the ancestor id
+     * @return true if the id is a descendant of, or the same as the ancestor id
+     */
+    public static boolean isDescendantOrSelfOf(final byte[] data, final int offset, final int units,
+            final NodeId ancestor) {
+        final DLN other = (DLN) ancestor;
+        return isDescendantOrSelfOf(data, offset, units, other.bits, 0, other.bitIndex + 1);
+    }
+
+    /**
+     * Same as {@link #isDescendantOf(NodeId)}, but reads the id
+     * directly from its serialized form.
+     *
+     * @param data the byte[] containing the serialized id
+     * @param offset the offset of the id in data
+     * @param units the number of bits used by the id, see {@link #units()}
+     * @param ancestor the ancestor id
+     * @return true if the id is a descendant of the ancestor id
+     */
+    public static boolean isDescendantOf(final byte[] data, final int offset, final int units,
+            final NodeId ancestor) {
+        final DLN other = (DLN) ancestor;
+        return units > other.bitIndex + 1 && startsWith(data, offset, units, other.bits, 0, other.bitIndex + 1)
+            && isLevelSeparator(data, offset, other.bitIndex + 1);
+    }
+
+    /**
+     * Checks if the given id is a descendant of the id in its serialized form,
+     * i.e. the same as calling {@link #isDescendantOf(NodeId)} on descendant.
+     *
+     * @param data the byte[] containing the serialized id
+     * @param offset the offset of the id in data
+     * @param units the number of bits used by the id, see {@link #units()}
+     * @param descendant the descendant id
+     * @return true if the id is an ancestor of the descendant id
+     */
+    public static boolean isAncestorOf(final byte[] data, final int offset, final int units,
+            final NodeId descendant) {
+        final DLN other = (DLN) descendant;
+        return other.bitIndex + 1 > units && startsWith(other.bits, 0, other.bitIndex + 1, data, offset, units)
+            && other.isLevelSeparator(units);
+    }
+
     @Override
     public boolean isChildOf(final NodeId parent) {
         final DLN other = (DLN) parent;
@@ -284,12 +352,31 @@ public class DLN extends DLNBase implements NodeId {
             return getLevelCount(0) == 1 ? IS_CHILD : IS_DESCENDANT;
         }
         
-        if (startsWith(other)) {
-            if (bitIndex == other.bitIndex) {
+        return computeRelation(bits, 0, bitIndex + 1, other.bits, 0, other.bitIndex + 1);
+    }
+
+    /**
+     * Same as {@link #computeRelation(NodeId)}, but compares the ids
+     * directly in their serialized form, see {@link #serialize(byte[], int)}.
+     * The ancestor id must not be {@link NodeId#DOCUMENT_NODE}.
+     *
+     * @param data the byte[] containing the serialized id
+     * @param offset the offset of the id in data
+     * @param units the number of bits used by the id, see {@link #units()}
+     * @param ancestor the byte[] containing the serialized ancestor id
+     * @param ancestorOffset the offset of the ancestor id
+     * @param ancestorUnits the number of bits used by the ancestor id
+     * @return one of {@link NodeId#IS_SELF}, {@link NodeId#IS_CHILD},
+     *     {@link NodeId#IS_DESCENDANT}, or -1 if the ids are not related
+     */
+    public static int computeRelation(final byte[] data, final int offset, final int units,
+            final byte[] ancestor, final int ancestorOffset, final int ancestorUnits) {
+        if (startsWith(data, offset, units, ancestor, ancestorOffset, ancestorUnits)) {
+            if (units == ancestorUnits) {
                 return IS_SELF;
             }
-            if (bitIndex > other.bitIndex && isLevelSeparator(other.bitIndex + 1)) {
-                if (getLevelCount(other.bitIndex + 2) == 1) {
+            if (units > ancestorUnits && isLevelSeparator(data, offset, ancestorUnits)) {
+                if (getLevelCount(data, offset, units, ancestorUnits + 1) == 1) {
                     return IS_CHILD;
                 }
                 return IS_DESCENDANT;
@@ -298,6 +385,39 @@ public class DLN extends DLNBase implements NodeId {
         return -1;
     }
 
+    /**
+     * Same as {@link #computeRelation(NodeId)}, but reads the id
+     * directly from its serialized form.
+     *
+     * @param data the byte[] containing the serialized id
+     * @param offset the offset of the id in data
+     * @param units the number of bits used by the id, see {@link #units()}
+     * @param ancestor the ancestor id
+     * @return one of {@link NodeId#IS_SELF}, {@link NodeId#IS_CHILD},
+     *     {@link NodeId#IS_DESCENDANT}, or -1 if the ids are not related
+     */
+    public static int computeRelation(final byte[] data, final int offset, final int units,
+            final NodeId ancestor) {
+        if (ancestor == NodeId.DOCUMENT_NODE) {
+            return getLevelCount(data, offset, units, 0) == 1 ? IS_CHILD : IS_DESCENDANT;
+        }
+        final DLN other = (DLN) ancestor;
+        return computeRelation(data, offset, units, other.bits, 0, other.bitIndex + 1);
+    }
+
+    /**
+     * Same as {@link #getTreeLevel()}, but reads the id
+     * directly from its serialized form.
+     *
+     * @param data the byte[] containing the serialized id
+     * @param offset the offset of the id in data
+     * @param units the number of bits used by the id, see {@link #units()}
+     * @return the level of the node within the document tree
+     */
+    public static int getTreeLevel(final byte[] data, final int offset, final int units) {
+        return getLevelCount(data, offset, units, 0);
+    }
+
     @Override
     public boolean isSiblingOf(final NodeId sibling) {
         final NodeId parent = getParentId();
@@ -324,19 +444,49 @@ public class DLN extends DLNBase implements NodeId {
             return 1;
         }
         final DLN other = (DLN) otherId;
-        final int a1len = bits.length;
-        final int a2len = other.bits.length;
-        final int limit = a1len <= a2len ? a1len : a2len;
-        final byte[] obits = other.bits;
-        
+        return compare(bits, 0, bits.length, other.bits, 0, other.bits.length);
+    }
+
+    /**
+     * Same as {@link #compareTo(NodeId)}, but compares the ids
+     * directly in their serialized form, see {@link #serialize(byte[], int)}.
+     *
+     * @param data the byte[] containing the first id
+     * @param offset the offset of the first id
+     * @param length the length of the first id in bytes, see {@link #size()}
+     * @param other the byte[] containing the second id
+     * @param otherOffset the offset of the second id
+     * @param otherLength the length of the second id in bytes
+     * @return a negative number, zero or a positive number if the first id
+     *     is before, the same as, or after the second id in document order
+     */
+    public static int compare(final byte[] data, final int offset, final int length,
+            final byte[] other, final int otherOffset, final int otherLength) {
+        final int limit = length <= otherLength ? length : otherLength;
         for(int i = 0; i < limit; i++) {
-            final byte b1 = bits[i];
-            final byte b2 = obits[i];
+            final byte b1 = data[offset + i];
+            final byte b2 = other[otherOffset + i];
             if(b1 != b2) {
                 return (b1 & 0xFF) - (b2 & 0xFF);
             }
         }
-        return (a1len - a2len);
+        return (length - otherLength);
+    }
+
+    /**
+     * Same as {@link #compareTo(NodeId)}, but reads the first id
+     * directly from its serialized form.
+     *
+     * @param data the byte[] containing the first id
+     * @param offset the offset of the first id
+     * @param units the number of bits used by the first id, see {@link #units()}
+     * @param otherId the second id
+     * @return a negative number, zero or a positive number if the first id
+     *     is before, the same as, or after the second id in document order
+     */
+    public static int compare(final byte[] data, final int offset, final int units, final NodeId otherId) {
+        final DLN other = (DLN) otherId;
+        return compare(data, offset, (units + 7) >>> 3, other.bits, 0, other.bits.length);
     }
 
     @Override
@@ -300,6 +300,20 @@ public class DLNBase {
     public boolean isLevelSeparator(final int index) {
         return (bits[index >> UNIT_SHIFT] & (1 << ((7 - index) & 7))) == 0;
     }
+
+    /**
+     * Same as {@link #isLevelSeparator(int)}, but reads the id
+     * directly from its serialized form.
+     *
+     * @param data the byte[] containing the serialized id
+     * @param offset the offset of the id in data
+     * @param index the bit to check
+     * @return true if the bit starts a new level
+     */
+    protected static boolean isLevelSeparator(final byte[] data, final int offset, final int index) {
+        final int bit = (offset << UNIT_SHIFT) + index;
+        return (data[bit >> UNIT_SHIFT] & (1 << ((7 - bit) & 7))) == 0;
+    }
     
     /**
      * Returns the number of level in this id, which corresponds
@@ -308,14 +322,31 @@ public class DLNBase {
      * @return the number of levels in this id
      */
     public int getLevelCount(final int startOffset) {
+        return getLevelCount(bits, 0, bitIndex + 1, startOffset);
+    }
+
+    /**
+     * Same as {@link #getLevelCount(int)}, but reads the id
+     * directly from its serialized form.
+     *
+     * @param data the byte[] containing the serialized id
+     * @param offset the offset of the id in data
+     * @param units the number of bits used by the id, see {@link #units()}
+     * @param startOffset the bit to start counting at
+     * @return the number of levels in the id
+     */
+    protected static int getLevelCount(final byte[] data, final int offset, final int units, final int startOffset) {
+        final int firstBit = offset << UNIT_SHIFT;
+        final int bitIndex = units - 1;
         int bit = startOffset;
         int count = 0;
         while (bit > -1 && bit <= bitIndex) {
-            final int units = unitsUsed(bit, bits);
-            bit += units;
-            bit += bitWidth(units);
+            final int fieldUnits = unitsUsed(firstBit + bit, data);
+            bit += fieldUnits;
+            bit += bitWidth(fieldUnits);
             if (bit < bitIndex) {
-                if ((bits[bit >> UNIT_SHIFT] & (1 << ((7 - bit++) & 7))) == LEVEL_SEPARATOR) {
+                final int next = firstBit + bit++;
+                if ((data[next >> UNIT_SHIFT] & (1 << ((7 - next) & 7))) == LEVEL_SEPARATOR) {
                     ++count;
                 }
             } else {
@@ -525,17 +556,34 @@ public class DLNBase {
      * @param other
      */
     public boolean startsWith(final DLNBase other) {
-        if (other.bitIndex > bitIndex) {
+        return startsWith(bits, 0, bitIndex + 1, other.bits, 0, other.bitIndex + 1);
+    }
+
+    /**
+     * Same as {@link #startsWith(DLNBase)}, but compares the ids
+     * directly in their serialized form.
+     *
+     * @param data the byte[] containing the serialized id
+     * @param offset the offset of the id in data
+     * @param units the number of bits used by the id, see {@link #units()}
+     * @param prefix the byte[] containing the serialized prefix
+     * @param prefixOffset the offset of the prefix in prefix
+     * @param prefixUnits the number of bits used by the prefix
+     * @return true if the id starts with the bits of the prefix
+     */
+    protected static boolean startsWith(final byte[] data, final int offset, final int units,
+            final byte[] prefix, final int prefixOffset, final int prefixUnits) {
+        if (prefixUnits > units) {
             return false;
         }
-        final int bytes = other.bitIndex / 8;
-        final int remaining = other.bitIndex % 8;
+        final int bytes = (prefixUnits - 1) / 8;
+        final int remaining = (prefixUnits - 1) % 8;
         for (int i = 0; i < bytes; i++) {
-            if (bits[i] != other.bits[i]) {
+            if (data[offset + i] != prefix[prefixOffset + i]) {
                 return false;
             }
         }
-        return (bits[bytes] & BIT_MASK[remaining]) == (other.bits[bytes] & BIT_MASK[remaining]);
+        return (data[offset + bytes] & BIT_MASK[remaining]) == (prefix[prefixOffset + bytes] & BIT_MASK[remaining]);
     }
 
     public String debug() {
@@ -233,13 +233,18 @@ public class SecurityManagerImpl implements SecurityManager, BrokerPoolService {
             throw new ConfigurationException("Account must have realm id.");
         }
 
+        final boolean updated;
         final Lock lock = accountLocks.getWriteLock(account);
         lock.lock();
         try {
-            return findRealmForRealmId(account.getRealmId()).updateAccount(account);
+            updated = findRealmForRealmId(account.getRealmId()).updateAccount(account);
         } finally {
             lock.unlock();
         }
+        if (updated) {
+            principalsUpdated();
+        }
+        return updated;
     }
 
     @Override
@@ -252,13 +257,18 @@ public class SecurityManagerImpl implements SecurityManager, BrokerPoolService {
             throw new ConfigurationException("Group must have realm id.");
         }
 
+        final boolean updated;
         final Lock lock = groupLocks.getWriteLock(group);
         lock.lock();
         try {
-            return findRealmForRealmId(group.getRealmId()).updateGroup(group);
+            updated = findRealmForRealmId(group.getRealmId()).updateGroup(group);
         } finally {
             lock.unlock();
         }
+        if (updated) {
+            principalsUpdated();
+        }
+        return updated;
     }
 
     @Override
@@ -272,13 +282,18 @@ public class SecurityManagerImpl implements SecurityManager, BrokerPoolService {
             throw new ConfigurationException("Group must have realm id.");
         }
 
+        final boolean updated;
         final Lock lock = groupLocks.getWriteLock(group);
         lock.lock();
         try {
-            return findRealmForRealmId(group.getRealmId()).deleteGroup(group);
+            updated = findRealmForRealmId(group.getRealmId()).deleteGroup(group);
         } finally {
             lock.unlock();
         }
+        if (updated) {
+            principalsUpdated();
+        }
+        return updated;
     }
 
     @Override
@@ -296,13 +311,25 @@ public class SecurityManagerImpl implements SecurityManager, BrokerPoolService {
             throw new ConfigurationException("Account must have realm id.");
         }
 
+        final boolean updated;
         final Lock lock = accountLocks.getWriteLock(account);
         lock.lock();
         try {
-            return findRealmForRealmId(account.getRealmId()).deleteAccount(account);
+            updated = findRealmForRealmId(account.getRealmId()).deleteAccount(account);
         } finally {
             lock.unlock();
         }
+        if (updated) {
+            principalsUpdated();
+        }
+        return updated;
+    }
+
+    /**
+     * Notifies the listeners that the permissions of the accounts may have changed.
+     */
+    private void principalsUpdated() {
+        db.getNotificationService().notifyPermissionsUpdate(null);
     }
 
     @Override
@@ -333,6 +333,10 @@ public class Main {
                 _classname = "org.exist.backup.Main";
                 _mode = "backup";
 
+            } else if ("bulkload".equals(args[0])) {
+                _classname = "org.exist.storage.BulkLoadMain";
+                _mode = "other";
+
             } else if ("jetty".equals(args[0]) || "standalone".equals(args[0])) {
                 //_classname = "org.mortbay.jetty.Server";
                 _classname = "org.exist.jetty.JettyStart";
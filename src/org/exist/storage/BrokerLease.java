@@ -0,0 +1,131 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A broker obtained from {@link BrokerPool#lease(java.util.Optional, long)}.
+ *
+ * Unlike a broker obtained by {@link BrokerPool#get(java.util.Optional)}, a leased
+ * broker is not bound to the thread which requested it. The lease is passed along
+ * with the work it belongs to, so a request may be processed by different threads
+ * one after the other. Locks and transactions must still be released by the thread
+ * which acquired them.
+ *
+ * Code which looks up the broker of the current thread, e.g. by calling
+ * {@link BrokerPool#getActiveBroker()}, sees the leased broker only while the
+ * lease is bound to the thread with {@link #bind()}.
+ *
+ * Closing the lease returns the broker to the pool.
+ */
+public final class BrokerLease implements AutoCloseable {
+
+    private final BrokerPool pool;
+    private final DBBroker broker;
+    private final long waitTime;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    BrokerLease(final BrokerPool pool, final DBBroker broker, final long waitTime) {
+        this.pool = pool;
+        this.broker = broker;
+        this.waitTime = waitTime;
+    }
+
+    /**
+     * Returns the leased broker.
+     *
+     * @return the broker
+     * @throws IllegalStateException if the lease has been closed
+     */
+    public DBBroker getBroker() {
+        if (closed.get()) {
+            throw new IllegalStateException("Broker lease has been closed");
+        }
+        return broker;
+    }
+
+    /**
+     * Returns how long the request for the lease waited for a broker.
+     *
+     * @param unit the unit of the result
+     * @return the time spent waiting
+     */
+    public long getWaitTime(final TimeUnit unit) {
+        return unit.convert(waitTime, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Binds the leased broker to the current thread until the returned
+     * binding is closed. While bound, {@link BrokerPool#get(java.util.Optional)}
+     * and {@link BrokerPool#getActiveBroker()} return the leased broker on
+     * this thread.
+     *
+     * @return the binding
+     * @throws IllegalStateException if the current thread already holds another broker
+     */
+    public Binding bind() {
+        return new Binding(pool.bind(getBroker()));
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            pool.release(broker);
+        }
+    }
+
+    /**
+     * The association of the leased broker with a thread.
+     */
+    public final class Binding implements AutoCloseable {
+
+        private final Thread thread = Thread.currentThread();
+        private final boolean bound;
+
+        private Binding(final boolean bound) {
+            this.bound = bound;
+        }
+
+        /**
+         * Returns the broker which is bound to the current thread.
+         *
+         * @return the leased broker
+         */
+        public DBBroker getBroker() {
+            return broker;
+        }
+
+        @Override
+        public void close() {
+            if (Thread.currentThread() != thread) {
+                throw new IllegalStateException("Broker binding must be closed by the thread which created it");
+            }
+            if (bound) {
+                pool.unbind(broker);
+            }
+        }
+    }
+}
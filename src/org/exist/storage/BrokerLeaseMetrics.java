@@ -0,0 +1,96 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics about requests for brokers and the time they waited
+ * for a broker to become available.
+ */
+public final class BrokerLeaseMetrics {
+
+    private final LongAdder leases = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder totalWaitTime = new LongAdder();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    void leased(final long waitTime) {
+        leases.increment();
+        if (waitTime > 0) {
+            waits.increment();
+            totalWaitTime.add(waitTime);
+            maxWaitTime.accumulateAndGet(waitTime, Math::max);
+        }
+    }
+
+    void timedOut(final long waitTime) {
+        timeouts.increment();
+        totalWaitTime.add(waitTime);
+        maxWaitTime.accumulateAndGet(waitTime, Math::max);
+    }
+
+    /**
+     * @return the number of brokers handed out
+     */
+    public long getLeaseCount() {
+        return leases.sum();
+    }
+
+    /**
+     * @return the number of requests which had to wait for a broker
+     */
+    public long getWaitCount() {
+        return waits.sum();
+    }
+
+    /**
+     * @return the number of requests which gave up waiting for a broker
+     */
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return the total time requests waited for a broker in milliseconds
+     */
+    public long getTotalWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitTime.sum());
+    }
+
+    /**
+     * @return the longest time a request waited for a broker in milliseconds
+     */
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get());
+    }
+
+    /**
+     * @return the average time a request waited for a broker in milliseconds,
+     * counting requests which did not have to wait
+     */
+    public double getAverageWaitTime() {
+        final long count = leases.sum() + timeouts.sum();
+        return count == 0 ? 0 : (double) totalWaitTime.sum() / count / 1000000;
+    }
+}
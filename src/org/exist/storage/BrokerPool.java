@@ -54,9 +54,11 @@ import org.exist.security.SecurityManager;
 import org.exist.security.internal.SecurityManagerImpl;
 import org.exist.storage.btree.DBException;
 import org.exist.storage.journal.JournalManager;
+import org.exist.storage.journal.Lsn;
 import org.exist.storage.lock.DeadlockDetection;
 import org.exist.storage.lock.FileLockService;
 import org.exist.storage.recovery.RecoveryManager;
+import org.exist.storage.sync.PageCleaner;
 import org.exist.storage.sync.Sync;
 import org.exist.storage.sync.SyncTask;
 import org.exist.storage.txn.TransactionException;
@@ -81,6 +83,8 @@ import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -190,6 +194,19 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
      */
     private final Map<Thread, DBBroker> activeBrokers = new ConcurrentHashMap<>();
 
+    /**
+     * The brokers handed out by {@link #lease(Optional, long)}, which are not bound to a thread
+     */
+    private final Set<DBBroker> leasedBrokers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * One permit for each broker which may be handed out. Requests waiting for a
+     * broker queue up here in arrival order, without holding the monitor of the pool.
+     */
+    private final Semaphore brokerPermits;
+
+    private final BrokerLeaseMetrics leaseMetrics = new BrokerLeaseMetrics();
+
 
     /**
      * Used when TRACE level logging is enabled
@@ -240,6 +257,11 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
      */
     private TransactionManager transactionManager = null;
 
+    /**
+     * Writes dirty pages in the background, if fuzzy checkpoints are enabled.
+     */
+    private PageCleaner pageCleaner = null;
+
     /**
      * Delay (in ms) for running jobs to return when the database instance shuts down.
      */
@@ -308,6 +330,11 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
      */
     private XQueryPool xQueryPool;
 
+    /**
+     * The global cache for serialized XQuery results.
+     */
+    private XQueryResultCache xQueryResultCache;
+
     /**
      * The monitor in which the database instance's strong>running</strong> XQueries are managed.
      */
@@ -382,6 +409,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
         this.minBrokers = conf.getProperty(PROPERTY_MIN_CONNECTIONS, minBrokers);
         this.maxBrokers = conf.getProperty(PROPERTY_MAX_CONNECTIONS, maxBrokers);
+        this.brokerPermits = new Semaphore(this.maxBrokers, true);
 
         LOG.info("database instance '" + instanceName + "' will have between " + nf.format(this.minBrokers) + " and " + nf.format(this.maxBrokers) + " brokers");
 
@@ -449,6 +477,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
         this.cacheManager = servicesManager.register(new DefaultCacheManager(this));
         this.xQueryPool = servicesManager.register(new XQueryPool());
+        this.xQueryResultCache = servicesManager.register(new XQueryResultCache());
         this.processMonitor = servicesManager.register(new ProcessMonitor());
         this.xqueryStats = servicesManager.register(new PerformanceStats(this));
         final XMLReaderObjectFactory xmlReaderObjectFactory = servicesManager.register(new XMLReaderObjectFactory());
@@ -467,6 +496,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
         final SystemTaskManager systemTaskManager = servicesManager.register(new SystemTaskManager(this));
         this.transactionManager = servicesManager.register(new TransactionManager(this, journalManager, systemTaskManager));
+        this.pageCleaner = servicesManager.register(new PageCleaner(this, journalManager));
 
         this.symbols = servicesManager.register(new SymbolTable());
 
@@ -582,7 +612,8 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
                         //If necessary, launch a task to repair the DB
                         //TODO : merge this with the recovery process ?
-                        if(isRecoveryEnabled() && recovered) {
+                        final boolean bulkLoadInterrupted = !isReadOnly() && BulkLoader.isInterrupted(this);
+                        if((isRecoveryEnabled() && recovered) || bulkLoadInterrupted) {
                             if(!exportOnly) {
                                 reportStatus("Reindexing database files...");
                                 try {
@@ -624,6 +655,11 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
                         sync(systemBroker, Sync.MAJOR);
 
+                        // the keys added by the repair are not journalled, but written by the sync
+                        if(bulkLoadInterrupted && !exportOnly) {
+                            BulkLoader.clearInterrupted(this);
+                        }
+
                         // we have completed all system mode operations
                         // we can now prepare those services which need
                         // system mode before entering multi-user mode
@@ -742,7 +778,8 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             LOG.debug("ForceRestart = " + forceRestart);
         }
         if(journalManager.isPresent()) {
-            final RecoveryManager recovery = new RecoveryManager(broker, journalManager.get(), forceRestart);
+            final int redoThreads = conf.getProperty(RecoveryManager.PROPERTY_RECOVERY_REDO_THREADS, RecoveryManager.DEFAULT_REDO_THREADS);
+            final RecoveryManager recovery = new RecoveryManager(broker, journalManager.get(), forceRestart, redoThreads);
             return recovery.recover();
         } else {
             throw new IllegalStateException("Cannot run recovery without a JournalManager");
@@ -792,7 +829,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
      */
     //TODO : rename as getActiveBrokers ?
     public int active() {
-        return activeBrokers.size();
+        return countActiveBrokers();
     }
 
     /**
@@ -802,13 +839,42 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
      */
     @Override
     public int countActiveBrokers() {
-        return activeBrokers.size();
+        int count = leasedBrokers.size();
+        for (final DBBroker broker : activeBrokers.values()) {
+            if (!leasedBrokers.contains(broker)) {
+                count++;
+            }
+        }
+        return count;
     }
 
+    private boolean hasActiveBrokers() {
+        return !activeBrokers.isEmpty() || !leasedBrokers.isEmpty();
+    }
+
+    /**
+     * Returns the brokers bound to threads. Leased brokers are
+     * only included while they are bound to a thread.
+     *
+     * @return The active brokers by thread
+     */
     public Map<Thread, DBBroker> getActiveBrokers() {
         return new HashMap<>(activeBrokers);
     }
 
+    /**
+     * Returns the number of requests waiting for a broker to become available.
+     *
+     * @return The number of waiting requests, an estimate
+     */
+    public int countWaitingForBroker() {
+        return brokerPermits.getQueueLength();
+    }
+
+    public BrokerLeaseMetrics getBrokerLeaseMetrics() {
+        return leaseMetrics;
+    }
+
     /**
      * Returns the number of inactive brokers for the database instance.
      *
@@ -939,6 +1005,10 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return transactionManager;
     }
 
+    public PageCleaner getPageCleaner() {
+        return pageCleaner;
+    }
+
     /**
      * Returns a manager for accessing the database instance's collection configuration files.
      *
@@ -992,6 +1062,15 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return xQueryPool;
     }
 
+    /**
+     * Returns the cache in which the database instance's serialized XQuery results are stored.
+     *
+     * @return The cache
+     */
+    public XQueryResultCache getXQueryResultCache() {
+        return xQueryResultCache;
+    }
+
     /**
      * Retuns the XQuery Service
      *
@@ -1167,53 +1246,144 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             }
         }
 
+        final long waitTime = acquireBrokerPermit();
         synchronized(this) {
-            //Are there any available brokers ?
-            if(inactiveBrokers.isEmpty()) {
-                //There are no available brokers. If allowed...
-                if(brokersCount < maxBrokers)
-                //... create one
-                {
-                    createBroker();
-                } else
-                    //... or wait until there is one available
-                    while(inactiveBrokers.isEmpty()) {
-                        LOG.debug("waiting for a broker to become available");
-                        try {
-                            this.wait();
-                        } catch(final InterruptedException e) {
-                            //nothing to be done!
-                        }
-                    }
-            }
-            broker = inactiveBrokers.pop();
-            //activate the broker
+            broker = activateBroker(subject, waitTime);
             activeBrokers.put(Thread.currentThread(), broker);
 
             if(LOG.isTraceEnabled()) {
                 LOG.trace("+++ " + Thread.currentThread() + Stacktrace.top(Thread.currentThread().getStackTrace(), Stacktrace.DEFAULT_STACK_TOP));
             }
+            return broker;
+        }
+    }
 
-            if(watchdog.isPresent()) {
-                watchdog.get().add(broker);
+    /**
+     * Leases a broker which is not bound to the current thread, see {@link BrokerLease}.
+     *
+     * A thread which already holds a broker from {@link #get(Optional)} gets a
+     * different broker, so it should not wait for a lease while other threads
+     * may wait for its own broker.
+     *
+     * @param subject Optionally a subject to set on the broker, the guest user is used otherwise
+     * @param timeout The maximum time in milliseconds to wait for a broker, or a negative
+     *                value to wait until a broker is available
+     * @return The lease
+     * @throws EXistException If the instance is not available, or no broker became
+     *                        available within the timeout
+     */
+    public BrokerLease lease(final Optional<Subject> subject, final long timeout) throws EXistException {
+        Objects.requireNonNull(subject, "Subject cannot be null");
+
+        if(!isInstanceConfigured()) {
+            throw new EXistException("database instance '" + instanceName + "' is not available");
+        }
+        if(serviceModeUser != null && subject.isPresent() && !subject.equals(Optional.ofNullable(serviceModeUser))) {
+            throw new EXistException("database instance '" + instanceName + "' is in service mode");
+        }
+
+        final long waitTime;
+        if(timeout < 0) {
+            waitTime = acquireBrokerPermit();
+        } else {
+            final long start = System.nanoTime();
+            boolean acquired = false;
+            try {
+                acquired = brokerPermits.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+            } catch(final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            waitTime = System.nanoTime() - start;
+            if(!acquired) {
+                leaseMetrics.timedOut(waitTime);
+                throw new EXistException("No broker became available for database instance '" + instanceName +
+                        "' within " + timeout + " ms");
             }
+        }
 
-            broker.incReferenceCount();
+        synchronized(this) {
+            final DBBroker broker = activateBroker(subject, waitTime);
+            leasedBrokers.add(broker);
+            return new BrokerLease(this, broker, waitTime);
+        }
+    }
 
-            broker.pushSubject(subject.orElseGet(securityManager::getGuestSubject));
+    /**
+     * Waits in the queue of requests for a broker until a broker may be handed out.
+     *
+     * @return The time waited in nanoseconds
+     */
+    private long acquireBrokerPermit() {
+        try {
+            if(brokerPermits.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+                return 0;
+            }
+        } catch(final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.debug("waiting for a broker to become available");
+        final long start = System.nanoTime();
+        brokerPermits.acquireUninterruptibly();
+        return Math.max(1, System.nanoTime() - start);
+    }
 
-            if(LOG.isTraceEnabled()) {
-                if(!brokerLeaseChangeTrace.containsKey(broker.getId())) {
-                    brokerLeaseChangeTrace.put(broker.getId(), new TraceableStateChanges<>());
-                }
-                brokerLeaseChangeTrace.get(broker.getId()).add(TraceableBrokerLeaseChange.get(new TraceableBrokerLeaseChange.BrokerInfo(broker.getId(), broker.getReferenceCount())));
+    /**
+     * Takes an inactive broker, or creates one, after a permit was acquired.
+     */
+    @GuardedBy("this")
+    private DBBroker activateBroker(final Optional<Subject> subject, final long waitTime) throws EXistException {
+        final DBBroker broker;
+        try {
+            //Are there any available brokers ?
+            if(inactiveBrokers.isEmpty()) {
+                //There are no available brokers, but the permit allows to create one
+                createBroker();
             }
+            broker = inactiveBrokers.pop();
+        } catch(final EXistException | RuntimeException e) {
+            brokerPermits.release();
+            throw e;
+        }
+        leaseMetrics.leased(waitTime);
 
-            //Inform the other threads that we have a new-comer
-            // TODO: do they really need to be informed here???????
-            this.notifyAll();
-            return broker;
+        if(watchdog.isPresent()) {
+            watchdog.get().add(broker);
+        }
+
+        broker.incReferenceCount();
+
+        broker.pushSubject(subject.orElseGet(securityManager::getGuestSubject));
+
+        if(LOG.isTraceEnabled()) {
+            if(!brokerLeaseChangeTrace.containsKey(broker.getId())) {
+                brokerLeaseChangeTrace.put(broker.getId(), new TraceableStateChanges<>());
+            }
+            brokerLeaseChangeTrace.get(broker.getId()).add(TraceableBrokerLeaseChange.get(new TraceableBrokerLeaseChange.BrokerInfo(broker.getId(), broker.getReferenceCount())));
         }
+
+        //Inform the other threads that we have a new-comer
+        // TODO: do they really need to be informed here???????
+        this.notifyAll();
+        return broker;
+    }
+
+    /**
+     * Binds a leased broker to the current thread.
+     *
+     * @return false if the broker was already bound to the current thread
+     */
+    boolean bind(final DBBroker broker) {
+        final DBBroker previous = activeBrokers.putIfAbsent(Thread.currentThread(), broker);
+        if(previous == null) {
+            return true;
+        } else if(previous == broker) {
+            return false;
+        }
+        throw new IllegalStateException("Thread '" + Thread.currentThread() + "' already holds broker " + previous.getId());
+    }
+
+    void unbind(final DBBroker broker) {
+        activeBrokers.remove(Thread.currentThread(), broker);
     }
 
     /**
@@ -1254,7 +1424,10 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                 }
             }
 
-            if(activeBrokers.remove(Thread.currentThread()) == null) {
+            if(leasedBrokers.remove(broker)) {
+                // a leased broker may still be bound to a thread
+                activeBrokers.values().removeIf(activeBroker -> activeBroker == broker);
+            } else if(activeBrokers.remove(Thread.currentThread()) == null) {
                 LOG.error("release() has been called from the wrong thread for broker " + broker.getId());
                 // Cleanup the state of activeBrokers
                 for(final Entry<Thread, DBBroker> activeBroker : activeBrokers.entrySet()) {
@@ -1288,6 +1461,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             }
 
             inactiveBrokers.push(broker);
+            brokerPermits.release();
             watchdog.ifPresent(wd -> wd.remove(broker));
 
             if(LOG.isTraceEnabled()) {
@@ -1305,7 +1479,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             }
 
             //If the database is now idle, do some useful stuff
-            if(activeBrokers.size() == 0) {
+            if(!hasActiveBrokers()) {
                 //TODO : use a "clean" dedicated method (we have some below) ?
                 if(syncRequired) {
                     //Note that the broker is not yet really inactive ;-)
@@ -1329,7 +1503,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
         serviceModeUser = user;
         synchronized(this) {
-            if(activeBrokers.size() != 0) {
+            if(hasActiveBrokers()) {
                 while(!inServiceMode) {
                     try {
                         wait();
@@ -1387,7 +1561,17 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
     // other brokers are active when it is called. That's why we don't need to synchronize here.
     //TODO : make it protected ?
     public void sync(final DBBroker broker, final Sync syncEvent) {
-        broker.sync(syncEvent);
+        // while the page cleaner writes dirty pages in the background, the pages of
+        // dom.dbx and collections.dbx are not flushed here. A checkpoint switching
+        // the journal file needs all pages on disk, so it is never fuzzy.
+        final boolean pagesCleaned = pageCleaner != null && pageCleaner.isRunning() && !checkpoint;
+        final long redoLsn = pagesCleaned ? pageCleaner.getRedoLsn() : Lsn.LSN_INVALID;
+        final boolean fuzzyCheckpoint = syncEvent == Sync.MAJOR && redoLsn != Lsn.LSN_INVALID;
+        if (fuzzyCheckpoint) {
+            broker.sync(Sync.MAJOR_FUZZY);
+        } else if (syncEvent == Sync.MAJOR || !pagesCleaned) {
+            broker.sync(syncEvent);
+        }
 
         //TODO : strange that it is set *after* the sunc method has been called.
         try {
@@ -1397,7 +1581,14 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                 LOG.debug("Major sync");
                 try {
                     if (!FORCE_CORRUPTION) {
-                        transactionManager.checkpoint(checkpoint);
+                        if (fuzzyCheckpoint) {
+                            transactionManager.fuzzyCheckpoint(redoLsn);
+                        } else {
+                            transactionManager.checkpoint(checkpoint);
+                            if (pageCleaner != null) {
+                                journalManager.ifPresent(jm -> pageCleaner.checkpointed(jm.lastWrittenLsn()));
+                            }
+                        }
                     }
                 } catch (final TransactionException e) {
                     LOG.warn(e.getMessage(), e);
@@ -1564,10 +1755,10 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
                     final long waitStart = System.currentTimeMillis();
                     //Are there active brokers ?
-                    if (activeBrokers.size() > 0) {
+                    if (hasActiveBrokers()) {
                         printSystemInfo();
                         LOG.info("Waiting " + maxShutdownWait + "ms for remaining threads to shut down...");
-                        while (activeBrokers.size() > 0) {
+                        while (hasActiveBrokers()) {
                             try {
                                 //Wait until they become inactive...
                                 this.wait(1000);
@@ -1680,6 +1871,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                 collectionCache = null;
                 collectionCacheMgr = null;
                 xQueryPool = null;
+                xQueryResultCache = null;
                 processMonitor = null;
                 collectionConfigurationManager = null;
                 notificationService = null;
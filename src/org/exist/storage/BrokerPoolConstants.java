@@ -61,6 +61,8 @@ public interface BrokerPoolConstants {
     String SYNC_PERIOD_ATTRIBUTE = "sync-period";
     String SHUTDOWN_DELAY_ATTRIBUTE = "wait-before-shutdown";
     String NODES_BUFFER_ATTRIBUTE = "nodesBuffer";
+    String MEMORY_MAPPED_FILES_ATTRIBUTE = "memoryMappedFiles";
+    String COMPRESSED_FILES_ATTRIBUTE = "compressedFiles";
 
     //Various configuration property keys (set by the configuration manager)
     String PROPERTY_STARTUP_TRIGGERS = "startup.triggers";
@@ -81,6 +83,8 @@ public interface BrokerPoolConstants {
     String PROPERTY_RECOVERY_CHECK = "db-connection.recovery.consistency-check";
     String PROPERTY_SYSTEM_TASK_CONFIG = "db-connection.system-task-config";
     String PROPERTY_NODES_BUFFER = "db-connection.nodes-buffer";
+    String PROPERTY_MEMORY_MAPPED_FILES = "db-connection.memory-mapped-files";
+    String PROPERTY_COMPRESSED_FILES = "db-connection.compressed-files";
     String PROPERTY_EXPORT_ONLY = "db-connection.emergency";
 
     String PROPERTY_RECOVERY_GROUP_COMMIT = "db-connection.recovery.group-commit";
@@ -0,0 +1,215 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.util.Configuration;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.FileInputSource;
+import org.exist.util.FileUtils;
+import org.exist.util.LockException;
+import org.exist.util.MimeTable;
+import org.exist.util.MimeType;
+import org.exist.util.SystemExitCodes;
+import org.exist.xmldb.XmldbURI;
+import org.xml.sax.SAXException;
+import se.softhouse.jargo.Argument;
+import se.softhouse.jargo.ArgumentException;
+import se.softhouse.jargo.CommandLineParser;
+import se.softhouse.jargo.ParsedArguments;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.exist.util.ArgumentUtil.getBool;
+import static org.exist.util.ArgumentUtil.getOpt;
+import static org.exist.util.ArgumentUtil.getPathsOpt;
+import static se.softhouse.jargo.Arguments.*;
+
+/**
+ * Command line tool which stores files and directories into an embedded
+ * database with a {@link BulkLoader}. The database must not be running.
+ */
+public class BulkLoadMain {
+
+    /* general arguments */
+    private static final Argument<?> helpArg = helpArgument("-h", "--help");
+    private static final Argument<Boolean> verboseArg = optionArgument("-v", "--verbose")
+            .description("print stored resources to stdout")
+            .defaultValue(false)
+            .build();
+
+    /* load parameters */
+    private static final Argument<File> configArg = fileArgument("-c", "--config")
+            .description("the database configuration (conf.xml) file to use for launching the db.")
+            .build();
+    private static final Argument<String> collectionArg = stringArgument("-C", "--collection")
+            .description("the collection to store the files in. Directories are stored as sub-collections.")
+            .defaultValue(XmldbURI.ROOT_COLLECTION)
+            .build();
+    private static final Argument<Integer> runSizeArg = integerArgument("-r", "--run-size")
+            .description("the number of index entries kept in memory before they are sorted and written to a temporary file.")
+            .defaultValue(BulkLoader.DEFAULT_RUN_SIZE)
+            .limitTo(size -> size > 0)
+            .build();
+    private static final Argument<List<File>> filesArg = fileArgument()
+            .description("the XML files and directories to store.")
+            .variableArity()
+            .build();
+
+    private static BrokerPool startDB(final Optional<Path> configFile) {
+        try {
+            final Configuration config;
+            if (configFile.isPresent()) {
+                config = new Configuration(configFile.get().toAbsolutePath().toString(), Optional.empty());
+            } else {
+                config = new Configuration();
+            }
+            BrokerPool.configure(1, 5, config, Optional.empty());
+            return BrokerPool.getInstance();
+        } catch (final DatabaseConfigurationException | EXistException e) {
+            System.err.println("ERROR: Failed to open database: " + e.getMessage());
+        }
+        return null;
+    }
+
+    public static void main(final String[] args) {
+        try {
+            final ParsedArguments arguments = CommandLineParser
+                    .withArguments(configArg, collectionArg, runSizeArg, filesArg)
+                    .andArguments(helpArg, verboseArg)
+                    .parse(args);
+
+            process(arguments);
+        } catch (final ArgumentException e) {
+            System.out.println(e.getMessageAndUsage());
+            System.exit(SystemExitCodes.INVALID_ARGUMENT_EXIT_CODE);
+        }
+    }
+
+    private static void process(final ParsedArguments arguments) {
+        final boolean verbose = getBool(arguments, verboseArg);
+        final Optional<Path> dbConfig = getOpt(arguments, configArg).map(File::toPath);
+        final XmldbURI target = XmldbURI.create(arguments.get(collectionArg));
+        final int runSize = arguments.get(runSizeArg);
+        final List<Path> files = getPathsOpt(arguments, filesArg);
+
+        if (files.isEmpty()) {
+            System.err.println("No files or directories to store.");
+            System.exit(SystemExitCodes.INVALID_ARGUMENT_EXIT_CODE);
+        }
+
+        final BrokerPool pool = startDB(dbConfig);
+        if (pool == null) {
+            System.exit(SystemExitCodes.CATCH_ALL_GENERAL_ERROR_EXIT_CODE);
+        }
+
+        int retval = SystemExitCodes.OK_EXIT_CODE;
+        final long start = System.currentTimeMillis();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Loader loader = new Loader(broker, runSize, verbose);
+            try {
+                for (final Path file : files) {
+                    loader.load(file, target);
+                }
+            } finally {
+                loader.close();
+            }
+            System.out.println("Stored " + loader.getCount() + " documents in "
+                    + (System.currentTimeMillis() - start) + "ms.");
+        } catch (final EXistException | LockException | SAXException e) {
+            System.err.println("ERROR: Failed to store documents: " + e.getMessage());
+            retval = SystemExitCodes.CATCH_ALL_GENERAL_ERROR_EXIT_CODE;
+        } catch (final PermissionDeniedException e) {
+            System.err.println("ERROR: Failed to store documents: " + e.getMessage());
+            retval = SystemExitCodes.PERMISSION_DENIED_EXIT_CODE;
+        } catch (final IOException e) {
+            System.err.println("ERROR: Failed to store documents: " + e.getMessage());
+            retval = SystemExitCodes.IO_ERROR_EXIT_CODE;
+        } finally {
+            BrokerPool.stopAll(false);
+        }
+        System.exit(retval);
+    }
+
+    /**
+     * Stores files and directories through a {@link BulkLoader}.
+     */
+    private static class Loader extends BulkLoader {
+
+        private final DBBroker broker;
+        private final TransactionManager transact;
+        private final boolean verbose;
+        private Collection collection = null;
+
+        Loader(final DBBroker broker, final int runSize, final boolean verbose) throws IOException {
+            super(broker, runSize);
+            this.broker = broker;
+            this.transact = broker.getBrokerPool().getTransactionManager();
+            this.verbose = verbose;
+        }
+
+        void load(final Path file, final XmldbURI collectionUri) throws EXistException, PermissionDeniedException,
+                TriggerException, SAXException, LockException, IOException {
+            if (Files.isDirectory(file)) {
+                final XmldbURI childUri = collectionUri.append(FileUtils.fileName(file));
+                final List<Path> children;
+                try (final Stream<Path> stream = Files.list(file)) {
+                    children = stream.sorted().collect(Collectors.toList());
+                }
+                for (final Path child : children) {
+                    load(child, childUri);
+                }
+                return;
+            }
+
+            final MimeType mimeType = MimeTable.getInstance().getContentTypeFor(FileUtils.fileName(file));
+            if (mimeType == null || !mimeType.isXMLType()) {
+                if (verbose) {
+                    System.out.println("Skipping non-XML file " + file.toAbsolutePath());
+                }
+                return;
+            }
+
+            if (collection == null || !collection.getURI().equals(collectionUri)) {
+                try (final Txn transaction = transact.beginTransaction()) {
+                    collection = broker.getOrCreateCollection(transaction, collectionUri);
+                    broker.saveCollection(transaction, collection);
+                    transact.commit(transaction);
+                }
+            }
+            if (verbose) {
+                System.out.println("Storing " + file.toAbsolutePath() + " to " + collectionUri);
+            }
+            store(collection, XmldbURI.create(FileUtils.fileName(file)), new FileInputSource(file));
+        }
+    }
+}
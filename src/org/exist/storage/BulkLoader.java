@@ -0,0 +1,197 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Stores a large number of documents, deferring the index build until all
+ * documents are stored.
+ *
+ * While documents are stored through a bulk loader, the keys they add to the
+ * B+-tree of dom.dbx and to the structural index are not inserted one by one,
+ * but collected in sorted runs, which are written to temporary files if they grow
+ * too large. When the loader is closed, the runs are merged and the keys are
+ * added to the trees in ascending order, filling one leaf page after the other.
+ * The other indexes, including values.dbx, are updated per document as usual. The
+ * dom.dbx keys of documents in the system collection are not deferred, as accounts
+ * and collection configurations are read while the load runs.
+ *
+ * The loaded documents cannot be queried before the loader is closed. While a
+ * loader is open, a marker file exists in the data directory. If the database is
+ * not shut down cleanly during a bulk load, the marker is found on startup and
+ * the database is reindexed, which adds the missing keys of the loaded documents
+ * (see {@link DBBroker#repair()}). Closing the loader triggers a checkpoint.
+ *
+ * <pre>
+ * try (final BulkLoader loader = new BulkLoader(broker)) {
+ *     for (...) {
+ *         loader.store(collection, name, source);
+ *     }
+ * }
+ * </pre>
+ *
+ * A bulk loader is bound to the broker and the thread it was created with.
+ */
+public class BulkLoader implements AutoCloseable {
+
+    private static final Logger LOG = LogManager.getLogger(BulkLoader.class);
+
+    /**
+     * Default number of index entries kept in memory before they are sorted and
+     * written to a temporary file.
+     */
+    public static final int DEFAULT_RUN_SIZE = 500000;
+
+    /** prefix and suffix of the marker files of running bulk loads in the data directory */
+    private static final String MARKER_PREFIX = "bulkload";
+    private static final String MARKER_SUFFIX = ".pending";
+
+    private final DBBroker broker;
+    private final TransactionManager transact;
+    private final Path marker;
+    private int count = 0;
+
+    public BulkLoader(final DBBroker broker) throws IOException {
+        this(broker, DEFAULT_RUN_SIZE);
+    }
+
+    /**
+     * @param broker the broker to store the documents with
+     * @param runSize the number of index entries kept in memory
+     *
+     * @throws IOException if the marker file cannot be created
+     */
+    public BulkLoader(final DBBroker broker, final int runSize) throws IOException {
+        this.broker = broker;
+        this.transact = broker.getBrokerPool().getTransactionManager();
+        this.marker = Files.createTempFile(broker.getBrokerPool().getStoragePlace(), MARKER_PREFIX, MARKER_SUFFIX);
+        broker.startBulkLoad(runSize);
+    }
+
+    /**
+     * Stores a document in its own transaction.
+     *
+     * @param collection the collection to store the document in
+     * @param name the name of the document
+     * @param source the content of the document
+     * @return the stored document
+     */
+    public DocumentImpl store(final Collection collection, final XmldbURI name, final InputSource source)
+            throws EXistException, PermissionDeniedException, TriggerException, SAXException, LockException,
+            IOException {
+        try (final Txn transaction = transact.beginTransaction()) {
+            final DocumentImpl doc = store(transaction, collection, name, source);
+            transact.commit(transaction);
+            return doc;
+        }
+    }
+
+    /**
+     * Stores a document in the given transaction.
+     *
+     * @param transaction the transaction to use
+     * @param collection the collection to store the document in
+     * @param name the name of the document
+     * @param source the content of the document
+     * @return the stored document
+     */
+    public DocumentImpl store(final Txn transaction, final Collection collection, final XmldbURI name,
+            final InputSource source) throws EXistException, PermissionDeniedException, TriggerException,
+            SAXException, LockException, IOException {
+        final IndexInfo info = collection.validateXMLResource(transaction, broker, name, source);
+        collection.store(transaction, broker, info, source);
+        count++;
+        return info.getDocument();
+    }
+
+    /**
+     * @return the number of documents stored so far
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Adds the deferred index entries to the indexes.
+     */
+    @Override
+    public void close() throws EXistException, IOException {
+        try (final Txn transaction = transact.beginTransaction()) {
+            broker.endBulkLoad(transaction);
+            transact.commit(transaction);
+        }
+        // the keys are journalled now, the recovery restores them after a crash
+        Files.delete(marker);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Bulk loaded " + count + " documents");
+        }
+        broker.getBrokerPool().triggerCheckpoint();
+    }
+
+    /**
+     * Checks for bulk loads which were not closed before the database
+     * was shut down. Their documents miss the deferred keys.
+     *
+     * @param pool the database
+     * @return true if a bulk load was interrupted
+     */
+    public static boolean isInterrupted(final BrokerPool pool) throws IOException {
+        try (final DirectoryStream<Path> markers = markers(pool)) {
+            return markers.iterator().hasNext();
+        }
+    }
+
+    /**
+     * Removes the markers of interrupted bulk loads, after the database
+     * was reindexed and synced.
+     *
+     * @param pool the database
+     */
+    public static void clearInterrupted(final BrokerPool pool) throws IOException {
+        try (final DirectoryStream<Path> markers = markers(pool)) {
+            for (final Path marker : markers) {
+                Files.delete(marker);
+            }
+        }
+    }
+
+    private static DirectoryStream<Path> markers(final BrokerPool pool) throws IOException {
+        return Files.newDirectoryStream(pool.getStoragePlace(), MARKER_PREFIX + "*" + MARKER_SUFFIX);
+    }
+}
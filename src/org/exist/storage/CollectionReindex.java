@@ -0,0 +1,210 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.security.Subject;
+import org.exist.storage.DBBroker.IndexMode;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.xmldb.XmldbURI;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reindexes the documents of a collection and its descendant collections,
+ * optionally on several threads.
+ *
+ * The documents are partitioned between the threads: every thread takes the next
+ * document which is not yet reindexed and feeds it through the index workers of
+ * its own broker. The calling thread reindexes documents, too, using its own broker
+ * and transaction. The other threads lease a broker from the pool; if none is
+ * available, fewer threads are used.
+ *
+ * The calling thread holds the collections cache from dropping the indexes until all
+ * documents are reindexed, so no other thread changes the collections in between.
+ * The other threads therefore must not open collections: the index workers only read
+ * the configuration of the collection of each document, which is held in memory.
+ *
+ * The progress is reported by {@link #toString()}, so it is shown for the running
+ * job by the process monitor.
+ */
+class CollectionReindex {
+
+    private static final Logger LOG = LogManager.getLogger(CollectionReindex.class);
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final XmldbURI collectionUri;
+    private final IndexMode mode;
+
+    private List<DocumentImpl> documents = null;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger reindexed = new AtomicInteger();
+    private volatile long startTime = 0;
+
+    CollectionReindex(final XmldbURI collectionUri, final IndexMode mode) {
+        this.collectionUri = collectionUri;
+        this.mode = mode;
+    }
+
+    /**
+     * Reindexes the documents.
+     *
+     * @param broker the broker of the calling thread
+     * @param transaction the transaction of the calling thread
+     * @param documents the documents to reindex
+     * @param threads the maximum number of threads, including the calling thread
+     * @throws IOException if another thread failed to reindex a document or to commit
+     */
+    void reindex(final DBBroker broker, final Txn transaction, final List<DocumentImpl> documents, final int threads)
+            throws IOException {
+        this.documents = documents;
+        this.startTime = System.currentTimeMillis();
+
+        final int workers = Math.min(threads, documents.size()) - 1;
+        if (workers <= 0) {
+            reindexDocuments(broker, transaction);
+            return;
+        }
+
+        final BrokerPool pool = broker.getBrokerPool();
+        final Subject subject = broker.getCurrentSubject();
+        final ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+            final Thread thread = new Thread(runnable, "Reindex-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final List<Future<Void>> results = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                results.add(executor.submit(() -> reindexWorker(pool, subject)));
+            }
+            reindexDocuments(broker, transaction);
+            IOException failure = null;
+            for (final Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (final ExecutionException e) {
+                    if (failure == null) {
+                        failure = new IOException("Reindex thread failed: " + e.getCause().getMessage(), e.getCause());
+                    } else {
+                        failure.addSuppressed(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for reindex threads", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Void reindexWorker(final BrokerPool pool, final Subject subject) throws EXistException {
+        final BrokerLease lease;
+        try {
+            // do not wait: the other threads reindex the documents if all brokers are in use
+            lease = pool.lease(Optional.of(subject), 0);
+        } catch (final EXistException e) {
+            LOG.debug("No broker available for a reindex thread: " + e.getMessage());
+            return null;
+        }
+        try (final BrokerLease.Binding binding = lease.bind()) {
+            final TransactionManager transact = pool.getTransactionManager();
+            try (final Txn transaction = transact.beginTransaction()) {
+                reindexDocuments(binding.getBroker(), transaction);
+                transact.commit(transaction);
+            }
+        } finally {
+            lease.close();
+        }
+        return null;
+    }
+
+    /**
+     * Reindexes documents until all documents are taken.
+     */
+    private void reindexDocuments(final DBBroker broker, final Txn transaction) {
+        int idx;
+        while ((idx = next.getAndIncrement()) < documents.size()) {
+            broker.reindexXMLResource(transaction, documents.get(idx), mode);
+            reindexed.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of documents to reindex, or -1 if not yet known
+     */
+    int getDocumentCount() {
+        final List<DocumentImpl> docs = documents;
+        return docs == null ? -1 : docs.size();
+    }
+
+    /**
+     * @return the number of documents reindexed so far
+     */
+    int getReindexedCount() {
+        return reindexed.get();
+    }
+
+    /**
+     * @return the estimated time in milliseconds until all documents are reindexed,
+     * or -1 if it can not be estimated yet
+     */
+    long getRemainingTime() {
+        final int total = getDocumentCount();
+        final int done = reindexed.get();
+        if (total < 0 || done == 0) {
+            return -1;
+        }
+        final long elapsed = System.currentTimeMillis() - startTime;
+        return elapsed * (total - done) / done;
+    }
+
+    @Override
+    public String toString() {
+        final int total = getDocumentCount();
+        if (total < 0) {
+            return collectionUri.toString();
+        }
+        final StringBuilder builder = new StringBuilder(collectionUri.toString());
+        builder.append(": ").append(reindexed.get()).append(" of ").append(total).append(" documents reindexed");
+        final long remaining = getRemainingTime();
+        if (remaining >= 0) {
+            builder.append(", about ").append(remaining / 1000).append("s remaining");
+        }
+        return builder.toString();
+    }
+}
@@ -51,6 +51,7 @@ import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.TerminatedException;
 import org.w3c.dom.Document;
 
+import javax.annotation.Nullable;
 import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -116,6 +117,8 @@ public abstract class DBBroker extends Observable implements AutoCloseable {
 
     protected IndexController indexController;
 
+    private Set<XmldbURI> accessedCollections = null;
+
     public DBBroker(final BrokerPool pool, final Configuration config) {
         this.config = config;
         final Boolean temp = (Boolean) config.getProperty(NativeValueIndex.PROPERTY_INDEX_CASE_SENSITIVE);
@@ -200,6 +203,32 @@ public abstract class DBBroker extends Observable implements AutoCloseable {
 
     public abstract StructuralIndex getStructuralIndex();
 
+    /**
+     * Starts or stops recording the URIs of the collections which are
+     * opened through this broker.
+     *
+     * @param collections the set to which the URIs are added,
+     *     or null to stop recording
+     *
+     * @return the set which received the URIs before, or null
+     */
+    public Set<XmldbURI> trackAccessedCollections(@Nullable final Set<XmldbURI> collections) {
+        final Set<XmldbURI> previous = accessedCollections;
+        accessedCollections = collections;
+        return previous;
+    }
+
+    /**
+     * Called by implementations whenever a collection is opened.
+     *
+     * @param uri the URI of the collection
+     */
+    protected void collectionAccessed(final XmldbURI uri) {
+        if (accessedCollections != null) {
+            accessedCollections.add(uri);
+        }
+    }
+
     /** Flush all data that has not been written before. */
     public void flush() {
         // do nothing
@@ -496,6 +525,16 @@ public abstract class DBBroker extends Observable implements AutoCloseable {
     public abstract void reindexCollection(XmldbURI collectionName)
             throws PermissionDeniedException, IOException;
 
+    /**
+     * Reindex a collection, using up to the given number of threads.
+     * The documents are partitioned between the threads.
+     *
+     * @param collectionName the collection to reindex
+     * @param threads the maximum number of threads
+     */
+    public abstract void reindexCollection(XmldbURI collectionName, int threads)
+            throws PermissionDeniedException, IOException;
+
     public abstract void reindexXMLResource(Txn txn, DocumentImpl doc);
 
     public abstract void reindexXMLResource(final Txn transaction, final DocumentImpl doc, final IndexMode mode);
@@ -719,6 +758,31 @@ public abstract class DBBroker extends Observable implements AutoCloseable {
 	public abstract void checkXMLResourceConsistency(DocumentImpl doc)
 			throws EXistException;
 
+	/**
+	 * Starts a bulk load. Until {@link #endBulkLoad(Txn)} is called, the entries
+	 * which documents stored by this broker add to the B+-trees of the DOM and of the
+	 * index workers supporting it are collected, instead of being inserted one by one.
+	 * See {@link BulkLoader}.
+	 *
+	 * @param runSize
+	 *            the number of entries kept in memory before they are sorted
+	 *            and written to a temporary file
+	 */
+	public abstract void startBulkLoad(int runSize);
+
+	/**
+	 * Ends the running bulk load and merges the collected entries into the B+-trees.
+	 *
+	 * @param transaction
+	 *            the transaction to use
+	 */
+	public abstract void endBulkLoad(Txn transaction) throws IOException;
+
+	/**
+	 * @return true if a bulk load was started and not yet ended
+	 */
+	public abstract boolean isBulkLoading();
+
 	/**
 	 * Sync dom and collection state data (pages) to disk. In case of
 	 * {@link org.exist.storage.sync.Sync#MAJOR}, sync all states (dom,
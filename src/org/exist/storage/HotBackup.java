@@ -0,0 +1,351 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.scheduler.JobException;
+import org.exist.scheduler.UserJavaJob;
+import org.exist.storage.btree.Paged;
+import org.exist.storage.journal.Journal;
+import org.exist.storage.journal.JournalException;
+import org.exist.storage.journal.JournalManager;
+import org.exist.storage.journal.Lsn;
+import org.exist.util.FileUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Creates a physical backup of the database files while the database is in use.
+ * Unlike {@link DataBackup}, which runs as a system task and stops all other
+ * operations while it copies the files, the hot backup runs as a user job.
+ *
+ * The pages of the storage files are copied one after another while they are
+ * written concurrently, so the copy is not consistent by itself. The current
+ * journal file is retained meanwhile, see {@link Journal#retainFile()}, and
+ * copied at the end. All changes not contained in the copied pages are in this
+ * journal file, following the start of the file. When the backup is restored,
+ * see {@link org.exist.backup.HotBackupRestore}, recovery redoes the journal
+ * from there, so the database is restored to the state at the end of the backup.
+ *
+ * Only the files which are journalled are copied, together with the symbols
+ * and binary resources. The other indexes are rebuilt after recovery.
+ *
+ * The copying is throttled to the configured number of kilobytes per second,
+ * to limit the impact on the I/O of concurrent operations.
+ */
+public class HotBackup extends UserJavaJob {
+
+    private final static Logger LOG = LogManager.getLogger(HotBackup.class);
+
+    public static final String OUTPUT_DIR_PARAM = "output-dir";
+    public static final String MAX_RATE_PARAM = "max-rate";
+
+    /** Default maximum rate in kilobytes per second */
+    public static final int DEFAULT_MAX_RATE = 16 * 1024;
+
+    /** Name of the entry describing the backup */
+    public static final String DESCRIPTOR_ENTRY = "hotbackup.properties";
+    public static final String JOURNAL_DIR_ENTRY = "journal/";
+    public static final String BINARY_DIR_ENTRY = "fs/";
+
+    public static final String REDO_LSN_PROPERTY = "redo-lsn";
+    public static final String END_LSN_PROPERTY = "end-lsn";
+    public static final String PAGE_SIZE_PROPERTY = "page-size";
+    public static final String JOURNAL_PROPERTY = "journal";
+    public static final String CREATED_PROPERTY = "created";
+    /** Comma separated names of the entries containing paged storage files */
+    public static final String STORAGE_PROPERTY = "storage";
+    /** Prefix of the properties recording the size of each entry */
+    public static final String SIZE_PROPERTY_PREFIX = "size.";
+
+    /** Number of pages copied before the rate is checked */
+    static final int BATCH_SIZE = 32;
+
+    private final SimpleDateFormat creationDateFormat = new SimpleDateFormat(DataBackup.DATE_FORMAT_PICTURE);
+
+    private String name = "HotBackup";
+    private Path dest;
+    private int maxRate = DEFAULT_MAX_RATE;
+
+    private long startTime;
+    private long bytesCopied;
+
+    public HotBackup() {
+    }
+
+    /**
+     * @param destination the directory to write the backup to
+     * @param maxRate the maximum number of kilobytes copied per second
+     */
+    public HotBackup(final Path destination, final int maxRate) {
+        this.dest = destination;
+        this.maxRate = Math.max(1, maxRate);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void execute(final BrokerPool pool, final Map<String, ?> params) throws JobException {
+        final Object outputDir = params == null ? null : params.get(OUTPUT_DIR_PARAM);
+        dest = Paths.get(outputDir == null ? "backup" : outputDir.toString());
+        if (!dest.isAbsolute()) {
+            dest = ((Path) pool.getConfiguration().getProperty(BrokerPool.PROPERTY_DATA_DIR)).resolve(dest);
+        }
+        final Object rate = params == null ? null : params.get(MAX_RATE_PARAM);
+        if (rate != null) {
+            try {
+                maxRate = Math.max(1, Integer.parseInt(rate.toString()));
+            } catch (final NumberFormatException e) {
+                throw new JobException(JobException.JobExceptionAction.JOB_ABORT_THIS,
+                        "Invalid value for parameter " + MAX_RATE_PARAM + ": " + rate);
+            }
+        }
+        try {
+            backup(pool);
+        } catch (final EXistException | IOException e) {
+            LOG.error("Hot backup failed: " + e.getMessage(), e);
+            throw new JobException(JobException.JobExceptionAction.JOB_ABORT, e.getMessage());
+        }
+    }
+
+    /**
+     * Create a backup of the database.
+     *
+     * @param pool the database
+     * @return the zip file the backup has been written to
+     *
+     * @throws EXistException if the database does not support hot backups
+     * @throws IOException
+     */
+    public Path backup(final BrokerPool pool) throws EXistException, IOException {
+        final JournalManager journal = pool.getJournalManager()
+                .orElseThrow(() -> new EXistException("Hot backups require the journal to be enabled"));
+
+        final List<Paged> files = new ArrayList<>();
+        final Path fsDir;
+        // the storage files are shared by all brokers, the broker is not needed while copying
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            if (!(broker instanceof NativeBroker)) {
+                throw new EXistException("Hot backups can only be used with the native storage backend");
+            }
+            final NativeBroker nativeBroker = (NativeBroker) broker;
+            for (final byte id : nativeBroker.getStorageFileIds()) {
+                final Paged paged = nativeBroker.getStorage(id);
+                if (paged != null) {
+                    files.add(paged);
+                }
+            }
+            fsDir = nativeBroker.getFsDir();
+        }
+
+        Files.createDirectories(dest);
+        final String creationDate = creationDateFormat.format(Calendar.getInstance().getTime());
+        final Path outFile = dest.resolve("hot-" + creationDate + ".zip");
+        LOG.info("Starting hot backup into " + outFile.toAbsolutePath().toString() +
+                ", copying up to " + maxRate + "KB per second");
+
+        final Properties descriptor = new Properties();
+        descriptor.setProperty(CREATED_PROPERTY, creationDate);
+        descriptor.setProperty(PAGE_SIZE_PROPERTY, Integer.toString(pool.getPageSize()));
+
+        startTime = System.currentTimeMillis();
+        bytesCopied = 0;
+
+        final long redoLsn;
+        try {
+            redoLsn = journal.retainFile();
+        } catch (final JournalException e) {
+            throw new EXistException(e.getMessage(), e);
+        }
+        try (final ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(outFile))) {
+            out.setLevel(Deflater.BEST_SPEED);
+
+            final List<String> storage = new ArrayList<>();
+            for (final Paged paged : files) {
+                final String entry = FileUtils.fileName(paged.getFile());
+                out.putNextEntry(new ZipEntry(entry));
+                long size = 0;
+                paged.backupHeaderToStream(out);
+                size += paged.getFileHeader().getHeaderSize();
+                long page = 0;
+                int copied;
+                do {
+                    copied = paged.backupPagesToStream(out, page, BATCH_SIZE);
+                    page += copied;
+                    size += (long) copied * paged.getFileHeader().getPageSize();
+                    throttle((long) copied * paged.getFileHeader().getPageSize());
+                } while (copied == BATCH_SIZE);
+                out.closeEntry();
+                descriptor.setProperty(SIZE_PROPERTY_PREFIX + entry, Long.toString(size));
+                storage.add(entry);
+            }
+            descriptor.setProperty(STORAGE_PROPERTY, String.join(",", storage));
+
+            // all changes to the pages copied so far are contained in the journal up to here
+            final long endLsn = journal.flushForBackup();
+            final Path journalFile = journal.getFile((int) Lsn.getFileNumber(redoLsn));
+            final String journalEntry = JOURNAL_DIR_ENTRY + FileUtils.fileName(journalFile);
+            out.putNextEntry(new ZipEntry(journalEntry));
+            final long journalSize = Lsn.getOffset(endLsn) - 1;
+            try (final InputStream is = Files.newInputStream(journalFile)) {
+                copy(is, out, journalSize);
+            }
+            out.closeEntry();
+            descriptor.setProperty(SIZE_PROPERTY_PREFIX + journalEntry, Long.toString(journalSize));
+            descriptor.setProperty(JOURNAL_PROPERTY, journalEntry);
+            descriptor.setProperty(REDO_LSN_PROPERTY, Long.toString(redoLsn));
+            descriptor.setProperty(END_LSN_PROPERTY, Long.toString(endLsn));
+
+            // symbols and binary resources are not journalled, they are copied
+            // afterwards, so they include everything referenced by the journal
+            final String symbolsEntry = FileUtils.fileName(pool.getSymbols().getFile());
+            final CountingOutputStream symbolsOut = new CountingOutputStream(out);
+            out.putNextEntry(new ZipEntry(symbolsEntry));
+            pool.getSymbols().backupSymbolsTo(symbolsOut);
+            out.closeEntry();
+            descriptor.setProperty(SIZE_PROPERTY_PREFIX + symbolsEntry, Long.toString(symbolsOut.count));
+
+            if (Files.isDirectory(fsDir)) {
+                backupBinaries(out, fsDir, BINARY_DIR_ENTRY, descriptor);
+            }
+
+            out.putNextEntry(new ZipEntry(DESCRIPTOR_ENTRY));
+            descriptor.store(out, "eXist-db hot backup");
+            out.closeEntry();
+
+            LOG.info("Hot backup completed in " + (System.currentTimeMillis() - startTime) + "ms, journal from " +
+                    Lsn.dump(redoLsn) + " to " + Lsn.dump(endLsn));
+        } catch (final IOException e) {
+            FileUtils.deleteQuietly(outFile);
+            throw e;
+        } finally {
+            journal.releaseFile();
+        }
+        return outFile;
+    }
+
+    private void backupBinaries(final ZipOutputStream out, final Path dir, final String path,
+            final Properties descriptor) throws IOException {
+        for (final Path file : FileUtils.list(dir)) {
+            final String entry = path + FileUtils.fileName(file);
+            if (Files.isDirectory(file)) {
+                backupBinaries(out, file, entry + "/", descriptor);
+                continue;
+            }
+            final InputStream is;
+            try {
+                is = Files.newInputStream(file);
+            } catch (final NoSuchFileException e) {
+                // removed meanwhile
+                continue;
+            }
+            try {
+                out.putNextEntry(new ZipEntry(entry));
+                final long size = copy(is, out, Long.MAX_VALUE);
+                out.closeEntry();
+                descriptor.setProperty(SIZE_PROPERTY_PREFIX + entry, Long.toString(size));
+            } finally {
+                is.close();
+            }
+        }
+    }
+
+    private long copy(final InputStream is, final OutputStream os, final long max) throws IOException {
+        final byte[] buf = new byte[BATCH_SIZE * Paged.getPageSize()];
+        long total = 0;
+        int len;
+        while (total < max && (len = is.read(buf, 0, (int) Math.min(buf.length, max - total))) > 0) {
+            os.write(buf, 0, len);
+            total += len;
+            throttle(len);
+        }
+        if (max != Long.MAX_VALUE && total < max) {
+            throw new IOException("Unexpected end of file after " + total + " bytes, expected " + max);
+        }
+        return total;
+    }
+
+    /**
+     * Pause until the average rate since the start of the backup
+     * is below the maximum rate.
+     *
+     * @param bytes the number of bytes copied since the last call
+     */
+    protected void throttle(final long bytes) throws IOException {
+        bytesCopied += bytes;
+        final long due = startTime + bytesCopied * 1000 / (maxRate * 1024L);
+        final long wait = due - System.currentTimeMillis();
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Hot backup interrupted");
+            }
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream os;
+        private long count = 0;
+
+        private CountingOutputStream(final OutputStream os) {
+            this.os = os;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            os.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            os.write(b, off, len);
+            count += len;
+        }
+    }
+}
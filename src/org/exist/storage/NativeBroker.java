@@ -66,6 +66,7 @@ import org.exist.storage.lock.Lock.LockMode;
 import org.exist.storage.serializers.NativeSerializer;
 import org.exist.storage.serializers.Serializer;
 import org.exist.storage.sync.Sync;
+import org.exist.storage.txn.TransactionException;
 import org.exist.storage.txn.TransactionManager;
 import org.exist.storage.txn.Txn;
 import org.exist.util.*;
@@ -86,6 +87,7 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.text.NumberFormat;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -141,6 +143,8 @@ public class NativeBroker extends DBBroker {
     public static final String INDEX_DEPTH_ATTRIBUTE = "index-depth";
 
     public static final String PROPERTY_INDEX_DEPTH = "indexer.index-depth";
+    public static final String REINDEX_THREADS_ATTRIBUTE = "reindex-threads";
+    public static final String PROPERTY_REINDEX_THREADS = "indexer.reindex-threads";
     private static final byte[] ALL_STORAGE_FILES = {
         COLLECTIONS_DBX_ID, VALUES_DBX_ID, DOM_DBX_ID
     };
@@ -172,6 +176,8 @@ public class NativeBroker extends DBBroker {
 
     private int defaultIndexDepth;
 
+    private int reindexThreads;
+
     private final Serializer xmlSerializer;
 
     /** used to count the nodes inserted after the last memory check */
@@ -196,6 +202,11 @@ public class NativeBroker extends DBBroker {
 
     private boolean incrementalDocIds = false;
 
+    /** the DOM index entries collected during a bulk load, null if no bulk load is running */
+    private SortedRuns bulkLoadEntries = null;
+    private BitSet bulkLoadedDocs = null;
+    private int bulkLoadRunSize;
+
     /** initialize database; read configuration, etc. */
     public NativeBroker(final BrokerPool pool, final Configuration config) throws EXistException {
         super(pool, config);
@@ -241,6 +252,11 @@ public class NativeBroker extends DBBroker {
             defaultIndexDepth = DEFAULT_INDEX_DEPTH;
         }
 
+        reindexThreads = config.getInteger(PROPERTY_REINDEX_THREADS);
+        if(reindexThreads < 1) {
+            reindexThreads = 1;
+        }
+
         final String docIdProp = (String) config.getProperty(BrokerPool.DOC_ID_MODE_PROPERTY);
         if(docIdProp != null) {
             incrementalDocIds = docIdProp.equalsIgnoreCase("incremental");
@@ -796,6 +812,7 @@ public class NativeBroker extends DBBroker {
                         collectionsCache.add(sub);
 
                         trigger.afterCreateCollection(this, transaction, sub);
+                        notifyCollectionChanged();
 
                         current = sub;
                     }
@@ -913,6 +930,15 @@ public class NativeBroker extends DBBroker {
         }
     }
 
+    /**
+     * Notifies the update listeners about a change which affects
+     * more than a single document, i.e. when a collection is created,
+     * copied, moved or removed, or a document is moved.
+     */
+    private void notifyCollectionChanged() {
+        pool.getNotificationService().notifyUpdate(null, UpdateListener.REMOVE);
+    }
+
     /**
      * Get collection object. If the collection does not exist, null is
      * returned.
@@ -922,6 +948,7 @@ public class NativeBroker extends DBBroker {
      */
     private Collection openCollection(XmldbURI uri, final long address, final LockMode lockMode) throws PermissionDeniedException {
         uri = prepend(uri.toCollectionPathURI());
+        collectionAccessed(uri);
         //We *must* declare it here (see below)
         Collection collection;
         final CollectionCache collectionsCache = pool.getCollectionsCache();
@@ -1101,6 +1128,7 @@ public class NativeBroker extends DBBroker {
                 final Collection newCollection = doCopyCollection(transaction, docTrigger, collection, destination, newName, false);
 
                 trigger.afterCopyCollection(this, transaction, newCollection, srcURI);
+                notifyCollectionChanged();
             } finally {
                 lock.release(LockMode.WRITE_LOCK);
                 pool.getProcessMonitor().endJob();
@@ -1302,6 +1330,7 @@ public class NativeBroker extends DBBroker {
             moveBinaryFork(transaction, fsSourceDir, destination, newName);
 
             trigger.afterMoveCollection(this, transaction, collection, srcURI);
+            notifyCollectionChanged();
 
         } finally {
             pool.getProcessMonitor().endJob();
@@ -1451,6 +1480,12 @@ public class NativeBroker extends DBBroker {
             throw new IOException(DATABASE_IS_READ_ONLY);
         }
 
+        if(bulkLoadedDocs != null && !bulkLoadedDocs.isEmpty()) {
+            // the removed documents might have been bulk loaded
+            endBulkLoad(transaction);
+            startBulkLoad(bulkLoadRunSize);
+        }
+
         final XmldbURI parentName = collection.getParentURI();
         final boolean isRoot = parentName == null;
         final Collection parent = isRoot ? collection : getCollection(parentName);
@@ -1687,6 +1722,7 @@ public class NativeBroker extends DBBroker {
                 }
 
                 colTrigger.afterDeleteCollection(this, transaction, collection.getURI());
+                notifyCollectionChanged();
 
                 return true;
 
@@ -1744,6 +1780,8 @@ public class NativeBroker extends DBBroker {
         } finally {
             lock.release(LockMode.WRITE_LOCK);
         }
+        // the permissions of the collection are saved with it
+        pool.getNotificationService().notifyPermissionsUpdate(collection.getURI());
     }
 
     /**
@@ -1780,7 +1818,12 @@ public class NativeBroker extends DBBroker {
     }
 
     @Override
-    public void reindexCollection(XmldbURI collectionName) throws PermissionDeniedException, IOException {
+    public void reindexCollection(final XmldbURI collectionName) throws PermissionDeniedException, IOException {
+        reindexCollection(collectionName, reindexThreads);
+    }
+
+    @Override
+    public void reindexCollection(XmldbURI collectionName, final int threads) throws PermissionDeniedException, IOException {
         if(isReadOnly()) {
             throw new IOException(DATABASE_IS_READ_ONLY);
         }
@@ -1790,22 +1833,33 @@ public class NativeBroker extends DBBroker {
             LOG.debug("collection " + collectionName + " not found!");
             return;
         }
-        reindexCollection(collection, IndexMode.STORE);
+        reindexCollection(collection, IndexMode.STORE, threads);
     }
 
-    public void reindexCollection(final Collection collection, final IndexMode mode) throws PermissionDeniedException {
+    public void reindexCollection(final Collection collection, final IndexMode mode) throws PermissionDeniedException, IOException {
+        reindexCollection(collection, mode, 1);
+    }
+
+    public void reindexCollection(final Collection collection, final IndexMode mode, final int threads) throws PermissionDeniedException, IOException {
         final TransactionManager transact = pool.getTransactionManager();
 
         final long start = System.currentTimeMillis();
 
         try(final Txn transaction = transact.beginTransaction()) {
             LOG.info(String.format("Start indexing collection %s", collection.getURI().toString()));
-            pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, collection.getURI());
-            reindexCollection(transaction, collection, mode);
+            final CollectionReindex reindex = new CollectionReindex(collection.getURI(), mode);
+            pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, reindex);
+            final List<DocumentImpl> documents = new ArrayList<>();
+            final CollectionCache collectionsCache = pool.getCollectionsCache();
+            // no collection changes between dropping the indexes and rebuilding them
+            synchronized(collectionsCache) {
+                reindexCollection(transaction, collection, mode, documents::add);
+                reindex.reindex(this, transaction, documents, threads);
+            }
             transact.commit(transaction);
 
-        } catch(final Exception e) {
-            LOG.warn("An error occurred during reindex: " + e.getMessage(), e);
+        } catch(final TransactionException e) {
+            throw new IOException(EXCEPTION_DURING_REINDEX + ": " + e.getMessage(), e);
 
         } finally {
             pool.getProcessMonitor().endJob();
@@ -1815,6 +1869,15 @@ public class NativeBroker extends DBBroker {
     }
 
     public void reindexCollection(final Txn transaction, final Collection collection, final IndexMode mode) throws PermissionDeniedException, IOException {
+        reindexCollection(transaction, collection, mode, doc -> reindexXMLResource(transaction, doc, mode));
+    }
+
+    /**
+     * Drops the indexes of a collection and its descendants if the mode is {@link IndexMode#STORE},
+     * and passes the documents to the reindexer.
+     */
+    private void reindexCollection(final Txn transaction, final Collection collection, final IndexMode mode,
+            final Consumer<DocumentImpl> reindexer) throws PermissionDeniedException, IOException {
         final CollectionCache collectionsCache = pool.getCollectionsCache();
         synchronized(collectionsCache) {
             if(!collection.getPermissionsNoLock().validate(getCurrentSubject(), Permission.WRITE)) {
@@ -1827,7 +1890,7 @@ public class NativeBroker extends DBBroker {
             try {
                 for (final Iterator<DocumentImpl> i = collection.iterator(this); i.hasNext(); ) {
                     final DocumentImpl next = i.next();
-                    reindexXMLResource(transaction, next, mode);
+                    reindexer.accept(next);
                 }
             } catch(final LockException e) {
                 LOG.error("LockException while reindexing documents of collection '" + collection.getURI() + ". Skipping...", e);
@@ -1841,7 +1904,7 @@ public class NativeBroker extends DBBroker {
                     if (child == null) {
                         LOG.warn("Collection '" + next + "' not found");
                     } else {
-                        reindexCollection(transaction, child, mode);
+                        reindexCollection(transaction, child, mode, reindexer);
                     }
                 }
             } catch(final LockException e) {
@@ -2068,6 +2131,8 @@ public class NativeBroker extends DBBroker {
         } finally {
             lock.release(LockMode.WRITE_LOCK);
         }
+        // the permissions of the document are saved with it
+        pool.getNotificationService().notifyPermissionsUpdate(doc.getURI());
     }
 
     public void storeMetadata(final Txn transaction, final DocumentImpl doc) throws TriggerException {
@@ -2525,6 +2590,7 @@ public class NativeBroker extends DBBroker {
                 }
 
                 trigger.afterCopyDocument(this, transaction, newDocument, oldUri);
+                pool.getNotificationService().notifyUpdate(newDocument, UpdateListener.ADD);
 
             } catch(final IOException e) {
                 LOG.warn("An error occurred while copying resource", e);
@@ -2694,6 +2760,8 @@ public class NativeBroker extends DBBroker {
             saveCollection(transaction, destination);
 
             trigger.afterMoveDocument(this, transaction, doc, oldURI);
+            // the document also left its old collection
+            notifyCollectionChanged();
 
         } catch(final ReadOnlyException e) {
             throw new PermissionDeniedException(e.getMessage(), e);
@@ -2766,6 +2834,7 @@ public class NativeBroker extends DBBroker {
     }
 
     private void dropIndex(final Txn transaction, final DocumentImpl document) throws ReadOnlyException {
+        flushBulkLoad(transaction, document);
         final StreamListener listener = indexController.getStreamListener(document, ReindexMode.REMOVE_ALL_NODES);
         listener.startIndexDocument(transaction);
         final NodeList nodes = document.getChildNodes();
@@ -3086,6 +3155,10 @@ public class NativeBroker extends DBBroker {
                     || nodeType == Node.CDATA_SECTION_NODE
                     || node.getNodeId().getTreeLevel() > defaultIndexDepth) {
                     address = domDb.add(transaction, data);
+                } else if(isBulkLoaded(doc)) {
+                    // the key is added when the bulk load ends
+                    address = domDb.add(transaction, data);
+                    addBulkLoadEntry(doc, node, address);
                 } else {
                     address = domDb.put(transaction, new NodeRef(doc.getDocId(), node.getNodeId()), data);
                 }
@@ -3107,6 +3180,7 @@ public class NativeBroker extends DBBroker {
     public <T extends IStoredNode> void updateNode(final Txn transaction, final IStoredNode<T> node, final boolean reindex) {
         try {
             final DocumentImpl doc = node.getOwnerDocument();
+            flushBulkLoad(transaction, doc);
             final long internalAddress = node.getInternalAddress();
             final byte[] data = node.serialize();
             new DOMTransaction(this, domDb, LockMode.WRITE_LOCK) {
@@ -3248,6 +3322,7 @@ public class NativeBroker extends DBBroker {
     public <T extends IStoredNode> void removeNode(final Txn transaction, final IStoredNode<T> node, final NodePath currentPath,
                            final String content) {
         final DocumentImpl doc = node.getOwnerDocument();
+        flushBulkLoad(transaction, doc);
         new DOMTransaction(this, domDb, LockMode.WRITE_LOCK, doc) {
             @Override
             public Object start() {
@@ -3615,8 +3690,18 @@ public class NativeBroker extends DBBroker {
 
         initIndexModules();
         LOG.info("Reindexing database files ...");
+        // documents stored by an interrupted bulk load miss their keys in dom.dbx,
+        // which are only added when nodes are stored
+        final IndexMode nodeMode;
+        if(BulkLoader.isInterrupted(pool)) {
+            LOG.info("A bulk load was interrupted, adding the keys of all nodes to " + FileUtils.fileName(domDb.getFile()));
+            nodeMode = IndexMode.STORE;
+        } else {
+            nodeMode = IndexMode.REPAIR;
+        }
         //Reindex from root collection
-        reindexCollection(null, getCollection(XmldbURI.ROOT_COLLECTION_URI), IndexMode.REPAIR);
+        reindexCollection(null, getCollection(XmldbURI.ROOT_COLLECTION_URI), IndexMode.REPAIR,
+            doc -> reindexXMLResource(null, doc, nodeMode));
     }
 
     @Override
@@ -3653,6 +3738,100 @@ public class NativeBroker extends DBBroker {
         nodesCount = 0;
     }
 
+    @Override
+    public void startBulkLoad(final int runSize) {
+        if(bulkLoadEntries != null) {
+            throw new IllegalStateException("A bulk load is already running");
+        }
+        flush();
+        bulkLoadRunSize = runSize;
+        bulkLoadEntries = new SortedRuns(runSize);
+        bulkLoadedDocs = new BitSet();
+        indexController.startBulkLoad(runSize);
+    }
+
+    @Override
+    public void endBulkLoad(final Txn transaction) throws IOException {
+        if(bulkLoadEntries == null) {
+            return;
+        }
+        try {
+            flush();
+            indexController.endBulkLoad(transaction);
+
+            final Lock lock = domDb.getLock();
+            try {
+                lock.acquire(LockMode.WRITE_LOCK);
+                domDb.setOwnerObject(this);
+                final long count = bulkLoadEntries.addTo(domDb, transaction);
+                if(LOG.isDebugEnabled()) {
+                    LOG.debug("Added " + count + " bulk loaded keys to " + FileUtils.fileName(domDb.getFile()));
+                }
+            } catch(final LockException e) {
+                throw new IOException("Failed to acquire lock on " + FileUtils.fileName(domDb.getFile()), e);
+            } finally {
+                lock.release(LockMode.WRITE_LOCK);
+            }
+        } catch(final DBException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            bulkLoadEntries.close();
+            bulkLoadEntries = null;
+            bulkLoadedDocs = null;
+        }
+    }
+
+    @Override
+    public boolean isBulkLoading() {
+        return bulkLoadEntries != null;
+    }
+
+    /**
+     * Writes the entries collected by the running bulk load if the document
+     * was stored during the load, so that the document's nodes can be found
+     * before they are changed or removed.
+     *
+     * @throws UncheckedIOException if the entries could not be written, so that
+     *     the transaction changing the document fails
+     */
+    private void flushBulkLoad(final Txn transaction, final DocumentImpl doc) {
+        if(bulkLoadedDocs == null || !bulkLoadedDocs.get(doc.getDocId())) {
+            return;
+        }
+        try {
+            endBulkLoad(transaction);
+        } catch(final IOException e) {
+            throw new UncheckedIOException("Failed to write bulk loaded index entries: " + e.getMessage(), e);
+        } finally {
+            startBulkLoad(bulkLoadRunSize);
+        }
+    }
+
+    /**
+     * Documents of the system collection, like accounts and collection configurations
+     * restored from a backup, are read while the load runs, so their keys are not deferred.
+     *
+     * @return true if the keys of the document's nodes are collected by the running bulk load
+     */
+    private boolean isBulkLoaded(final DocumentImpl doc) {
+        return bulkLoadEntries != null && !doc.getCollection().getURI().startsWith(XmldbURI.SYSTEM_COLLECTION_URI);
+    }
+
+    /**
+     * Collects the key of a node for the running bulk load.
+     *
+     * @throws UncheckedIOException if the key could not be written to a run, so
+     *     that the document is not stored without it
+     */
+    private void addBulkLoadEntry(final DocumentImpl doc, final IStoredNode<?> node, final long address) {
+        try {
+            bulkLoadEntries.add(new NodeRef(doc.getDocId(), node.getNodeId()), address);
+            bulkLoadedDocs.set(doc.getDocId());
+        } catch(final IOException e) {
+            throw new UncheckedIOException("Failed to collect the key of a bulk loaded node: " + e.getMessage(), e);
+        }
+    }
+
     long nextReportTS = System.currentTimeMillis();
 
     @Override
@@ -3661,26 +3840,30 @@ public class NativeBroker extends DBBroker {
             return;
         }
         try {
-            new DOMTransaction(this, domDb, LockMode.WRITE_LOCK) {
-                @Override
-                public Object start() {
+            if(syncEvent != Sync.MAJOR_FUZZY) {
+                new DOMTransaction(this, domDb, LockMode.WRITE_LOCK) {
+                    @Override
+                    public Object start() {
+                        try {
+                            domDb.flush();
+                        } catch(final DBException e) {
+                            LOG.warn("error while flushing dom.dbx", e);
+                        }
+                        return null;
+                    }
+                }.run();
+            }
+            if(syncEvent == Sync.MAJOR || syncEvent == Sync.MAJOR_FUZZY) {
+                if(syncEvent == Sync.MAJOR) {
+                    final Lock lock = collectionsDb.getLock();
                     try {
-                        domDb.flush();
-                    } catch(final DBException e) {
-                        LOG.warn("error while flushing dom.dbx", e);
+                        lock.acquire(LockMode.WRITE_LOCK);
+                        collectionsDb.flush();
+                    } catch(final LockException e) {
+                        LOG.warn("Failed to acquire lock on " + FileUtils.fileName(collectionsDb.getFile()), e);
+                    } finally {
+                        lock.release(LockMode.WRITE_LOCK);
                     }
-                    return null;
-                }
-            }.run();
-            if(syncEvent == Sync.MAJOR) {
-                final Lock lock = collectionsDb.getLock();
-                try {
-                    lock.acquire(LockMode.WRITE_LOCK);
-                    collectionsDb.flush();
-                } catch(final LockException e) {
-                    LOG.warn("Failed to acquire lock on " + FileUtils.fileName(collectionsDb.getFile()), e);
-                } finally {
-                    lock.release(LockMode.WRITE_LOCK);
                 }
                 notifySync();
                 pool.getIndexManager().sync();
@@ -3931,6 +4114,10 @@ public class NativeBroker extends DBBroker {
             final DocumentImpl doc = node.getOwnerDocument();
             if(indexMode == IndexMode.STORE && node.getNodeType() == Node.ELEMENT_NODE && level <= defaultIndexDepth) {
                 //TODO : used to be this, but NativeBroker.this avoids an owner change
+                if(isBulkLoaded(doc)) {
+                    addBulkLoadEntry(doc, node, address);
+                    return;
+                }
                 new DOMTransaction(NativeBroker.this, domDb, LockMode.WRITE_LOCK) {
                     @Override
                     public Object start() throws ReadOnlyException {
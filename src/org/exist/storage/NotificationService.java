@@ -25,6 +25,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.numbering.NodeId;
+import org.exist.xmldb.XmldbURI;
 
 import java.util.IdentityHashMap;
 import org.exist.dom.persistent.IStoredNode;
@@ -81,6 +82,18 @@ public class NotificationService extends IdentityHashMap<UpdateListener, Object>
 		}
 	}
 
+	/**
+	 * Notify all subscribers that the permissions of a collection or document,
+	 * or the accounts or groups, may have changed.
+	 * 
+	 * @param uri the collection or document, or null for accounts or groups
+	 */
+	public synchronized void notifyPermissionsUpdate(XmldbURI uri) {
+		for (final UpdateListener listener : keySet()) {
+	        listener.permissionsUpdated(uri);
+		}
+	}
+
     /**
 	 * Notify all subscribers that a node has been moved. Nodes may be moved during a
      * defragmentation run.
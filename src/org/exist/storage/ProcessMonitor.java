@@ -28,8 +28,11 @@ import org.exist.http.servlets.RequestWrapper;
 import org.exist.http.urlrewrite.XQueryURLRewrite;
 import org.exist.source.Source;
 import org.exist.util.Configuration;
+import org.exist.xquery.QueryPlan;
+import org.exist.xquery.QueryProfile;
 import org.exist.xquery.Variable;
 import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
 import org.exist.xquery.XQueryWatchDog;
 
 import org.exist.xquery.functions.request.RequestModule;
@@ -71,9 +74,11 @@ public class ProcessMonitor implements BrokerPoolService {
 
     public final static long QUERY_HISTORY_TIMEOUT = 2 * 60 * 1000; // 2 minutes
     public final static long MIN_TIME = 100;
+    public final static int MAX_QUERY_PROFILES = 16;
 
     private final Set<XQueryWatchDog> runningQueries = new HashSet<XQueryWatchDog>();
     private final DelayQueue<QueryHistory> history = new DelayQueue<>();
+    private final Deque<QueryProfileInfo> profiles = new ArrayDeque<>();
 
     private Map<Thread, JobInfo> processes = new HashMap<Thread, JobInfo>();
 
@@ -85,6 +90,8 @@ public class ProcessMonitor implements BrokerPoolService {
 
     private boolean trackRequests = false;
 
+    private volatile boolean analyzeQueries = false;
+
 	@Override
     public void configure(final Configuration configuration) {
         this.maxShutdownWait = configuration.getProperty(BrokerPool.PROPERTY_SHUTDOWN_DELAY, BrokerPool.DEFAULT_MAX_SHUTDOWN_WAIT);
@@ -175,6 +182,22 @@ public class ProcessMonitor implements BrokerPoolService {
                 history.add(qh);
                 cleanHistory();
             }
+
+            // keep the plan of queries executed in analyze mode
+            final XQueryContext context = watchdog.getContext();
+            final QueryProfile profile = context.getProfiler().getQueryProfile();
+            if (profile != null && context.getRootExpression() != null) {
+                final Source source = context.getSource();
+                final QueryPlan plan = new QueryPlan(context, context.getRootExpression(), profile);
+                final QueryProfileInfo info = new QueryProfileInfo(source == null ? "unknown" : source.path(),
+                        watchdog.getStartTime(), elapsed, plan.toString());
+                synchronized (profiles) {
+                    profiles.addFirst(info);
+                    while (profiles.size() > MAX_QUERY_PROFILES) {
+                        profiles.removeLast();
+                    }
+                }
+            }
         }
     }
 
@@ -226,6 +249,69 @@ public class ProcessMonitor implements BrokerPoolService {
         return trackRequests;
     }
 
+    /**
+     * Set to true to execute all queries in analyze mode (see {@link org.exist.xquery.Profiler}). The plans of
+     * the last {@link #MAX_QUERY_PROFILES} analyzed queries taking longer than {@link #getMinTime()} are kept,
+     * annotated with the runtime statistics of every expression. Analyze mode adds some overhead to every
+     * expression evaluated, so it is disabled by default.
+     *
+     * @param analyze execute all queries in analyze mode if true
+     */
+    public void setAnalyzeQueries(boolean analyze) {
+        analyzeQueries = analyze;
+        if (!analyze) {
+            synchronized (profiles) {
+                profiles.clear();
+            }
+        }
+    }
+
+    public boolean getAnalyzeQueries() {
+        return analyzeQueries;
+    }
+
+    /**
+     * Returns the plans of the most recently analyzed queries, most recent first.
+     *
+     * @return the query profiles
+     */
+    public QueryProfileInfo[] getRecentQueryProfiles() {
+        synchronized (profiles) {
+            return profiles.toArray(new QueryProfileInfo[profiles.size()]);
+        }
+    }
+
+    public static class QueryProfileInfo {
+
+        private final String source;
+        private final long executionTime;
+        private final long executionDuration;
+        private final String plan;
+
+        public QueryProfileInfo(String source, long executionTime, long executionDuration, String plan) {
+            this.source = source;
+            this.executionTime = executionTime;
+            this.executionDuration = executionDuration;
+            this.plan = plan;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public long getExecutionTime() {
+            return executionTime;
+        }
+
+        public long getExecutionDuration() {
+            return executionDuration;
+        }
+
+        public String getPlan() {
+            return plan;
+        }
+    }
+
     public static class QueryHistory implements Delayed {
 
         private final String source;
@@ -3,6 +3,7 @@ package org.exist.storage;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.NodeHandle;
 import org.exist.numbering.NodeId;
+import org.exist.xmldb.XmldbURI;
 
 public interface UpdateListener {
 
@@ -37,6 +38,16 @@ public interface UpdateListener {
      */
     public void nodeMoved(NodeId oldNodeId, NodeHandle newNode);
 
+    /**
+     * Called when the permissions of a collection or document, i.e. its mode, owner,
+     * group or ACL, may have changed, or the accounts or groups of the security manager.
+     * The default implementation ignores the change.
+     *
+     * @param uri the collection or document, or null if accounts or groups have changed
+     */
+    public default void permissionsUpdated(XmldbURI uri) {
+    }
+
     /**
      * Called when the listener is removed from the notification service
      */
@@ -0,0 +1,587 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.dom.QName;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.NodeHandle;
+import org.exist.numbering.NodeId;
+import org.exist.security.Subject;
+import org.exist.source.DBSource;
+import org.exist.source.Source;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.Expression;
+import org.exist.xquery.ExternalModule;
+import org.exist.xquery.Module;
+import org.exist.xquery.Option;
+import org.exist.xquery.SideEffects;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.functions.request.RequestModule;
+
+import javax.annotation.Nullable;
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Global cache for the serialized results of read-only XQueries.
+ *
+ * Results are stored by a {@link Key} made up of the key of the query's
+ * {@link Source}, the bindings of its external variables (and any other
+ * input which changes the serialized result), and the name and groups of
+ * the user who executed the query.
+ *
+ * While a query is executed, the URIs of all collections opened by its
+ * broker are recorded, see {@link #startRecording(DBBroker)}. The cache
+ * subscribes to the {@link NotificationService} and removes a result as
+ * soon as a document in, or below, one of the collections it was computed
+ * from is added, updated or removed. Changes which affect more than a single
+ * document are notified without a document, and clear the whole cache.
+ * As the result depends on what the user may read, it is removed as well when
+ * the permissions of one of these collections, of a collection above or below
+ * them, or of a document in them change. A change to the accounts or groups
+ * clears the whole cache.
+ *
+ * A query is cached if it declares the option
+ * <code>declare option exist:result-cache "yes";</code>, or if the cache
+ * is enabled in conf.xml, the query does not declare the option with
+ * the value "no", and static analysis shows that the query neither has
+ * side effects nor depends on anything but its input, see {@link SideEffects}.
+ * Of the request, only the parameters, method and URI may be accessed, as
+ * those are part of the key.
+ *
+ * The memory used by the cached results is bounded by the configured size,
+ * the least recently used results are evicted first.
+ */
+@ThreadSafe
+public class XQueryResultCache implements BrokerPoolService, UpdateListener {
+
+    private static final Logger LOG = LogManager.getLogger(XQueryResultCache.class);
+
+    public static final String CONFIGURATION_ELEMENT_NAME = "query-result-cache";
+    public static final String ENABLED_ATTRIBUTE = "enabled";
+    public static final String SIZE_ATTRIBUTE = "size";
+    public static final String TIMEOUT_ATTRIBUTE = "timeout";
+
+    public static final String PROPERTY_ENABLED = "db-connection.query-result-cache.enabled";
+    public static final String PROPERTY_SIZE = "db-connection.query-result-cache.size";
+    public static final String PROPERTY_TIMEOUT = "db-connection.query-result-cache.timeout";
+
+    private static final int DEFAULT_SIZE = 16;                 // MB
+    private static final long DEFAULT_TIMEOUT = 300_000L;       // ms (i.e. 5 mins)
+
+    /**
+     * A single result may use at most this fraction of the cache
+     */
+    private static final int MAX_RESULT_FRACTION = 8;
+
+    /**
+     * Approximate memory used by an entry in addition to its data
+     */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    /**
+     * Functions of the request module which may be called by a query whose results
+     * are cached without opting in, their results are covered by the key
+     */
+    private static final Set<QName> KEYED_REQUEST_FUNCTIONS = new HashSet<>(Arrays.asList(
+            new QName("get-parameter", RequestModule.NAMESPACE_URI),
+            new QName("get-parameter-names", RequestModule.NAMESPACE_URI),
+            new QName("get-method", RequestModule.NAMESPACE_URI),
+            new QName("get-uri", RequestModule.NAMESPACE_URI),
+            new QName("get-query-string", RequestModule.NAMESPACE_URI)
+    ));
+
+    private static final SideEffects SIDE_EFFECTS = new SideEffects(true, KEYED_REQUEST_FUNCTIONS);
+
+    private boolean enabled = false;
+    private long maxSize = DEFAULT_SIZE * 1024L * 1024L;
+    private long timeout = DEFAULT_TIMEOUT;
+
+    private final AtomicBoolean configured = new AtomicBoolean();
+    private Cache<Key, CachedResult> cache;
+
+    /**
+     * Results of the static analysis of compiled queries, which are reused from the query pool
+     */
+    private final Cache<CompiledXQuery, Boolean> analyzed = Caffeine.newBuilder()
+            .weakKeys()
+            .build();
+
+    /**
+     * Incremented on every update notification, used to detect
+     * changes which happened while a query was executed
+     */
+    private final AtomicLong modificationCount = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    @Override
+    public void configure(final Configuration configuration) {
+        if (configured.compareAndSet(false, true)) {
+            final Boolean e = (Boolean) configuration.getProperty(PROPERTY_ENABLED);
+            final Integer sz = (Integer) configuration.getProperty(PROPERTY_SIZE);
+            final Long t = (Long) configuration.getProperty(PROPERTY_TIMEOUT);
+            final NumberFormat nf = NumberFormat.getNumberInstance();
+
+            this.enabled = e != null && e;
+            this.maxSize = (sz != null ? sz : DEFAULT_SIZE) * 1024L * 1024L;
+            this.timeout = t != null ? t : DEFAULT_TIMEOUT;
+
+            final Caffeine<Key, CachedResult> builder = Caffeine.newBuilder()
+                    .maximumWeight(maxSize)
+                    .weigher((Key key, CachedResult result) -> result.getSize())
+                    .recordStats();
+            if (timeout > 0) {
+                builder.expireAfterWrite(timeout, TimeUnit.MILLISECONDS);
+            }
+            this.cache = builder.build();
+
+            LOG.info("QueryResultCache: " +
+                    "enabled = " + enabled + "; " +
+                    "size = " + nf.format(maxSize) + "; " +
+                    "timeout = " + nf.format(timeout) + "; ");
+        } else {
+            throw new IllegalStateException("XQuery result cache has already been configured");
+        }
+    }
+
+    @Override
+    public void prepare(final BrokerPool brokerPool) {
+        brokerPool.getNotificationService().subscribe(this);
+    }
+
+    /**
+     * Determines if the results of a compiled query should be cached.
+     *
+     * A query which does not declare the option exist:result-cache is
+     * only cached if it is read-only and its result only depends on the
+     * database and on the inputs which are part of the key.
+     *
+     * @param compiled the compiled query
+     *
+     * @return true if the results should be cached
+     */
+    public boolean isCacheable(final CompiledXQuery compiled) {
+        final Option option = compiled.getContext().getOption(Option.RESULT_CACHE_QNAME);
+        if (option != null) {
+            return "yes".equals(option.getContents().trim());
+        }
+        return enabled && analyzed.get(compiled, XQueryResultCache::isReadOnly);
+    }
+
+    private static boolean isReadOnly(final CompiledXQuery compiled) {
+        if (!(compiled instanceof Expression)) {
+            return false;
+        }
+        final String reason = SIDE_EFFECTS.find((Expression) compiled);
+        if (reason != null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Not caching the results of " + compiled.getSource().path() + ": " + reason);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Creates the key under which the results of a query are cached.
+     *
+     * @param broker the broker executing the query
+     * @param source the source of the query
+     * @param compiled the compiled query
+     * @param bindings a string representation of the external variable
+     *     bindings and of all other inputs which change the serialized result
+     *
+     * @return the key, or null if the results of the query should not be cached
+     */
+    public @Nullable Key getKey(final DBBroker broker, final Source source, final CompiledXQuery compiled,
+            final String bindings) {
+        if (!isCacheable(compiled)) {
+            return null;
+        }
+        final Subject subject = broker.getCurrentSubject();
+        final String[] groups = subject.getGroups().clone();
+        Arrays.sort(groups);
+        return new Key(source.getKey(), bindings, subject.getName() + ' ' + String.join(",", groups));
+    }
+
+    /**
+     * Returns a cached result.
+     *
+     * @param broker the broker executing the query
+     * @param key the key of the result
+     * @param source the source of the query
+     *
+     * @return the cached result, or null if there is no valid result in the cache
+     */
+    public @Nullable CachedResult get(final DBBroker broker, final Key key, final Source source) {
+        final CachedResult result = cache.getIfPresent(key);
+        if (result == null) {
+            misses.increment();
+            return null;
+        }
+
+        Source.Validity validity = result.source.isValid(broker);
+        if (validity == Source.Validity.UNKNOWN) {
+            validity = result.source.isValid(source);
+        }
+        if (validity != Source.Validity.VALID) {
+            // the query has been changed since its result was cached
+            cache.asMap().remove(key, result);
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return result;
+    }
+
+    /**
+     * Starts recording the collections which are accessed by a query.
+     * The recording should be closed once the query results have been
+     * serialized.
+     *
+     * @param broker the broker executing the query
+     *
+     * @return the recording
+     */
+    public Recording startRecording(final DBBroker broker) {
+        return new Recording(broker, modificationCount.get());
+    }
+
+    /**
+     * Adds the serialized result of a query to the cache.
+     *
+     * The result is not cached if the database has been modified while
+     * the query was executed, or if the result is too large.
+     *
+     * @param key the key of the result
+     * @param recording the recording started before the query was executed
+     * @param compiled the compiled query
+     * @param data the serialized result
+     * @param contentType the content type of the serialized result
+     *
+     * @return true if the result was added to the cache
+     */
+    public boolean put(final Key key, final Recording recording, final CompiledXQuery compiled, final byte[] data,
+            @Nullable final String contentType) {
+        if (data.length > getMaxResultSize() || modificationCount.get() != recording.modificationCount) {
+            return false;
+        }
+
+        final Set<XmldbURI> collections = new HashSet<>(recording.collections);
+        addModuleCollections(compiled, collections);
+
+        final CachedResult result = new CachedResult(compiled.getSource(), data, contentType, collections);
+        cache.put(key, result);
+
+        // an update may have been notified while the result was added
+        if (modificationCount.get() != recording.modificationCount) {
+            cache.asMap().remove(key, result);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The results of a query also depend on the library modules which it
+     * imports; those may have been loaded by a previous compilation.
+     */
+    private static void addModuleCollections(final CompiledXQuery compiled, final Set<XmldbURI> collections) {
+        addSourceCollection(compiled.getSource(), collections);
+        final XQueryContext context = compiled.getContext();
+        for (final Iterator<Module> i = context.getAllModules(); i.hasNext(); ) {
+            final Module module = i.next();
+            if (module instanceof ExternalModule) {
+                addSourceCollection(((ExternalModule) module).getSource(), collections);
+            }
+        }
+    }
+
+    private static void addSourceCollection(@Nullable final Source source, final Set<XmldbURI> collections) {
+        if (source instanceof DBSource) {
+            collections.add(((DBSource) source).getDocumentPath().removeLastSegment());
+        }
+    }
+
+    /**
+     * Removes all results from the cache.
+     */
+    public void clear() {
+        invalidations.add(cache.estimatedSize());
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void documentUpdated(final DocumentImpl document, final int event) {
+        modificationCount.incrementAndGet();
+        if (cache == null || cache.estimatedSize() == 0) {
+            return;
+        }
+
+        if (document == null) {
+            clear();
+            return;
+        }
+
+        final XmldbURI collection = document.getURI().removeLastSegment();
+        cache.asMap().values().removeIf(result -> {
+            if (result.dependsOn(collection)) {
+                invalidations.increment();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public void permissionsUpdated(@Nullable final XmldbURI uri) {
+        modificationCount.incrementAndGet();
+        if (cache == null || cache.estimatedSize() == 0) {
+            return;
+        }
+
+        if (uri == null) {
+            clear();
+            return;
+        }
+
+        cache.asMap().values().removeIf(result -> {
+            if (result.dependsOnPermissions(uri)) {
+                invalidations.increment();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public void nodeMoved(final NodeId oldNodeId, final NodeHandle newNode) {
+        // not relevant: only serialized results are cached
+    }
+
+    @Override
+    public void unsubscribe() {
+        // nothing to do
+    }
+
+    @Override
+    public void debug() {
+        LOG.debug("XQueryResultCache: " + cache.estimatedSize() + " results");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return the maximum size of a serialized result which is cached, in bytes
+     */
+    public int getMaxResultSize() {
+        return (int) Math.min(Integer.MAX_VALUE, maxSize / MAX_RESULT_FRACTION - ENTRY_OVERHEAD);
+    }
+
+    /**
+     * @return the memory used by the cached results, in bytes
+     */
+    public long getSize() {
+        return cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L);
+    }
+
+    /**
+     * @return the number of cached results
+     */
+    public long getEntryCount() {
+        return cache.estimatedSize();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of results which were removed because they have
+     *     been evicted to free memory, or have expired
+     */
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    /**
+     * @return the number of results which were removed because the
+     *     database has been updated
+     */
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    /**
+     * Key of a cached query result.
+     */
+    public static final class Key {
+        private final Object sourceKey;
+        private final String bindings;
+        private final String user;
+        private final int hashCode;
+
+        public Key(final Object sourceKey, final String bindings, final String user) {
+            this.sourceKey = sourceKey;
+            this.bindings = bindings;
+            this.user = user;
+            this.hashCode = 31 * (31 * sourceKey.hashCode() + bindings.hashCode()) + user.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hashCode == other.hashCode
+                    && sourceKey.equals(other.sourceKey)
+                    && bindings.equals(other.bindings)
+                    && user.equals(other.user);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * A serialized query result.
+     */
+    public static final class CachedResult {
+        private final Source source;
+        private final byte[] data;
+        private final String contentType;
+        private final Set<XmldbURI> collections;
+
+        private CachedResult(final Source source, final byte[] data, @Nullable final String contentType,
+                final Set<XmldbURI> collections) {
+            this.source = source;
+            this.data = data;
+            this.contentType = contentType;
+            this.collections = Collections.unmodifiableSet(collections);
+        }
+
+        /**
+         * @return the serialized result, must not be modified
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        public @Nullable String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return the collections from which the result was computed
+         */
+        public Set<XmldbURI> getCollections() {
+            return collections;
+        }
+
+        private int getSize() {
+            return data.length + ENTRY_OVERHEAD;
+        }
+
+        private boolean dependsOn(final XmldbURI collection) {
+            for (final XmldbURI uri : collections) {
+                if (collection.startsWith(uri)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * The permissions of a collection restrict the access to the collections below,
+         * so the result depends on the permissions of the collections above and below
+         * the collections it was computed from, and of the documents in them.
+         */
+        private boolean dependsOnPermissions(final XmldbURI uri) {
+            for (final XmldbURI collection : collections) {
+                if (uri.startsWith(collection) || collection.startsWith(uri)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Records the collections which are accessed while a query is executed.
+     */
+    public static final class Recording implements AutoCloseable {
+        private final DBBroker broker;
+        private final long modificationCount;
+        private final Set<XmldbURI> collections = new HashSet<>();
+        private final Set<XmldbURI> previous;
+
+        private Recording(final DBBroker broker, final long modificationCount) {
+            this.broker = broker;
+            this.modificationCount = modificationCount;
+            this.previous = broker.trackAccessedCollections(collections);
+        }
+
+        @Override
+        public void close() {
+            broker.trackAccessedCollections(previous);
+            if (previous != null) {
+                previous.addAll(collections);
+            }
+        }
+    }
+}
@@ -84,6 +84,7 @@ import org.exist.storage.journal.*;
 import org.exist.storage.lock.Lock;
 import org.exist.storage.txn.Txn;
 import org.exist.util.ByteConversion;
+import org.exist.util.Configuration;
 import org.exist.util.FileUtils;
 import org.exist.util.Lockable;
 import org.exist.xquery.TerminatedException;
@@ -119,6 +120,32 @@ public class BTree extends Paged implements Lockable {
 
     protected final static int MIN_SPACE_PER_KEY = 32;
 
+    /**
+     * Page format flag: the keys of leaf pages are front coded. Each key is
+     * stored with the length of the prefix it shares with the previous key
+     * and the length of the remaining suffix, both in one or two bytes.
+     * Files of an older version use a single byte for the prefix length,
+     * which limits the shared prefix to 127 bytes.
+     */
+    public final static byte PAGE_FORMAT_FRONT_CODED = 0x01;
+
+    /**
+     * Page format flag: the keys of leaf pages which would not fit into a
+     * page are compressed with {@link BlockCompressor}. A compressed leaf
+     * may hold up to {@link #MAX_COMPRESSION_RATIO} times the keys of an
+     * uncompressed one.
+     */
+    public final static byte PAGE_FORMAT_COMPRESSED = 0x02;
+
+    protected final static int MAX_COMPRESSION_RATIO = 4;
+
+    /** Leaf pages in a compressed file start with one of these markers */
+    private final static byte LEAF_STORED = 0;
+    private final static byte LEAF_COMPRESSED = 1;
+
+    /** marker, length of the keys and length of the compressed keys */
+    private final static int COMPRESSED_LEAF_HEADER_LEN = 9;
+
     /** Log entry type for an insert value operation */
     public final static byte LOG_INSERT_VALUE = 0x20;
     /** Log entry type for creation of a new BTree node */
@@ -161,6 +188,18 @@ public class BTree extends Paged implements Lockable {
 
     private double splitFactor = -1;
 
+    /** names of the files whose leaf pages are compressed when they are created */
+    private final Set<String> compressedFiles;
+
+    /**
+     * Buffers used by {@link BTreeNode#mustSplit()} to compress a leaf. Only
+     * the thread which modifies the tree checks for splits, so they are
+     * shared by all nodes of the tree.
+     */
+    private byte[] splitRawData;
+    private byte[] splitPageData;
+    private int[] splitHashTable;
+
     protected BTree(final BrokerPool pool, final byte fileId, final boolean recoveryEnabled,
             final DefaultCacheManager cacheManager) throws DBException {
         super(pool);
@@ -170,6 +209,9 @@ public class BTree extends Paged implements Lockable {
         this.fileHeader = (BTreeFileHeader) getFileHeader();
         fileHeader.setPageCount(0);
         fileHeader.setTotalCount(0);
+        final Configuration config = pool.getConfiguration();
+        this.compressedFiles = config == null ? Collections.emptySet() :
+                config.getProperty(BrokerPool.PROPERTY_COMPRESSED_FILES, Collections.emptySet());
         if (recoveryEnabled && pool.isRecoveryEnabled()) {
             this.logManager = pool.getJournalManager();
         } else {
@@ -197,6 +239,9 @@ public class BTree extends Paged implements Lockable {
     public boolean create(final short fixedKeyLen) throws DBException {
         if (super.create()) {
             initCache();
+            if (compressedFiles.contains(FileUtils.fileName(getFile()))) {
+                fileHeader.setPageFormat((byte) (PAGE_FORMAT_FRONT_CODED | PAGE_FORMAT_COMPRESSED));
+            }
             try {
                 createRootNode(null);
             } catch (final IOException e) {
@@ -240,7 +285,7 @@ public class BTree extends Paged implements Lockable {
     }
 
     protected void initCache() {
-        this.cache = new BTreeCache<>(FileUtils.fileName(getFile()), cacheManager.getDefaultInitialSize(), 1.5,
+        this.cache = new ConcurrentBTreeCache<>(FileUtils.fileName(getFile()), cacheManager.getDefaultInitialSize(), 1.5,
             0, CacheManager.BTREE_CACHE);
         cacheManager.registerCache(cache);
     }
@@ -545,6 +590,32 @@ public class BTree extends Paged implements Lockable {
         return flushed;
     }
 
+    /**
+     * Returns the cached pages of this file which are dirty at the time
+     * of the call, so that they can be written incrementally instead of
+     * by a {@link #flush()} of the whole file, see {@link #flushPage(Cacheable)}.
+     * The caller should hold the write lock on the file.
+     *
+     * @return the dirty pages
+     */
+    public List<Cacheable> getDirtyPages() {
+        return new ArrayList<>(cache.getDirtyItems());
+    }
+
+    /**
+     * Writes a page returned by {@link #getDirtyPages()} to disk, unless
+     * it has been written or removed from the cache in the meantime.
+     * The caller must hold the write lock on the file, as readers holding
+     * the read lock may write pages they evict, and is responsible for
+     * flushing the journal first.
+     *
+     * @param page the page to write
+     * @return true if the page has been written
+     */
+    public boolean flushPage(final Cacheable page) {
+        return page instanceof BTreeNode && cache.flush((BTreeNode) page);
+    }
+
     @Override
 	public void close() throws DBException {
         if (!isReadOnly()) {
@@ -743,6 +814,179 @@ public class BTree extends Paged implements Lockable {
         return last;
     }
 
+    /**
+     * Adds keys to the tree in ascending order, as used by {@link SortedRuns}.
+     *
+     * Instead of inserting the keys one by one, the keys falling into the range
+     * of a leaf are merged with the keys already stored in the leaf in a single
+     * pass. The merged keys are written to completely filled pages: the leaf itself
+     * and as many new leaves as needed, which are linked after it and promoted to
+     * the parent branch. Every leaf is thus written once and, if the tree is
+     * journaled, logged once with its final content. A key which is already
+     * in the tree gets the new pointer.
+     *
+     * The caller has to hold the write lock on the tree.
+     */
+    protected final class SortedInserter {
+
+        private final Txn transaction;
+
+        /** the leaf which is currently written */
+        private BTreeNode leaf = null;
+
+        /** the keys of the current leaf's range are smaller, null if there is no upper bound */
+        private Value bound = null;
+
+        /** the keys and pointers of the leaf which are not yet merged */
+        private Value[] oldKeys;
+        private long[] oldPtrs;
+        private int oldCount = 0;
+        private int oldPos = 0;
+
+        private Value lastKey = null;
+
+        SortedInserter(final Txn transaction) {
+            this.transaction = transaction;
+        }
+
+        /**
+         * Adds a key, which has to be greater than the keys added before.
+         */
+        void add(final Value key, final long pointer) throws IOException, BTreeException {
+            if (lastKey != null && key.compareTo(lastKey) <= 0) {
+                throw new BTreeException("Keys are not added in ascending order");
+            }
+            lastKey = key;
+            if (leaf == null || (bound != null && key.compareTo(bound) >= 0)) {
+                finish();
+                startLeaf(key);
+            }
+            for (; oldPos < oldCount; oldPos++) {
+                final int cmp = oldKeys[oldPos].compareTo(key);
+                if (cmp > 0) {
+                    break;
+                } else if (cmp < 0) {
+                    append(oldKeys[oldPos], oldPtrs[oldPos]);
+                }
+            }
+            append(key, pointer);
+        }
+
+        /**
+         * Writes the remaining keys of the current leaf.
+         */
+        void finish() throws IOException, BTreeException {
+            if (leaf == null) {
+                return;
+            }
+            for (; oldPos < oldCount; oldPos++) {
+                append(oldKeys[oldPos], oldPtrs[oldPos]);
+            }
+            release(leaf);
+            leaf = null;
+            oldKeys = null;
+            oldPtrs = null;
+        }
+
+        /**
+         * Finds the leaf for the key and the upper bound of its range. The keys
+         * of the leaf are taken out, to be merged with the new keys.
+         */
+        private void startLeaf(final Value key) throws IOException {
+            BTreeNode node = getRootNode();
+            bound = null;
+            while (node.pageHeader.getStatus() == BRANCH) {
+                int idx = node.searchKey(key);
+                idx = idx < 0 ? -(idx + 1) : idx + 1;
+                if (idx < node.nKeys) {
+                    // keys in branches are stored without the common prefix
+                    final Value separator = node.keys[idx];
+                    if (node.prefix == null || node.prefix.getLength() == 0) {
+                        bound = separator;
+                    } else {
+                        final byte[] data = new byte[node.prefix.getLength() + separator.getLength()];
+                        System.arraycopy(node.prefix.data(), node.prefix.start(), data, 0, node.prefix.getLength());
+                        System.arraycopy(separator.data(), separator.start(), data, node.prefix.getLength(),
+                            separator.getLength());
+                        bound = new Value(data);
+                    }
+                }
+                node = node.getChildNode(idx);
+            }
+            leaf = node;
+            leaf.allowUnload = false;
+            oldCount = leaf.nKeys;
+            oldKeys = Arrays.copyOf(leaf.keys, oldCount);
+            oldPtrs = Arrays.copyOf(leaf.ptrs, oldCount);
+            oldPos = 0;
+            leaf.setValues(new Value[0]);
+            leaf.setPointers(new long[0]);
+            leaf.resizeKeys(Math.max(oldCount, BTreeNode.DEFAULT_INITIAL_ENTRIES));
+            leaf.resizePtrs(Math.max(oldCount, BTreeNode.DEFAULT_INITIAL_ENTRIES));
+            leaf.recalculateDataLen();
+        }
+
+        /**
+         * Appends a key to the current leaf. If the leaf is full, a new leaf is
+         * linked after it and the key is promoted to the parent.
+         */
+        private void append(final Value key, final long pointer) throws IOException, BTreeException {
+            leaf.insertKey(key, leaf.nKeys);
+            leaf.insertPointer(pointer, leaf.nPtrs);
+            leaf.adjustDataLen(leaf.nKeys - 1);
+            if (leaf.nKeys == 1 || !leaf.mustSplit()) {
+                return;
+            }
+            leaf.removeKey(leaf.nKeys - 1);
+            leaf.removePointer(leaf.nPtrs - 1);
+            leaf.recalculateDataLen();
+
+            BTreeNode parent = leaf.getParent();
+            if (parent == null) {
+                // the leaf is the root
+                parent = createBTreeNode(transaction, BRANCH, null, false);
+                if (transaction != null && isRecoveryEnabled()) {
+                    final Loggable log = new SetParentLoggable(transaction, fileId, leaf.page.getPageNum(),
+                        parent.page.getPageNum());
+                    writeToLog(log, leaf);
+                }
+                leaf.setParent(parent);
+                parent.insertPointer(leaf.page.getPageNum(), 0);
+                setRootNode(parent);
+            }
+            final BTreeNode next = createBTreeNode(transaction, LEAF, parent, false);
+            if (transaction != null && isRecoveryEnabled()) {
+                Loggable log = new SetPageLinkLoggable(transaction, fileId, next.page.getPageNum(),
+                    leaf.pageHeader.getNextPage());
+                writeToLog(log, leaf);
+                log = new SetPageLinkLoggable(transaction, fileId, leaf.page.getPageNum(), next.page.getPageNum());
+                writeToLog(log, leaf);
+            }
+            next.pageHeader.setNextPage(leaf.pageHeader.getNextPage());
+            leaf.pageHeader.setNextPage(next.page.getPageNum());
+            release(leaf);
+
+            leaf = next;
+            leaf.allowUnload = false;
+            parent.promoteValue(transaction, key, next);
+            append(key, pointer);
+        }
+
+        /**
+         * Logs the final content of a leaf and returns it to the cache.
+         */
+        private void release(final BTreeNode node) {
+            if (transaction != null && isRecoveryEnabled()) {
+                final Loggable log = new UpdatePageLoggable(transaction, fileId, node.page.getPageNum(),
+                    node.prefix, node.keys, node.nKeys, node.ptrs, node.nPtrs);
+                writeToLog(log, node);
+            }
+            node.saved = false;
+            node.allowUnload = true;
+            cache.add(node);
+        }
+    }
+
     /* -------------------------------------------------------------------------
      * Methods used by recovery and transaction management
      * ---------------------------------------------------------------------- */
@@ -796,12 +1040,15 @@ public class BTree extends Paged implements Lockable {
 
     protected void redoInsertValue(final InsertValueLoggable loggable) throws LogException {
         final BTreeNode node = getBTreeNode(loggable.pageNum);
-        if (requiresRedo(loggable, node.page)) {
-            node.insertKey(loggable.key, loggable.idx);
-            node.insertPointer(loggable.pointer, loggable.pointerIdx);
-            node.adjustDataLen(loggable.idx);
-            node.pageHeader.setLsn(loggable.getLsn());
+        synchronized (node) {
+            if (requiresRedo(loggable, node.page)) {
+                node.insertKey(loggable.key, loggable.idx);
+                node.insertPointer(loggable.pointer, loggable.pointerIdx);
+                node.adjustDataLen(loggable.idx);
+                node.pageHeader.setLsn(loggable.getLsn());
+            }
         }
+        cache.add(node);
     }
 
     protected void undoInsertValue(final InsertValueLoggable loggable) throws LogException {
@@ -814,24 +1061,28 @@ public class BTree extends Paged implements Lockable {
 
     protected void redoUpdateValue(final UpdateValueLoggable loggable) throws LogException {
         final BTreeNode node = getBTreeNode(loggable.pageNum);
-        if (node.page.getPageHeader().getLsn() != Page.NO_PAGE && requiresRedo(loggable, node.page)) {
-            if (loggable.idx > node.ptrs.length) {
-                LOG.warn(node.page.getPageInfo() +
-                        "; loggable.idx = " + loggable.idx + "; node.ptrs.length = " + node.ptrs.length);
-                final StringWriter writer = new StringWriter();
-                try {
-                    dump(writer);
-                } catch (final Exception e) {
-                    LOG.warn(e);
-                    e.printStackTrace();
+        synchronized (node) {
+            if (node.page.getPageHeader().getLsn() != Page.NO_PAGE && requiresRedo(loggable, node.page)) {
+                if (loggable.idx > node.ptrs.length) {
+                    LOG.warn(node.page.getPageInfo() +
+                            "; loggable.idx = " + loggable.idx + "; node.ptrs.length = " + node.ptrs.length);
+                    final StringWriter writer = new StringWriter();
+                    try {
+                        dump(writer);
+                    } catch (final Exception e) {
+                        LOG.warn(e);
+                        e.printStackTrace();
+                    }
+                    LOG.warn(writer.toString());
+                    throw new LogException("Critical error during recovery");
                 }
-                LOG.warn(writer.toString());
-                throw new LogException("Critical error during recovery");
+                node.ptrs[loggable.idx] = loggable.pointer;
+                node.pageHeader.setLsn(loggable.getLsn());
+                node.saved = false;
+                node.compressedDataLen = BTreeNode.COMPRESSED_LEN_UNKNOWN;
             }
-            node.ptrs[loggable.idx] = loggable.pointer;
-            node.pageHeader.setLsn(loggable.getLsn());
-            node.saved = false;
         }
+        cache.add(node);
     }
 
     protected void undoUpdateValue(final UpdateValueLoggable loggable) throws LogException {
@@ -844,12 +1095,15 @@ public class BTree extends Paged implements Lockable {
 
     protected void redoRemoveValue(final RemoveValueLoggable loggable) throws LogException {
         final BTreeNode node = getBTreeNode(loggable.pageNum);
-        if (node.page.getPageHeader().getLsn() != Page.NO_PAGE && requiresRedo(loggable, node.page)) {
-            node.removeKey(loggable.idx);
-            node.removePointer(loggable.idx);
-            node.recalculateDataLen();
-            node.pageHeader.setLsn(loggable.getLsn());
+        synchronized (node) {
+            if (node.page.getPageHeader().getLsn() != Page.NO_PAGE && requiresRedo(loggable, node.page)) {
+                node.removeKey(loggable.idx);
+                node.removePointer(loggable.idx);
+                node.recalculateDataLen();
+                node.pageHeader.setLsn(loggable.getLsn());
+            }
         }
+        cache.add(node);
     }
 
     protected void undoRemoveValue(final RemoveValueLoggable loggable) throws LogException {
@@ -862,33 +1116,42 @@ public class BTree extends Paged implements Lockable {
 
     protected void redoUpdatePage(final UpdatePageLoggable loggable) throws LogException {
         final BTreeNode node = getBTreeNode(loggable.pageNum);
-        if (requiresRedo(loggable, node.page)) {
-            node.prefix = loggable.prefix;
-            node.keys = loggable.values;
-            node.nKeys = loggable.values.length;
-            node.pageHeader.setValueCount((short) node.nKeys);
-            node.setPointers(loggable.pointers);
-            node.recalculateDataLen();
-            node.pageHeader.setLsn(loggable.getLsn());
+        synchronized (node) {
+            if (requiresRedo(loggable, node.page)) {
+                node.prefix = loggable.prefix;
+                node.keys = loggable.values;
+                node.nKeys = loggable.values.length;
+                node.pageHeader.setValueCount((short) node.nKeys);
+                node.setPointers(loggable.pointers);
+                node.recalculateDataLen();
+                node.pageHeader.setLsn(loggable.getLsn());
+            }
         }
+        cache.add(node);
     }
 
     protected void redoSetParent(final SetParentLoggable loggable) throws LogException {
-            final BTreeNode node = getBTreeNode(loggable.pageNum);
-        if (requiresRedo(loggable, node.page)) {
-            node.pageHeader.parentPage = loggable.parentNum;
-            node.pageHeader.setLsn(loggable.getLsn());
-            node.saved = false;
+        final BTreeNode node = getBTreeNode(loggable.pageNum);
+        synchronized (node) {
+            if (requiresRedo(loggable, node.page)) {
+                node.pageHeader.parentPage = loggable.parentNum;
+                node.pageHeader.setLsn(loggable.getLsn());
+                node.saved = false;
+            }
         }
+        cache.add(node);
     }
 
     protected void redoSetPageLink(final SetPageLinkLoggable loggable) throws LogException {
         final BTreeNode node = getBTreeNode(loggable.pageNum);
-        if (requiresRedo(loggable, node.page)) {
-            node.pageHeader.setNextPage(loggable.nextPage);
-            node.pageHeader.setLsn(loggable.getLsn());
-            node.saved = false;
+        synchronized (node) {
+            if (requiresRedo(loggable, node.page)) {
+                node.pageHeader.setNextPage(loggable.nextPage);
+                node.pageHeader.setLsn(loggable.getLsn());
+                node.saved = false;
+            }
         }
+        cache.add(node);
     }
 
     /**
@@ -908,6 +1171,8 @@ public class BTree extends Paged implements Lockable {
 
         /** defines the default size for the keys array */
         private final static int DEFAULT_INITIAL_ENTRIES = 32;
+
+        private final static int COMPRESSED_LEN_UNKNOWN = -2;
         /** the underlying Page object that stores the node's data */
         private final Page page;
         private final BTreePageHeader pageHeader;
@@ -939,6 +1204,13 @@ public class BTree extends Paged implements Lockable {
         /** the computed raw data size required by this node */
         private int currentDataLen = -1;
 
+        /**
+         * the length of the compressed page data as computed by {@link #mustSplit()},
+         * -1 if it does not fit into the page, or {@link #COMPRESSED_LEN_UNKNOWN}
+         * if the node was modified since
+         */
+        private int compressedDataLen = COMPRESSED_LEN_UNKNOWN;
+
         private boolean allowUnload = true;
 
         public BTreeNode(final Page page, final boolean newPage) {
@@ -1056,6 +1328,7 @@ public class BTree extends Paged implements Lockable {
             nKeys = vals.length;
             pageHeader.setValueCount((short) nKeys);
             saved = false;
+            compressedDataLen = COMPRESSED_LEN_UNKNOWN;
         }
 
         /**
@@ -1067,6 +1340,7 @@ public class BTree extends Paged implements Lockable {
             ptrs = pointers;
             nPtrs = pointers.length;
             saved = false;
+            compressedDataLen = COMPRESSED_LEN_UNKNOWN;
         }
 
         /**
@@ -1086,25 +1360,18 @@ public class BTree extends Paged implements Lockable {
          */
         private int recalculateDataLen() {
             currentDataLen = ptrs == null ? 0 : nPtrs * 8;
-            if(fileHeader.getFixedKeyLen() < 0) {
-                currentDataLen += 2 * nKeys;
-            }
-            if (pageHeader.getStatus() == BRANCH) {
-                currentDataLen += prefix.getLength() + 2;
-            }
             if (pageHeader.getStatus() == LEAF) {
-                currentDataLen += nKeys - 1;
-            }
-            for (int i = 0; i < nKeys; i++) {
-                if (pageHeader.getStatus() == LEAF && i > 0) {
-                    // if this is a leaf page, we use prefix compression to store the keys,
-                    // so subtract the size of the prefix
-                    int prefix = keys[i].commonPrefix(keys[i - 1]);
-                    if (prefix < 0 || prefix > Byte.MAX_VALUE) {
-                        prefix = 0;
-                    }
-                    currentDataLen += keys[i].getLength() - prefix;
-                } else {
+                for (int i = 0; i < nKeys; i++) {
+                    currentDataLen += getStoredKeyLen(i, i - 1);
+                }
+            } else {
+                if (pageHeader.getStatus() == BRANCH) {
+                    currentDataLen += prefix.getLength() + 2;
+                }
+                if (fileHeader.getFixedKeyLen() < 0) {
+                    currentDataLen += 2 * nKeys;
+                }
+                for (int i = 0; i < nKeys; i++) {
                     currentDataLen += keys[i].getLength();
                 }
             }
@@ -1121,37 +1388,53 @@ public class BTree extends Paged implements Lockable {
                 recalculateDataLen();
                 return;
             }
-            if (pageHeader.getStatus() == LEAF && idx > 0) {
-                // if this is a leaf page, we use prefix compression to store the keys,
-                // so subtract the size of the prefix
-                int prefix;
-                if (idx + 1< nKeys) {
-                    // recalculate the prefix length for the following value
-                    prefix = calculatePrefixLen(idx + 1, idx - 1);
-                    currentDataLen -= keys[idx + 1].getLength() - prefix;
-                    prefix = calculatePrefixLen(idx + 1, idx);
-                    currentDataLen += keys[idx + 1].getLength() - prefix;
-                }
-                // calculate the prefix length for the new value
-                prefix = calculatePrefixLen(idx, idx - 1);
-                currentDataLen += keys[idx].getLength() - prefix;
-                currentDataLen++; // add one byte for the prefix length
+            if (pageHeader.getStatus() == LEAF) {
+                if (idx + 1 < nKeys) {
+                    // the following key is now stored relative to the new key
+                    currentDataLen -= getStoredKeyLen(idx + 1, idx - 1);
+                    currentDataLen += getStoredKeyLen(idx + 1, idx);
+                }
+                currentDataLen += getStoredKeyLen(idx, idx - 1);
             } else {
                 currentDataLen += keys[idx].getLength();
-                if (pageHeader.getStatus() == LEAF) {
-                    currentDataLen++;
+                if(fileHeader.getFixedKeyLen() < 0) {
+                    currentDataLen += 2;
                 }
             }
             currentDataLen += 8;
-            if(fileHeader.getFixedKeyLen() < 0) {
-                currentDataLen += 2;
+        }
+
+        /**
+         * Returns the number of bytes a key of a leaf page takes, including
+         * its length and the length of the prefix shared with the previous key.
+         *
+         * @param idx the index of the key
+         * @param previous the index of the previous key, or -1 if there is none
+         */
+        private int getStoredKeyLen(final int idx, final int previous) {
+            final int keyLen = keys[idx].getLength();
+            final int prefixLen = previous < 0 ? 0 : calculatePrefixLen(idx, previous);
+            int len = keyLen - prefixLen;
+            if (fileHeader.isFrontCoded()) {
+                len += getCompactLengthSize(prefixLen);
+                if (fileHeader.getFixedKeyLen() < 0) {
+                    len += getCompactLengthSize(keyLen - prefixLen);
+                }
+            } else {
+                if (fileHeader.getFixedKeyLen() < 0) {
+                    len += 2;
+                }
+                if (previous >= 0) {
+                    len++;
+                }
             }
+            return len;
         }
 
         private int calculatePrefixLen(final int idx0, final int idx1) {
-            int prefix = keys[idx0].commonPrefix(keys[idx1]);
-            if (prefix < 0 || prefix > Byte.MAX_VALUE) {
-                prefix = 0;
+            final int prefix = keys[idx0].commonPrefix(keys[idx1]);
+            if (prefix < 0 || (prefix > Byte.MAX_VALUE && !fileHeader.isFrontCoded())) {
+                return 0;
             }
             return prefix;
         }
@@ -1172,11 +1455,7 @@ public class BTree extends Paged implements Lockable {
                 if (pageHeader.getStatus() == LEAF && i > 0) {
                     // if this is a leaf page, we use prefix compression to store the keys,
                     // so subtract the size of the prefix
-                    int prefix = keys[i].commonPrefix(keys[i - 1]);
-                    if (prefix < 0 || prefix > Byte.MAX_VALUE) {
-                        prefix = 0;
-                    }
-                    currentLen += keys[i].getLength() - prefix;
+                    currentLen += keys[i].getLength() - calculatePrefixLen(i, i - 1);
                 } else {
                     currentLen += keys[i].getLength();
                 }
@@ -1194,11 +1473,7 @@ public class BTree extends Paged implements Lockable {
                 if (pageHeader.getStatus() == LEAF && i > 0) {
                     // if this is a leaf page, we use prefix compression to store the keys,
                     // so subtract the size of the prefix
-                    int prefix = keys[i].commonPrefix(keys[i - 1]);
-                    if (prefix < 0 || prefix > Byte.MAX_VALUE) {
-                        prefix = 0;
-                    }
-                    totalLen += keys[i].getLength() - prefix;
+                    totalLen += keys[i].getLength() - calculatePrefixLen(i, i - 1);
                 } else {
                     totalLen += keys[i].getLength();
                 }
@@ -1206,11 +1481,31 @@ public class BTree extends Paged implements Lockable {
             return totalLen;
         }
 
-        private boolean mustSplit() {
+        private boolean mustSplit() throws IOException {
             if (pageHeader.getValueCount() != nKeys) {
                 throw new RuntimeException("Wrong value count");
             }
-            return getDataLen() > fileHeader.getWorkSize();
+            final int dataLen = getDataLen();
+            if (pageHeader.getStatus() != LEAF || !fileHeader.isCompressed()) {
+                return dataLen > fileHeader.getWorkSize();
+            }
+            // leaf pages of a compressed file start with a marker byte
+            if (dataLen + 1 <= fileHeader.getWorkSize()) {
+                return false;
+            }
+            if (dataLen > fileHeader.getWorkSize() * MAX_COMPRESSION_RATIO) {
+                return true;
+            }
+            // the compressed length only changes with the keys and pointers
+            if (compressedDataLen == COMPRESSED_LEN_UNKNOWN) {
+                if (splitPageData == null) {
+                    splitRawData = new byte[fileHeader.getWorkSize() * MAX_COMPRESSION_RATIO];
+                    splitPageData = new byte[fileHeader.getWorkSize()];
+                    splitHashTable = BlockCompressor.newHashTable();
+                }
+                compressedDataLen = writeCompressed(splitPageData, splitRawData, splitHashTable);
+            }
+            return compressedDataLen < 0;
         }
 
         /**
@@ -1220,9 +1515,38 @@ public class BTree extends Paged implements Lockable {
          */
         private void read() throws IOException {
             final byte[] data = page.read();
+            if (pageHeader.getStatus() == LEAF && fileHeader.isCompressed()) {
+                if (data[0] == LEAF_COMPRESSED) {
+                    final int rawLen = ByteConversion.byteToIntH(data, 1);
+                    final int compressedLen = ByteConversion.byteToIntH(data, 5);
+                    final byte[] raw = new byte[rawLen];
+                    BlockCompressor.decompress(data, COMPRESSED_LEAF_HEADER_LEN, compressedLen, raw, 0, rawLen);
+                    readPointers(raw, readKeys(raw, 0));
+                } else {
+                    readPointers(data, readKeys(data, 1));
+                }
+            } else {
+                readPointers(data, readKeys(data, 0));
+            }
+        }
+
+        private void readPointers(final byte[] data, int p) {
+            nPtrs = pageHeader.getPointerCount();
+            ptrs = new long[(nPtrs * 3) / 2 + 1];
+            for (int i = 0; i < nPtrs; i++) {
+                ptrs[i] = ByteConversion.byteToLong(data, p);
+                p += 8;
+            }
+        }
+
+        /**
+         * Read the common prefix and the keys of the node.
+         *
+         * @return the offset following the keys
+         */
+        private int readKeys(final byte[] data, int p) throws IOException {
             final short keyLen = fileHeader.getFixedKeyLen();
             short valSize = keyLen;
-            int p = 0;
             // it this is a branch node, read the common prefix
             if (pageHeader.getStatus() == BRANCH) {
                 final short prefixSize = ByteConversion.byteToShort(data, p);
@@ -1236,6 +1560,36 @@ public class BTree extends Paged implements Lockable {
             }
             nKeys = pageHeader.getValueCount();
             keys = new Value[(nKeys * 3) / 2 + 1];
+            if (pageHeader.getStatus() == LEAF && fileHeader.isFrontCoded()) {
+                // each key is stored as [prefixLen, suffixLen, suffix], where prefixLen
+                // specifies the number of leading bytes the key has in common with the
+                // previous key. suffixLen is left out if all keys have the same length.
+                for (int i = 0; i < nKeys; i++) {
+                    final int prefixLen = readCompactLength(data, p);
+                    p += getCompactLengthSize(prefixLen);
+                    final int suffixLen;
+                    if (keyLen < 0) {
+                        suffixLen = readCompactLength(data, p);
+                        p += getCompactLengthSize(suffixLen);
+                    } else {
+                        suffixLen = keyLen - prefixLen;
+                    }
+                    if (prefixLen == 0) {
+                        keys[i] = new Value(data, p, suffixLen);
+                    } else {
+                        if (i == 0 || prefixLen > keys[i - 1].getLength()) {
+                            throw new IOException("Invalid prefix length " + prefixLen + " for key " + i +
+                                " in page " + page.getPageNum());
+                        }
+                        final byte[] t = new byte[prefixLen + suffixLen];
+                        System.arraycopy(keys[i - 1].data(), keys[i - 1].start(), t, 0, prefixLen);
+                        System.arraycopy(data, p, t, prefixLen, suffixLen);
+                        keys[i] = new Value(t);
+                    }
+                    p += suffixLen;
+                }
+                return p;
+            }
             for (int i = 0; i < nKeys; i++) {
                 if (keyLen < 0) {
                     valSize = ByteConversion.byteToShort(data, p);
@@ -1267,28 +1621,47 @@ public class BTree extends Paged implements Lockable {
                     p += valSize;
                 }
             }
-            //	Read in the pointers
-            nPtrs = pageHeader.getPointerCount();
-            ptrs = new long[(nPtrs * 3) / 2 + 1];
-            for (int i = 0; i < nPtrs; i++) {
-                ptrs[i] = ByteConversion.byteToLong(data, p);
-                p += 8;
-            }
+            return p;
         }
 
         /**
          * Write the node to the underlying page.
+         *
+         * Synchronized with the redo of the node, which runs concurrently with
+         * the redo of other nodes during recovery, see {@link Loggable#getPageNum()}.
+         * Adding those nodes to the cache may evict this one, so the redo returns
+         * the node to the cache once it has been changed.
          * 
          * @throws IOException
          */
-        private void write() throws IOException {
+        private synchronized void write() throws IOException {
             if (nKeys != pageHeader.getValueCount()) {
                 throw new RuntimeException("nkeys: " + nKeys + " valueCount: " + pageHeader.getValueCount());
             }
 
             final byte[] temp = new byte[fileHeader.getWorkSize()];
-            int p = 0;
+            if (pageHeader.getStatus() == LEAF && fileHeader.isCompressed()) {
+                // leaves are only compressed if they would not fit otherwise
+                if (getDataLen() + 1 <= temp.length) {
+                    temp[0] = LEAF_STORED;
+                    writePointers(temp, writeKeys(temp, 1));
+                } else if (writeCompressed(temp, new byte[recalculateDataLen()], BlockCompressor.newHashTable()) < 0) {
+                    throw new IOException("Compressed data does not fit into page " + page.getPageNum() +
+                        "; calculated: " + getDataLen());
+                }
+            } else {
+                writePointers(temp, writeKeys(temp, 0));
+            }
+            writeValue(page, new Value(temp));
+            saved = true;
+        }
 
+        /**
+         * Write the common prefix and the keys of the node.
+         *
+         * @return the offset following the keys
+         */
+        private int writeKeys(final byte[] temp, int p) throws IOException {
             // if this is a branch node, write out the common prefix
             if (pageHeader.getStatus() == BRANCH) {
                 ByteConversion.shortToByte((short) prefix.getLength(), temp, p);
@@ -1299,6 +1672,20 @@ public class BTree extends Paged implements Lockable {
                 }
             }
             final int keyLen = fileHeader.getFixedKeyLen();
+            if (pageHeader.getStatus() == LEAF && fileHeader.isFrontCoded()) {
+                // [prefixLen, suffixLen, suffix], see readKeys
+                for (int i = 0; i < nKeys; i++) {
+                    final int prefixLen = i > 0 ? calculatePrefixLen(i, i - 1) : 0;
+                    final int suffixLen = keys[i].getLength() - prefixLen;
+                    p = writeCompactLength(prefixLen, temp, p);
+                    if (keyLen < 0) {
+                        p = writeCompactLength(suffixLen, temp, p);
+                    }
+                    System.arraycopy(keys[i].data(), keys[i].start() + prefixLen, temp, p, suffixLen);
+                    p += suffixLen;
+                }
+                return p;
+            }
             for (int i = 0; i < nKeys; i++) {
                 if (keyLen < 0) {
                     ByteConversion.shortToByte((short) keys[i].getLength(), temp, p);
@@ -1309,9 +1696,7 @@ public class BTree extends Paged implements Lockable {
                     // keys that can be stored on one page. Each key is stored as follows:
                     // [valSize, prefixLen, value], where prefixLen specifies the number of
                     // leading bytes the key has in common with the previous key.
-                    int prefixLen = keys[i].commonPrefix(keys[i - 1]); // determine the common prefix
-                    if (prefixLen < 0 || prefixLen > Byte.MAX_VALUE)
-                        {prefixLen = 0;}
+                    final int prefixLen = calculatePrefixLen(i, i - 1); // determine the common prefix
                     // store the length of the prefix
                     temp[p++] = (byte) prefixLen;
                     // copy the remaining bytes, starting at prefixLen
@@ -1327,12 +1712,40 @@ public class BTree extends Paged implements Lockable {
                     p += data.length;
                 }
             }
+            return p;
+        }
+
+        private int writePointers(final byte[] temp, int p) {
             for (int i = 0; i < nPtrs; i++) {
                 ByteConversion.longToByte(ptrs[i], temp, p);
                 p += 8;
             }
-            writeValue(page, new Value(temp));
-            saved = true;
+            return p;
+        }
+
+        /**
+         * Compresses the keys and pointers of a leaf page into the given page
+         * data, behind the header of a compressed leaf.
+         *
+         * @param temp the page data
+         * @param raw a buffer for the uncompressed keys and pointers, large
+         *  enough for {@link #getDataLen()} bytes
+         * @param table the hash table used by the compressor
+         *
+         * @return the length of the page data, or -1 if the compressed data
+         *  does not fit into the page
+         */
+        private int writeCompressed(final byte[] temp, final byte[] raw, final int[] table) throws IOException {
+            final int rawLen = writePointers(raw, writeKeys(raw, 0));
+            final int compressedLen = BlockCompressor.compress(raw, 0, rawLen, temp, COMPRESSED_LEAF_HEADER_LEN,
+                temp.length - COMPRESSED_LEAF_HEADER_LEN, table);
+            if (compressedLen < 0) {
+                return -1;
+            }
+            temp[0] = LEAF_COMPRESSED;
+            ByteConversion.intToByteH(rawLen, temp, 1);
+            ByteConversion.intToByteH(compressedLen, temp, 5);
+            return COMPRESSED_LEAF_HEADER_LEN + compressedLen;
         }
 
         /**
@@ -1376,6 +1789,10 @@ public class BTree extends Paged implements Lockable {
                             removeKey(idx);
                             removePointer(idx);
                             recalculateDataLen();
+                            // the remaining keys of a compressed leaf may compress less well
+                            if (fileHeader.isCompressed() && nKeys > 1 && mustSplit()) {
+                                split(transaction);
+                            }
                             return oldPtr;
                         } finally {
                             allowUnload = true;
@@ -1415,6 +1832,11 @@ public class BTree extends Paged implements Lockable {
                             }
                             ptrs[idx] = pointer;
                             saved = false;
+                            compressedDataLen = COMPRESSED_LEN_UNKNOWN;
+                            // the new pointer may compress less well
+                            if (fileHeader.isCompressed() && mustSplit()) {
+                                split(transaction);
+                            }
                             return oldPtr;
                         } else {
                             // Value was not found
@@ -2478,6 +2900,7 @@ public class BTree extends Paged implements Lockable {
             keys[idx] = val;
             pageHeader.setValueCount((short) ++nKeys);
             saved = false;
+            compressedDataLen = COMPRESSED_LEN_UNKNOWN;
         }
 
         /**
@@ -2492,6 +2915,7 @@ public class BTree extends Paged implements Lockable {
             }
             pageHeader.setValueCount((short) --nKeys);
             saved = false;
+            compressedDataLen = COMPRESSED_LEN_UNKNOWN;
         }
 
         /**
@@ -2506,6 +2930,7 @@ public class BTree extends Paged implements Lockable {
             ptrs[idx] = ptr;
             nPtrs++;
             saved = false;
+            compressedDataLen = COMPRESSED_LEN_UNKNOWN;
         }
 
         /**
@@ -2516,6 +2941,7 @@ public class BTree extends Paged implements Lockable {
             System.arraycopy(ptrs, idx + 1, ptrs, idx, nPtrs - idx - 1);
             nPtrs--;
             saved = false;
+            compressedDataLen = COMPRESSED_LEN_UNKNOWN;
         }
 
         /**
@@ -2619,10 +3045,40 @@ public class BTree extends Paged implements Lockable {
         LOGSTATS.info(buf.toString());
     }
 
+    /**
+     * Lengths in front coded leaf pages take one byte if they are below 128,
+     * two bytes otherwise. Keys are limited to less than half a page, so two
+     * bytes are always sufficient.
+     */
+    private static int getCompactLengthSize(final int len) {
+        return len < 0x80 ? 1 : 2;
+    }
+
+    private static int writeCompactLength(final int len, final byte[] data, int p) throws IOException {
+        if (len < 0x80) {
+            data[p++] = (byte) len;
+        } else if (len <= 0x7FFF) {
+            data[p++] = (byte) (0x80 | (len >>> 8));
+            data[p++] = (byte) len;
+        } else {
+            throw new IOException("Key length exceeds page format limits: " + len);
+        }
+        return p;
+    }
+
+    private static int readCompactLength(final byte[] data, final int p) {
+        final int len = data[p] & 0xFF;
+        if (len < 0x80) {
+            return len;
+        }
+        return ((len & 0x7F) << 8) | (data[p + 1] & 0xFF);
+    }
+
     protected class BTreeFileHeader extends FileHeader {
 
         private long rootPage = 0;
         private short fixedLen = -1;
+        private byte pageFormat = PAGE_FORMAT_FRONT_CODED;
 
         public BTreeFileHeader(final long pageCount, final int pageSize) {
             super(pageCount, pageSize);
@@ -2639,6 +3095,12 @@ public class BTree extends Paged implements Lockable {
             offset += 8;
             fixedLen = ByteConversion.byteToShort(buf, offset);
             offset += 2;
+            if (isLegacyVersion()) {
+                // files of the previous version have no page format
+                pageFormat = 0;
+            } else {
+                pageFormat = buf[offset++];
+            }
             return offset;
         }
 
@@ -2649,9 +3111,16 @@ public class BTree extends Paged implements Lockable {
             offset += 8;
             ByteConversion.shortToByte(fixedLen, buf, offset);
             offset += 2;
+            if (!isLegacyVersion()) {
+                buf[offset++] = pageFormat;
+            }
             return offset;
         }
 
+        private boolean isLegacyVersion() {
+            return getVersion() != getFileVersion() && getVersion() == getLegacyFileVersion();
+        }
+
         /**
          *  Set the root page of the storage tree
          *
@@ -2679,6 +3148,29 @@ public class BTree extends Paged implements Lockable {
             this.fixedLen = keyLen;
         }
 
+        /**
+         * The format of the pages, a combination of {@link #PAGE_FORMAT_FRONT_CODED}
+         * and {@link #PAGE_FORMAT_COMPRESSED}.
+         *
+         * @return the page format flags
+         */
+        public byte getPageFormat() {
+            return pageFormat;
+        }
+
+        public void setPageFormat(final byte pageFormat) {
+            this.pageFormat = pageFormat;
+            setDirty(true);
+        }
+
+        public boolean isFrontCoded() {
+            return (pageFormat & PAGE_FORMAT_FRONT_CODED) != 0;
+        }
+
+        public boolean isCompressed() {
+            return (pageFormat & PAGE_FORMAT_COMPRESSED) != 0;
+        }
+
         @Override
         public int getMaxKeySize() {
             return (getWorkSize() / 2) - MIN_SPACE_PER_KEY;
@@ -0,0 +1,237 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.btree;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A small LZ77 block compressor in the style of LZ4, used to compress
+ * the keys of B+-tree leaf pages.
+ *
+ * A compressed block is a sequence of tokens. Each token starts with a byte
+ * whose upper four bits hold the number of literals and whose lower four
+ * bits hold the length of the following match minus 4. A value of 15 means
+ * the length continues in the following bytes, each of which is added until
+ * one is not 255. The literals follow, then the offset of the match as two
+ * bytes, little endian. The last token has literals only.
+ *
+ * Pages are small, so the compressor favours simplicity over speed: it looks
+ * up one candidate per position in a hash table of four byte sequences.
+ */
+final class BlockCompressor {
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+
+    /** the last bytes of a block are always stored as literals */
+    private static final int LAST_LITERALS = 5;
+
+    private static final int HASH_LOG = 12;
+
+    private static final int RUN_MASK = 0x0F;
+
+    private BlockCompressor() {
+    }
+
+    /**
+     * Compresses a block.
+     *
+     * @param src the data to compress
+     * @param srcOff the offset of the data in src
+     * @param srcLen the length of the data
+     * @param dest the array to write the compressed block to
+     * @param destOff the offset in dest
+     * @param maxLen the maximum number of bytes to write to dest
+     *
+     * @return the length of the compressed block, or -1 if it would not fit into maxLen bytes
+     */
+    static int compress(final byte[] src, final int srcOff, final int srcLen,
+            final byte[] dest, final int destOff, final int maxLen) {
+        return compress(src, srcOff, srcLen, dest, destOff, maxLen, newHashTable());
+    }
+
+    /**
+     * Returns a hash table for {@link #compress(byte[], int, int, byte[], int, int, int[])}.
+     */
+    static int[] newHashTable() {
+        return new int[1 << HASH_LOG];
+    }
+
+    /**
+     * Compresses a block, reusing the given hash table.
+     *
+     * @param table a table obtained from {@link #newHashTable()}; it is
+     *  cleared before use
+     *
+     * @see #compress(byte[], int, int, byte[], int, int)
+     */
+    static int compress(final byte[] src, final int srcOff, final int srcLen,
+            final byte[] dest, final int destOff, final int maxLen, final int[] table) {
+        final int srcEnd = srcOff + srcLen;
+        final int matchLimit = srcEnd - LAST_LITERALS;
+        final int destEnd = destOff + maxLen;
+        // positions are stored plus one, so that 0 marks an empty slot
+        Arrays.fill(table, 0);
+
+        int anchor = srcOff;
+        int p = srcOff;
+        int d = destOff;
+        while (p + MIN_MATCH <= matchLimit) {
+            final int sequence = readInt(src, p);
+            final int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+            int ref = table[hash] - 1;
+            table[hash] = p + 1;
+            if (ref < 0 || p - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                p++;
+                continue;
+            }
+            // extend the match backwards into the pending literals...
+            while (p > anchor && ref > srcOff && src[p - 1] == src[ref - 1]) {
+                p--;
+                ref--;
+            }
+            // ...and forwards
+            int matchLen = MIN_MATCH;
+            while (p + matchLen < matchLimit && src[ref + matchLen] == src[p + matchLen]) {
+                matchLen++;
+            }
+            d = writeSequence(src, anchor, p - anchor, p - ref, matchLen, dest, d, destEnd);
+            if (d < 0) {
+                return -1;
+            }
+            p += matchLen;
+            anchor = p;
+        }
+        d = writeSequence(src, anchor, srcEnd - anchor, 0, 0, dest, d, destEnd);
+        return d < 0 ? -1 : d - destOff;
+    }
+
+    /**
+     * Decompresses a block.
+     *
+     * @param src the compressed block
+     * @param srcOff the offset of the block in src
+     * @param srcLen the length of the compressed block
+     * @param dest the array to write the data to
+     * @param destOff the offset in dest
+     * @param destLen the length of the decompressed data
+     *
+     * @throws IOException if the block is corrupt
+     */
+    static void decompress(final byte[] src, final int srcOff, final int srcLen,
+            final byte[] dest, final int destOff, final int destLen) throws IOException {
+        final int srcEnd = srcOff + srcLen;
+        final int destEnd = destOff + destLen;
+        int s = srcOff;
+        int d = destOff;
+        try {
+            while (s < srcEnd) {
+                final int token = src[s++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[s++] & 0xFF;
+                        literals += b;
+                    } while (b == 0xFF);
+                }
+                if (s + literals > srcEnd || d + literals > destEnd) {
+                    throw new IOException("Corrupt compressed block: literals exceed the block");
+                }
+                System.arraycopy(src, s, dest, d, literals);
+                s += literals;
+                d += literals;
+                if (s == srcEnd) {
+                    break;
+                }
+
+                final int offset = (src[s++] & 0xFF) | ((src[s++] & 0xFF) << 8);
+                int matchLen = token & RUN_MASK;
+                if (matchLen == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[s++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 0xFF);
+                }
+                matchLen += MIN_MATCH;
+                int ref = d - offset;
+                if (offset == 0 || ref < destOff || d + matchLen > destEnd) {
+                    throw new IOException("Corrupt compressed block: invalid match at " + (s - srcOff));
+                }
+                // the match may overlap the bytes it produces
+                for (final int end = d + matchLen; d < end; ) {
+                    dest[d++] = dest[ref++];
+                }
+            }
+        } catch (final ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt compressed block: unexpected end", e);
+        }
+        if (d != destEnd) {
+            throw new IOException("Corrupt compressed block: expected " + destLen + " bytes, got " + (d - destOff));
+        }
+    }
+
+    private static int writeSequence(final byte[] src, final int literalStart, final int literals,
+            final int offset, final int matchLen, final byte[] dest, int d, final int destEnd) {
+        // token, length bytes, literals and offset
+        if (d + 1 + literals + (literals / 0xFF) + 1 + (matchLen > 0 ? 2 + (matchLen / 0xFF) + 1 : 0) > destEnd) {
+            return -1;
+        }
+        final int tokenPos = d++;
+        int token;
+        if (literals >= RUN_MASK) {
+            token = RUN_MASK << 4;
+            d = writeLength(literals - RUN_MASK, dest, d);
+        } else {
+            token = literals << 4;
+        }
+        System.arraycopy(src, literalStart, dest, d, literals);
+        d += literals;
+
+        if (matchLen > 0) {
+            dest[d++] = (byte) offset;
+            dest[d++] = (byte) (offset >>> 8);
+            final int len = matchLen - MIN_MATCH;
+            if (len >= RUN_MASK) {
+                token |= RUN_MASK;
+                d = writeLength(len - RUN_MASK, dest, d);
+            } else {
+                token |= len;
+            }
+        }
+        dest[tokenPos] = (byte) token;
+        return d;
+    }
+
+    private static int writeLength(int len, final byte[] dest, int d) {
+        while (len >= 0xFF) {
+            dest[d++] = (byte) 0xFF;
+            len -= 0xFF;
+        }
+        dest[d++] = (byte) len;
+        return d;
+    }
+
+    private static int readInt(final byte[] data, final int p) {
+        return (data[p] & 0xFF) | ((data[p + 1] & 0xFF) << 8) | ((data[p + 2] & 0xFF) << 16) | ((data[p + 3] & 0xFF) << 24);
+    }
+}
@@ -87,6 +87,11 @@ public class InsertValueLoggable extends BTAbstractLoggable {
         return super.getLogSize() + 18 + key.getLength();
     }
 	
+    @Override
+    public long getPageNum() {
+        return pageNum;
+    }
+
     public void redo() throws LogException {
         getStorage().redoInsertValue(this);
     }
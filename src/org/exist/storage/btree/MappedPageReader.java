@@ -0,0 +1,268 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.btree;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Reads pages of a {@link Paged} file through read-only memory mappings
+ * instead of a system call per page.
+ *
+ * The file is mapped in segments of a fixed size. A segment is mapped when
+ * it is first accessed. While the file grows, the mapping of its last segment
+ * is only replaced once the file has grown to twice the mapped size (or to the
+ * end of the segment), so that appending pages one by one does not remap the
+ * segment for every new page. Pages beyond the mapping are read through the
+ * channel meanwhile.
+ *
+ * Writes are never done through the mapping: pages are written to the file
+ * channel as before (after the journal has been written), the mapping sees
+ * the new content through the shared operating system page cache.
+ *
+ * Replaced mappings, and all mappings on {@link #close()}, are unmapped
+ * straight away rather than when the buffers are garbage collected. A read
+ * lock is held while a mapping is read, so a buffer is never unmapped while
+ * it is in use.
+ */
+@ThreadSafe
+final class MappedPageReader {
+
+    private static final Logger LOG = LogManager.getLogger(MappedPageReader.class);
+
+    /**
+     * Default segment size of 64 MB, which is a multiple of every supported page size.
+     */
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final Consumer<ByteBuffer> UNMAPPER = unmapper();
+
+    private final FileChannel channel;
+    private final int segmentSize;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    @GuardedBy("lock") private ByteBuffer[] segments = new ByteBuffer[0];
+    @GuardedBy("lock") private boolean closed = false;
+
+    MappedPageReader(final FileChannel channel) {
+        this(channel, DEFAULT_SEGMENT_SIZE);
+    }
+
+    MappedPageReader(final FileChannel channel, final int segmentSize) {
+        this.channel = channel;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Read bytes from the file into the given array.
+     *
+     * @param position the position in the file to read from
+     * @param dst the array to fill
+     *
+     * @return false if the requested range is not (yet) mapped and cannot
+     *     be mapped, or crosses the boundary of two segments, in which case
+     *     the caller has to read it through the channel
+     *
+     * @throws IOException if the file could not be mapped
+     */
+    boolean read(final long position, final byte[] dst) throws IOException {
+        if (dst.length == 0) {
+            return true;
+        }
+        final int segment = (int) (position / segmentSize);
+        final int offset = (int) (position % segmentSize);
+        final int end = offset + dst.length;
+        if (end > segmentSize) {
+            return false;
+        }
+
+        final long required;
+        lock.readLock().lock();
+        try {
+            final ByteBuffer buffer = segment < segments.length ? segments[segment] : null;
+            if (buffer != null && buffer.capacity() >= end) {
+                copy(buffer, offset, dst);
+                return true;
+            }
+            required = buffer == null ? end : Math.max(end, Math.min(segmentSize, 2L * buffer.capacity()));
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (!map(segment, required)) {
+            return false;
+        }
+
+        lock.readLock().lock();
+        try {
+            final ByteBuffer buffer = segment < segments.length ? segments[segment] : null;
+            if (buffer == null || buffer.capacity() < end) {
+                // closed meanwhile
+                return false;
+            }
+            copy(buffer, offset, dst);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void copy(final ByteBuffer buffer, final int offset, final byte[] dst) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(dst);
+    }
+
+    /**
+     * (Re-)map a segment which has to be at least minLength bytes long.
+     *
+     * @return false if the file is too short or the reader has been closed
+     */
+    private boolean map(final int segment, final long minLength) throws IOException {
+        final long start = (long) segment * segmentSize;
+        // check without the write lock first, as this fails for every read beyond the mapping of a growing file
+        if (Math.min(segmentSize, channel.size() - start) < minLength) {
+            return false;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            final ByteBuffer current = segment < segments.length ? segments[segment] : null;
+            if (current != null && current.capacity() >= minLength) {
+                // mapped by a concurrent reader
+                return true;
+            }
+
+            final long length = Math.min(segmentSize, channel.size() - start);
+            if (length < minLength) {
+                return false;
+            }
+
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            if (segment >= segments.length) {
+                segments = Arrays.copyOf(segments, segment + 1);
+            }
+            segments[segment] = buffer;
+            if (current != null) {
+                unmap(current);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes currently mapped
+     */
+    long getMappedSize() {
+        lock.readLock().lock();
+        try {
+            long size = 0;
+            for (final ByteBuffer buffer : segments) {
+                if (buffer != null) {
+                    size += buffer.capacity();
+                }
+            }
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Unmap all segments. Later reads return false.
+     */
+    void close() {
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            for (final ByteBuffer buffer : segments) {
+                if (buffer != null) {
+                    unmap(buffer);
+                }
+            }
+            segments = new ByteBuffer[0];
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void unmap(final ByteBuffer buffer) {
+        if (UNMAPPER != null) {
+            UNMAPPER.accept(buffer);
+        }
+    }
+
+    /**
+     * The JDK has no public API to unmap a buffer, so the cleaner of the
+     * buffer is invoked through reflection. If that is not possible, the
+     * mapping is released once the buffer has been garbage collected.
+     */
+    private static Consumer<ByteBuffer> unmapper() {
+        try {
+            // Java 9 and later
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            return buffer -> {
+                try {
+                    invokeCleaner.invoke(unsafe, buffer);
+                } catch (final ReflectiveOperationException e) {
+                    LOG.warn("Failed to unmap buffer: " + e.getMessage(), e);
+                }
+            };
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            // not available, try the Java 8 way
+        }
+
+        try {
+            final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                try {
+                    clean.invoke(cleaner.invoke(buffer));
+                } catch (final ReflectiveOperationException e) {
+                    LOG.warn("Failed to unmap buffer: " + e.getMessage(), e);
+                }
+            };
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            LOG.warn("Mapped buffers cannot be unmapped explicitly, they are released by the garbage collector: " + e.getMessage());
+            return null;
+        }
+    }
+}
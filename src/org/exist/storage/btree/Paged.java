@@ -76,16 +76,20 @@ import org.apache.logging.log4j.Logger;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.journal.Lsn;
 import org.exist.util.ByteConversion;
+import org.exist.util.Configuration;
 import org.exist.util.FileUtils;
 import org.exist.xquery.Constants;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.NonWritableChannelException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
 
 /**
  *  Paged is a paged file foundation that is used by the BTree class and
@@ -131,16 +135,31 @@ public abstract class Paged implements AutoCloseable {
     private boolean fileIsNew = false;
 
     private final byte[] tempPageData;
-    private final byte[] tempHeaderData;
+
+    private final Set<String> memoryMappedFiles;
+    private MappedPageReader mappedReader = null;
 	
     public Paged(final BrokerPool pool) {
         this.fileHeader = createFileHeader(pool.getPageSize());
         this.tempPageData = new byte[fileHeader.pageSize];
-        this.tempHeaderData = new byte[fileHeader.pageHeaderSize];
+        final Configuration config = pool.getConfiguration();
+        this.memoryMappedFiles = config == null ? Collections.emptySet() :
+                config.getProperty(BrokerPool.PROPERTY_MEMORY_MAPPED_FILES, Collections.emptySet());
     }
 
     public abstract short getFileVersion();
 
+    /**
+     * Returns the version of an older storage format which this class can
+     * still read and write, or -1 if there is none. Files of that version
+     * are kept in their format when they are opened.
+     *
+     * @return the version of the older format, or -1
+     */
+    public short getLegacyFileVersion() {
+        return -1;
+    }
+
     public final static void setPageSize(final int pageSize) {
         PAGE_SIZE = pageSize;
     }
@@ -161,6 +180,9 @@ public abstract class Paged implements AutoCloseable {
     @Override
     public void close() throws DBException {
         try {
+            if (mappedReader != null) {
+                mappedReader.close();
+            }
             raf.close();
         } catch (final IOException e) {
             throw new DBException("an error occurred while closing database file: " + e.getMessage());
@@ -202,6 +224,15 @@ public abstract class Paged implements AutoCloseable {
      * @throws DBException
      */
     public boolean flush() throws DBException {
+        return flushFileHeader();
+    }
+
+    /**
+     * Writes the file header to disk if it has been modified.
+     *
+     * @return <code>true</code> if the file header has been written
+     */
+    public boolean flushFileHeader() {
         boolean flushed = false;
         try {
             if(fileHeader.isDirty() && !readOnly) {
@@ -231,6 +262,68 @@ public abstract class Paged implements AutoCloseable {
         }
     }
 
+    /**
+     * Copy the file header to an output stream while the file is in use,
+     * see {@link #backupPagesToStream(OutputStream, long, int)}.
+     *
+     * @param os
+     * @throws IOException
+     */
+    public void backupHeaderToStream(final OutputStream os) throws IOException {
+        final byte[] data;
+        synchronized (fileHeader) {
+            data = new byte[fileHeader.getHeaderSize()];
+            readRaw(data, 0);
+        }
+        os.write(data);
+    }
+
+    /**
+     * Copy pages of the underlying file to an output stream while the file is
+     * in use, for a hot backup. Each page is read while no page of the file can
+     * be written, so it is copied either before or after a concurrent write,
+     * never in between.
+     *
+     * Copying the header and then all pages in order results in a copy of the
+     * file, but not in a consistent one: the journal written while copying has
+     * to be redone on it.
+     *
+     * @param os
+     * @param firstPage the number of the first page to copy
+     * @param count the maximum number of pages to copy
+     * @return the number of pages copied, less than count if the end of the file has been reached
+     * @throws IOException
+     */
+    public int backupPagesToStream(final OutputStream os, final long firstPage, final int count) throws IOException {
+        final byte[] data = new byte[fileHeader.getPageSize()];
+        int copied = 0;
+        for (long pageNum = firstPage; copied < count; pageNum++) {
+            final long offset = fileHeader.getHeaderSize() + pageNum * data.length;
+            synchronized (tempPageData) {
+                if (offset + data.length > raf.getChannel().size()) {
+                    break;
+                }
+                readRaw(data, offset);
+            }
+            os.write(data);
+            copied++;
+        }
+        return copied;
+    }
+
+    private void readRaw(final byte[] data, final long position) throws IOException {
+        final FileChannel channel = raf.getChannel();
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, pos);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file: " + FileUtils.fileName(file));
+            }
+            pos += read;
+        }
+    }
+
     /**
      * getPath returns the file object for this Paged.
      *
@@ -255,6 +348,9 @@ public abstract class Paged implements AutoCloseable {
      */
     public void closeAndRemove() {
         try {
+            if (mappedReader != null) {
+                mappedReader.close();
+            }
             raf.close();
         } catch (final IOException e) {
             //TODO : forward the exception ? -pb
@@ -335,7 +431,7 @@ public abstract class Paged implements AutoCloseable {
         try {
             if (exists()) {
                 fileHeader.read();
-                if(fileHeader.getVersion() != expectedVersion) {
+                if(fileHeader.getVersion() != expectedVersion && fileHeader.getVersion() != getLegacyFileVersion()) {
                     throw new DBException("Database file " +
                         FileUtils.fileName(getFile()) + " has a storage format incompatible with this " +
                         "version of eXist. You need to upgrade your database by creating a backup," +
@@ -402,12 +498,23 @@ public abstract class Paged implements AutoCloseable {
                 readOnly = true;
                 raf = new RandomAccessFile(file.toFile(), "r");
             }
+            if (raf != null && memoryMappedFiles.contains(FileUtils.fileName(file))) {
+                mappedReader = new MappedPageReader(raf.getChannel());
+                LOG.info("Reading pages of " + FileUtils.fileName(file) + " through memory mappings");
+            }
         } catch (final IOException e) {
             LOG.warn("An exception occurred while opening database file " +
                 file.toAbsolutePath().toString() + ": " + e.getMessage(), e);
         }
     }
 
+    /**
+     * @return true if pages of this file are read through memory mappings
+     */
+    public final boolean isMemoryMapped() {
+        return mappedReader != null;
+    }
+
     /**
      * Unlinks a set of pages starting at the specified page.
      *
@@ -896,18 +1003,25 @@ public abstract class Paged implements AutoCloseable {
             refCount++;
         }
 
+        /**
+         * Read the page header and the data of this page.
+         *
+         * Uses positional reads on the file channel (or the memory mapping,
+         * if enabled for the file), which neither depend on nor modify the
+         * file pointer, so pages can be read by concurrent threads holding
+         * a shared lock on the file.
+         *
+         * @return the data of the page
+         */
         public byte[] read() throws IOException {
             try {
-                if (raf.getFilePointer() != offset) {
-                    raf.seek(offset);
-                }
-                Arrays.fill(tempHeaderData, (byte)0);
-                raf.read(tempHeaderData);
+                final byte[] headerData = new byte[fileHeader.pageHeaderSize];
+                readFully(headerData, offset);
                 // Read in the header
-                header.read(tempHeaderData, 0);
+                header.read(headerData, 0);
                 // Read the working data
                 final byte[] workData = new byte[header.dataLen];
-                raf.read(workData);
+                readFully(workData, offset + fileHeader.pageHeaderSize);
                 return workData;
             } catch(final Exception e) {
                 LOG.warn("error while reading page: " + getPageInfo(), e);
@@ -925,25 +1039,30 @@ public abstract class Paged implements AutoCloseable {
         }
 
         private final void write(final byte[] data) throws IOException {
-            if(data == null) {
-                // Removed page: fill with 0
-                Arrays.fill(tempPageData, (byte)0);
-                header.setLsn(Lsn.LSN_INVALID);
-            }
-            // Write out the header
-            header.write(tempPageData, 0);
-            header.dirty = false;
-            if (data != null) {
-                if (data.length > fileHeader.workSize) {
-                    throw new IOException("page: " + getPageInfo() + ": data length too large: " + data.length);
-                } else {
-                    System.arraycopy(data, 0, tempPageData, fileHeader.pageHeaderSize, data.length);
+            // pages may be written back by concurrent readers evicting
+            // dirty pages from a cache, so the shared page buffer is guarded
+            synchronized (tempPageData) {
+                if(data == null) {
+                    // Removed page: fill with 0
+                    Arrays.fill(tempPageData, (byte)0);
+                    header.setLsn(Lsn.LSN_INVALID);
+                }
+                // Write out the header
+                header.write(tempPageData, 0);
+                header.dirty = false;
+                if (data != null) {
+                    if (data.length > fileHeader.workSize) {
+                        throw new IOException("page: " + getPageInfo() + ": data length too large: " + data.length);
+                    } else {
+                        System.arraycopy(data, 0, tempPageData, fileHeader.pageHeaderSize, data.length);
+                    }
+                }
+                final ByteBuffer buffer = ByteBuffer.wrap(tempPageData);
+                long position = offset;
+                while (buffer.hasRemaining()) {
+                    position += raf.getChannel().write(buffer, position);
                 }
             }
-            if (raf.getFilePointer() != offset) {
-                raf.seek(offset);
-            }
-            raf.write(tempPageData);
         }
 
         @Override
@@ -962,6 +1081,22 @@ public abstract class Paged implements AutoCloseable {
             }
         }
 
+        private void readFully(final byte[] data, final long position) throws IOException {
+            if (mappedReader != null && mappedReader.read(position, data)) {
+                return;
+            }
+            final FileChannel channel = raf.getChannel();
+            final ByteBuffer buffer = ByteBuffer.wrap(data);
+            long pos = position;
+            while (buffer.hasRemaining()) {
+                final int read = channel.read(buffer, pos);
+                if (read < 0) {
+                    break;
+                }
+                pos += read;
+            }
+        }
+
         public void dumpPage() throws IOException {
             if (raf.getFilePointer() != offset) {
                 raf.seek(offset);
@@ -95,6 +95,11 @@ public class RemoveValueLoggable extends BTAbstractLoggable {
         return super.getLogSize() + 16 + oldValue.getLength();
     }
 
+    @Override
+    public long getPageNum() {
+        return pageNum;
+    }
+
     public void redo() throws LogException {
         getStorage().redoRemoveValue(this);
     }
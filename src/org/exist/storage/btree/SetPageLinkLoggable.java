@@ -67,6 +67,11 @@ public class SetPageLinkLoggable extends BTAbstractLoggable {
         return super.getLogSize() + 16;
     }
 
+    @Override
+    public long getPageNum() {
+        return pageNum;
+    }
+
     public void redo() throws LogException {
         getStorage().redoSetPageLink(this);
     }
@@ -81,6 +81,11 @@ public class SetParentLoggable extends BTAbstractLoggable {
         return super.getLogSize() + 16;
     }
 
+    @Override
+    public long getPageNum() {
+        return pageNum;
+    }
+
     public void redo() throws LogException {
         getStorage().redoSetParent(this);
     }
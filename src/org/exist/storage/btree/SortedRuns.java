@@ -0,0 +1,314 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.btree;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.storage.txn.Txn;
+import org.exist.util.io.TemporaryFileManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Collects key/pointer pairs to be added to a {@link BTree} in one go.
+ *
+ * The pairs are kept in memory until their number reaches the run size. They
+ * are then sorted and written to a temporary file as a run. {@link #addTo(BTree, Txn)}
+ * merges the runs and passes the keys in ascending order to the tree, which
+ * fills its leaves one after the other. If a key was added more than once,
+ * the pointer added last wins.
+ */
+public class SortedRuns implements Closeable {
+
+    private static final Logger LOG = LogManager.getLogger(SortedRuns.class);
+
+    private final int runSize;
+
+    private Entry[] entries = new Entry[64];
+    private int count = 0;
+
+    private final List<Run> runs = new ArrayList<>();
+    private final List<Closeable> openRuns = new ArrayList<>();
+    private long spilledCount = 0;
+
+    /**
+     * @param runSize the number of pairs kept in memory before they are written
+     *                to a temporary file
+     */
+    public SortedRuns(final int runSize) {
+        if (runSize < 1) {
+            throw new IllegalArgumentException("Run size must be positive: " + runSize);
+        }
+        this.runSize = runSize;
+    }
+
+    /**
+     * Adds a key and its pointer. The key is copied.
+     */
+    public void add(final Value key, final long pointer) throws IOException {
+        if (count == entries.length) {
+            entries = Arrays.copyOf(entries, Math.min(runSize, entries.length * 2));
+        }
+        entries[count++] = new Entry(new Value(key.getData()), pointer);
+        if (count == runSize) {
+            spill();
+        }
+    }
+
+    /**
+     * @return the number of pairs added since the last call to {@link #addTo(BTree, Txn)},
+     * including duplicate keys
+     */
+    public long size() {
+        return spilledCount + count;
+    }
+
+    /**
+     * Adds the collected pairs to the tree and removes them from this object.
+     * The caller has to hold the write lock on the tree.
+     *
+     * @param btree the tree to add the keys to
+     * @param transaction the transaction which journals the leaves, or null
+     * @return the number of distinct keys added
+     */
+    public long addTo(final BTree btree, final Txn transaction) throws IOException, BTreeException {
+        Arrays.sort(entries, 0, count);
+        final PriorityQueue<RunReader> queue = new PriorityQueue<>();
+        try {
+            int order = 0;
+            for (final Run run : runs) {
+                final RunReader reader = new FileRunReader(run, order++);
+                if (reader.advance()) {
+                    queue.add(reader);
+                }
+            }
+            final RunReader memory = new MemoryRunReader(order);
+            if (memory.advance()) {
+                queue.add(memory);
+            }
+
+            final BTree.SortedInserter inserter = btree.new SortedInserter(transaction);
+            long added = 0;
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                Entry entry = reader.current;
+                // runs with the same key are ordered by age, so the last one wins
+                while (true) {
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+                    final RunReader next = queue.peek();
+                    if (next == null || next.current.key.compareTo(entry.key) != 0) {
+                        break;
+                    }
+                    reader = queue.poll();
+                    entry = reader.current;
+                }
+                inserter.add(entry.key, entry.pointer);
+                added++;
+            }
+            inserter.finish();
+            return added;
+        } finally {
+            clear();
+        }
+    }
+
+    /**
+     * Removes the collected pairs and their temporary files.
+     */
+    @Override
+    public void close() {
+        clear();
+    }
+
+    private void clear() {
+        for (final Closeable run : new ArrayList<>(openRuns)) {
+            try {
+                run.close();
+            } catch (final IOException e) {
+                LOG.warn("Failed to close sorted run: " + e.getMessage(), e);
+            }
+        }
+        openRuns.clear();
+        for (final Run run : runs) {
+            TemporaryFileManager.getInstance().returnTemporaryFile(run.file);
+        }
+        runs.clear();
+        spilledCount = 0;
+        Arrays.fill(entries, 0, count, null);
+        count = 0;
+    }
+
+    /**
+     * Sorts the pairs in memory and writes them to a temporary file. Of several
+     * pairs with the same key, only the last one is written.
+     */
+    private void spill() throws IOException {
+        Arrays.sort(entries, 0, count);
+        final Path file = TemporaryFileManager.getInstance().getTemporaryFile();
+        int length = 0;
+        try (final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            for (int i = 0; i < count; i++) {
+                if (i + 1 < count && entries[i + 1].compareTo(entries[i]) == 0) {
+                    continue;
+                }
+                entries[i].write(os);
+                length++;
+            }
+        } catch (final IOException e) {
+            TemporaryFileManager.getInstance().returnTemporaryFile(file);
+            throw e;
+        }
+        runs.add(new Run(file, length));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Wrote run of " + length + " sorted keys to a temporary file");
+        }
+        spilledCount += count;
+        Arrays.fill(entries, 0, count, null);
+        count = 0;
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final Value key;
+        final long pointer;
+
+        Entry(final Value key, final long pointer) {
+            this.key = key;
+            this.pointer = pointer;
+        }
+
+        Entry(final DataInputStream is) throws IOException {
+            final byte[] data = new byte[is.readInt()];
+            is.readFully(data);
+            this.key = new Value(data);
+            this.pointer = is.readLong();
+        }
+
+        void write(final DataOutputStream os) throws IOException {
+            os.writeInt(key.getLength());
+            os.write(key.data(), key.start(), key.getLength());
+            os.writeLong(pointer);
+        }
+
+        @Override
+        public int compareTo(final Entry other) {
+            return key.compareTo(other.key);
+        }
+    }
+
+    /**
+     * A sorted run of pairs written to a temporary file.
+     */
+    private static final class Run {
+        final Path file;
+        final int length;
+
+        Run(final Path file, final int length) {
+            this.file = file;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Reads the pairs of a sorted run one by one. Readers of the same key are
+     * ordered by the age of their run.
+     */
+    private abstract static class RunReader implements Comparable<RunReader> {
+        final int order;
+        Entry current;
+
+        RunReader(final int order) {
+            this.order = order;
+        }
+
+        /**
+         * Moves to the next pair of the run.
+         *
+         * @return false if the run is exhausted
+         */
+        abstract boolean advance() throws IOException;
+
+        @Override
+        public int compareTo(final RunReader other) {
+            final int cmp = current.compareTo(other.current);
+            return cmp == 0 ? Integer.compare(order, other.order) : cmp;
+        }
+    }
+
+    private class MemoryRunReader extends RunReader {
+        private int next = 0;
+
+        MemoryRunReader(final int order) {
+            super(order);
+        }
+
+        @Override
+        boolean advance() {
+            if (next < count) {
+                current = entries[next++];
+                return true;
+            }
+            current = null;
+            return false;
+        }
+    }
+
+    private class FileRunReader extends RunReader implements Closeable {
+        private final DataInputStream is;
+        private int remaining;
+
+        FileRunReader(final Run run, final int order) throws IOException {
+            super(order);
+            this.is = new DataInputStream(new BufferedInputStream(Files.newInputStream(run.file)));
+            this.remaining = run.length;
+            openRuns.add(this);
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            if (remaining > 0) {
+                remaining--;
+                current = new Entry(is);
+                return true;
+            }
+            current = null;
+            close();
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            openRuns.remove(this);
+            is.close();
+        }
+    }
+}
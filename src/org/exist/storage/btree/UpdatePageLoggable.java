@@ -134,6 +134,11 @@ public class UpdatePageLoggable extends BTAbstractLoggable {
         return len;
     }
 
+    @Override
+    public long getPageNum() {
+        return pageNum;
+    }
+
     public void redo() throws LogException {
         getStorage().redoUpdatePage(this);
     }
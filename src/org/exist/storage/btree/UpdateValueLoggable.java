@@ -99,6 +99,11 @@ public class UpdateValueLoggable extends BTAbstractLoggable {
         return super.getLogSize() + 24 + key.getLength();
     }
     
+    @Override
+    public long getPageNum() {
+        return pageNum;
+    }
+
     public void redo() throws LogException {
         getStorage().redoUpdateValue(this);
     }
@@ -57,6 +57,9 @@ public class Accounting {
     
     /** total cache misses during the lifetime of the cache */
     private int misses = 0;
+
+    /** total pages replaced during the lifetime of the cache */
+    private int replaced = 0;
     
     /** the current size of the cache */
     private int totalSize = 0;
@@ -119,6 +122,16 @@ public class Accounting {
         return misses;
     }
     
+    /**
+     * Returns the number of pages replaced during the
+     * lifetime of the cache.
+     *
+     * @return number of replaced pages
+     */
+    public int getReplaced() {
+        return replaced;
+    }
+
     /**
      * Called by the cache to signal that a page was replaced
      * in order to store the Cacheable object passed.
@@ -126,6 +139,7 @@ public class Accounting {
      * @param cacheable
      */
     public void replacedPage(Cacheable cacheable) {
+        ++replaced;
         if (System.currentTimeMillis() - checkPeriodStart > checkPeriod) {
             map.clear();
             thrashing = 0;
@@ -21,6 +21,8 @@ package org.exist.storage.cache;
 
 import org.exist.storage.CacheManager;
 
+import java.util.List;
+
 /**
  * Base interface for all cache implementations that are used for
  * buffering btree and data pages.
@@ -87,6 +89,27 @@ public interface Cache<T extends Cacheable> {
      */
     boolean hasDirtyItems();
 
+    /**
+     * Returns the items which are dirty at the time of the call.
+     *
+     * The returned list is a snapshot: items may be written, evicted,
+     * removed or modified again afterwards, so the items should be written
+     * with {@link #flush(Cacheable)}.
+     *
+     * @return the dirty items
+     */
+    List<T> getDirtyItems();
+
+    /**
+     * Writes a single item to disk, but only if it is still held by
+     * this cache and is dirty. An item which has been removed from
+     * the cache may belong to a page which has been freed.
+     *
+     * @param item the item to write
+     * @return true if the item has been written
+     */
+    boolean flush(T item);
+
     /**
      * Call release on all items, but without
      * actually removing them from the cache.
@@ -154,6 +177,14 @@ public interface Cache<T extends Cacheable> {
      */
     int getFails();
 
+    /**
+     * Get the number of objects which have been
+     * replaced to make room for other objects.
+     *
+     * @return number of evicted objects
+     */
+    int getEvictions();
+
     /**
      * Get the load factor if the cache
      *
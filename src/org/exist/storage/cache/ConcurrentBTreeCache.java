@@ -0,0 +1,41 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.cache;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Concurrent variant of {@link BTreeCache}: tries to keep the inner btree
+ * pages in cache, while the leaf pages can be removed. Inner pages
+ * are only replaced if the clock hand could not find any leaf page
+ * to evict.
+ */
+@ThreadSafe
+public class ConcurrentBTreeCache<T extends BTreeCacheable> extends ConcurrentClockCache<T> {
+
+    public ConcurrentBTreeCache(final String name, final int size, final double growthFactor, final double growthThreshold, final String type) {
+        super(name, size, growthFactor, growthThreshold, type);
+    }
+
+    @Override
+    protected boolean isEvictable(final T cached, final boolean relaxed) {
+        return relaxed || !cached.isInnerPage();
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.cache;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.storage.CacheManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A page cache implementing the CLOCK replacement policy, which
+ * can be read concurrently.
+ *
+ * Lookups via {@link #get(long)} go to a {@link ConcurrentHashMap} and only
+ * set the reference bit of the entry, so they never block and never
+ * contend with each other. Modifications of the cache ({@link #add(Cacheable)},
+ * {@link #remove(Cacheable)} and {@link #resize(int)}) are serialized by an
+ * internal lock which also guards the clock ring.
+ *
+ * If the cache is full, the clock hand sweeps the ring: entries which have
+ * been referenced since the last sweep get a second chance, the first entry
+ * which has not been referenced and which allows to be unloaded is synced
+ * and replaced.
+ *
+ * @param <T> The type that implements {@link Cacheable}
+ */
+@ThreadSafe
+public class ConcurrentClockCache<T extends Cacheable> implements Cache<T> {
+    private final static Logger LOG = LogManager.getLogger(ConcurrentClockCache.class);
+
+    private final String name;
+    private final String type;
+    private final double growthFactor;
+
+    private final ConcurrentHashMap<Long, Entry<T>> map;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @GuardedBy("lock") private Entry<T>[] ring;
+    @GuardedBy("lock") private int hand = 0;
+    @GuardedBy("lock") private int[] freeSlots;
+    @GuardedBy("lock") private int freeCount;
+    @GuardedBy("lock") protected final Accounting accounting;
+    @GuardedBy("lock") private boolean resizeNeeded = false;
+
+    private volatile int max;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    // hits at the last call of getLoad(), -1 before the first call
+    private final AtomicLong hitsOld = new AtomicLong(-1);
+
+    protected volatile CacheManager cacheManager = null;
+
+    public ConcurrentClockCache(final String name, final int size, final double growthFactor, final double growthThreshold, final String type) {
+        this.name = name;
+        this.type = type;
+        this.growthFactor = growthFactor;
+        this.max = size;
+        this.accounting = new Accounting(growthThreshold);
+        this.accounting.setTotalSize(size);
+        this.map = new ConcurrentHashMap<>(size * 2);
+        this.ring = newRing(size);
+        this.freeSlots = new int[size];
+        for (int i = 0; i < size; i++) {
+            freeSlots[i] = size - 1 - i;
+        }
+        this.freeCount = size;
+    }
+
+    private static <T extends Cacheable> Entry<T>[] newRing(final int size) {
+        @SuppressWarnings("unchecked")
+        final Entry<T>[] ring = (Entry<T>[]) new Entry<?>[size];
+        return ring;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public void add(final T item) {
+        add(item, 1);
+    }
+
+    @Override
+    public void add(final T item, final int initialRefCount) {
+        final long key = item.getKey();
+        final boolean requestMem;
+        lock.lock();
+        try {
+            final Entry<T> existing = map.get(key);
+            if (existing != null) {
+                existing.item = item;
+                existing.referenced = true;
+                return;
+            }
+
+            final int slot;
+            if (freeCount > 0) {
+                slot = freeSlots[--freeCount];
+            } else {
+                slot = evict(item);
+            }
+
+            final Entry<T> entry = new Entry<>(item, slot);
+            ring[slot] = entry;
+            map.put(key, entry);
+
+            requestMem = resizeNeeded;
+            resizeNeeded = false;
+        } finally {
+            lock.unlock();
+        }
+
+        // outside of the lock, as the cache manager may resize other caches, which takes their locks
+        if (requestMem) {
+            final CacheManager manager = cacheManager;
+            if (manager != null) {
+                manager.requestMem(this);
+            }
+        }
+    }
+
+    @Override
+    public T get(final T item) {
+        return get(item.getKey());
+    }
+
+    @Override
+    public T get(final long key) {
+        final Entry<T> entry = map.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        hits.increment();
+        return entry.item;
+    }
+
+    @Override
+    public void remove(final T item) {
+        lock.lock();
+        try {
+            final Entry<T> entry = map.remove(item.getKey());
+            if (entry != null) {
+                release(entry.slot);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @GuardedBy("lock")
+    private void release(final int slot) {
+        ring[slot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length + 1);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Sweep the clock hand until a victim is found, sync it and
+     * remove it from the cache.
+     *
+     * @param item the item which is about to be added
+     * @return the slot freed in the ring
+     */
+    @GuardedBy("lock")
+    private int evict(final T item) {
+        final int len = ring.length;
+        // first two rounds: respect reference bits and the eviction preference,
+        // third round: take anything which may be unloaded
+        for (int round = 0; round < 3; round++) {
+            final boolean relaxed = round == 2;
+            for (int i = 0; i < len; i++) {
+                final int slot = hand;
+                hand = (hand + 1) % len;
+
+                final Entry<T> entry = ring[slot];
+                if (entry == null) {
+                    continue;
+                }
+                if (!relaxed && entry.referenced) {
+                    entry.referenced = false;
+                    continue;
+                }
+
+                final T cached = entry.item;
+                if (cached.allowUnload() && cached.getKey() != item.getKey() && isEvictable(cached, relaxed)) {
+                    cached.sync(true);
+                    map.remove(cached.getKey());
+                    ring[slot] = null;
+                    evictions.increment();
+                    accounting.replacedPage(item);
+                    if (growthFactor > 1.0 && cacheManager != null && accounting.resizeNeeded()) {
+                        resizeNeeded = true;
+                    }
+                    return slot;
+                }
+            }
+        }
+
+        // every page is pinned: temporarily grow the ring beyond its maximum size
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Unable to remove entry from cache " + name + ", growing it beyond " + max);
+        }
+        ring = Arrays.copyOf(ring, len + 1);
+        return len;
+    }
+
+    /**
+     * Hook for subclasses to prefer certain entries for eviction.
+     *
+     * @param cached the candidate for eviction
+     * @param relaxed true if no preferred candidate could be found
+     *                in the previous sweeps of the clock hand
+     *
+     * @return true if the entry may be evicted
+     */
+    protected boolean isEvictable(final T cached, final boolean relaxed) {
+        return true;
+    }
+
+    @Override
+    public boolean flush() {
+        boolean flushed = false;
+        for (final Entry<T> entry : map.values()) {
+            final T cacheable = entry.item;
+            if (cacheable.isDirty()) {
+                flushed = flushed | cacheable.sync(false);
+            }
+        }
+        return flushed;
+    }
+
+    @Override
+    public boolean hasDirtyItems() {
+        for (final Entry<T> entry : map.values()) {
+            if (entry.item.isDirty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public List<T> getDirtyItems() {
+        final List<T> dirty = new ArrayList<>();
+        for (final Entry<T> entry : map.values()) {
+            if (entry.item.isDirty()) {
+                dirty.add(entry.item);
+            }
+        }
+        return dirty;
+    }
+
+    @Override
+    public boolean flush(final T item) {
+        final Entry<T> entry = map.get(item.getKey());
+        return entry != null && entry.item == item && item.isDirty() && item.sync(false);
+    }
+
+    @Override
+    public int getBuffers() {
+        return max;
+    }
+
+    @Override
+    public int getUsedBuffers() {
+        return map.size();
+    }
+
+    @Override
+    public double getGrowthFactor() {
+        return growthFactor;
+    }
+
+    @Override
+    public void setCacheManager(final CacheManager manager) {
+        this.cacheManager = manager;
+    }
+
+    @Override
+    public void resize(final int newSize) {
+        lock.lock();
+        try {
+            if (newSize < max) {
+                shrink(newSize);
+            } else {
+                final Entry<T>[] newRing = newRing(Math.max(newSize, ring.length));
+                final int[] newFreeSlots = new int[newRing.length];
+                int newFreeCount = 0;
+                int slot = 0;
+                for (final Entry<T> entry : ring) {
+                    if (entry != null) {
+                        entry.slot = slot;
+                        newRing[slot++] = entry;
+                    }
+                }
+                for (int i = newRing.length - 1; i >= slot; i--) {
+                    newFreeSlots[newFreeCount++] = i;
+                }
+                this.ring = newRing;
+                this.freeSlots = newFreeSlots;
+                this.freeCount = newFreeCount;
+                this.hand = 0;
+                this.max = newSize;
+                accounting.reset();
+                accounting.setTotalSize(newSize);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @GuardedBy("lock")
+    private void shrink(final int newSize) {
+        flush();
+        map.clear();
+        this.ring = newRing(newSize);
+        this.freeSlots = new int[newSize];
+        for (int i = 0; i < newSize; i++) {
+            freeSlots[i] = newSize - 1 - i;
+        }
+        this.freeCount = newSize;
+        this.hand = 0;
+        this.max = newSize;
+        accounting.reset();
+        accounting.setTotalSize(newSize);
+    }
+
+    @Override
+    public int getHits() {
+        return (int) hits.sum();
+    }
+
+    @Override
+    public int getFails() {
+        return (int) misses.sum();
+    }
+
+    @Override
+    public int getEvictions() {
+        return (int) evictions.sum();
+    }
+
+    public int getThrashing() {
+        lock.lock();
+        try {
+            return accounting.getThrashing();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getLoad() {
+        final long currentHits = hits.sum();
+        final long previousHits = hitsOld.getAndSet(currentHits);
+        if (previousHits < 0) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) (currentHits - previousHits);
+    }
+
+    private static final class Entry<T> {
+        volatile T item;
+        volatile boolean referenced;
+        int slot;
+
+        Entry(final T item, final int slot) {
+            this.item = item;
+            this.slot = slot;
+            this.referenced = true;
+        }
+    }
+}
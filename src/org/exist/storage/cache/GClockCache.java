@@ -26,6 +26,8 @@ import org.exist.storage.CacheManager;
 import org.exist.util.hashtable.Long2ObjectHashMap;
 
 import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Cache implementation based on the GClock algorithm. 
@@ -167,6 +169,22 @@ public class GClockCache<T extends Cacheable> implements Cache<T> {
 	    return false;
 	}
 
+	@Override
+	public List<T> getDirtyItems() {
+		final List<T> dirty = new ArrayList<>();
+		for(int i = 0; i < count; i++) {
+			if(items[i] != null && items[i].isDirty()) {
+				dirty.add(items[i]);
+			}
+		}
+		return dirty;
+	}
+
+	@Override
+	public boolean flush(final T item) {
+		return map.get(item.getKey()) == item && item.isDirty() && item.sync(false);
+	}
+
 	protected T removeOne(final T item) {
 		T old = null;
 		boolean removed = false;
@@ -234,6 +252,11 @@ public class GClockCache<T extends Cacheable> implements Cache<T> {
 		return accounting.getMisses();
 	}
 
+    @Override
+    public int getEvictions() {
+        return accounting.getReplaced();
+    }
+
     public int getThrashing() {
         return accounting.getThrashing();
     }
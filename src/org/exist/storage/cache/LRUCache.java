@@ -25,6 +25,9 @@ import org.apache.logging.log4j.Logger;
 import org.exist.storage.CacheManager;
 import org.exist.util.hashtable.SequencedLongHashMap;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * A simple cache implementing a Last Recently Used policy. This
  * cache implementation is based on a 
@@ -132,6 +135,23 @@ public class LRUCache<T extends Cacheable> implements Cache<T> {
         }
         return false;
     }
+
+    @Override
+    public List<T> getDirtyItems() {
+        final List<T> dirty = new ArrayList<>();
+        for(SequencedLongHashMap.Entry<T> next = map.getFirstEntry(); next != null; next = next.getNext()) {
+            final T cacheable = next.getValue();
+            if(cacheable.isDirty()) {
+                dirty.add(cacheable);
+            }
+        }
+        return dirty;
+    }
+
+    @Override
+    public boolean flush(final T item) {
+        return map.get(item.getKey()) == item && item.isDirty() && item.sync(false);
+    }
     
 	@Override
 	public int getBuffers() {
@@ -153,6 +173,11 @@ public class LRUCache<T extends Cacheable> implements Cache<T> {
 		return accounting.getMisses();
 	}
  
+    @Override
+    public int getEvictions() {
+        return accounting.getReplaced();
+    }
+
     public int getThrashing() {
         return accounting.getThrashing();
     }
@@ -68,6 +68,16 @@ public class AddLinkLoggable extends AbstractLoggable {
         return 14;
     }
 
+    @Override
+    public byte getStorageFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
+    @Override
+    public long getPageNum() {
+        return pageNum;
+    }
+
     @Override
     public void redo() throws LogException {
         domDb.redoAddLink(this);
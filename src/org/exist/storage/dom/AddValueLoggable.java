@@ -86,6 +86,16 @@ public class AddValueLoggable extends AbstractLoggable {
         return 8 + value.length;
     }
 
+    @Override
+    public byte getStorageFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
+    @Override
+    public long getPageNum() {
+        return pageNum;
+    }
+
     @Override
     public void redo() throws LogException {
         domDb.redoAddValue(this);
@@ -76,6 +76,11 @@ public class CreatePageLoggable extends AbstractLoggable {
         return 14;
     }
 
+    @Override
+    public byte getStorageFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     @Override
     public void redo() throws LogException {
         domDb.redoCreatePage(this);
@@ -61,13 +61,13 @@ import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.cache.Cache;
 import org.exist.storage.cache.Cacheable;
-import org.exist.storage.cache.LRUCache;
+import org.exist.storage.cache.ConcurrentClockCache;
 import org.exist.storage.journal.JournalException;
 import org.exist.storage.journal.LogEntryTypes;
 import org.exist.storage.journal.Loggable;
 import org.exist.storage.journal.Lsn;
 import org.exist.storage.lock.Lock;
-import org.exist.storage.lock.ReentrantReadWriteLock;
+import org.exist.storage.lock.MultiReadReentrantLock;
 import org.exist.storage.txn.Txn;
 import org.exist.util.*;
 import org.exist.util.hashtable.Object2LongIdentityHashMap;
@@ -162,7 +162,10 @@ public class DOMFile extends BTree implements Lockable {
         LogEntryTypes.addEntryType(LOG_UPDATE_LINK, UpdateLinkLoggable::new);
     }
 
-    public final static short FILE_FORMAT_VERSION_ID = 9;
+    public final static short FILE_FORMAT_VERSION_ID = 10;
+
+    /** files of this version use the old key format of the B+-tree leaves */
+    public final static short LEGACY_FILE_FORMAT_VERSION_ID = 9;
 
     //Page types
     public final static byte LOB = 21;
@@ -178,8 +181,21 @@ public class DOMFile extends BTree implements Lockable {
 
     private Object owner = null;
 
+    /**
+     * Readers share the lock, operations modifying the file
+     * (page allocation, splits, record relocation) hold it exclusively.
+     */
     private final Lock lock;
 
+    private static final int PAGE_LOAD_LATCHES = 64;
+
+    /**
+     * Striped latches serializing the loading of a page which is not
+     * in the cache, so that concurrent readers missing the same page
+     * read it only once and share the same {@link DOMPage} instance.
+     */
+    private final Object[] pageLoadLatches = new Object[PAGE_LOAD_LATCHES];
+
     private final Object2LongIdentityHashMap<Object> pages = new Object2LongIdentityHashMap<>(64);
 
     private DocumentImpl currentDocument = null;
@@ -188,11 +204,14 @@ public class DOMFile extends BTree implements Lockable {
 
     public DOMFile(final BrokerPool pool, final byte id, final Path dataDir, final Configuration config) throws DBException {
         super(pool, id, true, pool.getCacheManager());
-        lock = new ReentrantReadWriteLock(getFileName());
+        lock = new MultiReadReentrantLock(getFileName());
+        for (int i = 0; i < PAGE_LOAD_LATCHES; i++) {
+            pageLoadLatches[i] = new Object();
+        }
         fileHeader = (BTreeFileHeader)getFileHeader();
         fileHeader.setPageCount(0);
         fileHeader.setTotalCount(0);
-        dataCache = new LRUCache<>(getFileName(), 256, 0.0, 1.0, CacheManager.DATA_CACHE);
+        dataCache = new ConcurrentClockCache<>(getFileName(), 256, 0.0, 1.0, CacheManager.DATA_CACHE);
         cacheManager.registerCache(dataCache);
         final Path file = dataDir.resolve(getFileName());
         setFile(file);
@@ -251,7 +270,15 @@ public class DOMFile extends BTree implements Lockable {
     protected final DOMPage getDOMPage(final long pointer) {
         DOMPage page = dataCache.get(pointer);
         if (page == null) {
-            page = new DOMPage(pointer);
+            synchronized (pageLoadLatches[(int) (pointer & (PAGE_LOAD_LATCHES - 1))]) {
+                page = dataCache.get(pointer);
+                if (page == null) {
+                    page = new DOMPage(pointer);
+                    if (page.page != null) {
+                        dataCache.add(page);
+                    }
+                }
+            }
         }
         return page;
     }
@@ -294,6 +321,11 @@ public class DOMFile extends BTree implements Lockable {
         return FILE_FORMAT_VERSION_ID;
     }
 
+    @Override
+    public short getLegacyFileVersion() {
+        return LEGACY_FILE_FORMAT_VERSION_ID;
+    }
+
     @Override
     public boolean create() throws DBException {
         return super.create((short) -1);
@@ -1370,6 +1402,21 @@ public class DOMFile extends BTree implements Lockable {
         return flushed;
     }
 
+    @Override
+    public List<Cacheable> getDirtyPages() {
+        final List<Cacheable> pages = super.getDirtyPages();
+        pages.addAll(dataCache.getDirtyItems());
+        return pages;
+    }
+
+    @Override
+    public boolean flushPage(final Cacheable page) {
+        if (page instanceof DOMPage) {
+            return dataCache.flush((DOMPage) page);
+        }
+        return super.flushPage(page);
+    }
+
     @Override
     public void printStatistics() {
         super.printStatistics();
@@ -2232,32 +2279,34 @@ public class DOMFile extends BTree implements Lockable {
 
     protected void redoAddValue(final AddValueLoggable loggable) {
         final DOMPage page = getDOMPage(loggable.pageNum);
-        final DOMFilePageHeader pageHeader = page.getPageHeader();
-        if (pageHeader.getLsn() != Lsn.LSN_INVALID && requiresRedo(loggable, page)) {
-            try {
-                ByteConversion.shortToByte(loggable.tid, page.data, page.len);
-                page.len += LENGTH_TID;
-                // save data length
-                // overflow pages have length 0
-                final short vlen = (short) loggable.value.length;
-                ByteConversion.shortToByte(vlen, page.data, page.len);
-                page.len += LENGTH_DATA_LENGTH;
-                // save data
-                System.arraycopy(loggable.value, 0, page.data, page.len, vlen);
-                page.len += vlen;
-                pageHeader.incRecordCount();
-                pageHeader.setDataLength(page.len);
-                page.setDirty(true);
-                pageHeader.setNextTupleID(loggable.tid);
-                pageHeader.setLsn(loggable.getLsn());
-                dataCache.add(page, 2);
-            } catch (final ArrayIndexOutOfBoundsException e) {
-                LOG.warn("page: " + page.getPageNum() +
-                    "; len = " + page.len +
-                    "; value = " + loggable.value.length);
-                throw e;
+        synchronized (page) {
+            final DOMFilePageHeader pageHeader = page.getPageHeader();
+            if (pageHeader.getLsn() != Lsn.LSN_INVALID && requiresRedo(loggable, page)) {
+                try {
+                    ByteConversion.shortToByte(loggable.tid, page.data, page.len);
+                    page.len += LENGTH_TID;
+                    // save data length
+                    // overflow pages have length 0
+                    final short vlen = (short) loggable.value.length;
+                    ByteConversion.shortToByte(vlen, page.data, page.len);
+                    page.len += LENGTH_DATA_LENGTH;
+                    // save data
+                    System.arraycopy(loggable.value, 0, page.data, page.len, vlen);
+                    page.len += vlen;
+                    pageHeader.incRecordCount();
+                    pageHeader.setDataLength(page.len);
+                    page.setDirty(true);
+                    pageHeader.setNextTupleID(loggable.tid);
+                    pageHeader.setLsn(loggable.getLsn());
+                } catch (final ArrayIndexOutOfBoundsException e) {
+                    LOG.warn("page: " + page.getPageNum() +
+                        "; len = " + page.len +
+                        "; value = " + loggable.value.length);
+                    throw e;
+                }
             }
         }
+        dataCache.add(page, 2);
     }
 
     protected void undoAddValue(final AddValueLoggable loggable) {
@@ -2287,23 +2336,25 @@ public class DOMFile extends BTree implements Lockable {
 
     protected void redoUpdateValue(final UpdateValueLoggable loggable) {
         final DOMPage page = getDOMPage(loggable.pageNum);
-        final DOMFilePageHeader ph = page.getPageHeader();
-        if (ph.getLsn() != Lsn.LSN_INVALID && requiresRedo(loggable, page)) {
-            final RecordPos rec = page.findRecord(ItemId.getId(loggable.tid));
-            SanityCheck.THROW_ASSERT(rec != null, 
-                "tid " + ItemId.getId(loggable.tid) +
-                " not found on page " + page.getPageNum() +
-                "; contents: " + debugPageContents(page));
+        synchronized (page) {
+            final DOMFilePageHeader ph = page.getPageHeader();
+            if (ph.getLsn() != Lsn.LSN_INVALID && requiresRedo(loggable, page)) {
+                final RecordPos rec = page.findRecord(ItemId.getId(loggable.tid));
+                SanityCheck.THROW_ASSERT(rec != null, 
+                    "tid " + ItemId.getId(loggable.tid) +
+                    " not found on page " + page.getPageNum() +
+                    "; contents: " + debugPageContents(page));
 //            ByteConversion.byteToShort(rec.getPage().data, rec.offset);
-            rec.offset += LENGTH_DATA_LENGTH;
-            if (ItemId.isRelocated(rec.getTupleID())) {
-                rec.offset += LENGTH_ORIGINAL_LOCATION;
+                rec.offset += LENGTH_DATA_LENGTH;
+                if (ItemId.isRelocated(rec.getTupleID())) {
+                    rec.offset += LENGTH_ORIGINAL_LOCATION;
+                }
+                System.arraycopy(loggable.value, 0, rec.getPage().data, rec.offset, loggable.value.length);
+                rec.getPage().getPageHeader().setLsn(loggable.getLsn());
+                rec.getPage().setDirty(true);
             }
-            System.arraycopy(loggable.value, 0, rec.getPage().data, rec.offset, loggable.value.length);
-            rec.getPage().getPageHeader().setLsn(loggable.getLsn());
-            rec.getPage().setDirty(true);
-            dataCache.add(rec.getPage());
         }
+        dataCache.add(page);
     }
 
     protected void undoUpdateValue(final UpdateValueLoggable loggable) {
@@ -2327,47 +2378,49 @@ public class DOMFile extends BTree implements Lockable {
 
     protected void redoRemoveValue(final RemoveValueLoggable loggable) {
         final DOMPage page = getDOMPage(loggable.pageNum);
-        final DOMFilePageHeader pageHeader = page.getPageHeader();
-        if (pageHeader.getLsn() != Lsn.LSN_INVALID && requiresRedo(loggable, page)) {
-            final RecordPos pos = page.findRecord(ItemId.getId(loggable.tid));
-            SanityCheck.ASSERT(pos != null, 
-                "Record not found: " + ItemId.getId(loggable.tid) + ": " + 
-                page.page.getPageInfo() + "\n" + 
-                debugPageContents(page));
-            //Position the stream at the very beginning of the record
-            final int startOffset = pos.offset - LENGTH_TID;
-            if (ItemId.isLink(loggable.tid)) {
-                final int end = pos.offset + LENGTH_FORWARD_LOCATION;
-                System.arraycopy(page.data, end, page.data, startOffset, page.len - end);
-                page.len = page.len - (LENGTH_DATA_LENGTH + LENGTH_FORWARD_LOCATION);
-            } else {
-                // get the record length
-                short l = ByteConversion.byteToShort(page.data, pos.offset);
-                if (ItemId.isRelocated(loggable.tid)) {
-                    pos.offset += LENGTH_ORIGINAL_LOCATION;
-                    l += LENGTH_ORIGINAL_LOCATION;
+        synchronized (page) {
+            final DOMFilePageHeader pageHeader = page.getPageHeader();
+            if (pageHeader.getLsn() != Lsn.LSN_INVALID && requiresRedo(loggable, page)) {
+                final RecordPos pos = page.findRecord(ItemId.getId(loggable.tid));
+                SanityCheck.ASSERT(pos != null, 
+                    "Record not found: " + ItemId.getId(loggable.tid) + ": " + 
+                    page.page.getPageInfo() + "\n" + 
+                    debugPageContents(page));
+                //Position the stream at the very beginning of the record
+                final int startOffset = pos.offset - LENGTH_TID;
+                if (ItemId.isLink(loggable.tid)) {
+                    final int end = pos.offset + LENGTH_FORWARD_LOCATION;
+                    System.arraycopy(page.data, end, page.data, startOffset, page.len - end);
+                    page.len = page.len - (LENGTH_DATA_LENGTH + LENGTH_FORWARD_LOCATION);
+                } else {
+                    // get the record length
+                    short l = ByteConversion.byteToShort(page.data, pos.offset);
+                    if (ItemId.isRelocated(loggable.tid)) {
+                        pos.offset += LENGTH_ORIGINAL_LOCATION;
+                        l += LENGTH_ORIGINAL_LOCATION;
+                    }
+                    if (l == OVERFLOW) {
+                        l += LENGTH_OVERFLOW_LOCATION;
+                    }
+                    // end offset
+                    final int end = startOffset + LENGTH_TID + LENGTH_DATA_LENGTH + l;
+                    final int dlen = pageHeader.getDataLength();
+                    // remove old value
+                    System.arraycopy(page.data, end, page.data, startOffset, dlen - end);
+                    page.setDirty(true);
+                    page.len = dlen - (LENGTH_TID + LENGTH_DATA_LENGTH + l);
                 }
-                if (l == OVERFLOW) {
-                    l += LENGTH_OVERFLOW_LOCATION;
+                if (page.len < 0) {
+                    LOG.error("page length < 0");
+                    //TODO : throw exception ? -pb
                 }
-                // end offset
-                final int end = startOffset + LENGTH_TID + LENGTH_DATA_LENGTH + l;
-                final int dlen = pageHeader.getDataLength();
-                // remove old value
-                System.arraycopy(page.data, end, page.data, startOffset, dlen - end);
+                pageHeader.setDataLength(page.len);
+                pageHeader.decRecordCount();
+                pageHeader.setLsn(loggable.getLsn());
                 page.setDirty(true);
-                page.len = dlen - (LENGTH_TID + LENGTH_DATA_LENGTH + l);
             }
-            if (page.len < 0) {
-                LOG.error("page length < 0");
-                //TODO : throw exception ? -pb
-            }
-            pageHeader.setDataLength(page.len);
-            pageHeader.decRecordCount();
-            pageHeader.setLsn(loggable.getLsn());
-            page.setDirty(true);
-            dataCache.add(page);
         }
+        dataCache.add(page);
     }
 
     protected void undoRemoveValue(final RemoveValueLoggable loggable) {
@@ -2581,43 +2634,45 @@ public class DOMFile extends BTree implements Lockable {
 
     protected void redoInsertValue(final InsertValueLoggable loggable) {
         final DOMPage page = getDOMPage(loggable.pageNum);
-        final DOMFilePageHeader pageHeader = page.getPageHeader();
-        if (pageHeader.getLsn() != Lsn.LSN_INVALID && requiresRedo(loggable, page)) {
-            final int dlen = pageHeader.getDataLength();
-            int offset = loggable.offset;
-            // insert in the middle of the page?
-            if (offset < dlen) {
-                final int end = offset + LENGTH_TID + LENGTH_DATA_LENGTH + loggable.value.length;
-                try {
-                    System.arraycopy(page.data, offset, page.data, end, dlen - offset);
-                } catch(final ArrayIndexOutOfBoundsException e) {
-                    LOG.error(e);
-                    SanityCheck.TRACE("Error while copying data on page " + page.getPageNum() +
-                        "; tid: " + loggable.tid +
-                        "; offset: " + offset +
-                        "; end: " + end +
-                        "; len: " + (dlen - offset));
+        synchronized (page) {
+            final DOMFilePageHeader pageHeader = page.getPageHeader();
+            if (pageHeader.getLsn() != Lsn.LSN_INVALID && requiresRedo(loggable, page)) {
+                final int dlen = pageHeader.getDataLength();
+                int offset = loggable.offset;
+                // insert in the middle of the page?
+                if (offset < dlen) {
+                    final int end = offset + LENGTH_TID + LENGTH_DATA_LENGTH + loggable.value.length;
+                    try {
+                        System.arraycopy(page.data, offset, page.data, end, dlen - offset);
+                    } catch(final ArrayIndexOutOfBoundsException e) {
+                        LOG.error(e);
+                        SanityCheck.TRACE("Error while copying data on page " + page.getPageNum() +
+                            "; tid: " + loggable.tid +
+                            "; offset: " + offset +
+                            "; end: " + end +
+                            "; len: " + (dlen - offset));
+                    }
                 }
+                // writing tid
+                ByteConversion.shortToByte(loggable.tid, page.data, offset);
+                offset += LENGTH_TID;
+                page.len += LENGTH_TID;
+                // writing value length
+                ByteConversion.shortToByte(loggable.isOverflow() ?
+                    OVERFLOW : (short) loggable.value.length, page.data, offset);
+                offset += LENGTH_DATA_LENGTH;
+                page.len += LENGTH_DATA_LENGTH;
+                // writing data
+                System.arraycopy(loggable.value, 0, page.data, offset, loggable.value.length);
+                offset += loggable.value.length;
+                page.len += loggable.value.length;
+                pageHeader.incRecordCount();
+                pageHeader.setDataLength(page.len);
+                pageHeader.setNextTupleID(ItemId.getId(loggable.tid));
+                page.setDirty(true);
             }
-            // writing tid
-            ByteConversion.shortToByte(loggable.tid, page.data, offset);
-            offset += LENGTH_TID;
-            page.len += LENGTH_TID;
-            // writing value length
-            ByteConversion.shortToByte(loggable.isOverflow() ?
-                OVERFLOW : (short) loggable.value.length, page.data, offset);
-            offset += LENGTH_DATA_LENGTH;
-            page.len += LENGTH_DATA_LENGTH;
-            // writing data
-            System.arraycopy(loggable.value, 0, page.data, offset, loggable.value.length);
-            offset += loggable.value.length;
-            page.len += loggable.value.length;
-            pageHeader.incRecordCount();
-            pageHeader.setDataLength(page.len);
-            pageHeader.setNextTupleID(ItemId.getId(loggable.tid));
-            page.setDirty(true);
-            dataCache.add(page);
         }
+        dataCache.add(page);
     }
 
     protected void undoInsertValue(final InsertValueLoggable loggable) {
@@ -2700,19 +2755,21 @@ public class DOMFile extends BTree implements Lockable {
 
     protected void redoAddLink(final AddLinkLoggable loggable) {
         final DOMPage page = getDOMPage(loggable.pageNum);
-        final DOMFilePageHeader pageHeader = page.getPageHeader();
-        if (pageHeader.getLsn() != Lsn.LSN_INVALID && requiresRedo(loggable, page)) {
-            ByteConversion.shortToByte(ItemId.setIsLink(loggable.tid), page.data, page.len);
-            page.len += LENGTH_TID;
-            ByteConversion.longToByte(loggable.link, page.data, page.len);
-            page.len += LENGTH_FORWARD_LOCATION;
-            pageHeader.setNextTupleID(ItemId.getId(loggable.tid));
-            pageHeader.setDataLength(page.len);
-            pageHeader.setLsn(loggable.getLsn());
-            pageHeader.incRecordCount();
-            page.setDirty(true);
-            dataCache.add(page);
+        synchronized (page) {
+            final DOMFilePageHeader pageHeader = page.getPageHeader();
+            if (pageHeader.getLsn() != Lsn.LSN_INVALID && requiresRedo(loggable, page)) {
+                ByteConversion.shortToByte(ItemId.setIsLink(loggable.tid), page.data, page.len);
+                page.len += LENGTH_TID;
+                ByteConversion.longToByte(loggable.link, page.data, page.len);
+                page.len += LENGTH_FORWARD_LOCATION;
+                pageHeader.setNextTupleID(ItemId.getId(loggable.tid));
+                pageHeader.setDataLength(page.len);
+                pageHeader.setLsn(loggable.getLsn());
+                pageHeader.incRecordCount();
+                page.setDirty(true);
+            }
         }
+        dataCache.add(page);
     }
 
     protected void undoAddLink(final AddLinkLoggable loggable) {
@@ -2736,13 +2793,15 @@ public class DOMFile extends BTree implements Lockable {
     
     protected void redoUpdateLink(final UpdateLinkLoggable loggable) {
         final DOMPage page = getDOMPage(loggable.pageNum);
-        final DOMFilePageHeader pageHeader = page.getPageHeader();
-        if (pageHeader.getLsn() != Lsn.LSN_INVALID && requiresRedo(loggable, page)) {
-            ByteConversion.longToByte(loggable.link, page.data, loggable.offset);
-            pageHeader.setLsn(loggable.getLsn());
-            page.setDirty(true);
-            dataCache.add(page);
+        synchronized (page) {
+            final DOMFilePageHeader pageHeader = page.getPageHeader();
+            if (pageHeader.getLsn() != Lsn.LSN_INVALID && requiresRedo(loggable, page)) {
+                ByteConversion.longToByte(loggable.link, page.data, loggable.offset);
+                pageHeader.setLsn(loggable.getLsn());
+                page.setDirty(true);
+            }
         }
+        dataCache.add(page);
     }
 
     protected void undoUpdateLink(final UpdateLinkLoggable loggable) {
@@ -2756,36 +2815,38 @@ public class DOMFile extends BTree implements Lockable {
 
     protected void redoAddMovedValue(final AddMovedValueLoggable loggable) {
         final DOMPage page = getDOMPage(loggable.pageNum);
-        final DOMFilePageHeader pageHeader = page.getPageHeader();
-        if (pageHeader.getLsn() != Lsn.LSN_INVALID && requiresRedo(loggable, page)) {
-            try {
-                ByteConversion.shortToByte(ItemId.setIsRelocated(loggable.tid), page.data, page.len);
-                page.len += LENGTH_TID;
-                final short vlen = (short) loggable.value.length;
-                // save data length
-                // overflow pages have length 0
-                ByteConversion.shortToByte(vlen, page.data, page.len);
-                page.len += LENGTH_DATA_LENGTH;
-                ByteConversion.longToByte(loggable.backLink, page.data, page.len);
-                page.len += LENGTH_FORWARD_LOCATION;
-                // save data
-                System.arraycopy(loggable.value, 0, page.data, page.len, vlen);
-                page.len += vlen;
-                //TOUNDERSTAND : why 2 occurences of ph.incRecordCount(); ?
-                pageHeader.incRecordCount();
-                pageHeader.setDataLength(page.len);
-                pageHeader.setNextTupleID(ItemId.getId(loggable.tid));
-                pageHeader.incRecordCount();
-                pageHeader.setLsn(loggable.getLsn());
-                page.setDirty(true);
-                dataCache.add(page, 2);
-            } catch (final ArrayIndexOutOfBoundsException e) {
-                LOG.error("page: " + page.getPageNum()
-                    + "; len = " + page.len +
-                    "; value = " + loggable.value.length);
-                throw e;
+        synchronized (page) {
+            final DOMFilePageHeader pageHeader = page.getPageHeader();
+            if (pageHeader.getLsn() != Lsn.LSN_INVALID && requiresRedo(loggable, page)) {
+                try {
+                    ByteConversion.shortToByte(ItemId.setIsRelocated(loggable.tid), page.data, page.len);
+                    page.len += LENGTH_TID;
+                    final short vlen = (short) loggable.value.length;
+                    // save data length
+                    // overflow pages have length 0
+                    ByteConversion.shortToByte(vlen, page.data, page.len);
+                    page.len += LENGTH_DATA_LENGTH;
+                    ByteConversion.longToByte(loggable.backLink, page.data, page.len);
+                    page.len += LENGTH_FORWARD_LOCATION;
+                    // save data
+                    System.arraycopy(loggable.value, 0, page.data, page.len, vlen);
+                    page.len += vlen;
+                    //TOUNDERSTAND : why 2 occurences of ph.incRecordCount(); ?
+                    pageHeader.incRecordCount();
+                    pageHeader.setDataLength(page.len);
+                    pageHeader.setNextTupleID(ItemId.getId(loggable.tid));
+                    pageHeader.incRecordCount();
+                    pageHeader.setLsn(loggable.getLsn());
+                    page.setDirty(true);
+                } catch (final ArrayIndexOutOfBoundsException e) {
+                    LOG.error("page: " + page.getPageNum()
+                        + "; len = " + page.len +
+                        "; value = " + loggable.value.length);
+                    throw e;
+                }
             }
         }
+        dataCache.add(page, 2);
     }
 
     protected void undoAddMovedValue(final AddMovedValueLoggable loggable) {
@@ -2824,18 +2885,20 @@ public class DOMFile extends BTree implements Lockable {
 
     protected void redoUpdateHeader(final UpdateHeaderLoggable loggable) {
         final DOMPage page = getDOMPage(loggable.pageNum);
-        final DOMFilePageHeader pageHeader = page.getPageHeader();
-        if (pageHeader.getLsn() != Lsn.LSN_INVALID && requiresRedo(loggable, page)) {
-            if (loggable.nextPage != Page.NO_PAGE) {
-                pageHeader.setNextDataPage(loggable.nextPage);
-            }
-            if (loggable.prevPage != Page.NO_PAGE) {
-                pageHeader.setPrevDataPage(loggable.prevPage);
+        synchronized (page) {
+            final DOMFilePageHeader pageHeader = page.getPageHeader();
+            if (pageHeader.getLsn() != Lsn.LSN_INVALID && requiresRedo(loggable, page)) {
+                if (loggable.nextPage != Page.NO_PAGE) {
+                    pageHeader.setNextDataPage(loggable.nextPage);
+                }
+                if (loggable.prevPage != Page.NO_PAGE) {
+                    pageHeader.setPrevDataPage(loggable.prevPage);
+                }
+                pageHeader.setLsn(loggable.getLsn());
+                page.setDirty(true);
             }
-            pageHeader.setLsn(loggable.getLsn());
-            page.setDirty(true);
-            dataCache.add(page, 2);
         }
+        dataCache.add(page, 2);
     }
 
     protected void undoUpdateHeader(final UpdateHeaderLoggable loggable) {
@@ -3149,7 +3212,12 @@ public class DOMFile extends BTree implements Lockable {
             saved = true;
         }
 
-        public void write() {
+        /**
+         * Synchronized with the redo of the page, which runs concurrently with
+         * the redo of other pages during recovery, see {@link Loggable#getPageNum()}.
+         * Adding those pages to the cache may evict this one.
+         */
+        public synchronized void write() {
             if (page == null) {
                 return;
             }
@@ -84,6 +84,16 @@ public class InsertValueLoggable extends AbstractLoggable {
         return 13 + value.length;
     }
 
+    @Override
+    public byte getStorageFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
+    @Override
+    public long getPageNum() {
+        return pageNum;
+    }
+
     @Override
     public void redo() throws LogException {
         domDb.redoInsertValue(this);
@@ -72,6 +72,11 @@ public class RemoveOverflowLoggable extends AbstractLoggable {
         return 10 + oldData.length;
     }
 
+    @Override
+    public byte getStorageFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     @Override
     public void redo() throws LogException {
         domDb.redoRemoveOverflow(this);
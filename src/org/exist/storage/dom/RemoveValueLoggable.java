@@ -88,6 +88,16 @@ public class RemoveValueLoggable extends AbstractLoggable {
         return 11 + oldData.length + (ItemId.isRelocated(tid) ? 8 : 0);
     }
 
+    @Override
+    public byte getStorageFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
+    @Override
+    public long getPageNum() {
+        return pageNum;
+    }
+
     @Override
     public void redo() throws LogException {
         domDb.redoRemoveValue(this);
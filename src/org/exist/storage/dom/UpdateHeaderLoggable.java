@@ -77,6 +77,16 @@ public class UpdateHeaderLoggable extends AbstractLoggable {
         return 20;
     }
 
+    @Override
+    public byte getStorageFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
+    @Override
+    public long getPageNum() {
+        return pageNum;
+    }
+
     @Override
     public void redo() throws LogException {
         domDb.redoUpdateHeader(this);
@@ -69,6 +69,16 @@ public class UpdateLinkLoggable extends AbstractLoggable {
         return 22;
     }
 
+    @Override
+    public byte getStorageFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
+    @Override
+    public long getPageNum() {
+        return pageNum;
+    }
+
     @Override
     public void redo() throws LogException {
         domDb.redoUpdateLink(this);
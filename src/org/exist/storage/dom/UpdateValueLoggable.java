@@ -80,6 +80,16 @@ public class UpdateValueLoggable extends AbstractLoggable {
         return 10 + (value.length * 2);
     }
 
+    @Override
+    public byte getStorageFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
+    @Override
+    public long getPageNum() {
+        return pageNum;
+    }
+
     @Override
     public void redo() throws LogException {
         domDb.redoUpdateValue(this);
@@ -44,6 +44,11 @@ public abstract class AbstractBFileLoggable extends AbstractLoggable {
         this.broker = (NativeBroker) broker;
     }
 
+    @Override
+    public byte getStorageFileId() {
+        return fileId;
+    }
+
     @Override
     public void write(final ByteBuffer out) {
         out.put(fileId);
@@ -37,7 +37,7 @@ import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.cache.Cache;
 import org.exist.storage.cache.Cacheable;
-import org.exist.storage.cache.LRUCache;
+import org.exist.storage.cache.ConcurrentClockCache;
 import org.exist.storage.io.VariableByteArrayInput;
 import org.exist.storage.io.VariableByteInput;
 import org.exist.storage.io.VariableByteOutputStream;
@@ -62,6 +62,7 @@ import java.nio.file.Path;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -86,7 +87,10 @@ public class BFile extends BTree {
 
     protected final static Logger LOGSTATS = LogManager.getLogger( NativeBroker.EXIST_STATISTICS_LOGGER );
 
-    public final static short FILE_FORMAT_VERSION_ID = 13;
+    public final static short FILE_FORMAT_VERSION_ID = 14;
+
+    /** files of this version use the old key format of the B+-tree leaves */
+    public final static short LEGACY_FILE_FORMAT_VERSION_ID = 13;
     
     public final static long UNKNOWN_ADDRESS = -1;
 
@@ -148,7 +152,7 @@ public class BFile extends BTree {
             final double cacheGrowth, final double thresholdData) throws DBException {
         super(pool, fileId, recoveryEnabled, cacheManager, file);
         fileHeader = (BFileHeader) getFileHeader();
-        dataCache = new LRUCache<>(FileUtils.fileName(file), 64, cacheGrowth, thresholdData, CacheManager.DATA_CACHE);
+        dataCache = new ConcurrentClockCache<>(FileUtils.fileName(file), 64, cacheGrowth, thresholdData, CacheManager.DATA_CACHE);
         cacheManager.registerCache(dataCache);
         minFree = PAGE_MIN_FREE;
         lock = new ReentrantReadWriteLock(FileUtils.fileName(file));
@@ -172,6 +176,11 @@ public class BFile extends BTree {
         return FILE_FORMAT_VERSION_ID;
     }
 
+    @Override
+    public short getLegacyFileVersion() {
+        return LEGACY_FILE_FORMAT_VERSION_ID;
+    }
+
     /**
      * Returns the Lock object responsible for this BFile.
      * 
@@ -385,6 +394,21 @@ public class BFile extends BTree {
         return flushed;
     }
 
+    @Override
+    public List<Cacheable> getDirtyPages() {
+        final List<Cacheable> pages = new ArrayList<>(dataCache.getDirtyItems());
+        pages.addAll(super.getDirtyPages());
+        return pages;
+    }
+
+    @Override
+    public boolean flushPage(final Cacheable page) {
+        if (page instanceof DataPage) {
+            return dataCache.flush((DataPage) page);
+        }
+        return super.flushPage(page);
+    }
+
     public BufferStats getDataBufferStats() {
         if (dataCache == null) {
             return null;
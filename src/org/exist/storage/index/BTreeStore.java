@@ -12,7 +12,10 @@ import java.nio.file.Path;
 
 public class BTreeStore extends BTree {
 
-    public final static short FILE_FORMAT_VERSION_ID = 2;
+    public final static short FILE_FORMAT_VERSION_ID = 3;
+
+    /** files of this version use the old key format of the B+-tree leaves */
+    public final static short LEGACY_FILE_FORMAT_VERSION_ID = 2;
 
     protected Lock lock = null;
 
@@ -39,4 +42,9 @@ public class BTreeStore extends BTree {
     public short getFileVersion() {
         return FILE_FORMAT_VERSION_ID;
     }
+
+    @Override
+    public short getLegacyFileVersion() {
+        return LEGACY_FILE_FORMAT_VERSION_ID;
+    }
 }
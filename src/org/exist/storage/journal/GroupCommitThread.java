@@ -0,0 +1,310 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.journal;
+
+import net.jcip.annotations.GuardedBy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Flushes commit records of concurrent transactions in batches.
+ *
+ * When group commit is enabled, a committing transaction writes its
+ * commit record into the journal buffer and then calls {@link #waitForLsn(long)}.
+ * Instead of every committer flushing and syncing the journal on its own,
+ * this thread collects the committers into a batch, writes the journal buffer
+ * once, forces it to disk once and then releases every committer of the batch.
+ *
+ * The flusher keeps a batch open as long as further committers arrive, but
+ * not longer than the configured maximum batch delay. It waits for the next
+ * committer for about twice the recent time between the committers of a batch;
+ * while batches hold a single committer, the wait shrinks, so a lone committer
+ * is not delayed. Once several committers join a batch while the previous one
+ * is flushed, the flusher waits for further committers again.
+ *
+ * If a flush fails, the committers of that batch fail with the error. The
+ * journal is incomplete then and switches the database to read-only, see
+ * {@link Journal#flushGroupCommit()}, so the flushes of later batches fail, too.
+ */
+public class GroupCommitThread extends Thread {
+
+    private static final Logger LOG = LogManager.getLogger(GroupCommitThread.class);
+
+    private final Journal journal;
+    private final long maxDelayNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition commitRequested = lock.newCondition();
+    private final Condition commitDurable = lock.newCondition();
+
+    @GuardedBy("lock") private Batch batch = new Batch();
+    @GuardedBy("lock") private long durableLsn = Lsn.LSN_INVALID;
+    @GuardedBy("lock") private long lastArrival = 0;
+    @GuardedBy("lock") private long arrivalGapNanos = 0;
+    @GuardedBy("lock") private long waitNanos = 0;
+    @GuardedBy("lock") private boolean terminated = false;
+
+    // used as termination flag, volatile semantics are sufficient
+    private volatile boolean shutdown = false;
+
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder commitCount = new LongAdder();
+    private final AtomicInteger maxBatchSize = new AtomicInteger();
+    private final LongAdder totalCommitLatencyNanos = new LongAdder();
+    private final AtomicInteger lastBatchSize = new AtomicInteger();
+
+    /**
+     * The committers waiting for the same flush.
+     */
+    private static final class Batch {
+        private long lsn = Lsn.LSN_INVALID;
+        private int size = 0;
+        private boolean done = false;
+        private JournalException failure = null;
+    }
+
+    /**
+     * @param journal the journal to flush
+     * @param maxDelay the maximum time in milliseconds the flusher waits
+     *                 for further committers to join a batch
+     */
+    public GroupCommitThread(final Journal journal, final long maxDelay) {
+        super("exist-journal-group-commit");
+        setDaemon(true);
+        this.journal = journal;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelay));
+    }
+
+    /**
+     * Block the calling thread until the journal has been
+     * written (and synced, if sync-on-commit is enabled)
+     * up to and including the given LSN.
+     *
+     * @param lsn the LSN of the commit record
+     *
+     * @throws JournalException if the journal could not be flushed up to the LSN
+     */
+    public void waitForLsn(final long lsn) throws JournalException {
+        if (lsn == Lsn.LSN_INVALID) {
+            return;
+        }
+        final long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (lsn > durableLsn) {
+                if (terminated) {
+                    throw new JournalException("Commit record could not be flushed to the journal: group commit has been shut down");
+                }
+                final Batch joined = batch;
+                if (joined.size > 0) {
+                    final long gap = start - lastArrival;
+                    arrivalGapNanos = arrivalGapNanos == 0 ? gap : (7 * arrivalGapNanos + gap) / 8;
+                }
+                lastArrival = start;
+                joined.size++;
+                if (lsn > joined.lsn) {
+                    joined.lsn = lsn;
+                }
+                commitRequested.signal();
+                while (!joined.done && !terminated) {
+                    commitDurable.awaitUninterruptibly();
+                }
+                if (joined.failure != null) {
+                    throw new JournalException("Commit record could not be flushed to the journal: " + joined.failure.getMessage(), joined.failure);
+                }
+                if (!joined.done) {
+                    throw new JournalException("Commit record could not be flushed to the journal: group commit has been shut down");
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        commitCount.increment();
+        totalCommitLatencyNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Shutdown the group commit thread. Outstanding
+     * commits are flushed before the thread terminates.
+     */
+    public void shutdown() {
+        shutdown = true;
+        lock.lock();
+        try {
+            commitRequested.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!shutdown) {
+            final Batch flushing;
+            lock.lock();
+            try {
+                while (batch.size == 0 && !shutdown) {
+                    commitRequested.awaitUninterruptibly();
+                }
+                if (shutdown) {
+                    break;
+                }
+                collectCommitters();
+                flushing = batch;
+                batch = new Batch();
+
+                // the next batch waits for twice the recent time between committers,
+                // or shorter if this committer was alone
+                if (flushing.size > 1) {
+                    waitNanos = Math.min(maxDelayNanos, 2 * arrivalGapNanos);
+                } else {
+                    waitNanos /= 2;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            flush(flushing);
+
+            batchCount.increment();
+            lastBatchSize.set(flushing.size);
+            maxBatchSize.accumulateAndGet(flushing.size, Math::max);
+        }
+
+        // shutdown: flush whatever is outstanding and release all waiters
+        final Batch outstanding;
+        lock.lock();
+        try {
+            outstanding = batch;
+            batch = new Batch();
+        } finally {
+            lock.unlock();
+        }
+        if (outstanding.size > 0) {
+            flush(outstanding);
+        }
+        lock.lock();
+        try {
+            terminated = true;
+            commitDurable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Give other committers the chance to join the batch. Returns if no committer
+     * arrived within the current wait, or if the maximum delay has elapsed.
+     */
+    @GuardedBy("lock")
+    private void collectCommitters() {
+        if (waitNanos <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        final long deadline = now + maxDelayNanos;
+        long quietUntil = now + waitNanos;
+        int size = batch.size;
+        while (!shutdown) {
+            if (batch.size > size) {
+                size = batch.size;
+                quietUntil = now + waitNanos;
+            }
+            final long until = Math.min(deadline, quietUntil);
+            if (now - until >= 0) {
+                break;
+            }
+            try {
+                commitRequested.awaitNanos(until - now);
+            } catch (final InterruptedException e) {
+                break;
+            }
+            now = System.nanoTime();
+        }
+    }
+
+    private void flush(final Batch flushing) {
+        JournalException error = null;
+        try {
+            journal.flushGroupCommit();
+        } catch (final JournalException e) {
+            LOG.error("Group commit flush of the journal failed: " + e.getMessage(), e);
+            error = e;
+        }
+        lock.lock();
+        try {
+            if (error != null) {
+                flushing.failure = error;
+            } else if (flushing.lsn > durableLsn) {
+                durableLsn = flushing.lsn;
+            }
+            flushing.done = true;
+            commitDurable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxDelay() {
+        return TimeUnit.NANOSECONDS.toMillis(maxDelayNanos);
+    }
+
+    /**
+     * @return the number of batches flushed so far
+     */
+    public long getBatchCount() {
+        return batchCount.sum();
+    }
+
+    /**
+     * @return the number of commits released so far
+     */
+    public long getCommitCount() {
+        return commitCount.sum();
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize.get();
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    public double getAverageBatchSize() {
+        final long batches = batchCount.sum();
+        return batches == 0 ? 0 : (double) commitCount.sum() / batches;
+    }
+
+    /**
+     * @return the average time in milliseconds a committer
+     * waited for its commit record to become durable
+     */
+    public double getAverageCommitLatency() {
+        final long commits = commitCount.sum();
+        return commits == 0 ? 0 : (totalCommitLatencyNanos.sum() / (double) commits) / 1_000_000d;
+    }
+}
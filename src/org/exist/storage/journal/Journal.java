@@ -53,6 +53,8 @@ import org.exist.util.sanity.SanityCheck;
  * 
  * A buffer is used to temporarily buffer journal entries. To guarantee consistency, the buffer will be flushed
  * and the journal is synched after every commit or whenever a db page is written to disk.
+ * If group commit is enabled, commit records of concurrent transactions are flushed and synched
+ * in batches by a {@link GroupCommitThread} instead.
  * 
  * Each entry has the structure:
  * 
@@ -80,15 +82,23 @@ public class Journal {
     public final static String RECOVERY_SYNC_ON_COMMIT_ATTRIBUTE = "sync-on-commit";
     public final static String RECOVERY_JOURNAL_DIR_ATTRIBUTE = "journal-dir";
     public final static String RECOVERY_SIZE_LIMIT_ATTRIBUTE = "size"; 
+    public final static String RECOVERY_GROUP_COMMIT_DELAY_ATTRIBUTE = "group-commit-delay";
 
     public final static String PROPERTY_RECOVERY_SIZE_LIMIT = "db-connection.recovery.size-limit";
     public final static String PROPERTY_RECOVERY_JOURNAL_DIR = "db-connection.recovery.journal-dir";
     public final static String PROPERTY_RECOVERY_SYNC_ON_COMMIT = "db-connection.recovery.sync-on-commit";
+    public final static String PROPERTY_RECOVERY_GROUP_COMMIT_DELAY = "db-connection.recovery.group-commit-delay";
 
     public final static String LOG_FILE_SUFFIX = "log";
     public final static String BAK_FILE_SUFFIX = ".bak";
 
     public final static String LCK_FILE = "journal.lck";
+
+    /**
+     * Written into the journal directory when a hot backup is restored. Contains the LSN
+     * from which the {@link org.exist.storage.recovery.RecoveryManager} redoes the journal.
+     */
+    public final static String REDO_LSN_FILE = "redo.lsn";
     
     /** the length of the header of each entry: entryType + transactionId + length */
     public final static int LOG_ENTRY_HEADER_LEN = 11;
@@ -99,6 +109,9 @@ public class Journal {
     /** default maximum journal size */
     public final static int DEFAULT_MAX_SIZE = 10; //MB
 
+    /** default maximum time a group commit waits for further committers */
+    public final static int DEFAULT_GROUP_COMMIT_DELAY = 2; //ms
+
     /** minimal size the journal needs to have to be replaced by a new file during a checkpoint */
     private static final long MIN_REPLACE = 1024 * 1024;
 
@@ -118,6 +131,9 @@ public class Journal {
     /** Synching the journal is done by a background thread */
     private final FileSyncThread syncThread;
 
+    /** Batches the commit records of concurrent transactions, if group commit is enabled */
+    private final Optional<GroupCommitThread> groupCommitThread;
+
     /** latch used to synchronize writes to the channel */
     private final Object latch = new Object();
 
@@ -146,9 +162,18 @@ public class Journal {
     /** stores the current LSN of the last file sync on the file */ 
     private long lastSyncLsn = Lsn.LSN_INVALID;
 
+    /**
+     * the first error while writing or syncing the buffer, after which the content of the journal
+     * is incomplete and the database is read-only
+     */
+    private volatile IOException flushFailure = null;
+
     /** set to true while recovery is in progress */
     private boolean inRecovery = false;
 
+    /** number of hot backups which need the current file, see {@link #retainFile()} */
+    private int retainCount = 0;
+
     /** the {@link BrokerPool} that created this manager */
     private final BrokerPool pool;
 
@@ -208,6 +233,19 @@ public class Journal {
         }
 
         this.journalSizeLimit = 1024 * 1024 * pool.getConfiguration().getProperty(PROPERTY_RECOVERY_SIZE_LIMIT, DEFAULT_MAX_SIZE);
+
+        final boolean groupCommit = pool.getConfiguration().getProperty(BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, false);
+        if (groupCommit) {
+            final int groupCommitDelay = pool.getConfiguration().getProperty(PROPERTY_RECOVERY_GROUP_COMMIT_DELAY, DEFAULT_GROUP_COMMIT_DELAY);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("GroupCommitDelay = " + groupCommitDelay + "ms");
+            }
+            final GroupCommitThread groupCommitter = new GroupCommitThread(this, groupCommitDelay);
+            groupCommitter.start();
+            this.groupCommitThread = Optional.of(groupCommitter);
+        } else {
+            this.groupCommitThread = Optional.empty();
+        }
     }
 
     public void initialize() throws EXistException, ReadOnlyException {
@@ -290,7 +328,8 @@ public class Journal {
             lastSyncLsn = currentLsn;
         }
         try {
-            if (channel != null && channel.size() >= journalSizeLimit) {
+            // while the file is retained, a checkpoint could not switch it anyway
+            if (retainCount == 0 && channel != null && channel.size() >= journalSizeLimit) {
                 pool.triggerCheckpoint();
             }
         } catch (final IOException e) {
@@ -298,6 +337,92 @@ public class Journal {
         }
     }
 
+    /**
+     * Wait until the journal has been flushed, and synced if sync-on-commit is enabled,
+     * up to the given LSN. If group commit is disabled, the caller is expected to have
+     * flushed the journal itself and this method returns immediately.
+     *
+     * @param lsn the LSN of a commit record
+     *
+     * @throws JournalException if the journal could not be flushed up to the LSN
+     */
+    public void waitForGroupCommit(final long lsn) throws JournalException {
+        if (groupCommitThread.isPresent()) {
+            groupCommitThread.get().waitForLsn(lsn);
+        }
+    }
+
+    /**
+     * @return the group commit thread, if group commit is enabled
+     */
+    public Optional<GroupCommitThread> getGroupCommitThread() {
+        return groupCommitThread;
+    }
+
+    /**
+     * Flush the current buffer for a batch of commits. Called by the
+     * {@link GroupCommitThread}. The sync is done on the calling thread
+     * after the journal monitor has been released, so that other
+     * transactions can continue writing to the buffer meanwhile.
+     *
+     * @throws JournalException if the journal is closed, or if writing or
+     *     syncing it failed, now or during an earlier flush, after which the
+     *     database is read-only
+     */
+    void flushGroupCommit() throws JournalException {
+        final boolean sync;
+        synchronized (this) {
+            if (inRecovery || currentBuffer == null) {
+                throw new JournalException("The journal is not open for writing");
+            }
+            flushBuffer();
+            if (flushFailure != null) {
+                throw new JournalException("Flushing the journal failed: " + flushFailure.getMessage(), flushFailure);
+            }
+            sync = syncOnCommit && currentLsn > lastSyncLsn;
+            if (sync) {
+                lastSyncLsn = currentLsn;
+            }
+            try {
+                // while the file is retained, a checkpoint could not switch it anyway
+                if (retainCount == 0 && channel != null && channel.size() >= journalSizeLimit) {
+                    pool.triggerCheckpoint();
+                }
+            } catch (final IOException e) {
+                LOG.warn("Failed to trigger checkpoint!", e);
+            }
+        }
+        if (sync) {
+            synchronized (latch) {
+                try {
+                    if (channel == null || !channel.isOpen()) {
+                        throw new JournalException("The journal file has been closed");
+                    }
+                    channel.force(false);
+                } catch (final IOException e) {
+                    // whether the written entries reached the disk is unknown, do not sync them again
+                    failed(e);
+                    throw new JournalException("Syncing the journal for group commit failed: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the first failure to write the journal and switches the database to
+     * read-only, as later entries could not be recovered without the lost ones.
+     */
+    private void failed(final IOException e) {
+        synchronized (latch) {
+            if (flushFailure != null) {
+                return;
+            }
+            flushFailure = e;
+        }
+        LOG.fatal("The journal is incomplete: " + e.getMessage());
+        pool.setReadOnly();
+    }
+
     /**
      * 
      */
@@ -319,6 +444,7 @@ public class Journal {
                 }
             } catch (final IOException e) {
                 LOG.warn("Flushing log file failed!", e);
+                failed(e);
             } finally {
                 currentBuffer.clear();
             }
@@ -328,7 +454,7 @@ public class Journal {
     /**
      * Write a checkpoint record to the journal and flush it. If switchLogFiles is true,
      * a new journal will be started, but only if the file is larger than
-     * {@link #MIN_REPLACE}. The old log is removed.
+     * {@link #MIN_REPLACE} and not retained by a hot backup. The old log is removed.
      *
      * @param txnId The transaction id
      * @param switchLogFiles Indicates whether a new journal file should be started
@@ -345,7 +471,7 @@ public class Journal {
             flushToLog(true, true);
         }
         try {
-            if (switchLogFiles && channel != null && channel.position() > MIN_REPLACE) {
+            if (switchLogFiles && !isRetained() && channel != null && channel.position() > MIN_REPLACE) {
                 final Path oldFile = getFile(currentFile);
                 final RemoveThread rt = new RemoveThread(channel, oldFile);
                 try {
@@ -361,6 +487,62 @@ public class Journal {
         }
     }
 
+    /**
+     * Write a fuzzy checkpoint record to the journal and flush it. Dirty pages may
+     * not have been written to disk yet, so recovery will redo the journal from
+     * the given redo LSN on. The journal file is never switched, as the entries
+     * following the redo LSN are still needed.
+     *
+     * @param txnId The transaction id
+     * @param redoLsn The LSN up to which all changes have been written to disk
+     * @throws JournalException
+     */
+    public void fuzzyCheckpoint(final long txnId, final long redoLsn) throws JournalException {
+        LOG.debug("Fuzzy checkpoint reached, redo LSN: " + Lsn.dump(redoLsn));
+        writeToLog(new Checkpoint(txnId, redoLsn));
+        flushToLog(true, true);
+    }
+
+    /**
+     * Retain the current journal file for a hot backup: until {@link #releaseFile()}
+     * is called, checkpoints do not switch to a new file, so the file contains all
+     * entries written while the data files are copied.
+     *
+     * Called through the {@link JournalManager}, which also serializes checkpoints,
+     * so a checkpoint cannot switch the file in between.
+     *
+     * @return the LSN of the start of the current file. All changes written before
+     *     have been flushed to the data files by the checkpoint which started the file.
+     */
+    public synchronized long retainFile() {
+        retainCount++;
+        return Lsn.create(currentFile, 1);
+    }
+
+    /**
+     * Release the file retained by {@link #retainFile()}.
+     */
+    public synchronized void releaseFile() {
+        if (retainCount > 0) {
+            retainCount--;
+        }
+    }
+
+    private synchronized boolean isRetained() {
+        return retainCount > 0;
+    }
+
+    /**
+     * Flush the journal for a hot backup of the retained file, see {@link #retainFile()}.
+     *
+     * @return the LSN following the last entry written, i.e. the current file
+     *     contains complete entries up to the offset of the returned LSN
+     */
+    public synchronized long flushForBackup() {
+        flushToLog(true, true);
+        return Lsn.create(currentFile, inFilePos + 1);
+    }
+
     /**
      * Set the file number of the last file used.
      * 
@@ -481,6 +663,14 @@ public class Journal {
                         !FileUtils.fileName(path).endsWith(indexSuffix));
     }
 
+    /**
+     * Returns the file in which the LSN to redo from is stored
+     * when a hot backup has been restored.
+     */
+    public Path getRedoLsnFile() {
+        return dir.resolve(REDO_LSN_FILE);
+    }
+
     /**
      * Returns the file corresponding to the specified
      * file number.
@@ -502,6 +692,14 @@ public class Journal {
         if (currentBuffer == null) {
             return; // the db has probably shut down already
         }
+        groupCommitThread.ifPresent(gc -> {
+            gc.shutdown();
+            try {
+                gc.join();
+            } catch (final InterruptedException e) {
+                //Nothing to do
+            }
+        });
         if (!BrokerPool.FORCE_CORRUPTION) {
             if (checkpoint) {
                 LOG.info("Transaction journal cleanly shutting down with checkpoint...");
@@ -539,7 +737,7 @@ public class Journal {
      * @param fileNum
      * @return The file name
      */
-    private static String getFileName(final int fileNum) {
+    public static String getFileName(final int fileNum) {
         String hex = Integer.toHexString(fileNum);
         hex = "0000000000".substring(hex.length()) + hex;
         return hex + '.' + LOG_FILE_SUFFIX;
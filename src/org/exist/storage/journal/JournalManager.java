@@ -90,18 +90,55 @@ public class JournalManager implements BrokerPoolService {
     /**
      * Write a group of entrys to the journal
      *
+     * If group commit is enabled, the journal is not flushed
+     * here; instead the caller should call {@link #waitForGroupCommit(long)}
+     * with the returned LSN once it has released its own locks.
+     *
      * @see Journal#writeToLog(Loggable)
      * @see Journal#flushToLog(boolean)
      *
      * @param loggable The entry to write in the journalGroup
+     *
+     * @return the LSN of the entry, or {@link Lsn#LSN_INVALID} if journalling is disabled
      */
-    public synchronized void journalGroup(final Loggable loggable) throws JournalException {
+    public synchronized long journalGroup(final Loggable loggable) throws JournalException {
         if(!journallingDisabled) {
             journal.writeToLog(loggable);
             if (!groupCommits) {
                 journal.flushToLog(true);
             }
+            return loggable.getLsn();
         }
+        return Lsn.LSN_INVALID;
+    }
+
+    /**
+     * Wait until a batch of commits, including the entry with the given LSN,
+     * has been flushed to the journal. Returns immediately if group commit is
+     * not enabled.
+     *
+     * Must not be called while holding the monitor of this journal manager.
+     *
+     * @see Journal#waitForGroupCommit(long)
+     *
+     * @param lsn The LSN returned by {@link #journalGroup(Loggable)}
+     *
+     * @throws JournalException if the journal could not be flushed up to the LSN
+     */
+    public void waitForGroupCommit(final long lsn) throws JournalException {
+        if(!journallingDisabled && groupCommits && lsn != Lsn.LSN_INVALID) {
+            journal.waitForGroupCommit(lsn);
+        }
+    }
+
+    /**
+     * @see Journal#getGroupCommitThread()
+     */
+    public Optional<GroupCommitThread> getGroupCommitThread() {
+        if(journallingDisabled || journal == null) {
+            return Optional.empty();
+        }
+        return journal.getGroupCommitThread();
     }
 
     /**
@@ -126,6 +163,22 @@ public class JournalManager implements BrokerPoolService {
         }
     }
 
+    /**
+     * @see Journal#fuzzyCheckpoint(long, long)
+     *
+     * Create a new fuzzy checkpoint, see {@link org.exist.storage.sync.PageCleaner}.
+     *
+     * @param transactionId The id of the transaction for the checkpoint
+     * @param redoLsn The LSN up to which all changes have been written to disk
+     *
+     * @throws JournalException
+     */
+    public synchronized void fuzzyCheckpoint(final long transactionId, final long redoLsn) throws JournalException {
+        if(!journallingDisabled) {
+            journal.fuzzyCheckpoint(transactionId, redoLsn);
+        }
+    }
+
     /**
      * @see Journal#flushToLog(boolean, boolean)
      */
@@ -157,11 +210,51 @@ public class JournalManager implements BrokerPoolService {
         return journal.lastWrittenLsn();
     }
 
+    /**
+     * @see Journal#retainFile()
+     *
+     * Synchronized with {@link #checkpoint(long, boolean)}, so the file is not
+     * switched while it is retained.
+     *
+     * @return the LSN of the start of the retained file
+     *
+     * @throws JournalException if journalling is disabled
+     */
+    public synchronized long retainFile() throws JournalException {
+        if(journallingDisabled || !initialized) {
+            throw new JournalException("Journalling is disabled.");
+        }
+        return journal.retainFile();
+    }
+
+    /**
+     * @see Journal#releaseFile()
+     */
+    public void releaseFile() {
+        if(!journallingDisabled) {
+            journal.releaseFile();
+        }
+    }
+
+    /**
+     * @see Journal#flushForBackup()
+     */
+    public long flushForBackup() {
+        return journal.flushForBackup();
+    }
+
+    /**
+     * @see Journal#getFile(int)
+     */
+    public Path getFile(final int fileNum) {
+        return journal.getFile(fileNum);
+    }
+
 
 
     public RecoveryManager.JournalRecoveryAccessor getRecoveryAccessor(final RecoveryManager recoveryManager) {
         return recoveryManager.new JournalRecoveryAccessor(
-                journal::setInRecovery, journal::getFiles, journal::getFile, journal::setCurrentFileNum,
+                journal::setInRecovery, journal::getFiles, journal::getFile, journal::getRedoLsnFile, journal::setCurrentFileNum,
                 () -> { journal.switchFiles(); return null; }, () -> { journal.clearBackupFiles(); return null; });
     }
 }
@@ -35,7 +35,7 @@ import org.exist.storage.DBBroker;
 
 /**
  * Read log entries from the journal file. This class is used during recovery to scan the
- * last journal file. It uses a memory-mapped byte buffer on the file.
+ * last journal file. The file is read in large blocks, which hold many entries.
  * Journal entries can be read forward (during redo) or backward (during undo). 
  * 
  * @author wolf
@@ -45,9 +45,16 @@ public class JournalReader {
 
     private static final Logger LOG = LogManager.getLogger(JournalReader.class);
 
+    /**
+     * Number of bytes read from the file at once
+     */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
     private SeekableByteChannel fc;
-    private ByteBuffer header = ByteBuffer.allocateDirect(Journal.LOG_ENTRY_HEADER_LEN);
-    private ByteBuffer payload = ByteBuffer.allocateDirect(8192);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long bufferStart = 0;
+    private long position = 0;
+    private long fileSize;
 
     private int fileNumber;
     private DBBroker broker;
@@ -65,9 +72,11 @@ public class JournalReader {
         this.fileNumber = fileNumber;
         try {
             fc = Files.newByteChannel(file, READ);
+            fileSize = fc.size();
         } catch (final IOException e) {
             throw new LogException("Failed to read log file " + file.toAbsolutePath().toString(), e);
         }
+        buffer.limit(0);
     }
 
     /**
@@ -77,13 +86,9 @@ public class JournalReader {
      * @throws LogException if an entry could not be read due to an inconsistency on disk.
      */
     public Loggable nextEntry() throws LogException {
-        try {
-            if (fc.position() + Journal.LOG_ENTRY_BASE_LEN > fc.size())
-                {return null;}
-            return readEntry();
-        } catch (final IOException e) {
-            return null;
-        }
+        if (position + Journal.LOG_ENTRY_BASE_LEN > fileSize)
+            {return null;}
+        return readEntry();
     }
 
     /**
@@ -95,22 +100,19 @@ public class JournalReader {
      */
     public Loggable previousEntry() throws LogException {
         try {
-            if (fc.position() == 0)
+            if (position == 0)
                 {return null;}
             // go back two bytes and read the back-link of the last entry
-            fc.position(fc.position() - 2);
-            header.clear().limit(2);
-            final int bytes = fc.read(header);
-            if (bytes < 2)
+            final ByteBuffer link = read(position - 2, 2);
+            if (link.remaining() < 2)
                 {throw new LogException("Incomplete log entry found!");}
-            header.flip();
-            final short prevLink = header.getShort();
-            // position the channel to the start of the previous entry and mark it
-            final long prevStart = fc.position() - 2 -prevLink;
-            fc.position(prevStart);
+            final short prevLink = link.getShort();
+            // position the reader to the start of the previous entry and mark it
+            final long prevStart = position - 2 - prevLink;
+            position = prevStart;
             final Loggable loggable = readEntry();
             // reset to the mark
-            fc.position(prevStart);
+            position = prevStart;
             return loggable;
         } catch (final IOException e) {
             throw new LogException("Fatal error while reading journal entry: " + e.getMessage(), e);
@@ -119,7 +121,8 @@ public class JournalReader {
 
     public Loggable lastEntry() throws LogException {
         try {
-            fc.position(fc.size());
+            fileSize = fc.size();
+            position = fileSize;
             return previousEntry();
         } catch (final IOException e) {
             throw new LogException("Fatal error while reading journal entry: " + e.getMessage(), e);
@@ -134,33 +137,28 @@ public class JournalReader {
      */
     private Loggable readEntry() throws LogException {
         try {
-            final long lsn = Lsn.create(fileNumber, (int) fc.position() + 1);
-            header.clear();
-            int bytes = fc.read(header);
+            final long lsn = Lsn.create(fileNumber, (int) position + 1);
+            final ByteBuffer header = read(position, Journal.LOG_ENTRY_HEADER_LEN);
+            final int bytes = header.remaining();
             if (bytes <= 0)
                 {return null;}
             if (bytes < Journal.LOG_ENTRY_HEADER_LEN)
                 {throw new LogException("Incomplete log entry header found: " + bytes);}
-            header.flip();
+            position += Journal.LOG_ENTRY_HEADER_LEN;
             final byte entryType = header.get();
             final long transactId = header.getLong();
             final short size = header.getShort();
-            if (fc.position() + size > fc.size())
+            if (position + size > fileSize)
                 {throw new LogException("Invalid length");}
             final Loggable loggable = LogEntryTypes.create(entryType, broker, transactId);
             if (loggable == null)
                 {throw new LogException("Invalid log entry: " + entryType + "; size: " + size + "; id: " +
                         transactId + "; at: " + Lsn.dump(lsn));}
             loggable.setLsn(lsn);
-            if (size + 2 > payload.capacity()) {
-                // resize the payload buffer
-                payload = ByteBuffer.allocate(size + 2);
-            }
-            payload.clear().limit(size + 2);
-            bytes = fc.read(payload);
-            if (bytes < size + 2)
+            final ByteBuffer payload = read(position, size + 2);
+            if (payload.remaining() < size + 2)
                 {throw new LogException("Incomplete log entry found!");}
-            payload.flip();
+            position += size + 2;
             loggable.read(payload);
             final short prevLink = payload.getShort();
             if (prevLink != size + Journal.LOG_ENTRY_HEADER_LEN) {
@@ -174,6 +172,37 @@ public class JournalReader {
         }
     }
 
+    /**
+     * Returns the bytes of the file starting at the given offset. If they are
+     * not buffered yet, the following bytes are read as well, or the preceding
+     * ones when the file is read backwards.
+     *
+     * @param offset the offset in the file
+     * @param length the number of bytes
+     * @return a buffer holding the bytes, less than length at the end of the file
+     * @throws IOException
+     */
+    private ByteBuffer read(final long offset, final int length) throws IOException {
+        if (offset < bufferStart || offset + length > bufferStart + buffer.limit()) {
+            final long start = offset < bufferStart ? Math.max(0, offset + length - BUFFER_SIZE) : offset;
+            buffer.clear();
+            fc.position(start);
+            while (buffer.hasRemaining()) {
+                if (fc.read(buffer) <= 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            bufferStart = start;
+            fileSize = fc.size();
+        }
+        final ByteBuffer bytes = buffer.duplicate();
+        final int from = (int) Math.min(offset - bufferStart, buffer.limit());
+        bytes.position(from);
+        bytes.limit(Math.min(buffer.limit(), from + length));
+        return bytes;
+    }
+
     /**
      * Re-position the file position so it points to the start of the entry
      * with the given LSN.
@@ -182,11 +211,7 @@ public class JournalReader {
      * @throws LogException 
      */
     public void position(final long lsn) throws LogException {
-        try {
-            fc.position((int) Lsn.getOffset(lsn) - 1);
-        } catch (final IOException e) {
-            throw new LogException("Fatal error while reading journal: " + e.getMessage(), e);
-        }
+        position = (int) Lsn.getOffset(lsn) - 1;
     }
 
     public void close() {
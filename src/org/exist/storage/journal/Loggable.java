@@ -30,6 +30,18 @@ import java.nio.ByteBuffer;
  * @author wolf
  */
 public interface Loggable {
+
+    /**
+     * Returned by {@link #getStorageFileId()} for entries
+     * which do not change the pages of a single storage file.
+     */
+    byte NO_STORAGE_FILE = -1;
+
+    /**
+     * Returned by {@link #getPageNum()} for entries which change
+     * more than one page, or the header, of their storage file.
+     */
+    long NO_PAGE = -1;
     
 	/**
 	 * Returns the type id of the log entry. This is the type registered
@@ -93,6 +105,40 @@ public interface Loggable {
      */
     public void redo() throws LogException;
     
+    /**
+     * Returns the id of the storage file whose pages are changed by
+     * {@link #redo()}, see {@link org.exist.storage.NativeBroker#getStorage(byte)}.
+     *
+     * During recovery, the entries of different storage files may be
+     * redone concurrently, while the entries of one storage file are
+     * redone in the order of their LSNs, unless they change different
+     * pages, see {@link #getPageNum()}. Entries which return
+     * {@link #NO_STORAGE_FILE} are redone after all preceding entries.
+     *
+     * @return the id of the storage file, or {@link #NO_STORAGE_FILE}
+     */
+    default byte getStorageFileId() {
+        return NO_STORAGE_FILE;
+    }
+
+    /**
+     * Returns the number of the only page changed by {@link #redo()}
+     * in the storage file returned by {@link #getStorageFileId()}.
+     *
+     * During recovery, the entries of one page are redone in the order
+     * of their LSNs, but possibly concurrently with the entries of other
+     * pages. The redo of such entries must therefore not touch any state
+     * of the storage file shared with other pages, and must exclude the
+     * write of the page while changing it. Entries which return
+     * {@link #NO_PAGE} are redone after all preceding entries of their
+     * storage file, and before all following ones.
+     *
+     * @return the page number, or {@link #NO_PAGE}
+     */
+    default long getPageNum() {
+        return NO_PAGE;
+    }
+
     /**
      * Undo, i.e. roll back, the underlying operation. The method
      * is called by {@link org.exist.storage.recovery.RecoveryManager}.
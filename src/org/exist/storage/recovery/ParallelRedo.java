@@ -0,0 +1,330 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.recovery;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.exist.storage.journal.LogException;
+import org.exist.storage.journal.Loggable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Redoes journal entries on a number of worker threads.
+ *
+ * Entries are partitioned by the storage file and the page they change, see
+ * {@link Loggable#getStorageFileId()} and {@link Loggable#getPageNum()}.
+ * All entries of one page are redone by the same worker, in the order in which
+ * they were passed to {@link #redo(Loggable)}. As the recovery reads the journal
+ * in LSN order, every page thus sees its changes in the same order as during
+ * a sequential redo, while different pages are redone concurrently.
+ *
+ * Entries which change more than one page of a storage file are redone by
+ * a worker assigned to the file, once the entries of the file passed before
+ * them to other workers have been redone. Entries of the file passed after
+ * them wait for them in the same way. Entries which do not belong to a single
+ * storage file act as a barrier: they are redone by the calling thread, once
+ * all entries passed before them have been redone.
+ *
+ * With a single thread, or less, all entries are redone by the calling thread.
+ *
+ * Instances are used by the single thread running the recovery.
+ */
+@NotThreadSafe
+class ParallelRedo implements AutoCloseable {
+
+    /**
+     * Number of entries handed to a worker at once
+     */
+    static final int BATCH_SIZE = 256;
+
+    /**
+     * Number of batches per worker which may be waiting to be redone
+     * before the reading of further entries is blocked
+     */
+    private static final int MAX_PENDING_BATCHES = 4;
+
+    private final Worker[] workers;
+    private final Worker[] workerForFile = new Worker[256];
+    private int nextWorker = 0;
+
+    private final Semaphore pendingBatches;
+    private final int maxPendingBatches;
+    private final AtomicReference<RedoFailure> failure = new AtomicReference<>();
+
+    private final LongAdder redoCount = new LongAdder();
+    private final long[] redoCountForFile = new long[256];
+
+    /**
+     * @param threads the number of worker threads
+     */
+    ParallelRedo(final int threads) {
+        if (threads > 1) {
+            this.workers = new Worker[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Worker(i);
+            }
+        } else {
+            this.workers = new Worker[0];
+        }
+        this.maxPendingBatches = Math.max(1, workers.length * MAX_PENDING_BATCHES);
+        this.pendingBatches = new Semaphore(maxPendingBatches);
+    }
+
+    /**
+     * @return the number of worker threads, zero if all entries
+     *     are redone by the calling thread
+     */
+    int getThreads() {
+        return workers.length;
+    }
+
+    /**
+     * Schedules an entry to be redone after all entries
+     * of the same page which were passed before.
+     *
+     * @param loggable the journal entry
+     *
+     * @throws LogException if redoing this or a previous entry failed
+     */
+    void redo(final Loggable loggable) throws LogException {
+        checkFailure();
+
+        final byte fileId = loggable.getStorageFileId();
+        if (fileId != Loggable.NO_STORAGE_FILE) {
+            redoCountForFile[fileId & 0xFF]++;
+        }
+        if (fileId == Loggable.NO_STORAGE_FILE || workers.length == 0) {
+            if (workers.length > 0) {
+                awaitCompletion();
+            }
+            redoNow(loggable);
+            checkFailure();
+            return;
+        }
+
+        final int file = fileId & 0xFF;
+        final long pageNum = loggable.getPageNum();
+        final Worker worker;
+        if (pageNum == Loggable.NO_PAGE) {
+            worker = getWorker(file);
+            for (final Worker other : workers) {
+                if (other != worker && other.hasEntries[file]) {
+                    other.drain();
+                }
+            }
+            worker.hasFileEntries[file] = true;
+        } else {
+            worker = workers[(int) ((pageNum + file) % workers.length)];
+            for (final Worker other : workers) {
+                if (other != worker && other.hasFileEntries[file]) {
+                    other.drain();
+                }
+            }
+        }
+        worker.hasEntries[file] = true;
+        worker.batch.add(loggable);
+        if (worker.batch.size() == BATCH_SIZE) {
+            worker.submitBatch();
+        }
+    }
+
+    /**
+     * Waits until all entries passed to {@link #redo(Loggable)} have been redone.
+     *
+     * @throws LogException if redoing an entry failed
+     */
+    void awaitCompletion() throws LogException {
+        for (final Worker worker : workers) {
+            if (!worker.batch.isEmpty()) {
+                worker.submitBatch();
+            }
+        }
+        try {
+            pendingBatches.acquire(maxPendingBatches);
+            pendingBatches.release(maxPendingBatches);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LogException("Interrupted while waiting for redo to complete", e);
+        }
+        for (final Worker worker : workers) {
+            worker.clearEntries();
+        }
+        checkFailure();
+    }
+
+    /**
+     * @return the number of entries which have been redone
+     */
+    long getRedoCount() {
+        return redoCount.sum();
+    }
+
+    /**
+     * @param fileId the id of a storage file
+     *
+     * @return the number of entries of the storage file which have
+     *     been passed to {@link #redo(Loggable)}
+     */
+    long getRedoCount(final byte fileId) {
+        return redoCountForFile[fileId & 0xFF];
+    }
+
+    @Override
+    public void close() {
+        for (final Worker worker : workers) {
+            worker.executor.shutdownNow();
+        }
+        for (final Worker worker : workers) {
+            try {
+                worker.executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Worker getWorker(final int file) {
+        Worker worker = workerForFile[file];
+        if (worker == null) {
+            // assign workers round-robin, so that the storage files spread evenly
+            worker = workers[nextWorker++ % workers.length];
+            workerForFile[file] = worker;
+        }
+        return worker;
+    }
+
+    private void redoNow(final Loggable loggable) {
+        try {
+            loggable.redo();
+            redoCount.increment();
+        } catch (final Exception e) {
+            failure.compareAndSet(null, new RedoFailure(loggable, e));
+        }
+    }
+
+    private void checkFailure() throws LogException {
+        final RedoFailure redoFailure = failure.get();
+        if (redoFailure != null) {
+            throw new LogException("Failed to redo log entry: " + redoFailure.loggable.dump(), redoFailure.cause);
+        }
+    }
+
+    private static final class RedoFailure {
+        private final Loggable loggable;
+        private final Exception cause;
+
+        private RedoFailure(final Loggable loggable, final Exception cause) {
+            this.loggable = loggable;
+            this.cause = cause;
+        }
+    }
+
+    private final class Worker {
+        private final ExecutorService executor;
+        private List<Loggable> batch = new ArrayList<>(BATCH_SIZE);
+        private Future<?> lastBatch;
+
+        /**
+         * Storage files with entries passed to this worker since it was drained
+         */
+        private final boolean[] hasEntries = new boolean[256];
+
+        /**
+         * Storage files with entries changing more than one page
+         * passed to this worker since it was drained
+         */
+        private final boolean[] hasFileEntries = new boolean[256];
+
+        private Worker(final int id) {
+            this.executor = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "exist-recovery-redo-" + id);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        private void submitBatch() throws LogException {
+            final List<Loggable> entries = batch;
+            batch = new ArrayList<>(BATCH_SIZE);
+            try {
+                pendingBatches.acquire();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LogException("Interrupted while scheduling redo", e);
+            }
+            try {
+                lastBatch = executor.submit(() -> {
+                    try {
+                        for (final Loggable loggable : entries) {
+                            if (failure.get() != null) {
+                                // stop at the first failure, the recovery will be aborted
+                                break;
+                            }
+                            redoNow(loggable);
+                        }
+                    } finally {
+                        pendingBatches.release();
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                pendingBatches.release();
+                throw new LogException("Redo worker has been shut down", e);
+            }
+        }
+
+        /**
+         * Waits until all entries passed to this worker have been redone.
+         */
+        private void drain() throws LogException {
+            if (!batch.isEmpty()) {
+                submitBatch();
+            }
+            if (lastBatch != null) {
+                try {
+                    lastBatch.get();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new LogException("Interrupted while waiting for redo to complete", e);
+                } catch (final ExecutionException e) {
+                    throw new LogException("Redo worker failed", e.getCause());
+                }
+            }
+            clearEntries();
+            checkFailure();
+        }
+
+        private void clearEntries() {
+            Arrays.fill(hasEntries, false);
+            Arrays.fill(hasFileEntries, false);
+        }
+    }
+}
@@ -22,6 +22,8 @@
 package org.exist.storage.recovery;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.function.Consumer;
@@ -34,6 +36,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.storage.DBBroker;
 import org.exist.storage.BrokerPool;
+import org.exist.storage.NativeBroker;
 import org.exist.storage.journal.*;
 import org.exist.storage.sync.Sync;
 import org.exist.storage.txn.Checkpoint;
@@ -41,7 +44,6 @@ import org.exist.util.FileUtils;
 import org.exist.util.ProgressBar;
 import com.evolvedbinary.j8fu.function.SupplierE;
 import org.exist.util.hashtable.Long2ObjectHashMap;
-import org.exist.util.sanity.SanityCheck;
 
 /**
  * Database recovery. This class is used once during startup to check
@@ -54,14 +56,38 @@ public class RecoveryManager {
 	
 	private final static Logger LOG = LogManager.getLogger(RecoveryManager.class);
 
+    public final static String RECOVERY_REDO_THREADS_ATTRIBUTE = "redo-threads";
+    public final static String PROPERTY_RECOVERY_REDO_THREADS = "db-connection.recovery.redo-threads";
+
+    /**
+     * The pages are redone concurrently by default, on one thread per processor,
+     * but not more than a few threads, as every change to more than one page
+     * of a storage file waits for all threads redoing the file
+     */
+    public final static int DEFAULT_REDO_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
     private final DBBroker broker;
     private final JournalRecoveryAccessor journalRecovery;
     private final boolean restartOnError;
+    private final int redoThreads;
 
     public RecoveryManager(final DBBroker broker, final JournalManager journalManager, final boolean restartOnError) {
+        this(broker, journalManager, restartOnError, 1);
+    }
+
+    /**
+     * @param broker the broker used to access the storage files
+     * @param journalManager the journal to recover from
+     * @param restartOnError true to bring up the database even if the recovery failed
+     * @param redoThreads the number of threads redoing the journal entries of different
+     *                    pages concurrently, 1 to redo all entries sequentially
+     */
+    public RecoveryManager(final DBBroker broker, final JournalManager journalManager, final boolean restartOnError,
+            final int redoThreads) {
         this.broker = broker;
         this.journalRecovery = journalManager.getRecoveryAccessor(this);
         this.restartOnError = restartOnError;
+        this.redoThreads = redoThreads;
 	}
 
 	/**
@@ -71,6 +97,10 @@ public class RecoveryManager {
 	 * record. If the checkpoint record is the last record in the file,
 	 * the database was closed cleanly and is in a consistent state. If not, a
 	 * recovery run is started beginning at the last checkpoint found.
+	 *
+	 * If a hot backup has been restored, the journal file of the backup is redone
+	 * from the LSN stored in {@link Journal#REDO_LSN_FILE}, regardless of the
+	 * checkpoints found, see {@link org.exist.storage.HotBackup}.
 	 *  
 	 * @throws LogException
 	 */
@@ -84,6 +114,12 @@ public class RecoveryManager {
         }
         // find the last log file in the data directory
 		final int lastNum = Journal.findLastFile(files.stream());
+		final Path redoLsnFile = journalRecovery.getRedoLsnFile.get();
+		final long restoredLsn = readRedoLsn(redoLsnFile);
+		if (restoredLsn != Lsn.LSN_INVALID && Lsn.getFileNumber(restoredLsn) != lastNum) {
+		    throw new LogException("The journal of the restored hot backup is missing, expected file " +
+                    Journal.getFileName((int) Lsn.getFileNumber(restoredLsn)));
+		}
 		if (-1 < lastNum) {
             // load the last log file
 			final Path last = journalRecovery.getFile.apply(lastNum);
@@ -93,12 +129,14 @@ public class RecoveryManager {
             	// try to read the last log record to see if it is a checkpoint
             	boolean checkpointFound = false;
     			try {
-                    final Loggable lastLog = reader.lastEntry();
+                    // the data files of a hot backup have been copied while they were written
+                    final Loggable lastLog = restoredLsn == Lsn.LSN_INVALID ? reader.lastEntry() : null;
                     if (lastLog != null && lastLog.getLogType() == LogEntryTypes.CHECKPOINT) {
                     	final Checkpoint checkpoint = (Checkpoint) lastLog;
                     	// Found a checkpoint. To be sure it is indeed a valid checkpoint
                     	// record, we compare the LSN stored in it with the current LSN.
-                    	if (checkpoint.getStoredLsn() == checkpoint.getLsn()) {
+                    	// After a fuzzy checkpoint, dirty pages may not have been written.
+                    	if (checkpoint.getStoredLsn() == checkpoint.getLsn() && !checkpoint.isFuzzy()) {
                     		checkpointFound = true;
                     		LOG.debug("Database is in clean state. Last checkpoint: " + 
                     				checkpoint.getDateString());
@@ -143,14 +181,33 @@ public class RecoveryManager {
                     }
 
 	    			// if the last checkpoint record is not the last record in the file
-	    			// we need a recovery.
-	    			if ((lastCheckpoint == null || lastCheckpoint.getLsn() != lastLsn) &&
-	    					txnsStarted.size() > 0) {
+	    			// we need a recovery. After a fuzzy checkpoint, the changes following
+	    			// its redo LSN may not have been written to disk.
+	    			final boolean fuzzy = lastCheckpoint != null && lastCheckpoint.isFuzzy();
+	    			if (((lastCheckpoint == null || lastCheckpoint.getLsn() != lastLsn) &&
+	    					txnsStarted.size() > 0) || fuzzy || restoredLsn != Lsn.LSN_INVALID) {
 	    				LOG.info("Dirty transactions: " + txnsStarted.size());
 	    				// starting recovery: reposition the log reader to the last checkpoint
-						if (lastCheckpoint == null)
+						if (restoredLsn != Lsn.LSN_INVALID) {
+						    // checkpoints written while the backup was running do not
+						    // apply to the pages copied before them
+						    LOG.info("Restoring hot backup, redoing from " + Lsn.dump(restoredLsn));
+						    reader.position(restoredLsn);
+						} else if (lastCheckpoint == null)
 						    {reader.position(1);}
-						else {
+						else if (fuzzy) {
+						    // all transactions had completed when the checkpoint was written,
+						    // so the transactions to undo start after the redo LSN as well
+						    final long redoLsn = lastCheckpoint.getRedoLsn();
+						    LOG.info("Last checkpoint is fuzzy, redoing from " + Lsn.dump(redoLsn));
+						    if (Lsn.getFileNumber(redoLsn) == lastNum) {
+						        reader.position(redoLsn);
+						    } else {
+						        // the journal was switched by a sharp checkpoint since,
+						        // which has written all earlier changes to disk
+						        reader.position(1);
+						    }
+						} else {
 						    reader.position(lastCheckpoint.getLsn());
 						    next = reader.nextEntry();
 						}
@@ -180,6 +237,7 @@ public class RecoveryManager {
                 // Re-applying them on a second start up attempt would definitely damage the db, so we better
                 // delete them before user tries to launch again.
                 cleanDirectory(files.stream());
+                FileUtils.deleteQuietly(redoLsnFile);
                 if (recoveryRun) {
                     broker.repairPrimary();
                     broker.sync(Sync.MAJOR);
@@ -197,6 +255,7 @@ public class RecoveryManager {
         final Consumer<Boolean> setInRecovery;
         final SupplierE<Stream<Path>, IOException> getFiles;
         final Function<Integer, Path> getFile;
+        final Supplier<Path> getRedoLsnFile;
         final Consumer<Integer> setCurrentFileNum;
         final SupplierE<Void, LogException> switchFiles;
         final Supplier<Void> clearBackupFiles;
@@ -204,11 +263,12 @@ public class RecoveryManager {
 
         public JournalRecoveryAccessor(final Consumer<Boolean> setInRecovery,
                 final SupplierE<Stream<Path>, IOException> getFiles, final Function<Integer, Path> getFile,
-                final Consumer<Integer> setCurrentFileNum, final SupplierE<Void, LogException> switchFiles,
-                final Supplier<Void> clearBackupFiles) {
+                final Supplier<Path> getRedoLsnFile, final Consumer<Integer> setCurrentFileNum,
+                final SupplierE<Void, LogException> switchFiles, final Supplier<Void> clearBackupFiles) {
             this.setInRecovery = setInRecovery;
             this.getFiles = getFiles;
             this.getFile = getFile;
+            this.getRedoLsnFile = getRedoLsnFile;
             this.setCurrentFileNum = setCurrentFileNum;
             this.switchFiles = switchFiles;
             this.clearBackupFiles = clearBackupFiles;
@@ -241,11 +301,17 @@ public class RecoveryManager {
             final ProgressBar progress = new ProgressBar("Redo ", FileUtils.sizeQuietly(last));
             Loggable next = null;
             int redoCnt = 0;
+            final long start = System.currentTimeMillis();
+            final ParallelRedo redo = new ParallelRedo(redoThreads);
+            if (redo.getThreads() > 0 && LOG.isInfoEnabled()) {
+                LOG.info("Redoing the entries of different pages on " + redo.getThreads() + " threads");
+            }
             try {
                 while ((next = reader.nextEntry()) != null) {
-                    SanityCheck.ASSERT(next.getLogType() != LogEntryTypes.CHECKPOINT,
-                            "Found a checkpoint during recovery run! This should not ever happen.");
-                    if (next.getLogType() == LogEntryTypes.TXN_START) {
+                    if (next.getLogType() == LogEntryTypes.CHECKPOINT) {
+                        // checkpoints are only found when redoing from the redo LSN
+                        // of a fuzzy checkpoint or a hot backup: nothing to redo
+                    } else if (next.getLogType() == LogEntryTypes.TXN_START) {
                         // new transaction starts: add it to the transactions table
                         runningTxns.put(next.getTransactionId(), next);
                     } else if (next.getLogType() == LogEntryTypes.TXN_COMMIT) {
@@ -255,22 +321,34 @@ public class RecoveryManager {
                     } else if (next.getLogType() == LogEntryTypes.TXN_ABORT) {
                         // transaction aborted: remove it from the transactions table
                         runningTxns.remove(next.getTransactionId());
+                    } else {
+        //                LOG.debug("Redo: " + next.dump());
+                        // redo the log entry, possibly on a worker thread
+                        redo.redo(next);
                     }
-        //            LOG.debug("Redo: " + next.dump());
-                    // redo the log entry
-                    next.redo();
+                    // the number of entries waiting to be redone is bounded,
+                    // so reading the journal is never far ahead of redoing it
                     progress.set(Lsn.getOffset(next.getLsn()));
                     if (next.getLsn() == lastLsn)
                         {break;} // last readable entry reached. Stop here.
                 }
+                redo.awaitCompletion();
             } catch (final Exception e) {
                 LOG.error("Exception caught while redoing transactions. Aborting recovery to avoid possible damage. " +
                     "Before starting again, make sure to run a check via the emergency export tool.", e);
                 if (next != null)
-                    {LOG.info("Log entry that caused the exception: " + next.dump());}
+                    {LOG.info("Last log entry read: " + next.dump());}
                 throw new LogException("Recovery aborted. ");
             } finally {
+                redo.close();
                 LOG.info("Redo processed " + redoCnt + " out of " + txnCount + " transactions.");
+                if (LOG.isInfoEnabled()) {
+                    LOG.info("Redone " + redo.getRedoCount() + " log entries in " +
+                            (System.currentTimeMillis() - start) + "ms (dom.dbx: " +
+                            redo.getRedoCount(NativeBroker.DOM_DBX_ID) + ", collections.dbx: " +
+                            redo.getRedoCount(NativeBroker.COLLECTIONS_DBX_ID) + ", values.dbx: " +
+                            redo.getRedoCount(NativeBroker.VALUES_DBX_ID) + ")");
+                }
             }
 
             // ------- UNDO ---------
@@ -317,6 +395,25 @@ public class RecoveryManager {
         }
     }
     
+    /**
+     * Reads the LSN to redo the journal from after a hot backup has been restored.
+     *
+     * @param file the file written by the restore
+     * @return the LSN, or {@link Lsn#LSN_INVALID} if no backup has been restored
+     * @throws LogException
+     */
+    private long readRedoLsn(final Path file) throws LogException {
+        if (!Files.exists(file)) {
+            return Lsn.LSN_INVALID;
+        }
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+        } catch (final IOException | NumberFormatException e) {
+            throw new LogException("Unable to read the redo LSN of the restored hot backup from " +
+                    file.toAbsolutePath().toString(), e);
+        }
+    }
+
 	private void cleanDirectory(final Stream<Path> files) {
         files.forEach(FileUtils::deleteQuietly);
 	}
@@ -954,6 +954,72 @@ public abstract class Serializer implements XMLReader {
 		receiver.endDocument();
 	}
         
+    /**
+     * Start the serialization of a sequence whose items are not known in advance,
+     * e.g. because they are still being evaluated. The items are serialized one by one
+     * with {@link #sequenceItemToSAX(Item, boolean, boolean)}, followed by a call to
+     * {@link #endSequenceToSAX(boolean)}.
+     *
+     * If parameter wrap is set to true, output a wrapper element to enclose the serialized items.
+     * As the length of the sequence is not known, the wrapper element has no hits and count attributes:
+     *
+     * &lt;exist:result start="value of start">
+     *
+     * @param start The position in the sequence of the first item to be serialized
+     * @param wrap Indicates whether the output should be wrapped
+     * @param compilationTime The time taken to compile the query which produces the sequence
+     *
+     * @throws SAXException If an error occurs during serialization
+     */
+    public void startSequenceToSAX(final int start, final boolean wrap, final long compilationTime) throws SAXException {
+        try {
+            setStylesheetFromProperties(null);
+        } catch (final TransformerConfigurationException e) {
+            throw new SAXException(e.getMessage(), e);
+        }
+        setXSLHandler(null, false);
+        final AttrList attrs = new AttrList();
+        attrs.addAttribute(ATTR_START_QNAME, Integer.toString(start));
+        if (outputProperties.getProperty(PROPERTY_SESSION_ID) != null) {
+            attrs.addAttribute(ATTR_SESSION_ID, outputProperties.getProperty(PROPERTY_SESSION_ID));
+        }
+        attrs.addAttribute(ATTR_COMPILATION_TIME_QNAME, Long.toString(compilationTime));
+
+        receiver.startDocument();
+        if(wrap) {
+            receiver.startPrefixMapping("exist", Namespaces.EXIST_NS);
+            receiver.startElement(ELEM_RESULT_QNAME, attrs);
+        }
+    }
+
+    /**
+     * Serialize the next item of a sequence started with {@link #startSequenceToSAX(int, boolean, long)}.
+     *
+     * @param item The item to serialize
+     * @param typed Indicates whether the output types should be wrapped
+     * @param wrap Indicates whether the output should be wrapped
+     *
+     * @throws SAXException If an error occurs during serialization
+     */
+    public void sequenceItemToSAX(final Item item, final boolean typed, final boolean wrap) throws SAXException {
+        itemToSAX(item, typed, wrap);
+    }
+
+    /**
+     * End the serialization of a sequence started with {@link #startSequenceToSAX(int, boolean, long)}.
+     *
+     * @param wrap Indicates whether the output is wrapped
+     *
+     * @throws SAXException If an error occurs during serialization
+     */
+    public void endSequenceToSAX(final boolean wrap) throws SAXException {
+        if(wrap) {
+            receiver.endElement(ELEM_RESULT_QNAME);
+            receiver.endPrefixMapping("exist");
+        }
+        receiver.endDocument();
+    }
+
     /**
 	 * Serialize the items in the given sequence to SAX, starting with item start. If parameter
 	 * wrap is set to true, output a wrapper element to enclose the serialized items. The
@@ -108,6 +108,13 @@ public class DataGuide {
         return temp.getMaxDepth();
     }
 
+    /**
+     * Returns the number of elements with the given name on all paths.
+     */
+    public long getNodeCount(QName qname) {
+        return root.getNodeCount(qname);
+    }
+
     public String toString() {
         final List<StringBuilder> paths = new ArrayList<StringBuilder>();
         root.dump(new StringBuilder(), paths);
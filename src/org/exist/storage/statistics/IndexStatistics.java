@@ -23,14 +23,19 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.backup.RawDataBackup;
 import org.exist.dom.QName;
+import org.exist.dom.persistent.DefaultDocumentSet;
+import org.exist.dom.persistent.DocumentSet;
 import org.exist.indexing.AbstractIndex;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.RawBackupSupport;
+import org.exist.security.PermissionDeniedException;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.btree.DBException;
 import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.FileUtils;
+import org.exist.xquery.value.DoubleValue;
+import org.exist.xquery.value.StringValue;
 import org.w3c.dom.Element;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
@@ -41,6 +46,9 @@ import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Collects statistics on the distribution of elements in the database.
@@ -59,7 +67,15 @@ public class IndexStatistics extends AbstractIndex implements RawBackupSupport {
 
     private Path dataFile;
     private DataGuide dataGuide = new DataGuide();
-    
+
+    /**
+     * Counts the updates to the statistics. Used to decide when the cached
+     * key cardinalities are outdated.
+     */
+    private final AtomicLong updates = new AtomicLong();
+
+    private final Map<QName, KeyCount> distinctKeys = new ConcurrentHashMap<>();
+
     public IndexStatistics() {
     }
 
@@ -71,12 +87,54 @@ public class IndexStatistics extends AbstractIndex implements RawBackupSupport {
         return dataGuide.getMaxParentDepth(qname);
     }
 
+    /**
+     * Returns the number of elements with the given name stored in the database.
+     *
+     * @param qname the name of the element
+     * @return number of elements, 0 if there are none or no statistics are available
+     */
+    public long getNodeCount(QName qname) {
+        return dataGuide.getNodeCount(qname);
+    }
+
+    /**
+     * Returns the number of distinct keys in the range index defined on the
+     * given element or attribute. The value is computed by scanning the index
+     * and cached until the statistics changed by more than a quarter.
+     *
+     * @param broker the broker to scan the index with
+     * @param qname the name of the indexed element or attribute
+     * @return number of distinct keys, 0 if there is no range index on the name
+     */
+    public long getDistinctKeys(DBBroker broker, QName qname) {
+        final long currentUpdates = updates.get();
+        final KeyCount cached = distinctKeys.get(qname);
+        if (cached != null && currentUpdates - cached.updates <= cached.updates / 4 + 10) {
+            return cached.count;
+        }
+        long count = 0;
+        try {
+            final DocumentSet docs = broker.getAllXMLResources(new DefaultDocumentSet());
+            final QName[] qnames = { qname };
+            count = broker.getValueIndex().scanIndexKeys(docs, null, qnames, new StringValue("")).length;
+            if (count == 0) {
+                count = broker.getValueIndex().scanIndexKeys(docs, null, qnames, DoubleValue.NEGATIVE_INFINITY).length;
+            }
+        } catch (final PermissionDeniedException e) {
+            LOG.debug("Unable to scan index keys for " + qname + ": " + e.getMessage());
+        }
+        distinctKeys.put(qname, new KeyCount(count, currentUpdates));
+        return count;
+    }
+
     protected void mergeStats(DataGuide other) {
         dataGuide = other.mergeInto(dataGuide);
+        updates.incrementAndGet();
     }
 
     protected void updateStats(DataGuide newGuide) {
         dataGuide = newGuide;
+        updates.incrementAndGet();
     }
 
     public void configure(BrokerPool pool, Path dataDir, Element config) throws DatabaseConfigurationException {
@@ -110,7 +168,7 @@ public class IndexStatistics extends AbstractIndex implements RawBackupSupport {
     }
 
     public void sync() throws DBException {
-        try(final SeekableByteChannel chan = Files.newByteChannel(dataFile,StandardOpenOption.WRITE)) {
+        try(final SeekableByteChannel chan = Files.newByteChannel(dataFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
             dataGuide.write(chan, getBrokerPool().getSymbols());
         } catch (final IOException e) {
             LOG.error(e.getMessage(), e);
@@ -139,8 +197,21 @@ public class IndexStatistics extends AbstractIndex implements RawBackupSupport {
         return dataGuide.toString();
     }
 
+    private static class KeyCount {
+        final long count;
+        final long updates;
+
+        KeyCount(long count, long updates) {
+            this.count = count;
+            this.updates = updates;
+        }
+    }
+
 	@Override
 	public void backupToArchive(RawDataBackup backup) throws IOException {
+        if (!Files.exists(dataFile)) {
+            return;
+        }
 
         try(final OutputStream os = backup.newEntry(FileUtils.fileName(dataFile))) {
             Files.copy(dataFile, os);
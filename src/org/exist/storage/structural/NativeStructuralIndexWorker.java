@@ -30,7 +30,9 @@ import org.exist.dom.persistent.DocumentSet;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.IStoredNode;
 import org.exist.dom.persistent.SymbolTable;
+import org.exist.dom.persistent.AbstractArrayNodeSet;
 import org.exist.dom.persistent.NewArrayNodeSet;
+import org.exist.dom.persistent.PackedArrayNodeSet;
 import org.exist.dom.persistent.ExtNodeSet;
 import org.exist.dom.persistent.NodeSet;
 import org.exist.collections.Collection;
@@ -40,7 +42,9 @@ import org.exist.numbering.NodeId;
 import org.exist.storage.*;
 import org.exist.storage.btree.BTree;
 import org.exist.storage.btree.BTreeCallback;
+import org.exist.storage.btree.DBException;
 import org.exist.storage.btree.IndexQuery;
+import org.exist.storage.btree.SortedRuns;
 import org.exist.storage.btree.Value;
 import org.exist.storage.lock.Lock;
 import org.exist.storage.lock.Lock.LockMode;
@@ -54,6 +58,7 @@ import org.exist.xquery.NodeTest;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import java.io.IOException;
 import java.util.*;
 import org.exist.security.PermissionDeniedException;
 
@@ -62,7 +67,7 @@ import org.exist.security.PermissionDeniedException;
  * each key represents a sequence of: [type, qname, documentId, nodeId]. The btree value is just a
  * long pointing to the storage address of the actual node in dom.dbx.
  */
-public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex {
+public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex, BulkLoadIndex {
 
     private final static Logger LOG = LogManager.getLogger(NativeStructuralIndexWorker.class);
 
@@ -74,6 +79,9 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     //nameType out of QName
     private Map<QName, List<NodeProxy>> pending = new TreeMap<>(new TypedQNameComparator());
 
+    /** entries collected during a bulk load, null if no bulk load is running */
+    private SortedRuns bulkEntries = null;
+
     public NativeStructuralIndexWorker(NativeStructuralIndex index) {
         this.index = index;
     }
@@ -105,18 +113,32 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     }
 
     public NodeSet findElementsByTagName(byte type, DocumentSet docs, QName qname, NodeSelector selector, Expression parent) {
+        return findElementsByTagName(type, docs, qname, selector, parent, -1);
+    }
+
+    public NodeSet findElementsByTagName(byte type, DocumentSet docs, QName qname, NodeSelector selector, Expression parent,
+                                         int limit) {
         final Lock lock = index.btree.getLock();
-        final NewArrayNodeSet result = new NewArrayNodeSet();
-        final FindElementsCallback callback = new FindElementsCallback(type, qname, result, docs, selector, parent);
+        // without selector, all nodes of the index are added: avoid creating node proxies for them
+        final AbstractArrayNodeSet result = selector == null ? new PackedArrayNodeSet() : new NewArrayNodeSet();
+        final FindElementsCallback callback = new FindElementsCallback(type, qname, result, docs, selector, parent, limit);
+
+        final List<Range> ranges = getDocIdRanges(docs);
+        if (limit >= 0) {
+            // scan the ranges in document order
+            ranges.sort(Comparator.comparingInt(range -> range.start));
+        }
 
         // for each document id range, scan the index to find matches
-        for (final Range range : getDocIdRanges(docs)) {
+        for (final Range range : ranges) {
             final byte[] fromKey = computeKey(type, qname, range.start);
             final byte[] toKey = computeKey(type, qname, range.end + 1);
             final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
             try {
                 lock.acquire(LockMode.READ_LOCK);
                 index.btree.query(query, callback);
+            } catch (final LimitReachedException e) {
+                break;
             } catch (final LockException e) {
                 NativeStructuralIndex.LOG.warn("Lock problem while searching structural index: " + e.getMessage(), e);
             } catch (final TerminatedException e) {
@@ -183,9 +205,19 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     }
 
     public NodeSet findDescendantsByTagName(byte type, QName qname, int axis, DocumentSet docs, NodeSet contextSet, int contextId, Expression parent) {
+        return findDescendantsByTagName(type, qname, axis, docs, contextSet, contextId, parent, -1);
+    }
+
+    public NodeSet findDescendantsByTagName(byte type, QName qname, int axis, DocumentSet docs, NodeSet contextSet, int contextId, Expression parent,
+                                            int limit) {
+        // the results of nested context nodes overlap: only the results of disjoint
+        // context nodes are found in document order
+        if (limit >= 0 && hasNestedNodes(contextSet)) {
+            limit = -1;
+        }
         final Lock lock = index.btree.getLock();
         final NewArrayNodeSet result = new NewArrayNodeSet();
-        final FindDescendantsCallback callback = new FindDescendantsCallback(type, axis, qname, contextId, result, parent);
+        final FindDescendantsCallback callback = new FindDescendantsCallback(type, axis, qname, contextId, result, parent, limit);
         try {
             lock.acquire(LockMode.READ_LOCK);
             for (final NodeProxy ancestor : contextSet) {
@@ -203,6 +235,8 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                 final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
                 try {
                     index.btree.query(query, callback);
+                } catch (final LimitReachedException e) {
+                    break;
                 } catch (final Exception e) {
                     NativeStructuralIndex.LOG.error("Error while searching structural index: " + e.getMessage(), e);
                 }
@@ -216,6 +250,22 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         return result;
     }
 
+    /**
+     * Checks if one of the nodes of the set is a descendant of another node of the set.
+     * The set is iterated in document order.
+     */
+    private static boolean hasNestedNodes(final NodeSet nodes) {
+        NodeProxy outer = null;
+        for (final NodeProxy node : nodes) {
+            if (outer != null && outer.getOwnerDocument().getDocId() == node.getOwnerDocument().getDocId() &&
+                    node.getNodeId().isDescendantOrSelfOf(outer.getNodeId())) {
+                return true;
+            }
+            outer = node;
+        }
+        return false;
+    }
+
     public NodeSet findAncestorsByTagName(byte type, QName qname, int axis, DocumentSet docs, NodeSet contextSet,
                                           int contextId) {
         final Lock lock = index.btree.getLock();
@@ -305,16 +355,24 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         byte type;
         QName qname;
         DocumentSet docs;
-        NewArrayNodeSet result;
+        AbstractArrayNodeSet result;
         NodeSelector selector;
         Expression parent;
+        int limit;
+        int count = 0;
+
+        FindElementsCallback(byte type, QName qname, AbstractArrayNodeSet result, DocumentSet docs, NodeSelector selector, Expression parent) {
+            this(type, qname, result, docs, selector, parent, -1);
+        }
 
-        FindElementsCallback(byte type, QName qname, NewArrayNodeSet result, DocumentSet docs, NodeSelector selector, Expression parent) {
+        FindElementsCallback(byte type, QName qname, AbstractArrayNodeSet result, DocumentSet docs, NodeSelector selector, Expression parent,
+                             int limit) {
             this.type = type;
             this.result = result;
             this.docs = docs;
             this.selector = selector;
             this.parent = parent;
+            this.limit = limit;
             if (qname != null && qname.getNameType() != type) {
                 this.qname = new QName(qname.getLocalPart(), qname.getNamespaceURI(), qname.getPrefix(), type);
             } else {
@@ -327,17 +385,16 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                 parent.getContext().proceed(parent);
             }
             final byte[] key = value.getData();
-            final NodeId nodeId = readNodeId(key, pointer);
             final DocumentImpl doc = docs.getDoc(readDocId(key));
             if (doc != null) {
                 if (selector == null) {
-                    final NodeProxy storedNode = new NodeProxy(doc, nodeId,
-                        type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE, pointer);
-                    if (qname != null) {
-                        storedNode.setQName(qname);
+                    ((PackedArrayNodeSet) result).add(doc, key, 9, readNodeIdUnits(key, pointer),
+                        type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE, pointer, qname);
+                    if (++count == limit) {
+                        throw new LimitReachedException();
                     }
-                    result.add(storedNode);
                 } else {
+                    final NodeId nodeId = readNodeId(key, pointer);
                     final NodeProxy storedNode = selector.match(doc, nodeId);
                     if (storedNode != null) {
                         storedNode.setNodeType(type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE);
@@ -346,6 +403,9 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                             storedNode.setQName(qname);
                         }
                         result.add(storedNode);
+                        if (++count == limit) {
+                            throw new LimitReachedException();
+                        }
                     }
                 }
             }
@@ -363,10 +423,17 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         NewArrayNodeSet result;
         boolean selfAsContext = false;
         Expression parent;
+        int limit = -1;
+        int count = 0;
 
         FindDescendantsCallback(byte type, int axis, QName qname, int contextId, NewArrayNodeSet result, Expression parent) {
         	this(type, axis, qname, contextId, false, result, parent);
         }
+
+        FindDescendantsCallback(byte type, int axis, QName qname, int contextId, NewArrayNodeSet result, Expression parent, int limit) {
+            this(type, axis, qname, contextId, false, result, parent);
+            this.limit = limit;
+        }
         
         FindDescendantsCallback(byte type, int axis, QName qname, int contextId, boolean selfAsContext, NewArrayNodeSet result, Expression parent) {
             this.type = type;
@@ -415,10 +482,26 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             		storedNode.copyContext(ancestor);
                 }
                 storedNode.addMatches(ancestor);
+                if (++count == limit) {
+                    throw new LimitReachedException();
+                }
             }
             return true;
         }
     }
+
+    /**
+     * Thrown by a callback to stop the scan of the index once the requested
+     * number of nodes has been found.
+     */
+    private static class LimitReachedException extends TerminatedException {
+
+        private static final long serialVersionUID = 1L;
+
+        LimitReachedException() {
+            super("Limit reached");
+        }
+    }
     
     public String getIndexId() {
         return NativeStructuralIndex.ID;
@@ -695,6 +778,11 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         if (pending.size() == 0)
             {return;}
 
+        if (bulkEntries != null) {
+            collectPending();
+            return;
+        }
+
         try {
             final Lock lock = index.btree.getLock();
             for (final Map.Entry<QName,List<NodeProxy>> entry: pending.entrySet()) {
@@ -726,6 +814,54 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         }
     }
 
+    /**
+     * Adds the pending entries to the entries of the running bulk load.
+     */
+    private void collectPending() {
+        try {
+            for (final Map.Entry<QName,List<NodeProxy>> entry: pending.entrySet()) {
+                final QName qname = entry.getKey();
+                for (final NodeProxy proxy : entry.getValue()) {
+                    final byte[] key = computeKey(qname.getNameType(), qname, document.getDocId(), proxy.getNodeId());
+                    bulkEntries.add(new Value(key), computeValue(proxy));
+                }
+                bulkEntries.add(new Value(computeDocKey(qname.getNameType(), document.getDocId(), qname)), 0);
+            }
+        } catch (final IOException e) {
+            NativeStructuralIndex.LOG.warn("Exception caught while writing to structural index: " + e.getMessage(), e);
+        } finally {
+            pending.clear();
+        }
+    }
+
+    @Override
+    public void startBulkLoad(final int runSize) {
+        if (bulkEntries == null) {
+            bulkEntries = new SortedRuns(runSize);
+        }
+    }
+
+    @Override
+    public void endBulkLoad(final Txn transaction) throws IOException, DBException {
+        if (bulkEntries == null) {
+            return;
+        }
+        final Lock lock = index.btree.getLock();
+        try {
+            lock.acquire(LockMode.WRITE_LOCK);
+            final long count = bulkEntries.addTo(index.btree, transaction);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Added " + count + " bulk loaded keys to the structural index");
+            }
+        } catch (final LockException e) {
+            throw new IOException("Failed to lock structural index: " + e.getMessage(), e);
+        } finally {
+            lock.release(LockMode.WRITE_LOCK);
+            bulkEntries.close();
+            bulkEntries = null;
+        }
+    }
+
     private byte[] computeKey(byte type, QName qname, int documentId, NodeId nodeId) {
         final SymbolTable symbols = index.getBrokerPool().getSymbols();
         final short sym = symbols.getSymbol(qname.getLocalPart());
@@ -797,13 +933,16 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     }
 
     private NodeId readNodeId(byte[] key, long value) {
+        return index.getBrokerPool().getNodeFactory().createFromData(readNodeIdUnits(key, value), key, 9);
+    }
+
+    private int readNodeIdUnits(byte[] key, long value) {
         // extra number of bits of the node id is encoded in the long address
         short bits = (short)((value >>> 24) & 0xFFL);
         if (bits == 0)
             {bits = 8;}
         // compute total number of bits for node id
-        final int units = (key.length - 10) * 8 + bits;
-        return index.getBrokerPool().getNodeFactory().createFromData(units, key, 9);
+        return (key.length - 10) * 8 + bits;
     }
 
     private QName readQName(byte[] key) {
@@ -0,0 +1,312 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.sync;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.BrokerPoolService;
+import org.exist.storage.BrokerPoolServiceException;
+import org.exist.storage.DBBroker;
+import org.exist.storage.NativeBroker;
+import org.exist.storage.btree.BTree;
+import org.exist.storage.cache.Cacheable;
+import org.exist.storage.journal.JournalManager;
+import org.exist.storage.journal.Lsn;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.util.Configuration;
+import org.exist.util.FileUtils;
+import org.exist.util.LockException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes the dirty pages of dom.dbx and collections.dbx to disk in the background,
+ * so that checkpoints do not need to flush them while all other threads are waiting.
+ *
+ * The cleaner repeatedly sweeps over the storage files. For every file, it flushes
+ * the journal and notes the last LSN written to it while holding the lock on the
+ * file, and takes a snapshot of the dirty pages. All changes to the file up to that
+ * LSN are contained in these pages, which are then written in small batches, at no
+ * more than the configured number of pages per second. Every batch is written while
+ * holding the write lock on the file, so it blocks readers and writers only briefly. Pages which are evicted from
+ * the cache in the meantime have been written already.
+ *
+ * Once a sweep over all files has completed, all changes up to the smallest of the
+ * noted LSNs are on disk. This is the redo LSN, see {@link #getRedoLsn()}, which
+ * {@link BrokerPool#sync(DBBroker, Sync)} records in a fuzzy checkpoint
+ * instead of flushing the files.
+ */
+@ThreadSafe
+public class PageCleaner implements BrokerPoolService {
+
+    private static final Logger LOG = LogManager.getLogger(PageCleaner.class);
+
+    public static final String RECOVERY_FUZZY_CHECKPOINT_ATTRIBUTE = "fuzzy-checkpoint";
+    public static final String PROPERTY_RECOVERY_FUZZY_CHECKPOINT = "db-connection.recovery.fuzzy-checkpoint";
+    public static final String RECOVERY_PAGE_CLEANER_RATE_ATTRIBUTE = "page-cleaner-rate";
+    public static final String PROPERTY_RECOVERY_PAGE_CLEANER_RATE = "db-connection.recovery.page-cleaner-rate";
+
+    public static final int DEFAULT_PAGE_CLEANER_RATE = 1000;
+
+    /**
+     * Maximum number of pages written while holding the write lock on a file
+     */
+    static final int BATCH_SIZE = 32;
+
+    /**
+     * Pause in milliseconds between two sweeps over the storage files
+     */
+    static final long SWEEP_INTERVAL = 1000;
+
+    private final BrokerPool pool;
+    private final Optional<JournalManager> journalManager;
+
+    private boolean enabled = false;
+    private int rate = DEFAULT_PAGE_CLEANER_RATE;
+    private final List<BTree> files = new ArrayList<>();
+
+    private final Object monitor = new Object();
+    @GuardedBy("monitor") private boolean shutdown = false;
+    private volatile Thread thread = null;
+
+    private final AtomicLong redoLsn = new AtomicLong(Lsn.LSN_INVALID);
+    private final LongAdder sweepCount = new LongAdder();
+    private final LongAdder pagesWritten = new LongAdder();
+
+    public PageCleaner(final BrokerPool pool, final Optional<JournalManager> journalManager) {
+        this.pool = pool;
+        this.journalManager = journalManager;
+    }
+
+    @Override
+    public void configure(final Configuration configuration) {
+        this.enabled = journalManager.isPresent() &&
+                configuration.getProperty(PROPERTY_RECOVERY_FUZZY_CHECKPOINT, false);
+        this.rate = Math.max(1, configuration.getProperty(PROPERTY_RECOVERY_PAGE_CLEANER_RATE, DEFAULT_PAGE_CLEANER_RATE));
+    }
+
+    @Override
+    public void startPreMultiUserSystem(final DBBroker systemBroker) {
+        if (enabled && !pool.isReadOnly() && systemBroker instanceof NativeBroker) {
+            final NativeBroker broker = (NativeBroker) systemBroker;
+            files.add(broker.getStorage(NativeBroker.DOM_DBX_ID));
+            files.add(broker.getStorage(NativeBroker.COLLECTIONS_DBX_ID));
+        }
+    }
+
+    @Override
+    public void startMultiUser(final BrokerPool brokerPool) {
+        if (files.isEmpty()) {
+            return;
+        }
+        final Thread cleaner = new Thread(this::run, "exist-page-cleaner");
+        cleaner.setDaemon(true);
+        thread = cleaner;
+        cleaner.start();
+        LOG.info("Page cleaner started, writing up to " + rate + " pages per second");
+    }
+
+    @Override
+    public void stop(final DBBroker systemBroker) throws BrokerPoolServiceException {
+        final Thread cleaner = thread;
+        synchronized (monitor) {
+            shutdown = true;
+            monitor.notifyAll();
+        }
+        if (cleaner != null) {
+            // never interrupt the cleaner: an interrupt closes the channel of a file it is writing to
+            try {
+                cleaner.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BrokerPoolServiceException("Interrupted while waiting for the page cleaner to stop", e);
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * @return true if the page cleaner is running, i.e. fuzzy checkpoints may be written
+     */
+    public boolean isRunning() {
+        final Thread cleaner = thread;
+        return cleaner != null && cleaner.isAlive() && !isShutdown();
+    }
+
+    /**
+     * Returns the LSN up to which all changes to dom.dbx and collections.dbx
+     * have been written to disk, by the page cleaner or by a checkpoint.
+     *
+     * @return the redo LSN, or {@link Lsn#LSN_INVALID} if not known yet
+     */
+    public long getRedoLsn() {
+        return redoLsn.get();
+    }
+
+    /**
+     * Called after all dirty pages have been flushed by a (sharp) checkpoint.
+     *
+     * @param lsn the LSN of the checkpoint
+     */
+    public void checkpointed(final long lsn) {
+        redoLsn.accumulateAndGet(lsn, Math::max);
+    }
+
+    /**
+     * @return the number of completed sweeps over the storage files
+     */
+    public long getSweepCount() {
+        return sweepCount.sum();
+    }
+
+    /**
+     * @return the number of pages written by the page cleaner
+     */
+    public long getPagesWritten() {
+        return pagesWritten.sum();
+    }
+
+    private boolean isShutdown() {
+        synchronized (monitor) {
+            return shutdown;
+        }
+    }
+
+    private void run() {
+        while (!isShutdown()) {
+            long sweepLsn = Long.MAX_VALUE;
+            for (final BTree file : files) {
+                final long fileLsn = sweep(file);
+                if (fileLsn == Lsn.LSN_INVALID) {
+                    sweepLsn = Lsn.LSN_INVALID;
+                    break;
+                }
+                sweepLsn = Math.min(sweepLsn, fileLsn);
+            }
+            if (sweepLsn != Lsn.LSN_INVALID) {
+                redoLsn.accumulateAndGet(sweepLsn, Math::max);
+                sweepCount.increment();
+            }
+            pause(SWEEP_INTERVAL);
+        }
+    }
+
+    /**
+     * Writes the pages of the file which are dirty when the sweep starts.
+     *
+     * @param file the storage file
+     * @return the LSN up to which all changes to the file are on disk, or
+     *     {@link Lsn#LSN_INVALID} if the sweep has not been completed
+     */
+    private long sweep(final BTree file) {
+        final JournalManager journal = journalManager.get();
+        final Lock lock = file.getLock();
+
+        final long fileLsn;
+        final List<Cacheable> pages;
+        if (!acquire(lock, file)) {
+            return Lsn.LSN_INVALID;
+        }
+        try {
+            journal.flush(true, false);
+            fileLsn = journal.lastWrittenLsn();
+            pages = file.getDirtyPages();
+        } finally {
+            lock.release(LockMode.WRITE_LOCK);
+        }
+        if (fileLsn == Lsn.LSN_INVALID) {
+            return Lsn.LSN_INVALID;
+        }
+
+        int next = 0;
+        while (next < pages.size()) {
+            if (isShutdown()) {
+                return Lsn.LSN_INVALID;
+            }
+            final long start = System.currentTimeMillis();
+            final int end = Math.min(next + Math.min(BATCH_SIZE, rate), pages.size());
+            int written = 0;
+            if (!acquire(lock, file)) {
+                return Lsn.LSN_INVALID;
+            }
+            try {
+                // the journal has to be on disk before the pages it describes
+                journal.flush(true, false);
+                for (; next < end; next++) {
+                    if (file.flushPage(pages.get(next))) {
+                        written++;
+                    }
+                }
+            } finally {
+                lock.release(LockMode.WRITE_LOCK);
+            }
+            pagesWritten.add(written);
+            pause(written * 1000L / rate - (System.currentTimeMillis() - start));
+        }
+
+        // page allocations change the file header as well
+        if (!acquire(lock, file)) {
+            return Lsn.LSN_INVALID;
+        }
+        try {
+            journal.flush(true, false);
+            file.flushFileHeader();
+        } finally {
+            lock.release(LockMode.WRITE_LOCK);
+        }
+        return fileLsn;
+    }
+
+    private boolean acquire(final Lock lock, final BTree file) {
+        try {
+            // readers share the read lock of dom.dbx and may write pages they evict from
+            // the cache, so the write lock is needed to take the dirty pages and write them
+            lock.acquire(LockMode.WRITE_LOCK);
+            return true;
+        } catch (final LockException e) {
+            LOG.warn("Failed to acquire lock on " + FileUtils.fileName(file.getFile()), e);
+            return false;
+        }
+    }
+
+    private void pause(final long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        synchronized (monitor) {
+            if (!shutdown) {
+                try {
+                    monitor.wait(millis);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    shutdown = true;
+                }
+            }
+        }
+    }
+}
@@ -29,5 +29,11 @@ package org.exist.storage.sync;
  */
 public enum Sync {
     MINOR,
-    MAJOR
+    MAJOR,
+
+    /**
+     * A major sync for a fuzzy checkpoint: the dirty pages of
+     * dom.dbx and collections.dbx are left to the {@link PageCleaner}.
+     */
+    MAJOR_FUZZY
 }
@@ -27,13 +27,23 @@ import java.util.Date;
 import org.exist.storage.DBBroker;
 import org.exist.storage.journal.AbstractLoggable;
 import org.exist.storage.journal.LogEntryTypes;
+import org.exist.storage.journal.Lsn;
 
 /**
+ * A checkpoint record in the journal.
+ *
+ * A sharp checkpoint is written after all dirty pages have been flushed,
+ * so recovery never needs to look at the journal before it. A fuzzy checkpoint
+ * is written while dirty pages are still being written in the background: it
+ * records the redo LSN, the LSN up to which all changes are known to be on disk,
+ * and recovery has to redo the journal from there on.
+ *
  * @author wolf
  */
 public class Checkpoint extends AbstractLoggable {
 	private long timestamp;
 	private long storedLsn;
+	private long redoLsn = Lsn.LSN_INVALID;
 	
 	private final DateFormat df =
 		DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM);
@@ -46,26 +56,59 @@ public class Checkpoint extends AbstractLoggable {
         super(LogEntryTypes.CHECKPOINT, transactionId);
 		timestamp = new Date().getTime();
     }
+
+    /**
+     * Creates a fuzzy checkpoint.
+     *
+     * @param transactionId the id of the transaction for the checkpoint
+     * @param redoLsn the LSN up to which all changes have been written to disk
+     */
+    public Checkpoint(final long transactionId, final long redoLsn) {
+        this(null, transactionId);
+        this.redoLsn = redoLsn;
+    }
     
     @Override
     public void write(final ByteBuffer out) {
     	out.putLong(lsn);
 		out.putLong(timestamp);
+		out.putLong(redoLsn == Lsn.LSN_INVALID ? lsn : redoLsn);
     }
 
     @Override
     public void read(final ByteBuffer in) {
     	storedLsn = in.getLong();
 		timestamp = in.getLong();
+		// checkpoints written by older versions have no redo LSN (the
+		// remaining 2 bytes are the link to the previous entry)
+		redoLsn = in.remaining() > 2 ? in.getLong() : Lsn.LSN_INVALID;
     }
 
     public long getStoredLsn() {
     	return storedLsn;
     }
+
+    /**
+     * Returns the LSN from which on recovery has to redo the journal.
+     * For a sharp checkpoint this is the LSN of the checkpoint itself.
+     *
+     * @return the redo LSN
+     */
+    public long getRedoLsn() {
+        return redoLsn == Lsn.LSN_INVALID ? lsn : redoLsn;
+    }
+
+    /**
+     * @return true if dirty pages may not have been written to disk
+     *     when the checkpoint was written
+     */
+    public boolean isFuzzy() {
+        return getRedoLsn() != lsn;
+    }
     
     @Override
     public int getLogSize() {
-        return 16;
+        return 24;
     }
 
     public String getDateString() {
@@ -74,6 +117,7 @@ public class Checkpoint extends AbstractLoggable {
 
     @Override
 	public String dump() {
-		return super.dump() + " - checkpoint at " + df.format(new Date(timestamp));
+		return super.dump() + " - checkpoint at " + df.format(new Date(timestamp)) +
+                (isFuzzy() ? " (fuzzy, redo from " + Lsn.dump(getRedoLsn()) + ")" : "");
 	}
 }
@@ -29,6 +29,7 @@ import org.exist.security.PermissionDeniedException;
 import org.exist.storage.*;
 import org.exist.storage.journal.JournalException;
 import org.exist.storage.journal.JournalManager;
+import org.exist.storage.journal.Lsn;
 import org.exist.xmldb.XmldbURI;
 
 import java.io.IOException;
@@ -123,10 +124,11 @@ public class TransactionManager implements BrokerPoolService {
             return;
         }
 
-        withLock(broker -> {
+        final Long commitLsn = withLock(broker -> {
+            long lsn = Lsn.LSN_INVALID;
             if(journalManager.isPresent()) {
                 try {
-                    journalManager.get().journalGroup(new TxnCommit(txn.getId()));
+                    lsn = journalManager.get().journalGroup(new TxnCommit(txn.getId()));
                 } catch(final JournalException e) {
                     LOG.error("Failed to write commit record to journal: " + e.getMessage());
                 }
@@ -139,7 +141,18 @@ public class TransactionManager implements BrokerPoolService {
             if(LOG.isDebugEnabled()) {
                 LOG.debug("Committed transaction: " + txn.getId());
             }
+            return lsn;
         });
+
+        // with group commit, wait for the commit record outside of the lock,
+        // so that concurrent commits can be flushed together
+        if(commitLsn != null && journalManager.isPresent()) {
+            try {
+                journalManager.get().waitForGroupCommit(commitLsn);
+            } catch(final JournalException e) {
+                throw new TransactionException("Failed to commit transaction " + txn.getId() + ": " + e.getMessage(), e);
+            }
+        }
     }
 	
     public void abort(final Txn txn) {
@@ -232,6 +245,27 @@ public class TransactionManager implements BrokerPoolService {
         }
     }
 
+    /**
+     * Create a new fuzzy checkpoint. Unlike {@link #checkpoint(boolean)}, dirty pages
+     * may not have been written to disk yet: recovery redoes the journal from the
+     * redo LSN on. Like {@link #checkpoint(boolean)}, it is called by
+     * {@link org.exist.storage.BrokerPool} while no transactions are running.
+     *
+     * @param redoLsn The LSN up to which all changes have been written to disk
+     *
+     * @throws TransactionException
+     */
+    public void fuzzyCheckpoint(final long redoLsn) throws TransactionException {
+        final long txnId = nextTxnId++;
+        if(journalManager.isPresent()) {
+            try {
+                journalManager.get().fuzzyCheckpoint(txnId, redoLsn);
+            } catch(final JournalException e) {
+                throw new TransactionException(e.getMessage(), e);
+            }
+        }
+    }
+
     /**
      * @Deprecated This mixes concerns and should not be here.
      */
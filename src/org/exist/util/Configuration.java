@@ -51,14 +51,19 @@ import org.exist.storage.IndexSpec;
 import org.exist.storage.NativeBroker;
 import org.exist.storage.NativeValueIndex;
 import org.exist.storage.XQueryPool;
+import org.exist.storage.XQueryResultCache;
 import org.exist.storage.journal.Journal;
+import org.exist.storage.recovery.RecoveryManager;
 import org.exist.storage.serializers.CustomMatchListenerFactory;
 import org.exist.storage.serializers.Serializer;
+import org.exist.storage.sync.PageCleaner;
 import org.exist.storage.txn.TransactionManager;
 import org.exist.validation.GrammarPool;
 import org.exist.validation.resolver.eXistXMLCatalogResolver;
 import org.exist.xmldb.DatabaseImpl;
 import org.exist.xquery.FunctionFactory;
+import org.exist.xquery.GroupByClause;
+import org.exist.xquery.OrderByClause;
 import org.exist.xquery.PerformanceStats;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.XQueryWatchDog;
@@ -332,6 +337,28 @@ public class Configuration implements ErrorHandler
         final String trace = getConfigAttributeValue( xquery, PerformanceStats.CONFIG_ATTR_TRACE );
         config.put( PerformanceStats.CONFIG_PROPERTY_TRACE, trace );
 
+        final String orderBySpillThreshold = getConfigAttributeValue( xquery, OrderByClause.ORDER_BY_SPILL_THRESHOLD_ATTRIBUTE );
+        if( ( orderBySpillThreshold != null ) && ( orderBySpillThreshold.length() > 0 ) ) {
+            try {
+                config.put( OrderByClause.PROPERTY_ORDER_BY_SPILL_THRESHOLD, Integer.valueOf( orderBySpillThreshold ) );
+                LOG.debug( OrderByClause.PROPERTY_ORDER_BY_SPILL_THRESHOLD + ": " + config.get( OrderByClause.PROPERTY_ORDER_BY_SPILL_THRESHOLD ) );
+            }
+            catch( final NumberFormatException nfe ) {
+                LOG.warn( nfe );
+            }
+        }
+
+        final String groupBySpillThreshold = getConfigAttributeValue( xquery, GroupByClause.GROUP_BY_SPILL_THRESHOLD_ATTRIBUTE );
+        if( ( groupBySpillThreshold != null ) && ( groupBySpillThreshold.length() > 0 ) ) {
+            try {
+                config.put( GroupByClause.PROPERTY_GROUP_BY_SPILL_THRESHOLD, Integer.valueOf( groupBySpillThreshold ) );
+                LOG.debug( GroupByClause.PROPERTY_GROUP_BY_SPILL_THRESHOLD + ": " + config.get( GroupByClause.PROPERTY_GROUP_BY_SPILL_THRESHOLD ) );
+            }
+            catch( final NumberFormatException nfe ) {
+                LOG.warn( nfe );
+            }
+        }
+
         // built-in-modules
         final Map<String, Class<?>> classMap      = new HashMap<String, Class<?>>();
         final Map<String, String>   knownMappings = new HashMap<String, String>();
@@ -911,6 +938,20 @@ public class Configuration implements ErrorHandler
             }
         }
 
+        final String memoryMappedFiles = getConfigAttributeValue( con, BrokerPool.MEMORY_MAPPED_FILES_ATTRIBUTE );
+
+        if( memoryMappedFiles != null ) {
+            config.put( BrokerPool.PROPERTY_MEMORY_MAPPED_FILES, parseFileNames( memoryMappedFiles ) );
+            LOG.debug( BrokerPool.PROPERTY_MEMORY_MAPPED_FILES + ": " + config.get( BrokerPool.PROPERTY_MEMORY_MAPPED_FILES ) );
+        }
+
+        final String compressedFiles = getConfigAttributeValue( con, BrokerPool.COMPRESSED_FILES_ATTRIBUTE );
+
+        if( compressedFiles != null ) {
+            config.put( BrokerPool.PROPERTY_COMPRESSED_FILES, parseFileNames( compressedFiles ) );
+            LOG.debug( BrokerPool.PROPERTY_COMPRESSED_FILES + ": " + config.get( BrokerPool.PROPERTY_COMPRESSED_FILES ) );
+        }
+
         final String docIds = con.getAttribute(BrokerPool.DOC_ID_MODE_ATTRIBUTE);
         if (docIds != null) {
         	config.put(BrokerPool.DOC_ID_MODE_PROPERTY, docIds);
@@ -1051,6 +1092,12 @@ public class Configuration implements ErrorHandler
             configureXQueryPool( (Element)queryPoolConf.item( 0 ) );
         }
 
+        final NodeList queryResultCacheConf = con.getElementsByTagName( XQueryResultCache.CONFIGURATION_ELEMENT_NAME );
+
+        if( queryResultCacheConf.getLength() > 0 ) {
+            configureXQueryResultCache( (Element)queryResultCacheConf.item( 0 ) );
+        }
+
         final NodeList watchConf = con.getElementsByTagName( XQueryWatchDog.CONFIGURATION_ELEMENT_NAME );
 
         if( watchConf.getLength() > 0 ) {
@@ -1064,6 +1111,20 @@ public class Configuration implements ErrorHandler
         }
     }
 
+    /**
+     * Parses a list of database file names, separated by whitespace or commas.
+     */
+    private static Set<String> parseFileNames( final String value )
+    {
+        final Set<String> fileNames = new HashSet<>();
+        for( final String fileName : value.split( "[\\s,]+" ) ) {
+            if( !fileName.isEmpty() ) {
+                fileNames.add( fileName );
+            }
+        }
+        return Collections.unmodifiableSet( fileNames );
+    }
+
 
     private void configureRecovery( final Optional<Path> dbHome, Element recovery ) throws DatabaseConfigurationException
     {
@@ -1079,6 +1140,52 @@ public class Configuration implements ErrorHandler
         setProperty( BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, parseBoolean( option, false ) );
         LOG.debug( BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT + ": " + config.get( BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT ) );
 
+        option = getConfigAttributeValue( recovery, Journal.RECOVERY_GROUP_COMMIT_DELAY_ATTRIBUTE );
+
+        if( option != null ) {
+
+            try {
+                final Integer delay = Integer.valueOf( option );
+                setProperty( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_DELAY, delay );
+                LOG.debug( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_DELAY + ": " + config.get( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_DELAY ) + "ms" );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "group-commit-delay attribute in recovery section needs to be a number" ) );
+            }
+        }
+
+        option = getConfigAttributeValue( recovery, RecoveryManager.RECOVERY_REDO_THREADS_ATTRIBUTE );
+
+        if( option != null ) {
+
+            try {
+                final Integer threads = Integer.valueOf( option );
+                setProperty( RecoveryManager.PROPERTY_RECOVERY_REDO_THREADS, threads );
+                LOG.debug( RecoveryManager.PROPERTY_RECOVERY_REDO_THREADS + ": " + config.get( RecoveryManager.PROPERTY_RECOVERY_REDO_THREADS ) );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "redo-threads attribute in recovery section needs to be a number" ) );
+            }
+        }
+
+        option = getConfigAttributeValue( recovery, PageCleaner.RECOVERY_FUZZY_CHECKPOINT_ATTRIBUTE );
+        setProperty( PageCleaner.PROPERTY_RECOVERY_FUZZY_CHECKPOINT, parseBoolean( option, false ) );
+        LOG.debug( PageCleaner.PROPERTY_RECOVERY_FUZZY_CHECKPOINT + ": " + config.get( PageCleaner.PROPERTY_RECOVERY_FUZZY_CHECKPOINT ) );
+
+        option = getConfigAttributeValue( recovery, PageCleaner.RECOVERY_PAGE_CLEANER_RATE_ATTRIBUTE );
+
+        if( option != null ) {
+
+            try {
+                final Integer rate = Integer.valueOf( option );
+                setProperty( PageCleaner.PROPERTY_RECOVERY_PAGE_CLEANER_RATE, rate );
+                LOG.debug( PageCleaner.PROPERTY_RECOVERY_PAGE_CLEANER_RATE + ": " + config.get( PageCleaner.PROPERTY_RECOVERY_PAGE_CLEANER_RATE ) );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "page-cleaner-rate attribute in recovery section needs to be a number" ) );
+            }
+        }
+
         option = getConfigAttributeValue( recovery, Journal.RECOVERY_JOURNAL_DIR_ATTRIBUTE );
 
         if(option != null) {
@@ -1211,6 +1318,44 @@ public class Configuration implements ErrorHandler
         }
     }
     
+    /**
+     * DOCUMENT ME!
+     *
+     * @param  queryResultCache
+     */
+    private void configureXQueryResultCache( Element queryResultCache )
+    {
+        final String enabled = getConfigAttributeValue( queryResultCache, XQueryResultCache.ENABLED_ATTRIBUTE );
+        config.put( XQueryResultCache.PROPERTY_ENABLED, parseBoolean( enabled, false ) );
+        LOG.debug( XQueryResultCache.PROPERTY_ENABLED + ": " + config.get( XQueryResultCache.PROPERTY_ENABLED ) );
+
+        final String size = getConfigAttributeValue( queryResultCache, XQueryResultCache.SIZE_ATTRIBUTE );
+
+        if( size != null ) {
+
+            try {
+                config.put( XQueryResultCache.PROPERTY_SIZE, Integer.valueOf(size) );
+                LOG.debug( XQueryResultCache.PROPERTY_SIZE + ": " + config.get( XQueryResultCache.PROPERTY_SIZE ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
+        final String timeout = getConfigAttributeValue( queryResultCache, XQueryResultCache.TIMEOUT_ATTRIBUTE );
+
+        if( timeout != null ) {
+
+            try {
+                config.put( XQueryResultCache.PROPERTY_TIMEOUT, Long.valueOf(timeout) );
+                LOG.debug( XQueryResultCache.PROPERTY_TIMEOUT + ": " + config.get( XQueryResultCache.PROPERTY_TIMEOUT ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+    }
+
     public static class StartupTriggerConfig {
         private final String clazz;
         private final Map<String, List<? extends Object>> params;
@@ -1385,6 +1530,19 @@ public class Configuration implements ErrorHandler
             }
         }
 
+        final String reindexThreads = getConfigAttributeValue( indexer, NativeBroker.REINDEX_THREADS_ATTRIBUTE );
+
+        if( reindexThreads != null ) {
+
+            try {
+                config.put( NativeBroker.PROPERTY_REINDEX_THREADS, Integer.valueOf( reindexThreads ) );
+                LOG.debug( NativeBroker.PROPERTY_REINDEX_THREADS + ": " + config.get( NativeBroker.PROPERTY_REINDEX_THREADS ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
         final String suppressWS = getConfigAttributeValue( indexer, Indexer.SUPPRESS_WHITESPACE_ATTRIBUTE );
 
         if( suppressWS != null ) {
@@ -0,0 +1,55 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.util;
+
+import org.exist.Database;
+
+/**
+ * Creates the threads of a database instance, named after the instance,
+ * so the threads of several instances in one JVM can be told apart.
+ */
+public class ThreadUtils {
+
+    private ThreadUtils() {
+    }
+
+    /**
+     * @param database the database instance the thread works for
+     * @param threadName the name of the thread within the instance
+     *
+     * @return the name of the thread, e.g. db.exist.lucene-index-refresh
+     */
+    public static String nameInstanceThread(final Database database, final String threadName) {
+        return "db." + database.getId() + "." + threadName;
+    }
+
+    /**
+     * Creates a thread for a database instance, which is not started yet.
+     *
+     * @param database the database instance the thread works for
+     * @param threadName the name of the thread within the instance
+     * @param runnable the work of the thread
+     *
+     * @return the new thread
+     */
+    public static Thread newInstanceThread(final Database database, final String threadName, final Runnable runnable) {
+        return new Thread(runnable, nameInstanceThread(database, threadName));
+    }
+}
@@ -25,6 +25,9 @@ public class XQuerySerializer {
     private final DBBroker broker;
     private final Writer writer;
 
+    private Serializer sequenceSerializer = null;
+    private SAXSerializer sequenceSAX = null;
+
     public XQuerySerializer(DBBroker broker, Properties outputProperties, Writer writer) {
         super();
         this.broker = broker;
@@ -52,6 +55,67 @@ public class XQuerySerializer {
         }
     }
 
+    /**
+     * Starts the serialization of a sequence whose items are passed in one by one
+     * with {@link #serializeItem(Item, boolean, boolean)}, e.g. because they are
+     * still being evaluated. {@link #endSequence(boolean)} must be called when done.
+     *
+     * @param start the position of the first item in the sequence
+     * @param wrap true if the items should be wrapped in an exist:result element
+     * @param compilationTime the time taken to compile the query which produces the sequence
+     * @throws SAXException if an error occurs during serialization
+     */
+    public void startSequence(final int start, final boolean wrap, final long compilationTime) throws SAXException {
+        // the query may use the broker's serializer while the sequence is serialized
+        sequenceSerializer = broker.newSerializer();
+        sequenceSAX = (SAXSerializer) SerializerPool.getInstance().borrowObject(SAXSerializer.class);
+        try {
+            sequenceSAX.setOutput(writer, outputProperties);
+            sequenceSerializer.setProperties(outputProperties);
+            sequenceSerializer.setSAXHandlers(sequenceSAX, sequenceSAX);
+            sequenceSerializer.startSequenceToSAX(start, wrap, compilationTime);
+        } catch (SAXNotSupportedException | SAXNotRecognizedException e) {
+            releaseSequenceSAX();
+            throw new SAXException(e.getMessage(), e);
+        } catch (final SAXException e) {
+            releaseSequenceSAX();
+            throw e;
+        }
+    }
+
+    /**
+     * Serializes the next item of a sequence started with {@link #startSequence(int, boolean, long)}.
+     *
+     * @param item the item to serialize
+     * @param typed true if the type of the item should be written out
+     * @param wrap true if the items are wrapped in an exist:result element
+     * @throws SAXException if an error occurs during serialization
+     */
+    public void serializeItem(final Item item, final boolean typed, final boolean wrap) throws SAXException {
+        sequenceSerializer.sequenceItemToSAX(item, typed, wrap);
+    }
+
+    /**
+     * Ends the serialization of a sequence started with {@link #startSequence(int, boolean, long)}.
+     *
+     * @param wrap true if the items are wrapped in an exist:result element
+     * @throws SAXException if an error occurs during serialization
+     */
+    public void endSequence(final boolean wrap) throws SAXException {
+        try {
+            sequenceSerializer.endSequenceToSAX(wrap);
+        } finally {
+            releaseSequenceSAX();
+        }
+    }
+
+    private void releaseSequenceSAX() {
+        if (sequenceSAX != null) {
+            SerializerPool.getInstance().returnObject(sequenceSAX);
+            sequenceSAX = null;
+        }
+    }
+
     public boolean normalize() {
         final String method = outputProperties.getProperty(OutputKeys.METHOD, "xml");
         return !("json".equals(method) || "adaptive".equals(method));
@@ -52,6 +52,17 @@ public abstract class BinaryOp extends PathExpr {
         steps.add(1, expr);
     }
 
+    public boolean isInWhereClause() {
+        return inWhereClause;
+    }
+
+    /**
+     * Replaces the left (0) or right (1) operand.
+     */
+    protected void setOperand(int index, Expression expr) {
+        steps.set(index, expr);
+    }
+
     public void setContextDocSet(DocumentSet contextSet) {
     	super.setContextDocSet(contextSet);
     	getLeft().setContextDocSet(contextSet);
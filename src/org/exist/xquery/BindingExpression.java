@@ -70,6 +70,13 @@ public abstract class BindingExpression extends AbstractFLWORClause implements R
 		this.sequenceType = type;
 	}
 
+    /**
+     * Returns the sequence type of the variable, or null if no type was declared.
+     */
+    public SequenceType getSequenceType() {
+        return sequenceType;
+    }
+
 	public void setInputSequence(Expression sequence) {
 		this.inputSequence = sequence.simplify();
 	}
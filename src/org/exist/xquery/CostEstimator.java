@@ -0,0 +1,343 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery;
+
+import org.exist.Namespaces;
+import org.exist.dom.QName;
+import org.exist.indexing.Index;
+import org.exist.storage.statistics.IndexStatistics;
+import org.exist.xquery.Constants.Comparison;
+import org.exist.xquery.functions.fn.FunContains;
+import org.exist.xquery.functions.fn.FunEndsWith;
+import org.exist.xquery.functions.fn.FunLast;
+import org.exist.xquery.functions.fn.FunMatches;
+import org.exist.xquery.functions.fn.FunNot;
+import org.exist.xquery.functions.fn.FunPosition;
+import org.exist.xquery.functions.fn.FunStartsWith;
+import org.exist.xquery.value.Type;
+
+/**
+ * Estimates selectivity and evaluation cost of filter conditions. Used by the
+ * {@link Optimizer} to decide in which order predicates and the operands of an
+ * <code>and</code> expression should be evaluated, and whether an index lookup
+ * pays off compared to a structural scan.
+ *
+ * The estimates are based on the element counts in the {@link org.exist.storage.statistics.DataGuide}
+ * maintained by {@link IndexStatistics} and on the number of distinct keys in the range index.
+ * If the statistics are not enabled, fixed default selectivities are used.
+ */
+public class CostEstimator {
+
+    /** Selectivity assumed if nothing is known about a condition */
+    public final static double DEFAULT_SELECTIVITY = 0.5;
+
+    /** Selectivity of an equality comparison if the number of distinct keys is unknown */
+    public final static double EQ_SELECTIVITY = 0.1;
+
+    /** Selectivity of a range comparison */
+    public final static double RANGE_SELECTIVITY = 0.33;
+
+    /** Selectivity of an inequality comparison */
+    public final static double NEQ_SELECTIVITY = 0.9;
+
+    /** Selectivity of a substring or pattern match */
+    public final static double MATCH_SELECTIVITY = 0.25;
+
+    private final XQueryContext context;
+    private final IndexStatistics statistics;
+
+    public CostEstimator(XQueryContext context) {
+        this.context = context;
+        final Index index = context.getBroker().getBrokerPool().getIndexManager().getIndexById(IndexStatistics.ID);
+        this.statistics = index instanceof IndexStatistics ? (IndexStatistics) index : null;
+    }
+
+    public boolean hasStatistics() {
+        return statistics != null;
+    }
+
+    /**
+     * Returns the number of elements with the given name in the database.
+     *
+     * @param qname the element name, may be null
+     * @return the number of elements or -1 if unknown
+     */
+    public long getNodeCount(QName qname) {
+        if (statistics == null || qname == null) {
+            return -1;
+        }
+        final long count = statistics.getNodeCount(qname);
+        return count > 0 ? count : -1;
+    }
+
+    /**
+     * Returns the number of distinct keys in the range index on the given name.
+     *
+     * @param qname the element or attribute name, may be null
+     * @return the number of keys or -1 if unknown
+     */
+    public long getDistinctKeys(QName qname) {
+        if (statistics == null || qname == null) {
+            return -1;
+        }
+        final long count = statistics.getDistinctKeys(context.getBroker(), qname);
+        return count > 0 ? count : -1;
+    }
+
+    /**
+     * Estimates the fraction of context items for which the condition is true.
+     *
+     * @param expr the condition
+     * @param contextName the name of the context elements the condition is applied to, or null
+     * @return the selectivity between 0 and 1
+     */
+    public double selectivity(Expression expr, QName contextName) {
+        expr = unwrap(expr);
+        if (expr instanceof OpAnd) {
+            final OpAnd and = (OpAnd) expr;
+            return selectivity(and.getLeft(), contextName) * selectivity(and.getRight(), contextName);
+        } else if (expr instanceof OpOr) {
+            final OpOr or = (OpOr) expr;
+            final double left = selectivity(or.getLeft(), contextName);
+            final double right = selectivity(or.getRight(), contextName);
+            return left + right - left * right;
+        } else if (expr instanceof GeneralComparison) {
+            return comparisonSelectivity((GeneralComparison) expr);
+        } else if (expr instanceof FunNot) {
+            return 1.0 - selectivity(((FunNot) expr).getArgument(0), contextName);
+        } else if (expr instanceof FunContains || expr instanceof FunStartsWith ||
+                expr instanceof FunEndsWith || expr instanceof FunMatches) {
+            return MATCH_SELECTIVITY;
+        } else if (expr instanceof LocationStep || expr instanceof PathExpr) {
+            // existence check, e.g. [author]: compare the number of
+            // elements with the number of context elements
+            final long count = getNodeCount(getKeyName(expr));
+            final long contextCount = getNodeCount(contextName);
+            if (count > 0 && contextCount > 0) {
+                return Math.min(1.0, (double) count / contextCount);
+            }
+        }
+        return DEFAULT_SELECTIVITY;
+    }
+
+    private double comparisonSelectivity(GeneralComparison comparison) {
+        final Comparison relation = comparison.getRelation();
+        if (relation == Comparison.NEQ) {
+            return NEQ_SELECTIVITY;
+        } else if (relation != Comparison.EQ) {
+            return RANGE_SELECTIVITY;
+        }
+        QName key = getKeyName(comparison.getLeft());
+        if (key == null) {
+            key = getKeyName(comparison.getRight());
+        }
+        final long keys = getDistinctKeys(key);
+        return keys > 0 ? 1.0 / keys : EQ_SELECTIVITY;
+    }
+
+    /**
+     * Estimates the relative cost of evaluating the expression once for a
+     * context item.
+     *
+     * @param expr the expression
+     * @return the cost, at least 1
+     */
+    public double cost(Expression expr) {
+        return Math.max(1.0, subtreeCost(expr));
+    }
+
+    private double subtreeCost(Expression expr) {
+        expr = unwrap(expr);
+        if (expr instanceof LiteralValue || expr instanceof VariableReference) {
+            return 0;
+        } else if (expr instanceof LocationStep) {
+            final LocationStep step = (LocationStep) expr;
+            final int axis = step.getAxis();
+            double cost = axis == Constants.DESCENDANT_AXIS || axis == Constants.DESCENDANT_SELF_AXIS ||
+                axis == Constants.DESCENDANT_ATTRIBUTE_AXIS ? 4 : 1;
+            for (final Predicate pred : step.getPredicates()) {
+                cost += subtreeCost(pred);
+            }
+            return cost;
+        } else if (expr instanceof FunctionCall) {
+            return 20 + argumentCost((Function) expr);
+        } else if (expr instanceof Function) {
+            return 5 + argumentCost((Function) expr);
+        } else if (expr instanceof FLWORClause) {
+            return 20;
+        }
+        double cost = expr instanceof GeneralComparison ? 1 : 0;
+        for (int i = 0; i < expr.getSubExpressionCount(); i++) {
+            cost += subtreeCost(expr.getSubExpression(i));
+        }
+        return cost;
+    }
+
+    private double argumentCost(Function function) {
+        double cost = 0;
+        for (int i = 0; i < function.getArgumentCount(); i++) {
+            cost += subtreeCost(function.getArgument(i));
+        }
+        return cost;
+    }
+
+    /**
+     * Ranks a filter condition: conditions with a lower rank should be
+     * evaluated first. Cheap conditions which discard many items come first.
+     *
+     * @param expr the condition
+     * @param contextName the name of the context elements, or null
+     * @return the rank
+     */
+    public double rank(Expression expr, QName contextName) {
+        return (selectivity(expr, contextName) - 1.0) / cost(expr);
+    }
+
+    /**
+     * Checks if the evaluation order of the condition relative to other conditions
+     * may be changed: the condition must not depend on the context position and must
+     * not call functions which may have side effects.
+     *
+     * @param expr the condition
+     * @return true if the condition can be reordered
+     */
+    public boolean canReorder(Expression expr) {
+        final ReorderCheck check = new ReorderCheck();
+        expr.accept(check);
+        return check.reorderable;
+    }
+
+    /**
+     * Checks if a predicate can be evaluated in a different position of
+     * the predicate list.
+     *
+     * @param predicate the predicate
+     * @return true if the predicate is not positional and free of side effects
+     */
+    public boolean canReorder(Predicate predicate) {
+        if (predicate.getExecutionMode() == Predicate.POSITIONAL || predicate.getLength() != 1) {
+            return false;
+        }
+        final int type = predicate.getExpression(0).returnsType();
+        return (type == Type.BOOLEAN || Type.subTypeOf(type, Type.NODE)) && canReorder(predicate.getExpression(0));
+    }
+
+    /**
+     * Returns the name tested by the last step of a path, e.g. <code>title</code>
+     * for <code>book/title</code>.
+     */
+    static QName getKeyName(Expression expr) {
+        expr = unwrap(expr);
+        if (expr instanceof PathExpr && !(expr instanceof BinaryOp) && ((PathExpr) expr).getLength() > 0) {
+            expr = unwrap(((PathExpr) expr).getLastExpression());
+        }
+        if (expr instanceof LocationStep) {
+            final NodeTest test = ((LocationStep) expr).getTest();
+            if (!test.isWildcardTest() && test.getName() != null) {
+                return test.getName();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes wrapper expressions which do not change the value.
+     */
+    static Expression unwrap(Expression expr) {
+        while (true) {
+            if (expr instanceof DebuggableExpression) {
+                expr = ((DebuggableExpression) expr).getExpression();
+            } else if (expr.getSubExpressionCount() == 1 && (expr.getClass() == PathExpr.class || expr instanceof Predicate ||
+                    expr instanceof Atomize || expr instanceof DynamicCardinalityCheck ||
+                    expr instanceof DynamicTypeCheck || expr instanceof UntypedValueCheck)) {
+                expr = expr.getSubExpression(0);
+            } else {
+                return expr;
+            }
+        }
+    }
+
+    private static class ReorderCheck extends DefaultExpressionVisitor {
+
+        private boolean reorderable = true;
+
+        @Override
+        public void visit(Expression expr) {
+            if (expr instanceof LiteralValue || expr instanceof RootNode) {
+                return;
+            }
+            if (expr instanceof Atomize || expr instanceof DynamicCardinalityCheck ||
+                    expr instanceof DynamicTypeCheck || expr instanceof UntypedValueCheck) {
+                expr.getSubExpression(0).accept(this);
+            } else {
+                reorderable = false;
+            }
+        }
+
+        @Override
+        public void visitBuiltinFunction(Function function) {
+            if (function instanceof FunPosition || function instanceof FunLast ||
+                    !Namespaces.XPATH_FUNCTIONS_NS.equals(function.getName().getNamespaceURI()) ||
+                    function.isCalledAs("error") || function.isCalledAs("trace")) {
+                reorderable = false;
+            } else {
+                super.visitBuiltinFunction(function);
+            }
+        }
+
+        @Override
+        public void visitGeneralComparison(GeneralComparison comparison) {
+            comparison.getLeft().accept(this);
+            comparison.getRight().accept(this);
+        }
+
+        @Override
+        public void visitUserFunction(UserDefinedFunction function) {
+            reorderable = false;
+        }
+
+        @Override
+        public void visitFunctionCall(FunctionCall call) {
+            reorderable = false;
+        }
+
+        @Override
+        public void visitTryCatch(TryCatchExpression tryCatch) {
+            reorderable = false;
+        }
+
+        @Override
+        public void visitVariableReference(VariableReference ref) {
+        }
+
+        @Override
+        public void visitCastExpr(CastExpression expression) {
+            expression.getInnerExpression().accept(this);
+        }
+
+        @Override
+        public void visitFilteredExpr(FilteredExpression filtered) {
+            filtered.getExpression().accept(this);
+            for (final Predicate pred : filtered.getPredicates()) {
+                pred.accept(this);
+            }
+        }
+    }
+}
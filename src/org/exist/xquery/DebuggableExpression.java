@@ -41,6 +41,15 @@ public class DebuggableExpression implements Expression, RewritableExpression {
         this.column = this.expression.getColumn();
     }
 
+    /**
+     * Returns the wrapped expression.
+     *
+     * @return the wrapped expression
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
     public int getExpressionId() {
         return expression.getExpressionId();
     }
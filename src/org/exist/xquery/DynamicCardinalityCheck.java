@@ -48,6 +48,10 @@ public class DynamicCardinalityCheck extends AbstractExpression {
         setLocation(expression.getLine(), expression.getColumn());
     }
 
+    public int getRequiredCardinality() {
+        return requiredCardinality;
+    }
+
     /* (non-Javadoc)
      * @see org.exist.xquery.Expression#analyze(org.exist.xquery.Expression)
      */
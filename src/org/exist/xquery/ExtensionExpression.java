@@ -54,6 +54,14 @@ public class ExtensionExpression extends AbstractExpression {
         pragmas.add(pragma);
     }
 
+    public Expression getExpression() {
+        return innerExpression;
+    }
+
+    public List<Pragma> getPragmas() {
+        return pragmas;
+    }
+
     /**
      * For every pragma in the list, calls {@link Pragma#before(XQueryContext, Expression)} before evaluation.
      * The method then tries to call {@link Pragma#eval(Sequence, Item)} on every pragma.
@@ -98,7 +106,7 @@ public class ExtensionExpression extends AbstractExpression {
     public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
         final AnalyzeContextInfo newContext = new AnalyzeContextInfo(contextInfo);
         for (final Pragma pragma : pragmas) {
-            pragma.analyze(newContext);
+            pragma.analyze(newContext, innerExpression);
         }
         innerExpression.analyze(newContext);
     }
@@ -27,6 +27,7 @@ import java.util.List;
 
 import org.exist.dom.persistent.NodeSet;
 import org.exist.dom.memtree.NodeImpl;
+import org.exist.xquery.functions.fn.FunPosition;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.*;
 
@@ -44,6 +45,14 @@ public class FilteredExpression extends AbstractExpression {
     final protected List<Predicate> predicates = new ArrayList<Predicate>(2);
     private Expression parent;
 
+    /* the "order by" clause ordering the filtered sequence, if only the first
+       items of the sequence can be selected by the predicate */
+    private OrderByClause orderBy = null;
+    /* the step producing the filtered sequence, which can stop the lookup
+       after the items the predicate may select */
+    private LocationStep step = null;
+    private int limit = -1;
+
     /**
      * @param context
      */
@@ -81,6 +90,74 @@ public class FilteredExpression extends AbstractExpression {
             for (final Predicate pred : predicates) {
                 pred.analyze(newContext);
             }
+            if (!abbreviated) {
+                limit = getPositionalLimit(predicates.get(0));
+                orderBy = limit > 0 ? OrderByClause.getOrderByClause(expression) : null;
+                step = limit > 0 ? LocationStep.getLimitableStep(expression) : null;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of items from the start of the sequence the predicate
+     * may select: the predicate is either a position or compares position()
+     * with a number.
+     *
+     * @param pred the predicate
+     * @return the number of items or -1 if the predicate may select any item
+     */
+    private static int getPositionalLimit(Predicate pred) throws XPathException {
+        if (pred.getLength() != 1) {
+            return -1;
+        }
+        final Expression expr = unwrap(pred.getExpression(0));
+        if (expr instanceof LiteralValue) {
+            return getPosition((LiteralValue) expr);
+        } else if (expr instanceof GeneralComparison) {
+            final GeneralComparison comparison = (GeneralComparison) expr;
+            final Expression left = unwrap(comparison.getLeft());
+            final Expression right = unwrap(comparison.getRight());
+            if (!(left instanceof FunPosition) || !(right instanceof LiteralValue)) {
+                return -1;
+            }
+            final int position = getPosition((LiteralValue) right);
+            if (position < 0) {
+                return -1;
+            }
+            switch (comparison.getRelation()) {
+                case EQ:
+                case LTEQ:
+                    return position;
+                case LT:
+                    return position - 1;
+                default:
+                    return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static int getPosition(LiteralValue literal) throws XPathException {
+        final AtomicValue value = literal.getValue();
+        if (!Type.subTypeOf(value.getType(), Type.NUMBER)) {
+            return -1;
+        }
+        final double position = ((NumericValue) value).getDouble();
+        if (position < 1 || position != Math.floor(position) || position > Integer.MAX_VALUE / 2) {
+            return -1;
+        }
+        return (int) position;
+    }
+
+    private static Expression unwrap(Expression expr) {
+        while (true) {
+            if (expr.getClass() == PathExpr.class && ((PathExpr) expr).getLength() == 1) {
+                expr = ((PathExpr) expr).getExpression(0);
+            } else if (expr instanceof InternalFunctionCall) {
+                expr = ((InternalFunctionCall) expr).getFunction();
+            } else {
+                return expr;
+            }
         }
     }
 
@@ -102,7 +179,28 @@ public class FilteredExpression extends AbstractExpression {
         if (contextItem != null)
             {contextSequence = contextItem.toSequence();}
         Sequence result;
-        final Sequence seq = expression.eval(contextSequence, contextItem);
+        final Sequence seq;
+        if (orderBy != null) {
+            // the ordered sequence only needs to keep the items the predicate may select
+            final int previousLimit = orderBy.getLimit();
+            orderBy.setLimit(limit);
+            try {
+                seq = expression.eval(contextSequence, contextItem);
+            } finally {
+                orderBy.setLimit(previousLimit);
+            }
+        } else if (step != null) {
+            // the step only needs to find the nodes the predicate may select
+            final int previousLimit = step.getLimit();
+            step.setLimit(limit);
+            try {
+                seq = expression.eval(contextSequence, contextItem);
+            } finally {
+                step.setLimit(previousLimit);
+            }
+        } else {
+            seq = expression.eval(contextSequence, contextItem);
+        }
         if (seq.isEmpty())
             {result = Sequence.EMPTY_SEQUENCE;}
         else {
@@ -38,6 +38,11 @@ public class ForExpr extends BindingExpression {
     private boolean allowEmpty = false;
     private boolean isOuterFor = true;
 
+    /* if the items of the input sequence are ordered by their score and only the
+       first ones may be used, the input and the "order by" clause ordering them */
+    private RankedExpression rankedInput = null;
+    private OrderByClause rankedOrderBy = null;
+
     public ForExpr(XQueryContext context, boolean allowingEmpty) {
         super(context);
         this.allowEmpty = allowingEmpty;
@@ -90,6 +95,8 @@ public class ForExpr extends BindingExpression {
             final AnalyzeContextInfo newContextInfo = new AnalyzeContextInfo(contextInfo);
             newContextInfo.addFlag(SINGLE_STEP_EXECUTION);
             returnExpr.analyze(newContextInfo);
+
+            analyzeRanking(inVar.getQName());
         } catch (final QName.IllegalQNameException e) {
             throw new XPathException(ErrorCodes.XPST0081, "No namespace defined for prefix");
         } finally {
@@ -98,6 +105,67 @@ public class ForExpr extends BindingExpression {
         }
     }
 
+    /**
+     * Checks if the input sequence returns items with a relevance score, which are
+     * bound to the variable and then ordered by descending score, as in
+     *
+     * <pre>for $hit in ft:query(//p, 'term') order by ft:score($hit) descending return $hit</pre>
+     *
+     * If only the first items of the ordered result are consumed, e.g. by
+     * fn:subsequence, the input then only needs to return the items with the highest
+     * scores. This is not the case if there are clauses between the "for" and the
+     * "order by" clause which may drop or repeat items.
+     */
+    private void analyzeRanking(QName variable) {
+        rankedInput = null;
+        rankedOrderBy = null;
+        if (getPreviousClause() != null || positionalVariable != null) {
+            return;
+        }
+        Expression input = inputSequence;
+        while (input.getClass() == PathExpr.class && ((PathExpr) input).getLength() == 1) {
+            input = ((PathExpr) input).getExpression(0);
+        }
+        if (!(input instanceof RankedExpression)) {
+            return;
+        }
+        Expression next = returnExpr;
+        while (next instanceof FLWORClause) {
+            final FLWORClause clause = (FLWORClause) next;
+            if (clause.getType() == ClauseType.ORDERBY) {
+                final OrderSpec[] specs = ((OrderByClause) clause).getOrderSpecs();
+                // further order specs would decide between items of equal score
+                if (specs.length == 1 && (specs[0].getModifiers() & OrderSpec.DESCENDING_ORDER) != 0 &&
+                        ((RankedExpression) input).isScoreOf(specs[0].getSortExpression(), variable)) {
+                    rankedInput = (RankedExpression) input;
+                    rankedOrderBy = (OrderByClause) clause;
+                }
+                return;
+            } else if (clause.getType() != ClauseType.LET) {
+                return;
+            }
+            next = clause.getReturnExpression();
+        }
+    }
+
+    /**
+     * Evaluates the input sequence. If only the first items ordered by their score
+     * are consumed, asks the input to return only these.
+     */
+    private Sequence evalInput(Sequence contextSequence) throws XPathException {
+        final int limit = rankedOrderBy == null ? -1 : rankedOrderBy.getLimit();
+        if (limit <= 0) {
+            return inputSequence.eval(contextSequence, null);
+        }
+        final int previousTopHits = rankedInput.getTopHits();
+        rankedInput.setTopHits(previousTopHits > 0 ? Math.min(previousTopHits, limit) : limit);
+        try {
+            return inputSequence.eval(contextSequence, null);
+        } finally {
+            rankedInput.setTopHits(previousTopHits);
+        }
+    }
+
     /**
      * This implementation tries to process the "where" clause in advance, i.e. in one single
      * step. This is possible if the input sequence is a node set and the where expression
@@ -107,6 +175,98 @@ public class ForExpr extends BindingExpression {
      */
     public Sequence eval(Sequence contextSequence, Item contextItem)
             throws XPathException {
+        return doEval(contextSequence, contextItem, null, null, 0);
+    }
+
+    /**
+     * Evaluates this "for" expression for a part of its input sequence, which has
+     * already been evaluated by the caller. Used to evaluate the iterations in parallel,
+     * see {@link org.exist.xquery.pragmas.Parallel}.
+     *
+     * @param contextSequence the context sequence
+     * @param contextItem the context item
+     * @param input the items of the input sequence to iterate over
+     * @param offset the position of the first item within the whole input sequence,
+     *               starting at 0. Used for the positional variable.
+     * @return the result of the "return" clause for the given items
+     * @throws XPathException if an error occurs during evaluation
+     */
+    public Sequence eval(Sequence contextSequence, Item contextItem, Sequence input, int offset)
+            throws XPathException {
+        return doEval(contextSequence, contextItem, null, input, offset);
+    }
+
+    /**
+     * Evaluates this "for" expression, but instead of collecting the results of the
+     * "return" clause into a result sequence, passes them to the receiver as soon as
+     * they are available. The results thus do not need to be held in memory.
+     * Evaluation stops early if the receiver does not want further items.
+     *
+     * Only possible if {@link #isStreamable()} returns true.
+     *
+     * @param contextSequence the context sequence
+     * @param contextItem the context item
+     * @param receiver receives the result of the "return" clause for each item
+     *                 of the input sequence
+     * @throws XPathException if an error occurs during evaluation
+     */
+    public void eval(Sequence contextSequence, Item contextItem, ResultReceiver receiver)
+            throws XPathException {
+        if (!isStreamable()) {
+            throw new XPathException(this, "The results of this for expression can not be streamed");
+        }
+        doEval(contextSequence, contextItem, receiver, null, 0);
+    }
+
+    /**
+     * Checks if the results of this "for" expression can be passed on item by item:
+     * this is not the case if the items have to be sorted or grouped first, or if
+     * the type of the whole result has to be checked.
+     *
+     * @return true if {@link #eval(Sequence, Item, ResultReceiver)} can be called
+     */
+    public boolean isStreamable() {
+        if (sequenceType != null || getPreviousClause() != null) {
+            return false;
+        }
+        Expression next = returnExpr;
+        while (next instanceof FLWORClause) {
+            final FLWORClause clause = (FLWORClause) next;
+            if (clause.getType() == ClauseType.ORDERBY || clause.getType() == ClauseType.GROUPBY) {
+                return false;
+            }
+            next = clause.getReturnExpression();
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the results of this "for" expression are collected by an "order by"
+     * clause anyway, so they do not need to be kept in a separate sequence: this
+     * must be the first clause of the FLWOR expression, and one of the following
+     * clauses an "order by", whose sorted results replace ours in {@link #postEval(Sequence)}.
+     * A "group by" clause collects the items itself.
+     */
+    boolean isCollectedByOrderBy() {
+        if (sequenceType != null || getPreviousClause() != null) {
+            return false;
+        }
+        boolean orderBy = false;
+        Expression next = returnExpr;
+        while (next instanceof FLWORClause) {
+            final FLWORClause clause = (FLWORClause) next;
+            if (clause.getType() == ClauseType.GROUPBY) {
+                return false;
+            } else if (clause.getType() == ClauseType.ORDERBY) {
+                orderBy = true;
+            }
+            next = clause.getReturnExpression();
+        }
+        return orderBy;
+    }
+
+    private Sequence doEval(Sequence contextSequence, Item contextItem, final ResultReceiver receiver,
+            final Sequence input, final int offset) throws XPathException {
         if (context.getProfiler().isEnabled()) {
             context.getProfiler().start(this);
             context.getProfiler().message(this, Profiler.DEPENDENCIES,
@@ -124,9 +284,10 @@ public class ForExpr extends BindingExpression {
         // Save the local variable stack
         LocalVariable mark = context.markLocalVariables(false);
         Sequence resultSequence = new ValueSequence(unordered);
+        final boolean collectedByOrderBy = receiver == null && isCollectedByOrderBy();
         try {
             // Evaluate the "in" expression
-            in = inputSequence.eval(contextSequence, null);
+            in = input != null ? input : evalInput(contextSequence);
             clearContext(getExpressionId(), in);
             // Declare the iteration variable
             var = createVariable(varName);
@@ -165,7 +326,7 @@ public class ForExpr extends BindingExpression {
                 }
             }
 
-            final IntegerValue atVal = new IntegerValue(1);
+            final IntegerValue atVal = new IntegerValue(offset + 1);
             if (positionalVariable != null) {
                 at.setValue(atVal);
             }
@@ -183,10 +344,13 @@ public class ForExpr extends BindingExpression {
             // Loop through each variable binding
             int p = 0;
             if (in.isEmpty() && allowEmpty) {
-                processItem(var, AtomicValue.EMPTY_VALUE, Sequence.EMPTY_SEQUENCE, resultSequence, at, p);
+                processItem(var, AtomicValue.EMPTY_VALUE, Sequence.EMPTY_SEQUENCE, resultSequence, receiver,
+                        collectedByOrderBy, at, p, offset);
             } else {
                 for (final SequenceIterator i = in.iterate(); i.hasNext(); p++) {
-                    processItem(var, i.nextItem(), in, resultSequence, at, p);
+                    if (!processItem(var, i.nextItem(), in, resultSequence, receiver, collectedByOrderBy, at, p, offset)) {
+                        break;
+                    }
                 }
             }
         } catch (final QName.IllegalQNameException e) {
@@ -197,6 +361,22 @@ public class ForExpr extends BindingExpression {
         }
 
         clearContext(getExpressionId(), in);
+        if (receiver != null) {
+            // the results have already been passed on
+            postEval(resultSequence);
+            context.expressionEnd(this);
+            if (context.getProfiler().isEnabled())
+                {context.getProfiler().end(this, "", resultSequence);}
+            return resultSequence;
+        }
+        if (collectedByOrderBy) {
+            resultSequence = postEval(resultSequence);
+            setActualReturnType(resultSequence.getItemType());
+            context.expressionEnd(this);
+            if (context.getProfiler().isEnabled())
+                {context.getProfiler().end(this, "", resultSequence);}
+            return resultSequence;
+        }
         if (sequenceType != null) {
             //Type.EMPTY is *not* a subtype of other types ; checking cardinality first
             //only a check on empty sequence is accurate here
@@ -233,12 +413,19 @@ public class ForExpr extends BindingExpression {
         return resultSequence;
     }
 
-    private void processItem(LocalVariable var, Item contextItem, Sequence in, Sequence resultSequence, LocalVariable
-            at, int p) throws XPathException {
+    /**
+     * Evaluates the "return" clause for one item of the input sequence.
+     *
+     * @param keepLast if true, the result sequence only keeps the results of the
+     *                 last item, as the results are collected by an "order by" clause
+     * @return false if the receiver does not want further items
+     */
+    private boolean processItem(LocalVariable var, Item contextItem, Sequence in, Sequence resultSequence,
+            ResultReceiver receiver, boolean keepLast, LocalVariable at, int p, int offset) throws XPathException {
         context.proceed(this);
         context.setContextSequencePosition(p, in);
         if (positionalVariable != null) {
-            at.setValue(new IntegerValue(p + 1));
+            at.setValue(new IntegerValue(offset + p + 1));
         }
         final Sequence contextSequence = contextItem.toSequence();
         // set variable value to current item
@@ -248,10 +435,23 @@ public class ForExpr extends BindingExpression {
         //Reset the context position
         context.setContextSequencePosition(0, null);
 
+        if (receiver != null) {
+            final Sequence returnSequence = returnExpr.eval(null);
+            final boolean more = receiver.receive(returnSequence);
+            // free resources
+            var.destroy(context, returnSequence);
+            return more;
+        }
+
+        if (keepLast) {
+            // the results of the previous items are kept by the "order by" clause
+            ((ValueSequence) resultSequence).clear();
+        }
         resultSequence.addAll(returnExpr.eval(null));
 
         // free resources
         var.destroy(context, resultSequence);
+        return true;
     }
 
     private boolean callPostEval() {
@@ -1,24 +1,80 @@
 package org.exist.xquery;
 
 import com.ibm.icu.text.Collator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.exist.dom.QName;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.util.io.TemporaryFileManager;
+import org.exist.xquery.functions.fn.FunCount;
+import org.exist.xquery.functions.fn.FunSum;
+import org.exist.xquery.functions.util.Eval;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.*;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Stream;
 
 /**
  * Implements a "group by" clause inside a FLWOR.
  *
+ * If the default collation is used, grouping keys which are integers or strings
+ * are kept in a compact encoding, see {@link GroupKey#of(AtomicValue[], boolean)}.
+ *
+ * Non-grouping variables which are only passed to fn:count or fn:sum in the
+ * remaining clauses are aggregated while the tuples are collected: for fn:count
+ * only the number of items is kept, for fn:sum the items are added up in chunks.
+ * This is not done if the remaining clauses call util:eval, which may look up
+ * any variable by name.
+ *
+ * If the number of items kept for the groups exceeds a threshold, the groups are
+ * written to temporary files, partitioned by the hash code of their keys. The
+ * partitions are then grouped one after the other. This is only possible if the
+ * default collation is used and all keys and items can be written to a file,
+ * see {@link SpillableItems}.
+ *
  * @author wolf
  */
 public class GroupByClause extends AbstractFLWORClause {
 
+    private final static Logger LOG = LogManager.getLogger(GroupByClause.class);
+
+    public static final String GROUP_BY_SPILL_THRESHOLD_ATTRIBUTE = "group-by-spill-threshold";
+    public static final String PROPERTY_GROUP_BY_SPILL_THRESHOLD = "xquery.group-by-spill-threshold";
+    public static final int DEFAULT_GROUP_BY_SPILL_THRESHOLD = 1000000;
+
+    private static final int PARTITIONS = 16;
+
+    // the number of items collected for fn:sum before they are added up
+    private static final int SUM_CHUNK_SIZE = 64;
+
+    // how the non-grouping variables are used by the remaining clauses
+    private static final int USE_COUNT = 1;
+    private static final int USE_SUM = 2;
+    private static final int USE_OTHER = 4;
+
+    private static final byte KEEP_ITEMS = 0;
+    private static final byte COUNT_ITEMS = 1;
+    private static final byte SUM_ITEMS = 2;
+
     protected FLWORClause rootClause = null;
     private GroupSpec[] groupSpecs;
     private final Deque<GroupByData> stack = new ArrayDeque<>();
 
+    // uses of the non-grouping variables, null if they can not be determined
+    private Map<QName, Integer> variableUses = null;
+    private final Map<QName, FunSum> sumFunctions = new HashMap<>();
+
     /**
      * Collect tuples and grouping vars. Because GroupByClause needs to keep
      * state across calls to preEval/eval/postEval, we have to track state data
@@ -27,23 +83,109 @@ public class GroupByClause extends AbstractFLWORClause {
      */
     private class GroupByData {
 
-        private Map<List<AtomicValue>, Tuple> groupedMap = null;
-        private Map<QName, LocalVariable> variables = null;
+        private Map<GroupKey, Tuple> groupedMap = null;
+        private LocalVariable[] variables = null;
+        private byte[] aggregations = null;
         private List<LocalVariable> groupingVars = null;
 
         private boolean initialized = false;
 
+        // keys are compared by value, so they can be encoded
+        private final boolean encodeKeys;
+
+        private final int spillThreshold;
+        private boolean spillable;
+        private long itemsInMemory = 0;
+        private Partitions partitions = null;
+
         public GroupByData() {
             // check if we can use a hash map
             if (usesDefaultCollator()) {
                 groupedMap = new HashMap<>();
+                spillThreshold = getSpillThreshold();
+                encodeKeys = true;
             } else {
                 // non-default collation: must use tree map
                 groupedMap = new TreeMap<>(GroupByClause.this::compareKeys);
+                spillThreshold = -1;
+                encodeKeys = false;
             }
-            variables = new HashMap<>();
+            spillable = spillThreshold > 0;
             groupingVars = new ArrayList<>();
         }
+
+        private Tuple newTuple(final Sequence[] groupingValues) {
+            return new Tuple(groupingValues, variables.length);
+        }
+
+        /**
+         * Adds the value of a non-grouping variable to the tuple.
+         */
+        private void add(final Tuple tuple, final int var, final Sequence value) throws XPathException {
+            switch (aggregations[var]) {
+                case COUNT_ITEMS:
+                    tuple.counts[var] += value.getItemCount();
+                    break;
+                case SUM_ITEMS:
+                    addItems(tuple, var, value);
+                    if (tuple.values[var].getItemCount() >= SUM_CHUNK_SIZE) {
+                        itemsInMemory -= tuple.values[var].getItemCount() - sum(tuple, var);
+                    }
+                    break;
+                default:
+                    addItems(tuple, var, value);
+                    break;
+            }
+        }
+
+        private void addItems(final Tuple tuple, final int var, final Sequence value) throws XPathException {
+            tuple.add(var, value);
+            itemsInMemory += value.getItemCount();
+            if (spillable && !SpillableItems.isSpillable(value)) {
+                spillable = false;
+            }
+        }
+
+        /**
+         * Replaces the items collected for fn:sum by their sum.
+         *
+         * @return the number of items kept
+         */
+        private int sum(final Tuple tuple, final int var) {
+            final FunSum function = sumFunctions.get(variables[var].getQName());
+            try {
+                tuple.values[var] = new ValueSequence(function.sum(tuple.values[var]));
+                return 1;
+            } catch (final XPathException e) {
+                // the error is raised when the sum is evaluated, if at all
+                aggregations[var] = KEEP_ITEMS;
+                return tuple.values[var].getItemCount();
+            }
+        }
+
+        /**
+         * Adds the values of a tuple for the same key to the tuple.
+         */
+        private void merge(final Tuple tuple, final Tuple other) throws XPathException {
+            for (int i = 0; i < variables.length; i++) {
+                if (aggregations[i] == COUNT_ITEMS) {
+                    tuple.counts[i] += other.counts[i];
+                } else if (other.values[i] != null) {
+                    add(tuple, i, other.values[i]);
+                }
+            }
+        }
+
+        private void checkSpill() throws XPathException {
+            if (spillable && itemsInMemory >= spillThreshold) {
+                if (partitions == null) {
+                    partitions = new Partitions();
+                }
+                partitions.write(this, groupedMap.values());
+                groupedMap.clear();
+                itemsInMemory = 0;
+            }
+        }
     }
 
     public GroupByClause(XQueryContext context) {
@@ -66,9 +208,10 @@ public class GroupByClause extends AbstractFLWORClause {
         final GroupByData data = stack.peek();
 
         // Evaluate group spec to create grouping key sequence
-        final List<Sequence> groupingValues = new ArrayList<>();
-        final List<AtomicValue> groupingKeys = new ArrayList<>();
-        for (GroupSpec spec: groupSpecs) {
+        final Sequence[] groupingValues = new Sequence[groupSpecs.length];
+        final AtomicValue[] groupingKeys = new AtomicValue[groupSpecs.length];
+        for (int i = 0; i < groupSpecs.length; i++) {
+            final GroupSpec spec = groupSpecs[i];
             final Sequence groupingSeq = spec.getGroupExpression().eval(null);
             if (groupingSeq.getItemCount() > 1) {
                 throw new XPathException(this, ErrorCodes.XPTY0004, "Grouping variable " + spec.getKeyVarName() + " " +
@@ -83,33 +226,80 @@ public class GroupByClause extends AbstractFLWORClause {
                 groupingVar.setStaticType(groupingValue.getType());
                 data.groupingVars.add(groupingVar);
             }
-            groupingValues.add(groupingSeq);
-            groupingKeys.add(groupingValue);
+            groupingValues[i] = groupingSeq;
+            groupingKeys[i] = groupingValue;
+        }
+
+        if (!data.initialized) {
+            initVariables(data);
         }
 
         // collect the current tuples into the grouping map
-        final Tuple tuple = data.groupedMap.computeIfAbsent(groupingKeys, ks -> new Tuple(groupingValues));
+        final GroupKey key = GroupKey.of(groupingKeys, data.encodeKeys);
+        Tuple tuple = data.groupedMap.get(key);
+        if (tuple == null) {
+            tuple = data.newTuple(groupingValues);
+            data.groupedMap.put(key, tuple);
+            data.itemsInMemory++;
+            if (data.spillable && !(isSpillable(groupingKeys) && isSpillable(groupingValues))) {
+                data.spillable = false;
+            }
+        }
 
         // scan in-scope variables to collect tuples
         LocalVariable nextVar = rootClause.getStartVariable();
-        Objects.requireNonNull(nextVar);
-        while(nextVar != null) {
-            tuple.add(nextVar.getQName(), nextVar.getValue());
-            if (!data.initialized) {
-                // on first call: initialize non-grouping variable for later use
-                final LocalVariable var = new LocalVariable(nextVar.getQName());
-                var.setSequenceType(nextVar.getSequenceType());
-                var.setStaticType(nextVar.getStaticType());
-                var.setContextDocs(nextVar.getContextDocs());
-                data.variables.put(var.getQName(), var);
+        for (int i = 0; nextVar != null; i++) {
+            if (i >= data.variables.length || !data.variables[i].getQName().equals(nextVar.getQName())) {
+                throw new XPathException(this, "Internal error: unexpected variable $" + nextVar.getQName());
             }
+            data.add(tuple, i, nextVar.getValue());
             nextVar = nextVar.after;
         }
 
         data.initialized = true;
+        data.checkSpill();
         return contextSequence;
     }
 
+    /**
+     * On first call: initialize non-grouping variables for later use.
+     */
+    private void initVariables(final GroupByData data) throws XPathException {
+        final List<LocalVariable> variables = new ArrayList<>();
+        LocalVariable nextVar = rootClause.getStartVariable();
+        Objects.requireNonNull(nextVar);
+        while (nextVar != null) {
+            final LocalVariable var = new LocalVariable(nextVar.getQName());
+            var.setSequenceType(nextVar.getSequenceType());
+            var.setStaticType(nextVar.getStaticType());
+            var.setContextDocs(nextVar.getContextDocs());
+            variables.add(var);
+            nextVar = nextVar.after;
+        }
+        data.variables = variables.toArray(new LocalVariable[variables.size()]);
+        data.aggregations = new byte[data.variables.length];
+        for (int i = 0; i < data.variables.length; i++) {
+            data.aggregations[i] = getAggregation(data.variables[i].getQName());
+        }
+    }
+
+    private byte getAggregation(final QName varName) {
+        if (variableUses == null) {
+            return KEEP_ITEMS;
+        }
+        final Integer uses = variableUses.get(varName);
+        if (uses == null) {
+            // not referenced by the remaining clauses, but the value may still be
+            // looked up by name at runtime, e.g. by util:eval
+            return KEEP_ITEMS;
+        } else if (uses == USE_COUNT) {
+            return COUNT_ITEMS;
+        } else if (uses == USE_SUM) {
+            return SUM_ITEMS;
+        }
+        return KEEP_ITEMS;
+    }
+
     @Override
     public Sequence postEval(final Sequence seq) throws XPathException {
         if (!stack.isEmpty()) {
@@ -117,38 +307,26 @@ public class GroupByClause extends AbstractFLWORClause {
             Sequence result = new ValueSequence();
             final LocalVariable mark = context.markLocalVariables(false);
             try {
-                // declare non-grouping variables
-                for (LocalVariable var : data.variables.values()) {
-                    context.declareVariableBinding(var);
-                }
-                // declare grouping variables
-                for (LocalVariable var : data.groupingVars) {
-                    context.declareVariableBinding(var);
-                }
-                // iterate over each group
-                for (Tuple tuple : data.groupedMap.values()) {
-                    context.proceed();
-
-                    // set grouping variable values
-                    final Iterator<Sequence> siter = tuple.groupingValues.iterator();
+                if (data.initialized) {
+                    // declare non-grouping variables
+                    for (LocalVariable var : data.variables) {
+                        context.declareVariableBinding(var);
+                    }
+                    // declare grouping variables
                     for (LocalVariable var : data.groupingVars) {
-                        if (siter.hasNext()) {
-                            Sequence val = siter.next();
-                            var.setValue(val);
-                        } else {
-                            throw new XPathException(this, "Internal error: missing grouping value");
-                        }
+                        context.declareVariableBinding(var);
                     }
-                    // set values of non-grouping variables
-                    for (Map.Entry<QName, Sequence> entry : tuple.entrySet()) {
-                        final LocalVariable var = data.variables.get(entry.getKey());
-                        var.setValue(entry.getValue());
+                    if (data.partitions == null) {
+                        evalGroups(data, data.groupedMap.values(), result);
+                    } else {
+                        data.partitions.evalGroups(data, result);
                     }
-                    final Sequence r = returnExpr.eval(null);
-                    result.addAll(r);
                 }
             } finally {
                 stack.pop();
+                if (data.partitions != null) {
+                    data.partitions.remove();
+                }
                 context.popLocalVariables(mark, result);
             }
 
@@ -161,6 +339,30 @@ public class GroupByClause extends AbstractFLWORClause {
         return seq;
     }
 
+    private void evalGroups(final GroupByData data, final Collection<Tuple> tuples, final Sequence result)
+            throws XPathException {
+        // iterate over each group
+        for (Tuple tuple : tuples) {
+            context.proceed();
+
+            // set grouping variable values
+            int i = 0;
+            for (LocalVariable var : data.groupingVars) {
+                if (i < tuple.groupingValues.length) {
+                    var.setValue(tuple.groupingValues[i++]);
+                } else {
+                    throw new XPathException(this, "Internal error: missing grouping value");
+                }
+            }
+            // set values of non-grouping variables
+            for (i = 0; i < data.variables.length; i++) {
+                data.variables[i].setValue(tuple.getValue(i));
+            }
+            final Sequence r = returnExpr.eval(null);
+            result.addAll(r);
+        }
+    }
+
     @Override
     public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
         contextInfo.setParent(this);
@@ -191,6 +393,143 @@ public class GroupByClause extends AbstractFLWORClause {
             rootClause = prevClause;
             prevClause = prevClause.getPreviousClause();
         }
+
+        final Map<QName, Integer> uses = new HashMap<>();
+        sumFunctions.clear();
+        variableUses = collectUses(returnExpr, uses, sumFunctions) ? uses : null;
+    }
+
+    /**
+     * Records how variables are referenced by the expression: as the argument of
+     * fn:count, of fn:sum or in any other way.
+     *
+     * @return false if the expression contains expressions whose subexpressions
+     * are not known, so the uses could not be determined
+     */
+    private static boolean collectUses(final Expression expr, final Map<QName, Integer> uses,
+            final Map<QName, FunSum> sums) {
+        if (expr == null || expr instanceof LiteralValue) {
+            return true;
+        } else if (expr instanceof VariableReference) {
+            uses.merge(((VariableReference) expr).getName(), USE_OTHER, (a, b) -> a | b);
+            return true;
+        } else if (expr instanceof DebuggableExpression) {
+            return collectUses(((DebuggableExpression) expr).getExpression(), uses, sums);
+        } else if (expr instanceof Eval) {
+            // the evaluated query may reference any variable by name
+            return false;
+        } else if (expr instanceof InternalFunctionCall) {
+            return collectUses(((InternalFunctionCall) expr).getFunction(), uses, sums);
+        } else if (expr instanceof FunCount && ((FunCount) expr).getArgumentCount() == 1
+                && getVariable(((FunCount) expr).getArgument(0)) != null) {
+            uses.merge(getVariable(((FunCount) expr).getArgument(0)), USE_COUNT, (a, b) -> a | b);
+            return true;
+        } else if (expr instanceof FunSum && getVariable(((FunSum) expr).getArgument(0)) != null) {
+            final FunSum function = (FunSum) expr;
+            final QName varName = getVariable(function.getArgument(0));
+            uses.merge(varName, USE_SUM, (a, b) -> a | b);
+            sums.putIfAbsent(varName, function);
+            return function.getArgumentCount() < 2 || collectUses(function.getArgument(1), uses, sums);
+        } else if (expr instanceof Function) {
+            final Function function = (Function) expr;
+            for (int i = 0; i < function.getArgumentCount(); i++) {
+                if (!collectUses(function.getArgument(i), uses, sums)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (expr instanceof ElementConstructor) {
+            final ElementConstructor constructor = (ElementConstructor) expr;
+            if (constructor.getAttributes() != null) {
+                for (final AttributeConstructor attribute : constructor.getAttributes()) {
+                    if (!collectUses(attribute, uses, sums)) {
+                        return false;
+                    }
+                }
+            }
+            return collectUses(constructor.getNameExpr(), uses, sums)
+                    && collectUses(constructor.getContent(), uses, sums);
+        } else if (expr instanceof AttributeConstructor) {
+            for (final Object content : ((AttributeConstructor) expr).contents) {
+                if (content instanceof Expression && !collectUses((Expression) content, uses, sums)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (expr instanceof ConditionalExpression) {
+            final ConditionalExpression conditional = (ConditionalExpression) expr;
+            return collectUses(conditional.getTestExpr(), uses, sums)
+                    && collectUses(conditional.getThenExpr(), uses, sums)
+                    && collectUses(conditional.getElseExpr(), uses, sums);
+        } else if (expr instanceof OrderByClause) {
+            for (final OrderSpec spec : ((OrderByClause) expr).getOrderSpecs()) {
+                if (!collectUses(spec.getSortExpression(), uses, sums)) {
+                    return false;
+                }
+            }
+            return collectUses(((OrderByClause) expr).getReturnExpression(), uses, sums);
+        } else if (expr instanceof WhereClause) {
+            return collectUses(((WhereClause) expr).getWhereExpr(), uses, sums)
+                    && collectUses(((WhereClause) expr).getReturnExpression(), uses, sums);
+        } else if (expr instanceof LetExpr || expr instanceof ForExpr) {
+            return collectUses(((BindingExpression) expr).getInputSequence(), uses, sums)
+                    && collectUses(((BindingExpression) expr).getReturnExpression(), uses, sums);
+        } else if (expr instanceof LocationStep) {
+            for (final Predicate pred : ((LocationStep) expr).getPredicates()) {
+                if (!collectUses(pred, uses, sums)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (expr instanceof FilteredExpression) {
+            for (final Predicate pred : ((FilteredExpression) expr).getPredicates()) {
+                if (!collectUses(pred, uses, sums)) {
+                    return false;
+                }
+            }
+            return collectUses(((FilteredExpression) expr).getExpression(), uses, sums);
+        } else if (hasKnownSubExpressions(expr)) {
+            for (int i = 0; i < expr.getSubExpressionCount(); i++) {
+                if (!collectUses(expr.getSubExpression(i), uses, sums)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if all subexpressions of the expression are returned by
+     * {@link Expression#getSubExpression(int)}.
+     */
+    private static boolean hasKnownSubExpressions(final Expression expr) {
+        final Class<?> clazz = expr.getClass();
+        return clazz == PathExpr.class || clazz == EnclosedExpr.class || clazz == SequenceConstructor.class
+                || clazz == ConcatExpr.class || clazz == OpNumeric.class || clazz == OpAnd.class
+                || clazz == OpOr.class || clazz == GeneralComparison.class || clazz == ValueComparison.class
+                || clazz == NodeComparison.class || clazz == UnaryExpr.class || clazz == Predicate.class
+                || clazz == DynamicCardinalityCheck.class
+                || clazz == DynamicTypeCheck.class || clazz == UntypedValueCheck.class || clazz == Atomize.class;
+    }
+
+    /**
+     * Returns the name of the variable if the expression is a variable reference,
+     * possibly wrapped into type checks.
+     */
+    private static QName getVariable(Expression expr) {
+        while (expr != null) {
+            if (expr instanceof DebuggableExpression) {
+                expr = ((DebuggableExpression) expr).getExpression();
+            } else if (expr.getSubExpressionCount() == 1 && (expr.getClass() == PathExpr.class
+                    || expr instanceof DynamicCardinalityCheck || expr instanceof DynamicTypeCheck
+                    || expr instanceof UntypedValueCheck || expr instanceof Atomize)) {
+                expr = expr.getSubExpression(0);
+            } else {
+                break;
+            }
+        }
+        return expr instanceof VariableReference ? ((VariableReference) expr).getName() : null;
     }
 
     public void setGroupSpecs(final GroupSpec specs[]) {
@@ -248,14 +587,16 @@ public class GroupByClause extends AbstractFLWORClause {
      * Compare keys using the collator given in the group spec. Used to
      * sort keys into the grouping map.
      */
-    private int compareKeys(List<AtomicValue> s1, List<AtomicValue> s2) {
-        final int c1 = s1.size();
-        final int c2 = s2.size();
+    private int compareKeys(GroupKey k1, GroupKey k2) {
+        final AtomicValue[] s1 = ((GroupKey.Values) k1).values;
+        final AtomicValue[] s2 = ((GroupKey.Values) k2).values;
+        final int c1 = s1.length;
+        final int c2 = s2.length;
         if (c1 == c2) {
             try {
                 for (int i = 0; i < c1; i++) {
-                    final AtomicValue v1 = s1.get(i);
-                    final AtomicValue v2 = s2.get(i);
+                    final AtomicValue v1 = s1[i];
+                    final AtomicValue v2 = s2[i];
                     final Collator collator = groupSpecs[i].getCollator();
                     final int r = v1.compareTo(collator, v2);
                     if (r != Constants.EQUAL) {
@@ -274,24 +615,435 @@ public class GroupByClause extends AbstractFLWORClause {
         return Stream.of(groupSpecs).allMatch(spec -> spec.getCollator() == null);
     }
 
-    static class Tuple extends HashMap<QName, Sequence> {
+    private int getSpillThreshold() {
+        final Object threshold = context.getBroker().getConfiguration().getProperty(PROPERTY_GROUP_BY_SPILL_THRESHOLD);
+        return threshold instanceof Integer ? (Integer) threshold : DEFAULT_GROUP_BY_SPILL_THRESHOLD;
+    }
+
+    private static boolean isSpillable(final AtomicValue[] values) {
+        for (final AtomicValue value : values) {
+            if (!SpillableItems.isSpillable(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSpillable(final Sequence[] values) throws XPathException {
+        for (final Sequence value : values) {
+            if (!SpillableItems.isSpillable(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The grouping keys of a tuple.
+     */
+    static abstract class GroupKey {
+
+        private static final byte VALUES = 0;
+        private static final byte LONG = 1;
+        private static final byte STRING = 2;
+        private static final byte ENCODED = 3;
+
+        private static final IntegerValue MIN_LONG = new IntegerValue(Long.MIN_VALUE);
+        private static final IntegerValue MAX_LONG = new IntegerValue(Long.MAX_VALUE);
+
+        /**
+         * Creates the key of a group. If the keys may be encoded, a single integer
+         * is kept as a long, a single string as a String, and several integers and
+         * strings are encoded into a byte array. Other keys are kept as values.
+         *
+         * Integers of any subtype are equal if their values are, and strings of
+         * any subtype are equal if their characters are, like the values. The keys
+         * hash like a list of the values, so the groups are returned in the same order.
+         *
+         * @param values the atomized grouping keys
+         * @param encode true if the keys may be encoded, i.e. strings are compared
+         *               by the default collation
+         * @return the key
+         */
+        static GroupKey of(final AtomicValue[] values, final boolean encode) throws XPathException {
+            if (encode) {
+                if (values.length == 1) {
+                    final AtomicValue value = values[0];
+                    if (value.getClass() == StringValue.class) {
+                        return new StringKey(value.getStringValue());
+                    }
+                    if (isLong(value)) {
+                        return new LongKey(((IntegerValue) value).getValue());
+                    }
+                } else {
+                    final EncodedKey encoded = encode(values);
+                    if (encoded != null) {
+                        return encoded;
+                    }
+                }
+            }
+            return new Values(values);
+        }
+
+        /**
+         * @return true if the value is an integer which fits into a long
+         */
+        private static boolean isLong(final AtomicValue value) {
+            return value.getClass() == IntegerValue.class
+                    && ((IntegerValue) value).compareTo(MIN_LONG) >= 0 && ((IntegerValue) value).compareTo(MAX_LONG) <= 0;
+        }
+
+        private static EncodedKey encode(final AtomicValue[] values) throws XPathException {
+            int length = 0;
+            int hashCode = 1;
+            final Object[] keys = new Object[values.length];
+            for (int i = 0; i < values.length; i++) {
+                if (values[i].getClass() == StringValue.class) {
+                    final String value = values[i].getStringValue();
+                    final byte[] data = value.getBytes(StandardCharsets.UTF_8);
+                    keys[i] = data;
+                    length += 1 + 4 + data.length;
+                    hashCode = 31 * hashCode + value.hashCode();
+                } else {
+                    if (!isLong(values[i])) {
+                        return null;
+                    }
+                    final long value = ((IntegerValue) values[i]).getValue();
+                    keys[i] = value;
+                    length += 1 + 8;
+                    hashCode = 31 * hashCode + hashLong(value);
+                }
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            for (final Object key : keys) {
+                if (key instanceof byte[]) {
+                    buffer.put(STRING).putInt(((byte[]) key).length).put((byte[]) key);
+                } else {
+                    buffer.put(LONG).putLong((Long) key);
+                }
+            }
+            return new EncodedKey(buffer.array(), hashCode);
+        }
+
+        /**
+         * @return the hash code of the BigInteger of the value, as used by IntegerValue
+         */
+        private static int hashLong(final long value) {
+            // the magnitude of Long.MIN_VALUE is correct as an unsigned long
+            final long magnitude = Math.abs(value);
+            final int high = (int) (magnitude >>> 32);
+            final int low = (int) magnitude;
+            final int hashCode = (int) (31 * high + (low & 0xffffffffL));
+            return hashCode * Long.signum(value);
+        }
+
+        abstract void write(DataOutputStream os) throws IOException;
+
+        static GroupKey read(final DataInputStream is, final int length) throws IOException, XPathException {
+            final byte type = is.readByte();
+            switch (type) {
+                case LONG:
+                    return new LongKey(is.readLong());
+                case STRING: {
+                    final byte[] data = new byte[is.readInt()];
+                    is.readFully(data);
+                    return new StringKey(new String(data, StandardCharsets.UTF_8));
+                }
+                case ENCODED: {
+                    final int hashCode = is.readInt();
+                    final byte[] encoded = new byte[is.readInt()];
+                    is.readFully(encoded);
+                    return new EncodedKey(encoded, hashCode);
+                }
+                default:
+                    final AtomicValue[] values = new AtomicValue[length];
+                    for (int i = 0; i < length; i++) {
+                        values[i] = SpillableItems.readAtomic(is);
+                    }
+                    return new Values(values);
+            }
+        }
+
+        /**
+         * Keys which can not be encoded.
+         */
+        static final class Values extends GroupKey {
+
+            private final AtomicValue[] values;
+            private final int hashCode;
+
+            Values(final AtomicValue[] values) {
+                this.values = values;
+                this.hashCode = Arrays.hashCode(values);
+            }
+
+            @Override
+            void write(final DataOutputStream os) throws IOException {
+                os.writeByte(VALUES);
+                for (final AtomicValue value : values) {
+                    SpillableItems.writeAtomic(os, value);
+                }
+            }
+
+            @Override
+            public boolean equals(final Object obj) {
+                return obj instanceof Values && Arrays.equals(values, ((Values) obj).values);
+            }
+
+            @Override
+            public int hashCode() {
+                return hashCode;
+            }
+        }
+
+        static final class LongKey extends GroupKey {
+
+            private final long value;
+
+            LongKey(final long value) {
+                this.value = value;
+            }
+
+            @Override
+            void write(final DataOutputStream os) throws IOException {
+                os.writeByte(LONG);
+                os.writeLong(value);
+            }
+
+            @Override
+            public boolean equals(final Object obj) {
+                return obj instanceof LongKey && value == ((LongKey) obj).value;
+            }
+
+            @Override
+            public int hashCode() {
+                return 31 + hashLong(value);
+            }
+        }
+
+        static final class StringKey extends GroupKey {
+
+            private final String value;
+
+            StringKey(final String value) {
+                this.value = value;
+            }
+
+            @Override
+            void write(final DataOutputStream os) throws IOException {
+                final byte[] data = value.getBytes(StandardCharsets.UTF_8);
+                os.writeByte(STRING);
+                os.writeInt(data.length);
+                os.write(data);
+            }
+
+            @Override
+            public boolean equals(final Object obj) {
+                return obj instanceof StringKey && value.equals(((StringKey) obj).value);
+            }
+
+            @Override
+            public int hashCode() {
+                return 31 + value.hashCode();
+            }
+        }
+
+        static final class EncodedKey extends GroupKey {
+
+            private final byte[] encoded;
+            private final int hashCode;
+
+            EncodedKey(final byte[] encoded, final int hashCode) {
+                this.encoded = encoded;
+                this.hashCode = hashCode;
+            }
+
+            @Override
+            void write(final DataOutputStream os) throws IOException {
+                os.writeByte(ENCODED);
+                os.writeInt(hashCode);
+                os.writeInt(encoded.length);
+                os.write(encoded);
+            }
+
+            @Override
+            public boolean equals(final Object obj) {
+                return obj instanceof EncodedKey && Arrays.equals(encoded, ((EncodedKey) obj).encoded);
+            }
+
+            @Override
+            public int hashCode() {
+                return hashCode;
+            }
+        }
+    }
+
+    /**
+     * The values of the non-grouping variables collected for a group, indexed like
+     * the variables. Counted variables only keep the number of items.
+     */
+    static class Tuple {
 
-        private final List<Sequence> groupingValues;
+        private final Sequence[] groupingValues;
+        private final Sequence[] values;
+        private final int[] counts;
 
-        public Tuple(final List<Sequence> groupingValues) {
-            super();
+        public Tuple(final Sequence[] groupingValues, final int variables) {
             this.groupingValues = groupingValues;
+            this.values = new Sequence[variables];
+            this.counts = new int[variables];
         }
 
-        public void add(final QName name, final Sequence val) throws XPathException {
-            Sequence seq = get(name);
+        public void add(final int var, final Sequence val) throws XPathException {
+            final Sequence seq = values[var];
             if (seq == null) {
                 final ValueSequence temp = new ValueSequence(val.getItemCount());
                 temp.addAll(val);
-                put(name, temp);
+                values[var] = temp;
             } else {
                 seq.addAll(val);
             }
         }
+
+        public Sequence getValue(final int var) throws XPathException {
+            if (values[var] != null) {
+                return values[var];
+            } else if (counts[var] > 0) {
+                // only the number of items is used
+                return new RangeSequence(new IntegerValue(1), new IntegerValue(counts[var]));
+            }
+            return Sequence.EMPTY_SEQUENCE;
+        }
+    }
+
+    /**
+     * Groups written to temporary files, partitioned by the hash code of their keys.
+     */
+    private class Partitions {
+
+        private final Path[] files = new Path[PARTITIONS];
+        private final DataOutputStream[] streams = new DataOutputStream[PARTITIONS];
+        private final Map<Integer, DocumentImpl> documents = new HashMap<>();
+
+        Partitions() {
+            context.registerCleanupTask(ctx -> remove());
+        }
+
+        /**
+         * Appends the groups to the partitions.
+         */
+        void write(final GroupByData data, final Collection<Tuple> tuples) throws XPathException {
+            try {
+                for (final Map.Entry<GroupKey, Tuple> entry : data.groupedMap.entrySet()) {
+                    final int partition = (entry.getKey().hashCode() & 0x7fffffff) % PARTITIONS;
+                    if (streams[partition] == null) {
+                        files[partition] = TemporaryFileManager.getInstance().getTemporaryFile();
+                        streams[partition] = new DataOutputStream(new BufferedOutputStream(
+                                Files.newOutputStream(files[partition])));
+                    }
+                    write(streams[partition], data, entry.getKey(), entry.getValue());
+                }
+            } catch (final IOException e) {
+                throw new XPathException(GroupByClause.this, "Failed to write groups to a temporary file: " +
+                        e.getMessage(), e);
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Wrote " + tuples.size() + " groups to temporary files");
+            }
+        }
+
+        private void write(final DataOutputStream os, final GroupByData data, final GroupKey key,
+                final Tuple tuple) throws IOException {
+            key.write(os);
+            for (final Sequence value : tuple.groupingValues) {
+                SpillableItems.writeSequence(os, value, documents);
+            }
+            for (int i = 0; i < data.variables.length; i++) {
+                os.writeInt(tuple.counts[i]);
+                SpillableItems.writeSequence(os, tuple.values[i] == null ? Sequence.EMPTY_SEQUENCE : tuple.values[i],
+                        documents);
+            }
+        }
+
+        /**
+         * Reads the groups of each partition, merges the groups still in memory and
+         * evaluates the return expression for them.
+         */
+        void evalGroups(final GroupByData data, final Sequence result) throws XPathException {
+            for (int partition = 0; partition < PARTITIONS; partition++) {
+                final Map<GroupKey, Tuple> groups = new LinkedHashMap<>();
+                if (streams[partition] != null) {
+                    try {
+                        streams[partition].close();
+                        streams[partition] = null;
+                        read(files[partition], data, groups);
+                    } catch (final IOException e) {
+                        throw new XPathException(GroupByClause.this, "Failed to read groups from a temporary file: " +
+                                e.getMessage(), e);
+                    }
+                }
+                // the groups still in memory were collected last
+                for (final Iterator<Map.Entry<GroupKey, Tuple>> i = data.groupedMap.entrySet().iterator(); i.hasNext(); ) {
+                    final Map.Entry<GroupKey, Tuple> entry = i.next();
+                    if ((entry.getKey().hashCode() & 0x7fffffff) % PARTITIONS == partition) {
+                        final Tuple tuple = groups.get(entry.getKey());
+                        if (tuple == null) {
+                            groups.put(entry.getKey(), entry.getValue());
+                        } else {
+                            data.merge(tuple, entry.getValue());
+                        }
+                        i.remove();
+                    }
+                }
+                GroupByClause.this.evalGroups(data, groups.values(), result);
+            }
+        }
+
+        private void read(final Path file, final GroupByData data, final Map<GroupKey, Tuple> groups)
+                throws IOException, XPathException {
+            try (final DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                while (true) {
+                    final GroupKey key;
+                    try {
+                        key = GroupKey.read(is, groupSpecs.length);
+                    } catch (final EOFException e) {
+                        break;
+                    }
+                    final Sequence[] groupingValues = new Sequence[groupSpecs.length];
+                    for (int i = 0; i < groupingValues.length; i++) {
+                        groupingValues[i] = SpillableItems.readSequence(is, documents);
+                    }
+                    final Tuple other = data.newTuple(groupingValues);
+                    for (int i = 0; i < data.variables.length; i++) {
+                        other.counts[i] = is.readInt();
+                        final Sequence value = SpillableItems.readSequence(is, documents);
+                        other.values[i] = value.isEmpty() && data.aggregations[i] == COUNT_ITEMS ? null : value;
+                    }
+                    final Tuple tuple = groups.get(key);
+                    if (tuple == null) {
+                        groups.put(key, other);
+                    } else {
+                        data.merge(tuple, other);
+                    }
+                }
+            }
+        }
+
+        void remove() {
+            for (int i = 0; i < PARTITIONS; i++) {
+                if (streams[i] != null) {
+                    try {
+                        streams[i].close();
+                    } catch (final IOException e) {
+                        LOG.warn("Failed to close temporary file: " + e.getMessage(), e);
+                    }
+                    streams[i] = null;
+                }
+                if (files[i] != null) {
+                    TemporaryFileManager.getInstance().returnTemporaryFile(files[i]);
+                    files[i] = null;
+                }
+            }
+        }
     }
 }
@@ -60,6 +60,10 @@ public class InlineFunction extends AbstractExpression {
         cachedContextInfo.setParent(this);
 	}
 
+	public UserDefinedFunction getFunction() {
+		return function;
+	}
+
 	@Override
 	public void dump(ExpressionDumper dumper) {
 		dumper.display("function");
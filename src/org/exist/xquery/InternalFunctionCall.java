@@ -36,15 +36,24 @@ public class InternalFunctionCall extends Function
         if (context.getProfiler().traceFunctions())
             {context.getProfiler().traceFunctionStart(this);}
         
+        final boolean analyze = context.getProfiler().isAnalyzeEnabled();
+        if (analyze)
+            {context.getProfiler().start(this);}
+
         context.stackEnter(this);
+        Sequence result = null;
         try {
-            return function.eval(contextSequence, contextItem);
+            result = function.eval(contextSequence, contextItem);
+            return result;
         } catch (final XPathException e) {
             if (e.getLine() <= 0)
                 {e.setLocation(line, column, getSource());}
             throw e;
         } finally {
             context.stackLeave(this);
+
+            if (analyze)
+                {context.getProfiler().end(this, "", result);}
             
             if (context.getProfiler().traceFunctions())
                 {context.getProfiler().traceFunctionEnd(this, System.currentTimeMillis() - start);}
@@ -85,6 +85,10 @@ public class LocationStep extends Step {
 
 	protected boolean applyPredicate = true;
 
+	// if positive, only the given number of nodes from the start of the
+	// result (in document order) are consumed
+	private int limit = -1;
+
 	// Cache for the current NodeTest type
 	private Integer nodeTestType = null;
 
@@ -180,6 +184,74 @@ public class LocationStep extends Step {
 		this.optimized = true;
 	}
 
+	/**
+	 * Tells the step that only the given number of nodes from the start of
+	 * its result, in document order, will be consumed. The structural index
+	 * can then stop the lookup once these nodes are found.
+	 * 
+	 * @param limit
+	 *            the number of nodes, or -1 if all nodes are consumed
+	 */
+	public void setLimit(int limit) {
+		this.limit = limit;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Returns the last step of the given path expression, if the result of
+	 * the step is the result of the path and the step looks up elements by
+	 * name through the structural index, so its evaluation may stop after
+	 * the first nodes in document order.
+	 * 
+	 * @param expression
+	 *            the expression to check
+	 * @return the step or null
+	 */
+	public static LocationStep getLimitableStep(Expression expression) {
+		while (true) {
+			if (expression instanceof DynamicCardinalityCheck
+					&& ((DynamicCardinalityCheck) expression).getRequiredCardinality() == Cardinality.ZERO_OR_MORE) {
+				// function argument which is not checked
+				expression = expression.getSubExpression(0);
+			} else if (expression != null && expression.getClass() == PathExpr.class
+					&& ((PathExpr) expression).getLength() > 0) {
+				final PathExpr path = (PathExpr) expression;
+				expression = path.getExpression(path.getLength() - 1);
+			} else {
+				break;
+			}
+		}
+		if (!(expression instanceof LocationStep)) {
+			return null;
+		}
+		final LocationStep step = (LocationStep) expression;
+		switch (step.getAxis()) {
+			case Constants.CHILD_AXIS:
+			case Constants.DESCENDANT_AXIS:
+			case Constants.DESCENDANT_SELF_AXIS:
+				break;
+			default:
+				return null;
+		}
+		if (step.test.isWildcardTest() || step.test.getType() != Type.ELEMENT
+				|| step.hasPredicates()) {
+			return null;
+		}
+		return step;
+	}
+
+	/**
+	 * Returns the number of nodes the structural index lookup should stop at.
+	 * The nodes of a virtual context set are not known in advance, so the
+	 * lookup is not limited for them.
+	 */
+	private int getLookupLimit(NodeSet contextSet) {
+		return predicates.isEmpty() && !(contextSet instanceof VirtualNodeSet) ? limit : -1;
+	}
+
 	/**
 	 * The method <code>applyPredicate</code>
 	 * 
@@ -751,13 +823,13 @@ public class LocationStep extends Step {
 					contextSet.getLength() < INDEX_SCAN_THRESHOLD) {
 				return index.findDescendantsByTagName(ElementValue.ELEMENT,
 						test.getName(), axis, docs, contextSet,
-						contextId, parent);
+						contextId, parent, getLookupLimit(contextSet));
 			} else {
 				// if (contextSet instanceof VirtualNodeSet)
 				// ((VirtualNodeSet)contextSet).realize();
 				final NodeSelector selector = new ChildSelector(contextSet, contextId);
 				return index.findElementsByTagName(ElementValue.ELEMENT, docs,
-						test.getName(), selector, this);
+						test.getName(), selector, this, getLookupLimit(contextSet));
 			}
 		}
 	}
@@ -836,7 +908,15 @@ public class LocationStep extends Step {
 			if (!contextSet.getProcessInReverseOrder() && (contextSet instanceof VirtualNodeSet || contextSet.getLength() < INDEX_SCAN_THRESHOLD)) {
 				return index.findDescendantsByTagName(ElementValue.ELEMENT,
 						test.getName(), axis, docs, contextSet,
-						contextId, this);
+						contextId, this, getLookupLimit(contextSet));
+			} else if (getLookupLimit(contextSet) < 0 && !(contextSet instanceof VirtualNodeSet)) {
+				// load all candidates without creating node proxies for them and
+				// join them with the context, which only creates the proxies of the
+				// nodes selected
+				final NodeSet candidates = index.findElementsByTagName(ElementValue.ELEMENT,
+						docs, test.getName(), null, this);
+				return candidates.selectAncestorDescendant(contextSet, NodeSet.DESCENDANT,
+						axis == Constants.DESCENDANT_SELF_AXIS, contextId, false);
 			} else {
 				NodeSelector selector;
 				switch (axis) {
@@ -852,7 +932,7 @@ public class LocationStep extends Step {
 							"Unsupported axis specified");
 				}
 				return index.findElementsByTagName(ElementValue.ELEMENT, docs,
-						test.getName(), selector, this);
+						test.getName(), selector, this, getLookupLimit(contextSet));
 			}
 
 		}
@@ -24,6 +24,10 @@ public class NamedFunctionReference extends AbstractExpression {
 		this.arity = arity;
 	}
 	
+	public QName getFunctionName() {
+		return qname;
+	}
+
 	@Override
 	public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
 		resolvedFunction = lookupFunction(this, context, qname, arity);
@@ -59,17 +59,31 @@ public class Optimizer extends DefaultExpressionVisitor {
 
     private List<QueryRewriter> rewriters = new ArrayList<QueryRewriter>(5);
 
+    private final CostEstimator estimator;
+
+    private final List<Decision> decisions = new ArrayList<>();
+
     public Optimizer(XQueryContext context) {
         this.context = context;
         this.rewriters = context.getBroker().getIndexController().getQueryRewriters(context);
+        this.estimator = new CostEstimator(context);
     }
 
     public boolean hasOptimized() {
         return hasOptimized;
     }
 
+    /**
+     * Returns the decisions taken by the optimizer, in the order
+     * in which they were taken.
+     */
+    public List<Decision> getDecisions() {
+        return decisions;
+    }
+
     public void visitLocationStep(LocationStep locationStep) {
         super.visitLocationStep(locationStep);
+        reorderPredicates(locationStep, locationStep.getPredicates(), getName(locationStep));
         // check query rewriters if they want to rewrite the location step
         Pragma optimizePragma = null;
         for (QueryRewriter rewriter : rewriters) {
@@ -101,6 +115,9 @@ public class Optimizer extends DefaultExpressionVisitor {
                     break;
                 }
             }
+            if (optimize) {
+                optimize = preferIndex(locationStep);
+            }
         }
 
         final Expression parent = locationStep.getParentExpression();
@@ -182,6 +199,7 @@ public class Optimizer extends DefaultExpressionVisitor {
 
     public void visitFilteredExpr(FilteredExpression filtered) {
         super.visitFilteredExpr(filtered);
+        reorderPredicates(filtered, filtered.getPredicates(), null);
 
         // check if filtered expression can be simplified:
         // handles expressions like //foo/(baz)[...]
@@ -281,9 +299,43 @@ public class Optimizer extends DefaultExpressionVisitor {
             newPred.add(simplifyPath(and.getRight()));
             step.insertPredicate(predicate, newPred);
             path.replace(and, simplifyPath(and.getLeft()));
-        } else if (and.isRewritable()) {
-        	and.getLeft().accept(this);
-			and.getRight().accept(this);
+        } else if (isConjunction(and)) {
+            reorderConditions(and);
+        }
+    }
+
+    /**
+     * Consecutive where clauses filter the same tuples, so their conditions
+     * can be reordered like the operands of an and operator.
+     */
+    @Override
+    public void visitWhereClause(WhereClause where) {
+        final List<WhereClause> clauses = new ArrayList<>();
+        Expression next = where;
+        while (next instanceof WhereClause) {
+            clauses.add((WhereClause) next);
+            next = ((WhereClause) next).getReturnExpression();
+        }
+        final List<Expression> conditions = new ArrayList<>(clauses.size());
+        boolean reorderable = true;
+        for (final WhereClause clause : clauses) {
+            clause.getWhereExpr().accept(this);
+            conditions.add(clause.getWhereExpr());
+            reorderable = reorderable && estimator.canReorder(clause.getWhereExpr());
+        }
+        next.accept(this);
+
+        if (clauses.size() < 2 || !reorderable) {
+            return;
+        }
+        final List<Expression> sorted = sortByRank(conditions, null);
+        if (!sorted.equals(conditions)) {
+            for (int i = 0; i < clauses.size(); i++) {
+                clauses.get(i).setWhereExpr(sorted.get(i));
+            }
+            hasOptimized = true;
+            decisions.add(new Decision(Decision.Type.REORDER_CONDITIONS, where,
+                "where clauses reordered by estimated selectivity and cost: " + describe(sorted, null)));
         }
     }
 
@@ -354,6 +406,140 @@ public class Optimizer extends DefaultExpressionVisitor {
         }
     }
 
+    /**
+     * Sorts the predicates by rank, so cheap predicates which filter out many items
+     * are evaluated first. Predicates are only reordered if none of them is positional.
+     */
+    private void reorderPredicates(Expression owner, List<Predicate> preds, QName contextName) {
+        if (preds.size() < 2) {
+            return;
+        }
+        for (final Predicate pred : preds) {
+            if (!estimator.canReorder(pred)) {
+                return;
+            }
+        }
+        final List<Predicate> sorted = sortByRank(preds, contextName);
+        if (!sorted.equals(preds)) {
+            preds.clear();
+            preds.addAll(sorted);
+            hasOptimized = true;
+            decisions.add(new Decision(Decision.Type.REORDER_PREDICATES, owner,
+                "predicates reordered by estimated selectivity and cost: " + describe(sorted, contextName)));
+        }
+    }
+
+    /**
+     * Flattens a chain of and operators, optimizes the operands and sorts them by rank.
+     * The and operator evaluates its left operand first and stops if it is false, so the
+     * most selective cheap condition should be the leftmost one.
+     */
+    private void reorderConditions(OpAnd and) {
+        final List<OpAnd> owners = new ArrayList<>();
+        final List<Integer> positions = new ArrayList<>();
+        collectConditions(and, owners, positions);
+
+        final List<Expression> conditions = new ArrayList<>(owners.size());
+        boolean reorderable = true;
+        for (int i = 0; i < owners.size(); i++) {
+            final OpAnd owner = owners.get(i);
+            owner.getExpression(positions.get(i)).accept(this);
+            // the operand may have been replaced while visiting it
+            final Expression condition = owner.getExpression(positions.get(i));
+            conditions.add(condition);
+            reorderable = reorderable && estimator.canReorder(condition);
+        }
+        if (!reorderable) {
+            return;
+        }
+        final List<Expression> sorted = sortByRank(conditions, null);
+        if (!sorted.equals(conditions)) {
+            for (int i = 0; i < owners.size(); i++) {
+                owners.get(i).setOperand(positions.get(i), sorted.get(i));
+            }
+            hasOptimized = true;
+            decisions.add(new Decision(Decision.Type.REORDER_CONDITIONS, and,
+                "conditions reordered by estimated selectivity and cost: " + describe(sorted, null)));
+        }
+    }
+
+    private void collectConditions(OpAnd and, List<OpAnd> owners, List<Integer> positions) {
+        for (int i = 0; i < 2; i++) {
+            final Expression operand = CostEstimator.unwrap(and.getExpression(i));
+            if (operand instanceof OpAnd && isConjunction((OpAnd) operand)) {
+                collectConditions((OpAnd) operand, owners, positions);
+            } else {
+                owners.add(and);
+                positions.add(i);
+            }
+        }
+    }
+
+    /**
+     * Checks if the and operator is a top-level condition or a condition in a where clause,
+     * whose operands can be visited and reordered.
+     */
+    private static boolean isConjunction(OpAnd and) {
+        return and.isRewritable() || and.isInWhereClause();
+    }
+
+    private <T extends Expression> List<T> sortByRank(List<T> conditions, QName contextName) {
+        final Map<Expression, Double> ranks = new IdentityHashMap<>();
+        for (final T condition : conditions) {
+            ranks.put(condition, estimator.rank(condition, contextName));
+        }
+        final List<T> sorted = new ArrayList<>(conditions);
+        // stable sort: conditions with equal rank keep their order
+        sorted.sort(Comparator.comparing(ranks::get));
+        return sorted;
+    }
+
+    private String describe(List<? extends Expression> conditions, QName contextName) {
+        final StringBuilder buf = new StringBuilder();
+        for (final Expression condition : conditions) {
+            if (buf.length() > 0) {
+                buf.append("; ");
+            }
+            buf.append(ExpressionDumper.dump(condition).trim());
+            buf.append(String.format(Locale.ROOT, " (selectivity %.3f, cost %.1f)",
+                estimator.selectivity(condition, contextName), estimator.cost(condition)));
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Decides if the predicates of the location step should be evaluated using an index
+     * lookup (via the optimize pragma) or by scanning the step's nodes: if the statistics
+     * show that the predicates will select a large part of the nodes, looking up the keys and
+     * mapping the matches back to their ancestors is more expensive than just filtering.
+     */
+    private boolean preferIndex(LocationStep step) {
+        final long count = estimator.getNodeCount(getName(step));
+        if (count < 0) {
+            decisions.add(new Decision(Decision.Type.INDEX_LOOKUP, step,
+                "index lookup: no statistics available"));
+            return true;
+        }
+        double selectivity = 1.0;
+        for (final Predicate pred : step.getPredicates()) {
+            selectivity *= estimator.selectivity(pred, getName(step));
+        }
+        final long estimated = Math.round(selectivity * count);
+        if (estimated * 4 >= count) {
+            decisions.add(new Decision(Decision.Type.STRUCTURAL_SCAN, step,
+                "structural scan: an estimated " + estimated + " of " + count + " nodes match"));
+            return false;
+        }
+        decisions.add(new Decision(Decision.Type.INDEX_LOOKUP, step,
+            "index lookup: an estimated " + estimated + " of " + count + " nodes match"));
+        return true;
+    }
+
+    private static QName getName(LocationStep step) {
+        final NodeTest test = step.getTest();
+        return test.isWildcardTest() ? null : test.getName();
+    }
+
     private boolean canOptimize(List<Optimizable> list) {
         for (final Optimizable optimizable : list) {
             final int axis = optimizable.getOptimizeAxis();
@@ -390,6 +576,51 @@ public class Optimizer extends DefaultExpressionVisitor {
         return path.getExpression(0);
     }
 
+    /**
+     * A decision taken by the optimizer, reported by util:explain.
+     */
+    public static class Decision {
+
+        public enum Type {
+            REORDER_PREDICATES, REORDER_CONDITIONS, INDEX_LOOKUP, STRUCTURAL_SCAN
+        }
+
+        private final Type type;
+        private final Expression expression;
+        private final String description;
+
+        public Decision(Type type, Expression expression, String description) {
+            this.type = type;
+            this.expression = expression;
+            this.description = description;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public Expression getExpression() {
+            return expression;
+        }
+
+        public int getLine() {
+            return expression.getLine();
+        }
+
+        public int getColumn() {
+            return expression.getColumn();
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        @Override
+        public String toString() {
+            return type + " [" + getLine() + ":" + getColumn() + "] " + description;
+        }
+    }
+
     /**
      * Try to find an expression object implementing interface Optimizable.
      */
@@ -15,8 +15,16 @@ import java.util.Stack;
  */
 public class OrderByClause extends AbstractFLWORClause {
 
+    public static final String ORDER_BY_SPILL_THRESHOLD_ATTRIBUTE = "order-by-spill-threshold";
+    public static final String PROPERTY_ORDER_BY_SPILL_THRESHOLD = "xquery.order-by-spill-threshold";
+    public static final int DEFAULT_ORDER_BY_SPILL_THRESHOLD = 100000;
+
     protected OrderSpec[] orderSpecs = null;
 
+    /* if positive, only the given number of items from the start of the ordered
+       result are consumed */
+    private int limit = -1;
+
     /*  OrderByClause needs to keep state between calls to eval and postEval. We thus need
         to track state in a stack to avoid overwrites if we're called recursively. */
     private final Deque<OrderedValueSequence> stack = new ArrayDeque<>();
@@ -30,6 +38,50 @@ public class OrderByClause extends AbstractFLWORClause {
         return orderSpecs;
     }
 
+    /**
+     * Tells the clause that only the given number of items from the start of
+     * the ordered result will be consumed, so the remaining items do not need
+     * to be kept.
+     *
+     * @param limit the number of items, or -1 if all items are consumed
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns the "order by" clause which orders the result of the given expression, if
+     * the expression is a FLWOR expression. Returns null if the result is grouped, as
+     * the "group by" clause changes the number of items.
+     *
+     * @param expression the expression to check
+     * @return the "order by" clause or null
+     */
+    public static OrderByClause getOrderByClause(Expression expression) {
+        while (expression != null && expression.getClass() == PathExpr.class &&
+                ((PathExpr) expression).getLength() == 1) {
+            expression = ((PathExpr) expression).getExpression(0);
+        }
+        if (!(expression instanceof FLWORClause) || ((FLWORClause) expression).getPreviousClause() != null) {
+            return null;
+        }
+        OrderByClause orderBy = null;
+        while (expression instanceof FLWORClause) {
+            final FLWORClause clause = (FLWORClause) expression;
+            if (clause.getType() == ClauseType.GROUPBY) {
+                return null;
+            } else if (clause.getType() == ClauseType.ORDERBY && orderBy == null) {
+                orderBy = (OrderByClause) clause;
+            }
+            expression = clause.getReturnExpression();
+        }
+        return orderBy;
+    }
+
     @Override
     public ClauseType getType() {
         return ClauseType.ORDERBY;
@@ -53,7 +105,7 @@ public class OrderByClause extends AbstractFLWORClause {
     public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
         final OrderedValueSequence orderedResult;
         if (stack.isEmpty()) {
-            orderedResult = new OrderedValueSequence(orderSpecs, 100);
+            orderedResult = new OrderedValueSequence(orderSpecs, 100, limit, getSpillThreshold(), context);
         } else {
             orderedResult = stack.pop();
         }
@@ -65,6 +117,11 @@ public class OrderByClause extends AbstractFLWORClause {
         return result;
     }
 
+    private int getSpillThreshold() {
+        final Object threshold = context.getBroker().getConfiguration().getProperty(PROPERTY_ORDER_BY_SPILL_THRESHOLD);
+        return threshold instanceof Integer ? (Integer) threshold : DEFAULT_ORDER_BY_SPILL_THRESHOLD;
+    }
+
     @Override
     public Sequence postEval(Sequence seq) throws XPathException {
         if (stack.isEmpty()) {
@@ -38,6 +38,19 @@ public abstract class Pragma {
     public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
     }
 
+    /**
+     * Called by the extension expression during static analysis. Pragmas which need to
+     * inspect the expression they apply to before it is evaluated may overwrite this method.
+     * The default implementation calls {@link #analyze(AnalyzeContextInfo)}.
+     *
+     * @param contextInfo the analyze context
+     * @param expression the expression enclosed in the extension expression
+     * @throws XPathException if an error occurs during static analysis
+     */
+    public void analyze(AnalyzeContextInfo contextInfo, Expression expression) throws XPathException {
+        analyze(contextInfo);
+    }
+
     public Sequence eval(Sequence contextSequence, Item contextItem)
     throws XPathException {
         return null;
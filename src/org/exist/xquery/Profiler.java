@@ -36,6 +36,12 @@ import org.exist.xquery.value.Sequence;
  * 
  * <pre>declare option exist:profiling "enabled=yes verbosity=10 logger=profiler";</pre>
  * 
+ * In analyze mode, the profiler records runtime statistics for every expression
+ * instead of (or in addition to) logging them. The statistics are available as
+ * a {@link QueryProfile} after the query completed:
+ *
+ * <pre>declare option exist:profiling "analyze=yes";</pre>
+ *
  * @author wolf
  *
  */
@@ -72,6 +78,14 @@ public class Profiler {
     private boolean enabled = false;
 
     private boolean logEnabled = false;
+
+    private boolean analyze = false;
+
+    /** Profile of the query currently executed in analyze mode */
+    private QueryProfile profile = null;
+
+    /** Profile of the last query executed in analyze mode */
+    private QueryProfile lastProfile = null;
     
     private int verbosity = 0; 
 
@@ -94,6 +108,7 @@ public class Profiler {
      *  <li><strong>enabled</strong>: yes|no.</li>
      *  <li><strong>logger</strong>: name of the logger to use.</li>
      *  <li><strong>verbosity</strong>: integer value &gt; 0. 1 does only output function calls.</li>
+     *  <li><strong>analyze</strong>: yes|no. Record runtime statistics for every expression.</li>
      * </ul>
      * @param pragma
      */
@@ -114,6 +129,9 @@ public class Profiler {
                 
                 } else if ("enabled".equals(params[0])) {
                     enabled = "yes".equals(params[1]);
+
+                } else if ("analyze".equals(params[0])) {
+                    analyze = "yes".equals(params[1]);
                 
                 } else if ("verbosity".equals(params[0])) {
                     try {
@@ -133,10 +151,32 @@ public class Profiler {
     /**
      * Is profiling enabled?
      * 
-     * @return True if profiling is enabled
+     * @return True if profiling or analyze mode is enabled
      */
     public final boolean isEnabled() {
-        return enabled;
+        return enabled || analyze;
+    }
+
+    /**
+     * Is analyze mode enabled?
+     *
+     * @return True if runtime statistics are recorded for every expression
+     */
+    public final boolean isAnalyzeEnabled() {
+        return analyze;
+    }
+
+    public final void setAnalyzeEnabled(boolean analyze) {
+        this.analyze = analyze;
+    }
+
+    /**
+     * Returns the runtime statistics of the last query executed in analyze mode.
+     *
+     * @return the profile or null if no query was analyzed
+     */
+    public final QueryProfile getQueryProfile() {
+        return lastProfile;
     }
 
     public final boolean isLogEnabled() {
@@ -155,7 +195,7 @@ public class Profiler {
     }
     
     public final boolean traceFunctions() {
-        return stats.isEnabled() || isLogEnabled();
+        return analyze || stats.isEnabled() || isLogEnabled();
     }
     
     /**
@@ -167,10 +207,17 @@ public class Profiler {
 
     public final void traceQueryStart() {
         queryStart = System.currentTimeMillis();
+        profile = analyze ? new QueryProfile() : null;
+        lastProfile = null;
     }
 
     public final void traceQueryEnd(XQueryContext context) {
         stats.recordQuery(context.getSource().path(), (System.currentTimeMillis() - queryStart));
+        if (profile != null) {
+            profile.finish();
+            lastProfile = profile;
+            profile = null;
+        }
     }
 
     public final void traceFunctionStart(Function function) {
@@ -192,7 +239,12 @@ public class Profiler {
     }
 
     public final void traceIndexUsage(XQueryContext context, String indexType, Expression expression, int mode, long elapsed) {
-        stats.recordIndexUse(expression, indexType, context.getSource().path(), mode, elapsed);
+        if (profile != null) {
+            profile.recordIndexUse(expression, mode);
+        }
+        if (stats.isEnabled()) {
+            stats.recordIndexUse(expression, indexType, context.getSource().path(), mode, elapsed);
+        }
     }
 
     private void save() {
@@ -219,10 +271,13 @@ public class Profiler {
      * @param message if not null, contains an optional message to print in the log.
      */
     public final void start(Expression expr, String message) {
+        if (analyze) {
+            stack.push(new ProfiledExpr(expr));
+        }
         if (!enabled)
             {return;}
         
-        if (stack.size() == 0) {
+        if (stack.size() == (analyze ? 1 : 0)) {
             log.debug("QUERY START");                
         }
         
@@ -230,8 +285,13 @@ public class Profiler {
     	for (int i = 0; i < stack.size(); i++)
     		buf.append('\t');             
         
-        final ProfiledExpr e = new ProfiledExpr(expr);
-    	stack.push(e);
+        final ProfiledExpr e;
+        if (analyze) {
+            e = stack.peek();
+        } else {
+            e = new ProfiledExpr(expr);
+            stack.push(e);
+        }
             
         buf.append("START\t");
         printPosition(e.expr);                        
@@ -259,11 +319,17 @@ public class Profiler {
      * @param message required: a message to be printed to the log.
      */
     public final void end(Expression expr, String message, Sequence result) {
-        if (!enabled)
+        if (!isEnabled())
             {return;}        
         
         try {         	     	
-			final ProfiledExpr e = stack.pop(); 
+			ProfiledExpr e = stack.pop(); 
+            if (analyze) {
+                // skip expressions which did not call end() because of an error
+                while (e.expr != expr && !stack.isEmpty()) {
+                    e = stack.pop();
+                }
+            }
 		
 			if (e.expr != expr) {
 			    log.warn("Error: the object passed to end() does not correspond to the expression on top of the stack.");
@@ -271,7 +337,18 @@ public class Profiler {
 			    return;
 			}
             
-            final long elapsed = System.currentTimeMillis() - e.start;
+            final long elapsed = (System.nanoTime() - e.start) / 1000000;
+            if (analyze) {
+                if (profile == null) {
+                    // the query was not started via XQuery.execute
+                    profile = new QueryProfile();
+                    lastProfile = profile;
+                }
+                profile.recordEval(expr, System.nanoTime() - e.start, result);
+                if (!enabled) {
+                    return;
+                }
+            }
             
             if (message != null && !"".equals(message)) {                
                 buf.setLength(0);
@@ -443,7 +520,7 @@ public class Profiler {
         
         private ProfiledExpr(Expression expression) {
             this.expr = expression;
-            this.start = System.currentTimeMillis();
+            this.start = System.nanoTime();
         }
     }
 
@@ -0,0 +1,370 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery;
+
+import org.exist.util.serializer.SAXSerializer;
+import org.exist.xquery.util.ExpressionDumper;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
+import javax.xml.transform.OutputKeys;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * The plan of a compiled query: the expression tree after optimization, annotated with
+ * the rewrites applied by the {@link Optimizer} and, if the query was executed in analyze
+ * mode, the runtime statistics recorded in a {@link QueryProfile}.
+ *
+ * The plan is reported as XML:
+ *
+ * <pre>
+ * &lt;explain optimized="true|false" statistics="true|false" elapsed?="ms"&gt;
+ *     &lt;expression&gt;the optimized expression&lt;/expression&gt;
+ *     &lt;plan&gt;
+ *         &lt;expr type="class" line="line" column="column" (axis, test, operator, name, value)?
+ *             (calls, items, time, index-hits, index-scans)?&gt;
+ *             &lt;rewrite type="type"&gt;description&lt;/rewrite&gt;*
+ *             &lt;expr&gt;*
+ *         &lt;/expr&gt;
+ *     &lt;/plan&gt;
+ *     &lt;rewrite type="type" line="line" column="column"&gt;description&lt;/rewrite&gt;*
+ * &lt;/explain&gt;
+ * </pre>
+ *
+ * The runtime attributes are only reported for expressions which were evaluated. The time
+ * is given in milliseconds and includes the time spent in subexpressions.
+ */
+public class QueryPlan {
+
+    private static final String EXPLAIN_ELEMENT = "explain";
+    private static final String EXPRESSION_ELEMENT = "expression";
+    private static final String PLAN_ELEMENT = "plan";
+    private static final String EXPR_ELEMENT = "expr";
+    private static final String REWRITE_ELEMENT = "rewrite";
+
+    private final XQueryContext context;
+    private final Expression root;
+    private final QueryProfile profile;
+
+    /**
+     * @param context the context the query was compiled in
+     * @param root the root expression of the query
+     * @param profile the runtime statistics of the query or null
+     */
+    public QueryPlan(XQueryContext context, Expression root, @Nullable QueryProfile profile) {
+        this.context = context;
+        this.root = root;
+        this.profile = profile;
+    }
+
+    public QueryProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Reports the plan to the given content handler.
+     *
+     * @param handler the content handler
+     * @throws SAXException if the content handler reports an error
+     */
+    public void toSAX(ContentHandler handler) throws SAXException {
+        handler.startDocument();
+
+        final AttributesImpl attrs = new AttributesImpl();
+        addAttribute(attrs, "optimized", Boolean.toString(context.optimizationsEnabled()));
+        addAttribute(attrs, "statistics", Boolean.toString(new CostEstimator(context).hasStatistics()));
+        if (profile != null && profile.getElapsedTime() > -1) {
+            addAttribute(attrs, "elapsed", formatTime(profile.getElapsedTime()));
+        }
+        startElement(handler, EXPLAIN_ELEMENT, attrs);
+
+        startElement(handler, EXPRESSION_ELEMENT, new AttributesImpl());
+        characters(handler, ExpressionDumper.dump(root));
+        endElement(handler, EXPRESSION_ELEMENT);
+
+        startElement(handler, PLAN_ELEMENT, new AttributesImpl());
+        expressionToSAX(handler, root);
+        endElement(handler, PLAN_ELEMENT);
+
+        for (final Optimizer.Decision decision : context.getOptimizerDecisions()) {
+            attrs.clear();
+            addAttribute(attrs, "type", decisionType(decision));
+            addAttribute(attrs, "line", Integer.toString(decision.getLine()));
+            addAttribute(attrs, "column", Integer.toString(decision.getColumn()));
+            startElement(handler, REWRITE_ELEMENT, attrs);
+            characters(handler, decision.getDescription());
+            endElement(handler, REWRITE_ELEMENT);
+        }
+
+        endElement(handler, EXPLAIN_ELEMENT);
+        handler.endDocument();
+    }
+
+    /**
+     * Serializes the plan to the given writer.
+     *
+     * @param writer the writer
+     * @param outputProperties serialization parameters, e.g. {@link OutputKeys#INDENT}
+     * @throws SAXException if an error occurs during serialization
+     */
+    public void serialize(Writer writer, Properties outputProperties) throws SAXException {
+        final SAXSerializer serializer = new SAXSerializer(writer, outputProperties);
+        toSAX(serializer);
+    }
+
+    @Override
+    public String toString() {
+        final Properties outputProperties = new Properties();
+        outputProperties.setProperty(OutputKeys.INDENT, "yes");
+        outputProperties.setProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        final StringWriter writer = new StringWriter();
+        try {
+            serialize(writer, outputProperties);
+        } catch (final SAXException e) {
+            return e.getMessage();
+        }
+        return writer.toString();
+    }
+
+    private void expressionToSAX(ContentHandler handler, Expression expression) throws SAXException {
+        // the expression which is evaluated and thus profiled
+        final Expression expr = unwrap(expression);
+        // the expression reported
+        final Expression reported = expr instanceof InternalFunctionCall ?
+                ((InternalFunctionCall) expr).getFunction() : expr;
+
+        final AttributesImpl attrs = new AttributesImpl();
+        addAttribute(attrs, "type", reported.getClass().getSimpleName());
+        if (expr.getLine() > 0) {
+            addAttribute(attrs, "line", Integer.toString(expr.getLine()));
+            addAttribute(attrs, "column", Integer.toString(expr.getColumn()));
+        }
+        addDetails(attrs, reported);
+
+        if (profile != null) {
+            final QueryProfile.ExpressionStats stats = profile.getStats(expr);
+            if (stats != null) {
+                if (stats.getCalls() > 0) {
+                    addAttribute(attrs, "calls", Long.toString(stats.getCalls()));
+                    addAttribute(attrs, "items", Long.toString(stats.getItems()));
+                    addAttribute(attrs, "time", formatTime(stats.getTime()));
+                }
+                if (stats.getIndexHits() > 0 || stats.getIndexScans() > 0) {
+                    addAttribute(attrs, "index-hits", Long.toString(stats.getIndexHits()));
+                    addAttribute(attrs, "index-scans", Long.toString(stats.getIndexScans()));
+                }
+            }
+        }
+        startElement(handler, EXPR_ELEMENT, attrs);
+
+        for (final Optimizer.Decision decision : context.getOptimizerDecisions()) {
+            if (decision.getExpression() == expr || decision.getExpression() == expression) {
+                attrs.clear();
+                addAttribute(attrs, "type", decisionType(decision));
+                startElement(handler, REWRITE_ELEMENT, attrs);
+                characters(handler, decision.getDescription());
+                endElement(handler, REWRITE_ELEMENT);
+            }
+        }
+
+        for (final Expression child : getChildren(reported)) {
+            expressionToSAX(handler, child);
+        }
+        endElement(handler, EXPR_ELEMENT);
+    }
+
+    private static void addDetails(AttributesImpl attrs, Expression expr) {
+        if (expr instanceof Step) {
+            final Step step = (Step) expr;
+            if (step.getAxis() >= 0 && step.getAxis() < Constants.AXISSPECIFIERS.length) {
+                addAttribute(attrs, "axis", Constants.AXISSPECIFIERS[step.getAxis()]);
+            }
+            if (step.getTest() != null) {
+                addAttribute(attrs, "test", step.getTest().toString());
+            }
+        } else if (expr instanceof GeneralComparison) {
+            final GeneralComparison comparison = (GeneralComparison) expr;
+            addAttribute(attrs, "operator", comparison instanceof ValueComparison ?
+                    comparison.getRelation().valueComparisonSymbol : comparison.getRelation().generalComparisonSymbol);
+        } else if (expr instanceof Function) {
+            addAttribute(attrs, "name", ((Function) expr).getSignature().getName().getStringValue());
+        } else if (expr instanceof VariableReference) {
+            addAttribute(attrs, "name", ((VariableReference) expr).getName().getStringValue());
+        } else if (expr instanceof BindingExpression) {
+            addAttribute(attrs, "name", ((BindingExpression) expr).getVariable());
+        } else if (expr instanceof LiteralValue) {
+            try {
+                addAttribute(attrs, "value", ((LiteralValue) expr).getValue().getStringValue());
+            } catch (final XPathException e) {
+                // no value reported
+            }
+        } else if (expr instanceof ExtensionExpression) {
+            final StringBuilder names = new StringBuilder();
+            for (final Pragma pragma : ((ExtensionExpression) expr).getPragmas()) {
+                if (names.length() > 0) {
+                    names.append(' ');
+                }
+                names.append(pragma.getQName().getStringValue());
+            }
+            addAttribute(attrs, "pragma", names.toString());
+        }
+    }
+
+    /**
+     * Returns the subexpressions of an expression, in the order in which they
+     * appear in the query. The body of a called user-defined function is not
+     * included.
+     *
+     * @param expr the expression
+     * @return the subexpressions
+     */
+    public static List<Expression> getChildren(Expression expr) {
+        final List<Expression> children = new ArrayList<>();
+        if (expr instanceof Step) {
+            addAll(children, ((Step) expr).getPredicates());
+        } else if (expr instanceof FilteredExpression) {
+            final FilteredExpression filtered = (FilteredExpression) expr;
+            children.add(filtered.getExpression());
+            addAll(children, filtered.getPredicates());
+        } else if (expr instanceof UserDefinedFunction) {
+            // the body is reported with the function call
+        } else if (expr instanceof FunctionCall) {
+            final FunctionCall call = (FunctionCall) expr;
+            for (int i = 0; i < call.getArgumentCount(); i++) {
+                children.add(call.getArgument(i));
+            }
+        } else if (expr instanceof PathExpr) {
+            // steps, operands of binary operators and function arguments
+            final PathExpr path = (PathExpr) expr;
+            for (int i = 0; i < path.getSubExpressionCount(); i++) {
+                children.add(path.getSubExpression(i));
+            }
+        } else if (expr instanceof CombiningExpression) {
+            children.add(((CombiningExpression) expr).left);
+            children.add(((CombiningExpression) expr).right);
+        } else if (expr instanceof BindingExpression) {
+            children.add(((BindingExpression) expr).getInputSequence());
+            children.add(((BindingExpression) expr).getReturnExpression());
+        } else if (expr instanceof WhereClause) {
+            children.add(((WhereClause) expr).getWhereExpr());
+            children.add(((WhereClause) expr).getReturnExpression());
+        } else if (expr instanceof OrderByClause) {
+            for (final OrderSpec spec : ((OrderByClause) expr).getOrderSpecs()) {
+                children.add(spec.getSortExpression());
+            }
+            children.add(((OrderByClause) expr).getReturnExpression());
+        } else if (expr instanceof GroupByClause) {
+            for (final GroupSpec spec : ((GroupByClause) expr).getGroupSpecs()) {
+                children.add(spec.getGroupExpression());
+            }
+            children.add(((GroupByClause) expr).getReturnExpression());
+        } else if (expr instanceof ConditionalExpression) {
+            final ConditionalExpression conditional = (ConditionalExpression) expr;
+            children.add(conditional.getTestExpr());
+            children.add(conditional.getThenExpr());
+            children.add(conditional.getElseExpr());
+        } else if (expr instanceof TryCatchExpression) {
+            final TryCatchExpression tryCatch = (TryCatchExpression) expr;
+            children.add(tryCatch.getTryTargetExpr());
+            for (final TryCatchExpression.CatchClause clause : tryCatch.getCatchClauses()) {
+                children.add(clause.getCatchExpr());
+            }
+        } else if (expr instanceof ExtensionExpression) {
+            children.add(((ExtensionExpression) expr).getExpression());
+        } else if (expr instanceof VariableDeclaration) {
+            ((VariableDeclaration) expr).getExpression().ifPresent(children::add);
+        } else if (expr instanceof CastExpression) {
+            children.add(((CastExpression) expr).getInnerExpression());
+        } else if (expr instanceof OpSimpleMap) {
+            children.add(((OpSimpleMap) expr).getLeft());
+            children.add(((OpSimpleMap) expr).getRight());
+        } else if (expr instanceof ElementConstructor) {
+            final ElementConstructor constructor = (ElementConstructor) expr;
+            if (constructor.getNameExpr() != null) {
+                children.add(constructor.getNameExpr());
+            }
+            if (constructor.getAttributes() != null) {
+                for (final AttributeConstructor attr : constructor.getAttributes()) {
+                    children.add(attr);
+                }
+            }
+            children.add(constructor.getContent());
+        } else if (expr instanceof DocumentConstructor) {
+            children.add(((DocumentConstructor) expr).getContent());
+        } else if (expr instanceof DynamicTextConstructor) {
+            children.add(((DynamicTextConstructor) expr).getContent());
+        } else if (expr instanceof DynamicAttributeConstructor) {
+            children.add(((DynamicAttributeConstructor) expr).getNameExpr());
+            children.add(((DynamicAttributeConstructor) expr).getContentExpr());
+        } else {
+            for (int i = 0; i < expr.getSubExpressionCount(); i++) {
+                children.add(expr.getSubExpression(i));
+            }
+        }
+        children.removeIf(child -> child == null);
+        return children;
+    }
+
+    private static void addAll(List<Expression> children, List<Predicate> predicates) {
+        if (predicates != null) {
+            children.addAll(predicates);
+        }
+    }
+
+    private static Expression unwrap(Expression expr) {
+        while (expr instanceof DebuggableExpression) {
+            expr = ((DebuggableExpression) expr).getExpression();
+        }
+        return expr;
+    }
+
+    private static String decisionType(Optimizer.Decision decision) {
+        return decision.getType().name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    private static String formatTime(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+    }
+
+    private static void addAttribute(AttributesImpl attrs, String name, String value) {
+        attrs.addAttribute(XMLConstants.NULL_NS_URI, name, name, "CDATA", value);
+    }
+
+    private static void startElement(ContentHandler handler, String name, AttributesImpl attrs) throws SAXException {
+        handler.startElement(XMLConstants.NULL_NS_URI, name, name, attrs);
+    }
+
+    private static void endElement(ContentHandler handler, String name) throws SAXException {
+        handler.endElement(XMLConstants.NULL_NS_URI, name, name);
+    }
+
+    private static void characters(ContentHandler handler, String text) throws SAXException {
+        final char[] ch = text.toCharArray();
+        handler.characters(ch, 0, ch.length);
+    }
+}
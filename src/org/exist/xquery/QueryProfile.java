@@ -0,0 +1,140 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery;
+
+import org.exist.xquery.value.Sequence;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Runtime statistics for the expressions of a single query, recorded by the
+ * {@link Profiler} if the query is executed in analyze mode. For every expression,
+ * the profile records how often it was called, how many items it returned, how much
+ * time was spent evaluating it (including its subexpressions) and how often
+ * it could use an index.
+ */
+public class QueryProfile {
+
+    private final Map<Expression, ExpressionStats> stats = new IdentityHashMap<>();
+
+    private final long startTime = System.currentTimeMillis();
+    private final long start = System.nanoTime();
+    private long elapsed = -1;
+
+    void recordEval(Expression expr, long nanos, Sequence result) {
+        final ExpressionStats s = getOrCreate(expr);
+        s.calls++;
+        s.time += nanos;
+        if (result != null) {
+            s.items += result.getItemCount();
+        }
+    }
+
+    void recordIndexUse(Expression expr, int mode) {
+        final ExpressionStats s = getOrCreate(expr);
+        if (mode == PerformanceStats.NO_INDEX) {
+            s.indexScans++;
+        } else {
+            s.indexHits++;
+        }
+    }
+
+    void finish() {
+        elapsed = System.nanoTime() - start;
+    }
+
+    private ExpressionStats getOrCreate(Expression expr) {
+        ExpressionStats s = stats.get(expr);
+        if (s == null) {
+            s = new ExpressionStats();
+            stats.put(expr, s);
+        }
+        return s;
+    }
+
+    /**
+     * Returns the statistics recorded for the expression.
+     *
+     * @param expr the expression
+     * @return the statistics or null if the expression was not evaluated
+     */
+    public ExpressionStats getStats(Expression expr) {
+        return stats.get(expr);
+    }
+
+    /**
+     * @return the time at which the query was started, in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the execution time of the query in nanoseconds, -1 if the query did not complete yet
+     */
+    public long getElapsedTime() {
+        return elapsed;
+    }
+
+    public static class ExpressionStats {
+
+        private long calls = 0;
+        private long items = 0;
+        private long time = 0;
+        private long indexHits = 0;
+        private long indexScans = 0;
+
+        /**
+         * @return number of times the expression was evaluated
+         */
+        public long getCalls() {
+            return calls;
+        }
+
+        /**
+         * @return total number of items returned by the expression
+         */
+        public long getItems() {
+            return items;
+        }
+
+        /**
+         * @return time spent evaluating the expression, including its subexpressions, in nanoseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return number of evaluations which used an index
+         */
+        public long getIndexHits() {
+            return indexHits;
+        }
+
+        /**
+         * @return number of evaluations which could not use an index
+         */
+        public long getIndexScans() {
+            return indexScans;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery;
+
+import org.exist.dom.QName;
+
+/**
+ * An expression whose items have a relevance score, e.g. a full text query.
+ *
+ * If the items are bound by a "for" clause, ordered by descending score and
+ * only the first ones are consumed, the "for" clause asks the expression to
+ * return just the items with the highest scores, see {@link ForExpr}.
+ */
+public interface RankedExpression extends Expression {
+
+    /**
+     * Checks if the given order expression computes the score this expression
+     * assigned to the item bound to the given variable.
+     *
+     * @param orderExpr the expression of an order spec
+     * @param variable the name of the variable bound to the items of this expression
+     * @return true if the items are ordered by their score
+     */
+    boolean isScoreOf(Expression orderExpr, QName variable);
+
+    /**
+     * Tells the expression to return only the given number of items with the
+     * highest scores.
+     *
+     * @param count the number of items, or -1 to return all items
+     */
+    void setTopHits(int count);
+
+    int getTopHits();
+}
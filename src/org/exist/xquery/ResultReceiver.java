@@ -0,0 +1,42 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery;
+
+import org.exist.xquery.value.Sequence;
+
+/**
+ * Receives the result of a query in parts while the query is still being
+ * evaluated, so the whole result never needs to be held in memory.
+ *
+ * @see XQuery#execute(org.exist.storage.DBBroker, CompiledXQuery, Sequence, java.util.Properties, ResultReceiver)
+ */
+@FunctionalInterface
+public interface ResultReceiver {
+
+    /**
+     * Called with the next items of the query result, in result order.
+     *
+     * @param items the next items of the result, may be empty
+     * @return false if no further items are required, in which case
+     *     the evaluation of the query may stop early
+     * @throws XPathException if the items can not be processed
+     */
+    boolean receive(Sequence items) throws XPathException;
+}
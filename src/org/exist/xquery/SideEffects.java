@@ -0,0 +1,192 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery;
+
+import org.exist.backup.xquery.BackupModule;
+import org.exist.dom.QName;
+import org.exist.xquery.functions.request.RequestModule;
+import org.exist.xquery.functions.response.ResponseModule;
+import org.exist.xquery.functions.securitymanager.SecurityManagerModule;
+import org.exist.xquery.functions.session.SessionModule;
+import org.exist.xquery.functions.system.SystemModule;
+import org.exist.xquery.functions.transform.TransformModule;
+import org.exist.xquery.functions.util.UtilModule;
+import org.exist.xquery.functions.xmldb.XMLDBModule;
+import org.exist.xquery.update.Modification;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Static analysis of an expression tree for expressions whose evaluation does more than
+ * computing a result from the query's input: update expressions, calls of functions which
+ * change the database or other resources, or which depend on the HTTP request, the response
+ * or the session, and calls which cannot be analyzed because the function is only known at
+ * runtime. Optionally, calls of functions whose result changes from one evaluation to the
+ * next, e.g. fn:current-dateTime(), are reported as well.
+ *
+ * The bodies of called user defined functions, including those of library modules and
+ * inline functions, are analyzed too.
+ */
+public class SideEffects {
+
+    /** Modules whose functions change the database or other resources, or depend on the request */
+    private final static Set<String> SIDE_EFFECT_MODULES = new HashSet<>(Arrays.asList(
+        XMLDBModule.NAMESPACE_URI,
+        RequestModule.NAMESPACE_URI,
+        ResponseModule.NAMESPACE_URI,
+        SessionModule.NAMESPACE_URI,
+        SecurityManagerModule.NAMESPACE_URI,
+        SystemModule.NAMESPACE_URI,
+        BackupModule.NAMESPACE_URI,
+        "http://exist-db.org/xquery/file",
+        "http://exist-db.org/xquery/repo",
+        "http://exist-db.org/xquery/scheduler",
+        "http://exist-db.org/xquery/mail",
+        "http://exist-db.org/xquery/httpclient",
+        "http://expath.org/ns/http-client",
+        "http://exist-db.org/xquery/sql",
+        "http://exist-db.org/xquery/oracle",
+        "http://exist-db.org/xquery/jndi",
+        "http://exist-db.org/xquery/cache",
+        "http://exist-db.org/xquery/counter",
+        "http://exist-db.org/xquery/process",
+        "http://exist-db.org/xquery/persistentlogin",
+        "http://exist-db.org/xquery/memcached",
+        "http://exist-db.org/xquery/xmpp"
+    ));
+
+    /** Functions of otherwise harmless modules which evaluate code, change the static context or write to the response */
+    private final static Set<QName> SIDE_EFFECT_FUNCTIONS = new HashSet<>(Arrays.asList(
+        new QName("eval", UtilModule.NAMESPACE_URI),
+        new QName("eval-inline", UtilModule.NAMESPACE_URI),
+        new QName("eval-with-context", UtilModule.NAMESPACE_URI),
+        new QName("eval-async", UtilModule.NAMESPACE_URI),
+        new QName("eval-and-serialize", UtilModule.NAMESPACE_URI),
+        new QName("declare-namespace", UtilModule.NAMESPACE_URI),
+        new QName("declare-option", UtilModule.NAMESPACE_URI),
+        new QName("import-module", UtilModule.NAMESPACE_URI),
+        new QName("stream-transform", TransformModule.NAMESPACE_URI)
+    ));
+
+    /** Functions whose result differs between evaluations with the same input */
+    private final static Set<QName> NONDETERMINISTIC_FUNCTIONS = new HashSet<>(Arrays.asList(
+        new QName("current-dateTime", Function.BUILTIN_FUNCTION_NS),
+        new QName("current-date", Function.BUILTIN_FUNCTION_NS),
+        new QName("current-time", Function.BUILTIN_FUNCTION_NS),
+        new QName("implicit-timezone", Function.BUILTIN_FUNCTION_NS),
+        new QName("system-dateTime", UtilModule.NAMESPACE_URI),
+        new QName("system-date", UtilModule.NAMESPACE_URI),
+        new QName("system-time", UtilModule.NAMESPACE_URI),
+        new QName("random", UtilModule.NAMESPACE_URI),
+        new QName("uuid", UtilModule.NAMESPACE_URI)
+    ));
+
+    private final boolean nondeterministic;
+    private final Set<QName> allowed;
+
+    /**
+     * @param nondeterministic if true, also report calls of functions whose result
+     *     changes from one evaluation to the next
+     * @param allowed functions which are not reported, although they belong to a
+     *     module with side effects
+     */
+    public SideEffects(final boolean nondeterministic, final Set<QName> allowed) {
+        this.nondeterministic = nondeterministic;
+        this.allowed = allowed;
+    }
+
+    public SideEffects(final boolean nondeterministic) {
+        this(nondeterministic, Collections.emptySet());
+    }
+
+    /**
+     * Analyzes an expression tree.
+     *
+     * @param expr the root of the tree
+     *
+     * @return a description of the first problem found, or null if there is none
+     */
+    public @Nullable String find(final Expression expr) {
+        return find(expr, new HashSet<>());
+    }
+
+    private String find(Expression expr, final Set<UserDefinedFunction> visited) {
+        while (expr instanceof DebuggableExpression) {
+            expr = ((DebuggableExpression) expr).getExpression();
+        }
+        if (expr instanceof InternalFunctionCall) {
+            expr = ((InternalFunctionCall) expr).getFunction();
+        }
+        if (expr instanceof Modification) {
+            return "the expression contains an update expression";
+        }
+        if (expr instanceof DynamicFunctionCall) {
+            return "the expression contains a dynamic function call";
+        }
+        if (expr instanceof NamedFunctionReference) {
+            return check(((NamedFunctionReference) expr).getFunctionName());
+        }
+        if (expr instanceof InlineFunction) {
+            return findInFunction(((InlineFunction) expr).getFunction(), visited);
+        }
+        if (expr instanceof FunctionCall) {
+            final String reason = findInFunction(((FunctionCall) expr).getFunction(), visited);
+            if (reason != null) {
+                return reason;
+            }
+        } else if (expr instanceof Function) {
+            final String reason = check(((Function) expr).getSignature().getName());
+            if (reason != null) {
+                return reason;
+            }
+        }
+        for (final Expression child : QueryPlan.getChildren(expr)) {
+            final String reason = find(child, visited);
+            if (reason != null) {
+                return reason;
+            }
+        }
+        return null;
+    }
+
+    private String findInFunction(@Nullable final UserDefinedFunction function, final Set<UserDefinedFunction> visited) {
+        if (function != null && visited.add(function)) {
+            return find(function.getFunctionBody(), visited);
+        }
+        return null;
+    }
+
+    private String check(final QName name) {
+        if (allowed.contains(name)) {
+            return null;
+        }
+        if (SIDE_EFFECT_MODULES.contains(name.getNamespaceURI()) || SIDE_EFFECT_FUNCTIONS.contains(name)) {
+            return "the expression calls " + name.getStringValue();
+        }
+        if (nondeterministic && NONDETERMINISTIC_FUNCTIONS.contains(name)) {
+            return "the result of " + name.getStringValue() + " changes between evaluations";
+        }
+        return null;
+    }
+}
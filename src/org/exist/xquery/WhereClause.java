@@ -30,6 +30,10 @@ public class WhereClause extends AbstractFLWORClause {
         return whereExpr;
     }
 
+    public void setWhereExpr(Expression whereExpr) {
+        this.whereExpr = whereExpr;
+    }
+
     @Override
     public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
         contextInfo.setParent(this);
@@ -134,6 +138,11 @@ public class WhereClause extends AbstractFLWORClause {
         dumper.endIndent().nl();
     }
 
+    @Override
+    public void accept(ExpressionVisitor visitor) {
+        visitor.visitWhereClause(this);
+    }
+
     @Override
     public void resetState(boolean postOptimization) {
         super.resetState(postOptimization);
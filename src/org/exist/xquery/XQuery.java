@@ -30,6 +30,7 @@ import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.text.NumberFormat;
 import java.util.Properties;
+import javax.annotation.Nullable;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.debuggee.Debuggee;
@@ -195,6 +196,33 @@ public class XQuery {
     }
     
     public Sequence execute(final DBBroker broker, final CompiledXQuery expression, Sequence contextSequence, final Properties outputProperties, final boolean resetContext) throws XPathException, PermissionDeniedException {
+        return execute(broker, expression, contextSequence, outputProperties, resetContext, null);
+    }
+
+    /**
+     * Executes the query, passing the result to the receiver while the query is being evaluated.
+     *
+     * If the query body is a "for" expression whose results need not be sorted or grouped,
+     * the result of its "return" clause is passed on for each item of the input sequence
+     * and is never collected. Otherwise the whole result is evaluated first, and passed
+     * on in one go.
+     *
+     * The output properties are updated with the serialization options of the query
+     * before the evaluation starts.
+     *
+     * @param broker the database broker
+     * @param expression the compiled query
+     * @param contextSequence the context sequence, may be null
+     * @param outputProperties the serialization properties to update, may be null
+     * @param receiver receives the result of the query
+     * @throws XPathException if an error occurs during evaluation
+     * @throws PermissionDeniedException if the query may not be executed by the current user
+     */
+    public void execute(final DBBroker broker, final CompiledXQuery expression, final Sequence contextSequence, final Properties outputProperties, final ResultReceiver receiver) throws XPathException, PermissionDeniedException {
+        execute(broker, expression, contextSequence, outputProperties, true, receiver);
+    }
+
+    private Sequence execute(final DBBroker broker, final CompiledXQuery expression, Sequence contextSequence, final Properties outputProperties, final boolean resetContext, @Nullable final ResultReceiver receiver) throws XPathException, PermissionDeniedException {
     	
         //check execute permissions
         expression.getContext().getSource().validate(broker.getCurrentSubject(), Permission.EXECUTE);
@@ -247,6 +275,12 @@ public class XQuery {
                 broker.pushSubject(effectiveSubject); //switch to effective user (e.g. setuid/setgid)
             }
             
+            // analyze mode may be enabled for all queries via JMX
+            final boolean analyze = broker.getBrokerPool().getProcessMonitor().getAnalyzeQueries()
+                    && !context.getProfiler().isAnalyzeEnabled();
+            if (analyze) {
+                context.getProfiler().setAnalyzeEnabled(true);
+            }
             context.getProfiler().traceQueryStart();
             broker.getBrokerPool().getProcessMonitor().queryStarted(context.getWatchDog());
             try {
@@ -258,7 +292,23 @@ public class XQuery {
                     }
                 }
 
-                final Sequence result = expression.eval(contextSequence);
+                final Sequence result;
+                if (receiver == null) {
+                    result = expression.eval(contextSequence);
+                } else {
+                    if (outputProperties != null) {
+                        // the serialization options are needed before the first item is received
+                        context.checkOptions(outputProperties);
+                    }
+                    final ForExpr forExpr = getStreamableExpression(expression);
+                    if (forExpr != null) {
+                        forExpr.eval(contextSequence, null, receiver);
+                        result = Sequence.EMPTY_SEQUENCE;
+                    } else {
+                        result = expression.eval(contextSequence);
+                        receiver.receive(result);
+                    }
+                }
                 if(LOG.isDebugEnabled()) {
                     final NumberFormat nf = NumberFormat.getNumberInstance();
                     LOG.debug("Execution took "  +  nf.format(System.currentTimeMillis() - start) + " ms");
@@ -273,6 +323,9 @@ public class XQuery {
                 context.getProfiler().traceQueryEnd(context);
                 // track query stats before context is reset
                 broker.getBrokerPool().getProcessMonitor().queryCompleted(context.getWatchDog());
+                if (analyze) {
+                    context.getProfiler().setAnalyzeEnabled(false);
+                }
                 expression.reset();
                 if(resetContext) {
                     context.reset();
@@ -286,6 +339,22 @@ public class XQuery {
         }
     }
 
+    /**
+     * Returns the "for" expression forming the body of the query,
+     * if its results can be streamed.
+     */
+    @Nullable
+    private static ForExpr getStreamableExpression(final CompiledXQuery expression) {
+        Expression body = expression instanceof Expression ? (Expression) expression : null;
+        while (body != null && body.getClass() == PathExpr.class && ((PathExpr) body).getLength() == 1) {
+            body = ((PathExpr) body).getExpression(0);
+        }
+        if (body instanceof ForExpr && ((ForExpr) body).isStreamable()) {
+            return (ForExpr) body;
+        }
+        return null;
+    }
+
     public Sequence execute(final DBBroker broker, final String expression, final Sequence contextSequence) throws XPathException, PermissionDeniedException {
         final XQueryContext context = new XQueryContext(broker.getBrokerPool());
         final CompiledXQuery compiled = compile(broker, context, expression);
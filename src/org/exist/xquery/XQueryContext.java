@@ -309,6 +309,8 @@ public class XQueryContext implements BinaryValueManager, Context
     protected Database db;
 
     private boolean analyzed = false;
+
+    private List<Optimizer.Decision> optimizerDecisions = Collections.emptyList();
     
     /**
      * The Subject of the User that requested the execution of the XQuery
@@ -422,6 +424,36 @@ public class XQueryContext implements BinaryValueManager, Context
     }
 
 
+    /**
+     * Creates a new, empty context for compiling the query of this context once more, so parts
+     * of it can be evaluated by another thread (see {@link org.exist.xquery.pragmas.Parallel}).
+     * The settings which may have been declared by the caller instead of the query prolog, like
+     * the statically known documents and namespaces, the global variables, the module mappings,
+     * the base URI and the module load path, are copied from this context.
+     *
+     * @return the new context
+     */
+    public XQueryContext createWorkerContext()
+    {
+        final XQueryContext ctx = new XQueryContext( db );
+        ctx.calendar            = this.calendar;
+        ctx.implicitTimeZone    = this.implicitTimeZone;
+        ctx.staticDocumentPaths = this.staticDocumentPaths;
+        ctx.staticDocuments     = this.staticDocuments;
+        ctx.moduleLoadPath      = this.moduleLoadPath;
+        ctx.enableOptimizer     = this.enableOptimizer;
+        ctx.staticNamespaces    = new HashMap<String, String>( this.staticNamespaces );
+        ctx.staticPrefixes      = new HashMap<String, String>( this.staticPrefixes );
+        ctx.mappedModules       = new HashMap<String, XmldbURI>( this.mappedModules );
+        ctx.globalVariables     = new TreeMap<QName, Variable>( this.globalVariables );
+
+        if( !this.baseURISetInProlog ) {
+            ctx.baseURI = this.baseURI;
+        }
+        return( ctx );
+    }
+
+
     /**
      * Update the current dynamic context using the properties of another context. This is needed by {@link org.exist.xquery.functions.util.Eval}.
      *
@@ -1629,6 +1661,7 @@ public class XQueryContext implements BinaryValueManager, Context
                 expr.resetState( true );
                 expr.analyze( new AnalyzeContextInfo() );
             }
+            optimizerDecisions = optimizer.getDecisions();
         }
         modulesChanged = false;
     }
@@ -3094,6 +3127,17 @@ public class XQueryContext implements BinaryValueManager, Context
     }
 
 
+    /**
+     * Returns the decisions taken by the {@link Optimizer} when the query was compiled.
+     *
+     * @return the decisions, empty if the query was not optimized
+     */
+    public List<Optimizer.Decision> getOptimizerDecisions()
+    {
+        return( optimizerDecisions );
+    }
+
+
     /**
      * for static compile-time options i.e. declare option
      *
@@ -3255,6 +3299,10 @@ public class XQueryContext implements BinaryValueManager, Context
             if( NoIndexPragma.NO_INDEX_PRAGMA.equals(qname) ) {
                 return( new NoIndexPragma( qname, contents ) );
             }
+
+            if( Parallel.PARALLEL_PRAGMA.equals(qname) ) {
+                return( new Parallel( this, qname, contents ) );
+            }
         }
         return( null );
     }
@@ -22,10 +22,12 @@
 package org.exist.xquery.functions.fn;
 
 import org.exist.dom.QName;
+import org.exist.xquery.AnalyzeContextInfo;
 import org.exist.xquery.Cardinality;
 import org.exist.xquery.Dependency;
 import org.exist.xquery.Function;
 import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.LocationStep;
 import org.exist.xquery.Profiler;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
@@ -53,10 +55,19 @@ public class FunEmpty extends Function {
             new FunctionReturnSequenceType(Type.BOOLEAN, Cardinality.EXACTLY_ONE,
                 "true() if the empty sequence, false() otherwise"));
 
+    /* the step producing the argument: its first node is sufficient */
+    private LocationStep step = null;
+
     public FunEmpty(final XQueryContext context) {
         super(context, signature);
     }
 
+    @Override
+    public void analyze(final AnalyzeContextInfo contextInfo) throws XPathException {
+        super.analyze(contextInfo);
+        step = LocationStep.getLimitableStep(getArgument(0));
+    }
+
     @Override
     public Sequence eval(final Sequence contextSequence, final Item contextItem)
             throws XPathException {
@@ -74,7 +85,18 @@ public class FunEmpty extends Function {
             }
         }
 
-        final Sequence seq = getArgument(0).eval(contextSequence, contextItem);
+        final Sequence seq;
+        if (step != null) {
+            final int previousLimit = step.getLimit();
+            step.setLimit(1);
+            try {
+                seq = getArgument(0).eval(contextSequence, contextItem);
+            } finally {
+                step.setLimit(previousLimit);
+            }
+        } else {
+            seq = getArgument(0).eval(contextSequence, contextItem);
+        }
         final Sequence result = seq.isEmpty() ? BooleanValue.TRUE : BooleanValue.FALSE;
 
         if (context.getProfiler().isEnabled()) {
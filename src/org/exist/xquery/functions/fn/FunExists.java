@@ -22,10 +22,12 @@
 package org.exist.xquery.functions.fn;
 
 import org.exist.dom.QName;
+import org.exist.xquery.AnalyzeContextInfo;
 import org.exist.xquery.Cardinality;
 import org.exist.xquery.Dependency;
 import org.exist.xquery.Function;
 import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.LocationStep;
 import org.exist.xquery.Profiler;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
@@ -54,6 +56,9 @@ public class FunExists extends Function {
 			},
 			new FunctionReturnSequenceType(Type.BOOLEAN, Cardinality.EXACTLY_ONE, "true() if not the empty-sequence, false() otherwise"));
 				
+	/* the step producing the argument: its first node is sufficient */
+	private LocationStep step = null;
+
 	/**
 	 * @param context
 	 */
@@ -61,6 +66,11 @@ public class FunExists extends Function {
 		super(context, signature);
 	}
 
+	public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
+		super.analyze(contextInfo);
+		step = LocationStep.getLimitableStep(getArgument(0));
+	}
+
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.Expression#eval(org.exist.dom.persistent.DocumentSet, org.exist.xquery.value.Sequence, org.exist.xquery.value.Item)
 	 */
@@ -77,7 +87,18 @@ public class FunExists extends Function {
         //if(contextItem != null)
 			//contextSequence = contextItem.toSequence();
         
-		final Sequence seq = getArgument(0).eval(contextSequence, contextItem);
+		final Sequence seq;
+		if (step != null) {
+			final int previousLimit = step.getLimit();
+			step.setLimit(1);
+			try {
+				seq = getArgument(0).eval(contextSequence, contextItem);
+			} finally {
+				step.setLimit(previousLimit);
+			}
+		} else {
+			seq = getArgument(0).eval(contextSequence, contextItem);
+		}
 		final Sequence result = seq.isEmpty() ? BooleanValue.FALSE : BooleanValue.TRUE;
         
         if (context.getProfiler().isEnabled()) 
@@ -9,10 +9,12 @@ import org.exist.xquery.Cardinality;
 import org.exist.xquery.ErrorCodes;
 import org.exist.xquery.Function;
 import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.LocationStep;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.Item;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceType;
 import org.exist.xquery.value.Type;
@@ -38,6 +40,9 @@ public class FunHeadTail extends BasicFunction {
                     },
                 new FunctionReturnSequenceType(Type.ITEM, Cardinality.ZERO_OR_MORE, "the resulting sequence")) };
 	
+	/* for fn:head, the step producing the argument: its first node is sufficient */
+	private LocationStep step = null;
+
 	public FunHeadTail(XQueryContext context, FunctionSignature signature) {
 		super(context, signature);
 	}
@@ -49,6 +54,23 @@ public class FunHeadTail extends BasicFunction {
 			throw new XPathException(this, ErrorCodes.EXXQDY0003, "Function " + 
 					getSignature().getName() + " is only supported for xquery version \"3.0\" and later.");
 		}
+		if (isCalledAs("head")) {
+			step = LocationStep.getLimitableStep(getArgument(0));
+		}
+	}
+
+	@Override
+	public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
+		if (step == null) {
+			return super.eval(contextSequence, contextItem);
+		}
+		final int previousLimit = step.getLimit();
+		step.setLimit(1);
+		try {
+			return super.eval(contextSequence, contextItem);
+		} finally {
+			step.setLimit(previousLimit);
+		}
 	}
 	
 	@Override
@@ -65,6 +65,11 @@ public class FunSubSequence extends Function {
                         },
                     new FunctionReturnSequenceType(Type.ITEM, Cardinality.ZERO_OR_MORE, "the subsequence")) };
 
+    /* the "order by" clause ordering the source sequence, if any */
+    private OrderByClause orderBy = null;
+    /* the step producing the source sequence, if it can stop early */
+    private LocationStep step = null;
+
     /**
      * @param context
      */
@@ -87,6 +92,10 @@ public class FunSubSequence extends Function {
             if (i == 0)
                 {contextInfo.setStaticReturnType(argContextInfo.getStaticReturnType());}
         }
+        if (getArgumentCount() == 3) {
+            orderBy = OrderByClause.getOrderByClause(getArgument(0));
+            step = orderBy == null ? LocationStep.getLimitableStep(getArgument(0)) : null;
+        }
     }
 
     /*
@@ -110,30 +119,36 @@ public class FunSubSequence extends Function {
         }
 
         Sequence result;
-        final Sequence seq = getArgument(0).eval(contextSequence, contextItem);
+        int start = 0;
+        int length = Integer.MAX_VALUE;
+        final Sequence seq;
+        if (orderBy != null || step != null) {
+            // evaluate the positions first: the ordered sequence or the step only
+            // need to produce the items up to the end of the subsequence
+            start = getStart(contextSequence, contextItem);
+            length = getLength(contextSequence, contextItem, start);
+            start = adjustStart(start);
+            final int previousLimit = orderBy != null ? orderBy.getLimit() : step.getLimit();
+            final long limit = (long) Math.max(start, 0) + length;
+            if (length > 0 && limit <= Integer.MAX_VALUE / 2) {
+                setLimit((int) limit);
+            }
+            try {
+                seq = getArgument(0).eval(contextSequence, contextItem);
+            } finally {
+                setLimit(previousLimit);
+            }
+        } else {
+            seq = getArgument(0).eval(contextSequence, contextItem);
+            if (!seq.isEmpty()) {
+                start = getStart(contextSequence, contextItem);
+                length = getLength(contextSequence, contextItem, start);
+                start = adjustStart(start);
+            }
+        }
         if (seq.isEmpty())
             {result = Sequence.EMPTY_SEQUENCE;}
         else {
-            int start = ((DoubleValue) getArgument(1).eval(contextSequence,
-                    contextItem).convertTo(Type.DOUBLE)).getInt();
-
-            int length = Integer.MAX_VALUE;
-            if (getSignature().getArgumentCount() == 3) {
-                length = ((DoubleValue) getArgument(2).eval(
-                        contextSequence, contextItem)
-                        .convertTo(Type.DOUBLE)).getInt();
-            }
-
-            // TODO : exception? -pb
-            if (start < 0) {
-                length = length + start - 1;
-                start = 0;
-            } else if (start == 0) {
-            	--length;
-                --start;
-            } else
-            	{--start;}
-                        
             Sequence tmp;
             if (seq instanceof NodeSet) {
                 tmp = new ExtArrayNodeSet();
@@ -165,4 +180,42 @@ public class FunSubSequence extends Function {
 
     }
 
+    private void setLimit(int limit) {
+        if (orderBy != null) {
+            orderBy.setLimit(limit);
+        } else {
+            step.setLimit(limit);
+        }
+    }
+
+    private int getStart(Sequence contextSequence, Item contextItem) throws XPathException {
+        return ((DoubleValue) getArgument(1).eval(contextSequence,
+                contextItem).convertTo(Type.DOUBLE)).getInt();
+    }
+
+    private int getLength(Sequence contextSequence, Item contextItem, int start) throws XPathException {
+        int length = Integer.MAX_VALUE;
+        if (getSignature().getArgumentCount() == 3) {
+            length = ((DoubleValue) getArgument(2).eval(
+                    contextSequence, contextItem)
+                    .convertTo(Type.DOUBLE)).getInt();
+        }
+        // TODO : exception? -pb
+        if (start < 0) {
+            length = length + start - 1;
+        } else if (start == 0) {
+            --length;
+        }
+        return length;
+    }
+
+    private static int adjustStart(int start) {
+        if (start < 0) {
+            return 0;
+        } else if (start == 0) {
+            return -1;
+        }
+        return start - 1;
+    }
+
 }
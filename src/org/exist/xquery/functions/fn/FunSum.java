@@ -98,33 +98,7 @@ public class FunSum extends Function {
 				{zero = getArgument(1).eval(contextSequence, contextItem);}
 			result = zero;
 		} else {
-    		final SequenceIterator iter = inner.iterate();
-    		Item item = iter.nextItem();
-    		AtomicValue value = item.atomize();
-
-        	value = check(value, null);
-    		
-    		//Set the first value
-    		ComputableValue sum = (ComputableValue) value;
-    		while (iter.hasNext()) {
-    			item = iter.nextItem();
-    			value = item.atomize();
-
-            	value = check(value, sum);
-    			
-        		if (Type.subTypeOf(value.getType(), Type.NUMBER)) {
-    				if (((NumericValue)value).isInfinite())
-    					{gotInfinity = true;}    					
-    				if (((NumericValue)value).isNaN()) {
-    					sum = DoubleValue.NaN;
-    					break;
-    				}
-    			}
-    			sum = (ComputableValue)sum.promote(value);
-    			//Aggregate next values
-    			sum = sum.plus((ComputableValue) value);
-    		}
-    		result = sum;
+    		result = sum(inner);
         }
         
 		if (!gotInfinity) {
@@ -140,6 +114,43 @@ public class FunSum extends Function {
         return result;        
 	}
 	
+	/**
+	 * Adds up the items of a non-empty sequence.
+	 *
+	 * @param inner the items to add up
+	 * @return the sum
+	 * @throws XPathException if the items can not be added
+	 */
+	public ComputableValue sum(Sequence inner) throws XPathException {
+		final SequenceIterator iter = inner.iterate();
+		Item item = iter.nextItem();
+		AtomicValue value = item.atomize();
+
+		value = check(value, null);
+
+		//Set the first value
+		ComputableValue sum = (ComputableValue) value;
+		while (iter.hasNext()) {
+			item = iter.nextItem();
+			value = item.atomize();
+
+			value = check(value, sum);
+
+			if (Type.subTypeOf(value.getType(), Type.NUMBER)) {
+				if (((NumericValue)value).isInfinite())
+					{gotInfinity = true;}
+				if (((NumericValue)value).isNaN()) {
+					sum = DoubleValue.NaN;
+					break;
+				}
+			}
+			sum = (ComputableValue)sum.promote(value);
+			//Aggregate next values
+			sum = sum.plus((ComputableValue) value);
+		}
+		return sum;
+	}
+
 	private AtomicValue check(AtomicValue value, ComputableValue sum) throws XPathException {
 		//Duration values must either all be xs:yearMonthDuration values or must all be xs:dayTimeDuration values.
 		if (Type.subTypeOf(value.getType(), Type.DURATION)) {
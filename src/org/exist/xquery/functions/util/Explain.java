@@ -0,0 +1,125 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery.functions.util;
+
+import org.exist.dom.QName;
+import org.exist.dom.memtree.DocumentBuilderReceiver;
+import org.exist.dom.memtree.MemTreeBuilder;
+import org.exist.security.PermissionDeniedException;
+import org.exist.xquery.BasicFunction;
+import org.exist.xquery.Cardinality;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.Expression;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.QueryPlan;
+import org.exist.xquery.QueryProfile;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.FunctionParameterSequenceType;
+import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.Type;
+import org.xml.sax.SAXException;
+
+/**
+ * Compiles a query and reports the plan chosen by the query optimizer,
+ * optionally annotated with the runtime statistics of executing the query.
+ */
+public class Explain extends BasicFunction {
+
+    private static final String DESCRIPTION =
+        "Compiles the XQuery expression given in parameter $expression and returns the query plan " +
+        "chosen by the optimizer: <explain optimized=\"true|false\" statistics=\"true|false\">" +
+        "<expression>the optimized expression</expression><plan><expr type=\"class\" ...>*</plan>" +
+        "<rewrite type=\"type\" line=\"line\" column=\"column\">description</rewrite>*</explain>. " +
+        "The plan is the tree of expressions after optimization. The rewrite elements describe the " +
+        "optimizer's decisions: reordered predicates or and conditions, and the choice between an " +
+        "index lookup and a structural scan. The attribute statistics indicates if the estimates are " +
+        "based on index statistics.";
+
+    private static final FunctionParameterSequenceType EXPRESSION_PARAM =
+        new FunctionParameterSequenceType("expression", Type.STRING, Cardinality.EXACTLY_ONE, "The XQuery expression.");
+
+    private static final FunctionReturnSequenceType RETURN_TYPE =
+        new FunctionReturnSequenceType(Type.ELEMENT, Cardinality.EXACTLY_ONE, "the query plan");
+
+    public final static FunctionSignature signatures[] = {
+        new FunctionSignature(
+            new QName("explain", UtilModule.NAMESPACE_URI, UtilModule.PREFIX),
+            DESCRIPTION + " The expression is not executed.",
+            new SequenceType[] { EXPRESSION_PARAM },
+            RETURN_TYPE),
+        new FunctionSignature(
+            new QName("explain", UtilModule.NAMESPACE_URI, UtilModule.PREFIX),
+            DESCRIPTION + " If $analyze is true, the expression is executed and every expression in the " +
+            "plan which was evaluated is annotated with the number of calls, the number of items returned, " +
+            "the time spent in milliseconds (including subexpressions) and, if it could use an index, " +
+            "the number of index hits and scans. The result of the expression is discarded.",
+            new SequenceType[] {
+                EXPRESSION_PARAM,
+                new FunctionParameterSequenceType("analyze", Type.BOOLEAN, Cardinality.EXACTLY_ONE,
+                    "If true, execute the expression and report runtime statistics.")
+            },
+            RETURN_TYPE)
+    };
+
+    public Explain(XQueryContext context, FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(Sequence[] args, Sequence contextSequence) throws XPathException {
+        final String expr = args[0].getStringValue();
+        final boolean analyze = args.length > 1 && args[1].effectiveBooleanValue();
+        final XQuery xquery = context.getBroker().getBrokerPool().getXQueryService();
+        final XQueryContext pContext = new XQueryContext(context.getBroker().getBrokerPool());
+        try {
+            final CompiledXQuery compiled = xquery.compile(context.getBroker(), pContext, expr);
+            QueryProfile profile = null;
+            if (analyze) {
+                pContext.getProfiler().setAnalyzeEnabled(true);
+                xquery.execute(context.getBroker(), compiled, null, false);
+                profile = pContext.getProfiler().getQueryProfile();
+            }
+            return response(new QueryPlan(pContext, (Expression) compiled, profile));
+        } catch (final PermissionDeniedException e) {
+            throw new XPathException(this, e.getMessage(), e);
+        } finally {
+            pContext.runCleanupTasks();
+            pContext.reset(false);
+        }
+    }
+
+    private Sequence response(QueryPlan plan) throws XPathException {
+        context.pushDocumentContext();
+        try {
+            final MemTreeBuilder builder = context.getDocumentBuilder();
+            final DocumentBuilderReceiver receiver = new DocumentBuilderReceiver(builder);
+            plan.toSAX(receiver);
+            return builder.getDocument().getNode(1);
+        } catch (final SAXException e) {
+            throw new XPathException(this, e.getMessage(), e);
+        } finally {
+            context.popDocumentContext();
+        }
+    }
+}
@@ -24,20 +24,29 @@ package org.exist.xquery.functions.xmldb;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.dom.QName;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.DBBroker;
+import org.exist.storage.sync.Sync;
 import org.exist.xmldb.IndexQueryService;
+import org.exist.xmldb.LocalCollection;
 import org.exist.xquery.Cardinality;
 import org.exist.xquery.FunctionSignature;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
+import org.exist.xquery.functions.map.AbstractMapType;
 import org.exist.xquery.value.BooleanValue;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.StringValue;
 import org.exist.xquery.value.Type;
 import org.xmldb.api.base.Collection;
 import org.xmldb.api.base.XMLDBException;
 
+import java.io.IOException;
+
 /**
  *  Reindex a collection in the database.
  * 
@@ -72,6 +81,26 @@ public class XMLDBReindex extends XMLDBAbstractCollectionManipulator {
             new FunctionReturnSequenceType(Type.BOOLEAN, Cardinality.EXACTLY_ONE, "true() if successfully reindexed, false() otherwise")
     );
 
+    public final static FunctionSignature FNS_REINDEX_OPTIONS = new FunctionSignature(
+            new QName("reindex", XMLDBModule.NAMESPACE_URI, XMLDBModule.PREFIX),
+            "Reindex document $doc-uri from $collection-uri, or the collection $collection-uri if $doc-uri is empty. " +
+                    "The options map supports the key \"threads\", the maximum number of threads used to reindex " +
+                    "the documents of a collection of this database; it is an error to pass it together with " +
+                    "$doc-uri or for a remote collection. The progress of a running reindex is reported by " +
+                    "system:get-running-jobs() and the ProcessReport JMX bean. " +
+                    XMLDBModule.COLLECTION_URI + " " +
+                    XMLDBModule.ANY_URI + " " +
+                    XMLDBModule.NEED_PRIV_USER,
+            new SequenceType[] {
+                    new FunctionParameterSequenceType("collection-uri", Type.STRING, Cardinality.EXACTLY_ONE, "The collection URI"),
+                    new FunctionParameterSequenceType("doc-uri", Type.STRING, Cardinality.ZERO_OR_ONE, "The document URI"),
+                    new FunctionParameterSequenceType("options", Type.MAP, Cardinality.EXACTLY_ONE, "The reindex options")
+            },
+            new FunctionReturnSequenceType(Type.BOOLEAN, Cardinality.EXACTLY_ONE, "true() if successfully reindexed, false() otherwise")
+    );
+
+    public final static StringValue OPTIONS_THREADS = new StringValue("threads");
+
     /**
      * @param context
      */
@@ -95,17 +124,38 @@ public class XMLDBReindex extends XMLDBAbstractCollectionManipulator {
             return BooleanValue.FALSE;
         }
 
+        int threads = 0;
+        if (args.length == 3) {
+            final Sequence threadsOption = ((AbstractMapType) args[2].itemAt(0)).get(OPTIONS_THREADS);
+            if (!threadsOption.isEmpty()) {
+                threads = ((NumericValue) threadsOption.itemAt(0).convertTo(Type.INTEGER)).getInt();
+                if (threads < 1) {
+                    throw new XPathException(this, "Invalid number of threads: " + threads);
+                }
+                if (!args[1].isEmpty()) {
+                    throw new XPathException(this, "The option threads only applies to reindexing a collection");
+                }
+                if (!(collection instanceof LocalCollection)) {
+                    throw new XPathException(this, "The option threads only applies to a collection of this database");
+                }
+            }
+        }
+
         try {
             final IndexQueryService iqs = (IndexQueryService) collection.getService("IndexQueryService", "1.0");
-            if(args.length == 2) {
+            if (threads > 0) {
+                final DBBroker broker = context.getBroker();
+                broker.reindexCollection(((LocalCollection) collection).getURI().toCollectionPathURI(), threads);
+                broker.sync(Sync.MAJOR);
+            } else if(args.length > 1 && !args[1].isEmpty()) {
                 //reindex document
                 iqs.reindexDocument(args[1].getStringValue());
             } else {
                 //reindex collection
                 iqs.reindexCollection();
             }
-        } catch (final XMLDBException xe) {
-            logger.error("Unable to reindex collection", xe);
+        } catch (final XMLDBException | PermissionDeniedException | IOException e) {
+            logger.error("Unable to reindex collection", e);
             return BooleanValue.FALSE;
         }
 
@@ -0,0 +1,417 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery.pragmas;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.Namespaces;
+import org.exist.dom.QName;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.Subject;
+import org.exist.source.Source;
+import org.exist.storage.BrokerLease;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.xquery.*;
+import org.exist.xquery.value.FunctionReference;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+import org.exist.xquery.value.ValueSequence;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Evaluates the iterations of a "for" expression in parallel:
+ *
+ * <pre>(# exist:parallel #) { for $d in collection("/db/data")/doc return local:analyze($d) }</pre>
+ *
+ * The input sequence of the "for" expression is evaluated first and split into consecutive
+ * parts, one for every worker. The calling thread evaluates the first part, the other parts
+ * are evaluated by a fork-join pool. Every worker uses its own broker and its own copy of
+ * the query, compiled into a separate {@link XQueryContext} with the static context of the
+ * caller, so the expression tree is never shared between threads. The in-scope variables and
+ * the watchdog of the query are passed to the worker. The results are concatenated in the
+ * order of the input sequence.
+ *
+ * The pragma accepts the option <code>threads=n</code> to set the maximum number of parts
+ * (default: the number of processors). If no broker is available for a worker, the calling
+ * thread evaluates its part. If the query can not be compiled for a worker, for whatever reason,
+ * the expression is evaluated sequentially.
+ *
+ * The expression is evaluated sequentially if the iterations can not be evaluated independently:
+ * if the "for" is followed by an "order by" or "group by" clause, if the variable has a declared
+ * type, if the expression contains update expressions, dynamic function calls or functions with
+ * side effects (see {@link SideEffects}), or if the pragma is used in a library module.
+ */
+public class Parallel extends Pragma {
+
+    public final static QName PARALLEL_PRAGMA = new QName("parallel", Namespaces.EXIST_NS, "exist");
+
+    private final static Logger LOG = LogManager.getLogger(Parallel.class);
+
+    /** Context attribute holding the parallel pragmas of a main module, in the order they were parsed */
+    private final static String PRAGMAS_ATTRIBUTE = "_eXist_parallel_pragmas";
+
+    /** Context attribute which marks a context compiled for a worker */
+    private final static String WORKER_ATTRIBUTE = "_eXist_parallel_worker";
+
+    /** Reports functions which change the database or depend on the thread of the request */
+    private final static SideEffects SIDE_EFFECTS = new SideEffects(false);
+
+    private final static ForkJoinPool workerPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+            pool -> {
+                final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("ParallelQuery-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+
+    private final XQueryContext context;
+    private final int index;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private ForExpr forExpr = null;
+    private String sequentialReason = null;
+
+    /** Workers which are not in use. They are kept until the state of the expression is reset. */
+    private final Deque<Worker> idleWorkers = new ConcurrentLinkedDeque<>();
+
+    /** Set if the query could not be compiled for a worker, until the state of the expression is reset */
+    private volatile String workerFailure = null;
+
+    @SuppressWarnings("unchecked")
+    public Parallel(XQueryContext context, QName qname, String contents) throws XPathException {
+        super(qname, contents);
+        this.context = context;
+        if (contents != null && contents.length() > 0) {
+            final String param[] = Option.parseKeyValuePair(contents);
+            if (param == null || !"threads".equals(param[0])) {
+                throw new XPathException("Invalid content found for pragma " + PARALLEL_PRAGMA.getStringValue() +
+                    ": " + contents);
+            }
+            try {
+                threads = Integer.parseInt(param[1]);
+            } catch (final NumberFormatException e) {
+                throw new XPathException("Invalid number of threads for pragma " + PARALLEL_PRAGMA.getStringValue() +
+                    ": " + param[1]);
+            }
+        }
+
+        // the pragmas of the main module are numbered, so a worker can find the
+        // pragma corresponding to this one in its own copy of the query
+        if (context.hasParent()) {
+            index = -1;
+        } else {
+            List<Parallel> pragmas = (List<Parallel>) context.getAttribute(PRAGMAS_ATTRIBUTE);
+            if (pragmas == null) {
+                pragmas = new ArrayList<>();
+                context.setAttribute(PRAGMAS_ATTRIBUTE, pragmas);
+            }
+            index = pragmas.size();
+            pragmas.add(this);
+        }
+    }
+
+    @Override
+    public void analyze(AnalyzeContextInfo contextInfo, Expression expression) throws XPathException {
+        super.analyze(contextInfo, expression);
+        forExpr = null;
+        sequentialReason = null;
+
+        final Expression inner = unwrap(expression);
+        if (index < 0) {
+            sequentialReason = "the pragma is used in a library module";
+        } else if (!(inner instanceof ForExpr) || ((ForExpr) inner).getPreviousClause() != null) {
+            sequentialReason = "the expression is not a for expression";
+        } else if (((ForExpr) inner).getSequenceType() != null) {
+            sequentialReason = "the type of the variable is declared";
+        } else {
+            Expression next = ((ForExpr) inner).getReturnExpression();
+            while (next instanceof FLWORClause && sequentialReason == null) {
+                final FLWORClause.ClauseType type = ((FLWORClause) next).getType();
+                if (type == FLWORClause.ClauseType.ORDERBY || type == FLWORClause.ClauseType.GROUPBY) {
+                    sequentialReason = "the results are sorted or grouped";
+                }
+                next = ((FLWORClause) next).getReturnExpression();
+            }
+            if (sequentialReason == null) {
+                sequentialReason = SIDE_EFFECTS.find(inner);
+            }
+        }
+
+        if (sequentialReason == null) {
+            forExpr = (ForExpr) inner;
+        } else if (LOG.isDebugEnabled()) {
+            LOG.debug("Line " + expression.getLine() + ": evaluating sequentially as " + sequentialReason);
+        }
+    }
+
+    @Override
+    public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
+        if (forExpr == null || context.getAttribute(WORKER_ATTRIBUTE) != null) {
+            // evaluate the expression as usual
+            return null;
+        }
+
+        final Sequence input = forExpr.getInputSequence().eval(contextSequence, null);
+        final int parts = Math.min(threads, input.getItemCount());
+        if (parts < 2) {
+            return forExpr.eval(contextSequence, contextItem, input, 0);
+        }
+        if (workerFailure != null) {
+            return sequential(contextSequence, contextItem, input, workerFailure);
+        }
+
+        // variables in scope are passed to the workers
+        final Collection<Variable> globals = context.getGlobalVariables().values();
+        final List<ClosureVariable> locals = context.getLocalStack();
+        for (final Variable var : globals) {
+            if (!prepareShared(var.getValue())) {
+                return sequential(contextSequence, contextItem, input, "variable $" + var.getQName() + " holds a function");
+            }
+        }
+        for (final ClosureVariable var : locals) {
+            if (!prepareShared(var.getValue())) {
+                return sequential(contextSequence, contextItem, input, "variable $" + var.getQName() + " holds a function");
+            }
+        }
+        prepareShared(contextSequence);
+
+        // split the input sequence into consecutive parts
+        final Sequence[] chunks = new Sequence[parts];
+        final int[] offsets = new int[parts];
+        final int size = input.getItemCount();
+        final SequenceIterator items = input.iterate();
+        for (int i = 0, offset = 0; i < parts; i++) {
+            final int length = size / parts + (i < size % parts ? 1 : 0);
+            final ValueSequence chunk = new ValueSequence(length);
+            for (int j = 0; j < length; j++) {
+                chunk.add(items.nextItem());
+            }
+            chunks[i] = chunk;
+            offsets[i] = offset;
+            offset += length;
+        }
+
+        final BrokerPool pool = context.getBroker().getBrokerPool();
+        final Subject subject = context.getBroker().getCurrentSubject();
+        final XQueryWatchDog watchdog = context.getWatchDog();
+        final List<Future<Sequence>> tasks = new ArrayList<>(parts - 1);
+        try {
+            for (int i = 1; i < parts; i++) {
+                final Sequence chunk = chunks[i];
+                final int offset = offsets[i];
+                tasks.add(workerPool.submit(() ->
+                    evalWorker(pool, subject, watchdog, contextSequence, contextItem, chunk, offset, globals, locals)));
+            }
+
+            final ValueSequence result = new ValueSequence();
+            result.addAll(forExpr.eval(contextSequence, contextItem, chunks[0], 0));
+            for (int i = 1; i < parts; i++) {
+                Sequence part = tasks.get(i - 1).get();
+                if (part == null) {
+                    part = forExpr.eval(contextSequence, contextItem, chunks[i], offsets[i]);
+                }
+                result.addAll(part);
+            }
+            return result;
+
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XPathException(forExpr, "Interrupted while waiting for parallel evaluation", e);
+        } catch (final ExecutionException e) {
+            Throwable cause = e.getCause();
+            // the fork-join pool wraps checked exceptions
+            while (cause instanceof RuntimeException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof XPathException) {
+                throw (XPathException) cause;
+            }
+            throw new XPathException(forExpr, "Error during parallel evaluation: " + cause.getMessage(), cause);
+        } finally {
+            for (final Future<Sequence> task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private Sequence sequential(Sequence contextSequence, Item contextItem, Sequence input, String reason)
+            throws XPathException {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Line " + forExpr.getLine() + ": evaluating sequentially as " + reason);
+        }
+        return forExpr.eval(contextSequence, contextItem, input, 0);
+    }
+
+    /**
+     * Evaluates a part of the input sequence on a worker thread.
+     *
+     * @return the result or null if no broker was available or the query could not be
+     * compiled for the worker
+     */
+    private Sequence evalWorker(BrokerPool pool, Subject subject, XQueryWatchDog watchdog, Sequence contextSequence,
+            Item contextItem, Sequence chunk, int offset, Collection<Variable> globals, List<ClosureVariable> locals)
+            throws XPathException {
+        if (workerFailure != null) {
+            return null;
+        }
+        final BrokerLease lease;
+        try {
+            // do not wait: the calling thread evaluates the part if all brokers are in use
+            lease = pool.lease(Optional.of(subject), 0);
+        } catch (final EXistException e) {
+            return null;
+        }
+        try (final BrokerLease.Binding binding = lease.bind()) {
+            Worker worker = idleWorkers.poll();
+            if (worker == null) {
+                try {
+                    worker = new Worker(binding.getBroker());
+                } catch (final XPathException | PermissionDeniedException | java.io.IOException | RuntimeException e) {
+                    LOG.warn("Line " + forExpr.getLine() + ": could not compile the query for a worker, " +
+                        "evaluating sequentially: " + e.getMessage(), e);
+                    workerFailure = "the query could not be compiled for a worker";
+                    return null;
+                }
+            }
+            try {
+                return worker.eval(watchdog, contextSequence, contextItem, chunk, offset, globals, locals);
+            } finally {
+                idleWorkers.push(worker);
+            }
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Prepares a sequence for being read by several threads.
+     *
+     * @return false if the sequence contains function items, which are bound to the
+     * expression tree of the calling thread
+     */
+    private static boolean prepareShared(Sequence sequence) throws XPathException {
+        if (sequence == null || sequence.isEmpty()) {
+            return true;
+        }
+        final int itemType = sequence.getItemType();
+        if (itemType == Type.FUNCTION_REFERENCE) {
+            return false;
+        }
+        // node sets are sorted lazily when iterated for the first time
+        for (final SequenceIterator i = sequence.iterate(); i.hasNext(); ) {
+            final Item item = i.nextItem();
+            if (itemType != Type.ITEM) {
+                break;
+            }
+            if (item instanceof FunctionReference) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Expression unwrap(Expression expr) {
+        while (true) {
+            if (expr instanceof DebuggableExpression) {
+                expr = ((DebuggableExpression) expr).getExpression();
+            } else if (expr.getClass() == PathExpr.class && ((PathExpr) expr).getLength() == 1) {
+                expr = ((PathExpr) expr).getExpression(0);
+            } else {
+                return expr;
+            }
+        }
+    }
+
+    @Override
+    public void before(XQueryContext context, Expression expression, Sequence contextSequence) throws XPathException {
+    }
+
+    @Override
+    public void after(XQueryContext context, Expression expression) throws XPathException {
+    }
+
+    @Override
+    public void resetState(boolean postOptimization) {
+        super.resetState(postOptimization);
+        Worker worker;
+        while ((worker = idleWorkers.poll()) != null) {
+            worker.close();
+        }
+        workerFailure = null;
+    }
+
+    /**
+     * A copy of the query, compiled into a separate context, which evaluates
+     * the "for" expression for one part of the input sequence at a time.
+     */
+    private class Worker {
+
+        private final XQueryContext workerContext;
+        private final ForExpr workerExpr;
+
+        @SuppressWarnings("unchecked")
+        private Worker(DBBroker broker) throws XPathException, PermissionDeniedException, java.io.IOException {
+            final Source source = context.getSource();
+            workerContext = context.createWorkerContext();
+            broker.getBrokerPool().getXQueryService().compile(broker, workerContext, source);
+            workerContext.prepareForExecution();
+
+            final List<Parallel> pragmas = (List<Parallel>) workerContext.getAttribute(PRAGMAS_ATTRIBUTE);
+            final Parallel pragma = pragmas == null || pragmas.size() <= index ? null : pragmas.get(index);
+            if (pragma == null || pragma.forExpr == null) {
+                throw new XPathException(forExpr, "Could not find the expression to evaluate in parallel");
+            }
+            workerExpr = pragma.forExpr;
+            workerContext.setAttribute(WORKER_ATTRIBUTE, Boolean.TRUE);
+        }
+
+        private Sequence eval(XQueryWatchDog watchdog, Sequence contextSequence, Item contextItem, Sequence chunk,
+                int offset, Collection<Variable> globals, List<ClosureVariable> locals) throws XPathException {
+            // the worker is killed or times out together with the query
+            final XQueryWatchDog ownWatchdog = workerContext.getWatchDog();
+            workerContext.setWatchDog(watchdog);
+            final LocalVariable mark = workerContext.markLocalVariables(false);
+            try {
+                for (final Variable var : globals) {
+                    workerContext.declareGlobalVariable(var);
+                }
+                workerContext.restoreStack(locals);
+                return workerExpr.eval(contextSequence, contextItem, chunk, offset);
+            } finally {
+                workerContext.popLocalVariables(mark);
+                workerContext.setWatchDog(ownWatchdog);
+            }
+        }
+
+        private void close() {
+            workerContext.runCleanupTasks();
+            workerContext.reset();
+        }
+    }
+}
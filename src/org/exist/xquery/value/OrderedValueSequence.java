@@ -21,20 +21,38 @@
  */
 package org.exist.xquery.value;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.exist.dom.memtree.DocumentImpl;
 import org.exist.dom.memtree.NodeImpl;
 import org.exist.dom.persistent.AVLTreeNodeSet;
 import org.exist.dom.persistent.NodeProxy;
 import org.exist.dom.persistent.NodeSet;
 import org.exist.numbering.NodeId;
+import org.exist.util.io.TemporaryFileManager;
 import org.exist.xquery.Constants;
 import org.exist.xquery.OrderSpec;
 import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
 import org.exist.xquery.util.ExpressionDumper;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.stream.Stream;
 
 /**
@@ -44,21 +62,65 @@ import java.util.stream.Stream;
  * Contrary to class {@link org.exist.xquery.value.PreorderedValueSequence},
  * all order expressions are evaluated once for each item in the sequence
  * <b>while</b> items are added.
+ * <p>
+ * If a limit is given, only the first items of the ordered sequence are kept: the
+ * entries are sorted and truncated whenever the buffer holds twice the limit.
+ * <p>
+ * If a spill threshold is given, the entries are sorted and written to a temporary
+ * file whenever the buffer holds that many entries. The sorted runs are merged
+ * by {@link #sort()}, which only keeps the items, not their sort keys, and removes
+ * the temporary files. Only persistent nodes and atomic values with sort keys of
+ * simple types can be written out; once another item has been added, all further
+ * entries are kept in memory.
  *
  * @author wolf
  */
 public class OrderedValueSequence extends AbstractSequence {
 
+    private final static Logger LOG = LogManager.getLogger(OrderedValueSequence.class);
+
     private final OrderSpec[] orderSpecs;
     private Entry[] items = null;
     private int count = 0;
+    private int nextPosition = 0;
     private int state = 0;
 
+    private final int limit;
+    private final int spillThreshold;
+    private final XQueryContext context;
+    private boolean spillable = true;
+    private List<Run> runs = null;
+    private int spilledCount = 0;
+    private boolean spilled = false;
+    private Map<Integer, org.exist.dom.persistent.DocumentImpl> spilledDocuments = null;
+    private List<Closeable> openRuns = null;
+
     // used to keep track of the type of added items.
     private int itemType = Type.ANY_TYPE;
 
     public OrderedValueSequence(OrderSpec orderSpecs[], int size) {
+        this(orderSpecs, size, -1, -1, null);
+    }
+
+    /**
+     * @param orderSpecs the order specs of the "order by" clause
+     * @param size the initial size of the buffer
+     * @param limit if positive, only the given number of items from the start
+     *              of the ordered sequence are kept
+     * @param spillThreshold if positive, the number of entries kept in memory
+     *                       before they are written to a temporary file
+     * @param context the query context, used to remove the temporary files if
+     *                the query fails. Required if a spill threshold is given.
+     */
+    public OrderedValueSequence(OrderSpec orderSpecs[], int size, final int limit, final int spillThreshold,
+            final XQueryContext context) {
         this.orderSpecs = orderSpecs;
+        this.limit = limit;
+        this.spillThreshold = context == null ? -1 : spillThreshold;
+        this.context = context;
+        if (this.spillThreshold > 0 && size > this.spillThreshold) {
+            size = this.spillThreshold;
+        }
         if (size == 0) {
             size = 1;
         }
@@ -86,6 +148,15 @@ public class OrderedValueSequence extends AbstractSequence {
         return (items == null) ? 0 : count;
     }
 
+    /**
+     * Returns true if some of the entries have been written to temporary files.
+     *
+     * @return true if the sequence has been spilled to disk
+     */
+    public boolean isSpilled() {
+        return spilled;
+    }
+
     public boolean isEmpty() {
         return isEmpty;
     }
@@ -108,15 +179,133 @@ public class OrderedValueSequence extends AbstractSequence {
         if (count == 0 && items.length == 1) {
             items = new Entry[2];
         } else if (count == items.length) {
-            Entry newItems[] = new Entry[count * 2];
-            System.arraycopy(items, 0, newItems, 0, count);
-            items = newItems;
+            if (limit > 0 && count >= limit * 2) {
+                truncate();
+            } else if (spillThreshold > 0 && count >= spillThreshold && spillable) {
+                spill();
+            } else {
+                int newSize = count * 2;
+                if (spillThreshold > 0 && spillable && count < spillThreshold) {
+                    newSize = Math.min(newSize, spillThreshold);
+                }
+                Entry newItems[] = new Entry[newSize];
+                System.arraycopy(items, 0, newItems, 0, count);
+                items = newItems;
+            }
+        }
+        final Entry entry = new Entry(item, nextPosition++);
+        if (spillable && spillThreshold > 0 && !entry.isSpillable()) {
+            spillable = false;
         }
-        items[count] = new Entry(item, count++);
+        items[count++] = entry;
         checkItemType(item.getType());
         setHasChanged();
     }
 
+    /**
+     * Sorts the entries in memory and drops all entries after the limit.
+     */
+    private void truncate() {
+        Arrays.sort(items, 0, count);
+        Arrays.fill(items, limit, count, null);
+        count = limit;
+    }
+
+    /**
+     * Sorts the entries in memory and writes them to a temporary file.
+     */
+    private void spill() throws XPathException {
+        Arrays.sort(items, 0, count);
+        final int length = limit > 0 ? Math.min(count, limit) : count;
+        final TemporaryFileManager temporaryFileManager = TemporaryFileManager.getInstance();
+        try {
+            final Path file = temporaryFileManager.getTemporaryFile();
+            if (runs == null) {
+                runs = new ArrayList<>();
+                spilledDocuments = new HashMap<>();
+                openRuns = new ArrayList<>();
+                if (!spilled) {
+                    // remove the files if the query fails before the runs are merged
+                    context.registerCleanupTask(ctx -> removeRuns());
+                }
+                spilled = true;
+            }
+            runs.add(new Run(file, length));
+            try (final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                for (int i = 0; i < length; i++) {
+                    items[i].write(os);
+                }
+            }
+        } catch (final IOException e) {
+            throw new XPathException("Failed to write sorted items to a temporary file: " + e.getMessage(), e);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Spilled " + length + " sorted items to a temporary file");
+        }
+        spilledCount += length;
+        Arrays.fill(items, 0, count, null);
+        count = 0;
+    }
+
+    /**
+     * Merges the spilled runs with the entries in memory, which form the last run.
+     * Only the items are kept, the temporary files are removed.
+     */
+    private void merge() throws XPathException {
+        Arrays.sort(items, 0, count);
+        final int total = spilledCount + count;
+        final Entry[] merged = new Entry[limit > 0 ? Math.min(total, limit) : total];
+        final PriorityQueue<RunReader> queue = new PriorityQueue<>();
+        try {
+            final List<RunReader> readers = new ArrayList<>(runs.size() + 1);
+            for (final Run run : runs) {
+                readers.add(new FileRunReader(run));
+            }
+            readers.add(new MemoryRunReader());
+            for (final RunReader reader : readers) {
+                if (reader.advance()) {
+                    queue.add(reader);
+                }
+            }
+            int length = 0;
+            while (length < merged.length && !queue.isEmpty()) {
+                final RunReader reader = queue.poll();
+                merged[length++] = reader.current;
+                if (reader.advance()) {
+                    queue.add(reader);
+                }
+            }
+            for (int i = 0; i < length; i++) {
+                merged[i].clear();
+            }
+            items = merged;
+            count = length;
+        } catch (final IOException e) {
+            throw new XPathException("Failed to read sorted items from a temporary file: " + e.getMessage(), e);
+        } finally {
+            removeRuns();
+        }
+    }
+
+    private void removeRuns() {
+        if (runs == null) {
+            return;
+        }
+        for (final Closeable run : openRuns) {
+            try {
+                run.close();
+            } catch (final IOException e) {
+                LOG.warn("Failed to close sorted run: " + e.getMessage(), e);
+            }
+        }
+        openRuns.clear();
+        for (final Run run : runs) {
+            TemporaryFileManager.getInstance().returnTemporaryFile(run.file);
+        }
+        runs = null;
+        spilledCount = 0;
+    }
+
     /* (non-Javadoc)
      * @see org.exist.xquery.value.AbstractSequence#addAll(org.exist.xquery.value.Sequence)
      */
@@ -133,17 +322,26 @@ public class OrderedValueSequence extends AbstractSequence {
         }
     }
 
-    public void sort() {
+    public void sort() throws XPathException {
+        if (runs != null) {
+            merge();
+            return;
+        }
 //		FastQSort.sort(items, 0, count - 1);
-        items =
+        Stream<Entry> sorted =
                 Stream.of(items).filter(Objects::nonNull)
                         .parallel()
-                        .sorted()
+                        .sorted();
+        if (limit > 0) {
+            sorted = sorted.limit(limit);
+        }
+        items = sorted
                         .map(entry -> {
                             entry.clear();
                             return entry;
                         })
                         .toArray(Entry[]::new);
+        count = items.length;
     }
 
     /* (non-Javadoc)
@@ -345,6 +543,41 @@ public class OrderedValueSequence extends AbstractSequence {
             }
         }
 
+        /**
+         * Reads an entry written by {@link #write(DataOutputStream)}.
+         */
+        Entry(final DataInputStream is) throws IOException, XPathException {
+            this.pos = is.readInt();
+            values = new AtomicValue[orderSpecs.length];
+            for (int i = 0; i < orderSpecs.length; i++) {
+                values[i] = SpillableItems.readAtomic(is);
+            }
+            this.item = SpillableItems.readItem(is, spilledDocuments);
+        }
+
+        /**
+         * Checks if the item and the sort keys can be written to a temporary file.
+         */
+        boolean isSpillable() {
+            if (!SpillableItems.isSpillable(item)) {
+                return false;
+            }
+            for (final AtomicValue value : values) {
+                if (!SpillableItems.isSpillable(value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void write(final DataOutputStream os) throws IOException {
+            os.writeInt(pos);
+            for (final AtomicValue value : values) {
+                SpillableItems.writeAtomic(os, value);
+            }
+            SpillableItems.writeItem(os, item, spilledDocuments);
+        }
+
         /* (non-Javadoc)
          * @see java.lang.Comparable#compareTo(java.lang.Object)
          */
@@ -424,6 +657,81 @@ public class OrderedValueSequence extends AbstractSequence {
         }
     }
 
+    /**
+     * A sorted run of entries written to a temporary file.
+     */
+    private static class Run {
+        final Path file;
+        final int length;
+
+        Run(final Path file, final int length) {
+            this.file = file;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Reads the entries of a sorted run one by one.
+     */
+    private abstract static class RunReader implements Comparable<RunReader> {
+        Entry current;
+
+        /**
+         * Moves to the next entry of the run.
+         *
+         * @return false if the run is exhausted
+         */
+        abstract boolean advance() throws IOException, XPathException;
+
+        @Override
+        public int compareTo(final RunReader other) {
+            return current.compareTo(other.current);
+        }
+    }
+
+    private class MemoryRunReader extends RunReader {
+        private int next = 0;
+
+        @Override
+        boolean advance() {
+            if (next < count) {
+                current = items[next++];
+                return true;
+            }
+            current = null;
+            return false;
+        }
+    }
+
+    private class FileRunReader extends RunReader implements Closeable {
+        private final DataInputStream is;
+        private int remaining;
+
+        FileRunReader(final Run run) throws IOException {
+            this.is = new DataInputStream(new BufferedInputStream(Files.newInputStream(run.file)));
+            this.remaining = run.length;
+            openRuns.add(this);
+        }
+
+        @Override
+        boolean advance() throws IOException, XPathException {
+            if (remaining > 0) {
+                remaining--;
+                current = new Entry(is);
+                return true;
+            }
+            current = null;
+            close();
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            openRuns.remove(this);
+            is.close();
+        }
+    }
+
     private class OrderedValueSequenceIterator implements SequenceIterator {
 
         int pos = 0;
@@ -0,0 +1,261 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery.value;
+
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.numbering.NodeId;
+import org.exist.xquery.XPathException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Writes items to and reads them from temporary files, used by operations
+ * which keep intermediate results on disk if they get too large.
+ *
+ * Only persistent nodes and atomic values of simple types can be written:
+ * a persistent node is stored as a reference to the node in the database,
+ * an atomic value as its type and string value. The documents of the nodes
+ * are not written, they are kept in a map by the caller.
+ */
+public final class SpillableItems {
+
+    private final static byte ITEM_ATOMIC = 0;
+    private final static byte ITEM_NODE = 1;
+    private final static int EMPTY_VALUE_TYPE = -1;
+
+    private SpillableItems() {
+    }
+
+    /**
+     * Checks if the item can be written by {@link #writeItem(DataOutputStream, Item, Map)}.
+     *
+     * @param item the item
+     * @return true if the item can be written
+     */
+    public static boolean isSpillable(final Item item) {
+        if (item instanceof NodeProxy) {
+            // full text matches would be lost
+            return ((NodeProxy) item).getMatches() == null;
+        }
+        return item instanceof AtomicValue && isSpillable((AtomicValue) item);
+    }
+
+    /**
+     * Checks if all items of the sequence can be written.
+     *
+     * @param seq the sequence
+     * @return true if the items can be written
+     */
+    public static boolean isSpillable(final Sequence seq) throws XPathException {
+        if (seq instanceof Item) {
+            return isSpillable((Item) seq);
+        }
+        for (final SequenceIterator i = seq.iterate(); i.hasNext(); ) {
+            if (!isSpillable(i.nextItem())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the value can be written by {@link #writeAtomic(DataOutputStream, AtomicValue)}.
+     *
+     * @param value the value
+     * @return true if the value can be written
+     */
+    public static boolean isSpillable(final AtomicValue value) {
+        if (value == AtomicValue.EMPTY_VALUE) {
+            return true;
+        }
+        final int type = value.getType();
+        if (Type.subTypeOf(type, Type.STRING) || Type.subTypeOf(type, Type.NUMBER)) {
+            return true;
+        }
+        switch (type) {
+            case Type.UNTYPED_ATOMIC:
+            case Type.ANY_URI:
+            case Type.BOOLEAN:
+            case Type.DATE_TIME:
+            case Type.DATE:
+            case Type.TIME:
+            case Type.DURATION:
+            case Type.YEAR_MONTH_DURATION:
+            case Type.DAY_TIME_DURATION:
+            case Type.GYEAR:
+            case Type.GMONTH:
+            case Type.GDAY:
+            case Type.GYEARMONTH:
+            case Type.GMONTHDAY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Writes an item.
+     *
+     * @param os the output stream
+     * @param item a spillable item
+     * @param documents receives the documents of written nodes, keyed by document id
+     */
+    public static void writeItem(final DataOutputStream os, final Item item, final Map<Integer, DocumentImpl> documents)
+            throws IOException {
+        if (item instanceof NodeProxy) {
+            final NodeProxy node = (NodeProxy) item;
+            final DocumentImpl doc = node.getOwnerDocument();
+            documents.putIfAbsent(doc.getDocId(), doc);
+            os.writeByte(ITEM_NODE);
+            os.writeInt(doc.getDocId());
+            os.writeShort(node.getNodeType());
+            os.writeLong(node.getInternalAddress());
+            final NodeId nodeId = node.getNodeId();
+            final byte[] data = new byte[nodeId.size()];
+            nodeId.serialize(data, 0);
+            os.writeShort(nodeId.units());
+            os.writeShort(data.length);
+            os.write(data);
+        } else {
+            os.writeByte(ITEM_ATOMIC);
+            writeAtomic(os, (AtomicValue) item);
+        }
+    }
+
+    /**
+     * Reads an item written by {@link #writeItem(DataOutputStream, Item, Map)}.
+     *
+     * @param is the input stream
+     * @param documents the documents of the written nodes, keyed by document id
+     * @return the item
+     */
+    public static Item readItem(final DataInputStream is, final Map<Integer, DocumentImpl> documents)
+            throws IOException, XPathException {
+        if (is.readByte() == ITEM_NODE) {
+            final DocumentImpl doc = documents.get(is.readInt());
+            final short nodeType = is.readShort();
+            final long address = is.readLong();
+            final int units = is.readShort();
+            final byte[] data = new byte[is.readShort()];
+            is.readFully(data);
+            final NodeId nodeId = doc.getBrokerPool().getNodeFactory().createFromData(units, data, 0);
+            return new NodeProxy(doc, nodeId, nodeType, address);
+        }
+        return readAtomic(is);
+    }
+
+    /**
+     * Writes the number of items in the sequence followed by the items.
+     *
+     * @param os the output stream
+     * @param seq a sequence of spillable items
+     * @param documents receives the documents of written nodes, keyed by document id
+     */
+    public static void writeSequence(final DataOutputStream os, final Sequence seq,
+            final Map<Integer, DocumentImpl> documents) throws IOException {
+        os.writeInt(seq.getItemCount());
+        try {
+            for (final SequenceIterator i = seq.iterate(); i.hasNext(); ) {
+                writeItem(os, i.nextItem(), documents);
+            }
+        } catch (final XPathException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a sequence written by {@link #writeSequence(DataOutputStream, Sequence, Map)}.
+     *
+     * @param is the input stream
+     * @param documents the documents of the written nodes, keyed by document id
+     * @return the sequence
+     */
+    public static Sequence readSequence(final DataInputStream is, final Map<Integer, DocumentImpl> documents)
+            throws IOException, XPathException {
+        final int length = is.readInt();
+        final ValueSequence seq = new ValueSequence(length);
+        for (int i = 0; i < length; i++) {
+            seq.add(readItem(is, documents));
+        }
+        return seq;
+    }
+
+    /**
+     * Writes an atomic value, which may be {@link AtomicValue#EMPTY_VALUE}.
+     *
+     * @param os the output stream
+     * @param value a spillable value
+     */
+    public static void writeAtomic(final DataOutputStream os, final AtomicValue value) throws IOException {
+        if (value == AtomicValue.EMPTY_VALUE) {
+            os.writeInt(EMPTY_VALUE_TYPE);
+            return;
+        }
+        final int type = value.getType();
+        os.writeInt(type);
+        if (type == Type.DOUBLE) {
+            os.writeDouble(((DoubleValue) value).getValue());
+        } else if (type == Type.FLOAT) {
+            os.writeFloat(((FloatValue) value).getValue());
+        } else {
+            final byte[] data;
+            try {
+                data = value.getStringValue().getBytes(StandardCharsets.UTF_8);
+            } catch (final XPathException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            os.writeInt(data.length);
+            os.write(data);
+        }
+    }
+
+    /**
+     * Reads an atomic value written by {@link #writeAtomic(DataOutputStream, AtomicValue)}.
+     *
+     * @param is the input stream
+     * @return the value
+     */
+    public static AtomicValue readAtomic(final DataInputStream is) throws IOException, XPathException {
+        final int type = is.readInt();
+        switch (type) {
+            case EMPTY_VALUE_TYPE:
+                return AtomicValue.EMPTY_VALUE;
+            case Type.DOUBLE:
+                return new DoubleValue(is.readDouble());
+            case Type.FLOAT:
+                return new FloatValue(is.readFloat());
+            default:
+                final byte[] data = new byte[is.readInt()];
+                is.readFully(data);
+                final String value = new String(data, StandardCharsets.UTF_8);
+                if (type == Type.UNTYPED_ATOMIC) {
+                    return new UntypedAtomicValue(value);
+                } else if (type == Type.STRING) {
+                    return new StringValue(value);
+                }
+                return new StringValue(value).convertTo(type);
+        }
+    }
+}
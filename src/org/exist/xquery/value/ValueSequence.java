@@ -109,6 +109,8 @@ public class ValueSequence extends AbstractSequence implements MemoryNodeSet {
         size = UNSET_SIZE;
         itemType = Type.ANY_TYPE;
         noDuplicates = false;
+        isEmpty = true;
+        hasOne = false;
     }
 
     public boolean isEmpty() {
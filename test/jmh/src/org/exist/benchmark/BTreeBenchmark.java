@@ -0,0 +1,95 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.benchmark;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.btree.BTree;
+import org.exist.storage.btree.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Inserts into and lookups in a {@link BTree} without journalling.
+ */
+@State(Scope.Thread)
+public class BTreeBenchmark {
+
+    @Param({"100000"})
+    public int keys;
+
+    private Path file;
+    private BTree btree;
+    private Value[] lookupKeys;
+    private int next = 0;
+    private long inserted = 0;
+
+    @Setup(Level.Trial)
+    public void createBTree(final DatabaseState database) throws Exception {
+        final BrokerPool pool = database.getPool();
+        file = Files.createTempFile("jmh-btree", ".dbx");
+        Files.delete(file);
+        btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file);
+        btree.create((short) -1);
+
+        lookupKeys = new Value[keys];
+        for (int i = 0; i < keys; i++) {
+            lookupKeys[i] = new Value(key(i));
+            btree.addValue(lookupKeys[i], i);
+        }
+        // visit the keys in a fixed, scattered order
+        for (int i = keys - 1; i > 0; i--) {
+            final int j = (int) ((i * 2654435761L) % (i + 1));
+            final Value tmp = lookupKeys[i];
+            lookupKeys[i] = lookupKeys[j];
+            lookupKeys[j] = tmp;
+        }
+        inserted = keys;
+    }
+
+    @TearDown(Level.Trial)
+    public void removeBTree() {
+        btree.closeAndRemove();
+    }
+
+    @Benchmark
+    public long findValue() throws Exception {
+        final Value key = lookupKeys[next];
+        next = (next + 1) % keys;
+        return btree.findValue(key);
+    }
+
+    @Benchmark
+    public long addValue() throws Exception {
+        final long pointer = inserted++;
+        return btree.addValue(new Value(key(pointer)), pointer);
+    }
+
+    private static String key(final long num) {
+        return "key-" + num;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.benchmark;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Optional;
+
+/**
+ * A broker for each benchmark thread, brokers are bound to the thread
+ * which obtained them.
+ */
+@State(Scope.Thread)
+public class BrokerState {
+
+    public DBBroker broker;
+
+    @Setup(Level.Trial)
+    public void getBroker(final DatabaseState database) throws Exception {
+        final BrokerPool pool = database.getPool();
+        broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+    }
+
+    @TearDown(Level.Trial)
+    public void releaseBroker() {
+        broker.close();
+    }
+}
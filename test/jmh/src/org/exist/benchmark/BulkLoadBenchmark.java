@@ -0,0 +1,155 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.benchmark;
+
+import org.exist.TestDataGenerator;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.BulkLoader;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.FileUtils;
+import org.exist.xmldb.XmldbURI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xml.sax.InputSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores documents into an empty database, either one transaction per
+ * document as usual, or through a {@link BulkLoader}, which defers the keys
+ * of dom.dbx and the structural index until it is closed.
+ *
+ * Each invocation starts a new database, so the trees grow from empty.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BulkLoadBenchmark {
+
+    @Param({"200"})
+    public int documents;
+
+    @Param({"false", "true"})
+    public boolean bulkLoad;
+
+    private Path files;
+    private ExistEmbeddedServer server;
+
+    @Setup(Level.Trial)
+    public void generateDocuments() throws Exception {
+        files = Files.createTempDirectory("jmh-bulkload");
+        final ExistEmbeddedServer generatorServer = new ExistEmbeddedServer(true, true);
+        generatorServer.startDb();
+        try {
+            final BrokerPool pool = generatorServer.getBrokerPool();
+            final TransactionManager transact = pool.getTransactionManager();
+            try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+                final Collection collection;
+                try (final Txn transaction = transact.beginTransaction()) {
+                    collection = broker.getOrCreateCollection(transaction, DatabaseState.COLLECTION_URI);
+                    broker.saveCollection(transaction, collection);
+                    transact.commit(transaction);
+                }
+                final TestDataGenerator generator = new TestDataGenerator("jmh", documents);
+                try {
+                    final Path[] generated = generator.generate(broker, collection, DatabaseState.GENERATE_XQ);
+                    for (int i = 0; i < generated.length; i++) {
+                        Files.copy(generated[i], files.resolve(DatabaseState.documentName(i)),
+                                StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } finally {
+                    generator.releaseAll();
+                }
+            }
+        } finally {
+            generatorServer.stopDb();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void removeDocuments() {
+        FileUtils.deleteQuietly(files);
+    }
+
+    @Setup(Level.Invocation)
+    public void startDb() throws Exception {
+        server = new ExistEmbeddedServer(true, true);
+        server.startDb();
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopDb() {
+        server.stopDb();
+    }
+
+    @Benchmark
+    public int store() throws Exception {
+        final BrokerPool pool = server.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Collection collection;
+            try (final Txn transaction = transact.beginTransaction()) {
+                collection = broker.getOrCreateCollection(transaction, DatabaseState.COLLECTION_URI);
+                broker.saveCollection(transaction, collection);
+                transact.commit(transaction);
+            }
+
+            if (bulkLoad) {
+                try (final BulkLoader loader = new BulkLoader(broker)) {
+                    for (int i = 0; i < documents; i++) {
+                        loader.store(collection, XmldbURI.create(DatabaseState.documentName(i)), source(i));
+                    }
+                    return loader.getCount();
+                }
+            }
+
+            for (int i = 0; i < documents; i++) {
+                try (final Txn transaction = transact.beginTransaction()) {
+                    final XmldbURI docUri = XmldbURI.create(DatabaseState.documentName(i));
+                    final IndexInfo info = collection.validateXMLResource(transaction, broker, docUri, source(i));
+                    collection.store(transaction, broker, info, source(i));
+                    transact.commit(transaction);
+                }
+            }
+            return documents;
+        }
+    }
+
+    private InputSource source(final int num) {
+        return new InputSource(files.resolve(DatabaseState.documentName(num)).toUri().toASCIIString());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.benchmark;
+
+import org.exist.numbering.DLN;
+import org.exist.numbering.DLNFactory;
+import org.exist.numbering.NodeId;
+import org.exist.numbering.NodeIdFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Comparisons and (de-)serialization of dynamic level numbers.
+ */
+@State(Scope.Thread)
+public class DLNBenchmark {
+
+    private final NodeIdFactory factory = new DLNFactory();
+
+    private NodeId[] ids;
+    private byte[][] serialized;
+
+    @Setup(Level.Trial)
+    public void createIds() {
+        // a tree of depth 5 with a fan out of 6, in document order
+        final List<NodeId> nodes = new ArrayList<>();
+        addSubtree(new DLN(1), 1, nodes);
+        ids = nodes.toArray(new NodeId[nodes.size()]);
+
+        serialized = new byte[ids.length][];
+        for (int i = 0; i < ids.length; i++) {
+            serialized[i] = new byte[ids[i].size()];
+            ids[i].serialize(serialized[i], 0);
+        }
+    }
+
+    private static void addSubtree(final NodeId parent, final int level, final List<NodeId> nodes) {
+        nodes.add(parent);
+        if (level == 5) {
+            return;
+        }
+        NodeId child = parent.newChild();
+        for (int i = 0; i < 6; i++) {
+            addSubtree(child, level + 1, nodes);
+            child = child.nextSibling();
+        }
+    }
+
+    @Benchmark
+    public int compareTo() {
+        int result = 0;
+        for (int i = 1; i < ids.length; i++) {
+            result += ids[i - 1].compareTo(ids[i]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int isDescendantOf() {
+        final NodeId ancestor = ids[ids.length / 2];
+        int descendants = 0;
+        for (final NodeId id : ids) {
+            if (id.isDescendantOf(ancestor)) {
+                descendants++;
+            }
+        }
+        return descendants;
+    }
+
+    @Benchmark
+    public void serialize(final Blackhole blackhole) {
+        for (final NodeId id : ids) {
+            final byte[] data = new byte[id.size()];
+            id.serialize(data, 0);
+            blackhole.consume(data);
+        }
+    }
+
+    @Benchmark
+    public void deserialize(final Blackhole blackhole) {
+        for (int i = 0; i < serialized.length; i++) {
+            blackhole.consume(factory.createFromData(ids[i].units(), serialized[i], 0));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.benchmark;
+
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.IStoredNode;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.numbering.NodeId;
+import org.exist.storage.dom.INodeIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reads nodes from the DOM file: sequential scans of a document
+ * and lookups of single nodes by their node id.
+ */
+@State(Scope.Thread)
+public class DOMFileBenchmark {
+
+    private DocumentImpl doc;
+    private NodeId[] paragraphs;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void prepare(final BrokerState state) throws Exception {
+        doc = DatabaseState.getDocument(state.broker, 0);
+
+        // /book/section/para
+        final NodeId root = NodeId.ROOT_NODE;
+        paragraphs = new NodeId[10 * 20];
+        int i = 0;
+        for (int section = 1; section <= 10; section++) {
+            // the title of the book is the first child
+            final NodeId sectionId = root.getChild(section + 1);
+            for (int para = 1; para <= 20; para++) {
+                // the title of the section is the first child
+                paragraphs[i++] = sectionId.getChild(para + 1);
+            }
+        }
+    }
+
+    @Benchmark
+    public int scanDocument(final BrokerState state, final Blackhole blackhole) throws Exception {
+        int count = 0;
+        try (final INodeIterator iterator = state.broker.getNodeIterator(new NodeProxy(doc, NodeId.ROOT_NODE))) {
+            while (iterator.hasNext()) {
+                final IStoredNode node = iterator.next();
+                if (node == null) {
+                    break;
+                }
+                blackhole.consume(node);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public IStoredNode objectWith(final BrokerState state) {
+        final NodeId nodeId = paragraphs[next];
+        next = (next + 1) % paragraphs.length;
+        return state.broker.objectWith(doc, nodeId);
+    }
+}
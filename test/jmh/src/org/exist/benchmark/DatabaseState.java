@@ -0,0 +1,139 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.benchmark;
+
+import org.exist.TestDataGenerator;
+import org.exist.collections.Collection;
+import org.exist.collections.CollectionConfigurationManager;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.persistent.DefaultDocumentSet;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.DocumentSet;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xml.sax.InputSource;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * An embedded database with temporary storage, populated with a synthetic
+ * dataset generated by {@link TestDataGenerator}.
+ *
+ * The generator query derives all content from the document and loop
+ * counters, so every run of a benchmark works on exactly the same data.
+ */
+@State(Scope.Benchmark)
+public class DatabaseState {
+
+    public static final XmldbURI COLLECTION_URI = XmldbURI.ROOT_COLLECTION_URI.append("benchmark");
+
+    public static final String COLLECTION_CONFIG =
+            "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+            "   <index>" +
+            "       <create qname=\"price\" type=\"xs:integer\"/>" +
+            "   </index>" +
+            "</collection>";
+
+    public static final String GENERATE_XQ =
+            "<book id=\"{$count}\">" +
+            "   <title>Book {$count}</title>" +
+            "   {" +
+            "       for $section in 1 to 10 return" +
+            "           <section id=\"sect{$section}\">" +
+            "               <title>Section {$count}.{$section}</title>" +
+            "               {" +
+            "                   for $para in 1 to 20 return" +
+            "                       <para n=\"{$para}\">" +
+            "                           <price>{($count * 97 + $section * 31 + $para * 13) mod 1000}</price>" +
+            "                           <text>Paragraph {$count}.{$section}.{$para} of the synthetic dataset</text>" +
+            "                       </para>" +
+            "               }" +
+            "           </section>" +
+            "   }" +
+            "</book>";
+
+    @Param({"20"})
+    public int documents;
+
+    private ExistEmbeddedServer server;
+
+    @Setup(Level.Trial)
+    public void startDb() throws Exception {
+        server = new ExistEmbeddedServer(true, true);
+        server.startDb();
+
+        final BrokerPool pool = getPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, COLLECTION_URI);
+            broker.saveCollection(transaction, collection);
+            final CollectionConfigurationManager mgr = pool.getConfigurationManager();
+            mgr.addConfiguration(transaction, broker, collection, COLLECTION_CONFIG);
+
+            final TestDataGenerator generator = new TestDataGenerator("jmh", documents);
+            try {
+                final Path[] files = generator.generate(broker, collection, GENERATE_XQ);
+                for (int i = 0; i < files.length; i++) {
+                    final XmldbURI docUri = XmldbURI.create(documentName(i));
+                    final InputSource source = new InputSource(files[i].toUri().toASCIIString());
+                    final IndexInfo info = collection.validateXMLResource(transaction, broker, docUri, source);
+                    collection.store(transaction, broker, info, new InputSource(files[i].toUri().toASCIIString()));
+                }
+            } finally {
+                generator.releaseAll();
+            }
+            transact.commit(transaction);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopDb() {
+        server.stopDb();
+    }
+
+    public BrokerPool getPool() {
+        return server.getBrokerPool();
+    }
+
+    public static String documentName(final int num) {
+        return "book" + num + ".xml";
+    }
+
+    public static DocumentSet getDocuments(final DBBroker broker) throws Exception {
+        final Collection collection = broker.getCollection(COLLECTION_URI);
+        return collection.allDocs(broker, new DefaultDocumentSet(), true);
+    }
+
+    public static DocumentImpl getDocument(final DBBroker broker, final int num) throws Exception {
+        return (DocumentImpl) broker.getXMLResource(COLLECTION_URI.append(documentName(num)));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.benchmark;
+
+import org.exist.util.Configuration;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.GroupByClause;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.Sequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Grouping with "group by", with values which are aggregated
+ * by fn:count and fn:sum or kept for the return clause, in memory
+ * or partitioned into temporary files.
+ */
+@State(Scope.Thread)
+public class GroupByBenchmark {
+
+    private static final String AGGREGATE_PARAGRAPHS =
+            "for $para in collection('" + DatabaseState.COLLECTION_URI + "')//para\n" +
+            "let $price := xs:integer($para/price)\n" +
+            "group by $key := $price mod 100\n" +
+            "return <group key='{$key}' count='{count($para)}' total='{sum($price)}'/>";
+
+    private static final String COLLECT_PARAGRAPHS =
+            "for $para in collection('" + DatabaseState.COLLECTION_URI + "')//para\n" +
+            "group by $key := xs:integer($para/price) mod 100\n" +
+            "return <group key='{$key}'>{$para[1]/text}</group>";
+
+    private static final String AGGREGATE_NUMBERS =
+            "for $i in 1 to 200000\n" +
+            "group by $key := $i mod 1000\n" +
+            "return count($i) + sum($i)";
+
+    private static final String COLLECT_NUMBERS =
+            "for $i in 1 to 200000\n" +
+            "group by $key := $i mod 1000\n" +
+            "return $i[1]";
+
+    /**
+     * The number of items a group by keeps in memory.
+     */
+    @Param({"1000000", "10000"})
+    public int spillThreshold;
+
+    private XQuery xquery;
+    private CompiledXQuery aggregateParagraphs;
+    private CompiledXQuery collectParagraphs;
+    private CompiledXQuery aggregateNumbers;
+    private CompiledXQuery collectNumbers;
+
+    @Setup(Level.Trial)
+    public void prepare(final BrokerState state) throws Exception {
+        state.broker.getConfiguration().setProperty(GroupByClause.PROPERTY_GROUP_BY_SPILL_THRESHOLD, spillThreshold);
+        xquery = state.broker.getBrokerPool().getXQueryService();
+        aggregateParagraphs = compile(state, AGGREGATE_PARAGRAPHS);
+        collectParagraphs = compile(state, COLLECT_PARAGRAPHS);
+        aggregateNumbers = compile(state, AGGREGATE_NUMBERS);
+        collectNumbers = compile(state, COLLECT_NUMBERS);
+    }
+
+    @TearDown(Level.Trial)
+    public void resetSpillThreshold(final BrokerState state) {
+        final Configuration configuration = state.broker.getConfiguration();
+        configuration.removeProperty(GroupByClause.PROPERTY_GROUP_BY_SPILL_THRESHOLD);
+    }
+
+    private CompiledXQuery compile(final BrokerState state, final String query) throws Exception {
+        final XQueryContext context = new XQueryContext(state.broker.getBrokerPool());
+        return xquery.compile(state.broker, context, query);
+    }
+
+    @Benchmark
+    public int aggregateParagraphs(final BrokerState state) throws Exception {
+        return execute(state, aggregateParagraphs);
+    }
+
+    @Benchmark
+    public int collectParagraphs(final BrokerState state) throws Exception {
+        return execute(state, collectParagraphs);
+    }
+
+    @Benchmark
+    public int aggregateNumbers(final BrokerState state) throws Exception {
+        return execute(state, aggregateNumbers);
+    }
+
+    @Benchmark
+    public int collectNumbers(final BrokerState state) throws Exception {
+        return execute(state, collectNumbers);
+    }
+
+    private int execute(final BrokerState state, final CompiledXQuery compiled) throws Exception {
+        try {
+            final Sequence result = xquery.execute(state.broker, compiled, null);
+            return result.getItemCount();
+        } finally {
+            compiled.getContext().runCleanupTasks();
+            compiled.reset();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.benchmark;
+
+import org.exist.dom.persistent.NewArrayNodeSet;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.storage.DBBroker;
+import org.exist.xquery.Expression;
+import org.exist.xquery.XQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Structural joins of {@link NewArrayNodeSet}s as done
+ * by path steps on the child and descendant axes.
+ */
+@State(Scope.Thread)
+public class NodeSetJoinBenchmark {
+
+    private NodeSet books;
+    private NodeSet sections;
+    private NodeSet paragraphs;
+    private NodeSet prices;
+
+    @Setup(Level.Trial)
+    public void selectNodes(final BrokerState state) throws Exception {
+        books = select(state.broker, "book");
+        sections = select(state.broker, "section");
+        paragraphs = select(state.broker, "para");
+        prices = select(state.broker, "price");
+    }
+
+    private static NodeSet select(final DBBroker broker, final String name) throws Exception {
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        final NodeSet nodes = xquery.execute(broker,
+                "collection('" + DatabaseState.COLLECTION_URI + "')//" + name, null).toNodeSet();
+        final NewArrayNodeSet result = new NewArrayNodeSet();
+        result.addAll(nodes);
+        return result;
+    }
+
+    @Benchmark
+    public NodeSet selectParentChild() {
+        return paragraphs.selectParentChild(sections, NodeSet.DESCENDANT, Expression.NO_CONTEXT_ID);
+    }
+
+    @Benchmark
+    public NodeSet selectAncestorDescendant() {
+        return prices.selectAncestorDescendant(books, NodeSet.DESCENDANT, false, Expression.NO_CONTEXT_ID, true);
+    }
+}
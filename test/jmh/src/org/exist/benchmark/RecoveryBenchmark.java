@@ -0,0 +1,185 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.benchmark;
+
+import org.exist.TestDataGenerator;
+import org.exist.collections.Collection;
+import org.exist.collections.CollectionConfigurationManager;
+import org.exist.collections.IndexInfo;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.journal.Journal;
+import org.exist.storage.recovery.RecoveryManager;
+import org.exist.storage.sync.Sync;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.FileUtils;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xml.sax.InputSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Startup of a database after an unclean shutdown, which is dominated
+ * by the redo of the journal. Compares a sequential redo with
+ * redoing different pages concurrently.
+ *
+ * The journal either holds the documents as stored, which fill one
+ * page after the other, or updates spread over the pages of all
+ * documents, which have been written to disk by a checkpoint.
+ *
+ * The crashed database is created once per trial and copied
+ * before every invocation, so each recovery starts from the same state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RecoveryBenchmark {
+
+    @Param({"100"})
+    public int documents;
+
+    @Param({"1", "3"})
+    public int redoThreads;
+
+    @Param({"false", "true"})
+    public boolean updates;
+
+    private Path crashed;
+    private Path dataDir;
+    private ExistEmbeddedServer server;
+
+    @Setup(Level.Trial)
+    public void createCrashedDatabase() throws Exception {
+        crashed = Files.createTempDirectory("jmh-recovery");
+        final ExistEmbeddedServer existServer = new ExistEmbeddedServer(null, null, dataDirProperties(crashed), true);
+        existServer.startDb();
+        final BrokerPool pool = existServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            try (final Txn transaction = transact.beginTransaction()) {
+                final Collection collection = broker.getOrCreateCollection(transaction, DatabaseState.COLLECTION_URI);
+                broker.saveCollection(transaction, collection);
+                final CollectionConfigurationManager mgr = pool.getConfigurationManager();
+                mgr.addConfiguration(transaction, broker, collection, DatabaseState.COLLECTION_CONFIG);
+                transact.commit(transaction);
+            }
+
+            // one transaction per document, none of them is checkpointed
+            final TestDataGenerator generator = new TestDataGenerator("jmh", documents);
+            try {
+                final Collection collection = broker.getCollection(DatabaseState.COLLECTION_URI);
+                final Path[] files = generator.generate(broker, collection, DatabaseState.GENERATE_XQ);
+                for (int i = 0; i < files.length; i++) {
+                    try (final Txn transaction = transact.beginTransaction()) {
+                        final XmldbURI docUri = XmldbURI.create(DatabaseState.documentName(i));
+                        final IndexInfo info = collection.validateXMLResource(transaction, broker, docUri,
+                                new InputSource(files[i].toUri().toASCIIString()));
+                        collection.store(transaction, broker, info, new InputSource(files[i].toUri().toASCIIString()));
+                        transact.commit(transaction);
+                    }
+                }
+            } finally {
+                generator.releaseAll();
+            }
+
+            if (updates) {
+                pool.sync(broker, Sync.MAJOR);
+                final XQuery xquery = pool.getXQueryService();
+                final String paras = "collection('" + DatabaseState.COLLECTION_URI + "')//para";
+                for (int i = 0; i < 4; i++) {
+                    xquery.execute(broker, "for $para in " + paras + "[@n mod 4 = " + i + "] " +
+                            "return update value $para/price with " + i, null);
+                }
+                xquery.execute(broker, "for $para in " + paras + "[@n mod 5 = 0] " +
+                        "return update insert <note>updated</note> into $para", null);
+            }
+            pool.getJournalManager().get().flush(true, false);
+        }
+
+        BrokerPool.FORCE_CORRUPTION = true;
+        try {
+            existServer.stopDb();
+        } finally {
+            BrokerPool.FORCE_CORRUPTION = false;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void removeCrashedDatabase() {
+        FileUtils.deleteQuietly(crashed);
+    }
+
+    @Setup(Level.Invocation)
+    public void copyCrashedDatabase() throws IOException {
+        dataDir = Files.createTempDirectory("jmh-recovery-run");
+        try (final Stream<Path> files = Files.walk(crashed)) {
+            for (final Path file : (Iterable<Path>) files::iterator) {
+                final Path target = dataDir.resolve(crashed.relativize(file).toString());
+                if (Files.isDirectory(file)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(file, target);
+                }
+            }
+        }
+        final Properties properties = dataDirProperties(dataDir);
+        properties.put(RecoveryManager.PROPERTY_RECOVERY_REDO_THREADS, redoThreads);
+        server = new ExistEmbeddedServer(null, null, properties, true);
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopDatabase() {
+        server.stopDb();
+        FileUtils.deleteQuietly(dataDir);
+    }
+
+    @Benchmark
+    public BrokerPool recover() throws Exception {
+        // the recovery runs as part of the startup
+        server.startDb();
+        return server.getBrokerPool();
+    }
+
+    private static Properties dataDirProperties(final Path dir) {
+        final Properties properties = new Properties();
+        properties.put(BrokerPool.PROPERTY_DATA_DIR, dir);
+        properties.put(Journal.PROPERTY_RECOVERY_JOURNAL_DIR, dir);
+        return properties;
+    }
+}
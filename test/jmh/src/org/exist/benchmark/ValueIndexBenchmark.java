@@ -0,0 +1,66 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.benchmark;
+
+import org.exist.dom.QName;
+import org.exist.dom.persistent.DocumentSet;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.storage.NativeValueIndex;
+import org.exist.xquery.Constants.Comparison;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.XQueryWatchDog;
+import org.exist.xquery.value.IntegerValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Lookups in the range index on the price elements of the dataset.
+ */
+@State(Scope.Thread)
+public class ValueIndexBenchmark {
+
+    private static final QName PRICE = new QName("price", "");
+
+    private NativeValueIndex valueIndex;
+    private DocumentSet docs;
+    private XQueryWatchDog watchDog;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void prepare(final BrokerState state) throws Exception {
+        valueIndex = state.broker.getValueIndex();
+        docs = DatabaseState.getDocuments(state.broker);
+        watchDog = new XQueryWatchDog(new XQueryContext(state.broker.getBrokerPool()));
+    }
+
+    @Benchmark
+    public NodeSet findEquals() throws Exception {
+        next = (next + 37) % 1000;
+        return valueIndex.find(watchDog, Comparison.EQ, docs, null, NodeSet.ANCESTOR, PRICE, new IntegerValue(next));
+    }
+
+    @Benchmark
+    public NodeSet findLessThan() throws Exception {
+        return valueIndex.find(watchDog, Comparison.LT, docs, null, NodeSet.ANCESTOR, PRICE, new IntegerValue(100));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.benchmark;
+
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.storage.serializers.Serializer;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.NodeValue;
+import org.exist.xquery.value.Sequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compilation of XQuery expressions and serialization of
+ * query results and documents.
+ */
+@State(Scope.Thread)
+public class XQueryBenchmark {
+
+    private static final String QUERY =
+            "declare namespace b='http://exist-db.org/benchmark';\n" +
+            "declare function b:total($book as element(book)) as xs:integer {\n" +
+            "    sum($book//price)\n" +
+            "};\n" +
+            "for $book in collection('" + DatabaseState.COLLECTION_URI + "')/book\n" +
+            "let $expensive := $book/section/para[price > 900]\n" +
+            "where count($expensive) > 0\n" +
+            "order by b:total($book) descending\n" +
+            "return\n" +
+            "    <result id='{$book/@id}' total='{b:total($book)}'>{$expensive/text}</result>";
+
+    private XQuery xquery;
+    private DocumentImpl doc;
+    private Sequence result;
+
+    @Setup(Level.Trial)
+    public void prepare(final BrokerState state) throws Exception {
+        xquery = state.broker.getBrokerPool().getXQueryService();
+        doc = DatabaseState.getDocument(state.broker, 0);
+        result = xquery.execute(state.broker, QUERY, null);
+    }
+
+    @Benchmark
+    public CompiledXQuery compile(final BrokerState state) throws Exception {
+        final XQueryContext context = new XQueryContext(state.broker.getBrokerPool());
+        return xquery.compile(state.broker, context, QUERY);
+    }
+
+    @Benchmark
+    public String serializeDocument(final BrokerState state) throws Exception {
+        final Serializer serializer = state.broker.getSerializer();
+        serializer.reset();
+        return serializer.serialize(doc);
+    }
+
+    @Benchmark
+    public int serializeResult(final BrokerState state) throws Exception {
+        final Serializer serializer = state.broker.getSerializer();
+        serializer.reset();
+        int length = 0;
+        for (int i = 0; i < result.getItemCount(); i++) {
+            length += serializer.serialize((NodeValue) result.itemAt(i)).length();
+        }
+        return length;
+    }
+}
@@ -70,13 +70,15 @@ import org.xmldb.api.base.XMLDBException;
 @RunWith(Parameterized.class)
 public class SystemExportImportTest {
 
-    @Parameters(name = "{0} zip:{2}")
+    @Parameters(name = "{0} zip:{2} bulk-load:{3}")
     public static java.util.Collection<Object[]> data() {
         return Arrays.asList(new Object[][]{
-                {"direct", true, false},
-                {"non-direct", false, false},
-                {"direct", true, true},
-                {"non-direct", false, true}
+                {"direct", true, false, false},
+                {"non-direct", false, false, false},
+                {"direct", true, true, false},
+                {"non-direct", false, true, false},
+                {"direct", true, false, true},
+                {"non-direct", false, true, true}
         });
     }
 
@@ -89,6 +91,9 @@ public class SystemExportImportTest {
     @Parameter(value = 2)
     public boolean zip;
 
+    @Parameter(value = 3)
+    public boolean bulkLoad;
+
     private static String COLLECTION_CONFIG =
             "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
         	"	<index>" +
@@ -132,6 +137,7 @@ public class SystemExportImportTest {
         clean();
 
         final SystemImport restore = new SystemImport(pool);
+        restore.setBulkLoad(bulkLoad);
         final RestoreListener listener = new LogRestoreListener();
         restore.restore(listener, "admin", "", "", file, "xmldb:exist://");
 
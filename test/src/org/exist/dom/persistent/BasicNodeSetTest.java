@@ -65,6 +65,7 @@ import java.util.Optional;
 
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test basic {@link org.exist.dom.persistent.NodeSet} operations to ensure that
@@ -186,6 +187,98 @@ public class BasicNodeSetTest {
     }
     
     
+    @Test
+    public void packedArrayNodeSet() throws XPathException, SAXException, PermissionDeniedException {
+        NameTest test = new NameTest(Type.ELEMENT, new QName("SPEAKER", ""));
+        NodeSet speakers = broker.getStructuralIndex().findElementsByTagName(ElementValue.ELEMENT, docs, test.getName(), null);
+        assertTrue(speakers instanceof PackedArrayNodeSet);
+
+        // add the same nodes in reverse order and twice, to force sorting and removal of duplicates
+        final PackedArrayNodeSet packed = new PackedArrayNodeSet();
+        final NewArrayNodeSet array = new NewArrayNodeSet();
+        for (int i = speakers.getLength() - 1; i >= 0; i--) {
+            final NodeProxy speaker = speakers.get(i);
+            packed.add(speaker);
+            packed.add(new NodeProxy(speaker));
+            array.add(new NodeProxy(speaker));
+        }
+        assertEquals(speakers.getLength(), packed.getLength());
+        assertEquals(array.getLength(), packed.getLength());
+        for (int i = 0; i < array.getLength(); i++) {
+            assertEquals(0, array.get(i).compareTo(packed.get(i)));
+        }
+
+        Sequence outerSet = executeQuery(broker, "//SCENE/TITLE[fn:contains(., 'closet')]/ancestor::SCENE", 1, null);
+        NodeSet expected = array.selectAncestorDescendant(outerSet.toNodeSet(), NodeSet.DESCENDANT, false, -1, true);
+        NodeSet result = packed.selectAncestorDescendant(outerSet.toNodeSet(), NodeSet.DESCENDANT, false, -1, true);
+        assertEquals(56, result.getLength());
+        assertEquals(expected.getLength(), result.getLength());
+        for (int i = 0; i < expected.getLength(); i++) {
+            assertEquals(0, expected.get(i).compareTo(result.get(i)));
+        }
+
+        result = NodeSetHelper.selectAncestorDescendant(packed, outerSet.toNodeSet(), NodeSet.DESCENDANT, false, -1);
+        assertEquals(56, result.getLength());
+
+        Sequence smallSet = executeQuery(broker, "//SPEECH/LINE[fn:contains(., 'perturbed spirit')]/ancestor::SPEECH", 1, null);
+        result = packed.selectParentChild(smallSet.toNodeSet(), NodeSet.DESCENDANT, -1);
+        assertEquals(1, result.getLength());
+        assertEquals("<SPEAKER>HAMLET</SPEAKER>", serialize(broker, result.itemAt(0)));
+    }
+
+    @Test
+    public void packedArrayNodeSet_axes() throws XPathException, SAXException, PermissionDeniedException {
+        NameTest test = new NameTest(Type.ELEMENT, new QName("LINE", ""));
+        NodeSet lines = broker.getStructuralIndex().findElementsByTagName(ElementValue.ELEMENT, docs, test.getName(), null);
+        assertTrue(lines instanceof PackedArrayNodeSet);
+        final NewArrayNodeSet array = new NewArrayNodeSet();
+        for (final NodeProxy line : lines) {
+            array.add(new NodeProxy(line));
+        }
+
+        Sequence speakers = executeQuery(broker, "//SPEECH/LINE[fn:contains(., 'love')]/ancestor::SPEECH/SPEAKER", 187, null);
+        NodeSet result = lines.selectFollowingSiblings(speakers.toNodeSet(), -1);
+        assertEquals(1689, result.getLength());
+        assertSameNodes(array.selectFollowingSiblings(speakers.toNodeSet(), -1), result);
+
+        Sequence loveLines = executeQuery(broker, "//SPEECH/LINE[fn:contains(., 'love')]", 260, null);
+        result = lines.selectPrecedingSiblings(loveLines.toNodeSet(), -1);
+        assertTrue(result.getLength() > 0);
+        assertSameNodes(array.selectPrecedingSiblings(loveLines.toNodeSet(), -1), result);
+
+        Sequence spirit = executeQuery(broker, "//SPEECH[fn:contains(LINE, 'perturbed spirit')]", 1, null);
+        result = lines.selectFollowing(spirit.toNodeSet(), -1);
+        assertTrue(result.getLength() > 0);
+        assertSameNodes(array.selectFollowing(spirit.toNodeSet(), -1), result);
+        result = lines.selectFollowing(spirit.toNodeSet(), 1, -1);
+        assertEquals(1, result.getLength());
+        assertSameNodes(array.selectFollowing(spirit.toNodeSet(), 1, -1), result);
+
+        result = lines.selectPreceding(spirit.toNodeSet(), -1);
+        assertTrue(result.getLength() > 0);
+        assertSameNodes(array.selectPreceding(spirit.toNodeSet(), -1), result);
+        result = lines.selectPreceding(spirit.toNodeSet(), 1, -1);
+        assertEquals(1, result.getLength());
+        assertSameNodes(array.selectPreceding(spirit.toNodeSet(), 1, -1), result);
+    }
+
+    @Test
+    public void packedArrayNodeSet_largeContext() throws XPathException, SAXException, PermissionDeniedException {
+        // with that many context nodes, the descendants are loaded into a packed set and joined with the context
+        executeQuery(broker, "//LINE | //SPEAKER", 12133, null);
+        executeQuery(broker, "(//LINE | //SPEAKER)/descendant::STAGEDIR", 61, null);
+        executeQuery(broker, "deep-equal((//LINE | //SPEAKER)/descendant::STAGEDIR, //LINE/STAGEDIR)", 1, "true");
+        executeQuery(broker, "(//LINE | //SPEAKER)[descendant::STAGEDIR]", 61, null);
+        executeQuery(broker, "(//LINE | //SPEAKER)/descendant-or-self::LINE", 9492, null);
+    }
+
+    private static void assertSameNodes(final NodeSet expected, final NodeSet actual) {
+        assertEquals(expected.getLength(), actual.getLength());
+        for (int i = 0; i < expected.getLength(); i++) {
+            assertEquals(0, expected.get(i).compareTo(actual.get(i)));
+        }
+    }
+
     @Test
     public void getParents() throws XPathException, SAXException, PermissionDeniedException{
         Sequence largeSet = executeQuery(broker, "//SPEECH/LINE[fn:contains(., 'love')]/ancestor::SPEECH", 187, null);
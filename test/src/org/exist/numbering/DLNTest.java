@@ -244,6 +244,52 @@ public class DLNTest {
         assertTrue(id0.isSiblingOf(id3));
     }
 
+    @Test
+    public void serializedRelations() {
+        final DLN[] ids = {
+            new DLN("1"), new DLN("1.1"), new DLN("1.3"), new DLN("1.3.1"), new DLN("1.3.2.5.6"),
+            new DLN("1.3.2.5.6.7777"), new DLN("1.3.2.5.6.7777.1"), new DLN("1.4"), new DLN("1.3.1/1"),
+            new DLN("1.3.1/1.1"), new DLN("1.3.1/1.2.2"), new DLN("1.6.6.65.1"), new DLN("1.6.6.66"),
+            new DLN("1.1/0/35"), new DLN("1.1/1/1"), new DLN("1.600.1.70000")
+        };
+
+        // serialize all ids into one byte[], starting at an odd offset
+        final int[] offsets = new int[ids.length];
+        int length = 3;
+        for (int i = 0; i < ids.length; i++) {
+            offsets[i] = length;
+            length += ids[i].size();
+        }
+        final byte[] data = new byte[length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i].serialize(data, offsets[i]);
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            final DLN id = ids[i];
+            assertEquals(id.getTreeLevel(), DLN.getTreeLevel(data, offsets[i], id.units()));
+            assertEquals(id.computeRelation(NodeId.DOCUMENT_NODE),
+                DLN.computeRelation(data, offsets[i], id.units(), NodeId.DOCUMENT_NODE));
+            for (int j = 0; j < ids.length; j++) {
+                final DLN other = ids[j];
+                assertEquals(Integer.signum(id.compareTo(other)),
+                    Integer.signum(DLN.compare(data, offsets[i], id.size(), data, offsets[j], other.size())));
+                assertEquals(id.computeRelation(other),
+                    DLN.computeRelation(data, offsets[i], id.units(), data, offsets[j], other.units()));
+                assertEquals(id.isDescendantOrSelfOf(other),
+                    DLN.isDescendantOrSelfOf(data, offsets[i], id.units(), data, offsets[j], other.units()));
+
+                // the same, but compared with the other id in place
+                assertEquals(Integer.signum(id.compareTo(other)),
+                    Integer.signum(DLN.compare(data, offsets[i], id.units(), other)));
+                assertEquals(id.computeRelation(other), DLN.computeRelation(data, offsets[i], id.units(), other));
+                assertEquals(id.isDescendantOrSelfOf(other), DLN.isDescendantOrSelfOf(data, offsets[i], id.units(), other));
+                assertEquals(id.isDescendantOf(other), DLN.isDescendantOf(data, offsets[i], id.units(), other));
+                assertEquals(other.isDescendantOf(id), DLN.isAncestorOf(data, offsets[i], id.units(), other));
+            }
+        }
+    }
+
     @Test
     public void insertion() {
         DLN left = new DLN("1.1"); 
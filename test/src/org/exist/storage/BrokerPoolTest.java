@@ -28,11 +28,15 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.xmldb.api.base.XMLDBException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.*;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 /**
@@ -185,6 +189,90 @@ public class BrokerPoolTest {
         }
     }
 
+    @Test
+    public void leaseIsNotBoundToThread() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final Subject sysUser = pool.getSecurityManager().getSystemSubject();
+        final BrokerLease lease = pool.lease(Optional.of(sysUser), -1);
+        assertEquals(sysUser.getId(), lease.getBroker().getCurrentSubject().getId());
+
+        // the thread which requested the lease gets another broker
+        try (final DBBroker broker = pool.get(Optional.of(sysUser))) {
+            assertNotSame(lease.getBroker(), broker);
+            assertEquals(2, pool.countActiveBrokers());
+        }
+
+        // another thread returns the lease
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(lease::close).get();
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(lease.isClosed());
+        assertEquals(0, pool.countActiveBrokers());
+        assertEquals(pool.total(), pool.available());
+    }
+
+    @Test
+    public void boundLease() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final BrokerLease lease = pool.lease(Optional.of(pool.getSecurityManager().getSystemSubject()), -1)) {
+            try (final BrokerLease.Binding binding = lease.bind()) {
+                assertSame(lease.getBroker(), pool.getActiveBroker());
+                try (final DBBroker broker = pool.getBroker()) {
+                    assertSame(lease.getBroker(), broker);
+                }
+            }
+            assertEquals(0, pool.getActiveBrokers().size());
+            assertEquals(1, pool.countActiveBrokers());
+        }
+        assertEquals(0, pool.countActiveBrokers());
+    }
+
+    @Test
+    public void leaseTimesOut() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final Optional<Subject> sysUser = Optional.of(pool.getSecurityManager().getSystemSubject());
+        final BrokerLeaseMetrics metrics = pool.getBrokerLeaseMetrics();
+        final long timeouts = metrics.getTimeoutCount();
+
+        // a single thread leases all brokers
+        final List<BrokerLease> leases = new ArrayList<>();
+        try {
+            for (int i = 0; i < pool.getMax(); i++) {
+                leases.add(pool.lease(sysUser, 0));
+            }
+            try {
+                pool.lease(sysUser, 100).close();
+                fail("Expected the lease to time out");
+            } catch (final EXistException e) {
+                assertEquals(timeouts + 1, metrics.getTimeoutCount());
+                assertTrue(metrics.getMaxWaitTime() >= 100);
+            }
+
+            // a waiting request gets the next broker which is returned
+            final ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                final Future<BrokerLease> waiting = executor.submit(() -> pool.lease(sysUser, -1));
+                while (pool.countWaitingForBroker() == 0) {
+                    Thread.sleep(10);
+                }
+                final long waits = metrics.getWaitCount();
+                leases.remove(0).close();
+                leases.add(waiting.get(10, TimeUnit.SECONDS));
+                assertEquals(waits + 1, metrics.getWaitCount());
+            } finally {
+                executor.shutdown();
+            }
+        } finally {
+            for (final BrokerLease lease : leases) {
+                lease.close();
+            }
+        }
+        assertEquals(pool.total(), pool.available());
+    }
+
     public static class BrokerUser implements Runnable {
 
         final BrokerPool brokerPool;
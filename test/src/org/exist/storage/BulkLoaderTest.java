@@ -0,0 +1,211 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.ElementImpl;
+import org.exist.storage.btree.BTree;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.FileInputSource;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests storing documents with a {@link BulkLoader}.
+ */
+public class BulkLoaderTest {
+
+    private static final XmldbURI COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("bulk-load");
+    private static final int DOCUMENTS = 50;
+    private static final int ITEMS = 100;
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, false);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void storeDocuments() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Collection collection;
+            try (final Txn transaction = transact.beginTransaction()) {
+                collection = broker.getOrCreateCollection(transaction, COLLECTION);
+                broker.saveCollection(transaction, collection);
+                final String data = document(0);
+                final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create("stored.xml"), data);
+                collection.store(transaction, broker, info, data);
+                transact.commit(transaction);
+            }
+
+            // the runs are written to temporary files
+            try (final BulkLoader loader = new BulkLoader(broker, 1000)) {
+                assertTrue(broker.isBulkLoading());
+                for (int i = 1; i <= DOCUMENTS; i++) {
+                    loader.store(collection, XmldbURI.create("doc" + i + ".xml"), source(i));
+                }
+                // replace and remove documents stored during the load
+                loader.store(collection, XmldbURI.create("doc1.xml"), source(1000));
+                try (final Txn transaction = transact.beginTransaction()) {
+                    final DocumentImpl doc = collection.getDocument(broker, XmldbURI.create("doc2.xml"));
+                    collection.removeXMLResource(transaction, broker, doc.getFileURI());
+                    transact.commit(transaction);
+                }
+                assertEquals(DOCUMENTS + 1, loader.getCount());
+            }
+            assertFalse(broker.isBulkLoading());
+            final DocumentImpl doc = collection.getDocument(broker, XmldbURI.create("doc50.xml"));
+            final ElementImpl item = (ElementImpl) doc.getDocumentElement().getLastChild();
+            assertEquals(item.getInternalAddress(), findKey(broker, doc, item));
+
+            assertEquals(String.valueOf(DOCUMENTS * ITEMS), query(broker, "count(collection('" + COLLECTION + "')//item)"));
+            assertEquals("1", query(broker, "count(collection('" + COLLECTION + "')//item[@id = '1000-5'])"));
+            assertEquals("0", query(broker, "count(collection('" + COLLECTION + "')//item[@id = '1-5'])"));
+            assertEquals("0", query(broker, "count(collection('" + COLLECTION + "')//item[@id = '2-5'])"));
+            assertEquals("2", query(broker, "count(collection('" + COLLECTION + "')//item[@id = ('0-7', '50-7')])"));
+            assertEquals("50-99", query(broker, "string(doc('" + COLLECTION + "/doc50.xml')/items/item[last()]/@id)"));
+            assertEquals("7", query(broker, "string(doc('" + COLLECTION + "/doc7.xml')/items/item[1]/following-sibling::item[1]/parent::items/@n)"));
+
+            // the loaded documents can be updated
+            query(broker, "update insert <item id='new'/> into doc('" + COLLECTION + "/doc3.xml')/items");
+            assertEquals(String.valueOf(ITEMS + 1), query(broker, "count(doc('" + COLLECTION + "/doc3.xml')//item)"));
+        }
+
+        existEmbeddedServer.restart();
+        final BrokerPool restarted = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = restarted.get(Optional.of(restarted.getSecurityManager().getSystemSubject()))) {
+            assertEquals(String.valueOf(DOCUMENTS * ITEMS + 1), query(broker, "count(collection('" + COLLECTION + "')//item)"));
+            assertEquals("1", query(broker, "count(collection('" + COLLECTION + "')//item[@id = '50-7'])"));
+        }
+    }
+
+    @Test
+    public void interruptedLoad() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Collection collection;
+            try (final Txn transaction = transact.beginTransaction()) {
+                collection = broker.getOrCreateCollection(transaction, COLLECTION);
+                broker.saveCollection(transaction, collection);
+                transact.commit(transaction);
+            }
+
+            // the loader is never closed, its keys are lost
+            final BulkLoader loader = new BulkLoader(broker, 1000);
+            for (int i = 1; i <= DOCUMENTS; i++) {
+                loader.store(collection, XmldbURI.create("doc" + i + ".xml"), source(i));
+            }
+            assertTrue(BulkLoader.isInterrupted(pool));
+            pool.getJournalManager().get().flush(true, false);
+        }
+
+        BrokerPool.FORCE_CORRUPTION = true;
+        try {
+            existEmbeddedServer.restart();
+        } finally {
+            BrokerPool.FORCE_CORRUPTION = false;
+        }
+
+        final BrokerPool restarted = existEmbeddedServer.getBrokerPool();
+        assertFalse(BulkLoader.isInterrupted(restarted));
+        try (final DBBroker broker = restarted.get(Optional.of(restarted.getSecurityManager().getSystemSubject()))) {
+            assertEquals(String.valueOf(DOCUMENTS * ITEMS), query(broker, "count(collection('" + COLLECTION + "')//item)"));
+            assertEquals("1", query(broker, "count(collection('" + COLLECTION + "')//item[@id = '50-7'])"));
+            assertEquals("50-99", query(broker, "string(doc('" + COLLECTION + "/doc50.xml')/items/item[last()]/@id)"));
+            // the keys of the loaded documents were added to dom.dbx
+            final DocumentImpl doc = broker.getCollection(COLLECTION).getDocument(broker, XmldbURI.create("doc5.xml"));
+            final ElementImpl item = (ElementImpl) doc.getDocumentElement().getLastChild();
+            assertEquals(item.getInternalAddress(), findKey(broker, doc, item));
+            query(broker, "update insert <item id='new'/> into doc('" + COLLECTION + "/doc3.xml')/items");
+            assertEquals(String.valueOf(ITEMS + 1), query(broker, "count(doc('" + COLLECTION + "/doc3.xml')//item)"));
+        }
+    }
+
+    @After
+    public void removeCollection() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getCollection(COLLECTION);
+            if (collection != null) {
+                broker.removeCollection(transaction, collection);
+            }
+            transact.commit(transaction);
+        }
+    }
+
+    private static long findKey(final DBBroker broker, final DocumentImpl doc, final ElementImpl element) throws Exception {
+        final BTree domDb = ((NativeBroker) broker).getStorage(NativeBroker.DOM_DBX_ID);
+        final Lock lock = domDb.getLock();
+        lock.acquire(LockMode.READ_LOCK);
+        try {
+            return domDb.findValue(new NativeBroker.NodeRef(doc.getDocId(), element.getNodeId()));
+        } finally {
+            lock.release(LockMode.READ_LOCK);
+        }
+    }
+
+    private static String query(final DBBroker broker, final String query) throws Exception {
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        final Sequence result = xquery.execute(broker, query, null);
+        return result.getStringValue();
+    }
+
+    private FileInputSource source(final int n) throws IOException {
+        final Path file = folder.newFile().toPath();
+        Files.write(file, document(n).getBytes(StandardCharsets.UTF_8));
+        return new FileInputSource(file);
+    }
+
+    private static String document(final int n) {
+        final StringBuilder data = new StringBuilder("<items n='").append(n).append("'>");
+        for (int i = 0; i < ITEMS; i++) {
+            data.append("<item id='").append(n).append('-').append(i).append("'><name>item ").append(i)
+                    .append("</name></item>");
+        }
+        data.append("</items>");
+        return data.toString();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.storage.dom.DOMFile;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.serializers.Serializer;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import javax.xml.transform.OutputKeys;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Readers of the DOM file share its lock, so serializing documents
+ * proceeds while another thread stores documents.
+ */
+public class DOMFileConcurrencyTest {
+
+    private static final XmldbURI READ_COLLECTION_URI = XmldbURI.ROOT_COLLECTION_URI.append("dom-concurrency-read");
+    private static final XmldbURI WRITE_COLLECTION_URI = XmldbURI.ROOT_COLLECTION_URI.append("dom-concurrency-write");
+
+    private static final int DOCUMENTS = 10;
+    private static final int READERS = 4;
+    private static final int WRITES = 40;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @BeforeClass
+    public static void storeDocuments() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, READ_COLLECTION_URI);
+            broker.saveCollection(transaction, collection);
+            for (int i = 0; i < DOCUMENTS; i++) {
+                store(broker, transaction, collection, "doc" + i + ".xml", document(i));
+            }
+            final Collection writeCollection = broker.getOrCreateCollection(transaction, WRITE_COLLECTION_URI);
+            broker.saveCollection(transaction, writeCollection);
+            transact.commit(transaction);
+        }
+    }
+
+    @Test
+    public void readersShareLock() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final DOMFile domDb = ((NativeBroker) broker).getDOMFile();
+            final Lock lock = domDb.getLock();
+            lock.acquire(LockMode.READ_LOCK);
+            try {
+                final ExecutorService executor = Executors.newSingleThreadExecutor();
+                try {
+                    final Future<Boolean> read = executor.submit(() -> {
+                        final boolean acquired = lock.attempt(LockMode.READ_LOCK);
+                        if (acquired) {
+                            lock.release(LockMode.READ_LOCK);
+                        }
+                        return acquired;
+                    });
+                    assertTrue("a second reader must not be blocked", read.get());
+
+                    final Future<Boolean> write = executor.submit(() -> {
+                        final boolean acquired = lock.attempt(LockMode.WRITE_LOCK);
+                        if (acquired) {
+                            lock.release(LockMode.WRITE_LOCK);
+                        }
+                        return acquired;
+                    });
+                    assertFalse("a writer must wait for the reader", write.get());
+                } finally {
+                    executor.shutdown();
+                }
+            } finally {
+                lock.release(LockMode.READ_LOCK);
+            }
+        }
+    }
+
+    @Test
+    public void serializeWhileStoring() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicInteger reads = new AtomicInteger();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(READERS + 1);
+        try {
+            final Future<?> writer = executor.submit(() -> {
+                try {
+                    final TransactionManager transact = pool.getTransactionManager();
+                    for (int i = 0; i < WRITES; i++) {
+                        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                                final Txn transaction = transact.beginTransaction()) {
+                            final Collection collection = broker.getCollection(WRITE_COLLECTION_URI);
+                            store(broker, transaction, collection, "write" + i + ".xml", document(i));
+                            transact.commit(transaction);
+                        }
+                    }
+                } finally {
+                    writing.set(false);
+                }
+                return null;
+            });
+
+            final List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < READERS; r++) {
+                final int reader = r;
+                readers.add(executor.submit(() -> {
+                    int i = reader;
+                    while (writing.get()) {
+                        final int docNum = i++ % DOCUMENTS;
+                        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+                            assertEquals(document(docNum), serialize(broker, READ_COLLECTION_URI.append("doc" + docNum + ".xml")));
+                        }
+                        reads.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+
+            writer.get();
+            for (final Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue("readers should make progress while documents are stored", reads.get() >= READERS);
+
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            for (int i = 0; i < WRITES; i++) {
+                assertEquals(document(i), serialize(broker, WRITE_COLLECTION_URI.append("write" + i + ".xml")));
+            }
+        }
+    }
+
+    private static void store(final DBBroker broker, final Txn transaction, final Collection collection,
+            final String name, final String data) throws Exception {
+        final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create(name), data);
+        collection.store(transaction, broker, info, data);
+    }
+
+    private static String serialize(final DBBroker broker, final XmldbURI uri) throws Exception {
+        DocumentImpl doc = null;
+        try {
+            doc = broker.getXMLResource(uri, LockMode.READ_LOCK);
+            assertNotNull(doc);
+            final Serializer serializer = broker.getSerializer();
+            serializer.reset();
+            serializer.setProperty(OutputKeys.INDENT, "no");
+            return serializer.serialize(doc);
+        } finally {
+            if (doc != null) {
+                doc.getUpdateLock().release(LockMode.READ_LOCK);
+            }
+        }
+    }
+
+    private static String document(final int num) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("<items id=\"").append(num).append("\">");
+        for (int i = 0; i < 50; i++) {
+            builder.append("<item n=\"").append(i).append("\">value ").append(num).append('-').append(i).append("</item>");
+        }
+        builder.append("</items>");
+        return builder.toString();
+    }
+}
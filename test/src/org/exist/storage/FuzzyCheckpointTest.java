@@ -0,0 +1,179 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.storage.journal.JournalManager;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.serializers.Serializer;
+import org.exist.storage.sync.PageCleaner;
+import org.exist.storage.sync.Sync;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.xml.transform.OutputKeys;
+import java.util.Optional;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the page cleaner and the recovery after a fuzzy checkpoint.
+ */
+public class FuzzyCheckpointTest {
+
+    private static final XmldbURI COLLECTION_URI = XmldbURI.ROOT_COLLECTION_URI.append("fuzzy-checkpoint");
+    private static final int DOCUMENTS = 20;
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .put(PageCleaner.PROPERTY_RECOVERY_FUZZY_CHECKPOINT, true)
+                    .put(PageCleaner.PROPERTY_RECOVERY_PAGE_CLEANER_RATE, 10000)
+                    .build(),
+            true,
+            false);
+
+    @After
+    public void resetCorruption() {
+        BrokerPool.FORCE_CORRUPTION = false;
+    }
+
+    @Test
+    public void cleanerWritesDirtyPages() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final PageCleaner cleaner = pool.getPageCleaner();
+        assertTrue(cleaner.isRunning());
+
+        store(pool, "first", 0, DOCUMENTS);
+        awaitCleaned(pool);
+        assertTrue(cleaner.getPagesWritten() > 0);
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            assertTrue(((NativeBroker) broker).getDOMFile().getDirtyPages().isEmpty());
+        }
+
+        // a fuzzy checkpoint, as the database is idle
+        pool.triggerSync(Sync.MAJOR);
+        store(pool, "second", 0, DOCUMENTS);
+
+        crashAndRestart(pool);
+        checkDocuments(existEmbeddedServer.getBrokerPool(), "first", 0, DOCUMENTS);
+        checkDocuments(existEmbeddedServer.getBrokerPool(), "second", 0, DOCUMENTS);
+    }
+
+    @Test
+    public void recoveryRedoesFromRedoLsn() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final PageCleaner cleaner = pool.getPageCleaner();
+
+        store(pool, "doc", 0, DOCUMENTS);
+        final long redoLsn = awaitCleaned(pool);
+
+        // from now on, the dirty pages of dom.dbx are neither cleaned nor flushed
+        cleaner.stop(null);
+        BrokerPool.FORCE_CORRUPTION = true;
+        store(pool, "doc", DOCUMENTS, DOCUMENTS);
+
+        // the last journal entry is a fuzzy checkpoint, but the pages
+        // of the documents stored after its redo LSN are not on disk
+        pool.getTransactionManager().fuzzyCheckpoint(redoLsn);
+
+        crashAndRestart(pool);
+        checkDocuments(existEmbeddedServer.getBrokerPool(), "doc", 0, 2 * DOCUMENTS);
+    }
+
+    /**
+     * Waits until the page cleaner has written all changes journalled so far.
+     *
+     * @return the redo LSN of the page cleaner
+     */
+    private static long awaitCleaned(final BrokerPool pool) throws InterruptedException {
+        final JournalManager journal = pool.getJournalManager().get();
+        journal.flush(true, false);
+        final long lsn = journal.lastWrittenLsn();
+        final long timeout = System.currentTimeMillis() + 30000;
+        while (pool.getPageCleaner().getRedoLsn() < lsn) {
+            assertTrue("page cleaner did not complete a sweep", System.currentTimeMillis() < timeout);
+            Thread.sleep(50);
+        }
+        return pool.getPageCleaner().getRedoLsn();
+    }
+
+    private void crashAndRestart(final BrokerPool pool) throws Exception {
+        BrokerPool.FORCE_CORRUPTION = true;
+        pool.getJournalManager().get().flush(true, false);
+        existEmbeddedServer.restart();
+        BrokerPool.FORCE_CORRUPTION = false;
+    }
+
+    private static void store(final BrokerPool pool, final String prefix, final int from, final int count) throws Exception {
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, COLLECTION_URI);
+            broker.saveCollection(transaction, collection);
+            for (int i = from; i < from + count; i++) {
+                final String data = document(i);
+                final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create(prefix + i + ".xml"), data);
+                collection.store(transaction, broker, info, data);
+            }
+            transact.commit(transaction);
+        }
+    }
+
+    private static void checkDocuments(final BrokerPool pool, final String prefix, final int from, final int count) throws Exception {
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Serializer serializer = broker.getSerializer();
+            for (int i = from; i < from + count; i++) {
+                DocumentImpl doc = null;
+                try {
+                    doc = broker.getXMLResource(COLLECTION_URI.append(prefix + i + ".xml"), LockMode.READ_LOCK);
+                    assertNotNull("document " + prefix + i + " not recovered", doc);
+                    serializer.reset();
+                    serializer.setProperty(OutputKeys.INDENT, "no");
+                    assertEquals(document(i), serializer.serialize(doc));
+                } finally {
+                    if (doc != null) {
+                        doc.getUpdateLock().release(LockMode.READ_LOCK);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String document(final int num) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("<items id=\"").append(num).append("\">");
+        for (int i = 0; i < 50; i++) {
+            builder.append("<item n=\"").append(i).append("\">value ").append(num).append('-').append(i).append("</item>");
+        }
+        builder.append("</items>");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.exist.backup.HotBackupRestore;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.storage.journal.Journal;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.serializers.Serializer;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.xml.transform.OutputKeys;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests creating a hot backup while documents are stored, and restoring it.
+ */
+public class HotBackupTest {
+
+    private static final XmldbURI COLLECTION_URI = XmldbURI.ROOT_COLLECTION_URI.append("hot-backup");
+    private static final int DOCUMENTS = 20;
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, false);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void backupAndRestore() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        store(pool, "before", 0, DOCUMENTS);
+
+        // documents are stored in a transaction which commits while the pages are copied
+        final CountDownLatch copying = new CountDownLatch(1);
+        final CountDownLatch committed = new CountDownLatch(1);
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        final Thread writer = new Thread(() -> {
+            try {
+                copying.await();
+                store(pool, "during", 0, DOCUMENTS);
+            } catch (final Exception e) {
+                error.set(e);
+            } finally {
+                committed.countDown();
+            }
+        });
+        writer.start();
+        final HotBackup hotBackup = new HotBackup(folder.getRoot().toPath(), 1024) {
+            @Override
+            protected void throttle(final long bytes) throws IOException {
+                if (copying.getCount() > 0) {
+                    // the first pages were copied
+                    copying.countDown();
+                    try {
+                        committed.await();
+                    } catch (final InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                super.throttle(bytes);
+            }
+        };
+        final Path backup = hotBackup.backup(pool);
+        writer.join();
+        assertNull(error.get());
+
+        store(pool, "after", 0, DOCUMENTS);
+
+        try (final ZipFile zip = new ZipFile(backup.toFile())) {
+            assertNotNull(zip.getEntry("dom.dbx"));
+            assertNotNull(zip.getEntry("collections.dbx"));
+            assertNotNull(zip.getEntry("symbols.dbx"));
+            assertNotNull(zip.getEntry(HotBackup.DESCRIPTOR_ENTRY));
+        }
+        final HotBackupRestore restore = new HotBackupRestore(backup);
+        assertEquals("[]", restore.verify().toString());
+
+        final Path dataDir = (Path) pool.getConfiguration().getProperty(BrokerPool.PROPERTY_DATA_DIR);
+        final Path journalDir = Optional.ofNullable((Path) pool.getConfiguration()
+                .getProperty(Journal.PROPERTY_RECOVERY_JOURNAL_DIR)).orElse(dataDir);
+        existEmbeddedServer.stopDb();
+        // a binary resource which is not part of the backup
+        final Path staleBinary = dataDir.resolve("fs").resolve("stale.bin");
+        Files.createDirectories(staleBinary.getParent());
+        Files.write(staleBinary, new byte[] { 1, 2, 3 });
+        restore.restore(dataDir, journalDir);
+        assertFalse(Files.exists(staleBinary));
+        existEmbeddedServer.startDb();
+
+        final BrokerPool restored = existEmbeddedServer.getBrokerPool();
+        assertEquals(DOCUMENTS, countDocuments(restored, "before"));
+        // committed before the end of the backup, restored from the journal
+        assertEquals(DOCUMENTS, countDocuments(restored, "during"));
+        assertEquals(0, countDocuments(restored, "after"));
+    }
+
+    @Test
+    public void verifyDetectsTruncatedJournal() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        store(pool, "doc", 0, DOCUMENTS);
+        final Path backup = new HotBackup(folder.getRoot().toPath(), HotBackup.DEFAULT_MAX_RATE).backup(pool);
+
+        // drop the last byte of the journal entry
+        final Path copy = folder.getRoot().toPath().resolve("truncated.zip");
+        try (final ZipFile zip = new ZipFile(backup.toFile());
+                final ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(copy))) {
+            for (final Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                final ZipEntry entry = e.nextElement();
+                final byte[] data = IOUtils.toByteArray(zip.getInputStream(entry));
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                out.write(data, 0, entry.getName().startsWith(HotBackup.JOURNAL_DIR_ENTRY) ? data.length - 1 : data.length);
+                out.closeEntry();
+            }
+        }
+        assertFalse(new HotBackupRestore(copy).verify().isEmpty());
+    }
+
+    private static void store(final BrokerPool pool, final String prefix, final int from, final int count) throws Exception {
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, COLLECTION_URI);
+            broker.saveCollection(transaction, collection);
+            for (int i = from; i < from + count; i++) {
+                final String data = document(i);
+                final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create(prefix + i + ".xml"), data);
+                collection.store(transaction, broker, info, data);
+            }
+            transact.commit(transaction);
+        }
+    }
+
+    private static int countDocuments(final BrokerPool pool, final String prefix) throws Exception {
+        int found = 0;
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Serializer serializer = broker.getSerializer();
+            for (int i = 0; i < DOCUMENTS; i++) {
+                DocumentImpl doc = null;
+                try {
+                    doc = broker.getXMLResource(COLLECTION_URI.append(prefix + i + ".xml"), LockMode.READ_LOCK);
+                    if (doc != null) {
+                        serializer.reset();
+                        serializer.setProperty(OutputKeys.INDENT, "no");
+                        assertEquals(document(i), serializer.serialize(doc));
+                        found++;
+                    }
+                } finally {
+                    if (doc != null) {
+                        doc.getUpdateLock().release(LockMode.READ_LOCK);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private static String document(final int num) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("<items id=\"").append(num).append("\">");
+        for (int i = 0; i < 50; i++) {
+            builder.append("<item n=\"").append(i).append("\">value ").append(num).append('-').append(i).append("</item>");
+        }
+        builder.append("</items>");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.recovery.RecoveryManager;
+import org.exist.storage.serializers.Serializer;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XQuery;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.xml.transform.OutputKeys;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Tests the recovery of a database redoing the journal on several threads,
+ * with changes to many pages of dom.dbx interleaved in the journal.
+ */
+public class ParallelRecoveryTest {
+
+    private static final XmldbURI COLLECTION_URI = XmldbURI.ROOT_COLLECTION_URI.append("parallel-recovery");
+    private static final int DOCUMENTS = 20;
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .put(RecoveryManager.PROPERTY_RECOVERY_REDO_THREADS, 4)
+                    .build(),
+            true,
+            false);
+
+    @After
+    public void resetCorruption() {
+        BrokerPool.FORCE_CORRUPTION = false;
+    }
+
+    @Test
+    public void redoInterleavedPages() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        store(pool);
+
+        // every transaction changes the pages of all documents
+        final String collection = "collection('" + COLLECTION_URI + "')";
+        update(pool, "for $item in " + collection + "//item[@n mod 3 = 0] " +
+                "return update value $item with concat('changed ', $item/@n)");
+        update(pool, "for $items in " + collection + "/items " +
+                "return update insert <added>inserted into {string($items/@id)}</added> into $items");
+        update(pool, "for $item in " + collection + "//item[@n mod 7 = 1] return update delete $item");
+        update(pool, "for $item in " + collection + "//item[@n mod 5 = 2] " +
+                "return update insert <sub>{string($item/@n)}</sub> preceding $item");
+        update(pool, "for $item in " + collection + "//item[@n mod 4 = 0] " +
+                "return update rename $item as 'entry'");
+
+        final List<String> expected = serialize(pool);
+
+        BrokerPool.FORCE_CORRUPTION = true;
+        pool.getJournalManager().get().flush(true, false);
+        existEmbeddedServer.restart();
+        BrokerPool.FORCE_CORRUPTION = false;
+
+        assertEquals(expected, serialize(existEmbeddedServer.getBrokerPool()));
+    }
+
+    private static void store(final BrokerPool pool) throws Exception {
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Collection collection;
+            try (final Txn transaction = transact.beginTransaction()) {
+                collection = broker.getOrCreateCollection(transaction, COLLECTION_URI);
+                broker.saveCollection(transaction, collection);
+                transact.commit(transaction);
+            }
+            for (int i = 0; i < DOCUMENTS; i++) {
+                try (final Txn transaction = transact.beginTransaction()) {
+                    final String data = document(i);
+                    final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create("doc" + i + ".xml"), data);
+                    collection.store(transaction, broker, info, data);
+                    transact.commit(transaction);
+                }
+            }
+        }
+    }
+
+    private static void update(final BrokerPool pool, final String query) throws Exception {
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            xquery.execute(broker, query, null);
+        }
+    }
+
+    private static List<String> serialize(final BrokerPool pool) throws Exception {
+        final List<String> documents = new ArrayList<>();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Serializer serializer = broker.getSerializer();
+            for (int i = 0; i < DOCUMENTS; i++) {
+                DocumentImpl doc = null;
+                try {
+                    doc = broker.getXMLResource(COLLECTION_URI.append("doc" + i + ".xml"), LockMode.READ_LOCK);
+                    assertNotNull("document " + i + " not recovered", doc);
+                    serializer.reset();
+                    serializer.setProperty(OutputKeys.INDENT, "no");
+                    documents.add(serializer.serialize(doc));
+                } finally {
+                    if (doc != null) {
+                        doc.getUpdateLock().release(LockMode.READ_LOCK);
+                    }
+                }
+            }
+        }
+        return documents;
+    }
+
+    private static String document(final int num) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("<items id=\"").append(num).append("\">");
+        for (int i = 0; i < 200; i++) {
+            builder.append("<item n=\"").append(i).append("\">value ").append(num).append('-').append(i).append("</item>");
+        }
+        builder.append("</items>");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests reindexing a collection on several threads.
+ */
+public class ParallelReindexTest {
+
+    private static final XmldbURI COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("parallel-reindex");
+    private static final int DOCUMENTS = 20;
+
+    private static final String COLLECTION_CONFIG =
+            "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+            "    <index>" +
+            "        <create qname=\"item\" type=\"xs:string\"/>" +
+            "    </index>" +
+            "</collection>";
+
+    private static final String[] QUERIES = {
+            "count(collection('" + COLLECTION + "')//item)",
+            "count(collection('" + COLLECTION + "')//item[. = 'value 7'])",
+            "count(collection('" + COLLECTION + "/sub')//items[item = 'value 3'])",
+            "string-join(for $d in collection('" + COLLECTION + "')//items[item/@n = '12'] order by $d/@doc return $d/@doc, ',')"
+    };
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Before
+    public void storeDocuments() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection root = broker.getOrCreateCollection(transaction, COLLECTION);
+            broker.saveCollection(transaction, root);
+            pool.getConfigurationManager().addConfiguration(transaction, broker, root, COLLECTION_CONFIG);
+            final Collection sub = broker.getOrCreateCollection(transaction, COLLECTION.append("sub"));
+            broker.saveCollection(transaction, sub);
+
+            for (int i = 0; i < DOCUMENTS; i++) {
+                final Collection collection = i % 2 == 0 ? root : sub;
+                final String data = document(i);
+                final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create("doc" + i + ".xml"), data);
+                collection.store(transaction, broker, info, data);
+            }
+            transact.commit(transaction);
+        }
+    }
+
+    @Test
+    public void reindexWithThreads() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final String[] expected = queryAll(broker);
+            assertEquals(String.valueOf(DOCUMENTS * 50), expected[0]);
+
+            broker.reindexCollection(COLLECTION, 4);
+            assertResults(expected, queryAll(broker));
+
+            broker.reindexCollection(COLLECTION, 1);
+            assertResults(expected, queryAll(broker));
+
+            assertEquals("true", query(broker, "xmldb:reindex('" + COLLECTION + "', (), map { 'threads': 3 })"));
+            assertResults(expected, queryAll(broker));
+        }
+    }
+
+    @Test(expected = XPathException.class)
+    public void threadsForDocument() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            query(broker, "xmldb:reindex('" + COLLECTION + "', 'doc0.xml', map { 'threads': 2 })");
+        }
+    }
+
+    private static void assertResults(final String[] expected, final String[] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(QUERIES[i], expected[i], actual[i]);
+        }
+    }
+
+    private static String[] queryAll(final DBBroker broker) throws Exception {
+        final String[] results = new String[QUERIES.length];
+        for (int i = 0; i < QUERIES.length; i++) {
+            results[i] = query(broker, QUERIES[i]);
+        }
+        return results;
+    }
+
+    private static String query(final DBBroker broker, final String query) throws Exception {
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        final Sequence result = xquery.execute(broker, query, null);
+        return result.getStringValue();
+    }
+
+    private static String document(final int n) {
+        final StringBuilder data = new StringBuilder("<items doc='").append(n).append("'>");
+        for (int i = 0; i < 50; i++) {
+            data.append("<item n='").append((n + i) % 25).append("'>value ").append(i % 10).append("</item>");
+        }
+        data.append("</items>");
+        return data.toString();
+    }
+}
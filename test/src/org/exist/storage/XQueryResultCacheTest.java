@@ -0,0 +1,243 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.security.PermissionFactory;
+import org.exist.security.SecurityManager;
+import org.exist.security.Subject;
+import org.exist.security.internal.aider.UserAider;
+import org.exist.source.Source;
+import org.exist.source.StringSource;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.Sequence;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests caching and invalidation of serialized query results.
+ */
+public class XQueryResultCacheTest {
+
+    private static final XmldbURI COLLECTION_A = XmldbURI.ROOT_COLLECTION_URI.append("result-cache-a");
+    private static final XmldbURI COLLECTION_B = XmldbURI.ROOT_COLLECTION_URI.append("result-cache-b");
+
+    private static final String COUNT_QUERY =
+            "declare option exist:result-cache \"yes\";\n" +
+            "count(collection('" + COLLECTION_A + "')//item)";
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Before
+    public void storeDocuments() throws Exception {
+        store(COLLECTION_A, "a1.xml", 2);
+        store(COLLECTION_B, "b1.xml", 2);
+        existEmbeddedServer.getBrokerPool().getXQueryResultCache().clear();
+    }
+
+    @Test
+    public void cachedUntilCollectionIsUpdated() throws Exception {
+        final XQueryResultCache cache = existEmbeddedServer.getBrokerPool().getXQueryResultCache();
+
+        assertEquals(new Result("2", false), query(COUNT_QUERY, ""));
+        assertEquals(new Result("2", true), query(COUNT_QUERY, ""));
+        assertEquals(1, cache.getHitCount());
+
+        // the query did not access the other collection
+        store(COLLECTION_B, "b2.xml", 3);
+        assertEquals(new Result("2", true), query(COUNT_QUERY, ""));
+
+        store(COLLECTION_A, "a2.xml", 3);
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals(new Result("5", false), query(COUNT_QUERY, ""));
+        assertEquals(new Result("5", true), query(COUNT_QUERY, ""));
+    }
+
+    @Test
+    public void revokingReadAccessInvalidates() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final SecurityManager securityManager = pool.getSecurityManager();
+        try (final DBBroker broker = pool.get(Optional.of(securityManager.getSystemSubject()))) {
+            final UserAider user = new UserAider("result-cache-user");
+            user.setPassword("result-cache-user");
+            securityManager.addAccount(broker, user);
+        }
+        final Subject subject = securityManager.authenticate("result-cache-user", "result-cache-user");
+
+        assertEquals(new Result("2", false), query(subject, COUNT_QUERY, ""));
+        assertEquals(new Result("2", true), query(subject, COUNT_QUERY, ""));
+
+        try (final DBBroker broker = pool.get(Optional.of(securityManager.getSystemSubject()))) {
+            PermissionFactory.updatePermissions(broker, COLLECTION_A.append("a1.xml"), permission -> permission.setMode(0600));
+        }
+        assertEquals(new Result("0", false), query(subject, COUNT_QUERY, ""));
+        assertEquals(new Result("0", true), query(subject, COUNT_QUERY, ""));
+
+        // the administrator still reads the document
+        assertEquals(new Result("2", false), query(COUNT_QUERY, ""));
+    }
+
+    @Test
+    public void keyedOnBindings() throws Exception {
+        assertEquals(new Result("2", false), query(COUNT_QUERY, "x=1"));
+        assertEquals(new Result("2", false), query(COUNT_QUERY, "x=2"));
+        assertEquals(new Result("2", true), query(COUNT_QUERY, "x=1"));
+    }
+
+    @Test
+    public void removingCollectionClearsCache() throws Exception {
+        final XQueryResultCache cache = existEmbeddedServer.getBrokerPool().getXQueryResultCache();
+        query(COUNT_QUERY, "");
+        assertEquals(1, cache.getEntryCount());
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            broker.removeCollection(transaction, broker.getCollection(COLLECTION_B));
+            transact.commit(transaction);
+        }
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void cachingCanBeDisabled() throws Exception {
+        // the cache is disabled in conf.xml
+        assertNull(query("count(collection('" + COLLECTION_A + "')//item)", ""));
+        assertNull(query("declare option exist:result-cache \"no\";\n1", ""));
+    }
+
+    @Test
+    public void notCachedIfModifiedDuringExecution() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQueryResultCache cache = pool.getXQueryResultCache();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Source source = new StringSource(COUNT_QUERY);
+            final CompiledXQuery compiled = pool.getXQueryService().compile(broker, new XQueryContext(pool), source);
+            final XQueryResultCache.Key key = cache.getKey(broker, source, compiled, "");
+            assertNotNull(key);
+            try (final XQueryResultCache.Recording recording = cache.startRecording(broker)) {
+                store(COLLECTION_B, "b2.xml", 1);
+                assertFalse(cache.put(key, recording, compiled, "2".getBytes(StandardCharsets.UTF_8), null));
+            }
+            assertNull(cache.get(broker, key, source));
+        }
+    }
+
+    /**
+     * Executes a query in the same way as the REST server.
+     *
+     * @return the result, or null if the result is not cacheable
+     */
+    private Result query(final String query, final String bindings) throws Exception {
+        return query(existEmbeddedServer.getBrokerPool().getSecurityManager().getSystemSubject(), query, bindings);
+    }
+
+    private Result query(final Subject subject, final String query, final String bindings) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQueryResultCache cache = pool.getXQueryResultCache();
+        try (final DBBroker broker = pool.get(Optional.of(subject))) {
+            final XQuery xquery = pool.getXQueryService();
+            final Source source = new StringSource(query);
+            final CompiledXQuery compiled = xquery.compile(broker, new XQueryContext(pool), source);
+            final XQueryResultCache.Key key = cache.getKey(broker, source, compiled, bindings);
+            if (key == null) {
+                return null;
+            }
+
+            final XQueryResultCache.CachedResult cached = cache.get(broker, key, source);
+            if (cached != null) {
+                return new Result(new String(cached.getData(), StandardCharsets.UTF_8), true);
+            }
+
+            try (final XQueryResultCache.Recording recording = cache.startRecording(broker)) {
+                final Sequence result = xquery.execute(broker, compiled, null);
+                final String data = result.getStringValue();
+                assertTrue(cache.put(key, recording, compiled, data.getBytes(StandardCharsets.UTF_8), "text/plain"));
+                return new Result(data, false);
+            }
+        }
+    }
+
+    private void store(final XmldbURI collectionUri, final String name, final int items) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, collectionUri);
+            broker.saveCollection(transaction, collection);
+            final StringBuilder data = new StringBuilder("<items>");
+            for (int i = 0; i < items; i++) {
+                data.append("<item>").append(i).append("</item>");
+            }
+            data.append("</items>");
+            final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create(name), data.toString());
+            collection.store(transaction, broker, info, data.toString());
+            transact.commit(transaction);
+        }
+    }
+
+    private static final class Result {
+        private final String value;
+        private final boolean cached;
+
+        private Result(final String value, final boolean cached) {
+            this.value = value;
+            this.cached = cached;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Result)) {
+                return false;
+            }
+            final Result other = (Result) obj;
+            return value.equals(other.value) && cached == other.cached;
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return value + (cached ? " (cached)" : "");
+        }
+    }
+}
@@ -4,6 +4,8 @@ import org.easymock.EasyMock;
 import org.exist.EXistException;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DefaultCacheManager;
+import org.exist.storage.index.BFile;
+import org.exist.storage.index.BTreeStore;
 import org.exist.test.ExistEmbeddedServer;
 import org.exist.util.*;
 import org.exist.xquery.TerminatedException;
@@ -16,9 +18,15 @@ import static org.junit.Assert.assertEquals;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
@@ -327,6 +335,298 @@ public class BTreeTest {
         }
     }
 
+    @Test
+    public void sortedRuns() throws DBException, IOException, TerminatedException {
+        final Random rand = new Random(42);
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final BTree btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file);
+                final SortedRuns runs = new SortedRuns(1000)) {
+            btree.create((short) -1);
+
+            // every third key is already in the tree
+            final Map<String, Integer> keys = new TreeMap<>();
+            for (int i = 1; i <= COUNT; i += 3) {
+                final String key = (char) ('A' + i % 24) + Integer.toString(i);
+                btree.addValue(new Value(key), i);
+                keys.put(key, i);
+            }
+
+            // the keys are added in random order, some of them twice
+            final int[] order = new int[COUNT];
+            for (int i = 0; i < COUNT; i++) {
+                order[i] = i + 1;
+            }
+            for (int i = COUNT - 1; i > 0; i--) {
+                final int j = rand.nextInt(i + 1);
+                final int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+            for (final int i : order) {
+                final String key = (char) ('A' + i % 24) + Integer.toString(i);
+                if (i % 5 == 0) {
+                    runs.add(new Value(key), -i);
+                }
+                runs.add(new Value(key), COUNT + i);
+                keys.put(key, COUNT + i);
+            }
+            assertEquals(COUNT + COUNT / 5, runs.size());
+
+            assertEquals(COUNT, runs.addTo(btree, null));
+            assertEquals(0, runs.size());
+            btree.flush();
+
+            for (final Map.Entry<String, Integer> entry : keys.entrySet()) {
+                assertEquals(entry.getValue().longValue(), btree.findValue(new Value(entry.getKey())));
+            }
+
+            final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value("C"));
+            btree.query(query, new StringIndexCallback());
+            assertEquals(keys.keySet().stream().filter(key -> key.startsWith("C")).count(), count);
+
+            // keys have to be added in ascending order
+            final BTree.SortedInserter inserter = btree.new SortedInserter(null);
+            inserter.add(new Value("B"), 1);
+            try {
+                inserter.add(new Value("A"), 2);
+                fail("keys are not in ascending order");
+            } catch (final BTreeException e) {
+                // expected
+            }
+            inserter.finish();
+        }
+    }
+
+    @Test
+    public void longPrefixes() throws DBException, IOException, TerminatedException {
+        // keys share prefixes longer than the 127 bytes of the old leaf format
+        final StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            prefix.append((char) ('a' + i % 26));
+        }
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final BTree btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file)) {
+            btree.create((short) -1);
+            for (int i = 1; i <= COUNT; i++) {
+                btree.addValue(new Value(prefix.toString() + i), i);
+            }
+            btree.flush();
+
+            // 5000 keys of 300 bytes fit into about 100 leaves
+            assertTrue(btree.getFileHeader().getTotalCount() < 150);
+        }
+
+        try(final BTree btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file)) {
+            assertTrue(btree.open((short) -1));
+            for (int i = 1; i <= COUNT; i++) {
+                assertEquals(i, btree.findValue(new Value(prefix.toString() + i)));
+            }
+            final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(prefix.toString() + "1"));
+            btree.query(query, new StringIndexCallback());
+            assertEquals(1111, count);
+        }
+    }
+
+    @Test
+    public void compressedPages() throws DBException, IOException, TerminatedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final Path uncompressedFile = file.resolveSibling("test-uncompressed.dbx");
+        final Configuration config = pool.getConfiguration();
+        config.setProperty(BrokerPool.PROPERTY_COMPRESSED_FILES, Collections.singleton(FileUtils.fileName(file)));
+        try {
+            // keys with a common structure, in random order
+            final Random rand = new Random(42);
+            final Map<String, Integer> keys = new TreeMap<>();
+            while (keys.size() < COUNT * 4) {
+                final int n = rand.nextInt(COUNT * 10);
+                keys.put("collection-" + (n % 3) + "/item/name=value number " + n, n);
+            }
+            final long compressedPages;
+            try(final BTree btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file);
+                    final BTree uncompressed = new BTree(pool, (byte) 0, false, pool.getCacheManager(), uncompressedFile)) {
+                btree.create((short) -1);
+                uncompressed.create((short) -1);
+                for (final Map.Entry<String, Integer> entry : keys.entrySet()) {
+                    btree.addValue(new Value(entry.getKey()), entry.getValue());
+                    uncompressed.addValue(new Value(entry.getKey()), entry.getValue());
+                }
+
+                // remove every third key again
+                int i = 0;
+                for (final Iterator<String> it = keys.keySet().iterator(); it.hasNext(); ) {
+                    final String key = it.next();
+                    if (i++ % 3 == 0) {
+                        assertEquals(keys.get(key).longValue(), btree.removeValue(new Value(key)));
+                        uncompressed.removeValue(new Value(key));
+                        it.remove();
+                    }
+                }
+                btree.flush();
+                uncompressed.flush();
+
+                compressedPages = btree.getFileHeader().getTotalCount();
+                // at least a third fewer pages
+                assertTrue(compressedPages * 3 < uncompressed.getFileHeader().getTotalCount() * 2);
+            }
+
+            try(final BTree btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file)) {
+                assertTrue(btree.open((short) -1));
+                for (final Map.Entry<String, Integer> entry : keys.entrySet()) {
+                    assertEquals(entry.getValue().longValue(), btree.findValue(new Value(entry.getKey())));
+                }
+                final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value("collection-1/"));
+                btree.query(query, new StringIndexCallback());
+                assertEquals(keys.keySet().stream().filter(key -> key.startsWith("collection-1/")).count(), count);
+
+                // the page format is kept when the file is opened with another configuration
+                config.setProperty(BrokerPool.PROPERTY_COMPRESSED_FILES, Collections.emptySet());
+                for (int i = 0; i < COUNT; i++) {
+                    btree.addValue(new Value("collection-1/item/name=added " + i), i);
+                }
+                btree.flush();
+                for (int i = 0; i < COUNT; i++) {
+                    assertEquals(i, btree.findValue(new Value("collection-1/item/name=added " + i)));
+                }
+                assertTrue(((BTree.BTreeFileHeader) btree.getFileHeader()).isCompressed());
+                assertTrue(btree.getFileHeader().getTotalCount() < compressedPages * 2);
+            }
+        } finally {
+            config.setProperty(BrokerPool.PROPERTY_COMPRESSED_FILES, Collections.emptySet());
+            FileUtils.deleteQuietly(uncompressedFile);
+        }
+    }
+
+    @Test
+    public void compressedPagesUpdated() throws DBException, IOException, TerminatedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final Configuration config = pool.getConfiguration();
+        config.setProperty(BrokerPool.PROPERTY_COMPRESSED_FILES, Collections.singleton(FileUtils.fileName(file)));
+        try {
+            final Map<String, Long> keys = new TreeMap<>();
+            try(final BTree btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file)) {
+                btree.create((short) -1);
+                // pointers which compress well...
+                for (int i = 0; i < COUNT * 2; i++) {
+                    final String key = "collection/item/name=value number " + i;
+                    btree.addValue(new Value(key), 1);
+                    keys.put(key, 1L);
+                }
+                // ...are overwritten by pointers which do not, so the leaves have to be checked again
+                final Random rand = new Random(42);
+                for (final Map.Entry<String, Long> entry : keys.entrySet()) {
+                    entry.setValue(rand.nextLong() & Long.MAX_VALUE);
+                    assertEquals(1, btree.addValue(new Value(entry.getKey()), entry.getValue()));
+                }
+                btree.flush();
+            }
+
+            try(final BTree btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file)) {
+                assertTrue(btree.open((short) -1));
+                for (final Map.Entry<String, Long> entry : keys.entrySet()) {
+                    assertEquals(entry.getValue().longValue(), btree.findValue(new Value(entry.getKey())));
+                }
+            }
+        } finally {
+            config.setProperty(BrokerPool.PROPERTY_COMPRESSED_FILES, Collections.emptySet());
+        }
+    }
+
+    @Test
+    public void legacyBTreeStore() throws DBException, IOException, TerminatedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final BTreeStore store = new BTreeStore(pool, (byte) 0, false, file, pool.getCacheManager())) {
+            assertTrue(((BTree.BTreeFileHeader) store.getFileHeader()).isFrontCoded());
+        }
+        setLegacyVersion(file, BTreeStore.LEGACY_FILE_FORMAT_VERSION_ID);
+
+        final Map<String, Integer> keys = legacyKeys();
+        try(final BTreeStore store = new BTreeStore(pool, (byte) 0, false, file, pool.getCacheManager())) {
+            assertEquals(BTreeStore.LEGACY_FILE_FORMAT_VERSION_ID, store.getFileHeader().getVersion());
+            assertFalse(((BTree.BTreeFileHeader) store.getFileHeader()).isFrontCoded());
+            for (final Map.Entry<String, Integer> entry : keys.entrySet()) {
+                store.addValue(new Value(entry.getKey()), entry.getValue());
+            }
+            store.flush();
+        }
+
+        // the file keeps its version and format when it is opened again
+        try(final BTreeStore store = new BTreeStore(pool, (byte) 0, false, file, pool.getCacheManager())) {
+            assertEquals(BTreeStore.LEGACY_FILE_FORMAT_VERSION_ID, store.getFileHeader().getVersion());
+            assertFalse(((BTree.BTreeFileHeader) store.getFileHeader()).isFrontCoded());
+            for (final Map.Entry<String, Integer> entry : keys.entrySet()) {
+                assertEquals(entry.getValue().longValue(), store.findValue(new Value(entry.getKey())));
+            }
+            final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value("collection-1/"));
+            store.query(query, new StringIndexCallback());
+            assertEquals(keys.keySet().stream().filter(key -> key.startsWith("collection-1/")).count(), count);
+
+            store.remove(query, new StringIndexCallback());
+            store.addValue(new Value("collection-1/added"), 1);
+            store.flush();
+            assertEquals(1, store.findValue(new Value("collection-1/added")));
+            assertEquals(keys.get("collection-2/0002").longValue(), store.findValue(new Value("collection-2/0002")));
+        }
+    }
+
+    @Test
+    public void legacyBFile() throws DBException, IOException, ReadOnlyException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final BFile bfile = new BFile(pool, (byte) 0, false, file, pool.getCacheManager(), 1.4, 0.01)) {
+            assertTrue(((BTree.BTreeFileHeader) bfile.getFileHeader()).isFrontCoded());
+        }
+        setLegacyVersion(file, BFile.LEGACY_FILE_FORMAT_VERSION_ID);
+
+        final Map<String, Integer> keys = legacyKeys();
+        try(final BFile bfile = new BFile(pool, (byte) 0, false, file, pool.getCacheManager(), 1.4, 0.01)) {
+            assertEquals(BFile.LEGACY_FILE_FORMAT_VERSION_ID, bfile.getFileHeader().getVersion());
+            assertFalse(((BTree.BTreeFileHeader) bfile.getFileHeader()).isFrontCoded());
+            for (final Map.Entry<String, Integer> entry : keys.entrySet()) {
+                bfile.put(new Value(entry.getKey()), Integer.toString(entry.getValue()).getBytes(), true);
+            }
+            bfile.flush();
+        }
+
+        try(final BFile bfile = new BFile(pool, (byte) 0, false, file, pool.getCacheManager(), 1.4, 0.01)) {
+            assertEquals(BFile.LEGACY_FILE_FORMAT_VERSION_ID, bfile.getFileHeader().getVersion());
+            for (final Map.Entry<String, Integer> entry : keys.entrySet()) {
+                final Value value = bfile.get(new Value(entry.getKey()));
+                assertNotNull(entry.getKey(), value);
+                assertEquals(Integer.toString(entry.getValue()), new String(value.getData()));
+            }
+        }
+    }
+
+    /**
+     * Keys sharing long prefixes, to fill several leaf and branch pages.
+     */
+    private static Map<String, Integer> legacyKeys() {
+        final Map<String, Integer> keys = new TreeMap<>();
+        for (int i = 0; i < COUNT; i++) {
+            keys.put(String.format("collection-%d/%04d", i % 3, i), i);
+        }
+        for (int i = 0; i < 100; i++) {
+            final StringBuilder key = new StringBuilder("collection-0/long/");
+            for (int j = 0; j < 20; j++) {
+                key.append("segment").append(j).append('/');
+            }
+            keys.put(key.append(i).toString(), COUNT + i);
+        }
+        return keys;
+    }
+
+    /**
+     * Changes the version in the header of a file which only holds an empty root page,
+     * which has the same layout in the old and the current format. The page format
+     * stored behind the header by the current version is ignored for older versions.
+     */
+    private static void setLegacyVersion(final Path file, final short version) throws IOException {
+        try(final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            final ByteBuffer buf = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putShort(version).flip();
+            channel.write(buf, Paged.OFFSET_VERSION_ID);
+        }
+    }
+
     @ClassRule
     public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, false);
 
@@ -0,0 +1,116 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.btree;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BlockCompressorTest {
+
+    @Test
+    public void similarKeys() throws IOException {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            builder.append("collection/item/name=value number ").append(i * 7);
+        }
+        final byte[] data = builder.toString().getBytes(StandardCharsets.UTF_8);
+        final int compressedLen = roundTrip(data, 3);
+        assertTrue(compressedLen * 3 < data.length);
+    }
+
+    @Test
+    public void runs() throws IOException {
+        // long literal runs and long matches need additional length bytes
+        final byte[] data = new byte[10000];
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            data[i] = (byte) random.nextInt();
+        }
+        Arrays.fill(data, 1000, 9000, (byte) 'x');
+        for (int i = 9000; i < data.length; i++) {
+            data[i] = data[i - 9000];
+        }
+        roundTrip(data, 0);
+    }
+
+    @Test
+    public void randomData() throws IOException {
+        final Random random = new Random(42);
+        for (final int len : new int[] { 0, 1, 4, 5, 12, 13, 100, 4000 }) {
+            final byte[] data = new byte[len];
+            random.nextBytes(data);
+            roundTrip(data, 0);
+        }
+    }
+
+    @Test
+    public void doesNotFit() {
+        final byte[] data = new byte[1000];
+        new Random(42).nextBytes(data);
+        final byte[] dest = new byte[1000];
+        assertEquals(-1, BlockCompressor.compress(data, 0, data.length, dest, 0, dest.length));
+    }
+
+    @Test
+    public void corruptBlock() {
+        final byte[] data = "abcdabcdabcdabcdabcdabcdabcdabcdabcd".getBytes(StandardCharsets.UTF_8);
+        final byte[] compressed = new byte[100];
+        final int compressedLen = BlockCompressor.compress(data, 0, data.length, compressed, 0, compressed.length);
+        try {
+            BlockCompressor.decompress(compressed, 0, compressedLen - 1, new byte[data.length], 0, data.length);
+            fail("block is truncated");
+        } catch (final IOException e) {
+            // expected
+        }
+        try {
+            BlockCompressor.decompress(compressed, 0, compressedLen, new byte[data.length - 1], 0, data.length - 1);
+            fail("block is longer than expected");
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Compresses the data into the middle of an array and decompresses it again.
+     *
+     * @return the length of the compressed data
+     */
+    private static int roundTrip(final byte[] data, final int offset) throws IOException {
+        final byte[] src = new byte[data.length + offset];
+        System.arraycopy(data, 0, src, offset, data.length);
+        final byte[] compressed = new byte[data.length + data.length / 100 + 20];
+        final int compressedLen = BlockCompressor.compress(src, offset, data.length, compressed, 5, compressed.length - 5);
+        assertTrue(compressedLen >= 0);
+
+        final byte[] decompressed = new byte[data.length + 2];
+        BlockCompressor.decompress(compressed, 5, compressedLen, decompressed, 2, data.length);
+        assertArrayEquals(data, Arrays.copyOfRange(decompressed, 2, decompressed.length));
+        return compressedLen;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.btree;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class MappedPageReaderTest {
+
+    private static final int PAGE_SIZE = 4096;
+    private static final int SEGMENT_SIZE = 4 * PAGE_SIZE;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readFollowsGrowingFile() throws Exception {
+        try (final RandomAccessFile raf = new RandomAccessFile(temporaryFolder.newFile("mapped.dbx"), "rw")) {
+            final FileChannel channel = raf.getChannel();
+            final MappedPageReader reader = new MappedPageReader(channel, SEGMENT_SIZE);
+
+            writePage(channel, 0);
+            writePage(channel, 1);
+            assertPage(reader, 0);
+            assertPage(reader, 1);
+
+            // beyond the end of the file
+            assertFalse(reader.read(2L * PAGE_SIZE, new byte[PAGE_SIZE]));
+
+            // the file grows within the first segment and into further segments
+            for (int page = 2; page < 10; page++) {
+                writePage(channel, page);
+            }
+            for (int page = 0; page < 10; page++) {
+                assertPage(reader, page);
+            }
+            assertEquals(10L * PAGE_SIZE, reader.getMappedSize());
+
+            // pages written after they have been mapped are visible
+            final byte[] data = new byte[PAGE_SIZE];
+            Arrays.fill(data, (byte) 42);
+            channel.write(ByteBuffer.wrap(data), 0);
+            final byte[] read = new byte[PAGE_SIZE];
+            assertTrue(reader.read(0, read));
+            assertArrayEquals(data, read);
+
+            reader.close();
+            assertEquals(0, reader.getMappedSize());
+            assertFalse(reader.read(0, read));
+        }
+    }
+
+    @Test
+    public void partialSegmentGrowsGeometrically() throws Exception {
+        try (final RandomAccessFile raf = new RandomAccessFile(temporaryFolder.newFile("growing.dbx"), "rw")) {
+            final FileChannel channel = raf.getChannel();
+            final MappedPageReader reader = new MappedPageReader(channel, 16 * PAGE_SIZE);
+
+            writePage(channel, 0);
+            assertPage(reader, 0);
+            assertEquals(PAGE_SIZE, reader.getMappedSize());
+
+            writePage(channel, 1);
+            assertPage(reader, 1);
+            assertEquals(2L * PAGE_SIZE, reader.getMappedSize());
+
+            // the mapping is only replaced once it can be doubled
+            for (int page = 2; page < 8; page++) {
+                writePage(channel, page);
+                final boolean mapped = page == 3 || page == 7;
+                assertEquals(mapped, reader.read((long) page * PAGE_SIZE, new byte[PAGE_SIZE]));
+                assertEquals(mapped ? (page + 1L) * PAGE_SIZE : Long.highestOneBit(page) * PAGE_SIZE, reader.getMappedSize());
+            }
+            for (int page = 0; page < 8; page++) {
+                assertPage(reader, page);
+            }
+            reader.close();
+        }
+    }
+
+    @Test
+    public void rangeCrossingSegments() throws Exception {
+        try (final RandomAccessFile raf = new RandomAccessFile(temporaryFolder.newFile("crossing.dbx"), "rw")) {
+            final FileChannel channel = raf.getChannel();
+            final MappedPageReader reader = new MappedPageReader(channel, SEGMENT_SIZE);
+            for (int page = 0; page < 8; page++) {
+                writePage(channel, page);
+            }
+            assertFalse(reader.read(SEGMENT_SIZE - 16, new byte[32]));
+            assertTrue(reader.read(SEGMENT_SIZE - 16, new byte[16]));
+        }
+    }
+
+    private static void writePage(final FileChannel channel, final int page) throws Exception {
+        final byte[] data = new byte[PAGE_SIZE];
+        Arrays.fill(data, (byte) page);
+        channel.write(ByteBuffer.wrap(data), (long) page * PAGE_SIZE);
+    }
+
+    private static void assertPage(final MappedPageReader reader, final int page) throws Exception {
+        final byte[] data = new byte[PAGE_SIZE];
+        assertTrue(reader.read((long) page * PAGE_SIZE, data));
+        for (final byte b : data) {
+            assertEquals((byte) page, b);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.cache;
+
+import org.exist.storage.CacheManager;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentClockCacheTest {
+
+    @Test
+    public void addAndGet() {
+        final ConcurrentClockCache<TestPage> cache = new ConcurrentClockCache<>("test", 16, 0.0, 1.0, CacheManager.DATA_CACHE);
+        for (int i = 0; i < 16; i++) {
+            cache.add(new TestPage(i, false));
+        }
+        assertEquals(16, cache.getUsedBuffers());
+        for (int i = 0; i < 16; i++) {
+            assertEquals(i, cache.get(i).getKey());
+        }
+        assertNull(cache.get(99));
+        assertEquals(16, cache.getHits());
+        assertEquals(1, cache.getFails());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void evictsUnreferencedPage() {
+        final ConcurrentClockCache<TestPage> cache = new ConcurrentClockCache<>("test", 4, 0.0, 1.0, CacheManager.DATA_CACHE);
+        final List<TestPage> pages = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final TestPage page = new TestPage(i, false);
+            pages.add(page);
+            cache.add(page);
+        }
+
+        cache.add(new TestPage(4, false));
+        assertEquals(4, cache.getUsedBuffers());
+        assertEquals(1, cache.getEvictions());
+
+        // the evicted page must have been synced
+        int synced = 0;
+        for (final TestPage page : pages) {
+            if (cache.get(page.getKey()) == null) {
+                assertTrue(page.synced);
+                synced++;
+            }
+        }
+        assertEquals(1, synced);
+        assertNotNull(cache.get(4));
+    }
+
+    @Test
+    public void pinnedPagesAreNotEvicted() {
+        final ConcurrentClockCache<TestPage> cache = new ConcurrentClockCache<>("test", 4, 0.0, 1.0, CacheManager.DATA_CACHE);
+        for (int i = 0; i < 3; i++) {
+            final TestPage page = new TestPage(i, false);
+            page.unloadable = false;
+            cache.add(page);
+        }
+        cache.add(new TestPage(3, false));
+        cache.add(new TestPage(4, false));
+
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(cache.get(i));
+        }
+        assertNull(cache.get(3));
+        assertNotNull(cache.get(4));
+    }
+
+    @Test
+    public void btreeCacheKeepsInnerPages() {
+        final ConcurrentBTreeCache<TestPage> cache = new ConcurrentBTreeCache<>("test", 4, 0.0, 0, CacheManager.BTREE_CACHE);
+        cache.add(new TestPage(0, true));
+        cache.add(new TestPage(1, true));
+        cache.add(new TestPage(2, false));
+        cache.add(new TestPage(3, true));
+
+        cache.add(new TestPage(4, false));
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(0));
+        assertNotNull(cache.get(1));
+        assertNotNull(cache.get(3));
+    }
+
+    @Test
+    public void remove() {
+        final ConcurrentClockCache<TestPage> cache = new ConcurrentClockCache<>("test", 4, 0.0, 1.0, CacheManager.DATA_CACHE);
+        final TestPage page = new TestPage(1, false);
+        cache.add(page);
+        cache.remove(page);
+        assertNull(cache.get(1));
+        assertEquals(0, cache.getUsedBuffers());
+
+        for (int i = 0; i < 4; i++) {
+            cache.add(new TestPage(i + 10, false));
+        }
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void resize() {
+        final ConcurrentClockCache<TestPage> cache = new ConcurrentClockCache<>("test", 4, 2.0, 1.0, CacheManager.DATA_CACHE);
+        for (int i = 0; i < 4; i++) {
+            cache.add(new TestPage(i, false));
+        }
+        cache.resize(8);
+        assertEquals(8, cache.getBuffers());
+        for (int i = 4; i < 8; i++) {
+            cache.add(new TestPage(i, false));
+        }
+        for (int i = 0; i < 8; i++) {
+            assertNotNull(cache.get(i));
+        }
+        assertEquals(0, cache.getEvictions());
+
+        cache.resize(2);
+        assertEquals(2, cache.getBuffers());
+        assertEquals(0, cache.getUsedBuffers());
+    }
+
+    @Test
+    public void requestsMemoryOutsideOfLock() throws Exception {
+        final ConcurrentClockCache<TestPage> cache = new ConcurrentClockCache<>("test", 2, 2.0, 0.0, CacheManager.DATA_CACHE);
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicBoolean blocked = new AtomicBoolean();
+        cache.setCacheManager(new TestCacheManager() {
+            @Override
+            public int requestMem(final Cache cache) {
+                requests.incrementAndGet();
+                // the cache manager may resize caches from any thread, which must not wait for the caller
+                final Thread resizer = new Thread(() -> cache.resize(cache.getBuffers() * 2));
+                resizer.start();
+                try {
+                    resizer.join(TimeUnit.SECONDS.toMillis(5));
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (resizer.isAlive()) {
+                    blocked.set(true);
+                }
+                return cache.getBuffers();
+            }
+        });
+
+        // reload replaced pages until the cache thrashes
+        for (int round = 0; round < 2 && requests.get() == 0; round++) {
+            for (int i = 0; i < 6; i++) {
+                cache.add(new TestPage(i, false));
+            }
+        }
+        assertTrue(requests.get() > 0);
+        assertFalse(blocked.get());
+        assertTrue(cache.getBuffers() > 2);
+    }
+
+    @Test
+    public void load() {
+        final ConcurrentClockCache<TestPage> cache = new ConcurrentClockCache<>("test", 4, 0.0, 1.0, CacheManager.DATA_CACHE);
+        cache.add(new TestPage(1, false));
+        cache.get(1);
+        // no load has been measured yet
+        assertEquals(Integer.MAX_VALUE, cache.getLoad());
+        assertEquals(0, cache.getLoad());
+        cache.get(1);
+        cache.get(1);
+        assertEquals(2, cache.getLoad());
+        assertEquals(0, cache.getLoad());
+    }
+
+    @Test
+    public void concurrentReadersAndWriters() throws Exception {
+        final ConcurrentClockCache<TestPage> cache = new ConcurrentClockCache<>("test", 64, 0.0, 1.0, CacheManager.DATA_CACHE);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int offset = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        final long key = (i * 7 + offset) % 256;
+                        final TestPage page = cache.get(key);
+                        if (page == null) {
+                            cache.add(new TestPage(key, false));
+                        } else {
+                            assertEquals(key, page.getKey());
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(cache.getUsedBuffers() <= 64);
+        assertEquals(8 * 10000, cache.getHits() + cache.getFails());
+    }
+
+    private static abstract class TestCacheManager implements CacheManager {
+        @Override
+        public void registerCache(final Cache cache) {
+        }
+
+        @Override
+        public void deregisterCache(final Cache cache) {
+        }
+
+        @Override
+        public void checkCaches() {
+        }
+
+        @Override
+        public void checkDistribution() {
+        }
+
+        @Override
+        public long getMaxTotal() {
+            return 0;
+        }
+
+        @Override
+        public long getMaxSingle() {
+            return 0;
+        }
+
+        @Override
+        public long getCurrentSize() {
+            return 0;
+        }
+
+        @Override
+        public int getDefaultInitialSize() {
+            return 0;
+        }
+    }
+
+    private static class TestPage implements BTreeCacheable {
+        private final long key;
+        private final boolean inner;
+        private int refCount = 0;
+        private int timestamp = 0;
+        boolean unloadable = true;
+        volatile boolean synced = false;
+
+        TestPage(final long key, final boolean inner) {
+            this.key = key;
+            this.inner = inner;
+        }
+
+        @Override
+        public boolean isInnerPage() {
+            return inner;
+        }
+
+        @Override
+        public long getKey() {
+            return key;
+        }
+
+        @Override
+        public int getReferenceCount() {
+            return refCount;
+        }
+
+        @Override
+        public int incReferenceCount() {
+            return ++refCount;
+        }
+
+        @Override
+        public int decReferenceCount() {
+            return --refCount;
+        }
+
+        @Override
+        public void setReferenceCount(final int count) {
+            this.refCount = count;
+        }
+
+        @Override
+        public void setTimestamp(final int timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public int getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public boolean sync(final boolean syncJournal) {
+            synced = true;
+            return true;
+        }
+
+        @Override
+        public boolean allowUnload() {
+            return unloadable;
+        }
+
+        @Override
+        public boolean isDirty() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.journal;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GroupCommitTest {
+
+    private static final int THREADS = 8;
+    private static final int COMMITS_PER_THREAD = 10;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .put(BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, true)
+                    .put(Journal.PROPERTY_RECOVERY_SYNC_ON_COMMIT, true)
+                    .put(Journal.PROPERTY_RECOVERY_GROUP_COMMIT_DELAY, 5)
+                    .build(),
+            true,
+            true);
+
+    @Test
+    public void concurrentCommits() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final GroupCommitThread groupCommitter = pool.getJournalManager()
+                .flatMap(JournalManager::getGroupCommitThread)
+                .orElse(null);
+        assertNotNull(groupCommitter);
+
+        final long commitsBefore = groupCommitter.getCommitCount();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                final int thread = i;
+                results.add(executor.submit(() -> {
+                    for (int j = 0; j < COMMITS_PER_THREAD; j++) {
+                        createCollection(pool, XmldbURI.ROOT_COLLECTION_URI.append("group-commit-" + thread + "-" + j));
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        final long commits = groupCommitter.getCommitCount() - commitsBefore;
+        assertEquals(THREADS * COMMITS_PER_THREAD, commits);
+        assertTrue(groupCommitter.getBatchCount() > 0);
+        assertTrue(groupCommitter.getBatchCount() <= groupCommitter.getCommitCount());
+
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            for (int i = 0; i < THREADS; i++) {
+                for (int j = 0; j < COMMITS_PER_THREAD; j++) {
+                    assertNotNull(broker.getCollection(XmldbURI.ROOT_COLLECTION_URI.append("group-commit-" + i + "-" + j)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void failedFlushFailsCommits() throws Exception {
+        final Journal journal = createMock(Journal.class);
+        journal.flushGroupCommit();
+        expectLastCall().andThrow(new JournalException("No space left on device")).anyTimes();
+        replay(journal);
+
+        final GroupCommitThread groupCommitter = new GroupCommitThread(journal, 0);
+        groupCommitter.start();
+        try {
+            assertCommitFails(groupCommitter, 10);
+            // the journal is incomplete, so later commits fail as well
+            assertCommitFails(groupCommitter, 20);
+        } finally {
+            groupCommitter.shutdown();
+            groupCommitter.join();
+        }
+        assertEquals(0, groupCommitter.getCommitCount());
+    }
+
+    @Test
+    public void failedFlushFailsOnlyItsBatch() throws Exception {
+        final Journal journal = createMock(Journal.class);
+        journal.flushGroupCommit();
+        expectLastCall().andThrow(new JournalException("The journal is not open for writing"));
+        journal.flushGroupCommit();
+        expectLastCall().anyTimes();
+        replay(journal);
+
+        final GroupCommitThread groupCommitter = new GroupCommitThread(journal, 0);
+        groupCommitter.start();
+        try {
+            assertCommitFails(groupCommitter, 10);
+            groupCommitter.waitForLsn(20);
+        } finally {
+            groupCommitter.shutdown();
+            groupCommitter.join();
+        }
+        assertEquals(1, groupCommitter.getCommitCount());
+    }
+
+    @Test
+    public void singleCommitterNotDelayed() throws Exception {
+        final Journal journal = createMock(Journal.class);
+        journal.flushGroupCommit();
+        expectLastCall().anyTimes();
+        replay(journal);
+
+        // no other committer joins, so the batches are flushed long before the maximum delay
+        final GroupCommitThread groupCommitter = new GroupCommitThread(journal, 60_000);
+        groupCommitter.start();
+        try {
+            final long start = System.nanoTime();
+            for (int lsn = 1; lsn <= 10; lsn++) {
+                groupCommitter.waitForLsn(lsn);
+            }
+            assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 30);
+        } finally {
+            groupCommitter.shutdown();
+            groupCommitter.join();
+        }
+        assertEquals(10, groupCommitter.getBatchCount());
+    }
+
+    @Test
+    public void commitAfterShutdownFails() throws Exception {
+        final Journal journal = createMock(Journal.class);
+        journal.flushGroupCommit();
+        expectLastCall().anyTimes();
+        replay(journal);
+
+        final GroupCommitThread groupCommitter = new GroupCommitThread(journal, 0);
+        groupCommitter.start();
+        groupCommitter.waitForLsn(10);
+        groupCommitter.shutdown();
+        groupCommitter.join();
+
+        assertCommitFails(groupCommitter, 20);
+        assertEquals(1, groupCommitter.getCommitCount());
+    }
+
+    private static void assertCommitFails(final GroupCommitThread groupCommitter, final long lsn) {
+        try {
+            groupCommitter.waitForLsn(lsn);
+            fail("Commit of LSN " + lsn + " should have failed");
+        } catch (final JournalException e) {
+            // expected
+        }
+    }
+
+    private static void createCollection(final BrokerPool pool, final XmldbURI uri) throws EXistException, PermissionDeniedException, IOException, TriggerException {
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, uri);
+            broker.saveCollection(transaction, collection);
+            transact.commit(transaction);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.recovery;
+
+import org.exist.storage.journal.AbstractLoggable;
+import org.exist.storage.journal.LogException;
+import org.exist.storage.journal.Loggable;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ParallelRedoTest {
+
+    private static final int FILES = 3;
+
+    @Test
+    public void entriesOfFileRedoneInOrder() throws LogException {
+        final List<List<Integer>> redone = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            redone.add(new CopyOnWriteArrayList<>());
+        }
+        final List<String> threads = new CopyOnWriteArrayList<>();
+        final int entries = ParallelRedo.BATCH_SIZE * 40 + 17;
+
+        try (final ParallelRedo redo = new ParallelRedo(FILES)) {
+            for (int i = 0; i < entries; i++) {
+                final int seq = i;
+                final byte fileId = (byte) (i % FILES);
+                redo.redo(new TestLoggable(fileId, () -> {
+                    redone.get(fileId).add(seq);
+                    threads.add(Thread.currentThread().getName());
+                }));
+            }
+            redo.awaitCompletion();
+            assertEquals(entries, redo.getRedoCount());
+            assertEquals((entries + FILES - 1) / FILES, redo.getRedoCount((byte) 0));
+        }
+
+        int total = 0;
+        for (final List<Integer> fileEntries : redone) {
+            for (int i = 1; i < fileEntries.size(); i++) {
+                assertTrue(fileEntries.get(i - 1) < fileEntries.get(i));
+            }
+            total += fileEntries.size();
+        }
+        assertEquals(entries, total);
+        assertFalse(threads.contains(Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void entriesOfPageRedoneInOrder() throws LogException {
+        final int pages = 50;
+        final List<List<Integer>> redone = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < pages; i++) {
+            redone.add(new CopyOnWriteArrayList<>());
+        }
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        final int entries = ParallelRedo.BATCH_SIZE * 40 + 17;
+
+        try (final ParallelRedo redo = new ParallelRedo(FILES)) {
+            for (int i = 0; i < entries; i++) {
+                final int seq = i;
+                final int page = (i / 3) % pages;
+                redo.redo(new TestLoggable((byte) 0, page, () -> {
+                    redone.get(page).add(seq);
+                    threads.add(Thread.currentThread().getName());
+                }));
+            }
+            redo.awaitCompletion();
+            assertEquals(entries, redo.getRedoCount());
+        }
+
+        int total = 0;
+        for (final List<Integer> pageEntries : redone) {
+            for (int i = 1; i < pageEntries.size(); i++) {
+                assertTrue(pageEntries.get(i - 1) < pageEntries.get(i));
+            }
+            total += pageEntries.size();
+        }
+        assertEquals(entries, total);
+        // the pages of one file are spread over all workers
+        assertEquals(FILES, threads.size());
+    }
+
+    @Test
+    public void fileEntriesOrderedWithPageEntries() throws LogException {
+        final AtomicInteger redoneOfFile = new AtomicInteger();
+        final AtomicInteger fileEntriesRedone = new AtomicInteger();
+        final List<String> errors = new CopyOnWriteArrayList<>();
+        final int entries = ParallelRedo.BATCH_SIZE * 20;
+
+        try (final ParallelRedo redo = new ParallelRedo(FILES)) {
+            int fileEntries = 0;
+            for (int i = 0; i < entries; i++) {
+                // entries of another file are not ordered with the ones checked
+                redo.redo(new TestLoggable((byte) 1, i % 7, () -> {}));
+                if (i % 100 == 99) {
+                    // changes several pages: all preceding entries must have been
+                    // redone, none of the following ones
+                    final int expected = i;
+                    redo.redo(new TestLoggable((byte) 0, Loggable.NO_PAGE, () -> {
+                        if (redoneOfFile.getAndIncrement() != expected) {
+                            errors.add("file entry after " + expected + " redone out of order");
+                        }
+                        fileEntriesRedone.incrementAndGet();
+                    }));
+                    fileEntries++;
+                } else {
+                    final int expected = fileEntries;
+                    redo.redo(new TestLoggable((byte) 0, i % 11, () -> {
+                        redoneOfFile.incrementAndGet();
+                        if (fileEntriesRedone.get() != expected) {
+                            errors.add("page entry redone before file entry " + expected);
+                        }
+                    }));
+                }
+            }
+            redo.awaitCompletion();
+        }
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(entries, redoneOfFile.get());
+    }
+
+    @Test
+    public void barrierWaitsForPrecedingEntries() throws LogException {
+        final AtomicInteger redone = new AtomicInteger();
+        final AtomicInteger seenByBarrier = new AtomicInteger(-1);
+        try (final ParallelRedo redo = new ParallelRedo(FILES)) {
+            for (int i = 0; i < 1000; i++) {
+                redo.redo(new TestLoggable((byte) (i % FILES), redone::incrementAndGet));
+            }
+            redo.redo(new TestLoggable(Loggable.NO_STORAGE_FILE, () -> seenByBarrier.set(redone.get())));
+            assertEquals(1000, seenByBarrier.get());
+        }
+    }
+
+    @Test
+    public void singleThreadRedoesOnCaller() throws LogException {
+        final List<String> threads = new CopyOnWriteArrayList<>();
+        try (final ParallelRedo redo = new ParallelRedo(1)) {
+            assertEquals(0, redo.getThreads());
+            for (int i = 0; i < 100; i++) {
+                redo.redo(new TestLoggable((byte) (i % FILES), () -> threads.add(Thread.currentThread().getName())));
+                // nothing is deferred
+                assertEquals(i + 1, threads.size());
+            }
+        }
+        for (final String thread : threads) {
+            assertEquals(Thread.currentThread().getName(), thread);
+        }
+    }
+
+    @Test
+    public void failureIsReported() throws LogException {
+        final AtomicInteger redoneAfterFailure = new AtomicInteger();
+        try (final ParallelRedo redo = new ParallelRedo(FILES)) {
+            redo.redo(new TestLoggable((byte) 1, () -> {
+                throw new IllegalStateException("broken page");
+            }));
+            try {
+                for (int i = 0; i < ParallelRedo.BATCH_SIZE * 10; i++) {
+                    redo.redo(new TestLoggable((byte) 1, redoneAfterFailure::incrementAndGet));
+                }
+                redo.awaitCompletion();
+                fail("Expected the failed redo to be reported");
+            } catch (final LogException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        // the failing worker stops redoing further entries of the file
+        assertTrue(redoneAfterFailure.get() < ParallelRedo.BATCH_SIZE * 10);
+    }
+
+    private static class TestLoggable extends AbstractLoggable {
+        private final byte fileId;
+        private final long pageNum;
+        private final Runnable action;
+
+        TestLoggable(final byte fileId, final Runnable action) {
+            this(fileId, NO_PAGE, action);
+        }
+
+        TestLoggable(final byte fileId, final long pageNum, final Runnable action) {
+            super((byte) 0, 1);
+            this.fileId = fileId;
+            this.pageNum = pageNum;
+            this.action = action;
+        }
+
+        @Override
+        public byte getStorageFileId() {
+            return fileId;
+        }
+
+        @Override
+        public long getPageNum() {
+            return pageNum;
+        }
+
+        @Override
+        public void redo() {
+            action.run();
+        }
+
+        @Override
+        public void write(final ByteBuffer out) {
+        }
+
+        @Override
+        public void read(final ByteBuffer in) {
+        }
+
+        @Override
+        public int getLogSize() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.txn;
+
+import org.exist.storage.journal.Lsn;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointTest {
+
+    private static final long LSN = Lsn.create(3, 4711);
+
+    @Test
+    public void sharpCheckpoint() {
+        final Checkpoint checkpoint = read(write(new Checkpoint(1)));
+        assertEquals(LSN, checkpoint.getStoredLsn());
+        assertEquals(LSN, checkpoint.getRedoLsn());
+        assertFalse(checkpoint.isFuzzy());
+    }
+
+    @Test
+    public void fuzzyCheckpoint() {
+        final long redoLsn = Lsn.create(3, 1024);
+        final Checkpoint checkpoint = read(write(new Checkpoint(1, redoLsn)));
+        assertEquals(LSN, checkpoint.getStoredLsn());
+        assertEquals(redoLsn, checkpoint.getRedoLsn());
+        assertTrue(checkpoint.isFuzzy());
+    }
+
+    @Test
+    public void checkpointWithoutRedoLsn() {
+        // the format written by previous versions: LSN and timestamp only
+        final ByteBuffer buf = ByteBuffer.allocate(18);
+        buf.putLong(LSN);
+        buf.putLong(System.currentTimeMillis());
+        buf.putShort((short) 0);
+        buf.flip();
+
+        final Checkpoint checkpoint = read(buf);
+        assertEquals(LSN, checkpoint.getStoredLsn());
+        assertEquals(LSN, checkpoint.getRedoLsn());
+        assertFalse(checkpoint.isFuzzy());
+    }
+
+    private static ByteBuffer write(final Checkpoint checkpoint) {
+        checkpoint.setLsn(LSN);
+        final ByteBuffer buf = ByteBuffer.allocate(checkpoint.getLogSize() + 2);
+        checkpoint.write(buf);
+        // link to the previous entry, as written by the journal
+        buf.putShort((short) 0);
+        buf.flip();
+        return buf;
+    }
+
+    private static Checkpoint read(final ByteBuffer buf) {
+        final Checkpoint checkpoint = new Checkpoint(1);
+        checkpoint.setLsn(LSN);
+        checkpoint.read(buf);
+        return checkpoint;
+    }
+}
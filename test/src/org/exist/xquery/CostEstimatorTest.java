@@ -0,0 +1,199 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.QName;
+import org.exist.indexing.IndexManager;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.value.Sequence;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.Arrays;
+
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the cost based decisions of the {@link Optimizer}, as reported by util:explain.
+ */
+public class CostEstimatorTest {
+
+    private static final XmldbURI COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("cost-test");
+
+    private static final String BOOKS = "collection('" + COLLECTION + "')//book";
+
+    private static final String NO_OPTIMIZE = "declare option exist:optimize 'enable=no';\n";
+
+    private static final String COLLECTION_CONFIG =
+        "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+        "   <index>" +
+        "       <create qname=\"title\" type=\"xs:string\"/>" +
+        "       <create qname=\"category\" type=\"xs:string\"/>" +
+        "   </index>" +
+        "</collection>";
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer =
+        new ExistEmbeddedServer(withIndexStatistics(), true, true);
+
+    /**
+     * The index-stats module is disabled in the default configuration.
+     */
+    private static Properties withIndexStatistics() {
+        try {
+            final Configuration.IndexModuleConfig[] modules = (Configuration.IndexModuleConfig[])
+                new Configuration().getProperty(IndexManager.PROPERTY_INDEXER_MODULES);
+            final Element config = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument()
+                .createElement("module");
+            config.setAttribute("id", "index-stats");
+            config.setAttribute("file", "stats.dbx");
+            config.setAttribute("class", "org.exist.storage.statistics.IndexStatistics");
+
+            final Configuration.IndexModuleConfig[] withStatistics = Arrays.copyOf(modules, modules.length + 1);
+            withStatistics[modules.length] = new Configuration.IndexModuleConfig("index-stats",
+                config.getAttribute("class"), config);
+            final Properties properties = new Properties();
+            properties.put(IndexManager.PROPERTY_INDEXER_MODULES, withStatistics);
+            return properties;
+        } catch (final Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @BeforeClass
+    public static void storeDocument() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, COLLECTION);
+            broker.saveCollection(transaction, collection);
+            pool.getConfigurationManager().addConfiguration(transaction, broker, collection, COLLECTION_CONFIG);
+
+            final StringBuilder data = new StringBuilder("<books>");
+            for (int i = 1; i <= 200; i++) {
+                data.append("<book><title>Title ").append(i).append("</title><category>c").append(i % 2)
+                    .append("</category></book>");
+            }
+            data.append("</books>");
+            final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create("books.xml"), data.toString());
+            collection.store(transaction, broker, info, data.toString());
+            transact.commit(transaction);
+        }
+    }
+
+    @Test
+    public void selectivePredicateFirst() throws Exception {
+        final String query = BOOKS + "[category = 'c1'][title = 'Title 5']";
+        final String plan = explain(query);
+        assertTrue(plan, plan.contains("type=\"reorder-predicates\""));
+        assertTrue(plan, plan.indexOf("\"Title 5\"") < plan.indexOf("\"c1\""));
+        assertTrue(plan, plan.contains("type=\"index-lookup\""));
+        assertEquals("Title 5", execute(query + "/title/string()"));
+        assertEquals("Title 5", execute(NO_OPTIMIZE + query + "/title/string()"));
+    }
+
+    @Test
+    public void splitConditionsReordered() throws Exception {
+        final String query = BOOKS + "[category = 'c1' and title = 'Title 7']/title/string()";
+        assertTrue(explain(query).contains("type=\"reorder-predicates\""));
+        assertEquals("Title 7", execute(query));
+    }
+
+    @Test
+    public void whereConditionsReordered() throws Exception {
+        final String query = "for $b in " + BOOKS + " where $b/category = 'c1' and $b/title = 'Title 9' " +
+            "return $b/title/string()";
+        final String plan = explain(query);
+        assertTrue(plan, plan.contains("type=\"reorder-conditions\""));
+        assertTrue(plan, plan.indexOf("\"Title 9\"") < plan.indexOf("\"c1\""));
+        assertEquals("Title 9", execute(query));
+    }
+
+    @Test
+    public void whereClausesReordered() throws Exception {
+        final String query = "for $b in " + BOOKS + " where $b/category = 'c1' where $b/title = 'Title 11' " +
+            "return $b/title/string()";
+        final String plan = explain(query);
+        assertTrue(plan, plan.contains("type=\"reorder-conditions\""));
+        assertTrue(plan, plan.indexOf("\"Title 11\"") < plan.indexOf("\"c1\""));
+        assertEquals("Title 11", execute(query));
+    }
+
+    @Test
+    public void positionalPredicateNotReordered() throws Exception {
+        final String query = BOOKS + "[category = 'c0'][1]/title/string()";
+        assertFalse(explain(query).contains("type=\"reorder-predicates\""));
+        assertEquals("Title 2", execute(query));
+    }
+
+    @Test
+    public void scanIfNotSelective() throws Exception {
+        final String query = "count(" + BOOKS + "[category != 'x'])";
+        assertTrue(explain(query).contains("type=\"structural-scan\""));
+        assertEquals("200", execute(query));
+    }
+
+    @Test
+    public void statistics() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final CostEstimator estimator = new CostEstimator(new XQueryContext(pool));
+            assertTrue(estimator.hasStatistics());
+            assertEquals(200, estimator.getNodeCount(new QName("book", "")));
+            assertEquals(200, estimator.getDistinctKeys(new QName("title", "")));
+            assertEquals(2, estimator.getDistinctKeys(new QName("category", "")));
+            assertEquals(-1, estimator.getDistinctKeys(new QName("book", "")));
+        }
+    }
+
+    private String explain(final String query) throws Exception {
+        return execute("util:serialize(util:explain(\"" + query.replace("\"", "\"\"") + "\"), ())");
+    }
+
+    private String execute(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final Sequence result = xquery.execute(broker, query, null);
+            final StringBuilder buf = new StringBuilder();
+            for (int i = 0; i < result.getItemCount(); i++) {
+                buf.append(result.itemAt(i).getStringValue());
+            }
+            return buf.toString();
+        }
+    }
+}
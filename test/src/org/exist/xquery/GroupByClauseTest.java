@@ -0,0 +1,262 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.source.StringSource;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.IntegerValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.StringValue;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests "group by" clauses which aggregate the grouped values, or which are
+ * written to temporary files.
+ */
+public class GroupByClauseTest {
+
+    private static final XmldbURI COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("group-by-test");
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @BeforeClass
+    public static void storeDocument() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, COLLECTION);
+            broker.saveCollection(transaction, collection);
+            final StringBuilder data = new StringBuilder("<items>");
+            for (int i = 1; i <= 100; i++) {
+                data.append("<item n=\"").append(i).append("\" key=\"k").append(i % 7).append("\"/>");
+            }
+            data.append("</items>");
+            final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create("items.xml"), data.toString());
+            collection.store(transaction, broker, info, data.toString());
+            transact.commit(transaction);
+        }
+    }
+
+    @After
+    public void resetSpillThreshold() {
+        configuration().removeProperty(GroupByClause.PROPERTY_GROUP_BY_SPILL_THRESHOLD);
+    }
+
+    @Test
+    public void countAndSum() throws Exception {
+        final String query = "for $i in 1 to 1000 let $d := $i div 2 group by $k := $i mod 7 order by $k " +
+                "return $k || ':' || count($i) || ':' || sum($i) || ':' || sum($d)";
+        final List<String> expected = expectedAggregates();
+        assertEquals(expected, query(query));
+
+        configuration().setProperty(GroupByClause.PROPERTY_GROUP_BY_SPILL_THRESHOLD, 5);
+        assertEquals(expected, query(query));
+    }
+
+    @Test
+    public void sumTypes() throws Exception {
+        assertEquals("true true true", join(query(
+                "for $i in 1 to 200 let $d := $i div 2, $f := xs:double($i) group by $k := 1 " +
+                "return (sum($i) instance of xs:integer, sum($d) instance of xs:decimal, sum($f) instance of xs:double)")));
+        assertEquals("XPTY0004", join(query(
+                "try { for $i in 1 to 200 let $v := if ($i = 150) then 'a' else $i group by $k := 1 return sum($v) } " +
+                "catch * { local-name-from-QName($err:code) }")));
+    }
+
+    @Test
+    public void variableUsedOutsideAggregates() throws Exception {
+        assertEquals("0:14:7 1:15:1 2:15:2", join(query(
+                "for $i in 1 to 100 group by $k := $i mod 7 where $k < 3 order by $k " +
+                "return $k || ':' || count($i) || ':' || $i[1]")));
+        assertEquals("7 14 21 28", join(query(
+                "for $i in 1 to 30 group by $k := $i mod 7 where $k = 0 return for $j in $i return $j")));
+    }
+
+    @Test
+    public void variableNotReferencedKeepsItems() throws Exception {
+        assertEquals("0:7,14 1:1,8,15", join(query(
+                "for $i in 1 to 15 group by $k := $i mod 7 where $k < 2 order by $k " +
+                "return $k || ':' || string-join(util:eval('$i'), ',')")));
+    }
+
+    @Test
+    public void variableCountedAndEvaluatedKeepsItems() throws Exception {
+        assertEquals("0:2:7,14 1:3:1,8,15", join(query(
+                "for $i in 1 to 15 group by $k := $i mod 7 where $k < 2 order by $k " +
+                "return $k || ':' || count($i) || ':' || string-join(util:eval('$i'), ',')")));
+        assertEquals("0:2:7,14 1:3:1,8,15", join(query(
+                "for $i in 1 to 15 group by $k := $i mod 7 where $k < 2 and count(util:eval('$i')) > 1 order by $k " +
+                "return $k || ':' || count($i) || ':' || string-join(util:eval('$i'), ',')")));
+        assertEquals("0:2:7,14 1:3:1,8,15", join(query(
+                "for $i in 1 to 15 group by $k := $i mod 7 where $k < 2 order by $k " +
+                "return $k || ':' || count($i) || ':' || (function() { string-join($i ! string(.), ',') })()")));
+    }
+
+    @Test
+    public void keys() throws Exception {
+        // integers of different types and strings of different types are equal if their values are
+        assertEquals("1:2 2:1", join(query(
+                "for $i in (xs:int(1), 1, 2) group by $k := $i order by $k return $k || ':' || count($i)")));
+        assertEquals("a:2 b:1", join(query(
+                "for $s in (xs:token('a'), 'a', 'b') group by $k := $s order by $k return $k || ':' || count($s)")));
+        // a string is not equal to an integer
+        assertEquals("2", join(query("count(for $v in ('1', 1) group by $k := $v return $k)")));
+        // several keys, and integers which do not fit into a long
+        assertEquals("0:a:2 0:b:1 1:a:1 99999999999999999999:a:2", join(query(
+                "for $p in ('0 a', '0 b', '0 a', '1 a', '99999999999999999999 a', '99999999999999999999 a') " +
+                "let $t := tokenize($p, ' ') group by $k1 := xs:integer($t[1]), $k2 := $t[2] order by $k1, $k2 " +
+                "return $k1 || ':' || $k2 || ':' || count($p)")));
+    }
+
+    @Test
+    public void keysHashLikeValues() throws Exception {
+        final AtomicValue[][] keys = {
+            { new IntegerValue(0) }, { new IntegerValue(-1) }, { new IntegerValue(42) },
+            { new IntegerValue(Long.MAX_VALUE) }, { new IntegerValue(Long.MIN_VALUE) }, { new IntegerValue(1L << 40) },
+            { new StringValue("key") }, { new IntegerValue(-7), new StringValue("a") },
+            { new StringValue("a"), new IntegerValue(1L << 33), new IntegerValue(Long.MIN_VALUE + 1) }
+        };
+        for (final AtomicValue[] key : keys) {
+            assertEquals(Arrays.hashCode(key), GroupByClause.GroupKey.of(key, true).hashCode());
+            assertEquals(GroupByClause.GroupKey.of(key, false), GroupByClause.GroupKey.of(key.clone(), false));
+            assertEquals(GroupByClause.GroupKey.of(key, true), GroupByClause.GroupKey.of(key.clone(), true));
+        }
+    }
+
+    @Test
+    public void spillEncodedKeys() throws Exception {
+        final String query = "for $i in 1 to 200 let $s := string-join(('k', string($i mod 3), " +
+                "for $j in 1 to 10000 return 'x'), '') group by $k1 := $i mod 5, $k2 := substring($s, 1, 2), $k3 := $s " +
+                "order by $k1, $k2 return $k1 || ':' || $k2 || ':' || string-length($k3) || ':' || count($i)";
+        final List<String> expected = query(query);
+        assertEquals(15, expected.size());
+        configuration().setProperty(GroupByClause.PROPERTY_GROUP_BY_SPILL_THRESHOLD, 10);
+        assertEquals(expected, query(query));
+        assertEquals("1:k1:10002:14", expected.get(4));
+    }
+
+    @Test
+    public void spillNodes() throws Exception {
+        configuration().setProperty(GroupByClause.PROPERTY_GROUP_BY_SPILL_THRESHOLD, 10);
+        final String query = "for $item in collection('" + COLLECTION + "')//item group by $key := $item/@key " +
+                "order by $key return $key || ':' || string-join($item/@n, ',')";
+        final List<String> expected = new ArrayList<>();
+        for (int key = 0; key < 7; key++) {
+            final StringBuilder group = new StringBuilder("k").append(key).append(':');
+            for (int i = 1; i <= 100; i++) {
+                if (i % 7 == key) {
+                    group.append(i).append(',');
+                }
+            }
+            expected.add(group.substring(0, group.length() - 1));
+        }
+        assertEquals(expected, query(query));
+    }
+
+    @Test
+    public void spillAtomicValues() throws Exception {
+        configuration().setProperty(GroupByClause.PROPERTY_GROUP_BY_SPILL_THRESHOLD, 10);
+        assertEquals("0:x3,x6,x9,x12 1:x1,x4,x7,x10,x13 2:x2,x5,x8,x11", join(query(
+                "for $i in 1 to 13 let $s := 'x' || $i group by $k := $i mod 3 order by $k " +
+                "return $k || ':' || string-join($s, ',')")));
+    }
+
+    @Test
+    public void nodeConstructorsAreNotSpilled() throws Exception {
+        configuration().setProperty(GroupByClause.PROPERTY_GROUP_BY_SPILL_THRESHOLD, 10);
+        assertEquals("0:7,14,21 1:1,8,15,22 2:2,9,16,23", join(query(
+                "for $i in 1 to 23 let $e := <e>{$i}</e> group by $k := $i mod 7 where $k < 3 order by $k " +
+                "return $k || ':' || string-join($e, ',')")));
+    }
+
+    @Test
+    public void collation() throws Exception {
+        configuration().setProperty(GroupByClause.PROPERTY_GROUP_BY_SPILL_THRESHOLD, 2);
+        assertEquals("a:3 b:2", join(query(
+                "for $s in ('a', 'A', 'b', 'a', 'B') " +
+                "group by $k := lower-case($s) collation 'http://www.w3.org/2013/collation/UCA?strength=primary' " +
+                "order by $k return $k || ':' || count($s)")));
+    }
+
+    private static List<String> expectedAggregates() {
+        final List<String> expected = new ArrayList<>();
+        for (int key = 0; key < 7; key++) {
+            int count = 0;
+            long sum = 0;
+            for (int i = 1; i <= 1000; i++) {
+                if (i % 7 == key) {
+                    count++;
+                    sum += i;
+                }
+            }
+            final String half = sum % 2 == 0 ? Long.toString(sum / 2) : (sum / 2) + ".5";
+            expected.add(key + ":" + count + ":" + sum + ":" + half);
+        }
+        return expected;
+    }
+
+    private static String join(final List<String> values) {
+        return String.join(" ", values);
+    }
+
+    private static Configuration configuration() {
+        return existEmbeddedServer.getBrokerPool().getConfiguration();
+    }
+
+    private static List<String> query(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final CompiledXQuery compiled = xquery.compile(broker, new XQueryContext(pool), new StringSource(query));
+            try {
+                final Sequence result = xquery.execute(broker, compiled, null);
+                final List<String> values = new ArrayList<>(result.getItemCount());
+                for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+                    values.add(i.nextItem().getStringValue());
+                }
+                return values;
+            } finally {
+                compiled.getContext().runCleanupTasks();
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.QName;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.indexing.StructuralIndex;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.ElementValue;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.value.Sequence;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests path expressions whose lookup stops once the nodes used by
+ * fn:exists, fn:empty, fn:head, fn:subsequence or a positional filter are found.
+ */
+public class LimitedStepTest {
+
+    private static final XmldbURI COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("limit-test");
+
+    private static final String LOGS = "collection('" + COLLECTION + "')";
+
+    private static final String NESTED = "doc('" + COLLECTION.append("nested.xml") + "')";
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @BeforeClass
+    public static void storeDocuments() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, COLLECTION);
+            broker.saveCollection(transaction, collection);
+            for (final String name : new String[] { "a", "b", "c", "d" }) {
+                final String data = "<log><entry n=\"" + name + "1\"/><entry n=\"" + name + "2\"/>" +
+                    "<day><entry n=\"" + name + "3\"/></day></log>";
+                store(transaction, broker, collection, name + ".xml", data);
+            }
+            store(transaction, broker, collection, "nested.xml",
+                "<doc><s><t>1</t><s><t>2</t></s><t>3</t></s></doc>");
+            transact.commit(transaction);
+        }
+    }
+
+    private static void store(final Txn transaction, final DBBroker broker, final Collection collection,
+            final String name, final String data) throws Exception {
+        final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create(name), data);
+        collection.store(transaction, broker, info, data);
+    }
+
+    @Test
+    public void positionalFilter() throws Exception {
+        assertEquals("a1", execute("(" + LOGS + "//entry)[1]/@n/string()"));
+        assertEquals("b2", execute("(" + LOGS + "//entry)[5]/@n/string()"));
+        assertEquals("a1 a2 a3 b1", execute("(" + LOGS + "//entry)[position() < 5]/@n/string()"));
+        assertEquals("c1", execute("(" + LOGS + "/log/entry)[5]/@n/string()"));
+        assertEquals("", execute("(" + LOGS + "//entry)[13]/@n/string()"));
+    }
+
+    @Test
+    public void existsAndEmpty() throws Exception {
+        assertEquals("true", execute("exists(" + LOGS + "//entry)"));
+        assertEquals("false", execute("exists(" + LOGS + "//missing)"));
+        assertEquals("true", execute("empty(" + LOGS + "//missing)"));
+        assertEquals("false", execute("empty(" + LOGS + "/log/day/entry)"));
+        assertEquals("b1 b2 b3", execute("for $l in " + LOGS + "/log[exists(entry)] where $l/entry/@n = 'b1' " +
+            "return $l//entry/@n/string()"));
+    }
+
+    @Test
+    public void headAndSubsequence() throws Exception {
+        assertEquals("a1", execute("head(" + LOGS + "//entry)/@n/string()"));
+        assertEquals("b1 b2 b3", execute("subsequence(" + LOGS + "//entry, 4, 3)/@n/string()"));
+        assertEquals("d3", execute("subsequence(" + LOGS + "//entry, 12, 5)/@n/string()"));
+    }
+
+    @Test
+    public void nestedContext() throws Exception {
+        // the children of the nested s come before the last child of the outer s
+        assertEquals("2", execute("(" + NESTED + "//s/t)[2]/string()"));
+        assertEquals("1 2", execute("subsequence(" + NESTED + "//s/t, 1, 2)/string()"));
+        assertEquals("1", execute("head(" + NESTED + "//s//t)/string()"));
+    }
+
+    @Test
+    public void limitIsReset() throws Exception {
+        final String query = "declare function local:count($e) { count($e) };\n" +
+            "let $entries := " + LOGS + "//entry return (exists($entries), local:count(" + LOGS + "//entry))";
+        assertEquals("true 12", execute(query));
+        assertEquals("true 12", execute("(exists(" + LOGS + "//entry), count(" + LOGS + "//entry))"));
+    }
+
+    @Test
+    public void structuralIndexLookup() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final NodeSet docs = pool.getXQueryService().execute(broker, LOGS + "/log", null).toNodeSet();
+            final StructuralIndex index = broker.getStructuralIndex();
+            final QName entry = new QName("entry", "");
+
+            NodeSet result = index.findDescendantsByTagName(ElementValue.ELEMENT, entry, Constants.DESCENDANT_AXIS,
+                docs.getDocumentSet(), docs, Expression.NO_CONTEXT_ID, null, 4);
+            assertEquals(4, result.getLength());
+            assertEquals("a1 a2 a3 b1", attributes(result));
+
+            result = index.findElementsByTagName(ElementValue.ELEMENT, docs.getDocumentSet(), entry,
+                new DescendantSelector(docs, Expression.NO_CONTEXT_ID), null, 2);
+            assertEquals("a1 a2", attributes(result));
+
+            result = index.findDescendantsByTagName(ElementValue.ELEMENT, entry, Constants.DESCENDANT_AXIS,
+                docs.getDocumentSet(), docs, Expression.NO_CONTEXT_ID, null, -1);
+            assertEquals(12, result.getLength());
+        }
+    }
+
+    private String attributes(final NodeSet nodes) throws Exception {
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            if (i > 0) {
+                buf.append(' ');
+            }
+            buf.append(((org.w3c.dom.Element) nodes.get(i).getNode()).getAttribute("n"));
+        }
+        return buf.toString();
+    }
+
+    private String execute(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final Sequence result = xquery.execute(broker, query, null);
+            final StringBuilder buf = new StringBuilder();
+            for (int i = 0; i < result.getItemCount(); i++) {
+                if (i > 0) {
+                    buf.append(' ');
+                }
+                buf.append(result.itemAt(i).getStringValue());
+            }
+            return buf.toString();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.source.StringSource;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.value.OrderedValueSequence;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests "order by" clauses whose result is limited by a consumer, or which are
+ * written to temporary files.
+ */
+public class OrderByClauseTest {
+
+    private static final XmldbURI COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("order-by-test");
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @BeforeClass
+    public static void storeDocument() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, COLLECTION);
+            broker.saveCollection(transaction, collection);
+            final StringBuilder data = new StringBuilder("<items>");
+            for (int i = 1; i <= 100; i++) {
+                data.append("<item n=\"").append(i).append("\" key=\"").append(i % 7).append("\"/>");
+            }
+            data.append("</items>");
+            final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create("items.xml"), data.toString());
+            collection.store(transaction, broker, info, data.toString());
+            transact.commit(transaction);
+        }
+    }
+
+    @After
+    public void resetSpillThreshold() {
+        configuration().removeProperty(OrderByClause.PROPERTY_ORDER_BY_SPILL_THRESHOLD);
+    }
+
+    @Test
+    public void subsequenceOfOrderedResult() throws Exception {
+        assertEquals(expected(11, 10), query(
+                "subsequence(for $i in 1 to 100 order by $i mod 7, $i return $i, 11, 10)"));
+        assertEquals(expected(1, 3), query(
+                "subsequence(for $i in 1 to 100 order by $i mod 7, $i return $i, 0, 4)"));
+        assertEquals(expected(91, 10), query(
+                "subsequence(for $i in 1 to 100 order by $i mod 7, $i return $i, 91, 20)"));
+    }
+
+    @Test
+    public void positionalPredicateOnOrderedResult() throws Exception {
+        assertEquals(expected(3, 1), query("(for $i in 1 to 100 order by $i mod 7, $i return $i)[3]"));
+        assertEquals(expected(1, 5), query(
+                "(for $i in 1 to 100 order by $i mod 7, $i return $i)[position() <= 5]"));
+        assertEquals(expected(1, 4), query(
+                "(for $i in 1 to 100 order by $i mod 7, $i return $i)[position() lt 5]"));
+    }
+
+    @Test
+    public void limitedResultIsStable() throws Exception {
+        assertEquals("7 14 21 28 35", join(query(
+                "subsequence(for $i in 1 to 100 order by $i mod 7 return $i, 1, 5)")));
+    }
+
+    @Test
+    public void limitedNestedClauses() throws Exception {
+        assertEquals("11 21 31 12", join(query(
+                "subsequence(for $a in 1 to 3 for $b in 1 to 3 order by $b, $a return $a * 10 + $b, 1, 4)")));
+        assertEquals("9 6 3", join(query(
+                "(for $i in 1 to 10 where $i mod 3 = 0 order by $i descending return $i)[position() <= 5]")));
+        assertEquals("7 7", join(query(
+                "subsequence(for $i in 1 to 20 group by $k := $i mod 3 order by $k descending return count($i), 1, 2)")));
+    }
+
+    @Test
+    public void forResultsCollectedByOrderBy() throws Exception {
+        String query = "for $i in 1 to 100 order by $i mod 7, $i return $i";
+        assertTrue(isCollectedByOrderBy(query));
+        assertEquals(expectedStable(), query(query));
+
+        query = "for $i in 1 to 100 let $k := $i mod 7 order by $k, $i return $i";
+        assertTrue(isCollectedByOrderBy(query));
+        assertEquals(expectedStable(), query(query));
+
+        // the last item does not pass the "where" clause
+        query = "for $i in 1 to 10 where $i lt 10 order by $i descending return $i";
+        assertTrue(isCollectedByOrderBy(query));
+        assertEquals("9 8 7 6 5 4 3 2 1", join(query(query)));
+
+        query = "for $a in 1 to 3 for $b in 1 to 2 order by $b, $a return $a * 10 + $b";
+        assertTrue(isCollectedByOrderBy(query));
+        assertEquals("11 21 31 12 22 32", join(query(query)));
+
+        query = "for $i in () order by $i return $i";
+        assertTrue(isCollectedByOrderBy(query));
+        assertTrue(query(query).isEmpty());
+
+        assertFalse(isCollectedByOrderBy("for $i in 1 to 10 return $i"));
+        assertFalse(isCollectedByOrderBy(
+                "for $i in 1 to 20 group by $k := $i mod 3 order by $k descending return count($i)"));
+    }
+
+    @Test
+    public void spillAtomicValues() throws Exception {
+        configuration().setProperty(OrderByClause.PROPERTY_ORDER_BY_SPILL_THRESHOLD, 10);
+        final String query = "for $i in 1 to 100 order by $i mod 7 return xs:double($i)";
+        assertTrue(isSpilled(query));
+        assertEquals(expectedStable(), doubleValues(query(query)));
+        assertEquals(expected(11, 10), query(
+                "subsequence(for $i in 1 to 100 order by $i mod 7, $i return $i, 11, 10)"));
+    }
+
+    @Test
+    public void spillNodes() throws Exception {
+        configuration().setProperty(OrderByClause.PROPERTY_ORDER_BY_SPILL_THRESHOLD, 10);
+        final String query = "for $item in collection('" + COLLECTION + "')//item order by $item/@key return $item";
+        assertTrue(isSpilled(query));
+        final List<String> result = query(query + "/@n/string()");
+        assertEquals(expectedStable(), result);
+        assertEquals(expectedStable().subList(0, 20), query(
+                "for $n in subsequence(" + query + ", 1, 20) return $n/@n/string()"));
+    }
+
+    @Test
+    public void nodeConstructorsAreNotSpilled() throws Exception {
+        configuration().setProperty(OrderByClause.PROPERTY_ORDER_BY_SPILL_THRESHOLD, 10);
+        final String query = "for $i in 1 to 100 order by $i mod 7 return <i>{$i}</i>";
+        assertFalse(isSpilled(query));
+        assertEquals(expectedStable(), query(query));
+    }
+
+    /**
+     * The numbers from 1 to 100 ordered by their value modulo 7 and their value.
+     */
+    private static List<String> expected(final int start, final int length) {
+        return expectedStable().subList(start - 1, start - 1 + length);
+    }
+
+    private static List<String> expectedStable() {
+        final List<String> expected = new ArrayList<>();
+        for (int key = 0; key < 7; key++) {
+            for (int i = 1; i <= 100; i++) {
+                if (i % 7 == key) {
+                    expected.add(Integer.toString(i));
+                }
+            }
+        }
+        return expected;
+    }
+
+    private static List<String> doubleValues(final List<String> values) {
+        final List<String> result = new ArrayList<>(values.size());
+        for (final String value : values) {
+            result.add(Integer.toString((int) Double.parseDouble(value)));
+        }
+        return result;
+    }
+
+    private static String join(final List<String> values) {
+        return String.join(" ", values);
+    }
+
+    private static Configuration configuration() {
+        return existEmbeddedServer.getBrokerPool().getConfiguration();
+    }
+
+    private static boolean isCollectedByOrderBy(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final CompiledXQuery compiled = pool.getXQueryService().compile(broker, new XQueryContext(pool), new StringSource(query));
+            try {
+                final ForExpr forExpr = findFor((Expression) compiled);
+                assertNotNull(forExpr);
+                return forExpr.isCollectedByOrderBy();
+            } finally {
+                compiled.getContext().runCleanupTasks();
+            }
+        }
+    }
+
+    private static ForExpr findFor(final Expression expr) {
+        if (expr instanceof ForExpr) {
+            return (ForExpr) expr;
+        }
+        for (final Expression child : QueryPlan.getChildren(expr)) {
+            final ForExpr forExpr = findFor(child);
+            if (forExpr != null) {
+                return forExpr;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSpilled(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final CompiledXQuery compiled = xquery.compile(broker, new XQueryContext(pool), new StringSource(query));
+            try {
+                final Sequence result = xquery.execute(broker, compiled, null);
+                return result instanceof OrderedValueSequence && ((OrderedValueSequence) result).isSpilled();
+            } finally {
+                compiled.getContext().runCleanupTasks();
+            }
+        }
+    }
+
+    private static List<String> query(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final CompiledXQuery compiled = xquery.compile(broker, new XQueryContext(pool), new StringSource(query));
+            try {
+                final Sequence result = xquery.execute(broker, compiled, null);
+                final List<String> values = new ArrayList<>(result.getItemCount());
+                for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+                    values.add(i.nextItem().getStringValue());
+                }
+                return values;
+            } finally {
+                compiled.getContext().runCleanupTasks();
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.ProcessMonitor;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.value.Sequence;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the query plan reported by util:explain and the runtime statistics
+ * recorded in analyze mode.
+ */
+public class QueryPlanTest {
+
+    private static final XmldbURI COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("plan-test");
+
+    private static final String QUERY = "count(collection('" + COLLECTION + "')//item[. = ('3', '5')])";
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @BeforeClass
+    public static void storeDocument() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, COLLECTION);
+            broker.saveCollection(transaction, collection);
+            final StringBuilder data = new StringBuilder("<items>");
+            for (int i = 0; i < 10; i++) {
+                data.append("<item>").append(i).append("</item>");
+            }
+            data.append("</items>");
+            final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create("items.xml"), data.toString());
+            collection.store(transaction, broker, info, data.toString());
+            transact.commit(transaction);
+        }
+    }
+
+    @Test
+    public void explain() throws Exception {
+        final String plan = "util:explain(\"" + QUERY + "\")";
+        assertEquals("1", execute("count(" + plan + "/plan//expr[ends-with(@name, 'count')])"));
+        assertEquals("{}item", execute(plan + "/plan//expr[@type = 'LocationStep'][@axis = 'descendant']/@test/string()"));
+        // not executed
+        assertEquals("0", execute("count(" + plan + "//@calls)"));
+    }
+
+    @Test
+    public void analyze() throws Exception {
+        final String plan = "util:explain(\"" + QUERY + "\", true())";
+        assertEquals("1 1", execute("string-join(" + plan + "/plan//expr[ends-with(@name, 'count')]/(@calls, @items), ' ')"));
+        assertEquals("2", execute(plan + "/plan//expr[@type = 'LocationStep'][@test = '{}item']/@items/string()"));
+        assertEquals("true", execute("exists(" + plan + "/@elapsed)"));
+    }
+
+    @Test
+    public void recentQueryProfiles() throws Exception {
+        final ProcessMonitor monitor = existEmbeddedServer.getBrokerPool().getProcessMonitor();
+        final long minTime = monitor.getMinTime();
+        monitor.setMinTime(-1);
+        monitor.setAnalyzeQueries(true);
+        try {
+            assertEquals("2", execute(QUERY));
+            final ProcessMonitor.QueryProfileInfo[] profiles = monitor.getRecentQueryProfiles();
+            assertTrue(profiles.length > 0);
+            assertTrue(profiles[0].getPlan(), profiles[0].getPlan().contains("calls=\"1\""));
+        } finally {
+            monitor.setAnalyzeQueries(false);
+            monitor.setMinTime(minTime);
+        }
+        assertEquals(0, monitor.getRecentQueryProfiles().length);
+
+        // analyze mode is only enabled while the flag is set
+        execute(QUERY);
+        assertEquals(0, monitor.getRecentQueryProfiles().length);
+    }
+
+    private String execute(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final Sequence result = xquery.execute(broker, query, null);
+            final StringBuilder buf = new StringBuilder();
+            for (int i = 0; i < result.getItemCount(); i++) {
+                buf.append(result.itemAt(i).getStringValue());
+            }
+            return buf.toString();
+        }
+    }
+}
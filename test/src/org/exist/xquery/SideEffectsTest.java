@@ -0,0 +1,101 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery;
+
+import org.exist.dom.QName;
+import org.exist.source.StringSource;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.functions.request.RequestModule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the static analysis of queries for side effects.
+ */
+public class SideEffectsTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void readOnly() throws Exception {
+        assertNull(find(new SideEffects(true), "for $i in 1 to 10 return <a>{$i * 2}</a>"));
+        assertNull(find(new SideEffects(true), "count(collection('/db')//item)"));
+        assertNull(find(new SideEffects(true),
+                "declare function local:f($n) { if ($n > 0) then local:f($n - 1) else 0 }; local:f(3)"));
+    }
+
+    @Test
+    public void update() throws Exception {
+        assertNotNull(find(new SideEffects(false), "update delete doc('/db/a.xml')//item"));
+    }
+
+    @Test
+    public void sideEffectModules() throws Exception {
+        assertNotNull(find(new SideEffects(false), "xmldb:remove('/db/test')"));
+        assertNotNull(find(new SideEffects(false), "response:set-header('X-Test', 'yes')"));
+        assertNotNull(find(new SideEffects(false), "util:eval('1')"));
+    }
+
+    @Test
+    public void calledFunctions() throws Exception {
+        assertNotNull(find(new SideEffects(false),
+                "declare function local:f() { local:g() }; declare function local:g() { session:get-id() }; local:f()"));
+        assertNotNull(find(new SideEffects(false), "let $f := function() { session:get-id() } return 1"));
+        assertNotNull(find(new SideEffects(false), "let $f := session:get-id#0 return 1"));
+        assertNotNull(find(new SideEffects(false), "let $f := count#1 return $f(1)"));
+    }
+
+    @Test
+    public void nondeterministic() throws Exception {
+        assertNull(find(new SideEffects(false), "current-dateTime()"));
+        assertNotNull(find(new SideEffects(true), "current-dateTime()"));
+        assertNotNull(find(new SideEffects(true), "util:uuid()"));
+    }
+
+    @Test
+    public void allowed() throws Exception {
+        final String query = "request:get-parameter('q', ())";
+        assertNotNull(find(new SideEffects(true), query));
+        assertNull(find(new SideEffects(true,
+                Collections.singleton(new QName("get-parameter", RequestModule.NAMESPACE_URI))), query));
+    }
+
+    private static String find(final SideEffects sideEffects, final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQueryContext context = new XQueryContext(pool);
+            final CompiledXQuery compiled = pool.getXQueryService().compile(broker, context, new StringSource(query));
+            try {
+                return sideEffects.find((Expression) compiled);
+            } finally {
+                context.runCleanupTasks();
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery;
+
+import org.exist.EXistException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.source.StringSource;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.serializers.Serializer;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.serializer.XQuerySerializer;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.SequenceIterator;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import javax.xml.transform.OutputKeys;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests passing the result of a query to a {@link ResultReceiver} while the query is evaluated.
+ */
+public class StreamingExecutionTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void forExpressionIsStreamed() throws Exception {
+        final List<String> received = execute("for $i in 1 to 5 return $i * 2", -1);
+        assertEquals(Arrays.asList("2", "4", "6", "8", "10"), received);
+    }
+
+    @Test
+    public void whereClauseIsStreamed() throws Exception {
+        final List<String> received = execute("for $i in 1 to 6 where $i mod 2 = 0 return $i", -1);
+        // the return clause yields an empty sequence for items not matching the where clause
+        assertEquals(Arrays.asList("", "2", "", "4", "", "6"), received);
+    }
+
+    @Test
+    public void evaluationStopsWhenReceiverIsDone() throws Exception {
+        final List<String> received = execute("for $i in 1 to 100 return $i", 3);
+        assertEquals(Arrays.asList("1", "2", "3"), received);
+    }
+
+    @Test
+    public void orderedResultIsReceivedAtOnce() throws Exception {
+        final List<String> received = execute("for $i in (3, 1, 2) order by $i return $i", -1);
+        assertEquals(Arrays.asList("1 2 3"), received);
+    }
+
+    @Test
+    public void pathResultIsReceivedAtOnce() throws Exception {
+        final List<String> received = execute("let $doc := <a><b>1</b><b>2</b></a> return $doc/b/string()", -1);
+        assertEquals(Arrays.asList("1 2"), received);
+    }
+
+    @Test
+    public void serializeSequenceItems() throws Exception {
+        final Properties outputProperties = new Properties();
+        outputProperties.setProperty(OutputKeys.INDENT, "no");
+        outputProperties.setProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        outputProperties.setProperty(Serializer.GENERATE_DOC_EVENTS, "false");
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final CompiledXQuery compiled = xquery.compile(broker, new XQueryContext(pool),
+                    new StringSource("for $i in 1 to 3 return <item n='{$i}'/>"));
+
+            final StringWriter writer = new StringWriter();
+            final XQuerySerializer serializer = new XQuerySerializer(broker, outputProperties, writer);
+            serializer.startSequence(2, true, 0);
+            xquery.execute(broker, compiled, null, outputProperties, items -> {
+                try {
+                    for (final SequenceIterator i = items.iterate(); i.hasNext(); ) {
+                        serializer.serializeItem(i.nextItem(), false, true);
+                    }
+                } catch (final SAXException e) {
+                    throw new XPathException(e.getMessage(), e);
+                }
+                return true;
+            });
+            serializer.endSequence(true);
+
+            final String result = writer.toString();
+            assertTrue(result, result.startsWith("<exist:result xmlns:exist=\"http://exist.sourceforge.net/NS/exist\" exist:start=\"2\""));
+            assertTrue(result, result.endsWith("><item n=\"1\"/><item n=\"2\"/><item n=\"3\"/></exist:result>"));
+        }
+    }
+
+    /**
+     * Executes the query, returning the string value of every part of the result passed to the receiver.
+     *
+     * @param max the number of parts after which the receiver stops the evaluation, or -1
+     */
+    private static List<String> execute(final String query, final int max)
+            throws EXistException, PermissionDeniedException, XPathException, IOException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final CompiledXQuery compiled = xquery.compile(broker, new XQueryContext(pool), new StringSource(query));
+            final List<String> received = new ArrayList<>();
+            xquery.execute(broker, compiled, null, null, items -> {
+                final StringBuilder value = new StringBuilder();
+                for (final SequenceIterator i = items.iterate(); i.hasNext(); ) {
+                    final Item item = i.nextItem();
+                    if (value.length() > 0) {
+                        value.append(' ');
+                    }
+                    value.append(item.getStringValue());
+                }
+                received.add(value.toString());
+                return max < 0 || received.size() < max;
+            });
+            return received;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery.pragmas;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.source.StringSource;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.TerminatedException;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.Sequence;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the exist:parallel pragma returns the same results as sequential evaluation.
+ */
+public class ParallelTest {
+
+    private static final XmldbURI COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("parallel-test");
+
+    private static final String ITEMS = "collection('" + COLLECTION + "')//item";
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @BeforeClass
+    public static void storeDocuments() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, COLLECTION);
+            broker.saveCollection(transaction, collection);
+            for (int d = 0; d < 4; d++) {
+                final StringBuilder data = new StringBuilder("<items>");
+                for (int i = 0; i < 25; i++) {
+                    data.append("<item n=\"").append(d * 25 + i).append("\"/>");
+                }
+                data.append("</items>");
+                final IndexInfo info = collection.validateXMLResource(transaction, broker,
+                    XmldbURI.create("items" + d + ".xml"), data.toString());
+                collection.store(transaction, broker, info, data.toString());
+            }
+            transact.commit(transaction);
+        }
+    }
+
+    @Test
+    public void resultOrderPreserved() throws Exception {
+        final String query = "for $i in " + ITEMS + " return string($i/@n)";
+        assertParallel(query);
+        assertEquals(100, count(parallel(query, 4)));
+    }
+
+    @Test
+    public void positionalVariable() throws Exception {
+        assertParallel("for $i at $p in " + ITEMS + " where $p mod 7 = 0 return $p || ':' || $i/@n");
+        assertParallel("for $i at $p in 1 to 50 return $p * $i");
+    }
+
+    @Test
+    public void variablesInScope() throws Exception {
+        final String prolog =
+            "declare variable $factor := 3;\n" +
+            "declare function local:scale($n) { $n * $factor };\n";
+        assertEquals(execute(prolog + "let $offset := 10 return for $i in 1 to 40 return local:scale($i) + $offset"),
+            execute(prolog + "let $offset := 10 return " + parallel("for $i in 1 to 40 return local:scale($i) + $offset", 4)));
+    }
+
+    @Test
+    public void furtherClauses() throws Exception {
+        assertParallel("for $i in " + ITEMS + " let $n := xs:integer($i/@n) where $n mod 3 = 0 return $n");
+        assertParallel("for $i in " + ITEMS + " order by xs:integer($i/@n) descending return string($i/@n)");
+    }
+
+    @Test
+    public void sideEffectsEvaluatedSequentially() throws Exception {
+        assertParallel("for $i in 1 to 10 return xmldb:collection-available('" + COLLECTION + "')");
+        assertParallel("for $i in 1 to 10 return util:eval('$i * 2')");
+    }
+
+    @Test
+    public void staticContextOfCaller() throws Exception {
+        final String query = "for $i in 1 to 40 return <t:item>{$i * $factor}</t:item>";
+        final String expected = execute(query, 3);
+        assertEquals(expected, execute(parallel(query, 4), 3));
+    }
+
+    @Test(expected = TerminatedException.class, timeout = 60000)
+    public void workersUseWatchdogOfQuery() throws Exception {
+        // the calling thread is done with its part at once, the workers time out
+        execute(parallel("for $i in 1 to 4 return if ($i = 1) then 0 else " +
+            "count(for $j in 1 to 100000000 where $j lt 0 return $j)", 4), 0, 500);
+    }
+
+    @Test(expected = XPathException.class)
+    public void errorsReported() throws Exception {
+        execute(parallel("for $i in 1 to 20 return if ($i = 17) then error(xs:QName('local:fail'), 'failed') else $i", 4));
+    }
+
+    @Test
+    public void workerSetupFailureEvaluatedSequentially() throws Exception {
+        final String query = "for $i in 1 to 40 return $i * 2";
+        final String expected = execute(query);
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final XQueryContext context = new XQueryContext(pool);
+            // the source can only be read by the caller, not by the workers
+            final AtomicInteger reads = new AtomicInteger();
+            final StringSource source = new StringSource(parallel(query, 4)) {
+                @Override
+                public Reader getReader() throws IOException {
+                    if (reads.getAndIncrement() > 0) {
+                        throw new IllegalStateException("source is gone");
+                    }
+                    return super.getReader();
+                }
+            };
+            final CompiledXQuery compiled = xquery.compile(broker, context, source);
+            try {
+                final Sequence result = xquery.execute(broker, compiled, null);
+                final StringBuilder buf = new StringBuilder();
+                for (int i = 0; i < result.getItemCount(); i++) {
+                    buf.append(result.itemAt(i).getStringValue()).append(' ');
+                }
+                assertEquals(expected, buf.toString());
+                assertTrue(reads.get() > 1);
+            } finally {
+                context.runCleanupTasks();
+            }
+        }
+    }
+
+    private void assertParallel(final String query) throws Exception {
+        final String expected = execute(query);
+        assertEquals(expected, execute(parallel(query, 4)));
+        assertEquals(expected, execute(parallel(query, 1)));
+    }
+
+    private static String parallel(final String query, final int threads) {
+        return "(# exist:parallel threads=" + threads + " #) { " + query + " }";
+    }
+
+    private int count(final String query) throws Exception {
+        return Integer.parseInt(execute("count(" + query + ")").trim());
+    }
+
+    /**
+     * Executes a query with a namespace and a variable which are declared by the caller instead of the prolog.
+     */
+    private String execute(final String query, final int factor) throws Exception {
+        return execute(query, factor, -1);
+    }
+
+    private String execute(final String query, final int factor, final long timeout) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final XQueryContext context = new XQueryContext(pool);
+            context.declareNamespace("t", "urn:test");
+            context.declareVariable("factor", factor);
+            final CompiledXQuery compiled = xquery.compile(broker, context, new StringSource(query));
+            if (timeout > 0) {
+                context.getWatchDog().setTimeout(timeout);
+            }
+            try {
+                final Sequence result = xquery.execute(broker, compiled, null);
+                final StringBuilder buf = new StringBuilder();
+                for (int i = 0; i < result.getItemCount(); i++) {
+                    buf.append(result.itemAt(i).getStringValue()).append(' ');
+                }
+                return buf.toString();
+            } finally {
+                context.runCleanupTasks();
+            }
+        }
+    }
+
+    private String execute(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final Sequence result = xquery.execute(broker, query, null);
+            final StringBuilder buf = new StringBuilder();
+            for (int i = 0; i < result.getItemCount(); i++) {
+                buf.append(result.itemAt(i).getStringValue()).append(' ');
+            }
+            return buf.toString();
+        }
+    }
+}